@@ -52,6 +52,27 @@ public class ExecutionResult implements Iterable<Map<String,Object>>
         return inner.javaIterator();
     }
 
+    /**
+     * Describes the pipes the query is executed through, one per line, in the
+     * order rows flow through them.
+     * @return the execution plan of this result
+     */
+    public String executionPlanDescription()
+    {
+        return inner.executionPlan();
+    }
+
+    /**
+     * Releases the temporary files that rows of this result may have been
+     * spilled to. It's done automatically once an iterator of the result has
+     * been read to the end, so this is only needed for results that are
+     * abandoned before that.
+     */
+    public void close()
+    {
+        inner.close();
+    }
+
     @Override
     public String toString()
     {
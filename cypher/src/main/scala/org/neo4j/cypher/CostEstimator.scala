@@ -0,0 +1,97 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.cypher
+
+import commands._
+import org.neo4j.graphdb.index.IndexHits
+import org.neo4j.graphdb.{PropertyContainer, GraphDatabaseService, Node}
+import scala.collection.JavaConverters._
+import collection.mutable.ListBuffer
+
+/**
+ * How many rows a start item is expected to produce, and how many relationships each
+ * of its nodes has on average.
+ */
+case class Estimate(rows: Long, degree: Double)
+
+/**
+ * Estimates the cost of start items, so that the planner can choose in which order to
+ * evaluate them. The hits of index lookups are counted up to MAX_COUNTED_HITS, rather than
+ * asked for their size, which some indexes can only tell by going through all of them. The
+ * degree of the start nodes is sampled from the first few of them.
+ */
+class CostEstimator(graph: GraphDatabaseService) {
+  val DEGREE_SAMPLE_SIZE = 10
+  val MAX_COUNTED_DEGREE = 1000
+  val MAX_COUNTED_HITS = 1000
+
+  def estimate(item: StartItem, params: Map[String, Any]): Estimate = item match {
+    case NodeById(varName, value) => {
+      val ids = asSeq(value(params))
+      Estimate(ids.size, degreeOf(ids.take(DEGREE_SAMPLE_SIZE).map(toNode)))
+    }
+    case RelationshipById(varName, value) => Estimate(asSeq(value(params)).size, 1)
+    case NodeByIndex(varName, idxName, key, value) =>
+      fromHits(graph.index.forNodes(idxName).get(key(params).toString, value(params)))
+    case NodeByIndexQuery(varName, idxName, query) =>
+      fromHits(graph.index.forNodes(idxName).query(query(params)))
+    case RelationshipByIndex(varName, idxName, key, value) =>
+      fromHits(graph.index.forRelationships(idxName).get(key(params).toString, value(params)))
+    case RelationshipByIndexQuery(varName, idxName, query) =>
+      fromHits(graph.index.forRelationships(idxName).query(query(params)))
+  }
+
+  private def fromHits[T <: PropertyContainer](hits: IndexHits[T]): Estimate = {
+    try {
+      val iterable: java.lang.Iterable[T] = hits
+      val sample = ListBuffer[Node]()
+      var rows = 0L
+      iterable.asScala.iterator.take(MAX_COUNTED_HITS).foreach(entity => {
+        rows += 1
+        entity match {
+          case node: Node if sample.size < DEGREE_SAMPLE_SIZE => sample += node
+          case _ =>
+        }
+      })
+      Estimate(rows, if (sample.isEmpty) 1 else degreeOf(sample))
+    } finally {
+      hits.close()
+    }
+  }
+
+  private def degreeOf(nodes: Seq[Node]): Double = if (nodes.isEmpty)
+    0
+  else
+    nodes.map(_.getRelationships.asScala.take(MAX_COUNTED_DEGREE).size).sum.toDouble / nodes.size
+
+  private def asSeq(data: Any): Seq[Any] = data match {
+    case result: java.lang.Iterable[_] => result.asScala.toSeq
+    case result: Seq[_] => result
+    case x => Seq(x)
+  }
+
+  private def toNode(x: Any): Node = x match {
+    case i: Int => graph.getNodeById(i)
+    case i: Long => graph.getNodeById(i)
+    case i: String => graph.getNodeById(i.toLong)
+    case node: Node => node
+    case x => throw new ParameterWrongTypeException("Expected a node or number here, but got: " + x.toString)
+  }
+}
@@ -21,32 +21,40 @@ package org.neo4j.cypher
 
 import commands._
 import parser.CypherParser
-import pipes._
 import scala.collection.JavaConverters._
 import org.neo4j.graphdb._
-import collection.Seq
-import java.lang.{Error, Iterable}
-import java.util.{Map => JavaMap}
+import event.{ErrorState, KernelEventHandler}
+import org.neo4j.kernel.AbstractGraphDatabase
+import java.lang.Error
+import java.lang.management.ManagementFactory
+import java.util.{Hashtable, IdentityHashMap, Map => JavaMap}
+import javax.management.{JMException, ObjectName}
 
 
-class ExecutionEngine(graph: GraphDatabaseService) {
+class ExecutionEngine(graph: GraphDatabaseService, queryCacheSize: Int, maxRowsInMemory: Int) {
   checkScalaVersion()
 
   require(graph != null, "Can't work with a null graph database")
 
+  def this(graph: GraphDatabaseService, queryCacheSize: Int) = this(graph, queryCacheSize, ExecutionEngine.DEFAULT_MAX_ROWS_IN_MEMORY)
+
+  def this(graph: GraphDatabaseService) = this(graph, ExecutionEngine.DEFAULT_QUERY_CACHE_SIZE)
+
   val parser = new CypherParser()
 
+  val queryCache: QueryCache[ExecutionPlan] = ExecutionEngine.queryCacheFor(graph, queryCacheSize)
+
   @throws(classOf[SyntaxException])
-  def execute(query: String): ExecutionResult = execute(parser.parse(query))
+  def execute(query: String): ExecutionResult = execute(query, Map[String, Any]())
 
   @throws(classOf[SyntaxException])
   def execute(query: String, params: Map[String, Any]): ExecutionResult = {
-    execute(parser.parse(query), params)
+    queryCache.getOrElseUpdate(query, new ExecutionPlan(parser.parse(query), graph)).execute(params, maxRowsInMemory)
   }
 
   @throws(classOf[SyntaxException])
   def execute(query: String, params: JavaMap[String, Any]): ExecutionResult = {
-    execute(parser.parse(query), params.asScala.toMap)
+    execute(query, params.asScala.toMap)
   }
 
   @throws(classOf[SyntaxException])
@@ -58,201 +66,87 @@ class ExecutionEngine(graph: GraphDatabaseService) {
 
 
   @throws(classOf[SyntaxException])
-  def execute(query: Query, params: Map[String, Any]): ExecutionResult = query match {
-    case Query(returns, start, matching, where, aggregation, sort, slice, namedPaths) => {
-
-      val clauses = where match {
-        case None => Seq()
-        case Some(w) => w.atoms
-      }
-
-      val paramPipe = new ParameterPipe(params)
-      val pipe = createSourcePumps(paramPipe, start.startItems.toList)
-
-      var context = new CurrentContext(pipe, clauses)
-      context = addFilters(context)
-
-      context = createMatchPipe(matching, namedPaths, context)
-
-      context.pipe = createShortestPathPipe(context.pipe, matching, namedPaths)
-      context = addFilters(context)
-
-      namedPaths match {
-        case None =>
-        case Some(x) => x.paths.foreach(p => context.pipe = new NamedPathPipe(context.pipe, p))
-      }
-
-      if (context.clauses.nonEmpty) {
-        context.pipe = new FilterPipe(context.pipe, context.clauses.reduceLeft(_ ++ _))
-      }
-
-      val allReturnItems = extractReturnItems(returns, aggregation)
-
-      context.pipe = new TransformPipe(context.pipe, allReturnItems)
-
-      aggregation match {
-        case None =>
-        case Some(aggr) => {
-          context.pipe = new EagerAggregationPipe(context.pipe, returns.returnItems, aggr.aggregationItems)
-        }
-      }
-
-      createSortPipe(sort, allReturnItems, context)
-
-      slice match {
-        case None =>
-        case Some(x) => context.pipe = new SlicePipe(context.pipe, x.from, x.limit)
-      }
+  def execute(query: Query, params: Map[String, Any]): ExecutionResult = new ExecutionPlan(query, graph).execute(params, maxRowsInMemory)
 
-      val returnItems = returns.returnItems ++ aggregation.getOrElse(new Aggregation()).aggregationItems
-
-      val result = new ColumnFilterPipe(context.pipe, returnItems, returns.columns)
-
-      result
-    }
-  }
-
-  private def createShortestPathPipe(source: Pipe, matching: Option[Match], namedPaths: Option[NamedPaths]): Pipe = {
-    val unnamedShortestPaths = matching match {
-      case Some(m) => m.patterns.filter(_.isInstanceOf[ShortestPath]).map(_.asInstanceOf[ShortestPath])
-      case None => Seq()
-    }
-
-    val namedShortestPaths = namedPaths match {
-      case Some(m) => m.paths.flatMap(_.pathPattern).filter(_.isInstanceOf[ShortestPath]).map(_.asInstanceOf[ShortestPath])
-      case None => Seq()
-    }
-
-    val shortestPaths = unnamedShortestPaths ++ namedShortestPaths
-
-    var result = source
-    shortestPaths.foreach(p => result = new ShortestPathPipe(result, p))
-    result
-
-  }
-
-  private def createMatchPipe(unnamedPaths: Option[Match], namedPaths: Option[NamedPaths], context: CurrentContext): CurrentContext = {
-    val namedPattern = namedPaths match {
-      case Some(m) => m.paths.flatten
-      case None => Seq()
-    }
-
-    val unnamedPattern = unnamedPaths match {
-      case Some(m) => m.patterns
-      case None => Seq()
-    }
-
-    (unnamedPattern ++ namedPattern) match {
-      case Seq() =>
-      case x => context.pipe = new MatchPipe(context.pipe, x, context.clauses)
-    }
-
-    context
-  }
-
-  private def createSourcePumps(pipe: Pipe, items: List[StartItem]): Pipe = {
-    items match {
-      case head :: tail => createSourcePumps(createStartPipe(pipe, head), tail)
-      case Seq() => pipe
+  def checkScalaVersion() {
+    if (util.Properties.versionString.matches("^version 2.9.0")) {
+      throw new Error("Cypher can only run with Scala 2.9.0. It looks like the Scala version is: " +
+        util.Properties.versionString)
     }
   }
+}
 
-  private def extractReturnItems(returns: Return, aggregation: Option[Aggregation]): Seq[ReturnItem] = {
-    val aggregation1 = aggregation.getOrElse(new Aggregation())
-
-    val aggregationItems = aggregation1.aggregationItems.map(_.concreteReturnItem)
-
-    returns.returnItems ++ aggregationItems
-  }
-
-  private def createStartPipe(lastPipe: Pipe, item: StartItem): Pipe = item match {
-    case NodeByIndex(varName, idxName, key, value) =>
-      new NodeStartPipe(lastPipe, varName, m => {
-        val keyVal = key(m).toString
-        val valueVal = value(m)
-        val indexHits: Iterable[Node] = graph.index.forNodes(idxName).get(keyVal, valueVal)
-        indexHits.asScala
-      })
-
-    case RelationshipByIndex(varName, idxName, key, value) =>
-      new RelationshipStartPipe(lastPipe, varName, m => {
-        val keyVal = key(m).toString
-        val valueVal = value(m)
-        val indexHits: Iterable[Relationship] = graph.index.forRelationships(idxName).get(keyVal, valueVal)
-        indexHits.asScala
-      })
+object ExecutionEngine {
+  val DEFAULT_QUERY_CACHE_SIZE = 100
+
+  /*
+   * The number of rows sorting and aggregation may keep in memory, per query, before
+   * they start spilling rows to temporary files.
+   */
+  val DEFAULT_MAX_ROWS_IN_MEMORY = 100000
+
+  val QUERY_CACHE_BEAN_NAME = "Cypher query cache"
+
+  /*
+   * One cache per database, shared by all its engines, since engines are
+   * often created for a single query. It holds as many queries as the largest
+   * size any of those engines was created with. The cache is registered with
+   * the platform MBean server next to the kernel beans, and dropped when the
+   * database shuts down.
+   */
+  private val caches = new IdentityHashMap[GraphDatabaseService, QueryCache[ExecutionPlan]]
+
+  private def queryCacheFor(graph: GraphDatabaseService, maxSize: Int): QueryCache[ExecutionPlan] = caches.synchronized {
+    val existing = caches.get(graph)
+    if (existing != null) {
+      existing.growTo(maxSize)
+      existing
+    } else {
+      val cache = new QueryCache[ExecutionPlan](maxSize)
+      caches.put(graph, cache)
+      val name = objectName(graph)
+      register(cache, name)
+      graph.registerKernelEventHandler(new KernelEventHandler {
+        def beforeShutdown() {
+          caches.synchronized(caches.remove(graph))
+          unregister(name)
+        }
 
-    case NodeByIndexQuery(varName, idxName, query) =>
-      new NodeStartPipe(lastPipe, varName, m => {
-        val queryText = query(m)
-        val indexHits: Iterable[Node] = graph.index.forNodes(idxName).query(queryText)
-        indexHits.asScala
-      })
+        def kernelPanic(error: ErrorState) {}
 
-    case NodeById(varName, valueGenerator) => new NodeStartPipe(lastPipe, varName, m => makeNodes[Node](valueGenerator(m), varName, graph.getNodeById))
-    case RelationshipById(varName, id) => new RelationshipStartPipe(lastPipe, varName, m => makeNodes[Relationship](id(m), varName, graph.getRelationshipById))
-  }
+        def getResource: AnyRef = null
 
-  private def addFilters(context: CurrentContext): CurrentContext = {
-    if (context.clauses.isEmpty) {
-      context
-    }
-    else {
-      val keys = context.pipe.symbols.identifiers.map(_.name)
-      val matchingClauses = context.clauses.filter(x => {
-        val unsatisfiedDependencies = x.dependsOn.filterNot(keys contains)
-        unsatisfiedDependencies.isEmpty
+        def orderComparedTo(other: KernelEventHandler) = KernelEventHandler.ExecutionOrder.DOESNT_MATTER
       })
-      if (matchingClauses.isEmpty) {
-        context
-      }
-      else {
-        val filterClause = matchingClauses.reduceLeft(_ ++ _)
-        val p = new FilterPipe(context.pipe, filterClause)
-
-        new CurrentContext(p, context.clauses.filterNot(matchingClauses contains))
-      }
+      cache
     }
   }
 
-  private def createSortPipe(sort: Option[Sort], allReturnItems: Seq[ReturnItem], context: CurrentContext) {
-    sort match {
-      case None =>
-      case Some(s) => {
-
-        val sortItems = s.sortItems.map(_.returnItem.concreteReturnItem).filterNot(allReturnItems.contains)
-        if (sortItems.nonEmpty) {
-          context.pipe = new TransformPipe(context.pipe, sortItems)
-        }
-        context.pipe = new SortPipe(context.pipe, s.sortItems.toList)
-      }
+  private def objectName(graph: GraphDatabaseService): ObjectName = {
+    val instance = graph match {
+      case db: AbstractGraphDatabase => db.getKernelData.instanceId
+      case _ => Integer.toHexString(System.identityHashCode(graph))
     }
+    val properties = new Hashtable[String, String]()
+    properties.put("instance", "kernel#" + instance)
+    properties.put("name", QUERY_CACHE_BEAN_NAME)
+    new ObjectName("org.neo4j", properties)
   }
 
-  def checkScalaVersion() {
-    if (util.Properties.versionString.matches("^version 2.9.0")) {
-      throw new Error("Cypher can only run with Scala 2.9.0. It looks like the Scala version is: " +
-        util.Properties.versionString)
+  // Monitoring is optional, the cache works the same without it
+  private def register(cache: QueryCache[_], name: ObjectName) {
+    try {
+      ManagementFactory.getPlatformMBeanServer.registerMBean(cache, name)
+    } catch {
+      case e: JMException =>
     }
   }
 
-  private def makeNodes[T](data: Any, name: String, getElement: Long => T): Seq[T] = {
-    def castElement(x: Any): T = x match {
-      case i: Int => getElement(i)
-      case i: Long => getElement(i)
-      case i: String => getElement(i.toLong)
-      case element: T => element
-    }
-
-    data match {
-      case result: Int => Seq(getElement(result))
-      case result: Long => Seq(getElement(result))
-      case result: java.lang.Iterable[_] => result.asScala.map(castElement).toSeq
-      case result: Seq[_] => result.map(castElement).toSeq
-      case element: PropertyContainer => Seq(element.asInstanceOf[T])
-      case x => throw new ParameterWrongTypeException("Expected a propertycontainer or number here, but got: " + x.toString)
+  private def unregister(name: ObjectName) {
+    try {
+      ManagementFactory.getPlatformMBeanServer.unregisterMBean(name)
+    } catch {
+      case e: JMException =>
     }
   }
 }
-
-private class CurrentContext(var pipe: Pipe, var clauses: Seq[Clause])
\ No newline at end of file
@@ -0,0 +1,305 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.cypher
+
+import commands._
+import pipes._
+import scala.collection.JavaConverters._
+import org.neo4j.graphdb._
+import collection.Seq
+import java.lang.Iterable
+
+/**
+ * A query made ready for execution. Everything that doesn't depend on the
+ * parameters is worked out once, so that a plan can be kept and executed
+ * again. The order of the start items is planned at the first execution and
+ * kept as well. The pipes themselves carry the parameters and the state of
+ * one execution, and are created anew every time.
+ */
+class ExecutionPlan(val query: Query, graph: GraphDatabaseService) {
+  private val Query(returns, start, matching, where, aggregation, sort, slice, namedPaths) = query
+
+  private val clauses: Seq[Clause] = where match {
+    case None => Seq()
+    case Some(w) => w.atoms
+  }
+
+  private val startItems = start.startItems.toList
+
+  private val allReturnItems = extractReturnItems(returns, aggregation)
+
+  private val returnItems = returns.returnItems ++ aggregation.getOrElse(new Aggregation()).aggregationItems
+
+  @volatile private var plannedStartItems: (List[StartItem], List[NodeStartItem]) = null
+
+  def execute(params: Map[String, Any], maxRowsInMemory: Int = ExecutionEngine.DEFAULT_MAX_ROWS_IN_MEMORY): ExecutionResult = {
+    val paramPipe = new ParameterPipe(params)
+    val spill = new SpillContext
+    val (nestedItems, joinedItems) = startItemsPlannedFor(params)
+    val pipe = createSourcePumps(paramPipe, nestedItems)
+
+    var context = new CurrentContext(pipe, clauses)
+    context = addFilters(context)
+
+    context = createMatchPipe(matching, namedPaths, context)
+    joinedItems.foreach(item => context.pipe = new HashJoinPipe(context.pipe, item.variable, nodeSource(item)))
+
+    context.pipe = createShortestPathPipe(context.pipe, matching, namedPaths)
+    context = addFilters(context)
+
+    namedPaths match {
+      case None =>
+      case Some(x) => x.paths.foreach(p => context.pipe = new NamedPathPipe(context.pipe, p))
+    }
+
+    if (context.clauses.nonEmpty) {
+      context.pipe = new FilterPipe(context.pipe, context.clauses.reduceLeft(_ ++ _))
+    }
+
+    context.pipe = new TransformPipe(context.pipe, allReturnItems)
+
+    aggregation match {
+      case None =>
+      case Some(aggr) => {
+        context.pipe = new EagerAggregationPipe(context.pipe, returns.returnItems, aggr.aggregationItems, maxRowsInMemory, spill)
+      }
+    }
+
+    createSortPipe(sort, slice, allReturnItems, context, maxRowsInMemory, spill)
+
+    slice match {
+      case None =>
+      case Some(x) => context.pipe = new SlicePipe(context.pipe, x.from, x.limit)
+    }
+
+    new ColumnFilterPipe(context.pipe, returnItems, returns.columns, spill)
+  }
+
+  private def createShortestPathPipe(source: Pipe, matching: Option[Match], namedPaths: Option[NamedPaths]): Pipe = {
+    val unnamedShortestPaths = matching match {
+      case Some(m) => m.patterns.filter(_.isInstanceOf[ShortestPath]).map(_.asInstanceOf[ShortestPath])
+      case None => Seq()
+    }
+
+    val namedShortestPaths = namedPaths match {
+      case Some(m) => m.paths.flatMap(_.pathPattern).filter(_.isInstanceOf[ShortestPath]).map(_.asInstanceOf[ShortestPath])
+      case None => Seq()
+    }
+
+    val shortestPaths = unnamedShortestPaths ++ namedShortestPaths
+
+    var result = source
+    shortestPaths.foreach(p => result = new ShortestPathPipe(result, p))
+    result
+
+  }
+
+  private def createMatchPipe(unnamedPaths: Option[Match], namedPaths: Option[NamedPaths], context: CurrentContext): CurrentContext = {
+    val namedPattern = namedPaths match {
+      case Some(m) => m.paths.flatten
+      case None => Seq()
+    }
+
+    val unnamedPattern = unnamedPaths match {
+      case Some(m) => m.patterns
+      case None => Seq()
+    }
+
+    (unnamedPattern ++ namedPattern) match {
+      case Seq() =>
+      case x => context.pipe = new MatchPipe(context.pipe, x, context.clauses)
+    }
+
+    context
+  }
+
+  /*
+  Estimating the start items runs their index lookups, which would cost as much as the lookups
+  of the query itself, so it's only done for the first execution. Later executions use the same
+  plan, even if their parameters would make another order cheaper. Since every parameter a
+  start item refers to has to be given, they can't differ in which ones are bound.
+  */
+  private def startItemsPlannedFor(params: Map[String, Any]): (List[StartItem], List[NodeStartItem]) = {
+    var planned = plannedStartItems
+    if (planned == null) {
+      planned = planStartItems(params)
+      plannedStartItems = planned
+    }
+    planned
+  }
+
+  /*
+  Start items are evaluated as nested loops: the first one once, and every other one once
+  for each row produced by the ones before it. The items expected to produce the fewest
+  rows therefore go first.
+
+  A node start item that the pattern relates to an item already placed can instead be
+  left for the pattern matcher to find, and hash joined with what the item produces. The
+  matcher then expands from the items before it only, instead of from every combination.
+  */
+  private def planStartItems(params: Map[String, Any]): (List[StartItem], List[NodeStartItem]) = {
+    if (startItems.size < 2) {
+      return (startItems, List())
+    }
+
+    val estimator = new CostEstimator(graph)
+    val estimates: Map[StartItem, Estimate] = startItems.map(item => item -> estimator.estimate(item, params)).toMap
+
+    var nested = List[StartItem]()
+    var joined = List[NodeStartItem]()
+    var rowsSoFar = 1.0
+
+    startItems.sortBy(estimates(_).rows).foreach(item => {
+      val estimate = estimates(item)
+      val related = nested.filter(other => isRelatedByPattern(other.variable, item.variable))
+      val expansion = if (related.isEmpty) 0 else related.map(estimates(_).degree).min
+
+      val nestedLoopCost = rowsSoFar * estimate.rows * (1 + expansion)
+      val hashJoinCost = rowsSoFar * (1 + expansion) + estimate.rows
+
+      item match {
+        case nodeItem: NodeStartItem if related.nonEmpty && hashJoinCost < nestedLoopCost => joined = joined :+ nodeItem
+        case _ => {
+          nested = nested :+ item
+          rowsSoFar = rowsSoFar * estimate.rows
+        }
+      }
+    })
+
+    (nested, joined)
+  }
+
+  private def isRelatedByPattern(a: String, b: String): Boolean = {
+    val patterns = matching.map(_.patterns).getOrElse(Seq()) ++ namedPaths.map(_.paths.flatten).getOrElse(Seq())
+
+    patterns.exists(_ match {
+      case RelatedTo(left, right, _, _, _, false) => (left == a && right == b) || (left == b && right == a)
+      case _ => false
+    })
+  }
+
+  private def createSourcePumps(pipe: Pipe, items: List[StartItem]): Pipe = {
+    items match {
+      case head :: tail => createSourcePumps(createStartPipe(pipe, head), tail)
+      case Seq() => pipe
+    }
+  }
+
+  private def extractReturnItems(returns: Return, aggregation: Option[Aggregation]): Seq[ReturnItem] = {
+    val aggregation1 = aggregation.getOrElse(new Aggregation())
+
+    val aggregationItems = aggregation1.aggregationItems.map(_.concreteReturnItem)
+
+    returns.returnItems ++ aggregationItems
+  }
+
+  private def createStartPipe(lastPipe: Pipe, item: StartItem): Pipe = item match {
+    case nodeItem: NodeStartItem => new NodeStartPipe(lastPipe, nodeItem.variable, nodeSource(nodeItem))
+
+    case RelationshipByIndex(varName, idxName, key, value) =>
+      new RelationshipStartPipe(lastPipe, varName, m => {
+        val keyVal = key(m).toString
+        val valueVal = value(m)
+        val indexHits: Iterable[Relationship] = graph.index.forRelationships(idxName).get(keyVal, valueVal)
+        indexHits.asScala
+      })
+
+    case RelationshipById(varName, id) => new RelationshipStartPipe(lastPipe, varName, m => makeNodes[Relationship](id(m), varName, graph.getRelationshipById))
+  }
+
+  private def nodeSource(item: NodeStartItem): Map[String, Any] => scala.collection.Iterable[Node] = item match {
+    case NodeByIndex(varName, idxName, key, value) =>
+      (m: Map[String, Any]) => {
+        val keyVal = key(m).toString
+        val valueVal = value(m)
+        val indexHits: Iterable[Node] = graph.index.forNodes(idxName).get(keyVal, valueVal)
+        indexHits.asScala
+      }
+
+    case NodeByIndexQuery(varName, idxName, query) =>
+      (m: Map[String, Any]) => {
+        val queryText = query(m)
+        val indexHits: Iterable[Node] = graph.index.forNodes(idxName).query(queryText)
+        indexHits.asScala
+      }
+
+    case NodeById(varName, valueGenerator) => (m: Map[String, Any]) => makeNodes[Node](valueGenerator(m), varName, graph.getNodeById)
+  }
+
+  private def addFilters(context: CurrentContext): CurrentContext = {
+    if (context.clauses.isEmpty) {
+      context
+    }
+    else {
+      val keys = context.pipe.symbols.identifiers.map(_.name)
+      val matchingClauses = context.clauses.filter(x => {
+        val unsatisfiedDependencies = x.dependsOn.filterNot(keys contains)
+        unsatisfiedDependencies.isEmpty
+      })
+      if (matchingClauses.isEmpty) {
+        context
+      }
+      else {
+        val filterClause = matchingClauses.reduceLeft(_ ++ _)
+        val p = new FilterPipe(context.pipe, filterClause)
+
+        new CurrentContext(p, context.clauses.filterNot(matchingClauses contains))
+      }
+    }
+  }
+
+  private def createSortPipe(sort: Option[Sort], slice: Option[Slice], allReturnItems: Seq[ReturnItem], context: CurrentContext, maxRowsInMemory: Int, spill: SpillContext) {
+    sort match {
+      case None =>
+      case Some(s) => {
+
+        val sortItems = s.sortItems.map(_.returnItem.concreteReturnItem).filterNot(allReturnItems.contains)
+        if (sortItems.nonEmpty) {
+          context.pipe = new TransformPipe(context.pipe, sortItems)
+        }
+        // With a limit, only the rows that will be returned need to be kept while sorting
+        context.pipe = slice match {
+          case Some(Slice(skip, Some(limit))) => new TopPipe(context.pipe, s.sortItems.toList, skip, limit, maxRowsInMemory, spill)
+          case _ => new SortPipe(context.pipe, s.sortItems.toList, maxRowsInMemory, spill)
+        }
+      }
+    }
+  }
+
+  private def makeNodes[T](data: Any, name: String, getElement: Long => T): Seq[T] = {
+    def castElement(x: Any): T = x match {
+      case i: Int => getElement(i)
+      case i: Long => getElement(i)
+      case i: String => getElement(i.toLong)
+      case element: T => element
+    }
+
+    data match {
+      case result: Int => Seq(getElement(result))
+      case result: Long => Seq(getElement(result))
+      case result: java.lang.Iterable[_] => result.asScala.map(castElement).toSeq
+      case result: Seq[_] => result.map(castElement).toSeq
+      case element: PropertyContainer => Seq(element.asInstanceOf[T])
+      case x => throw new ParameterWrongTypeException("Expected a propertycontainer or number here, but got: " + x.toString)
+    }
+  }
+}
+
+private class CurrentContext(var pipe: Pipe, var clauses: Seq[Clause])
\ No newline at end of file
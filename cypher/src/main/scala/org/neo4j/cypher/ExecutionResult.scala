@@ -33,13 +33,32 @@ trait ExecutionResult extends Traversable[Map[String, Any]] with StringExtras {
 
   def javaColumns: java.util.List[String] = columns.asJava
 
+  /**
+   * Executes the query lazily - rows are produced one at a time, as the
+   * returned iterator is consumed.
+   */
+  def createResults(): Iterator[Map[String, Any]]
+
+  /**
+   * Describes how the query is executed, without executing it.
+   */
+  def executionPlan(): String
+
+  /**
+   * Releases the temporary files that rows may have been spilled to. This happens by itself when
+   * an iterator of this result has been read to the end or has failed, but a result that is
+   * abandoned before that should be closed. Iterators of the result that are still being read
+   * can't be read any further afterwards.
+   */
+  def close() {}
+
   def javaColumnAs[T](column: String) = columnAs[T](column).map(x => makeValueJavaCompatible(x).asInstanceOf[T]).asJava
 
   def columnAs[T](column: String): Iterator[T] = {
-    this.map(m => {
+    createResults().map(m => {
       val item: Any = m.getOrElse(column, throw new NotFoundException("No column named '" + column + "' was found."))
       item.asInstanceOf[T]
-    }).toIterator
+    })
   }
 
   def makeValueJavaCompatible(value: Any): Any = value match {
@@ -47,9 +66,9 @@ trait ExecutionResult extends Traversable[Map[String, Any]] with StringExtras {
     case x => x
   }
 
-  def javaIterator: java.util.Iterator[java.util.Map[String, Any]] = this.map(m => {
+  def javaIterator: java.util.Iterator[java.util.Map[String, Any]] = createResults().map(m => {
     m.map(kv => kv._1 -> makeValueJavaCompatible(kv._2)).asJava
-  }).toIterator.asJava
+  }).asJava
 
   def calculateColumnSizes(result: Seq[Map[String, Any]]): Map[String, Int] = {
     val columnSizes = new scala.collection.mutable.HashMap[String, Int] ++ columns.map(name => name -> name.size)
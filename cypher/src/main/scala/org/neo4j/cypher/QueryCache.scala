@@ -0,0 +1,100 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.cypher
+
+import java.util.{LinkedHashMap, Map => JavaMap}
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Management interface of a QueryCache, a standard MBean.
+ */
+trait QueryCacheMBean {
+  def getSize: Int
+
+  def getMaxSize: Int
+
+  def getHits: Long
+
+  def getMisses: Long
+
+  def clear()
+}
+
+/**
+ * Keeps the most recently used queries, keyed by their query text, so that
+ * the same query doesn't have to be parsed and planned every time it's run.
+ * Parameterized queries are what makes this pay off, since their text stays
+ * the same between executions.
+ */
+class QueryCache[T <: AnyRef](initialMaxSize: Int) extends QueryCacheMBean {
+  require(initialMaxSize > 0, "The query cache must be able to hold at least one query")
+
+  @volatile private var maxSize = initialMaxSize
+
+  private val hits = new AtomicLong
+  private val misses = new AtomicLong
+
+  private val entries = new LinkedHashMap[String, T](16, 0.75f, true) {
+    override def removeEldestEntry(eldest: JavaMap.Entry[String, T]) = size() > maxSize
+  }
+
+  /**
+   * Returns the cached value for the query, or creates and caches it. The
+   * value is created outside of the lock, so two threads missing on the same
+   * query at the same time may both create it.
+   */
+  def getOrElseUpdate(query: String, create: => T): T = {
+    val cached = entries.synchronized(entries.get(query))
+    if (cached != null) {
+      hits.incrementAndGet()
+      cached
+    } else {
+      misses.incrementAndGet()
+      val created = create
+      entries.synchronized(entries.put(query, created))
+      created
+    }
+  }
+
+  def getSize: Int = entries.synchronized(entries.size())
+
+  def getMaxSize: Int = maxSize
+
+  /**
+   * Raises the number of queries this cache holds to maxSize, unless it
+   * already holds at least that many. A cache is never shrunk, since others
+   * sharing it may depend on its size.
+   */
+  def growTo(maxSize: Int) {
+    entries.synchronized {
+      if (maxSize > this.maxSize) {
+        this.maxSize = maxSize
+      }
+    }
+  }
+
+  def getHits: Long = hits.get()
+
+  def getMisses: Long = misses.get()
+
+  def clear() {
+    entries.synchronized(entries.clear())
+  }
+}
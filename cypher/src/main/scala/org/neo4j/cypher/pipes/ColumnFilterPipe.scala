@@ -22,7 +22,12 @@ package org.neo4j.cypher.pipes
 import org.neo4j.cypher.commands.ReturnItem
 import org.neo4j.cypher.{ExecutionResult, SyntaxException, SymbolTable}
 
-class ColumnFilterPipe(source: Pipe, returnItems: Seq[ReturnItem], val columns:List[String]) extends Pipe with ExecutionResult {
+/**
+ * The last pipe of a query, and its result. Every result iterator gets its own spill files for
+ * the pipes before it to spill rows to. They are closed as soon as that iterator has been read
+ * to the end or has failed, and the files of all iterators are closed when the result is closed.
+ */
+class ColumnFilterPipe(source: Pipe, returnItems: Seq[ReturnItem], val columns:List[String], spill: SpillContext = new SpillContext) extends Pipe with ExecutionResult {
 
   val returnItemNames = returnItems.map( _.columnName )
 
@@ -31,12 +36,35 @@ class ColumnFilterPipe(source: Pipe, returnItems: Seq[ReturnItem], val columns:L
     new SymbolTable(returnItemNames.map( name => mergedSymbols.get(name).getOrElse(throw new SyntaxException("Unbound Symbol "+name))))
   }
 
-  def foreach[U](f: (Map[String, Any]) => U) {
-    source.foreach(row => {
-      val filtered = row.filter((kv) => kv match {
-        case (name, _) => returnItemNames.exists(_ == name)
-      })
-      f.apply(filtered)
+  def createResults(): Iterator[Map[String, Any]] = new Iterator[Map[String, Any]] {
+    private val spillFiles = new SpillFiles
+    private val rows = closingOnFailure(spill.createResults(source, spillFiles))
+
+    def hasNext = closingOnFailure {
+      val more = rows.hasNext
+      if (!more) {
+        spill.close(spillFiles)
+      }
+      more
+    }
+
+    def next(): Map[String, Any] = closingOnFailure(rows.next()).filter((kv) => kv match {
+      case (name, _) => returnItemNames.exists(_ == name)
     })
+
+    private def closingOnFailure[T](f: => T): T = try {
+      f
+    } catch {
+      case e: Throwable => {
+        spill.close(spillFiles)
+        throw e
+      }
+    }
+  }
+
+  override def close() {
+    spill.closeAll()
   }
+
+  def executionPlan(): String = source.executionPlan() + "\nColumnFilter(" + columns.mkString(", ") + ")"
 }
\ No newline at end of file
@@ -22,12 +22,17 @@ package org.neo4j.cypher.pipes
 import aggregation.AggregationFunction
 import collection.Seq
 import org.neo4j.cypher.commands.{Identifier, AggregationItem, ReturnItem}
-import org.neo4j.cypher.{SyntaxException, SymbolTable}
+import org.neo4j.cypher.{ExecutionEngine, SyntaxException, SymbolTable}
 
 // Eager aggregation means that this pipe will eagerly load the whole resulting subgraphs before starting
 // to emit aggregated results.
 // Cypher is lazy until it has to - this pipe makes stops the lazyness
-class EagerAggregationPipe(source: Pipe, returnItems: Seq[ReturnItem], aggregations: Seq[AggregationItem]) extends Pipe {
+//
+// At most maxGroupsInMemory groups are aggregated at a time. Rows belonging to other groups are
+// spilled to disk, in a file created in the spill files of the result iterator being created, and
+// aggregated in another pass once the groups in memory have been emitted.
+class EagerAggregationPipe(source: Pipe, returnItems: Seq[ReturnItem], aggregations: Seq[AggregationItem], maxGroupsInMemory: Int = ExecutionEngine.DEFAULT_MAX_ROWS_IN_MEMORY,
+                           spill: SpillContext = new SpillContext) extends Pipe {
   val symbols: SymbolTable = createSymbols()
 
   def createSymbols() = {
@@ -38,23 +43,52 @@ class EagerAggregationPipe(source: Pipe, returnItems: Seq[ReturnItem], aggregati
 
   aggregations.foreach(_.assertDependencies(source))
 
-  def foreach[U](f: Map[String, Any] => U) {
+  def createResults(): Iterator[Map[String, Any]] = {
+    val spillFiles = spill.files
+    aggregate(source.createResults(), spillFiles)
+  }
+
+  private def aggregate(rows: Iterator[Map[String, Any]], spillFiles: SpillFiles): Iterator[Map[String, Any]] = {
     // This is the temporary storage used while the aggregation is going on
     val result = collection.mutable.Map[Seq[Any], Seq[AggregationFunction]]()
     val keyNames = returnItems.map(_.columnName)
     val aggregationNames = aggregations.map(_.identifier.name)
+    var overflow: SpillFile = null
 
-    source.foreach(m => {
+    rows.foreach(m => {
       val groupValues = keyNames.map(m(_))
-      val functions = result.getOrElseUpdate(groupValues, aggregations.map(_.createAggregationFunction))
-      functions.foreach(func => func(m))
+      result.get(groupValues) match {
+        case Some(functions) => functions.foreach(func => func(m))
+        case None if result.size < maxGroupsInMemory => {
+          val functions = aggregations.map(_.createAggregationFunction)
+          result(groupValues) = functions
+          functions.foreach(func => func(m))
+        }
+        case None => {
+          if (overflow == null) {
+            overflow = spillFiles.create()
+          }
+          overflow.write(m)
+        }
+      }
     })
 
-    result.foreach {
+    val aggregated = result.iterator.map {
       case (key, value: Seq[AggregationFunction]) => {
         val elems = keyNames.zip(key) ++ aggregationNames.zip(value.map(_.result))
-        f(elems.toMap)
+        elems.toMap
       }
     }
+
+    if (overflow == null)
+      aggregated
+    else
+      aggregated ++ {
+        result.clear()
+        aggregate(overflow.rows(), spillFiles)
+      }
   }
+
+  def executionPlan(): String = source.executionPlan() + "\nEagerAggregation(keys: " + returnItems.map(_.columnName).mkString(", ") +
+    "; aggregates: " + aggregations.map(_.columnName).mkString(", ") + ")"
 }
\ No newline at end of file
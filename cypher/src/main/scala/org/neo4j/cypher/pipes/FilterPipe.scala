@@ -26,9 +26,11 @@ import java.lang.String
 class FilterPipe(source: Pipe, where: Clause) extends Pipe {
   val symbols: SymbolTable = source.symbols
 
-  def foreach[U](f: (Map[String, Any]) => U) {
-    source.filter((row) => {
+  def createResults(): Iterator[Map[String, Any]] = {
+    source.createResults().filter((row) => {
       where.isMatch(row)
-    }).foreach(f)
+    })
   }
+
+  def executionPlan(): String = source.executionPlan() + "\nFilter(" + where + ")"
 }
\ No newline at end of file
@@ -0,0 +1,46 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.cypher.pipes
+
+import org.neo4j.cypher.SymbolTable
+import org.neo4j.graphdb.PropertyContainer
+
+/**
+ * Keeps the rows whose entity under name is one of those produced by a start item. The
+ * start item is evaluated once, into a hash table, instead of once for every row as a
+ * nested StartPipe would. A row is repeated as many times as the start item produces its
+ * entity, so the result is the same as that of the nested loop.
+ */
+class HashJoinPipe(source: Pipe, name: String, createSource: Map[String, Any] => Iterable[PropertyContainer]) extends Pipe {
+  val symbols: SymbolTable = source.symbols
+
+  def createResults(): Iterator[Map[String, Any]] = {
+    var table: Map[PropertyContainer, Int] = null
+
+    source.createResults().flatMap(row => {
+      if (table == null) {
+        table = createSource(row).groupBy(x => x).map(kv => kv._1 -> kv._2.size)
+      }
+      Iterator.fill(table.getOrElse(row(name).asInstanceOf[PropertyContainer], 0))(row)
+    })
+  }
+
+  def executionPlan(): String = source.executionPlan() + "\nHashJoin(" + name + ")"
+}
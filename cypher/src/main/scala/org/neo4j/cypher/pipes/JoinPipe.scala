@@ -25,11 +25,13 @@ import org.neo4j.cypher.SymbolTable
 class JoinPipe(a: Pipe, b: Pipe) extends Pipe {
   val symbols: SymbolTable = a.symbols ++ b.symbols
 
-  def foreach[U](f: (Map[String, Any]) => U) {
-    a.foreach((aMap) => {
-      b.foreach((bMap) => {
-        f.apply(aMap ++ bMap)
+  def createResults(): Iterator[Map[String, Any]] = {
+    a.createResults().flatMap((aMap) => {
+      b.createResults().map((bMap) => {
+        aMap ++ bMap
       })
     })
   }
+
+  def executionPlan(): String = a.executionPlan() + "\n" + b.executionPlan() + "\nNestedLoopJoin()"
 }
\ No newline at end of file
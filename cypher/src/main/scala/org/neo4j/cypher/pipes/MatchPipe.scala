@@ -32,9 +32,11 @@ class MatchPipe(source: Pipe, patterns: Seq[Pattern], predicates:Seq[Clause]) ex
     case _ => Seq()
   }))
 
-  def foreach[U](f: (Map[String, Any]) => U) {
-    source.foreach(sourcePipeRow => {
-      matchingContext.getMatches(sourcePipeRow).foreach(patternMatch => f(patternMatch ++ sourcePipeRow))
+  def createResults(): Iterator[Map[String, Any]] = {
+    source.createResults().flatMap(sourcePipeRow => {
+      matchingContext.getMatches(sourcePipeRow).map(patternMatch => patternMatch ++ sourcePipeRow)
     })
   }
+
+  def executionPlan(): String = source.executionPlan() + "\nPatternMatch(" + patterns.mkString(", ") + ")"
 }
\ No newline at end of file
@@ -34,9 +34,9 @@ class NamedPathPipe(source: Pipe, path: NamedPath) extends Pipe {
     firstNode
   }
 
-  def foreach[U](f: (Map[String, Any]) => U) {
+  def createResults(): Iterator[Map[String, Any]] = {
 
-    source.foreach(m => {
+    source.createResults().map(m => {
       def get(x: String): PropertyContainer = m(x).asInstanceOf[PropertyContainer]
 
       val firstNode: String = getFirstNode
@@ -47,7 +47,7 @@ class NamedPathPipe(source: Pipe, path: NamedPath) extends Pipe {
         case ShortestPath(pathName, _, _, _, _, _, _) => getPath(m, pathName, soFar)
       })
 
-      f(m + (path.pathName -> new PathImpl(p: _*)))
+      m + (path.pathName -> new PathImpl(p: _*))
     })
   }
 
@@ -63,4 +63,6 @@ class NamedPathPipe(source: Pipe, path: NamedPath) extends Pipe {
   }
 
   val symbols: SymbolTable = source.symbols.add(Seq(PathIdentifier(path.pathName)))
+
+  def executionPlan(): String = source.executionPlan() + "\nExtractPath(" + path.pathName + ")"
 }
\ No newline at end of file
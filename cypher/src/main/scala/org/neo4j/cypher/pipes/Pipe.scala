@@ -27,9 +27,29 @@ import org.neo4j.cypher.SymbolTable
  * wrap another pipe. StartPipes are the only exception to this.
  * Pipes are combined to form an execution plan, and when iterated over,
  * the execute the query.
+ *
+ * Rows are pulled through the pipes one at a time, so a pipe only does
+ * the work needed to produce the rows its consumer actually asks for.
  */
 abstract class Pipe extends Traversable[Map[String, Any]] {
 
   def ++(other: Pipe): Pipe = new JoinPipe(this, other)
   val symbols:SymbolTable
+
+  /**
+   * Creates a fresh, lazy iterator over the rows of this pipe. Every call
+   * executes the pipe again.
+   */
+  def createResults(): Iterator[Map[String, Any]]
+
+  def foreach[U](f: (Map[String, Any]) => U) {
+    createResults().foreach(f)
+  }
+
+  override def toIterator: Iterator[Map[String, Any]] = createResults()
+
+  /**
+   * Describes the pipes that make up this pipe, one per line, starting from the source.
+   */
+  def executionPlan(): String
 }
\ No newline at end of file
@@ -29,8 +29,8 @@ class ShortestPathPipe(source: Pipe, pipeName: String, startName: String, endNam
 
   def this(source:Pipe, ast:ShortestPath) = this(source, ast.pipeName, ast.startName, ast.endName, ast.relType, ast.dir, ast.maxDepth, ast.optional)
 
-  def foreach[U](f: (Map[String, Any]) => U) {
-    source.foreach(m => {
+  def createResults(): Iterator[Map[String, Any]] = {
+    source.createResults().flatMap(m => {
       val err = (n:String) => throw new SyntaxException("Shortest path needs both ends of the path to be provided. Couldn't find " + n)
 
       val start = m.getOrElse(startName, err(startName)).asInstanceOf[Node]
@@ -47,14 +47,16 @@ class ShortestPathPipe(source: Pipe, pipeName: String, startName: String, endNam
       val findSinglePath = finder.findSinglePath(start, end)
 
       (findSinglePath, optional) match {
-        case (null, true) => f(m ++ Map(pipeName -> null))
-        case (null, false) =>
-        case (path, _) => f(m ++ Map(pipeName -> path))
+        case (null, true) => Iterator.single(m ++ Map(pipeName -> null))
+        case (null, false) => Iterator.empty
+        case (path, _) => Iterator.single(m ++ Map(pipeName -> path))
       }
     })
   }
 
   val symbols: SymbolTable = source.symbols.add(PathIdentifier(pipeName))
+
+  def executionPlan(): String = source.executionPlan() + "\nShortestPath(" + pipeName + ")"
 }
 
 // My daughters wrote this when I left the laptop open 2011-09-22. Now it belongs here.
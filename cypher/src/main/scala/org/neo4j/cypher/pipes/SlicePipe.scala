@@ -25,22 +25,30 @@ import org.neo4j.cypher.commands.Value
 class SlicePipe(source:Pipe, skip:Option[Value], limit:Option[Value]) extends Pipe {
   val symbols: SymbolTable = source.symbols
 
-  //TODO: Make this nicer. I'm sure it's expensive and silly.
-  def foreach[U](f: (Map[String, Any]) => U) {
-    val first: Map[String, Any] = source.head
+  // Skip and limit are evaluated against the first row, which is peeked at without
+  // running the source a second time. Once the limit is reached no more rows are
+  // pulled from the source.
+  def createResults(): Iterator[Map[String, Any]] = {
+    val sourceResults = source.createResults().buffered
+
+    if (!sourceResults.hasNext) {
+      return sourceResults
+    }
+
+    val first: Map[String, Any] = sourceResults.head
 
     def asInt(v:Value)=v(first).asInstanceOf[Int]
 
-    val slicedResult = (skip, limit) match {
-      case (None, None) => source
-      case (Some(x), None) => source.drop(asInt(x))
-      case (None, Some(x)) => source.take(asInt(x))
+    (skip, limit) match {
+      case (None, None) => sourceResults
+      case (Some(x), None) => sourceResults.drop(asInt(x))
+      case (None, Some(x)) => sourceResults.take(asInt(x))
       case (Some(startAt), Some(count)) => {
         val start = asInt(startAt)
-        source.slice(start, start + asInt(count))
+        sourceResults.slice(start, start + asInt(count))
       }
     }
-
-    slicedResult.foreach(f)
   }
+
+  def executionPlan(): String = source.executionPlan() + "\nSlice(" + skip + ", " + limit + ")"
 }
\ No newline at end of file
@@ -21,17 +21,64 @@ package org.neo4j.cypher.pipes
 
 import scala.math.signum
 import org.neo4j.cypher.commands.SortItem
-import org.neo4j.cypher.{SyntaxException, Comparer, SymbolTable}
+import org.neo4j.cypher.{ExecutionEngine, SyntaxException, Comparer, SymbolTable}
+import collection.mutable.{ListBuffer, ArrayBuffer}
 
-class SortPipe(source: Pipe, sortDescription: List[SortItem]) extends Pipe with Comparer {
+/**
+ * Sorts the rows of its source. Rows are sorted in memory as long as there are no more
+ * than maxRowsInMemory of them. Beyond that, sorted runs of rows are spilled to disk and
+ * merged together again as the result is read. The runs are created in the spill files of the
+ * result iterator being created, which are closed when that iterator is done with.
+ */
+class SortPipe(source: Pipe, sortDescription: List[SortItem], maxRowsInMemory: Int = ExecutionEngine.DEFAULT_MAX_ROWS_IN_MEMORY,
+               spill: SpillContext = new SpillContext) extends Pipe with Comparer {
   val symbols: SymbolTable = source.symbols
 
   assertDependenciesAreMet()
 
-  def foreach[U](f: (Map[String, Any]) => U) {
-    val sorted = source.toList.sortWith((a, b) => compareBy(a, b, sortDescription))
+  def createResults(): Iterator[Map[String, Any]] = sorted(source.createResults())
+
+  protected def sorted(input: Iterator[Map[String, Any]]): Iterator[Map[String, Any]] = {
+    val spillFiles = spill.files
+    val runs = ListBuffer[SpillFile]()
+    val buffer = ArrayBuffer[Map[String, Any]]()
+
+    input.foreach(row => {
+      buffer += row
+      if (buffer.size >= maxRowsInMemory) {
+        val run = spillFiles.create()
+        sort(buffer).foreach(run.write)
+        runs += run
+        buffer.clear()
+      }
+    })
+
+    val inMemory = sort(buffer)
 
-    sorted.foreach(f)
+    if (runs.isEmpty)
+      inMemory.iterator
+    else
+      merge(runs.map(_.rows()) :+ inMemory.iterator)
+  }
+
+  private def sort(rows: Seq[Map[String, Any]]): Seq[Map[String, Any]] = rows.sortWith((a, b) => compareBy(a, b, sortDescription))
+
+  /*
+  Runs are given in the order their rows were read from the source. Of equal rows, the one
+  from the earliest run comes first, which keeps the sort stable.
+  */
+  private def merge(runs: Seq[Iterator[Map[String, Any]]]): Iterator[Map[String, Any]] = new Iterator[Map[String, Any]] {
+    val heads = runs.map(_.buffered)
+
+    def hasNext = heads.exists(_.hasNext)
+
+    def next(): Map[String, Any] = {
+      if (!hasNext) {
+        throw new NoSuchElementException
+      }
+
+      heads.filter(_.hasNext).reduceLeft((a, b) => if (compareBy(b.head, a.head, sortDescription)) b else a).next()
+    }
   }
 
   def compareBy(a: Map[String, Any], b: Map[String, Any], order: Seq[SortItem]): Boolean = order match {
@@ -51,4 +98,6 @@ class SortPipe(source: Pipe, sortDescription: List[SortItem]) extends Pipe with
   private def assertDependenciesAreMet() {
     sortDescription.map(_.returnItem.identifier).foreach( source.symbols.assertHas )
   }
+
+  def executionPlan(): String = source.executionPlan() + "\nSort(" + sortDescription.mkString(", ") + ")"
 }
\ No newline at end of file
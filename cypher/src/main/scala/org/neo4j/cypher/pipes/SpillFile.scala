@@ -0,0 +1,385 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.cypher.pipes
+
+import java.io._
+import java.nio.channels.{FileChannel, Channels}
+import org.neo4j.graphdb.{GraphDatabaseService, Path, PropertyContainer, Relationship, Node}
+import scala.collection.JavaConverters._
+import collection.mutable.ListBuffer
+import scala.util.DynamicVariable
+import org.neo4j.cypher.PathImpl
+
+/**
+ * The spill files of a query result, kept apart per result iterator. Pipes that spill take the
+ * SpillFiles of the iterator being created when their own createResults() is called, so that
+ * reading one iterator to the end only deletes the files that iterator created.
+ */
+class SpillContext {
+  private val current = new DynamicVariable[SpillFiles](null)
+  private val open = collection.mutable.Set[SpillFiles]()
+
+  /**
+   * The files of the iterator being created, or fresh files if the pipes are iterated
+   * directly rather than through createResults(source, files).
+   */
+  def files: SpillFiles = current.value match {
+    case null => register(new SpillFiles)
+    case files => files
+  }
+
+  /**
+   * Creates the rows of source with their spill files kept in files.
+   */
+  def createResults(source: Pipe, files: SpillFiles): Iterator[Map[String, Any]] =
+    current.withValue(register(files))(source.createResults())
+
+  /**
+   * Closes the files of one iterator.
+   */
+  def close(files: SpillFiles) {
+    synchronized {
+      open -= files
+    }
+    files.closeAll()
+  }
+
+  /**
+   * Closes the files of every iterator that is still open.
+   */
+  def closeAll() {
+    val all = synchronized {
+      val all = open.toList
+      open.clear()
+      all
+    }
+    all.foreach(_.closeAll())
+  }
+
+  private def register(files: SpillFiles): SpillFiles = {
+    synchronized {
+      open += files
+    }
+    files
+  }
+}
+
+/**
+ * The temporary files of one result iterator. Pipes create their spill files here, so that
+ * they can all be closed and deleted together once the iterator is done with, even if the
+ * rows in them were never read back.
+ */
+class SpillFiles {
+  private val open = collection.mutable.Set[SpillFile]()
+
+  def create(): SpillFile = {
+    val file = new SpillFile(this)
+    synchronized {
+      open += file
+    }
+    file
+  }
+
+  /**
+   * Closes and deletes every file that is still open. Rows can't be read from them after this.
+   */
+  def closeAll() {
+    val files = synchronized {
+      val files = open.toList
+      open.clear()
+      files
+    }
+    files.foreach(_.close())
+  }
+
+  private[pipes] def closed(file: SpillFile) {
+    synchronized {
+      open -= file
+    }
+  }
+}
+
+/**
+ * A temporary file that rows are written to, and later read back from once. It is used by
+ * pipes that would otherwise have to hold more rows in memory than they are allowed to.
+ *
+ * Values are encoded explicitly. Nodes, relationships and paths are written as ids, and looked
+ * up again when read back. Besides those, only nulls, property values, and lists and maps of
+ * such values can be written; anything else fails the write.
+ *
+ * The file is deleted when all rows have been read, or when the SpillFiles it was created in
+ * are closed, whichever comes first.
+ */
+class SpillFile private[pipes](owner: SpillFiles) {
+  import SpillFile._
+
+  private val file = File.createTempFile("cypher", ".spill")
+
+  private val channel: FileChannel = try {
+    new RandomAccessFile(file, "rw").getChannel
+  } catch {
+    case e: IOException => {
+      file.delete()
+      throw e
+    }
+  }
+  private var out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)))
+  private var graph: GraphDatabaseService = null
+  private var rowCount = 0
+  private var closed = false
+
+  def write(row: Map[String, Any]) {
+    out.writeInt(row.size)
+    row.foreach {
+      case (key, value) => {
+        out.writeUTF(key)
+        writeValue(value)
+      }
+    }
+    rowCount += 1
+  }
+
+  def rows(): Iterator[Map[String, Any]] = {
+    out.flush()
+    out = null
+    channel.position(0)
+    val in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)))
+
+    new Iterator[Map[String, Any]] {
+      var left = rowCount
+
+      if (left == 0) {
+        close()
+      }
+
+      def hasNext = left > 0
+
+      def next(): Map[String, Any] = {
+        if (left == 0) {
+          throw new NoSuchElementException
+        }
+        val row = (0 until in.readInt()).map(x => in.readUTF() -> readValue(in)).toMap
+        left -= 1
+        if (left == 0) {
+          close()
+        }
+        row
+      }
+    }
+  }
+
+  def close() {
+    val wasOpen = synchronized {
+      val wasOpen = !closed
+      closed = true
+      wasOpen
+    }
+    if (wasOpen) {
+      try {
+        channel.close()
+      } finally {
+        file.delete()
+        owner.closed(this)
+      }
+    }
+  }
+
+  private def writeValue(value: Any) {
+    value match {
+      case null => out.writeByte(NullValue)
+      case node: Node => {
+        graph = node.getGraphDatabase
+        out.writeByte(NodeValue)
+        out.writeLong(node.getId)
+      }
+      case rel: Relationship => {
+        graph = rel.getGraphDatabase
+        out.writeByte(RelationshipValue)
+        out.writeLong(rel.getId)
+      }
+      case path: Path => writeValues(PathValue, path.iterator().asScala.toList)
+      case seq: Seq[_] => writeValues(SeqValue, seq)
+      case map: collection.Map[_, _] => writeEntries(MapValue, map.toSeq)
+      case list: java.util.List[_] => writeValues(JavaListValue, list.asScala)
+      case map: java.util.Map[_, _] => writeEntries(JavaMapValue, map.asScala.toSeq)
+      case array: Array[_] => {
+        out.writeByte(ArrayValue)
+        out.writeByte(componentTag(array))
+        out.writeInt(array.length)
+        array.foreach(writeValue)
+      }
+      case x: String => {
+        out.writeByte(StringValue)
+        writeString(x)
+      }
+      case x: Boolean => {
+        out.writeByte(BooleanValue)
+        out.writeBoolean(x)
+      }
+      case x: Byte => {
+        out.writeByte(ByteValue)
+        out.writeByte(x)
+      }
+      case x: Short => {
+        out.writeByte(ShortValue)
+        out.writeShort(x)
+      }
+      case x: Int => {
+        out.writeByte(IntValue)
+        out.writeInt(x)
+      }
+      case x: Long => {
+        out.writeByte(LongValue)
+        out.writeLong(x)
+      }
+      case x: Float => {
+        out.writeByte(FloatValue)
+        out.writeFloat(x)
+      }
+      case x: Double => {
+        out.writeByte(DoubleValue)
+        out.writeDouble(x)
+      }
+      case x: Char => {
+        out.writeByte(CharValue)
+        out.writeChar(x)
+      }
+      case x => throw unsupported(x)
+    }
+  }
+
+  private def writeValues(tag: Int, values: Seq[Any]) {
+    out.writeByte(tag)
+    out.writeInt(values.size)
+    values.foreach(writeValue)
+  }
+
+  private def writeEntries(tag: Int, entries: Seq[(Any, Any)]) {
+    out.writeByte(tag)
+    out.writeInt(entries.size)
+    entries.foreach {
+      case (key, value) => {
+        writeValue(key)
+        writeValue(value)
+      }
+    }
+  }
+
+  // Strings are written as UTF-8 bytes, since writeUTF can't handle strings longer than 64k bytes
+  private def writeString(value: String) {
+    val bytes = value.getBytes("UTF-8")
+    out.writeInt(bytes.length)
+    out.write(bytes)
+  }
+
+  private def componentTag(array: Array[_]): Int = {
+    val component = array.getClass.getComponentType
+    componentTypes.find(_._2 == component) match {
+      case Some((tag, _)) => tag
+      case None => throw unsupported(array)
+    }
+  }
+
+  private def readValue(in: DataInputStream): Any = in.readByte().toInt match {
+    case NullValue => null
+    case NodeValue => graph.getNodeById(in.readLong())
+    case RelationshipValue => graph.getRelationshipById(in.readLong())
+    case PathValue => new PathImpl(readValues(in).map(_.asInstanceOf[PropertyContainer]): _*)
+    case SeqValue => readValues(in)
+    case MapValue => readEntries(in).toMap
+    case JavaListValue => new java.util.ArrayList[Any](readValues(in).asJava)
+    case JavaMapValue => new java.util.HashMap[Any, Any](readEntries(in).toMap.asJava)
+    case ArrayValue => {
+      val component = componentTypes(in.readByte())
+      val array = java.lang.reflect.Array.newInstance(component, in.readInt())
+      for (i <- 0 until java.lang.reflect.Array.getLength(array)) {
+        java.lang.reflect.Array.set(array, i, readValue(in))
+      }
+      array
+    }
+    case StringValue => {
+      val bytes = new Array[Byte](in.readInt())
+      in.readFully(bytes)
+      new String(bytes, "UTF-8")
+    }
+    case BooleanValue => in.readBoolean()
+    case ByteValue => in.readByte()
+    case ShortValue => in.readShort()
+    case IntValue => in.readInt()
+    case LongValue => in.readLong()
+    case FloatValue => in.readFloat()
+    case DoubleValue => in.readDouble()
+    case CharValue => in.readChar()
+  }
+
+  private def readValues(in: DataInputStream): List[Any] = {
+    val values = ListBuffer[Any]()
+    for (i <- 0 until in.readInt()) {
+      values += readValue(in)
+    }
+    values.toList
+  }
+
+  private def readEntries(in: DataInputStream): List[(Any, Any)] = {
+    val entries = ListBuffer[(Any, Any)]()
+    for (i <- 0 until in.readInt()) {
+      val key = readValue(in)
+      entries += key -> readValue(in)
+    }
+    entries.toList
+  }
+
+  private def unsupported(value: Any) = new RuntimeException("Can't write the " + value.asInstanceOf[AnyRef].getClass.getName +
+    " value `" + value + "` to disk. Only nodes, relationships, paths, property values, and lists and " +
+    "maps of those can be spilled when sorting or aggregating more rows than fit in memory.")
+}
+
+private object SpillFile {
+  val NullValue = 0
+  val NodeValue = 1
+  val RelationshipValue = 2
+  val PathValue = 3
+  val SeqValue = 4
+  val MapValue = 5
+  val JavaListValue = 6
+  val JavaMapValue = 7
+  val ArrayValue = 8
+  val StringValue = 9
+  val BooleanValue = 10
+  val ByteValue = 11
+  val ShortValue = 12
+  val IntValue = 13
+  val LongValue = 14
+  val FloatValue = 15
+  val DoubleValue = 16
+  val CharValue = 17
+
+  // The element types of property arrays
+  val componentTypes: Map[Int, Class[_]] = Map(
+    StringValue -> classOf[String],
+    BooleanValue -> java.lang.Boolean.TYPE,
+    ByteValue -> java.lang.Byte.TYPE,
+    ShortValue -> java.lang.Short.TYPE,
+    IntValue -> java.lang.Integer.TYPE,
+    LongValue -> java.lang.Long.TYPE,
+    FloatValue -> java.lang.Float.TYPE,
+    DoubleValue -> java.lang.Double.TYPE,
+    CharValue -> java.lang.Character.TYPE)
+}
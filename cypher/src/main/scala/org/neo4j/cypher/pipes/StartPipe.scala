@@ -30,13 +30,15 @@ abstract class StartPipe[T <: PropertyContainer](inner: Pipe, name: String, crea
 
   val symbols: SymbolTable = inner.symbols.add(Seq(symbolType))
 
-  def foreach[U](f: (Map[String, Any]) => U) {
-    inner.foreach(innerMap => {
-      createSource(innerMap).foreach((x) => {
-        f(innerMap ++ Map(name -> x))
+  def createResults(): Iterator[Map[String, Any]] = {
+    inner.createResults().flatMap(innerMap => {
+      createSource(innerMap).iterator.map((x) => {
+        innerMap ++ Map(name -> x)
       })
     })
   }
+
+  def executionPlan(): String = inner.executionPlan() + "\nStart(" + name + ")"
 }
 
 class NodeStartPipe(inner: Pipe, name: String, createSource: Map[String,Any] => Iterable[Node])
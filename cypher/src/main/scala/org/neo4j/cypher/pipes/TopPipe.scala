@@ -0,0 +1,83 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.cypher.pipes
+
+import org.neo4j.cypher.ExecutionEngine
+import org.neo4j.cypher.commands.{Value, SortItem}
+import collection.mutable.PriorityQueue
+
+/**
+ * Sorts its source and keeps only the first rows, for ORDER BY ... LIMIT. No more rows
+ * than skip plus limit are held in memory at any time, and equal rows keep the order they
+ * came in, as with SortPipe. If skip plus limit is more than maxRowsInMemory, the rows are
+ * sorted the way SortPipe does it instead.
+ */
+class TopPipe(source: Pipe, sortDescription: List[SortItem], skip: Option[Value], limit: Value,
+              maxRowsInMemory: Int = ExecutionEngine.DEFAULT_MAX_ROWS_IN_MEMORY, spill: SpillContext = new SpillContext)
+  extends SortPipe(source, sortDescription, maxRowsInMemory, spill) {
+  override def createResults(): Iterator[Map[String, Any]] = {
+    val input = source.createResults().buffered
+
+    if (!input.hasNext) {
+      return input
+    }
+
+    val first: Map[String, Any] = input.head
+
+    def asInt(v: Value) = v(first).asInstanceOf[Int]
+
+    val count = skip.map(asInt).getOrElse(0) + asInt(limit)
+
+    if (count > maxRowsInMemory) {
+      return sorted(input).take(count)
+    }
+
+    // The row that sorts last is at the head of the queue, ready to be pushed out. Rows are
+    // queued with the order they came in, which decides between equal rows.
+    val queue = new PriorityQueue[(Map[String, Any], Long)]()(new Ordering[(Map[String, Any], Long)] {
+      def compare(a: (Map[String, Any], Long), b: (Map[String, Any], Long)): Int =
+        if (compareBy(a._1, b._1, sortDescription)) -1
+        else if (compareBy(b._1, a._1, sortDescription)) 1
+        else a._2.compare(b._2)
+    })
+
+    if (count > 0) {
+      var sequence = 0L
+      input.foreach(row => {
+        if (queue.size < count) {
+          queue.enqueue((row, sequence))
+        } else if (compareBy(row, queue.head._1, sortDescription)) {
+          queue.dequeue()
+          queue.enqueue((row, sequence))
+        }
+        sequence += 1
+      })
+    }
+
+    var result = List[Map[String, Any]]()
+    while (queue.nonEmpty) {
+      result = queue.dequeue()._1 :: result
+    }
+    result.iterator
+  }
+
+  override def executionPlan(): String = source.executionPlan() + "\nTop(" + sortDescription.mkString(", ") + "; " +
+    skip.map(_ + " + ").getOrElse("") + limit + ")"
+}
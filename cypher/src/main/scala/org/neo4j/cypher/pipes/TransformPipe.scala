@@ -34,11 +34,13 @@ class TransformPipe(source: Pipe, returnItems: Seq[ReturnItem]) extends Pipe {
 
   returnItems.foreach(_.assertDependencies(source))
 
-  def foreach[U](f: (Map[String, Any]) => U) {
-    source.foreach(row => {
+  def createResults(): Iterator[Map[String, Any]] = {
+    source.createResults().map(row => {
       val projection: Map[String, Any] = returnItems.map( returnItem =>returnItem.columnName -> returnItem(row) ).toMap
-      f.apply(projection ++ row)
+      projection ++ row
     })
   }
+
+  def executionPlan(): String = source.executionPlan() + "\nTransform(" + returnItems.map(_.columnName).mkString(", ") + ")"
 }
 
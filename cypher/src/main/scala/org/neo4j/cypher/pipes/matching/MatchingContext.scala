@@ -23,14 +23,14 @@ import org.neo4j.cypher.{SyntaxException, SymbolTable}
 import org.neo4j.cypher.commands._
 import collection.immutable.Map
 import org.neo4j.graphdb.{PropertyContainer, Direction, Relationship, Node}
-import collection.{Traversable, Seq, Iterable}
+import collection.{Seq, Iterable}
 
 class MatchingContext(patterns: Seq[Pattern], boundIdentifiers: SymbolTable, clauses: Seq[Clause] = Seq()) {
   type PatternGraph = Map[String, PatternElement]
 
   val (patternGraph, optionalElements) = buildPatternGraph()
 
-  def getMatches(sourceRow: Map[String, Any]): Traversable[Map[String, Any]] = {
+  def getMatches(sourceRow: Map[String, Any]): Iterator[Map[String, Any]] = {
     val bindings: Map[String, Any] = sourceRow.filter(_._2.isInstanceOf[PropertyContainer])
     val boundPairs: Map[String, MatchingPair] = extractBoundMatchingPairs(bindings)
 
@@ -40,7 +40,7 @@ class MatchingContext(patterns: Seq[Pattern], boundIdentifiers: SymbolTable, cla
       map(patternGraph(_).asInstanceOf[PatternRelationship]).
       filter(_.dir == Direction.BOTH)
 
-    val mandatoryPattern: Traversable[Map[String, Any]] = if (undirectedBoundRelationships.isEmpty) {
+    val mandatoryPattern: Iterator[Map[String, Any]] = if (undirectedBoundRelationships.isEmpty) {
       createPatternMatcher(boundPairs, false)
     } else {
       val boundRels: Seq[Map[String, MatchingPair]] = createListOfBoundRelationshipsWithHangingNodes(undirectedBoundRelationships, bindings)
@@ -76,14 +76,14 @@ class MatchingContext(patterns: Seq[Pattern], boundIdentifiers: SymbolTable, cla
     cartesian(toList).map(_.reduceLeft(_ ++ _))
   }
 
-  private def createPatternMatcher(boundPairs: Map[String, MatchingPair], includeOptionals: Boolean): scala.Traversable[Map[String, Any]] = {
+  private def createPatternMatcher(boundPairs: Map[String, MatchingPair], includeOptionals: Boolean): Iterator[Map[String, Any]] = {
 
     val patternMatcher = new PatternMatcher(boundPairs, clauses, includeOptionals)
 
     if (includeOptionals)
-      patternMatcher.map(matchedGraph => matchedGraph ++ createNullValuesForOptionalElements(matchedGraph))
+      patternMatcher.iterator.map(matchedGraph => matchedGraph ++ createNullValuesForOptionalElements(matchedGraph))
     else
-      patternMatcher
+      patternMatcher.iterator
   }
 
   // This method takes  a Seq of Seq and produces the cartesian product of all inner Seqs
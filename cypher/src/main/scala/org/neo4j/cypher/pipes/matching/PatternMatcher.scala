@@ -22,19 +22,27 @@ package org.neo4j.cypher.pipes.matching
 import org.neo4j.cypher.commands.Clause
 import org.neo4j.graphdb.Node
 
-class PatternMatcher(bindings: Map[String, MatchingPair], clauses: Seq[Clause], includeOptionals: Boolean) extends Traversable[Map[String, Any]] {
+class PatternMatcher(bindings: Map[String, MatchingPair], clauses: Seq[Clause], includeOptionals: Boolean) extends Iterable[Map[String, Any]] {
   val boundNodes = bindings.filter(_._2.patternElement.isInstanceOf[PatternNode])
   val boundRels = bindings.filter(_._2.patternElement.isInstanceOf[PatternRelationship])
 
-  def foreach[U](f: (Map[String, Any]) => U) {
-    debug("startPatternMatching")
+  /*
+  Matches are produced lazily - the pattern is only traversed far enough to
+  answer hasNext, so a consumer that stops early never pays for the rest.
+  */
+  def iterator: Iterator[Map[String, Any]] = new Iterator[Map[String, Any]] {
+    lazy val matches = {
+      debug("startPatternMatching")
+      traverseNode(boundNodes.values.toSet, History())
+    }
+
+    def hasNext = matches.hasNext
 
-    traverseNode(boundNodes.values.toSet, History(), f)
+    def next() = matches.next()
   }
 
-  private def traverseNode[U](remaining: Set[MatchingPair],
-                              history: History,
-                              yielder: Map[String, Any] => U): Boolean = {
+  private def traverseNode(remaining: Set[MatchingPair],
+                           history: History): Iterator[Map[String, Any]] = {
 
     val current = remaining.head
     val leftToDoAfterThisOne = remaining.tail
@@ -43,33 +51,33 @@ class PatternMatcher(bindings: Map[String, MatchingPair], clauses: Seq[Clause],
 
     if (!current.matchesBoundEntity(boundNodes)) {
       debug("Didn't match bound node")
-      return false
+      return Iterator.empty
     }
 
     val newHistory = history.add(current)
     if (!isMatchSoFar(newHistory)) {
       debug("failed subgraph because of clause")
-      return false
+      return Iterator.empty
     }
 
     val notYetVisited: List[PatternRelationship] = getPatternRelationshipsNotYetVisited(current.patternNode, history)
 
     notYetVisited match {
-      case List() => traverseNextNodeOrYield(leftToDoAfterThisOne, newHistory, yielder)
-      case List(single) => traverseRelationship(current, single, newHistory, leftToDoAfterThisOne, yielder)
-      case _ => traverseRelationship(current, notYetVisited.head, newHistory, remaining, yielder)
+      case List() => traverseNextNodeOrYield(leftToDoAfterThisOne, newHistory)
+      case List(single) => traverseRelationship(current, single, newHistory, leftToDoAfterThisOne)
+      case _ => traverseRelationship(current, notYetVisited.head, newHistory, remaining)
     }
 
   }
 
-  def traverseNextNodeFromRelationship[U](rel: GraphRelationship, gNode: Node, nextPNode: PatternNode, currentRel: PatternRelationship, history: History, remaining: Set[MatchingPair], yielder: (Map[String, Any]) => U): Boolean = {
+  def traverseNextNodeFromRelationship(rel: GraphRelationship, gNode: Node, nextPNode: PatternNode, currentRel: PatternRelationship, history: History, remaining: Set[MatchingPair]): Iterator[Map[String, Any]] = {
     debug(rel, gNode, nextPNode, currentRel, history, remaining)
     val current = MatchingPair(currentRel, rel)
 
     val boundEntity = current.matchesBoundEntity(boundRels)
     if (!boundEntity) {
       debug("Didn't match bound relationship")
-      false
+      Iterator.empty
     } else {
 
       val newHistory = history.add(current)
@@ -80,12 +88,12 @@ class PatternMatcher(bindings: Map[String, MatchingPair], clauses: Seq[Clause],
         val nextPair = MatchingPair(nextPNode, nextNode)
 
         remaining.find(_.patternElement.key == nextPNode.key) match {
-          case None => traverseNode(remaining ++ Set(nextPair), newHistory, yielder)
+          case None => traverseNode(remaining ++ Set(nextPair), newHistory)
           case Some(x) => if (x.entity == nextNode)
-            traverseNode(remaining ++ Set(nextPair), newHistory, yielder)
+            traverseNode(remaining ++ Set(nextPair), newHistory)
           else {
             debug("other side of relationship already found, and doesn't match")
-            false
+            Iterator.empty
           }
         }
 
@@ -93,17 +101,16 @@ class PatternMatcher(bindings: Map[String, MatchingPair], clauses: Seq[Clause],
       }
       else {
         debug("failed because of a clause")
-        false
+        Iterator.empty
       }
     }
 
   }
 
-  private def traverseRelationship[U](currentNode: MatchingPair,
-                                      currentRel: PatternRelationship,
-                                      history: History,
-                                      remaining: Set[MatchingPair],
-                                      yielder: (Map[String, Any]) => U): Boolean = {
+  private def traverseRelationship(currentNode: MatchingPair,
+                                   currentRel: PatternRelationship,
+                                   history: History,
+                                   remaining: Set[MatchingPair]): Iterator[Map[String, Any]] = {
     debug(currentNode, currentRel, history, remaining)
 
     val (pNode, gNode) = currentNode.getPatternAndGraphPoint
@@ -119,22 +126,23 @@ class PatternMatcher(bindings: Map[String, MatchingPair], clauses: Seq[Clause],
     val nextPNode = currentRel.getOtherNode(pNode)
 
     /*
-     We need to know if any of these sub-calls results in a yield. If none do, and we're
-     looking at an optional pattern relationship, we'll output a null as match.
+     We need to know if any of these sub-calls results in a match. If none do, and we're
+     looking at an optional pattern relationship, we'll output a null as match. Asking
+     hasNext only walks the pattern until the first match is found.
     */
-    val yielded = notVisitedRelationships.map(rel => traverseNextNodeFromRelationship(rel, gNode, nextPNode, currentRel, history, remaining, yielder)).foldLeft(false)(_ || _)
+    val matches = notVisitedRelationships.iterator.flatMap(rel => traverseNextNodeFromRelationship(rel, gNode, nextPNode, currentRel, history, remaining))
 
-    if (yielded) {
-      return true
+    if (matches.hasNext) {
+      return matches
     }
 
     if (currentRel.optional && includeOptionals) {
       debug("trying with null for " + currentRel)
-      return traverseNextNodeOrYield(remaining, history.add(currentNode).add(MatchingPair(currentRel, null)), yielder)
+      return traverseNextNodeOrYield(remaining, history.add(currentNode).add(MatchingPair(currentRel, null)))
     }
 
     debug("failed to find matching relationship")
-    false
+    Iterator.empty
   }
 
   private def isMatchSoFar(history: History): Boolean = {
@@ -143,21 +151,21 @@ class PatternMatcher(bindings: Map[String, MatchingPair], clauses: Seq[Clause],
     validClause.forall(_.isMatch(m))
   }
 
-  private def traverseNextNodeOrYield[U](remaining: Set[MatchingPair], history: History, yielder: Map[String, Any] => U): Boolean = {
+  private def traverseNextNodeOrYield(remaining: Set[MatchingPair], history: History): Iterator[Map[String, Any]] = {
     debug(history, remaining)
 
     if (remaining.isEmpty) {
-      yieldThis(yielder, history)
+      yieldThis(history)
     } else {
-      traverseNode(remaining, history, yielder)
+      traverseNode(remaining, history)
     }
   }
 
-  private def yieldThis[U](yielder: Map[String, Any] => U, history: History): Boolean = {
-    debug(history, history.toMap)
+  private def yieldThis(history: History): Iterator[Map[String, Any]] = {
+    val resultMap = history.toMap
+    debug(history, resultMap)
 
-    yielder(history.toMap)
-    true
+    Iterator.single(resultMap)
   }
 
   private def getPatternRelationshipsNotYetVisited[U](patternNode: PatternNode, history: History): List[PatternRelationship] = history.filter(patternNode.relationships.toSet).filter(_.optional == false || includeOptionals == true).toList
@@ -1150,5 +1150,79 @@ order by a.age
       case x: SyntaxException => assertEquals("n.A_PROPERTY_THAT_IS_MISSING does not exist on Node[0]", x.getMessage)
     }
   }
-}
 
+  @Test def shouldReuseCachedPlanForSameQueryText() {
+    val a = createNode()
+    val b = createNode()
+    val query = "start n=node({id}) return n"
+
+    assertEquals(List(a), engine.execute(query, Map[String, Any]("id" -> a.getId)).columnAs[Node]("n").toList)
+    assertEquals(List(b), engine.execute(query, Map[String, Any]("id" -> b.getId)).columnAs[Node]("n").toList)
+
+    assertEquals(1L, engine.queryCache.getMisses)
+    assertEquals(1L, engine.queryCache.getHits)
+  }
+
+  @Test def shouldSizeTheSharedQueryCacheForTheLargestEngine() {
+    val size = engine.queryCache.getMaxSize
+
+    assertEquals(size, new ExecutionEngine(graph, size - 1).queryCache.getMaxSize)
+    assertEquals(size + 1, new ExecutionEngine(graph, size + 1).queryCache.getMaxSize)
+    assertEquals(size + 1, engine.queryCache.getMaxSize)
+  }
+
+  @Test def shouldExposeQueryCacheThroughJmx() {
+    engine.execute("start n=node(0) return n").toList
+
+    val name = new javax.management.ObjectName("org.neo4j:instance=kernel#" + graph.getKernelData.instanceId +
+      ",name=" + ExecutionEngine.QUERY_CACHE_BEAN_NAME)
+    val server = java.lang.management.ManagementFactory.getPlatformMBeanServer
+    assertEquals(1, server.getAttribute(name, "Size"))
+  }
+
+  @Test def shouldEvaluateTheSmallestStartItemFirst() {
+    val a = createNode()
+    val b = createNode()
+    val c = createNode()
+
+    val result = parseAndExecute("start many=node(%d,%d), one=node(%d) return many, one".format(a.getId, b.getId, c.getId))
+
+    val plan = result.executionPlan()
+    assertTrue(plan, plan.indexOf("Start(one)") < plan.indexOf("Start(many)"))
+    assertEquals(Set(Map("many" -> a, "one" -> c), Map("many" -> b, "one" -> c)), result.toSet)
+  }
+
+  @Test def shouldPlanTheStartItemsOfACachedQueryOnce() {
+    val a = createNode()
+    val b = createNode()
+    val c = createNode()
+    val query = "start x=node({xs}), y=node({ys}) return x, y"
+
+    val first = engine.execute(query, Map[String, Any]("xs" -> List(a.getId, b.getId), "ys" -> c.getId))
+    val plan = first.executionPlan()
+    assertTrue(plan, plan.indexOf("Start(y)") < plan.indexOf("Start(x)"))
+
+    // Now y is the larger one, but the order planned for the first execution is kept
+    val second = engine.execute(query, Map[String, Any]("xs" -> c.getId, "ys" -> List(a.getId, b.getId)))
+    assertEquals(plan, second.executionPlan())
+    assertEquals(Set(Map("x" -> c, "y" -> a), Map("x" -> c, "y" -> b)), second.toSet)
+  }
+
+  @Test def shouldHashJoinStartItemsRelatedByThePattern() {
+    val a = createNode()
+    val b1 = createNode()
+    val b2 = createNode()
+    val b3 = createNode()
+    val other = createNode()
+    relate(a, b1, "KNOWS")
+    relate(a, b2, "KNOWS")
+    relate(a, other, "KNOWS")
+
+    val result = parseAndExecute("start a=node(%d), b=node(%d,%d,%d) match a-[:KNOWS]->b return b".format(a.getId, b1.getId, b2.getId, b3.getId))
+
+    val plan = result.executionPlan()
+    assertTrue(plan, plan.contains("HashJoin(b)"))
+    assertFalse(plan, plan.contains("Start(b)"))
+    assertEquals(Set(Map("b" -> b1), Map("b" -> b2)), result.toSet)
+  }
+}
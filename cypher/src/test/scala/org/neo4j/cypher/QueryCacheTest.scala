@@ -0,0 +1,75 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.cypher
+
+import org.junit.Test
+import org.junit.Assert._
+import org.scalatest.junit.JUnitSuite
+
+class QueryCacheTest extends JUnitSuite {
+  @Test def shouldOnlyCreateValueOnMiss() {
+    val cache = new QueryCache[String](10)
+    var created = 0
+
+    def lookup() = cache.getOrElseUpdate("start n=node(0) return n", {
+      created += 1
+      "plan"
+    })
+
+    assertEquals("plan", lookup())
+    assertEquals("plan", lookup())
+    assertEquals(1, created)
+    assertEquals(1L, cache.getHits)
+    assertEquals(1L, cache.getMisses)
+  }
+
+  @Test def shouldEvictLeastRecentlyUsedQuery() {
+    val cache = new QueryCache[String](2)
+    cache.getOrElseUpdate("a", "A")
+    cache.getOrElseUpdate("b", "B")
+    cache.getOrElseUpdate("a", "A")
+    cache.getOrElseUpdate("c", "C")
+
+    assertEquals(2, cache.getSize)
+    assertEquals("A", cache.getOrElseUpdate("a", "new A"))
+    assertEquals("new B", cache.getOrElseUpdate("b", "new B"))
+  }
+
+  @Test def shouldOnlyGrow() {
+    val cache = new QueryCache[String](2)
+    cache.growTo(3)
+    cache.growTo(1)
+    cache.getOrElseUpdate("a", "A")
+    cache.getOrElseUpdate("b", "B")
+    cache.getOrElseUpdate("c", "C")
+
+    assertEquals(3, cache.getMaxSize)
+    assertEquals(3, cache.getSize)
+  }
+
+  @Test def clearShouldEmptyTheCache() {
+    val cache = new QueryCache[String](2)
+    cache.getOrElseUpdate("a", "A")
+    cache.clear()
+
+    assertEquals(0, cache.getSize)
+    assertEquals("new A", cache.getOrElseUpdate("a", "new A"))
+  }
+}
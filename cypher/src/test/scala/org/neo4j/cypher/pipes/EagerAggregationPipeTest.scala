@@ -65,6 +65,24 @@ class EagerAggregationPipeTest extends JUnitSuite {
       Map("name" -> "Michael", "count(*)" -> 2)))
   }
 
+  @Test def shouldAggregateMoreGroupsThanFitInMemory() {
+    val source = new FakePipe(List(
+      Map("name" -> "Andres", "age" -> 36),
+      Map("name" -> "Peter", "age" -> 38),
+      Map("name" -> "Michael", "age" -> 36),
+      Map("name" -> "Andres", "age" -> 31),
+      Map("name" -> "Michael", "age" -> 31)), new SymbolTable(NodeIdentifier("name")))
+
+    val returnItems = List(ValueReturnItem(EntityValue("name")))
+    val grouping = List(CountStar())
+    val aggregationPipe = new EagerAggregationPipe(source, returnItems, grouping, 1)
+
+    assertEquals(Set(
+      Map("name" -> "Andres", "count(*)" -> 2),
+      Map("name" -> "Peter", "count(*)" -> 1),
+      Map("name" -> "Michael", "count(*)" -> 2)), aggregationPipe.toSet)
+  }
+
   @Test def shouldCountNonNullValues() {
     val source = new FakePipe(List(
       Map("name" -> "Andres", "age" -> 36),
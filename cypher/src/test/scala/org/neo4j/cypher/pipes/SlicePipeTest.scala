@@ -0,0 +1,58 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.cypher.pipes
+
+import org.junit.Assert
+import org.junit.Test
+import org.scalatest.junit.JUnitSuite
+import org.neo4j.cypher.commands.Literal
+
+class SlicePipeTest extends JUnitSuite {
+  @Test def limitShouldStopPullingRowsFromTheSource() {
+    val source = new CountingPipe((0 until 1000).map(i => Map[String, Any]("x" -> i)))
+    val slicePipe = new SlicePipe(source, None, Some(Literal(3)))
+
+    Assert.assertEquals(List(0, 1, 2), slicePipe.toList.map(_("x")))
+    Assert.assertEquals(3, source.pulled)
+  }
+
+  @Test def skipAndLimitShouldOnlyRunTheSourceOnce() {
+    val source = new CountingPipe((0 until 10).map(i => Map[String, Any]("x" -> i)))
+    val slicePipe = new SlicePipe(source, Some(Literal(2)), Some(Literal(3)))
+
+    Assert.assertEquals(List(2, 3, 4), slicePipe.toList.map(_("x")))
+    Assert.assertEquals(5, source.pulled)
+  }
+
+  @Test def shouldHandleEmptySource() {
+    val slicePipe = new SlicePipe(new FakePipe(Seq()), Some(Literal(2)), Some(Literal(3)))
+
+    Assert.assertEquals(List(), slicePipe.toList)
+  }
+}
+
+class CountingPipe(data: Seq[Map[String, Any]]) extends FakePipe(data) {
+  var pulled = 0
+
+  override def createResults(): Iterator[Map[String, Any]] = super.createResults().map(row => {
+    pulled += 1
+    row
+  })
+}
@@ -23,7 +23,7 @@ import org.junit.Test
 import org.junit.Assert._
 import org.neo4j.cypher.SymbolTable
 import org.scalatest.junit.JUnitSuite
-import org.neo4j.cypher.commands.{Identifier, EntityValue, ValueReturnItem, SortItem}
+import org.neo4j.cypher.commands.{Identifier, NodeIdentifier, EntityValue, ValueReturnItem, SortItem}
 
 class SortPipeTest extends JUnitSuite{
   @Test def emptyInIsEmptyOut() {
@@ -86,14 +86,86 @@ class SortPipeTest extends JUnitSuite{
       Map("y" -> null)), sortPipe.toList)
   }
 
+  @Test def sortsRowsThatDoNotFitInMemory() {
+    val source = new FakePipe(List(
+      Map("x" -> "D", "y" -> 1),
+      Map("x" -> "B", "y" -> 2),
+      Map("x" -> "E", "y" -> 3),
+      Map("x" -> "A", "y" -> 4),
+      Map("x" -> "B", "y" -> 5)))
+    val sortPipe = new SortPipe(source, List(SortItem(ValueReturnItem(EntityValue("x")), true)), 2)
+
+    assertEquals(List(
+      Map("x" -> "A", "y" -> 4),
+      Map("x" -> "B", "y" -> 2),
+      Map("x" -> "B", "y" -> 5),
+      Map("x" -> "D", "y" -> 1),
+      Map("x" -> "E", "y" -> 3)), sortPipe.toList)
+  }
+
+  @Test def spilledRowsKeepTheirValues() {
+    val values = List(Array(1, 2), Array("a", "b"), List(1L, "x"), Map("k" -> 1.5), "x" * 70000, null)
+    val source = new FakePipe(values.zipWithIndex.map {
+      case (value, i) => Map("x" -> i, "y" -> value)
+    }.reverse)
+    val sortPipe = new SortPipe(source, List(SortItem(ValueReturnItem(EntityValue("x")), true)), 2)
+
+    val sorted = sortPipe.toList.map(_("y"))
+    assertEquals(List(1, 2), sorted(0).asInstanceOf[Array[Int]].toList)
+    assertEquals(List("a", "b"), sorted(1).asInstanceOf[Array[String]].toList)
+    assertEquals(values.drop(2), sorted.drop(2))
+  }
+
+  @Test def valuesThatCanNotBeSpilledAreRejected() {
+    val source = new FakePipe(List(Map("x" -> 2, "y" -> new Object), Map("x" -> 1, "y" -> new Object)))
+    val sortPipe = new SortPipe(source, List(SortItem(ValueReturnItem(EntityValue("x")), true)), 1)
+
+    try {
+      sortPipe.toList
+      fail("Expected the sort to fail")
+    } catch {
+      case e: RuntimeException => assertTrue(e.getMessage.contains("java.lang.Object"))
+    }
+  }
+
+  @Test def spillFilesAreDeletedWhenClosedBeforeBeingRead() {
+    val before = spillFilesOnDisk
+    val source = new FakePipe((1 to 10).map(i => Map[String, Any]("x" -> i)))
+    val spill = new SpillContext
+    val sortPipe = new SortPipe(source, List(SortItem(ValueReturnItem(EntityValue("x")), true)), 2, spill)
+
+    assertEquals(Map("x" -> 1), sortPipe.createResults().next())
+    assertTrue(spillFilesOnDisk.size > before.size)
+
+    spill.closeAll()
+    assertEquals(before, spillFilesOnDisk)
+  }
+
+  @Test def readingOneResultIteratorToTheEndLeavesTheSpillFilesOfOthers() {
+    val source = new FakePipe((1 to 10).reverse.map(i => Map[String, Any]("x" -> i)), new SymbolTable(NodeIdentifier("x")))
+    val spill = new SpillContext
+    val sortPipe = new SortPipe(source, List(SortItem(ValueReturnItem(EntityValue("x")), true)), 2, spill)
+    val result = new ColumnFilterPipe(sortPipe, List(ValueReturnItem(EntityValue("x"))), List("x"), spill)
+
+    val first = result.createResults()
+    assertEquals(Map("x" -> 1), first.next())
+    assertEquals((1 to 10).toList, result.createResults().map(_("x")).toList)
+
+    assertEquals((2 to 10).toList, first.map(_("x")).toList)
+  }
+
+  private def spillFilesOnDisk: Set[String] = {
+    val tempDirectory = new java.io.File(System.getProperty("java.io.tmpdir"))
+    tempDirectory.list().filter(name => name.startsWith("cypher") && name.endsWith(".spill")).toSet
+  }
 }
 
 class FakePipe(data: Seq[Map[String, Any]], val symbols: SymbolTable) extends Pipe {
   def this(data: Seq[Map[String, Any]]) = this (data, new FakeSymbolTable())
 
-  def foreach[U](f: (Map[String, Any]) => U) {
-    data.foreach(f(_))
-  }
+  def createResults(): Iterator[Map[String, Any]] = data.iterator
+
+  def executionPlan(): String = "Fake()"
 }
 
 class FakeSymbolTable extends SymbolTable() {
@@ -0,0 +1,72 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.cypher.pipes
+
+import org.junit.Test
+import org.junit.Assert._
+import org.scalatest.junit.JUnitSuite
+import org.neo4j.cypher.commands.{Literal, EntityValue, ValueReturnItem, SortItem}
+
+class TopPipeTest extends JUnitSuite {
+  val sortByX = List(SortItem(ValueReturnItem(EntityValue("x")), true))
+
+  @Test def emptyInIsEmptyOut() {
+    val topPipe = new TopPipe(new FakePipe(List()), sortByX, None, Literal(3))
+
+    assertEquals(List(), topPipe.toList)
+  }
+
+  @Test def keepsTheFirstRowsInOrder() {
+    val source = new FakePipe((1 to 100).reverse.map(i => Map[String, Any]("x" -> i)))
+    val topPipe = new TopPipe(source, sortByX, None, Literal(3))
+
+    assertEquals(List(1, 2, 3), topPipe.toList.map(_("x")))
+  }
+
+  @Test def keepsRowsToSkipToo() {
+    val source = new FakePipe(List(5, 3, 4, 1, 2).map(i => Map[String, Any]("x" -> i)))
+    val slicePipe = new SlicePipe(new TopPipe(source, sortByX, Some(Literal(1)), Literal(2)), Some(Literal(1)), Some(Literal(2)))
+
+    assertEquals(List(2, 3), slicePipe.toList.map(_("x")))
+  }
+
+  @Test def descendingOrderIsSupported() {
+    val source = new FakePipe(List(5, 3, 4, 1, 2).map(i => Map[String, Any]("x" -> i)))
+    val topPipe = new TopPipe(source, List(SortItem(ValueReturnItem(EntityValue("x")), false)), None, Literal(2))
+
+    assertEquals(List(5, 4), topPipe.toList.map(_("x")))
+  }
+
+  @Test def equalRowsKeepTheOrderTheyCameIn() {
+    val source = new FakePipe(List(2, 1, 1, 1, 2, 1).zipWithIndex.map {
+      case (x, i) => Map[String, Any]("x" -> x, "i" -> i)
+    })
+    val topPipe = new TopPipe(source, sortByX, None, Literal(4))
+
+    assertEquals(List(1, 2, 3, 5), topPipe.toList.map(_("i")))
+  }
+
+  @Test def rowsThatDoNotFitInMemoryAreSortedOnDisk() {
+    val source = new FakePipe((1 to 10).reverse.map(i => Map[String, Any]("x" -> i)))
+    val topPipe = new TopPipe(source, sortByX, Some(Literal(2)), Literal(4), 3)
+
+    assertEquals((1 to 6).toList, topPipe.toList.map(_("x")))
+  }
+}
@@ -388,7 +388,7 @@ class MatchingContextTest extends GraphDatabaseTestBase with Assertions {
       VarLengthRelatedTo("p", "pB", "pC", Some(1), Some(3), "rel", Direction.OUTGOING))
     val matchingContext = new MatchingContext(patterns, bind("pA"))
 
-    val traversable = matchingContext.getMatches(Map("pA" -> a)).toList
+    val traversable = matchingContext.getMatches(Map("pA" -> a))
 
     assertMatches(traversable, 2,
       Map("pA" -> a, "pR1" -> r1, "pB" -> b, "pC" -> c, "pR2" -> r2))
@@ -420,15 +420,15 @@ class MatchingContextTest extends GraphDatabaseTestBase with Assertions {
     new SymbolTable(toSet)
   }
 
-  def assertMatches(matches: Traversable[Map[String, Any]], expectedSize: Int, expected: Map[String, Any]*) {
+  def assertMatches(matches: Iterator[Map[String, Any]], expectedSize: Int, expected: Map[String, Any]*) {
     val matchesList = matches.toList
     assert(matchesList.size === expectedSize)
 
     expected.foreach(expectation => {
-      if (!matches.exists(compare(_, expectation)))
+      if (!matchesList.exists(compare(_, expectation)))
       {
 
-        throw new Exception("Didn't find the expected row: " + expectation + "\r\nActual: " + matches.toList)
+        throw new Exception("Didn't find the expected row: " + expectation + "\r\nActual: " + matchesList)
       }
     })
 
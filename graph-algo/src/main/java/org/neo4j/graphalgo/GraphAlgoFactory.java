@@ -23,6 +23,7 @@ import org.neo4j.graphalgo.impl.path.AStar;
 import org.neo4j.graphalgo.impl.path.AllPaths;
 import org.neo4j.graphalgo.impl.path.AllSimplePaths;
 import org.neo4j.graphalgo.impl.path.Dijkstra;
+import org.neo4j.graphalgo.impl.path.ParallelShortestPath;
 import org.neo4j.graphalgo.impl.path.ShortestPath;
 import org.neo4j.graphalgo.impl.util.DoubleEvaluator;
 import org.neo4j.graphdb.Node;
@@ -110,6 +111,44 @@ public abstract class GraphAlgoFactory
         return new ShortestPath( maxDepth, expander, maxHitCount );
     }
     
+    /**
+     * Returns an algorithm which can find all shortest paths between two
+     * nodes, like {@link #shortestPath(RelationshipExpander, int)}, but which
+     * expands the two frontiers on several threads. It pays off for deep
+     * searches between well connected nodes, where the frontiers get wide.
+     * Changes not yet committed by the calling thread aren't seen by it.
+     *
+     * @see ParallelShortestPath
+     * @param expander the {@link RelationshipExpander} to use for expanding
+     *            {@link Relationship}s for each {@link Node}.
+     * @param maxDepth the max {@link Path#length()} returned paths are allowed
+     *            to have.
+     * @return an algorithm which finds shortest paths between two nodes.
+     */
+    public static PathFinder<Path> parallelShortestPath( RelationshipExpander expander, int maxDepth )
+    {
+        return new ParallelShortestPath( maxDepth, expander, Integer.MAX_VALUE );
+    }
+
+    /**
+     * Returns an algorithm which can find all shortest paths between two
+     * nodes, like {@link #shortestPath(RelationshipExpander, int, int)}, but
+     * which expands the two frontiers on several threads.
+     *
+     * @see ParallelShortestPath
+     * @param expander the {@link RelationshipExpander} to use for expanding
+     *            {@link Relationship}s for each {@link Node}.
+     * @param maxDepth the max {@link Path#length()} returned paths are allowed
+     *            to have.
+     * @param maxHitCount the maximum number of {@link Path}s to return.
+     * @return an algorithm which finds shortest paths between two nodes.
+     */
+    public static PathFinder<Path> parallelShortestPath( RelationshipExpander expander, int maxDepth,
+            int maxHitCount )
+    {
+        return new ParallelShortestPath( maxDepth, expander, maxHitCount );
+    }
+
     /**
      * Returns an algorithm which can find simple all paths of a certain length
      * between two nodes. These returned paths cannot contain loops (i.e. a node
@@ -140,4 +140,12 @@ public class BetweennessCentrality<ShortestPathCostType> extends
         getAndUpdateNodeDependency( node, true, successors, counter,
             new HashMap<Node,Double>() );
     }
+
+    @Override
+    protected ShortestPathBasedCentrality<Double,ShortestPathCostType> newWorker(
+        SingleSourceShortestPath<ShortestPathCostType> singleSourceShortestPath )
+    {
+        return new BetweennessCentrality<ShortestPathCostType>(
+            singleSourceShortestPath, nodeSet );
+    }
 }
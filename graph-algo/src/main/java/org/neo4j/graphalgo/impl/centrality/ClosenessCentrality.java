@@ -78,7 +78,7 @@ public class ClosenessCentrality<ShortestPathCostType> extends
     @Override
     public ShortestPathCostType getCentrality( Node node )
     {
-        ShortestPathCostType centrality = centralities.get( node );
+        ShortestPathCostType centrality = centralityOf( node );
         if ( centrality == null )
         {
             return null;
@@ -92,7 +92,7 @@ public class ClosenessCentrality<ShortestPathCostType> extends
             processShortestPaths( node, singleSourceShortestPath );
         }
         // When the value is calculated, just retrieve it normally
-        return centralities.get( node );
+        return centralityOf( node );
     }
 
     @Override
@@ -120,4 +120,20 @@ public class ClosenessCentrality<ShortestPathCostType> extends
                 shortestPathSum ) );
         }
     }
+
+    @Override
+    protected ShortestPathBasedCentrality<ShortestPathCostType,ShortestPathCostType> newWorker(
+        SingleSourceShortestPath<ShortestPathCostType> singleSourceShortestPath )
+    {
+        return new ClosenessCentrality<ShortestPathCostType>(
+            singleSourceShortestPath, centralityAccumulator, zeroValue,
+            nodeSet, centralityDivider );
+    }
+
+    @Override
+    protected void mergeWorker(
+        ShortestPathBasedCentrality<ShortestPathCostType,ShortestPathCostType> worker )
+    {
+        mergeWorkerBySetting( worker );
+    }
 }
@@ -70,7 +70,7 @@ public class Eccentricity<ShortestPathCostType> extends
     @Override
     public ShortestPathCostType getCentrality( Node node )
     {
-        ShortestPathCostType centrality = centralities.get( node );
+        ShortestPathCostType centrality = centralityOf( node );
         if ( centrality == null )
         {
             return null;
@@ -84,7 +84,7 @@ public class Eccentricity<ShortestPathCostType> extends
             processShortestPaths( node, singleSourceShortestPath );
         }
         // When the value is calculated, just retrieve it normally
-        return centralities.get( node );
+        return centralityOf( node );
     }
 
     @Override
@@ -107,4 +107,19 @@ public class Eccentricity<ShortestPathCostType> extends
             setCentralityForNode( node, maximumDistance );
         }
     }
+
+    @Override
+    protected ShortestPathBasedCentrality<ShortestPathCostType,ShortestPathCostType> newWorker(
+        SingleSourceShortestPath<ShortestPathCostType> singleSourceShortestPath )
+    {
+        return new Eccentricity<ShortestPathCostType>(
+            singleSourceShortestPath, zeroValue, nodeSet, distanceComparator );
+    }
+
+    @Override
+    protected void mergeWorker(
+        ShortestPathBasedCentrality<ShortestPathCostType,ShortestPathCostType> worker )
+    {
+        mergeWorkerBySetting( worker );
+    }
 }
@@ -90,4 +90,25 @@ public class NetworkDiameter<ShortestPathCostType> extends
         calculate();
         return diameter;
     }
+
+    @Override
+    protected ShortestPathBasedCentrality<ShortestPathCostType,ShortestPathCostType> newWorker(
+        SingleSourceShortestPath<ShortestPathCostType> singleSourceShortestPath )
+    {
+        return new NetworkDiameter<ShortestPathCostType>(
+            singleSourceShortestPath, zeroValue, nodeSet, distanceComparator );
+    }
+
+    @Override
+    protected void mergeWorker(
+        ShortestPathBasedCentrality<ShortestPathCostType,ShortestPathCostType> worker )
+    {
+        NetworkDiameter<ShortestPathCostType> other = (NetworkDiameter<ShortestPathCostType>) worker;
+        eccentricity.mergeWorker( other.eccentricity );
+        if ( other.diameter != null && ( diameter == null
+            || distanceComparator.compare( other.diameter, diameter ) > 0 ) )
+        {
+            diameter = other.diameter;
+        }
+    }
 }
@@ -88,4 +88,25 @@ public class NetworkRadius<ShortestPathCostType> extends
         calculate();
         return radius;
     }
+
+    @Override
+    protected ShortestPathBasedCentrality<ShortestPathCostType,ShortestPathCostType> newWorker(
+        SingleSourceShortestPath<ShortestPathCostType> singleSourceShortestPath )
+    {
+        return new NetworkRadius<ShortestPathCostType>(
+            singleSourceShortestPath, zeroValue, nodeSet, distanceComparator );
+    }
+
+    @Override
+    protected void mergeWorker(
+        ShortestPathBasedCentrality<ShortestPathCostType,ShortestPathCostType> worker )
+    {
+        NetworkRadius<ShortestPathCostType> other = (NetworkRadius<ShortestPathCostType>) worker;
+        eccentricity.mergeWorker( other.eccentricity );
+        if ( other.radius != null && ( radius == null
+            || distanceComparator.compare( other.radius, radius ) < 0 ) )
+        {
+            radius = other.radius;
+        }
+    }
 }
@@ -19,11 +19,20 @@
  */
 package org.neo4j.graphalgo.impl.centrality;
 
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.neo4j.graphalgo.impl.shortestpath.SingleSourceShortestPath;
+import org.neo4j.graphalgo.impl.shortestpath.SingleSourceShortestPathFactory;
 import org.neo4j.graphdb.Node;
 
 /**
@@ -33,6 +42,12 @@ import org.neo4j.graphdb.Node;
  * instead of re-running it for each centrality measure. We do it by collecting
  * a number of {@link ShortestPathBasedCentrality} and then running the
  * {@link SingleSourceShortestPath} for every node.
+ * <p>
+ * When created with a {@link SingleSourceShortestPathFactory} the start nodes
+ * are instead spread out over a number of worker threads. Every worker gets
+ * its own {@link SingleSourceShortestPath} and its own copy of each
+ * centrality measure, holding values only for the nodes that worker touches.
+ * The copies are merged into the added measures when all workers are done.
  * @complexity The sum of the complexities of the centrality measures to
  *             compute, except that all the n*A terms implode into one single
  *             n*A term.
@@ -48,6 +63,8 @@ public class ParallellCentralityCalculation<ShortestPathCostType>
     protected Set<Node> nodeSet;
     List<ShortestPathBasedCentrality<?,ShortestPathCostType>> calculations = new LinkedList<ShortestPathBasedCentrality<?,ShortestPathCostType>>();
     protected boolean doneCalculation = false;
+    protected SingleSourceShortestPathFactory<ShortestPathCostType> singleSourceShortestPathFactory;
+    protected int parallelism = 1;
 
     /**
      * Default constructor.
@@ -66,6 +83,48 @@ public class ParallellCentralityCalculation<ShortestPathCostType>
         this.nodeSet = nodeSet;
     }
 
+    /**
+     * Creates a calculation running on several threads.
+     * @param singleSourceShortestPathFactory
+     *            Creates the underlying singleSourceShortestPath, one for
+     *            every worker.
+     * @param nodeSet
+     *            A set containing the nodes for which centrality values should
+     *            be computed.
+     * @param parallelism
+     *            The number of worker threads to use.
+     */
+    public ParallellCentralityCalculation(
+        SingleSourceShortestPathFactory<ShortestPathCostType> singleSourceShortestPathFactory,
+        Set<Node> nodeSet, int parallelism )
+    {
+        this( singleSourceShortestPathFactory.newInstance(), nodeSet );
+        if ( parallelism < 1 )
+        {
+            throw new IllegalArgumentException( "Parallelism must be at least 1, not "
+                + parallelism );
+        }
+        this.singleSourceShortestPathFactory = singleSourceShortestPathFactory;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Creates a calculation running on one thread per available processor.
+     * @param singleSourceShortestPathFactory
+     *            Creates the underlying singleSourceShortestPath, one for
+     *            every worker.
+     * @param nodeSet
+     *            A set containing the nodes for which centrality values should
+     *            be computed.
+     */
+    public ParallellCentralityCalculation(
+        SingleSourceShortestPathFactory<ShortestPathCostType> singleSourceShortestPathFactory,
+        Set<Node> nodeSet )
+    {
+        this( singleSourceShortestPathFactory, nodeSet,
+            Runtime.getRuntime().availableProcessors() );
+    }
+
     /**
      * This adds a centrality measure to be included in the calculation.
      * @param shortestPathBasedCentrality
@@ -95,6 +154,12 @@ public class ParallellCentralityCalculation<ShortestPathCostType>
             return;
         }
         doneCalculation = true;
+        if ( singleSourceShortestPathFactory != null && parallelism > 1
+            && nodeSet.size() > 1 )
+        {
+            calculateInParallel();
+            return;
+        }
         // For all nodes...
         for ( Node startNode : nodeSet )
         {
@@ -109,4 +174,153 @@ public class ParallellCentralityCalculation<ShortestPathCostType>
             }
         }
     }
+
+    private void calculateInParallel()
+    {
+        final List<Node> startNodes = new ArrayList<Node>( nodeSet );
+        final AtomicInteger nextStartNode = new AtomicInteger();
+        int workerCount = Math.min( parallelism, startNodes.size() );
+        List<Worker> workers = new ArrayList<Worker>( workerCount );
+        for ( int i = 0; i < workerCount; i++ )
+        {
+            workers.add( new Worker( singleSourceShortestPathFactory.newInstance(),
+                startNodes, nextStartNode ) );
+        }
+        ExecutorService executor = Executors.newFixedThreadPool( workerCount,
+            new WorkerThreadFactory() );
+        try
+        {
+            List<Future<Object>> futures = new ArrayList<Future<Object>>();
+            for ( Worker worker : workers )
+            {
+                futures.add( executor.submit( worker ) );
+            }
+            for ( Future<Object> future : futures )
+            {
+                future.get();
+            }
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException( "Interrupted while calculating centralities", e );
+        }
+        catch ( ExecutionException e )
+        {
+            throw new RuntimeException( "Centrality calculation failed", e.getCause() );
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+        // Collect the partial results
+        for ( Worker worker : workers )
+        {
+            for ( WorkerCalculation<?> calculation : worker.calculations )
+            {
+                calculation.merge();
+            }
+        }
+    }
+
+    /**
+     * Processes start nodes, taken from a shared list, until there are no more.
+     */
+    private class Worker implements Callable<Object>
+    {
+        private final SingleSourceShortestPath<ShortestPathCostType> singleSourceShortestPath;
+        private final List<Node> startNodes;
+        private final AtomicInteger nextStartNode;
+        private final List<WorkerCalculation<?>> calculations = new ArrayList<WorkerCalculation<?>>();
+
+        Worker( SingleSourceShortestPath<ShortestPathCostType> singleSourceShortestPath,
+            List<Node> startNodes, AtomicInteger nextStartNode )
+        {
+            this.singleSourceShortestPath = singleSourceShortestPath;
+            this.startNodes = startNodes;
+            this.nextStartNode = nextStartNode;
+            for ( ShortestPathBasedCentrality<?,ShortestPathCostType> calculation : ParallellCentralityCalculation.this.calculations )
+            {
+                this.calculations.add( newWorkerCalculation( calculation,
+                    singleSourceShortestPath ) );
+            }
+        }
+
+        public Object call()
+        {
+            int index;
+            while ( (index = nextStartNode.getAndIncrement()) < startNodes.size() )
+            {
+                Node startNode = startNodes.get( index );
+                singleSourceShortestPath.reset();
+                singleSourceShortestPath.setStartNode( startNode );
+                for ( WorkerCalculation<?> calculation : calculations )
+                {
+                    calculation.process( startNode, singleSourceShortestPath );
+                }
+            }
+            return null;
+        }
+    }
+
+    private <CentralityType> WorkerCalculation<CentralityType> newWorkerCalculation(
+        ShortestPathBasedCentrality<CentralityType,ShortestPathCostType> target,
+        SingleSourceShortestPath<ShortestPathCostType> singleSourceShortestPath )
+    {
+        return new WorkerCalculation<CentralityType>( target,
+            target.newWorker( singleSourceShortestPath ) );
+    }
+
+    /**
+     * One worker's share of a centrality measure. Measures that can't be split
+     * up are processed directly, one worker at a time.
+     */
+    private class WorkerCalculation<CentralityType>
+    {
+        private final ShortestPathBasedCentrality<CentralityType,ShortestPathCostType> target;
+        private final ShortestPathBasedCentrality<CentralityType,ShortestPathCostType> local;
+
+        WorkerCalculation(
+            ShortestPathBasedCentrality<CentralityType,ShortestPathCostType> target,
+            ShortestPathBasedCentrality<CentralityType,ShortestPathCostType> local )
+        {
+            this.target = target;
+            this.local = local;
+        }
+
+        void process( Node startNode,
+            SingleSourceShortestPath<ShortestPathCostType> singleSourceShortestPath )
+        {
+            if ( local != null )
+            {
+                local.processShortestPaths( startNode, singleSourceShortestPath );
+                return;
+            }
+            synchronized ( target )
+            {
+                target.processShortestPaths( startNode, singleSourceShortestPath );
+            }
+        }
+
+        void merge()
+        {
+            if ( local != null )
+            {
+                target.mergeWorker( local );
+            }
+        }
+    }
+
+    private static class WorkerThreadFactory implements ThreadFactory
+    {
+        private final AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread( Runnable runnable )
+        {
+            Thread thread = new Thread( runnable, "Centrality calculation worker-"
+                + count.incrementAndGet() );
+            thread.setDaemon( true );
+            return thread;
+        }
+    }
 }
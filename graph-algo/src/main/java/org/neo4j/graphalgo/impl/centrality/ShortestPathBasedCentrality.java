@@ -54,7 +54,8 @@ public abstract class ShortestPathBasedCentrality<CentralityType,ShortestPathCos
     /**
      * This map over centrality values is made available to the algorithms
      * inheriting this class. It is supposed to be filled with the method
-     * addCentralityToNode.
+     * addCentralityToNode. Nodes in the node set that have no entry yet have
+     * the zero value, see {@link #centralityOf(Node)}.
      */
     protected Map<Node,CentralityType> centralities = null;
 
@@ -92,10 +93,23 @@ public abstract class ShortestPathBasedCentrality<CentralityType,ShortestPathCos
     {
         doneCalculation = false;
         centralities = new HashMap<Node,CentralityType>();
-        for ( Node node : nodeSet )
+    }
+
+    /**
+     * The value in the centralities Map for a given node, which is the zero
+     * value for nodes in the node set that haven't been given one.
+     * @param node
+     * @return The value, or null if the node is not in the node set and has
+     *         no value.
+     */
+    protected CentralityType centralityOf( Node node )
+    {
+        CentralityType centrality = centralities.get( node );
+        if ( centrality == null && nodeSet.contains( node ) )
         {
-            centralities.put( node, zeroValue );
+            return zeroValue;
         }
+        return centrality;
     }
 
     /**
@@ -135,7 +149,7 @@ public abstract class ShortestPathBasedCentrality<CentralityType,ShortestPathCos
     public CentralityType getCentrality( Node node )
     {
         calculate();
-        return centralities.get( node );
+        return centralityOf( node );
     }
 
     /**
@@ -162,6 +176,59 @@ public abstract class ShortestPathBasedCentrality<CentralityType,ShortestPathCos
         }
     }
 
+    /**
+     * Creates an empty calculation of the same measure, over the same node
+     * set, but running on the given SingleSourceShortestPath. This is used by
+     * {@link ParallellCentralityCalculation} to give every worker thread its
+     * own accumulator, which are then collected back into this object with
+     * {@link #mergeWorker(ShortestPathBasedCentrality)}. Measures returning
+     * null here will instead have their processShortestPaths calls
+     * serialized. Since values are only stored for the nodes a worker
+     * touches, workers cost little more than their share of the result.
+     * @param singleSourceShortestPath
+     *            The SingleSourceShortestPath owned by the worker.
+     * @return The new calculation, or null if not supported.
+     */
+    protected ShortestPathBasedCentrality<CentralityType,ShortestPathCostType> newWorker(
+        SingleSourceShortestPath<ShortestPathCostType> singleSourceShortestPath )
+    {
+        return null;
+    }
+
+    /**
+     * Adds the result of a worker created by
+     * {@link #newWorker(SingleSourceShortestPath)} to this calculation. The
+     * default is to add the values together with the centralityAccumulator,
+     * which suits measures built with addCentralityToNode. Only the nodes the
+     * worker has values for are visited.
+     * @param worker
+     */
+    protected void mergeWorker(
+        ShortestPathBasedCentrality<CentralityType,ShortestPathCostType> worker )
+    {
+        for ( Map.Entry<Node,CentralityType> entry : worker.centralities.entrySet() )
+        {
+            addCentralityToNode( entry.getKey(), entry.getValue() );
+        }
+    }
+
+    /**
+     * Merge for measures built with setCentralityForNode, where every value is
+     * set by the worker processing that node only.
+     * @param worker
+     */
+    void mergeWorkerBySetting(
+        ShortestPathBasedCentrality<CentralityType,ShortestPathCostType> worker )
+    {
+        for ( Map.Entry<Node,CentralityType> entry : worker.centralities.entrySet() )
+        {
+            if ( !entry.getValue().equals( zeroValue ) )
+            {
+                setCentralityForNode( entry.getKey(), entry.getValue() );
+            }
+        }
+    }
+
     /**
      * This is the abstract method all centrality algorithms based on this class
      * need to implement. It is called once for every node in the node set,
@@ -139,4 +139,12 @@ public class StressCentrality<ShortestPathCostType> extends
         getAndUpdateNodeStress( node, true, successors, counter,
             new HashMap<Node,Double>() );
     }
+
+    @Override
+    protected ShortestPathBasedCentrality<Double,ShortestPathCostType> newWorker(
+        SingleSourceShortestPath<ShortestPathCostType> singleSourceShortestPath )
+    {
+        return new StressCentrality<ShortestPathCostType>(
+            singleSourceShortestPath, nodeSet );
+    }
 }
@@ -22,12 +22,10 @@ package org.neo4j.graphalgo.impl.path;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.Map;
-import java.util.Set;
 import java.util.TreeMap;
 
 import org.neo4j.graphalgo.CostEvaluator;
@@ -43,9 +41,13 @@ import org.neo4j.graphdb.Path;
 import org.neo4j.graphdb.Relationship;
 import org.neo4j.graphdb.RelationshipExpander;
 import org.neo4j.helpers.collection.PrefetchingIterator;
+import org.neo4j.helpers.collection.PrimitiveLongObjectMap;
+import org.neo4j.helpers.collection.PrimitiveLongSet;
 
 public class AStar implements PathFinder<WeightedPath>
 {
+    private static final long NO_RELATIONSHIP = -1;
+
     private final RelationshipExpander expander;
     private final CostEvaluator<Double> lengthEvaluator;
     private final EstimateEvaluator<Double> estimateEvaluator;
@@ -68,15 +70,15 @@ public class AStar implements PathFinder<WeightedPath>
             if ( node.equals( end ) )
             {
                 // Hit, return path
-                double weight = doer.score.get( node.getId() ).wayLength;
+                Data data = doer.score.get( node.getId() );
+                double weight = data.wayLength;
                 LinkedList<Relationship> rels = new LinkedList<Relationship>();
-                Relationship rel = graphDb.getRelationshipById( doer.cameFrom.get( node.getId() ) );
-                while ( rel != null )
+                while ( data.cameFrom != NO_RELATIONSHIP )
                 {
+                    Relationship rel = graphDb.getRelationshipById( data.cameFrom );
                     rels.addFirst( rel );
                     node = rel.getOtherNode( node );
-                    Long nextRelId = doer.cameFrom.get( node.getId() );
-                    rel = nextRelId == null ? null : graphDb.getRelationshipById( nextRelId );
+                    data = doer.score.get( node.getId() );
                 }
                 Path path = toPath( start, rels );
                 return new WeightedPathImpl( weight, path );
@@ -105,6 +107,7 @@ public class AStar implements PathFinder<WeightedPath>
     {
         private double wayLength; // acumulated cost to get here (g)
         private double estimate; // heuristic estimate of cost to reach end (h)
+        private long cameFrom = NO_RELATIONSHIP; // relationship taken to get here
         
         double getFscore()
         {
@@ -117,12 +120,11 @@ public class AStar implements PathFinder<WeightedPath>
         private final Node end;
         private Node lastNode;
         private boolean expand;
-        private final Set<Long> visitedNodes = new HashSet<Long>();
-        private final Set<Node> nextNodesSet = new HashSet<Node>();
+        private final PrimitiveLongSet visitedNodes = new PrimitiveLongSet();
+        private final PrimitiveLongSet nextNodesSet = new PrimitiveLongSet();
         private final TreeMap<Double, Collection<Node>> nextNodes =
                 new TreeMap<Double, Collection<Node>>();
-        private final Map<Long, Long> cameFrom = new HashMap<Long, Long>();
-        private final Map<Long, Data> score = new HashMap<Long, Data>();
+        private final PrimitiveLongObjectMap<Data> score = new PrimitiveLongObjectMap<Data>();
         
         Doer( Node start, Node end )
         {
@@ -144,7 +146,7 @@ public class AStar implements PathFinder<WeightedPath>
                 this.nextNodes.put( fscore, nodes );
             }
             nodes.add( node );
-            this.nextNodesSet.add( node );
+            this.nextNodesSet.add( node.getId() );
         }
 
         private Node popLowestScoreNode()
@@ -166,7 +168,7 @@ public class AStar implements PathFinder<WeightedPath>
             if ( node != null )
             {
                 entry.getValue().remove( node );
-                this.nextNodesSet.remove( node );
+                this.nextNodesSet.remove( node.getId() );
                 if ( entry.getValue().isEmpty() )
                 {
                     this.nextNodes.remove( entry.getKey() );
@@ -209,7 +211,7 @@ public class AStar implements PathFinder<WeightedPath>
                         lengthEvaluator.getCost( rel, Direction.OUTGOING );
                 boolean isBetter = false;
                 double estimate = estimateEvaluator.getCost( node, this.end );
-                if ( !this.nextNodesSet.contains( node ) )
+                if ( !this.nextNodesSet.contains( node.getId() ) )
                 {
                     addNext( node, estimate + tentativeGScore );
                     isBetter = true;
@@ -221,10 +223,10 @@ public class AStar implements PathFinder<WeightedPath>
                 
                 if ( isBetter )
                 {
-                    this.cameFrom.put( node.getId(), rel.getId() );
                     Data data = new Data();
                     data.wayLength = tentativeGScore;
                     data.estimate = estimate;
+                    data.cameFrom = rel.getId();
                     this.score.put( node.getId(), data );
                 }
             }
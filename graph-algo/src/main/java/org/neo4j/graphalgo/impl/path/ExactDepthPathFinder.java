@@ -19,9 +19,7 @@
  */
 package org.neo4j.graphalgo.impl.path;
 
-import java.util.HashMap;
 import java.util.Iterator;
-import java.util.Map;
 
 import org.neo4j.graphalgo.PathFinder;
 import org.neo4j.graphalgo.impl.util.LiteDepthFirstSelector;
@@ -37,6 +35,7 @@ import org.neo4j.graphdb.traversal.TraversalDescription;
 import org.neo4j.graphdb.traversal.Traverser;
 import org.neo4j.helpers.Predicate;
 import org.neo4j.helpers.collection.PrefetchingIterator;
+import org.neo4j.helpers.collection.PrimitiveLongObjectMap;
 import org.neo4j.kernel.Traversal;
 import org.neo4j.kernel.Uniqueness;
 
@@ -119,7 +118,7 @@ public class ExactDepthPathFinder implements PathFinder<Path>
         final Iterator<Path> startIterator = startTraverser.iterator();
         final Iterator<Path> endIterator = endTraverser.iterator();
 
-        final Map<Node, Visit> visits = new HashMap<Node, Visit>();
+        final PrimitiveLongObjectMap<Visit> visits = new PrimitiveLongObjectMap<Visit>();
         return new PrefetchingIterator<Path>()
         {
             @Override
@@ -164,14 +163,14 @@ public class ExactDepthPathFinder implements PathFinder<Path>
     }
 
     private Path[] goOneStep( Node node, Iterator<Path> visitor,
-            Map<Node, Visit> visits )
+            PrimitiveLongObjectMap<Visit> visits )
     {
         if ( !visitor.hasNext() )
         {
             return null;
         }
         Path position = visitor.next();
-        Visit visit = visits.get( position.endNode() );
+        Visit visit = visits.get( position.endNode().getId() );
         if ( visit != null )
         {
             if ( visitor != visit.visitor )
@@ -181,7 +180,7 @@ public class ExactDepthPathFinder implements PathFinder<Path>
         }
         else
         {
-            visits.put( position.endNode(), new Visit( position, visitor ) );
+            visits.put( position.endNode().getId(), new Visit( position, visitor ) );
         }
         return null;
     }
@@ -0,0 +1,429 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.graphalgo.impl.path;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.neo4j.graphalgo.PathFinder;
+import org.neo4j.graphalgo.impl.util.PathImpl;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Path;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipExpander;
+import org.neo4j.helpers.collection.ConcurrentPrimitiveLongObjectMap;
+
+/**
+ * Finds (all or one) shortest paths between two nodes, like {@link ShortestPath},
+ * but expands the frontiers on several threads. It is meant for deep searches
+ * where the frontiers get wide, such as between two well connected nodes.
+ *
+ * The search goes one level at a time. For every level the side which is
+ * cheaper to expand is chosen, judged by the size of its frontier times the
+ * average degree seen on that side so far. When neither side is much more
+ * expensive than the other, both are expanded at the same time. The nodes of
+ * an expanded frontier are split among the worker threads.
+ *
+ * Every side keeps the nodes it has visited in a
+ * {@link ConcurrentPrimitiveLongObjectMap}. A worker puts every node it reaches
+ * into the map of its own side, and then looks the node up in the map of the
+ * other side. Both lookups go through locks, so when both sides reach the same
+ * node in the same level at least one of them sees the other.
+ *
+ * Relationships are traversed in the specified directions from the start node,
+ * but in the reverse direction ( {@link org.neo4j.graphdb.Direction#reverse()} )
+ * from the end node.
+ *
+ * Since the graph is read by worker threads, changes not yet committed by the
+ * calling thread's transaction aren't seen by the search.
+ */
+public class ParallelShortestPath implements PathFinder<Path>
+{
+    private static final int MIN_NODES_PER_WORKER = 32;
+
+    private final int maxDepth;
+    private final int maxResultCount;
+    private final RelationshipExpander relExpander;
+    private final int parallelism;
+
+    /**
+     * Constructs a new parallel shortest path algorithm, using as many
+     * threads as there are processors.
+     * @param maxDepth the maximum depth for the traversal. Returned paths
+     * will never have a greater {@link Path#length()} than {@code maxDepth}.
+     * @param relExpander the {@link RelationshipExpander} to use for deciding
+     * which relationships to expand for each {@link Node}.
+     * @param maxResultCount the maximum number of hits to return.
+     */
+    public ParallelShortestPath( int maxDepth, RelationshipExpander relExpander, int maxResultCount )
+    {
+        this( maxDepth, relExpander, maxResultCount, Runtime.getRuntime().availableProcessors() );
+    }
+
+    /**
+     * Constructs a new parallel shortest path algorithm.
+     * @param maxDepth the maximum depth for the traversal. Returned paths
+     * will never have a greater {@link Path#length()} than {@code maxDepth}.
+     * @param relExpander the {@link RelationshipExpander} to use for deciding
+     * which relationships to expand for each {@link Node}.
+     * @param maxResultCount the maximum number of hits to return.
+     * @param parallelism the number of threads to expand frontiers with.
+     */
+    public ParallelShortestPath( int maxDepth, RelationshipExpander relExpander, int maxResultCount,
+            int parallelism )
+    {
+        if ( parallelism < 1 )
+        {
+            throw new IllegalArgumentException( "Parallelism must be at least 1, not " + parallelism );
+        }
+        this.maxDepth = maxDepth;
+        this.relExpander = relExpander;
+        this.maxResultCount = maxResultCount;
+        this.parallelism = parallelism;
+    }
+
+    public Iterable<Path> findAllPaths( Node start, Node end )
+    {
+        return internalPaths( start, end, maxResultCount );
+    }
+
+    public Path findSinglePath( Node start, Node end )
+    {
+        Iterator<Path> paths = internalPaths( start, end, 1 ).iterator();
+        return paths.hasNext() ? paths.next() : null;
+    }
+
+    private Collection<Path> internalPaths( Node start, Node end, int resultCount )
+    {
+        if ( start.equals( end ) )
+        {
+            return Arrays.asList( PathImpl.singular( start ) );
+        }
+
+        Side startSide = new Side( start, relExpander );
+        Side endSide = new Side( end, relExpander.reversed() );
+        Queue<Node> meetings = new ConcurrentLinkedQueue<Node>();
+        ExecutorService executor = Executors.newFixedThreadPool( parallelism,
+                new WorkerThreadFactory() );
+        try
+        {
+            while ( meetings.isEmpty() && startSide.depth + endSide.depth < maxDepth
+                    && !startSide.frontier.isEmpty() && !endSide.frontier.isEmpty() )
+            {
+                double startCost = startSide.cost();
+                double endCost = endSide.cost();
+                List<Future<Object>> futures = new ArrayList<Future<Object>>();
+                if ( startSide.depth + endSide.depth + 2 <= maxDepth
+                        && startCost <= 2 * endCost && endCost <= 2 * startCost )
+                {
+                    futures.addAll( startSide.expand( endSide, meetings, executor ) );
+                    futures.addAll( endSide.expand( startSide, meetings, executor ) );
+                }
+                else if ( startCost <= endCost )
+                {
+                    futures.addAll( startSide.expand( endSide, meetings, executor ) );
+                }
+                else
+                {
+                    futures.addAll( endSide.expand( startSide, meetings, executor ) );
+                }
+                for ( Future<Object> future : futures )
+                {
+                    future.get();
+                }
+                startSide.completeLevel();
+                endSide.completeLevel();
+            }
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException( "Interrupted while finding shortest paths", e );
+        }
+        catch ( ExecutionException e )
+        {
+            throw new RuntimeException( "Finding shortest paths failed", e.getCause() );
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+        return meetings.isEmpty() ? Collections.<Path>emptyList() :
+                meetingsToPaths( meetings, startSide, endSide, resultCount );
+    }
+
+    /*
+     * When both sides were expanded in the last level, a path may have been
+     * found through several of its nodes, and there may be meetings at two
+     * lengths. Only the shortest ones are kept, and each path only once.
+     */
+    private static Collection<Path> meetingsToPaths( Collection<Node> meetings, Side startSide,
+            Side endSide, int resultCount )
+    {
+        int shortest = Integer.MAX_VALUE;
+        for ( Node node : meetings )
+        {
+            shortest = Math.min( shortest, startSide.depthOf( node ) + endSide.depthOf( node ) );
+        }
+
+        Map<List<Long>, Path> paths = new LinkedHashMap<List<Long>, Path>();
+        for ( Node node : meetings )
+        {
+            if ( startSide.depthOf( node ) + endSide.depthOf( node ) != shortest )
+            {
+                continue;
+            }
+            for ( LinkedList<Relationship> startPath : startSide.pathsTo( node ) )
+            {
+                PathImpl.Builder startBuilder = toBuilder( startSide.startNode, startPath );
+                for ( LinkedList<Relationship> endPath : endSide.pathsTo( node ) )
+                {
+                    List<Long> key = new ArrayList<Long>();
+                    for ( Relationship rel : startPath )
+                    {
+                        key.add( rel.getId() );
+                    }
+                    Iterator<Relationship> backwards = endPath.descendingIterator();
+                    while ( backwards.hasNext() )
+                    {
+                        key.add( backwards.next().getId() );
+                    }
+                    if ( !paths.containsKey( key ) )
+                    {
+                        paths.put( key, startBuilder.build( toBuilder( endSide.startNode, endPath ) ) );
+                        if ( paths.size() >= resultCount )
+                        {
+                            return paths.values();
+                        }
+                    }
+                }
+            }
+        }
+        return paths.values();
+    }
+
+    private static PathImpl.Builder toBuilder( Node startNode, LinkedList<Relationship> rels )
+    {
+        PathImpl.Builder builder = new PathImpl.Builder( startNode );
+        for ( Relationship rel : rels )
+        {
+            builder = builder.push( rel );
+        }
+        return builder;
+    }
+
+    // Two instances per search, expanded by several threads at a time
+    private class Side
+    {
+        private final Node startNode;
+        private final RelationshipExpander expander;
+        private final ConcurrentPrimitiveLongObjectMap<LevelData> visitedNodes =
+                new ConcurrentPrimitiveLongObjectMap<LevelData>( parallelism * 4 );
+        private List<Node> frontier = new ArrayList<Node>();
+        private final Queue<List<Node>> nextFrontier = new ConcurrentLinkedQueue<List<Node>>();
+        private final AtomicInteger expandedNodes = new AtomicInteger();
+        private final AtomicInteger expandedRelationships = new AtomicInteger();
+        private int depth;
+        private boolean expanding;
+
+        Side( Node startNode, RelationshipExpander expander )
+        {
+            this.startNode = startNode;
+            this.expander = expander;
+            this.visitedNodes.put( startNode.getId(), new LevelData( 0 ) );
+            this.frontier.add( startNode );
+        }
+
+        /**
+         * The number of relationships expanding the frontier is expected to
+         * cost, from the degree of the nodes expanded so far.
+         */
+        double cost()
+        {
+            int nodes = expandedNodes.get();
+            double averageDegree = nodes == 0 ? 1 : (double) expandedRelationships.get() / nodes;
+            return frontier.size() * averageDegree;
+        }
+
+        List<Future<Object>> expand( Side otherSide, Queue<Node> meetings, ExecutorService executor )
+        {
+            expanding = true;
+            int workers = Math.max( 1, Math.min( parallelism, frontier.size() / MIN_NODES_PER_WORKER ) );
+            int chunkSize = (frontier.size() + workers - 1) / workers;
+            List<Future<Object>> futures = new ArrayList<Future<Object>>();
+            for ( int from = 0; from < frontier.size(); from += chunkSize )
+            {
+                List<Node> chunk = frontier.subList( from, Math.min( frontier.size(), from + chunkSize ) );
+                futures.add( executor.submit( new Expansion( this, otherSide, chunk, meetings ) ) );
+            }
+            return futures;
+        }
+
+        void completeLevel()
+        {
+            if ( !expanding )
+            {
+                return;
+            }
+            expanding = false;
+            depth++;
+            List<Node> next = new ArrayList<Node>();
+            for ( List<Node> part : nextFrontier )
+            {
+                next.addAll( part );
+            }
+            nextFrontier.clear();
+            frontier = next;
+        }
+
+        int depthOf( Node node )
+        {
+            return visitedNodes.get( node.getId() ).depth;
+        }
+
+        List<LinkedList<Relationship>> pathsTo( Node node )
+        {
+            List<LinkedList<Relationship>> result = new ArrayList<LinkedList<Relationship>>();
+            LevelData levelData = visitedNodes.get( node.getId() );
+            if ( levelData.depth == 0 )
+            {
+                result.add( new LinkedList<Relationship>() );
+                return result;
+            }
+            GraphDatabaseService graphDb = node.getGraphDatabase();
+            for ( long relId : levelData.relsToHere() )
+            {
+                Relationship rel = graphDb.getRelationshipById( relId );
+                for ( LinkedList<Relationship> path : pathsTo( rel.getOtherNode( node ) ) )
+                {
+                    path.addLast( rel );
+                    result.add( path );
+                }
+            }
+            return result;
+        }
+    }
+
+    // One per worker and level
+    private static class Expansion implements Callable<Object>
+    {
+        private final Side side;
+        private final Side otherSide;
+        private final List<Node> nodes;
+        private final Queue<Node> meetings;
+
+        Expansion( Side side, Side otherSide, List<Node> nodes, Queue<Node> meetings )
+        {
+            this.side = side;
+            this.otherSide = otherSide;
+            this.nodes = nodes;
+            this.meetings = meetings;
+        }
+
+        public Object call()
+        {
+            int nextDepth = side.depth + 1;
+            List<Node> next = new ArrayList<Node>();
+            int relationships = 0;
+            for ( Node node : nodes )
+            {
+                for ( Relationship rel : side.expander.expand( node ) )
+                {
+                    relationships++;
+                    Node other = rel.getOtherNode( node );
+                    LevelData levelData = new LevelData( nextDepth );
+                    LevelData existing = side.visitedNodes.putIfAbsent( other.getId(), levelData );
+                    if ( existing == null )
+                    {
+                        levelData.addRel( rel );
+                        next.add( other );
+                        if ( otherSide.visitedNodes.containsKey( other.getId() ) )
+                        {
+                            meetings.add( other );
+                        }
+                    }
+                    else if ( existing.depth == nextDepth )
+                    {
+                        existing.addRel( rel );
+                    }
+                }
+            }
+            side.expandedNodes.addAndGet( nodes.size() );
+            side.expandedRelationships.addAndGet( relationships );
+            side.nextFrontier.add( next );
+            return null;
+        }
+    }
+
+    // Many long-lived instances, the relationships of one may be added by several threads
+    private static class LevelData
+    {
+        private final int depth;
+        private long[] relsToHere = new long[0];
+
+        LevelData( int depth )
+        {
+            this.depth = depth;
+        }
+
+        synchronized void addRel( Relationship rel )
+        {
+            long[] newRels = new long[relsToHere.length + 1];
+            System.arraycopy( relsToHere, 0, newRels, 0, relsToHere.length );
+            newRels[relsToHere.length] = rel.getId();
+            relsToHere = newRels;
+        }
+
+        synchronized long[] relsToHere()
+        {
+            return relsToHere;
+        }
+    }
+
+    private static class WorkerThreadFactory implements ThreadFactory
+    {
+        private final AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread( Runnable runnable )
+        {
+            Thread thread = new Thread( runnable, "Shortest path worker-"
+                + count.incrementAndGet() );
+            thread.setDaemon( true );
+            return thread;
+        }
+    }
+}
@@ -19,15 +19,13 @@
  */
 package org.neo4j.graphalgo.impl.util;
 
-import java.util.HashSet;
-import java.util.Set;
-
 import org.neo4j.graphalgo.impl.util.PriorityMap.Converter;
 import org.neo4j.graphalgo.impl.util.PriorityMap.Entry;
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.traversal.BranchOrderingPolicy;
 import org.neo4j.graphdb.traversal.BranchSelector;
 import org.neo4j.graphdb.traversal.TraversalBranch;
+import org.neo4j.helpers.collection.PrimitiveLongSet;
 
 public abstract class BestFirstSelectorFactory<P extends Comparable<P>, D>
         implements BranchOrderingPolicy
@@ -45,7 +43,7 @@ public abstract class BestFirstSelectorFactory<P extends Comparable<P>, D>
                 PriorityMap.withNaturalOrder( CONVERTER );
         private TraversalBranch current;
         private P currentAggregatedValue;
-        private final Set<Long> visitedNodes = new HashSet<Long>();
+        private final PrimitiveLongSet visitedNodes = new PrimitiveLongSet();
 
         public BestFirstSelector( TraversalBranch source, P startData )
         {
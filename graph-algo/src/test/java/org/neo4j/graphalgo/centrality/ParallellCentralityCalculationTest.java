@@ -19,20 +19,29 @@
  */
 package org.neo4j.graphalgo.centrality;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import java.util.Set;
+
 import org.junit.Test;
 import org.neo4j.graphalgo.CostEvaluator;
 import org.neo4j.graphalgo.impl.centrality.BetweennessCentrality;
 import org.neo4j.graphalgo.impl.centrality.ClosenessCentrality;
 import org.neo4j.graphalgo.impl.centrality.CostDivider;
+import org.neo4j.graphalgo.impl.centrality.Eccentricity;
+import org.neo4j.graphalgo.impl.centrality.NetworkDiameter;
+import org.neo4j.graphalgo.impl.centrality.NetworkRadius;
 import org.neo4j.graphalgo.impl.centrality.ParallellCentralityCalculation;
 import org.neo4j.graphalgo.impl.centrality.ShortestPathBasedCentrality;
 import org.neo4j.graphalgo.impl.centrality.StressCentrality;
 import org.neo4j.graphalgo.impl.shortestpath.SingleSourceShortestPath;
 import org.neo4j.graphalgo.impl.shortestpath.SingleSourceShortestPathDijkstra;
+import org.neo4j.graphalgo.impl.shortestpath.SingleSourceShortestPathFactory;
 import org.neo4j.graphalgo.impl.util.DoubleAdder;
+import org.neo4j.graphalgo.impl.util.DoubleComparator;
 import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.Relationship;
 
 import common.Neo4jAlgoTestCase;
@@ -110,4 +119,113 @@ public class ParallellCentralityCalculationTest extends Neo4jAlgoTestCase
         assertCentrality( closenessCentrality, "d", 1.0 / 7 );
         assertCentrality( closenessCentrality, "e", 1.0 / 7 );
     }
+
+    private static final CostDivider<Double> DIVIDER = new CostDivider<Double>()
+    {
+        public Double divideByCost( Double d, Double c )
+        {
+            return d / c;
+        }
+
+        public Double divideCost( Double c, Double d )
+        {
+            return c / d;
+        }
+    };
+
+    @Test
+    public void parallelCalculationGivesSameResultAsSequential()
+    {
+        // A grid with a tail, so that the nodes get different values
+        int size = 6;
+        for ( int y = 0; y < size; y++ )
+        {
+            for ( int x = 0; x < size; x++ )
+            {
+                if ( x + 1 < size )
+                {
+                    graph.makeEdge( x + "_" + y, (x + 1) + "_" + y );
+                }
+                if ( y + 1 < size )
+                {
+                    graph.makeEdge( x + "_" + y, x + "_" + (y + 1) );
+                }
+            }
+        }
+        graph.makeEdgeChain( "0_0,t1,t2,t3" );
+        // The workers use their own threads, which only see committed data
+        restartTx();
+        Set<Node> nodes = graph.getAllNodes();
+
+        ParallellCentralityCalculation<Double> sequential = new ParallellCentralityCalculation<Double>(
+            getSingleSourceShortestPath(), nodes );
+        Measures expected = new Measures( sequential, nodes );
+        sequential.calculate();
+
+        ParallellCentralityCalculation<Double> parallel = new ParallellCentralityCalculation<Double>(
+            new SingleSourceShortestPathFactory<Double>()
+            {
+                public SingleSourceShortestPath<Double> newInstance()
+                {
+                    return getSingleSourceShortestPath();
+                }
+            }, nodes, 4 );
+        Measures actual = new Measures( parallel, nodes );
+        parallel.calculate();
+
+        for ( Node node : nodes )
+        {
+            assertSameSum( expected.betweenness.getCentrality( node ),
+                actual.betweenness.getCentrality( node ) );
+            assertSameSum( expected.stress.getCentrality( node ),
+                actual.stress.getCentrality( node ) );
+            assertSameSum( expected.closeness.getCentrality( node ),
+                actual.closeness.getCentrality( node ) );
+            assertEquals( expected.eccentricity.getCentrality( node ),
+                actual.eccentricity.getCentrality( node ) );
+        }
+        assertEquals( expected.diameter.getCentrality( null ),
+            actual.diameter.getCentrality( null ) );
+        assertEquals( expected.radius.getCentrality( null ),
+            actual.radius.getCentrality( null ) );
+    }
+
+    /**
+     * Sums are added up in a different order when calculating in parallel.
+     */
+    private void assertSameSum( Double expected, Double actual )
+    {
+        assertEquals( expected, actual, Math.abs( expected ) * 0.000000001 );
+    }
+
+    private class Measures
+    {
+        final BetweennessCentrality<Double> betweenness;
+        final StressCentrality<Double> stress;
+        final ClosenessCentrality<Double> closeness;
+        final Eccentricity<Double> eccentricity;
+        final NetworkDiameter<Double> diameter;
+        final NetworkRadius<Double> radius;
+
+        Measures( ParallellCentralityCalculation<Double> pcc, Set<Node> nodes )
+        {
+            SingleSourceShortestPath<Double> sssp = getSingleSourceShortestPath();
+            betweenness = new BetweennessCentrality<Double>( sssp, nodes );
+            stress = new StressCentrality<Double>( sssp, nodes );
+            closeness = new ClosenessCentrality<Double>( sssp,
+                new DoubleAdder(), 0.0, nodes, DIVIDER );
+            eccentricity = new Eccentricity<Double>( sssp, 0.0, nodes,
+                new DoubleComparator() );
+            diameter = new NetworkDiameter<Double>( sssp, 0.0, nodes,
+                new DoubleComparator() );
+            radius = new NetworkRadius<Double>( sssp, 0.0, nodes,
+                new DoubleComparator() );
+            pcc.addCalculation( betweenness );
+            pcc.addCalculation( stress );
+            pcc.addCalculation( closeness );
+            pcc.addCalculation( eccentricity );
+            pcc.addCalculation( diameter );
+            pcc.addCalculation( radius );
+        }
+    }
 }
@@ -0,0 +1,94 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.graphalgo.path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.neo4j.graphalgo.GraphAlgoFactory.parallelShortestPath;
+import static org.neo4j.helpers.collection.IteratorUtil.count;
+
+import org.junit.Test;
+import org.neo4j.graphalgo.PathFinder;
+import org.neo4j.graphalgo.impl.path.ParallelShortestPath;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Path;
+import org.neo4j.graphdb.RelationshipExpander;
+import org.neo4j.kernel.Traversal;
+
+/**
+ * Runs all the shortest path tests with {@link ParallelShortestPath} too.
+ */
+public class TestParallelShortestPath extends TestShortestPath
+{
+    @Override
+    protected PathFinder<Path> instantiatePathFinder( RelationshipExpander expander, int maxDepth )
+    {
+        // The worker threads only see committed data
+        restartTx();
+        return parallelShortestPath( expander, maxDepth );
+    }
+
+    @Test
+    public void makeSureAMaxHitCountIsObeyed()
+    {
+        graph.makeEdgeChain( "a,b,c,d,e" );
+        graph.makeEdgeChain( "a,f,g,h,e" );
+        graph.makeEdgeChain( "f,i,j,e" );
+        graph.makeEdgeChain( "i,k,e" );
+
+        restartTx();
+
+        RelationshipExpander expander = Traversal.expanderForTypes( MyRelTypes.R1, Direction.OUTGOING );
+        Node a = graph.getNode( "a" );
+        Node e = graph.getNode( "e" );
+        assertEquals( 4, count( parallelShortestPath( expander, 10, 10 ).findAllPaths( a, e ) ) );
+        assertEquals( 3, count( parallelShortestPath( expander, 10, 3 ).findAllPaths( a, e ) ) );
+        assertEquals( 1, count( parallelShortestPath( expander, 10, 1 ).findAllPaths( a, e ) ) );
+    }
+
+    @Test
+    public void findsAllPathsThroughWideFrontiers()
+    {
+        // Layout:
+        //
+        //     (a0)--(b0)
+        //    /            \
+        // (s)-(a1)--(b1)--(t)
+        //    \     ...    /
+        //     (aN)--(bN)
+        int width = 200;
+        for ( int i = 0; i < width; i++ )
+        {
+            graph.makeEdgeChain( "s,a" + i + ",b" + i + ",t" );
+        }
+
+        restartTx();
+
+        PathFinder<Path> finder = new ParallelShortestPath( 10,
+                Traversal.expanderForTypes( MyRelTypes.R1, Direction.OUTGOING ), Integer.MAX_VALUE, 4 );
+        Node s = graph.getNode( "s" );
+        Node t = graph.getNode( "t" );
+        assertEquals( width, count( finder.findAllPaths( s, t ) ) );
+        assertEquals( 3, finder.findSinglePath( s, t ).length() );
+        assertNull( new ParallelShortestPath( 2, Traversal.expanderForTypes( MyRelTypes.R1,
+                Direction.OUTGOING ), Integer.MAX_VALUE, 4 ).findSinglePath( s, t ) );
+    }
+}
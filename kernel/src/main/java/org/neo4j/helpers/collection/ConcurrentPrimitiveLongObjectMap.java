@@ -0,0 +1,155 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.helpers.collection;
+
+/**
+ * A thread safe map from primitive longs to objects. Keys are spread over a
+ * number of {@link PrimitiveLongObjectMap} segments, each guarded by its own
+ * lock, so that threads working on different keys seldom contend for the
+ * same lock. {@code null} values aren't allowed.
+ *
+ * @param <V> the type of the values.
+ */
+public class ConcurrentPrimitiveLongObjectMap<V>
+{
+    private static final int DEFAULT_CONCURRENCY_LEVEL = 16;
+
+    private final PrimitiveLongObjectMap<V>[] segments;
+    private final int mask;
+
+    public ConcurrentPrimitiveLongObjectMap()
+    {
+        this( DEFAULT_CONCURRENCY_LEVEL );
+    }
+
+    /**
+     * @param concurrencyLevel the number of threads expected to update the
+     * map at the same time, rounded up to a power of two segments.
+     */
+    @SuppressWarnings( "unchecked" )
+    public ConcurrentPrimitiveLongObjectMap( int concurrencyLevel )
+    {
+        int count = 1;
+        while ( count < concurrencyLevel )
+        {
+            count <<= 1;
+        }
+        segments = new PrimitiveLongObjectMap[count];
+        for ( int i = 0; i < count; i++ )
+        {
+            segments[i] = new PrimitiveLongObjectMap<V>();
+        }
+        mask = count - 1;
+    }
+
+    private PrimitiveLongObjectMap<V> segmentFor( long key )
+    {
+        // the segments then see every count:th key, which the slot hashing
+        // within each segment copes well with
+        return segments[(int) (key ^ (key >>> 32)) & mask];
+    }
+
+    /**
+     * @return the value mapped to {@code key}, or {@code null} if there's
+     * no such mapping.
+     */
+    public V get( long key )
+    {
+        PrimitiveLongObjectMap<V> segment = segmentFor( key );
+        synchronized ( segment )
+        {
+            return segment.get( key );
+        }
+    }
+
+    public boolean containsKey( long key )
+    {
+        return get( key ) != null;
+    }
+
+    /**
+     * @return the value previously mapped to {@code key}, or {@code null}
+     * if there was no such mapping.
+     */
+    public V put( long key, V value )
+    {
+        PrimitiveLongObjectMap<V> segment = segmentFor( key );
+        synchronized ( segment )
+        {
+            return segment.put( key, value );
+        }
+    }
+
+    /**
+     * Maps {@code key} to {@code value} unless {@code key} is already mapped,
+     * as one atomic operation.
+     *
+     * @return the value already mapped to {@code key}, or {@code null} if
+     * {@code value} was put in the map.
+     */
+    public V putIfAbsent( long key, V value )
+    {
+        PrimitiveLongObjectMap<V> segment = segmentFor( key );
+        synchronized ( segment )
+        {
+            V existing = segment.get( key );
+            if ( existing == null )
+            {
+                segment.put( key, value );
+            }
+            return existing;
+        }
+    }
+
+    /**
+     * @return the value previously mapped to {@code key}, or {@code null}
+     * if there was no such mapping.
+     */
+    public V remove( long key )
+    {
+        PrimitiveLongObjectMap<V> segment = segmentFor( key );
+        synchronized ( segment )
+        {
+            return segment.remove( key );
+        }
+    }
+
+    /**
+     * @return the number of mappings. Not a snapshot if the map is being
+     * updated concurrently.
+     */
+    public int size()
+    {
+        int size = 0;
+        for ( PrimitiveLongObjectMap<V> segment : segments )
+        {
+            synchronized ( segment )
+            {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    public boolean isEmpty()
+    {
+        return size() == 0;
+    }
+}
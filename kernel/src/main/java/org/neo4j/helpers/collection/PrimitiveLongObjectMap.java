@@ -0,0 +1,235 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.helpers.collection;
+
+import static org.neo4j.helpers.collection.PrimitiveLongSet.FREE;
+import static org.neo4j.helpers.collection.PrimitiveLongSet.LOAD_FACTOR;
+import static org.neo4j.helpers.collection.PrimitiveLongSet.capacityFor;
+import static org.neo4j.helpers.collection.PrimitiveLongSet.slotFor;
+
+import java.util.Arrays;
+
+/**
+ * A map from primitive longs to objects, using open addressing with linear
+ * probing like {@link PrimitiveLongSet} so that keys aren't boxed and no
+ * entry objects are allocated. {@code null} values aren't allowed.
+ *
+ * Not thread safe.
+ *
+ * @param <V> the type of the values.
+ */
+public class PrimitiveLongObjectMap<V>
+{
+    private long[] keys;
+    private Object[] values;
+    private int mask;
+    private int threshold;
+    private int size;
+    // the value of the key used to mark free slots is stored on the side
+    private Object freeKeyValue;
+
+    public PrimitiveLongObjectMap()
+    {
+        this( PrimitiveLongSet.DEFAULT_CAPACITY );
+    }
+
+    /**
+     * @param expectedSize the number of entries the map can hold before it
+     * needs to grow.
+     */
+    public PrimitiveLongObjectMap( int expectedSize )
+    {
+        allocate( capacityFor( expectedSize ) );
+    }
+
+    /**
+     * @return the value mapped to {@code key}, or {@code null} if there's
+     * no such mapping.
+     */
+    @SuppressWarnings( "unchecked" )
+    public V get( long key )
+    {
+        if ( key == FREE )
+        {
+            return (V) freeKeyValue;
+        }
+        int slot = slotFor( key, mask );
+        while ( keys[slot] != FREE )
+        {
+            if ( keys[slot] == key )
+            {
+                return (V) values[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    public boolean containsKey( long key )
+    {
+        return get( key ) != null;
+    }
+
+    /**
+     * Maps {@code key} to {@code value}.
+     *
+     * @return the value previously mapped to {@code key}, or {@code null}.
+     */
+    @SuppressWarnings( "unchecked" )
+    public V put( long key, V value )
+    {
+        if ( value == null )
+        {
+            throw new IllegalArgumentException( "Null values not allowed, key " + key );
+        }
+        if ( key == FREE )
+        {
+            V previous = (V) freeKeyValue;
+            freeKeyValue = value;
+            if ( previous == null )
+            {
+                size++;
+            }
+            return previous;
+        }
+        int slot = slotFor( key, mask );
+        while ( keys[slot] != FREE )
+        {
+            if ( keys[slot] == key )
+            {
+                V previous = (V) values[slot];
+                values[slot] = value;
+                return previous;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        if ( ++size > threshold )
+        {
+            rehash( keys.length << 1 );
+        }
+        return null;
+    }
+
+    /**
+     * Removes the mapping for {@code key}.
+     *
+     * @return the value that was mapped to {@code key}, or {@code null}.
+     */
+    @SuppressWarnings( "unchecked" )
+    public V remove( long key )
+    {
+        if ( key == FREE )
+        {
+            V previous = (V) freeKeyValue;
+            if ( previous != null )
+            {
+                freeKeyValue = null;
+                size--;
+            }
+            return previous;
+        }
+        int slot = slotFor( key, mask );
+        while ( keys[slot] != FREE )
+        {
+            if ( keys[slot] == key )
+            {
+                V previous = (V) values[slot];
+                shiftEntriesBack( slot );
+                size--;
+                return previous;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    public void clear()
+    {
+        Arrays.fill( keys, FREE );
+        Arrays.fill( values, null );
+        freeKeyValue = null;
+        size = 0;
+    }
+
+    private void shiftEntriesBack( int gap )
+    {
+        int slot = gap;
+        while ( true )
+        {
+            slot = (slot + 1) & mask;
+            long key = keys[slot];
+            if ( key == FREE )
+            {
+                break;
+            }
+            int home = slotFor( key, mask );
+            if ( ((slot - home) & mask) >= ((slot - gap) & mask) )
+            {
+                keys[gap] = key;
+                values[gap] = values[slot];
+                gap = slot;
+            }
+        }
+        keys[gap] = FREE;
+        values[gap] = null;
+    }
+
+    private void rehash( int capacity )
+    {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate( capacity );
+        for ( int i = 0; i < oldKeys.length; i++ )
+        {
+            long key = oldKeys[i];
+            if ( key != FREE )
+            {
+                int slot = slotFor( key, mask );
+                while ( keys[slot] != FREE )
+                {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = key;
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private void allocate( int capacity )
+    {
+        keys = new long[capacity];
+        Arrays.fill( keys, FREE );
+        values = new Object[capacity];
+        mask = capacity - 1;
+        threshold = (int) (capacity * LOAD_FACTOR);
+    }
+}
@@ -0,0 +1,248 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.helpers.collection;
+
+import java.util.Arrays;
+
+/**
+ * A set of primitive longs, using open addressing with linear probing so
+ * that no objects are allocated per element. Useful for remembering visited
+ * node or relationship ids where a {@code Set<Long>} would box every id.
+ *
+ * Not thread safe.
+ */
+public class PrimitiveLongSet
+{
+    static final long FREE = -1;
+    static final int DEFAULT_CAPACITY = 16;
+    static final float LOAD_FACTOR = 0.75f;
+
+    private long[] keys;
+    private int mask;
+    private int threshold;
+    private int size;
+    // the key used to mark free slots is stored on the side
+    private boolean containsFree;
+
+    public PrimitiveLongSet()
+    {
+        this( DEFAULT_CAPACITY );
+    }
+
+    /**
+     * @param expectedSize the number of elements the set can hold before
+     * it needs to grow.
+     */
+    public PrimitiveLongSet( int expectedSize )
+    {
+        allocate( capacityFor( expectedSize ) );
+    }
+
+    /**
+     * Adds {@code value} to this set.
+     *
+     * @return {@code true} if the value wasn't already in the set.
+     */
+    public boolean add( long value )
+    {
+        if ( value == FREE )
+        {
+            if ( containsFree )
+            {
+                return false;
+            }
+            containsFree = true;
+            size++;
+            return true;
+        }
+        int slot = slotFor( value, mask );
+        while ( keys[slot] != FREE )
+        {
+            if ( keys[slot] == value )
+            {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = value;
+        if ( ++size > threshold )
+        {
+            rehash( keys.length << 1 );
+        }
+        return true;
+    }
+
+    public boolean contains( long value )
+    {
+        if ( value == FREE )
+        {
+            return containsFree;
+        }
+        int slot = slotFor( value, mask );
+        while ( keys[slot] != FREE )
+        {
+            if ( keys[slot] == value )
+            {
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    /**
+     * Removes {@code value} from this set.
+     *
+     * @return {@code true} if the value was in the set.
+     */
+    public boolean remove( long value )
+    {
+        if ( value == FREE )
+        {
+            if ( !containsFree )
+            {
+                return false;
+            }
+            containsFree = false;
+            size--;
+            return true;
+        }
+        int slot = slotFor( value, mask );
+        while ( keys[slot] != FREE )
+        {
+            if ( keys[slot] == value )
+            {
+                shiftKeysBack( slot );
+                size--;
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    /**
+     * @return the values in this set, in no particular order.
+     */
+    public long[] toArray()
+    {
+        long[] result = new long[size];
+        int i = 0;
+        if ( containsFree )
+        {
+            result[i++] = FREE;
+        }
+        for ( long key : keys )
+        {
+            if ( key != FREE )
+            {
+                result[i++] = key;
+            }
+        }
+        return result;
+    }
+
+    public void clear()
+    {
+        Arrays.fill( keys, FREE );
+        containsFree = false;
+        size = 0;
+    }
+
+    /**
+     * Fills the gap left by a removed key by moving back the keys after it
+     * that would otherwise become unreachable, so that no tombstones are
+     * needed.
+     */
+    private void shiftKeysBack( int gap )
+    {
+        int slot = gap;
+        while ( true )
+        {
+            slot = (slot + 1) & mask;
+            long key = keys[slot];
+            if ( key == FREE )
+            {
+                break;
+            }
+            int home = slotFor( key, mask );
+            // move the key if its home slot isn't between the gap and its slot
+            if ( ((slot - home) & mask) >= ((slot - gap) & mask) )
+            {
+                keys[gap] = key;
+                gap = slot;
+            }
+        }
+        keys[gap] = FREE;
+    }
+
+    private void rehash( int capacity )
+    {
+        long[] oldKeys = keys;
+        allocate( capacity );
+        for ( long key : oldKeys )
+        {
+            if ( key != FREE )
+            {
+                int slot = slotFor( key, mask );
+                while ( keys[slot] != FREE )
+                {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = key;
+            }
+        }
+    }
+
+    private void allocate( int capacity )
+    {
+        keys = new long[capacity];
+        Arrays.fill( keys, FREE );
+        mask = capacity - 1;
+        threshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    static int capacityFor( int expectedSize )
+    {
+        int capacity = DEFAULT_CAPACITY;
+        while ( capacity * LOAD_FACTOR < expectedSize )
+        {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    static int slotFor( long key, int mask )
+    {
+        // spread ids, which are often sequential, over the whole table
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+}
@@ -22,8 +22,8 @@ package org.neo4j.kernel;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.channels.FileChannel;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.transaction.Transaction;
 import javax.transaction.TransactionManager;
@@ -31,12 +31,14 @@ import javax.transaction.TransactionManager;
 import org.neo4j.kernel.impl.core.DefaultRelationshipTypeCreator;
 import org.neo4j.kernel.impl.core.LastCommittedTxIdSetter;
 import org.neo4j.kernel.impl.core.RelationshipTypeCreator;
+import org.neo4j.kernel.impl.nioneo.store.ConcurrentIdGenerator;
 import org.neo4j.kernel.impl.nioneo.store.FileLock;
 import org.neo4j.kernel.impl.nioneo.store.FileSystemAbstraction;
 import org.neo4j.kernel.impl.nioneo.store.IdGenerator;
 import org.neo4j.kernel.impl.nioneo.store.IdGeneratorImpl;
 import org.neo4j.kernel.impl.nioneo.store.NeoStore;
 import org.neo4j.kernel.impl.transaction.LockManager;
+import org.neo4j.kernel.impl.transaction.StripedLockManager;
 import org.neo4j.kernel.impl.transaction.TxHook;
 import org.neo4j.kernel.impl.transaction.TxModule;
 import org.neo4j.kernel.impl.transaction.xaframework.DefaultLogBufferFactory;
@@ -56,10 +58,42 @@ public class CommonFactories
             }
         };
     }
+
+    public static LockManagerFactory stripedLockManagerFactory()
+    {
+        return new LockManagerFactory()
+        {
+            public LockManager create( TxModule txModule )
+            {
+                return new StripedLockManager( txModule.getTxManager() );
+            }
+        };
+    }
+
+    /**
+     * Returns the {@link LockManagerFactory} selected by
+     * {@link Config#LOCK_MANAGER_TYPE} in <CODE>params</CODE>, or the default
+     * one if none is selected.
+     */
+    public static LockManagerFactory lockManagerFactory( Map<String,String> params )
+    {
+        String type = params != null ? params.get( Config.LOCK_MANAGER_TYPE ) : null;
+        if ( type == null || type.equals( "default" ) )
+        {
+            return defaultLockManagerFactory();
+        }
+        if ( type.equals( "striped" ) )
+        {
+            return stripedLockManagerFactory();
+        }
+        throw new IllegalArgumentException( "Invalid lock manager type '" + type
+                + "', expected one of [default, striped]" );
+    }
     
     public static class DefaultIdGeneratorFactory implements IdGeneratorFactory
     {
-        private final Map<IdType, IdGenerator> generators = new HashMap<IdType, IdGenerator>();
+        // Stores may open their id generators concurrently, when rebuilding them
+        private final Map<IdType, IdGenerator> generators = new ConcurrentHashMap<IdType, IdGenerator>();
         
         public IdGenerator open( String fileName, int grabSize, IdType idType,
                 long highestIdInUse, boolean startup )
@@ -89,6 +123,73 @@ public class CommonFactories
     {
         return new DefaultIdGeneratorFactory();
     }
+
+    /**
+     * Creates {@link ConcurrentIdGenerator}s, where every thread leases a
+     * range of ids at a time. Uses the same id files as
+     * {@link DefaultIdGeneratorFactory}.
+     */
+    public static class ConcurrentIdGeneratorFactory implements IdGeneratorFactory
+    {
+        private final Map<IdType, IdGenerator> generators = new ConcurrentHashMap<IdType, IdGenerator>();
+        private final int leaseSize;
+
+        public ConcurrentIdGeneratorFactory( int leaseSize )
+        {
+            this.leaseSize = leaseSize;
+        }
+
+        public IdGenerator open( String fileName, int grabSize, IdType idType,
+                long highestIdInUse, boolean startup )
+        {
+            IdGenerator generator = new ConcurrentIdGenerator( fileName, grabSize,
+                    idType.getMaxValue(), idType.allowAggressiveReuse(), leaseSize );
+            generators.put( idType, generator );
+            return generator;
+        }
+
+        public IdGenerator get( IdType idType )
+        {
+            return generators.get( idType );
+        }
+
+        public void create( String fileName )
+        {
+            IdGeneratorImpl.createGenerator( fileName );
+        }
+
+        public void updateIdGenerators( NeoStore neoStore )
+        {
+            neoStore.updateIdGenerators();
+        }
+    }
+
+    public static IdGeneratorFactory concurrentIdGeneratorFactory( int leaseSize )
+    {
+        return new ConcurrentIdGeneratorFactory( leaseSize );
+    }
+
+    /**
+     * Returns the {@link IdGeneratorFactory} selected by
+     * {@link Config#ID_GENERATOR_TYPE} in <CODE>params</CODE>, or the default
+     * one if none is selected.
+     */
+    public static IdGeneratorFactory idGeneratorFactory( Map<String,String> params )
+    {
+        String type = params != null ? params.get( Config.ID_GENERATOR_TYPE ) : null;
+        if ( type == null || type.equals( "default" ) )
+        {
+            return defaultIdGeneratorFactory();
+        }
+        if ( type.equals( "concurrent" ) )
+        {
+            String leaseSize = params.get( Config.ID_LEASE_SIZE );
+            return concurrentIdGeneratorFactory( leaseSize != null ?
+                    Integer.parseInt( leaseSize ) : 256 );
+        }
+        throw new IllegalArgumentException( "Invalid id generator type '" + type
+                + "', expected one of [default, concurrent]" );
+    }
     
     public static RelationshipTypeCreator defaultRelationshipTypeCreator()
     {
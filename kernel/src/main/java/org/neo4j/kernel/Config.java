@@ -74,6 +74,44 @@ public class Config
      */
     @Documented
     public static final String KEEP_LOGICAL_LOGS = "keep_logical_logs";
+    /**
+     * Boolean (one of true,false) defining whether transactions committing at
+     * the same time should share one force of the logical log, and of the
+     * transaction manager log, instead of forcing it once each. Transactions
+     * are still durable when commit returns. Defaults to false.
+     */
+    @Documented
+    public static final String GROUP_COMMIT = "group_commit";
+    /**
+     * The longest time, in milliseconds, to wait for more transactions to join
+     * a group commit before forcing the log. Only used if group_commit is
+     * true. Defaults to 0, which means the log is forced right away for all
+     * transactions ready to be forced by then.
+     */
+    @Documented
+    public static final String GROUP_COMMIT_MAX_WAIT = "group_commit_max_wait";
+    /**
+     * The number of transactions in a group commit after which the log is
+     * forced without waiting any longer, see group_commit_max_wait. Only used
+     * if group_commit is true. Defaults to 100.
+     */
+    @Documented
+    public static final String GROUP_COMMIT_MAX_BATCH_SIZE = "group_commit_max_batch_size";
+    /**
+     * Boolean (one of true,false) defining whether recovery of the logical
+     * log after a non clean shutdown should read the log in a separate thread
+     * and apply node, relationship and property records in parallel, see
+     * recovery_threads. Defaults to false.
+     */
+    @Documented
+    public static final String PARALLEL_RECOVERY = "parallel_recovery";
+    /**
+     * The number of threads applying records during a parallel recovery.
+     * Only used if parallel_recovery is true. Defaults to the number of
+     * available processors.
+     */
+    @Documented
+    public static final String RECOVERY_THREADS = "recovery_threads";
     /** Enable a remote shell server which shell clients can log in to */
     @Documented
     public static final String ENABLE_REMOTE_SHELL = "enable_remote_shell";
@@ -124,6 +162,48 @@ public class Config
     /** The size to allocate for memory mapping the relationship store */
     @Documented
     public static final String RELATIONSHIP_STORE_MMAP_SIZE = "neostore.relationshipstore.db.mapped_memory";
+    /**
+     * The memory to use for a page cache shared by all stores, e.g. 500M.
+     * When set the stores read and write their records through the page
+     * cache and the mapped_memory settings of the individual stores are
+     * ignored. Not set by default.
+     */
+    @Documented
+    public static final String PAGE_CACHE_MEMORY = "page_cache_memory";
+    /**
+     * The size of each page in the page cache, see page_cache_memory.
+     * Defaults to 8k.
+     */
+    @Documented
+    public static final String PAGE_CACHE_PAGE_SIZE = "page_cache_page_size";
+    /**
+     * The maximum number of relationship records to read ahead, in file
+     * order, when loading the relationships of a node. Setting it also makes
+     * relationship_grab_size grow for nodes with many relationships. Not set
+     * by default, meaning that relationship chains are read record by record.
+     */
+    @Documented
+    public static final String RELATIONSHIP_READ_AHEAD = "relationship_read_ahead";
+    /**
+     * The number of relationships a node can have before its relationships
+     * are stored grouped by type and direction, making it possible to load
+     * the relationships of one type without reading the others. Not set by
+     * default, meaning that no nodes are stored as dense nodes.
+     */
+    @Documented
+    public static final String DENSE_NODE_THRESHOLD = "dense_node_threshold";
+    /**
+     * The number of threads the parallel batch importer uses for encoding
+     * properties. Default is the number of available processors.
+     */
+    @Documented
+    public static final String IMPORT_THREADS = "import_threads";
+    /**
+     * The number of nodes or relationships the parallel batch importer
+     * hands to its threads at a time. Default is 10000.
+     */
+    @Documented
+    public static final String IMPORT_BATCH_SIZE = "import_batch_size";
     /** Relative path for where the Neo4j logical log is located */
     @Documented
     public static final String LOGICAL_LOG = "logical_log";
@@ -133,11 +213,52 @@ public class Config
 
     /**
      * The type of cache to use for nodes and relationships, one of [weak, soft,
-     * none]
+     * old, clock, offheap, strong, none]
      */
     @Documented
     public static final String CACHE_TYPE = "cache_type";
 
+    /**
+     * The amount of memory outside of the java heap to use for nodes evicted
+     * from the node cache when cache_type is offheap, e.g. 64M. Defaults to 64M.
+     */
+    @Documented
+    public static final String OFFHEAP_NODE_CACHE_SIZE = "offheap_node_cache_size";
+
+    /**
+     * The amount of memory outside of the java heap to use for relationships
+     * evicted from the relationship cache when cache_type is offheap, e.g. 64M.
+     * Defaults to 64M.
+     */
+    @Documented
+    public static final String OFFHEAP_RELATIONSHIP_CACHE_SIZE = "offheap_relationship_cache_size";
+
+    /**
+     * The lock manager to use, one of [default, striped]. The striped lock
+     * manager spreads its locks over a number of independently synchronized
+     * maps and parks waiting transactions instead of interrupting them, which
+     * scales better when many transactions lock disjoint sets of entities.
+     * Defaults to default.
+     */
+    @Documented
+    public static final String LOCK_MANAGER_TYPE = "lock_manager_type";
+
+    /**
+     * The id generators to use, one of [default, concurrent]. The concurrent
+     * id generators let every thread lease a range of ids at a time, so that
+     * threads creating entities don't contend on the id generators. Defaults
+     * to default.
+     */
+    @Documented
+    public static final String ID_GENERATOR_TYPE = "id_generator_type";
+
+    /**
+     * The number of ids a thread leases at a time from the concurrent id
+     * generators, see {@link #ID_GENERATOR_TYPE}. Defaults to 256.
+     */
+    @Documented
+    public static final String ID_LEASE_SIZE = "id_lease_size";
+
     /**
      * The name of the Transaction Manager service to use as defined in the TM
      * service provider constructor, defaults to native.
@@ -220,6 +341,33 @@ public class Config
     @Documented
     public static final String LUCENE_WRITER_CACHE_SIZE = "lucene_writer_cache_size";
 
+    /**
+     * Integer value that sets after how many commits to a lucene index its
+     * searcher is reopened, making the changes visible to queries.
+     * The default is 1, i.e. changes are visible as soon as they are
+     * committed, unless lucene_searcher_refresh_interval is set.
+     */
+    @Documented
+    public static final String LUCENE_SEARCHER_REFRESH_COMMITS = "lucene_searcher_refresh_commits";
+
+    /**
+     * Number of milliseconds between reopening, in a background thread, the
+     * searchers of lucene indexes that have been committed to since they were
+     * last reopened. Setting this lets queries see committed changes a little
+     * later, but means commits don't have to reopen the searchers.
+     * The default is to not reopen searchers in the background.
+     */
+    @Documented
+    public static final String LUCENE_SEARCHER_REFRESH_INTERVAL = "lucene_searcher_refresh_interval";
+
+    /**
+     * The memory to use for caching the hits of exact lucene index lookups,
+     * e.g. 50M. Hits are only cached for keys enabled with
+     * setCacheCapacity on the index. The default is 1/20 of the max heap size.
+     */
+    @Documented
+    public static final String LUCENE_HIT_CACHE_SIZE = "lucene_hit_cache_size";
+
     static final String LOAD_EXTENSIONS = "load_kernel_extensions";
 
     private final AdaptiveCacheManager cacheManager;
@@ -78,8 +78,8 @@ public final class EmbeddedGraphDatabase extends AbstractGraphDatabase
     public EmbeddedGraphDatabase( String storeDir, Map<String,String> params )
     {
         this.graphDbImpl = new EmbeddedGraphDbImpl( storeDir, null, params, this,
-                CommonFactories.defaultLockManagerFactory(),
-                CommonFactories.defaultIdGeneratorFactory(),
+                CommonFactories.lockManagerFactory( params ),
+                CommonFactories.idGeneratorFactory( params ),
                 CommonFactories.defaultRelationshipTypeCreator(),
                 CommonFactories.defaultTxIdGeneratorFactory(),
                 CommonFactories.defaultTxHook(),
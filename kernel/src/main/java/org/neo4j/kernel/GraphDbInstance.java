@@ -35,7 +35,9 @@ import org.neo4j.kernel.impl.nioneo.store.NeoStore;
 import org.neo4j.kernel.impl.nioneo.xa.NeoStoreXaDataSource;
 import org.neo4j.kernel.impl.nioneo.xa.NioNeoDbPersistenceSource;
 import org.neo4j.kernel.impl.transaction.LockManager;
+import org.neo4j.kernel.impl.transaction.TxManager;
 import org.neo4j.kernel.impl.transaction.TxModule;
+import org.neo4j.kernel.impl.transaction.xaframework.GroupCommit;
 import org.neo4j.kernel.impl.transaction.xaframework.XaDataSource;
 import org.neo4j.kernel.impl.util.FileUtils;
 import org.neo4j.kernel.impl.util.StringLogger;
@@ -152,6 +154,11 @@ class GraphDbInstance
 
         kernelExtensionLoader.initializeIndexProviders();
 
+        if ( config.getTxModule().getTxManager() instanceof TxManager )
+        {
+            ((TxManager) config.getTxModule().getTxManager()).setGroupCommit(
+                    GroupCommit.fromConfig( params ) );
+        }
         config.getTxModule().start();
         config.getPersistenceModule().start( config.getTxModule().getTxManager(), persistenceSource,
                 config.getSyncHookFactory(), config.getLockReleaser() );
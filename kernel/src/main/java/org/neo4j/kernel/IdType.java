@@ -22,7 +22,7 @@ package org.neo4j.kernel;
 public enum IdType
 {
     NODE( 35, false ),
-    RELATIONSHIP( 35, false ),
+    RELATIONSHIP( 34, false ), // the 35th bit marks dense nodes in the node store
     PROPERTY( 36, true ), // This one
     STRING_BLOCK( 36, true ), // This one
     ARRAY_BLOCK( 36, true ), // This one
@@ -30,7 +30,8 @@ public enum IdType
     PROPERTY_INDEX_BLOCK( false ),
     RELATIONSHIP_TYPE( 16, false ),
     RELATIONSHIP_TYPE_BLOCK( false ),
-    NEOSTORE_BLOCK( false );
+    NEOSTORE_BLOCK( false ),
+    RELATIONSHIP_GROUP( 34, false );
 
     private final long max;
     private final boolean allowAggressiveReuse;
@@ -20,31 +20,75 @@
 package org.neo4j.kernel;
 
 import org.neo4j.graphdb.traversal.TraversalBranch;
-import org.neo4j.kernel.impl.cache.LruCache;
+import org.neo4j.helpers.collection.PrimitiveLongObjectMap;
 
 class RecentlyUnique extends AbstractUniquenessFilter
 {
-    private static final Object PLACE_HOLDER = new Object();
     private static final int DEFAULT_RECENT_SIZE = 10000; 
     
-    private final LruCache<Long, Object> recentlyVisited;
+    private final int maxSize;
+    private final PrimitiveLongObjectMap<Entry> recentlyVisited;
+    // least recently visited first, entries are reused when evicted
+    private final Entry head = new Entry();
     
     RecentlyUnique( PrimitiveTypeFetcher type, Object parameter )
     {
         super( type );
         parameter = parameter != null ? parameter : DEFAULT_RECENT_SIZE;
-        recentlyVisited = new LruCache<Long, Object>( "Recently visited",
-                ((Number) parameter).intValue(), null );
+        maxSize = ((Number) parameter).intValue();
+        if ( maxSize < 1 )
+        {
+            throw new IllegalArgumentException( "Recently visited size " + maxSize );
+        }
+        recentlyVisited = new PrimitiveLongObjectMap<Entry>( maxSize );
+        head.previous = head;
+        head.next = head;
     }
 
     public boolean check( TraversalBranch branch )
     {
         long id = type.getId( branch );
-        boolean add = recentlyVisited.get( id ) == null;
-        if ( add )
+        Entry entry = recentlyVisited.get( id );
+        if ( entry != null )
+        {
+            unlink( entry );
+            linkLast( entry );
+            return false;
+        }
+        if ( recentlyVisited.size() >= maxSize )
         {
-            recentlyVisited.put( id, PLACE_HOLDER );
+            entry = head.next;
+            unlink( entry );
+            recentlyVisited.remove( entry.id );
         }
-        return add;
+        else
+        {
+            entry = new Entry();
+        }
+        entry.id = id;
+        recentlyVisited.put( id, entry );
+        linkLast( entry );
+        return true;
+    }
+
+    private void unlink( Entry entry )
+    {
+        entry.previous.next = entry.next;
+        entry.next.previous = entry.previous;
+    }
+
+    private void linkLast( Entry entry )
+    {
+        entry.previous = head.previous;
+        entry.next = head;
+        head.previous.next = entry;
+        head.previous = entry;
+    }
+
+    private static class Entry
+    {
+        private long id;
+        private Entry previous;
+        private Entry next;
     }
 }
@@ -0,0 +1,49 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.batchinsert;
+
+/**
+ * Imports nodes and relationships into an empty store in one go, which is
+ * much faster than creating them one by one with a {@link BatchInserter}.
+ * Like the batch inserter there are no transactions, {@link #shutdown()}
+ * must be invoked and complete successfully for the store to be in a
+ * consistent state.
+ */
+public interface BatchImporter
+{
+    /**
+     * Imports the given nodes and relationships. Node ids must be unique,
+     * the relationships may only refer to nodes among the given nodes or the
+     * reference node. Can only be invoked once.
+     *
+     * @param nodes the nodes to import.
+     * @param relationships the relationships to import.
+     * @throws IllegalArgumentException if a node id is invalid or used more
+     * than once.
+     * @throws org.neo4j.graphdb.NotFoundException if a relationship refers
+     * to a node that doesn't exist.
+     */
+    public void doImport( Iterable<InputNode> nodes, Iterable<InputRelationship> relationships );
+
+    /**
+     * Shuts down the importer, flushing and closing the store.
+     */
+    public void shutdown();
+}
@@ -42,6 +42,7 @@ import org.neo4j.kernel.EmbeddedGraphDatabase;
 import org.neo4j.kernel.IdGeneratorFactory;
 import org.neo4j.kernel.IdType;
 import org.neo4j.kernel.impl.index.IndexStore;
+import org.neo4j.kernel.impl.nioneo.store.DenseNodeChains;
 import org.neo4j.kernel.impl.nioneo.store.DynamicRecord;
 import org.neo4j.kernel.impl.nioneo.store.FileSystemAbstraction;
 import org.neo4j.kernel.impl.nioneo.store.IdGeneratorImpl;
@@ -49,6 +50,7 @@ import org.neo4j.kernel.impl.nioneo.store.InvalidRecordException;
 import org.neo4j.kernel.impl.nioneo.store.NeoStore;
 import org.neo4j.kernel.impl.nioneo.store.NodeRecord;
 import org.neo4j.kernel.impl.nioneo.store.NodeStore;
+import org.neo4j.kernel.impl.nioneo.store.PageCache;
 import org.neo4j.kernel.impl.nioneo.store.PrimitiveRecord;
 import org.neo4j.kernel.impl.nioneo.store.PropertyBlock;
 import org.neo4j.kernel.impl.nioneo.store.PropertyData;
@@ -81,6 +83,8 @@ public class BatchInserterImpl implements BatchInserter
     private final RelationshipTypeHolder typeHolder;
 
     private final BatchGraphDatabaseImpl graphDbService;
+    private final DenseNodeChains.StoreRecords denseRecords;
+    private final DenseNodeChains denseChains;
     private final IdGeneratorFactory idGeneratorFactory;
 
     private final StringLogger msgLog;
@@ -113,6 +117,11 @@ public class BatchInserterImpl implements BatchInserter
         {
             Config.dumpConfiguration( params );
         }
+        PageCache pageCache = PageCache.fromConfig( params );
+        if ( pageCache != null )
+        {
+            params.put( PageCache.class, pageCache );
+        }
         msgLog.logMessage( Thread.currentThread() + " Starting BatchInserter(" + this + ")" );
         neoStore = new NeoStore( params );
         if ( !neoStore.isStoreOk() )
@@ -120,6 +129,8 @@ public class BatchInserterImpl implements BatchInserter
             throw new IllegalStateException( storeDir + " store is not cleanly shutdown." );
         }
         neoStore.makeStoreOk();
+        denseRecords = new DenseNodeChains.StoreRecords( neoStore );
+        denseChains = new DenseNodeChains( denseRecords );
         PropertyIndexData[] indexes =
             getPropertyIndexStore().getPropertyIndexes( 10000 );
         indexHolder = new PropertyIndexHolder( indexes );
@@ -281,12 +292,7 @@ public class BatchInserterImpl implements BatchInserter
     {
         boolean result = false;
         long nextProp = primitive.getNextProp();
-        int index = indexHolder.getKeyId( name );
-
-        if ( index == -1 )
-        {
-            index = createNewPropertyIndex( name );
-        }
+        int index = getOrCreatePropertyKeyId( name );
         PropertyBlock block = new PropertyBlock();
         getPropertyStore().encodeValue( block, index, value );
         int size = block.getSize();
@@ -438,12 +444,8 @@ public class BatchInserterImpl implements BatchInserter
         type, Map<String,Object> properties )
     {
         NodeRecord firstNode = getNodeRecord( node1 );
-        NodeRecord secondNode = getNodeRecord( node2 );
-        int typeId = typeHolder.getTypeId( type.name() );
-        if ( typeId == -1 )
-        {
-            typeId = createNewRelationshipType( type.name() );
-        }
+        NodeRecord secondNode = node1 == node2 ? firstNode : getNodeRecord( node2 );
+        int typeId = getOrCreateRelationshipTypeId( type.name() );
         long id = getRelationshipStore().nextId();
         RelationshipRecord record = new RelationshipRecord( id, node1, node2, typeId );
         record.setInUse( true );
@@ -459,6 +461,15 @@ public class BatchInserterImpl implements BatchInserter
     private void connectRelationship( NodeRecord firstNode,
             NodeRecord secondNode, RelationshipRecord rel )
     {
+        if ( firstNode.isDense() || secondNode.isDense() )
+        {
+            connectRelationship( firstNode, rel );
+            if ( secondNode != firstNode )
+            {
+                connectRelationship( secondNode, rel );
+            }
+            return;
+        }
         assert firstNode.getNextRel() != rel.getId();
         assert secondNode.getNextRel() != rel.getId();
         rel.setFirstNextRel( firstNode.getNextRel() );
@@ -469,6 +480,21 @@ public class BatchInserterImpl implements BatchInserter
         secondNode.setNextRel( rel.getId() );
     }
 
+    private void connectRelationship( NodeRecord node, RelationshipRecord rel )
+    {
+        if ( node.isDense() )
+        {
+            // flushed right away, the other node may share the chain head
+            denseChains.connect( node, rel );
+            denseRecords.flush();
+            return;
+        }
+        assert node.getNextRel() != rel.getId();
+        DenseNodeChains.setNextRel( rel, node.getId(), node.getNextRel() );
+        connect( node, rel );
+        node.setNextRel( rel.getId() );
+    }
+
     private void connect( NodeRecord node, RelationshipRecord rel )
     {
         if ( node.getNextRel() != Record.NO_NEXT_RELATIONSHIP.intValue() )
@@ -550,60 +576,54 @@ public class BatchInserterImpl implements BatchInserter
 
     public Iterable<Long> getRelationshipIds( long nodeId )
     {
-        NodeRecord nodeRecord = getNodeRecord( nodeId );
-        long nextRel = nodeRecord.getNextRel();
         List<Long> ids = new ArrayList<Long>();
-        while ( nextRel != Record.NO_NEXT_RELATIONSHIP.intValue() )
+        for ( RelationshipRecord relRecord : getRelationshipRecords( nodeId ) )
         {
-            RelationshipRecord relRecord = getRelationshipRecord( nextRel );
             ids.add( relRecord.getId() );
-            long firstNode = relRecord.getFirstNode();
-            long secondNode = relRecord.getSecondNode();
-            if ( firstNode == nodeId )
-            {
-                nextRel = relRecord.getFirstNextRel();
-            }
-            else if ( secondNode == nodeId )
-            {
-                nextRel = relRecord.getSecondNextRel();
-            }
-            else
-            {
-                throw new InvalidRecordException( "Node[" + nodeId +
-                    "] not part of firstNode[" + firstNode +
-                    "] or secondNode[" + secondNode + "]" );
-            }
         }
         return ids;
     }
 
     public Iterable<SimpleRelationship> getRelationships( long nodeId )
     {
-        NodeRecord nodeRecord = getNodeRecord( nodeId );
-        long nextRel = nodeRecord.getNextRel();
         List<SimpleRelationship> rels = new ArrayList<SimpleRelationship>();
-        while ( nextRel != Record.NO_NEXT_RELATIONSHIP.intValue() )
+        for ( RelationshipRecord relRecord : getRelationshipRecords( nodeId ) )
         {
-            RelationshipRecord relRecord = getRelationshipRecord( nextRel );
             RelationshipType type = new RelationshipTypeImpl(
                 typeHolder.getName( relRecord.getType() ) );
             rels.add( new SimpleRelationship( relRecord.getId(),
                 relRecord.getFirstNode(), relRecord.getSecondNode(), type ) );
-            long firstNode = relRecord.getFirstNode();
-            long secondNode = relRecord.getSecondNode();
-            if ( firstNode == nodeId )
-            {
-                nextRel = relRecord.getFirstNextRel();
-            }
-            else if ( secondNode == nodeId )
-            {
-                nextRel = relRecord.getSecondNextRel();
-            }
-            else
+        }
+        return rels;
+    }
+
+    private List<RelationshipRecord> getRelationshipRecords( long nodeId )
+    {
+        NodeRecord nodeRecord = getNodeRecord( nodeId );
+        List<RelationshipRecord> rels = new ArrayList<RelationshipRecord>();
+        for ( long nextRel : DenseNodeChains.chainHeads(
+                neoStore.getRelationshipGroupStore(), nodeRecord ) )
+        {
+            while ( nextRel != Record.NO_NEXT_RELATIONSHIP.intValue() )
             {
-                throw new InvalidRecordException( "Node[" + nodeId +
-                    "] not part of firstNode[" + firstNode +
-                    "] or secondNode[" + secondNode + "]" );
+                RelationshipRecord relRecord = getRelationshipRecord( nextRel );
+                rels.add( relRecord );
+                long firstNode = relRecord.getFirstNode();
+                long secondNode = relRecord.getSecondNode();
+                if ( firstNode == nodeId )
+                {
+                    nextRel = relRecord.getFirstNextRel();
+                }
+                else if ( secondNode == nodeId )
+                {
+                    nextRel = relRecord.getSecondNextRel();
+                }
+                else
+                {
+                    throw new InvalidRecordException( "Node[" + nodeId +
+                        "] not part of firstNode[" + firstNode +
+                        "] or secondNode[" + secondNode + "]" );
+                }
             }
         }
         return rels;
@@ -631,6 +651,14 @@ public class BatchInserterImpl implements BatchInserter
     public void shutdown()
     {
         graphDbService.clearCaches();
+        int denseNodeThreshold = neoStore.getDenseNodeThreshold();
+        if ( denseNodeThreshold >= 0 )
+        {
+            // nodes aren't converted while inserting since that would mean
+            // counting relationships for every relationship created
+            int converted = DenseNodeChains.convertDenseNodes( neoStore, denseNodeThreshold );
+            msgLog.logMessage( "Converted " + converted + " nodes to dense nodes" );
+        }
         neoStore.close();
         msgLog.logMessage( Thread.currentThread() + " Clean shutdown on BatchInserter(" + this + ")", true );
         StringLogger.close( storeDir );
@@ -671,8 +699,40 @@ public class BatchInserterImpl implements BatchInserter
     }
 
     private long createPropertyChain( Map<String,Object> properties )
+    {
+        return createPropertyChain( encodeProperties( properties ) );
+    }
+
+    /**
+     * Encodes properties into property blocks, allocating any dynamic
+     * records they need. May be called by multiple threads concurrently.
+     */
+    List<PropertyBlock> encodeProperties( Map<String,Object> properties )
     {
         if ( properties == null || properties.isEmpty() )
+        {
+            return Collections.emptyList();
+        }
+        PropertyStore propStore = getPropertyStore();
+        List<PropertyBlock> blocks = new ArrayList<PropertyBlock>( properties.size() );
+        for ( Entry<String,Object> entry : properties.entrySet() )
+        {
+            PropertyBlock block = new PropertyBlock();
+            propStore.encodeValue( block, getOrCreatePropertyKeyId( entry.getKey() ),
+                    entry.getValue() );
+            blocks.add( block );
+        }
+        return blocks;
+    }
+
+    /**
+     * Writes a property chain holding already encoded property blocks.
+     *
+     * @return the id of the first property record of the chain.
+     */
+    long createPropertyChain( List<PropertyBlock> blocks )
+    {
+        if ( blocks.isEmpty() )
         {
             return Record.NO_NEXT_PROPERTY.intValue();
         }
@@ -682,16 +742,8 @@ public class BatchInserterImpl implements BatchInserter
         currentRecord.setInUse( true );
         currentRecord.setCreated();
         propRecords.add( currentRecord );
-        for ( Entry<String,Object> entry : properties.entrySet() )
+        for ( PropertyBlock block : blocks )
         {
-            int keyId = indexHolder.getKeyId( entry.getKey() );
-            if ( keyId == -1 )
-            {
-                keyId = createNewPropertyIndex( entry.getKey() );
-            }
-
-            PropertyBlock block = new PropertyBlock();
-            propStore.encodeValue( block, keyId, entry.getValue() );
             if ( currentRecord.size() + block.getSize() > PropertyType.getPayloadSize() )
             {
                 // Here it means the current block is done for
@@ -777,6 +829,26 @@ public class BatchInserterImpl implements BatchInserter
         return properties;
     }
 
+    synchronized int getOrCreatePropertyKeyId( String key )
+    {
+        int keyId = indexHolder.getKeyId( key );
+        if ( keyId == -1 )
+        {
+            keyId = createNewPropertyIndex( key );
+        }
+        return keyId;
+    }
+
+    synchronized int getOrCreateRelationshipTypeId( String name )
+    {
+        int typeId = typeHolder.getTypeId( name );
+        if ( typeId == -1 )
+        {
+            typeId = createNewRelationshipType( name );
+        }
+        return typeId;
+    }
+
     private int createNewPropertyIndex( String stringKey )
     {
         PropertyIndexStore idxStore = getPropertyIndexStore();
@@ -817,6 +889,11 @@ public class BatchInserterImpl implements BatchInserter
         return id;
     }
 
+    NeoStore getNeoStore()
+    {
+        return neoStore;
+    }
+
     private NodeStore getNodeStore()
     {
         return neoStore.getNodeStore();
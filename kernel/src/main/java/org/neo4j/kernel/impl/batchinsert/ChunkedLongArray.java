@@ -0,0 +1,81 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.batchinsert;
+
+import java.util.Arrays;
+
+/**
+ * An array of longs indexed by long, allocated in chunks as it grows so
+ * that it can hold more than an int's worth of values without needing one
+ * huge contiguous allocation. Indexes never set return the default value.
+ */
+class ChunkedLongArray
+{
+    private static final int CHUNK_SHIFT = 20;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private final long defaultValue;
+    private long[][] chunks = new long[16][];
+
+    ChunkedLongArray( long defaultValue )
+    {
+        this.defaultValue = defaultValue;
+    }
+
+    long get( long index )
+    {
+        int chunk = (int) (index >>> CHUNK_SHIFT);
+        if ( chunk >= chunks.length || chunks[chunk] == null )
+        {
+            return defaultValue;
+        }
+        return chunks[chunk][(int) (index & CHUNK_MASK)];
+    }
+
+    void set( long index, long value )
+    {
+        int chunk = (int) (index >>> CHUNK_SHIFT);
+        if ( chunk >= chunks.length )
+        {
+            long[][] newChunks = new long[Math.max( chunks.length * 2, chunk + 1 )][];
+            System.arraycopy( chunks, 0, newChunks, 0, chunks.length );
+            chunks = newChunks;
+        }
+        if ( chunks[chunk] == null )
+        {
+            chunks[chunk] = new long[CHUNK_SIZE];
+            if ( defaultValue != 0 )
+            {
+                Arrays.fill( chunks[chunk], defaultValue );
+            }
+        }
+        chunks[chunk][(int) (index & CHUNK_MASK)] = value;
+    }
+
+    /**
+     * Releases the memory held by this array, all indexes will return the
+     * default value after this.
+     */
+    void clear()
+    {
+        chunks = new long[16][];
+    }
+}
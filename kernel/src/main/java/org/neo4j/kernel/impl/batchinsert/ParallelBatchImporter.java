@@ -0,0 +1,514 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.batchinsert;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.kernel.Config;
+import org.neo4j.kernel.IdType;
+import org.neo4j.kernel.impl.nioneo.store.IdGeneratorImpl;
+import org.neo4j.kernel.impl.nioneo.store.NeoStore;
+import org.neo4j.kernel.impl.nioneo.store.NodeRecord;
+import org.neo4j.kernel.impl.nioneo.store.NodeStore;
+import org.neo4j.kernel.impl.nioneo.store.PropertyBlock;
+import org.neo4j.kernel.impl.nioneo.store.Record;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipRecord;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipStore;
+
+/**
+ * A {@link BatchImporter} which imports in stages, running the work that
+ * can be done in parallel on multiple threads and doing the rest in
+ * sequential passes over the stores:
+ * <ol>
+ * <li>{@link #IMPORT_NODES}: the input is read in batches by the calling
+ * thread, properties are encoded by {@link Config#IMPORT_THREADS} threads
+ * and the property records are written, in input order, by a single writer
+ * thread. Node records are only remembered at this point.</li>
+ * <li>{@link #IMPORT_RELATIONSHIPS}: the same as for nodes. Relationships
+ * get ids in input order and their nodes and properties are remembered.</li>
+ * <li>{@link #LINK_RELATIONSHIPS}: one pass backwards over the
+ * relationships links each one to the next relationship of its nodes,
+ * which groups them by node without having to sort them.</li>
+ * <li>{@link #WRITE_RELATIONSHIPS}: one pass forwards links each
+ * relationship to the previous one of its nodes and writes it.</li>
+ * <li>{@link #WRITE_NODES}: the node records are written, pointing to
+ * their first relationship.</li>
+ * </ol>
+ * Relationship and node records are written in id order, so the I/O of the
+ * last two stages is sequential. The nodes and relationships are kept in
+ * memory between the stages, which takes about 24 bytes per node and 48
+ * bytes per relationship.
+ */
+public class ParallelBatchImporter implements BatchImporter
+{
+    public static final String IMPORT_NODES = "Import nodes";
+    public static final String IMPORT_RELATIONSHIPS = "Import relationships";
+    public static final String LINK_RELATIONSHIPS = "Link relationships";
+    public static final String WRITE_RELATIONSHIPS = "Write relationships";
+    public static final String WRITE_NODES = "Write nodes";
+
+    private static final long MAX_NODE_ID = IdType.NODE.getMaxValue();
+    private static final long MAX_RELATIONSHIP_ID = IdType.RELATIONSHIP.getMaxValue();
+    private static final int DEFAULT_BATCH_SIZE = 10000;
+    private static final long NO_NEXT_RELATIONSHIP = Record.NO_NEXT_RELATIONSHIP.intValue();
+    private static final long NO_NEXT_PROPERTY = Record.NO_NEXT_PROPERTY.intValue();
+    // marks node ids that aren't used in the node properties array
+    private static final long NOT_IN_USE = -2;
+
+    private final BatchInserterImpl inserter;
+    private final ImportProgressMonitor monitor;
+    private final int threads;
+    private final int batchSize;
+    private boolean imported;
+
+    // first property record of each node, or NOT_IN_USE
+    private final ChunkedLongArray nodeProperties = new ChunkedLongArray( NOT_IN_USE );
+    private ChunkedLongArray nodeFirstRelationships;
+    private long highNodeId;
+    private boolean referenceNodeImported;
+
+    private final ChunkedLongArray relStartNodes = new ChunkedLongArray( 0 );
+    private final ChunkedLongArray relEndNodes = new ChunkedLongArray( 0 );
+    private final ChunkedLongArray relTypes = new ChunkedLongArray( 0 );
+    private final ChunkedLongArray relProperties = new ChunkedLongArray( NO_NEXT_PROPERTY );
+    private final ChunkedLongArray relFirstNext = new ChunkedLongArray( NO_NEXT_RELATIONSHIP );
+    private final ChunkedLongArray relSecondNext = new ChunkedLongArray( NO_NEXT_RELATIONSHIP );
+    private long relationshipCount;
+
+    public ParallelBatchImporter( String storeDir )
+    {
+        this( storeDir, Collections.<String, String>emptyMap(), new SilentImportProgressMonitor() );
+    }
+
+    public ParallelBatchImporter( String storeDir, Map<String,String> config,
+            ImportProgressMonitor monitor )
+    {
+        this.monitor = monitor;
+        String threadsConfig = config.get( Config.IMPORT_THREADS );
+        threads = threadsConfig != null ? Integer.parseInt( threadsConfig ) :
+                Runtime.getRuntime().availableProcessors();
+        String batchSizeConfig = config.get( Config.IMPORT_BATCH_SIZE );
+        batchSize = batchSizeConfig != null ? Integer.parseInt( batchSizeConfig ) :
+                DEFAULT_BATCH_SIZE;
+        if ( threads < 1 || batchSize < 1 )
+        {
+            throw new IllegalArgumentException( "threads=" + threads + ", batchSize=" + batchSize );
+        }
+        inserter = new BatchInserterImpl( storeDir, config );
+        NeoStore neoStore = inserter.getNeoStore();
+        if ( neoStore.getNodeStore().getHighId() > 1 ||
+                neoStore.getRelationshipStore().getHighId() > 0 )
+        {
+            inserter.shutdown();
+            throw new IllegalStateException( storeDir + " isn't empty" );
+        }
+        // the reference node
+        nodeProperties.set( 0, NO_NEXT_PROPERTY );
+        highNodeId = 1;
+    }
+
+    public void doImport( Iterable<InputNode> nodes, Iterable<InputRelationship> relationships )
+    {
+        if ( imported )
+        {
+            throw new IllegalStateException( "Already imported" );
+        }
+        imported = true;
+        ExecutorService encoders = Executors.newFixedThreadPool( threads,
+                new NamedThreadFactory( "Import encoder" ) );
+        ExecutorService writer = Executors.newSingleThreadExecutor(
+                new NamedThreadFactory( "Import writer" ) );
+        try
+        {
+            runStage( IMPORT_NODES, nodes, new NodeStage(), encoders, writer );
+            runStage( IMPORT_RELATIONSHIPS, relationships, new RelationshipStage(),
+                    encoders, writer );
+        }
+        finally
+        {
+            encoders.shutdownNow();
+            writer.shutdownNow();
+        }
+        linkRelationships();
+        writeRelationships();
+        writeNodes();
+    }
+
+    public void shutdown()
+    {
+        inserter.shutdown();
+    }
+
+    /**
+     * Reads the input in batches, encodes the batches in parallel and
+     * writes them in input order.
+     */
+    private <I, E> void runStage( String name, Iterable<I> input, final Stage<I, E> stage,
+            ExecutorService encoders, ExecutorService writer )
+    {
+        monitor.started( name );
+        long startTime = System.currentTimeMillis();
+        // limits the number of batches in memory
+        final Semaphore pendingBatches = new Semaphore( threads * 2 );
+        LinkedList<Future<?>> writes = new LinkedList<Future<?>>();
+        List<I> batch = new ArrayList<I>( batchSize );
+        long count = 0;
+        for ( I item : input )
+        {
+            batch.add( item );
+            if ( batch.size() == batchSize )
+            {
+                count += batch.size();
+                submit( name, stage, batch, encoders, writer, pendingBatches, writes );
+                batch = new ArrayList<I>( batchSize );
+            }
+        }
+        if ( !batch.isEmpty() )
+        {
+            count += batch.size();
+            submit( name, stage, batch, encoders, writer, pendingBatches, writes );
+        }
+        for ( Future<?> write : writes )
+        {
+            getUnchecked( write );
+        }
+        monitor.finished( name, count, System.currentTimeMillis() - startTime );
+    }
+
+    private <I, E> void submit( final String name, final Stage<I, E> stage, final List<I> batch,
+            ExecutorService encoders, ExecutorService writer, final Semaphore pendingBatches,
+            LinkedList<Future<?>> writes )
+    {
+        // fail early if a previous batch failed
+        while ( !writes.isEmpty() && writes.getFirst().isDone() )
+        {
+            getUnchecked( writes.removeFirst() );
+        }
+        try
+        {
+            pendingBatches.acquire();
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException( e );
+        }
+        final Future<List<E>> encoded = encoders.submit( new Callable<List<E>>()
+        {
+            public List<E> call()
+            {
+                List<E> result = new ArrayList<E>( batch.size() );
+                for ( I item : batch )
+                {
+                    result.add( stage.encode( item ) );
+                }
+                return result;
+            }
+        } );
+        writes.add( writer.submit( new Callable<Void>()
+        {
+            public Void call()
+            {
+                try
+                {
+                    for ( E item : getUnchecked( encoded ) )
+                    {
+                        stage.write( item );
+                    }
+                    stage.written += batch.size();
+                    monitor.progress( name, stage.written );
+                    return null;
+                }
+                finally
+                {
+                    pendingBatches.release();
+                }
+            }
+        } ) );
+    }
+
+    private void linkRelationships()
+    {
+        monitor.started( LINK_RELATIONSHIPS );
+        long startTime = System.currentTimeMillis();
+        // the first relationship of each node, after the pass
+        ChunkedLongArray heads = new ChunkedLongArray( NO_NEXT_RELATIONSHIP );
+        for ( long id = relationshipCount - 1; id >= 0; id-- )
+        {
+            long startNode = relStartNodes.get( id );
+            long endNode = relEndNodes.get( id );
+            relFirstNext.set( id, heads.get( startNode ) );
+            heads.set( startNode, id );
+            if ( endNode != startNode )
+            {
+                relSecondNext.set( id, heads.get( endNode ) );
+                heads.set( endNode, id );
+            }
+            else
+            {
+                relSecondNext.set( id, relFirstNext.get( id ) );
+            }
+            reportProgress( LINK_RELATIONSHIPS, relationshipCount - id );
+        }
+        nodeFirstRelationships = heads;
+        monitor.finished( LINK_RELATIONSHIPS, relationshipCount,
+                System.currentTimeMillis() - startTime );
+    }
+
+    private void writeRelationships()
+    {
+        monitor.started( WRITE_RELATIONSHIPS );
+        long startTime = System.currentTimeMillis();
+        RelationshipStore relStore = inserter.getNeoStore().getRelationshipStore();
+        relStore.setHighId( relationshipCount );
+        ChunkedLongArray tails = new ChunkedLongArray( NO_NEXT_RELATIONSHIP );
+        for ( long id = 0; id < relationshipCount; id++ )
+        {
+            long startNode = relStartNodes.get( id );
+            long endNode = relEndNodes.get( id );
+            RelationshipRecord record = new RelationshipRecord( id, startNode, endNode,
+                    (int) relTypes.get( id ) );
+            record.setInUse( true );
+            record.setCreated();
+            long firstPrev = tails.get( startNode );
+            long secondPrev = endNode != startNode ? tails.get( endNode ) : firstPrev;
+            tails.set( startNode, id );
+            tails.set( endNode, id );
+            record.setFirstPrevRel( firstPrev );
+            record.setFirstNextRel( relFirstNext.get( id ) );
+            record.setSecondPrevRel( secondPrev );
+            record.setSecondNextRel( relSecondNext.get( id ) );
+            record.setNextProp( relProperties.get( id ) );
+            relStore.updateRecord( record );
+            reportProgress( WRITE_RELATIONSHIPS, id + 1 );
+        }
+        relStartNodes.clear();
+        relEndNodes.clear();
+        relTypes.clear();
+        relProperties.clear();
+        relFirstNext.clear();
+        relSecondNext.clear();
+        monitor.finished( WRITE_RELATIONSHIPS, relationshipCount,
+                System.currentTimeMillis() - startTime );
+    }
+
+    private void writeNodes()
+    {
+        monitor.started( WRITE_NODES );
+        long startTime = System.currentTimeMillis();
+        NodeStore nodeStore = inserter.getNeoStore().getNodeStore();
+        nodeStore.setHighId( highNodeId );
+        long count = 0;
+        for ( long id = 0; id < highNodeId; id++ )
+        {
+            long nextProp = nodeProperties.get( id );
+            if ( nextProp == NOT_IN_USE )
+            {
+                continue;
+            }
+            NodeRecord record = new NodeRecord( id );
+            record.setInUse( true );
+            record.setCreated();
+            record.setNextRel( nodeFirstRelationships.get( id ) );
+            record.setNextProp( nextProp );
+            nodeStore.updateRecord( record );
+            reportProgress( WRITE_NODES, ++count );
+        }
+        nodeProperties.clear();
+        nodeFirstRelationships.clear();
+        monitor.finished( WRITE_NODES, count, System.currentTimeMillis() - startTime );
+    }
+
+    private void reportProgress( String stage, long count )
+    {
+        if ( count % batchSize == 0 )
+        {
+            monitor.progress( stage, count );
+        }
+    }
+
+    private static <T> T getUnchecked( Future<T> future )
+    {
+        try
+        {
+            return future.get();
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException( e );
+        }
+        catch ( ExecutionException e )
+        {
+            Throwable cause = e.getCause();
+            if ( cause instanceof RuntimeException )
+            {
+                throw (RuntimeException) cause;
+            }
+            if ( cause instanceof Error )
+            {
+                throw (Error) cause;
+            }
+            throw new RuntimeException( cause );
+        }
+    }
+
+    /**
+     * Encodes items on the encoder threads and writes them on the writer
+     * thread, one at a time in input order.
+     */
+    private static abstract class Stage<I, E>
+    {
+        // only accessed by the writer thread
+        private long written;
+
+        abstract E encode( I item );
+
+        abstract void write( E item );
+    }
+
+    private static class EncodedNode
+    {
+        private final long id;
+        private final List<PropertyBlock> properties;
+
+        EncodedNode( long id, List<PropertyBlock> properties )
+        {
+            this.id = id;
+            this.properties = properties;
+        }
+    }
+
+    private class NodeStage extends Stage<InputNode, EncodedNode>
+    {
+        @Override
+        EncodedNode encode( InputNode node )
+        {
+            long id = node.getId();
+            if ( id < 0 || id > MAX_NODE_ID )
+            {
+                throw new IllegalArgumentException( "id=" + id );
+            }
+            if ( id == IdGeneratorImpl.INTEGER_MINUS_ONE )
+            {
+                throw new IllegalArgumentException( "id " + id + " is reserved for internal use" );
+            }
+            return new EncodedNode( id, inserter.encodeProperties( node.getProperties() ) );
+        }
+
+        @Override
+        void write( EncodedNode node )
+        {
+            boolean unusedReferenceNode = node.id == 0 && !referenceNodeImported;
+            if ( nodeProperties.get( node.id ) != NOT_IN_USE && !unusedReferenceNode )
+            {
+                throw new IllegalArgumentException( "id=" + node.id + " already in use" );
+            }
+            referenceNodeImported |= node.id == 0;
+            nodeProperties.set( node.id, inserter.createPropertyChain( node.properties ) );
+            highNodeId = Math.max( highNodeId, node.id + 1 );
+        }
+    }
+
+    private static class EncodedRelationship
+    {
+        private final long startNode;
+        private final long endNode;
+        private final int type;
+        private final List<PropertyBlock> properties;
+
+        EncodedRelationship( long startNode, long endNode, int type,
+                List<PropertyBlock> properties )
+        {
+            this.startNode = startNode;
+            this.endNode = endNode;
+            this.type = type;
+            this.properties = properties;
+        }
+    }
+
+    private class RelationshipStage extends Stage<InputRelationship, EncodedRelationship>
+    {
+        @Override
+        EncodedRelationship encode( InputRelationship relationship )
+        {
+            return new EncodedRelationship( relationship.getStartNode(),
+                    relationship.getEndNode(),
+                    inserter.getOrCreateRelationshipTypeId( relationship.getType().name() ),
+                    inserter.encodeProperties( relationship.getProperties() ) );
+        }
+
+        @Override
+        void write( EncodedRelationship relationship )
+        {
+            assertNodeExists( relationship.startNode );
+            assertNodeExists( relationship.endNode );
+            long id = relationshipCount;
+            if ( id > MAX_RELATIONSHIP_ID )
+            {
+                throw new IllegalStateException( "Relationship id " + id + " is out of range" );
+            }
+            relStartNodes.set( id, relationship.startNode );
+            relEndNodes.set( id, relationship.endNode );
+            relTypes.set( id, relationship.type );
+            relProperties.set( id, inserter.createPropertyChain( relationship.properties ) );
+            relationshipCount++;
+        }
+
+        private void assertNodeExists( long id )
+        {
+            if ( id < 0 || nodeProperties.get( id ) == NOT_IN_USE )
+            {
+                throw new NotFoundException( "id=" + id );
+            }
+        }
+    }
+
+    private static class NamedThreadFactory implements ThreadFactory
+    {
+        private final String name;
+        private final AtomicInteger count = new AtomicInteger();
+
+        NamedThreadFactory( String name )
+        {
+            this.name = name;
+        }
+
+        public Thread newThread( Runnable runnable )
+        {
+            Thread thread = new Thread( runnable, name + "-" + count.incrementAndGet() );
+            thread.setDaemon( true );
+            return thread;
+        }
+    }
+}
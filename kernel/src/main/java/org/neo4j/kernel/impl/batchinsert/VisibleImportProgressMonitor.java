@@ -0,0 +1,74 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.batchinsert;
+
+import java.io.PrintStream;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Prints the progress and throughput of each stage, every million items.
+ */
+public class VisibleImportProgressMonitor implements ImportProgressMonitor
+{
+    protected static final Logger logger = Logger
+            .getLogger( ImportProgressMonitor.class.getName() );
+    private static final long PRINT_INTERVAL = 1000000;
+    private final PrintStream out;
+    private long stageStart;
+    private long printed;
+
+    public VisibleImportProgressMonitor( PrintStream out )
+    {
+        this.out = out;
+    }
+
+    public void started( String stage )
+    {
+        stageStart = System.currentTimeMillis();
+        printed = 0;
+        String message = stage + " started";
+        out.println( message );
+        logger.log( Level.INFO, message );
+    }
+
+    public void progress( String stage, long count )
+    {
+        if ( count / PRINT_INTERVAL > printed )
+        {
+            printed = count / PRINT_INTERVAL;
+            out.println( stage + ": " + count + " (" +
+                    perSecond( count, System.currentTimeMillis() - stageStart ) + "/s)" );
+        }
+    }
+
+    public void finished( String stage, long count, long timeMillis )
+    {
+        String message = stage + " finished: " + count + " in " + timeMillis + "ms (" +
+                perSecond( count, timeMillis ) + "/s)";
+        out.println( message );
+        logger.log( Level.INFO, message );
+    }
+
+    private long perSecond( long count, long timeMillis )
+    {
+        return count * 1000 / Math.max( 1, timeMillis );
+    }
+}
@@ -0,0 +1,56 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.cache;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Converts cached elements to and from bytes, so that they can be kept
+ * outside of the java heap, see {@link OffHeapCache}.
+ *
+ * @param <E> the type of the cached elements
+ */
+public interface CacheEntrySerializer<E>
+{
+    /**
+     * @param element the element to get the id for.
+     * @return the id, i.e. cache key, of {@code element}.
+     */
+    long idOf( E element );
+
+    /**
+     * Writes the state of {@code element}, except its id, to a new buffer.
+     * The state is read once, so what's written is consistent even if
+     * {@code element} is changed by other threads at the same time.
+     *
+     * @param element the element to write.
+     * @return a buffer with the written state between its position and limit.
+     */
+    ByteBuffer write( E element );
+
+    /**
+     * Recreates an element previously written with {@link #write(Object)}.
+     *
+     * @param id the id of the element.
+     * @param source the buffer to read from.
+     * @return a new instance with the state that was written.
+     */
+    E read( long id, ByteBuffer source );
+}
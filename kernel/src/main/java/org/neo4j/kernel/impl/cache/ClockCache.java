@@ -0,0 +1,568 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.cache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A size bounded cache with <CODE>long</CODE> keys that, unlike
+ * {@link LruCache}, doesn't serialize all access on a single monitor.
+ * <p>
+ * The key space is split over a number of segments, each guarded by its own
+ * read/write lock. A segment stores its entries in an open addressing table
+ * of primitive keys, so cache hits neither box keys nor reorder any list, they
+ * just mark the entry as referenced. When a segment is full the entry to evict
+ * is picked with the CLOCK algorithm, an approximation of LRU where a hand
+ * sweeps over the entries giving referenced entries a second chance.
+ * <p>
+ * Like {@link LruCache} this cache can be registered with an
+ * {@link AdaptiveCacheManager} which then resizes it depending on heap usage.
+ *
+ * @param <E> the type of the cached elements
+ */
+public class ClockCache<E> implements Cache<Long,E>
+{
+    private static final int MAX_SEGMENT_COUNT = 1 << 10;
+
+    private final String name;
+    private final AdaptiveCacheManager cacheManager;
+    private final Segment<E>[] segments;
+    private final int segmentShift;
+    private volatile int maxSize;
+    private volatile boolean adaptive = false;
+    private final AtomicBoolean adapting = new AtomicBoolean();
+
+    /**
+     * Creates a CLOCK cache with a segment count based on the number of
+     * available processors. If <CODE>maxSize < 1</CODE> an
+     * IllegalArgumentException is thrown.
+     *
+     * @param name
+     *            name of cache
+     * @param maxSize
+     *            maximum size of this cache
+     * @param cacheManager
+     *            adaptive cache manager or null if adaptive caching not needed
+     */
+    public ClockCache( String name, int maxSize, AdaptiveCacheManager cacheManager )
+    {
+        this( name, maxSize, cacheManager,
+                Runtime.getRuntime().availableProcessors() * 4 );
+    }
+
+    /**
+     * Creates a CLOCK cache with (at least) <CODE>segmentCount</CODE>
+     * segments, rounded up to the closest power of two.
+     *
+     * @param name
+     *            name of cache
+     * @param maxSize
+     *            maximum size of this cache
+     * @param cacheManager
+     *            adaptive cache manager or null if adaptive caching not needed
+     * @param segmentCount
+     *            the number of independently locked segments
+     */
+    @SuppressWarnings( "unchecked" )
+    public ClockCache( String name, int maxSize, AdaptiveCacheManager cacheManager,
+            int segmentCount )
+    {
+        if ( name == null || maxSize < 1 || segmentCount < 1 )
+        {
+            throw new IllegalArgumentException( "maxSize=" + maxSize
+                + ", name=" + name + ", segmentCount=" + segmentCount );
+        }
+        this.name = name;
+        this.cacheManager = cacheManager;
+        this.maxSize = maxSize;
+        int bits = 0;
+        while ( (1 << bits) < Math.min( segmentCount, MAX_SEGMENT_COUNT ) )
+        {
+            bits++;
+        }
+        this.segmentShift = 64 - bits;
+        this.segments = new Segment[1 << bits];
+        for ( int i = 0; i < segments.length; i++ )
+        {
+            segments[i] = new Segment<E>( segmentCapacity( maxSize ) );
+        }
+    }
+
+    private int segmentCapacity( int maxSize )
+    {
+        return Math.max( 1, (maxSize + segments.length - 1) / segments.length );
+    }
+
+    private static long hash( long key )
+    {
+        return key * 0x9E3779B97F4A7C15L;
+    }
+
+    private Segment<E> segmentFor( long hash )
+    {
+        return segmentShift == 64 ? segments[0] :
+            segments[(int) (hash >>> segmentShift)];
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public void put( Long key, E element )
+    {
+        if ( key == null || element == null )
+        {
+            throw new IllegalArgumentException( "key=" + key + ", element="
+                + element );
+        }
+        long hash = hash( key );
+        Segment<E> segment = segmentFor( hash );
+        if ( adaptive && segment.isFull() )
+        {
+            adaptCache();
+        }
+        E evicted = segment.put( key, hash, element );
+        if ( evicted != null )
+        {
+            elementCleaned( evicted );
+        }
+    }
+
+    private void adaptCache()
+    {
+        // Only one thread needs to ask the cache manager, the others
+        // just evict as usual in the meantime.
+        if ( cacheManager != null && adapting.compareAndSet( false, true ) )
+        {
+            try
+            {
+                cacheManager.adaptCache( this );
+            }
+            finally
+            {
+                adapting.set( false );
+            }
+        }
+    }
+
+    public E remove( Long key )
+    {
+        if ( key == null )
+        {
+            throw new IllegalArgumentException( "Null parameter" );
+        }
+        long hash = hash( key );
+        return segmentFor( hash ).remove( key, hash );
+    }
+
+    public E get( Long key )
+    {
+        if ( key == null )
+        {
+            throw new IllegalArgumentException();
+        }
+        long hash = hash( key );
+        return segmentFor( hash ).get( key, hash );
+    }
+
+    /**
+     * Checks if there's an element cached for {@code key}, without counting
+     * it as a hit or miss or marking it as referenced.
+     *
+     * @param key the key for the element
+     * @return whether or not an element is cached for {@code key}
+     */
+    public boolean contains( long key )
+    {
+        long hash = hash( key );
+        return segmentFor( hash ).contains( key, hash );
+    }
+
+    public void clear()
+    {
+        Collection<E> cleaned = new ArrayList<E>();
+        for ( Segment<E> segment : segments )
+        {
+            segment.clear( cleaned );
+        }
+        for ( E element : cleaned )
+        {
+            elementCleaned( element );
+        }
+    }
+
+    public int size()
+    {
+        int size = 0;
+        for ( Segment<E> segment : segments )
+        {
+            size += segment.size;
+        }
+        return size;
+    }
+
+    public void elementCleaned( E element )
+    {
+    }
+
+    public int maxSize()
+    {
+        return maxSize;
+    }
+
+    /**
+     * Changes the max size of the cache. If the cache is bigger than
+     * <CODE>newMaxSize</CODE> entries are evicted from each segment, using
+     * the CLOCK algorithm, until it fits. For each element removed the
+     * {@link #elementCleaned} method is invoked.
+     *
+     * @param newMaxSize
+     *            the new maximum size of the cache
+     */
+    public void resize( int newMaxSize )
+    {
+        if ( newMaxSize < 1 )
+        {
+            throw new IllegalArgumentException( "newMaxSize=" + newMaxSize );
+        }
+        maxSize = newMaxSize;
+        int capacity = segmentCapacity( newMaxSize );
+        Collection<E> cleaned = new ArrayList<E>();
+        for ( Segment<E> segment : segments )
+        {
+            segment.resize( capacity, cleaned );
+        }
+        for ( E element : cleaned )
+        {
+            elementCleaned( element );
+        }
+    }
+
+    public boolean isAdaptive()
+    {
+        return adaptive;
+    }
+
+    public void setAdaptiveStatus( boolean status )
+    {
+        this.adaptive = status;
+    }
+
+    public void putAll( Map<Long,E> map )
+    {
+        for ( Map.Entry<Long,E> entry : map.entrySet() )
+        {
+            put( entry.getKey(), entry.getValue() );
+        }
+    }
+
+    public long hitCount()
+    {
+        long hits = 0;
+        for ( Segment<E> segment : segments )
+        {
+            hits += segment.counter.getHitsCount();
+        }
+        return hits;
+    }
+
+    public long missCount()
+    {
+        long misses = 0;
+        for ( Segment<E> segment : segments )
+        {
+            misses += segment.counter.getMissCount();
+        }
+        return misses;
+    }
+
+    /**
+     * One lock stripe of the cache. The table uses linear probing, an empty
+     * slot is one with a <CODE>null</CODE> value. Readers only ever write
+     * to the <CODE>referenced</CODE> flags which is a benign race, the
+     * flags are only cleared while holding the write lock.
+     */
+    @SuppressWarnings( "serial" )
+    private static final class Segment<E> extends ReentrantReadWriteLock
+    {
+        private final HitCounter counter = HitCounter.create();
+        private long[] keys;
+        private Object[] values;
+        private boolean[] referenced;
+        private volatile int size;
+        private volatile int capacity;
+        private int hand;
+
+        Segment( int capacity )
+        {
+            this.capacity = capacity;
+            allocate( tableSizeFor( capacity ) );
+        }
+
+        private static int tableSizeFor( int entries )
+        {
+            int size = 4;
+            while ( size * 3 / 4 < entries )
+            {
+                size <<= 1;
+            }
+            return size;
+        }
+
+        private void allocate( int tableSize )
+        {
+            keys = new long[tableSize];
+            values = new Object[tableSize];
+            referenced = new boolean[tableSize];
+            hand = 0;
+        }
+
+        boolean isFull()
+        {
+            return size >= capacity;
+        }
+
+        private int indexOf( long key, long hash )
+        {
+            int mask = keys.length - 1;
+            for ( int i = (int) hash & mask;; i = (i + 1) & mask )
+            {
+                if ( values[i] == null )
+                {
+                    return -1 - i;
+                }
+                if ( keys[i] == key )
+                {
+                    return i;
+                }
+            }
+        }
+
+        @SuppressWarnings( "unchecked" )
+        E get( long key, long hash )
+        {
+            readLock().lock();
+            try
+            {
+                int index = indexOf( key, hash );
+                if ( index < 0 )
+                {
+                    return counter.<E>count( null );
+                }
+                referenced[index] = true;
+                return counter.count( (E) values[index] );
+            }
+            finally
+            {
+                readLock().unlock();
+            }
+        }
+
+        boolean contains( long key, long hash )
+        {
+            readLock().lock();
+            try
+            {
+                return indexOf( key, hash ) >= 0;
+            }
+            finally
+            {
+                readLock().unlock();
+            }
+        }
+
+        /**
+         * @return the element evicted to make room, if any.
+         */
+        @SuppressWarnings( "unchecked" )
+        E put( long key, long hash, E element )
+        {
+            writeLock().lock();
+            try
+            {
+                int index = indexOf( key, hash );
+                if ( index >= 0 )
+                {
+                    values[index] = element;
+                    referenced[index] = true;
+                    return null;
+                }
+                E evicted = null;
+                if ( size >= capacity )
+                {
+                    evicted = (E) evict();
+                    index = indexOf( key, hash );
+                }
+                else if ( (size + 1) > keys.length * 3 / 4 )
+                {
+                    rehash( keys.length << 1 );
+                    index = indexOf( key, hash );
+                }
+                index = -1 - index;
+                keys[index] = key;
+                values[index] = element;
+                referenced[index] = false;
+                size++;
+                return evicted;
+            }
+            finally
+            {
+                writeLock().unlock();
+            }
+        }
+
+        @SuppressWarnings( "unchecked" )
+        E remove( long key, long hash )
+        {
+            writeLock().lock();
+            try
+            {
+                int index = indexOf( key, hash );
+                if ( index < 0 )
+                {
+                    return null;
+                }
+                E element = (E) values[index];
+                delete( index );
+                return element;
+            }
+            finally
+            {
+                writeLock().unlock();
+            }
+        }
+
+        @SuppressWarnings( "unchecked" )
+        void resize( int newCapacity, Collection<E> cleaned )
+        {
+            writeLock().lock();
+            try
+            {
+                capacity = newCapacity;
+                while ( size > newCapacity )
+                {
+                    cleaned.add( (E) evict() );
+                }
+            }
+            finally
+            {
+                writeLock().unlock();
+            }
+        }
+
+        @SuppressWarnings( "unchecked" )
+        void clear( Collection<E> cleaned )
+        {
+            writeLock().lock();
+            try
+            {
+                for ( Object value : values )
+                {
+                    if ( value != null )
+                    {
+                        cleaned.add( (E) value );
+                    }
+                }
+                allocate( tableSizeFor( Math.min( capacity, 1024 ) ) );
+                size = 0;
+            }
+            finally
+            {
+                writeLock().unlock();
+            }
+        }
+
+        /**
+         * Advances the clock hand, clearing referenced flags, until it
+         * finds an entry that hasn't been referenced since the last sweep.
+         * Must be called with the write lock held and a non empty table.
+         */
+        private Object evict()
+        {
+            int mask = keys.length - 1;
+            for ( ;; hand = (hand + 1) & mask )
+            {
+                if ( values[hand] == null )
+                {
+                    continue;
+                }
+                if ( referenced[hand] )
+                {
+                    referenced[hand] = false;
+                    continue;
+                }
+                Object evicted = values[hand];
+                // the hand stays, since delete may shift the next entry here
+                delete( hand );
+                return evicted;
+            }
+        }
+
+        /**
+         * Removes the entry in <CODE>index</CODE> and shifts back the
+         * following entries of the probe sequence, so that no tombstones
+         * are needed.
+         */
+        private void delete( int index )
+        {
+            int mask = keys.length - 1;
+            int hole = index;
+            for ( int i = (index + 1) & mask; values[i] != null; i = (i + 1) & mask )
+            {
+                int home = (int) hash( keys[i] ) & mask;
+                boolean movable = hole <= i ? ( home <= hole || home > i )
+                        : ( home <= hole && home > i );
+                if ( movable )
+                {
+                    keys[hole] = keys[i];
+                    values[hole] = values[i];
+                    referenced[hole] = referenced[i];
+                    hole = i;
+                }
+            }
+            values[hole] = null;
+            referenced[hole] = false;
+            size--;
+        }
+
+        private void rehash( int tableSize )
+        {
+            long[] oldKeys = keys;
+            Object[] oldValues = values;
+            boolean[] oldReferenced = referenced;
+            allocate( tableSize );
+            for ( int i = 0; i < oldValues.length; i++ )
+            {
+                if ( oldValues[i] != null )
+                {
+                    int index = -1 - indexOf( oldKeys[i], hash( oldKeys[i] ) );
+                    keys[index] = oldKeys[i];
+                    values[index] = oldValues[i];
+                    referenced[index] = oldReferenced[i];
+                }
+            }
+        }
+    }
+}
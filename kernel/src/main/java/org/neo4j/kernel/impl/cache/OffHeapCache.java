@@ -0,0 +1,527 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.cache;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * A cache that keeps a small number of live elements on the java heap and
+ * the rest serialized into direct {@link ByteBuffer}s, outside of the heap.
+ * The size of the off heap part is given in bytes rather than in number of
+ * elements and, since it's just a handful of big buffers, it adds next to
+ * nothing to the work of the garbage collector.
+ * <p>
+ * Live elements are kept in a {@link ClockCache}. When an element is evicted
+ * from it, it's written, using the {@link CacheEntrySerializer}, to one of a
+ * number of independently locked slabs. A lookup that misses the live
+ * elements takes the element out of its slab, deserializes it and puts it
+ * back among the live elements. So an element is normally found in either
+ * place, but not both.
+ * <p>
+ * Each slab is written to like a circular log, evicting the oldest records
+ * when the space is needed for new ones.
+ *
+ * @param <E> the type of the cached elements
+ */
+public class OffHeapCache<E> implements Cache<Long,E>
+{
+    private static final int RECORD_HEADER_SIZE = 8 + 4;
+    private static final int MIN_SLAB_SIZE = 1024 * 1024;
+
+    private final String name;
+    private final CacheEntrySerializer<E> serializer;
+    private final ClockCache<E> liveElements;
+    private volatile Slab[] slabs;
+
+    /**
+     * @param name
+     *            name of cache
+     * @param maxSize
+     *            maximum number of elements kept live on the heap
+     * @param maxBytes
+     *            maximum number of bytes to use for serialized elements
+     * @param serializer
+     *            converts elements to and from bytes
+     * @param cacheManager
+     *            adaptive cache manager for the live elements, or null if
+     *            adaptive caching not needed
+     */
+    public OffHeapCache( String name, int maxSize, long maxBytes,
+            CacheEntrySerializer<E> serializer, AdaptiveCacheManager cacheManager )
+    {
+        if ( name == null || maxBytes < 0 || serializer == null )
+        {
+            throw new IllegalArgumentException( "name=" + name + ", maxBytes=" +
+                    maxBytes + ", serializer=" + serializer );
+        }
+        this.name = name;
+        this.serializer = serializer;
+        this.liveElements = new ClockCache<E>( name, maxSize, cacheManager )
+        {
+            @Override
+            public void elementCleaned( E element )
+            {
+                spill( element );
+            }
+        };
+        this.slabs = createSlabs( maxBytes );
+    }
+
+    private static Slab[] createSlabs( long maxBytes )
+    {
+        int count = Integer.highestOneBit( Runtime.getRuntime().availableProcessors() * 2 );
+        while ( count > 1 && maxBytes / count < MIN_SLAB_SIZE )
+        {
+            count >>= 1;
+        }
+        Slab[] slabs = new Slab[count];
+        long slabSize = Math.min( maxBytes / count, Integer.MAX_VALUE );
+        for ( int i = 0; i < count; i++ )
+        {
+            slabs[i] = new Slab( (int) slabSize );
+        }
+        return slabs;
+    }
+
+    private Slab slabFor( long key )
+    {
+        Slab[] slabs = this.slabs;
+        return slabs[(int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & (slabs.length - 1)];
+    }
+
+    /**
+     * Changes the number of bytes used for serialized elements. All elements
+     * that currently are serialized are dropped.
+     *
+     * @param maxBytes the new maximum number of bytes to use.
+     */
+    public void setMaxBytes( long maxBytes )
+    {
+        if ( maxBytes < 0 )
+        {
+            throw new IllegalArgumentException( "maxBytes=" + maxBytes );
+        }
+        this.slabs = createSlabs( maxBytes );
+    }
+
+    /**
+     * @return the maximum number of bytes used for serialized elements.
+     */
+    public long maxBytes()
+    {
+        long bytes = 0;
+        for ( Slab slab : slabs )
+        {
+            bytes += slab.capacity;
+        }
+        return bytes;
+    }
+
+    /**
+     * @return the number of bytes currently holding serialized elements,
+     * including ones that have been removed but not overwritten yet.
+     */
+    public long usedBytes()
+    {
+        long bytes = 0;
+        for ( Slab slab : slabs )
+        {
+            bytes += slab.used;
+        }
+        return bytes;
+    }
+
+    private void spill( E element )
+    {
+        long id = serializer.idOf( element );
+        Slab slab = slabFor( id );
+        synchronized ( slab )
+        {
+            // It could have been put back in the mean time, in which
+            // case the live element is the one to keep.
+            if ( !liveElements.contains( id ) )
+            {
+                slab.write( id, element, serializer );
+            }
+        }
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public void put( Long key, E element )
+    {
+        if ( key == null || element == null )
+        {
+            throw new IllegalArgumentException( "key=" + key + ", element="
+                + element );
+        }
+        // The live element goes in first so that a concurrent spill of an
+        // older instance sees it and leaves the slab alone. Putting it may
+        // spill other elements, so it's done without holding a slab lock.
+        liveElements.put( key, element );
+        Slab slab = slabFor( key );
+        synchronized ( slab )
+        {
+            slab.remove( key );
+        }
+    }
+
+    public void putAll( Map<Long,E> map )
+    {
+        for ( Map.Entry<Long,E> entry : map.entrySet() )
+        {
+            put( entry.getKey(), entry.getValue() );
+        }
+    }
+
+    public E get( Long key )
+    {
+        E element = liveElements.get( key );
+        if ( element != null )
+        {
+            return element;
+        }
+        Slab slab = slabFor( key );
+        synchronized ( slab )
+        {
+            element = slab.counter.count( slab.take( key, serializer ) );
+        }
+        if ( element != null )
+        {
+            liveElements.put( key, element );
+        }
+        return element;
+    }
+
+    public E remove( Long key )
+    {
+        E element = liveElements.remove( key );
+        Slab slab = slabFor( key );
+        synchronized ( slab )
+        {
+            E serialized = slab.take( key, serializer );
+            return element != null ? element : serialized;
+        }
+    }
+
+    public void clear()
+    {
+        liveElements.clear();
+        for ( Slab slab : slabs )
+        {
+            synchronized ( slab )
+            {
+                slab.clear();
+            }
+        }
+    }
+
+    public int size()
+    {
+        int size = liveElements.size();
+        for ( Slab slab : slabs )
+        {
+            size += slab.index.size;
+        }
+        return size;
+    }
+
+    public void elementCleaned( E value )
+    {
+    }
+
+    /**
+     * @return the maximum number of elements kept live on the heap.
+     */
+    public int maxSize()
+    {
+        return liveElements.maxSize();
+    }
+
+    /**
+     * Changes the maximum number of elements kept live on the heap. Elements
+     * that don't fit any longer are serialized, not dropped.
+     */
+    public void resize( int newSize )
+    {
+        liveElements.resize( newSize );
+    }
+
+    public boolean isAdaptive()
+    {
+        return liveElements.isAdaptive();
+    }
+
+    public void setAdaptiveStatus( boolean status )
+    {
+        liveElements.setAdaptiveStatus( status );
+    }
+
+    public long hitCount()
+    {
+        long hits = liveElements.hitCount();
+        for ( Slab slab : slabs )
+        {
+            hits += slab.counter.getHitsCount();
+        }
+        return hits;
+    }
+
+    public long missCount()
+    {
+        long misses = 0;
+        for ( Slab slab : slabs )
+        {
+            misses += slab.counter.getMissCount();
+        }
+        return misses;
+    }
+
+    /**
+     * A direct buffer written to like a circular log. Records are
+     * [id,length,data] and a record is live as long as the index points to
+     * it. Writing a new record evicts the oldest records until there's
+     * enough contiguous space at the head. Callers synchronize on the slab.
+     */
+    private static final class Slab
+    {
+        private final HitCounter counter = HitCounter.create();
+        private final OffsetTable index = new OffsetTable();
+        private final ByteBuffer buffer;
+        private final int capacity;
+        private int head;
+        private int tail;
+        private int wrapPoint;
+        private volatile int used;
+
+        Slab( int capacity )
+        {
+            this.capacity = capacity;
+            this.buffer = ByteBuffer.allocateDirect( capacity );
+            this.wrapPoint = capacity;
+        }
+
+        <E> void write( long id, E element, CacheEntrySerializer<E> serializer )
+        {
+            index.remove( id );
+            ByteBuffer data = serializer.write( element );
+            int size = data.remaining();
+            int total = RECORD_HEADER_SIZE + size;
+            if ( total > capacity )
+            {
+                return;
+            }
+            makeRoom( total );
+            buffer.putLong( head, id );
+            buffer.putInt( head + 8, size );
+            view( head, size ).put( data );
+            index.put( id, head );
+            head += total;
+            used += total;
+        }
+
+        <E> E take( long id, CacheEntrySerializer<E> serializer )
+        {
+            int offset = index.remove( id );
+            if ( offset == -1 )
+            {
+                return null;
+            }
+            return serializer.read( id, view( offset, buffer.getInt( offset + 8 ) ) );
+        }
+
+        void remove( long id )
+        {
+            index.remove( id );
+        }
+
+        void clear()
+        {
+            index.clear();
+            head = tail = used = 0;
+            wrapPoint = capacity;
+        }
+
+        private ByteBuffer view( int recordOffset, int size )
+        {
+            ByteBuffer view = buffer.duplicate();
+            view.limit( recordOffset + RECORD_HEADER_SIZE + size );
+            view.position( recordOffset + RECORD_HEADER_SIZE );
+            return view;
+        }
+
+        private void makeRoom( int total )
+        {
+            while ( true )
+            {
+                if ( used == 0 )
+                {
+                    head = tail = 0;
+                    wrapPoint = capacity;
+                    return;
+                }
+                if ( tail < head )
+                {
+                    // live data in [tail,head)
+                    if ( capacity - head >= total )
+                    {
+                        return;
+                    }
+                    wrapPoint = head;
+                    head = 0;
+                }
+                else
+                {
+                    // live data in [tail,wrapPoint) and [0,head)
+                    if ( tail - head >= total )
+                    {
+                        return;
+                    }
+                    evictOldest();
+                }
+            }
+        }
+
+        private void evictOldest()
+        {
+            long id = buffer.getLong( tail );
+            int total = RECORD_HEADER_SIZE + buffer.getInt( tail + 8 );
+            if ( index.get( id ) == tail )
+            {
+                index.remove( id );
+            }
+            tail += total;
+            used -= total;
+            if ( tail == wrapPoint )
+            {
+                tail = 0;
+                wrapPoint = capacity;
+            }
+        }
+    }
+
+    /**
+     * Maps ids to record offsets, using open addressing on primitive arrays.
+     */
+    private static final class OffsetTable
+    {
+        private long[] keys;
+        private int[] offsets;
+        private volatile int size;
+
+        OffsetTable()
+        {
+            clear();
+        }
+
+        void clear()
+        {
+            keys = new long[16];
+            offsets = new int[16];
+            Arrays.fill( offsets, -1 );
+            size = 0;
+        }
+
+        private int slotOf( long key )
+        {
+            return (int) ((key * 0x9E3779B97F4A7C15L) >>> 40) & (keys.length - 1);
+        }
+
+        private int indexOf( long key )
+        {
+            int mask = keys.length - 1;
+            for ( int i = slotOf( key );; i = (i + 1) & mask )
+            {
+                if ( offsets[i] == -1 || keys[i] == key )
+                {
+                    return i;
+                }
+            }
+        }
+
+        int get( long key )
+        {
+            return offsets[indexOf( key )];
+        }
+
+        void put( long key, int offset )
+        {
+            if ( (size + 1) > keys.length * 3 / 4 )
+            {
+                long[] oldKeys = keys;
+                int[] oldOffsets = offsets;
+                keys = new long[oldKeys.length << 1];
+                offsets = new int[oldKeys.length << 1];
+                Arrays.fill( offsets, -1 );
+                for ( int i = 0; i < oldKeys.length; i++ )
+                {
+                    if ( oldOffsets[i] != -1 )
+                    {
+                        int index = indexOf( oldKeys[i] );
+                        keys[index] = oldKeys[i];
+                        offsets[index] = oldOffsets[i];
+                    }
+                }
+            }
+            int index = indexOf( key );
+            if ( offsets[index] == -1 )
+            {
+                size++;
+            }
+            keys[index] = key;
+            offsets[index] = offset;
+        }
+
+        /**
+         * @return the offset that was removed, or -1 if there was none.
+         */
+        int remove( long key )
+        {
+            int index = indexOf( key );
+            int offset = offsets[index];
+            if ( offset == -1 )
+            {
+                return -1;
+            }
+            int mask = keys.length - 1;
+            int hole = index;
+            for ( int i = (index + 1) & mask; offsets[i] != -1; i = (i + 1) & mask )
+            {
+                int home = slotOf( keys[i] );
+                boolean movable = hole <= i ? ( home <= hole || home > i )
+                        : ( home <= hole && home > i );
+                if ( movable )
+                {
+                    keys[hole] = keys[i];
+                    offsets[hole] = offsets[i];
+                    hole = i;
+                }
+            }
+            offsets[hole] = -1;
+            size--;
+            return offset;
+        }
+    }
+}
@@ -381,6 +381,7 @@ public class LockReleaser
                         nodeElement.relationshipRemoveMap );
                     node.commitPropertyMaps( nodeElement.propertyAddMap,
                         nodeElement.propertyRemoveMap );
+                    nodeManager.committed( node );
                 }
                 else if ( param != Status.STATUS_ROLLEDBACK )
                 {
@@ -402,6 +403,7 @@ public class LockReleaser
                 {
                     rel.commitPropertyMaps( relElement.propertyAddMap,
                         relElement.propertyRemoveMap );
+                    nodeManager.committed( rel );
                 }
                 else if ( param != Status.STATUS_ROLLEDBACK )
                 {
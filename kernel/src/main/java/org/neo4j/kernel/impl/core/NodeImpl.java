@@ -22,10 +22,14 @@ package org.neo4j.kernel.impl.core;
 import static org.neo4j.kernel.impl.util.RelIdArray.empty;
 
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.neo4j.graphdb.Direction;
 import org.neo4j.graphdb.Node;
@@ -36,7 +40,9 @@ import org.neo4j.graphdb.ReturnableEvaluator;
 import org.neo4j.graphdb.StopEvaluator;
 import org.neo4j.graphdb.Traverser;
 import org.neo4j.graphdb.Traverser.Order;
+import org.neo4j.helpers.Pair;
 import org.neo4j.helpers.Triplet;
+import org.neo4j.kernel.impl.nioneo.store.DenseNodeChains;
 import org.neo4j.kernel.impl.nioneo.store.PropertyData;
 import org.neo4j.kernel.impl.nioneo.store.Record;
 import org.neo4j.kernel.impl.transaction.LockType;
@@ -54,6 +60,9 @@ class NodeImpl extends Primitive
     private volatile RelIdArray[] relationships;
     private long relChainPosition = Record.NO_NEXT_RELATIONSHIP.intValue();
     private long id;
+    // the types of a dense node whose relationships have been loaded
+    // separately, ahead of loading the whole relationship chain
+    private volatile Set<String> loadedTypes = Collections.emptySet();
 
     NodeImpl( long id )
     {
@@ -71,6 +80,14 @@ class NodeImpl extends Primitive
         }
     }
 
+    // Used when recreating a node from its serialized state
+    NodeImpl( long id, RelIdArray[] relationships, long relChainPosition )
+    {
+        this( id, false );
+        this.relationships = relationships;
+        this.relChainPosition = relChainPosition;
+    }
+
     @Override
     public long getId()
     {
@@ -167,6 +184,7 @@ class NodeImpl extends Primitive
         DirectionWrapper direction, RelationshipType... types)
     {
         ensureRelationshipMapNotNull( nodeManager );
+        loadRelationshipsOfType( nodeManager, types );
         List<RelIdIterator> relTypeList = new LinkedList<RelIdIterator>();
         boolean hasModifications = nodeManager.getLockReleaser().hasRelationshipModifications( this );
         for ( RelationshipType type : types )
@@ -208,14 +226,14 @@ class NodeImpl extends Primitive
     {
         RelationshipType types[] = new RelationshipType[] { type };
         return new IntArrayIterator( getAllRelationshipsOfType( nodeManager, DirectionWrapper.BOTH, types ),
-            this, DirectionWrapper.BOTH, nodeManager, types, !hasMoreRelationshipsToLoad() );
+            this, DirectionWrapper.BOTH, nodeManager, types, !hasMoreRelationshipsToLoad( types ) );
     }
 
     public Iterable<Relationship> getRelationships( NodeManager nodeManager,
             RelationshipType... types )
     {
         return new IntArrayIterator( getAllRelationshipsOfType( nodeManager, DirectionWrapper.BOTH, types ),
-            this, DirectionWrapper.BOTH, nodeManager, types, !hasMoreRelationshipsToLoad() );
+            this, DirectionWrapper.BOTH, nodeManager, types, !hasMoreRelationshipsToLoad( types ) );
     }
 
     public Iterable<Relationship> getRelationships( NodeManager nodeManager,
@@ -223,7 +241,7 @@ class NodeImpl extends Primitive
     {
         DirectionWrapper dir = RelIdArray.wrap( direction );
         return new IntArrayIterator( getAllRelationshipsOfType( nodeManager, dir, types ),
-            this, dir, nodeManager, types, !hasMoreRelationshipsToLoad() );
+            this, dir, nodeManager, types, !hasMoreRelationshipsToLoad( types ) );
     }
 
     public Relationship getSingleRelationship( NodeManager nodeManager, RelationshipType type,
@@ -232,7 +250,7 @@ class NodeImpl extends Primitive
         DirectionWrapper direction = RelIdArray.wrap( dir );
         RelationshipType types[] = new RelationshipType[] { type };
         Iterator<Relationship> rels = new IntArrayIterator( getAllRelationshipsOfType( nodeManager,
-                direction, types ), this, direction, nodeManager, types, !hasMoreRelationshipsToLoad() );
+                direction, types ), this, direction, nodeManager, types, !hasMoreRelationshipsToLoad( types ) );
         if ( !rels.hasNext() )
         {
             return null;
@@ -252,7 +270,7 @@ class NodeImpl extends Primitive
         RelationshipType types[] = new RelationshipType[] { type };
         DirectionWrapper direction = RelIdArray.wrap( dir );
         return new IntArrayIterator( getAllRelationshipsOfType( nodeManager, direction, types ),
-            this, direction, nodeManager, types, !hasMoreRelationshipsToLoad() );
+            this, direction, nodeManager, types, !hasMoreRelationshipsToLoad( types ) );
     }
 
     public void delete( NodeManager nodeManager )
@@ -404,6 +422,81 @@ class NodeImpl extends Primitive
         return relChainPosition != Record.NO_NEXT_RELATIONSHIP.intValue();
     }
 
+    /**
+     * @return <code>false</code> if all relationships of the given types have
+     * been loaded, even if the relationship chain as a whole hasn't.
+     */
+    boolean hasMoreRelationshipsToLoad( RelationshipType[] types )
+    {
+        if ( !hasMoreRelationshipsToLoad() )
+        {
+            return false;
+        }
+        if ( types.length == 0 )
+        {
+            return true;
+        }
+        Set<String> loaded = loadedTypes;
+        for ( RelationshipType type : types )
+        {
+            if ( !loaded.contains( type.name() ) )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Loads all relationships of the given types, one type at a time, if
+     * this is a dense node whose relationship chain hasn't been fully loaded.
+     * For other nodes the relationships are loaded in chain order, see
+     * {@link #getMoreRelationships(NodeManager)}.
+     */
+    private void loadRelationshipsOfType( NodeManager nodeManager, RelationshipType[] types )
+    {
+        if ( !DenseNodeChains.isDenseChainPosition( relChainPosition ) )
+        {
+            return;
+        }
+        Map<Long,RelationshipImpl> loadedRels = null;
+        synchronized ( this )
+        {
+            for ( RelationshipType type : types )
+            {
+                if ( !DenseNodeChains.isDenseChainPosition( relChainPosition ) )
+                {
+                    break;
+                }
+                if ( loadedTypes.contains( type.name() ) )
+                {
+                    continue;
+                }
+                Pair<RelIdArray,Map<Long,RelationshipImpl>> rels =
+                    nodeManager.getRelationshipsOfType( this, type );
+                if ( rels == null )
+                {
+                    // no longer dense, leave it to the chain loading
+                    break;
+                }
+                // all relationships of the type, replacing the ones loaded so far
+                putRelIdArray( rels.first() );
+                Set<String> newLoadedTypes = new HashSet<String>( loadedTypes );
+                newLoadedTypes.add( type.name() );
+                loadedTypes = newLoadedTypes;
+                if ( loadedRels == null )
+                {
+                    loadedRels = new HashMap<Long,RelationshipImpl>();
+                }
+                loadedRels.putAll( rels.other() );
+            }
+        }
+        if ( loadedRels != null )
+        {
+            nodeManager.putAllInRelCache( loadedRels );
+        }
+    }
+
     boolean getMoreRelationships( NodeManager nodeManager )
     {
         Triplet<ArrayMap<String,RelIdArray>,Map<Long,RelationshipImpl>,Long> rels;
@@ -424,8 +517,14 @@ class NodeImpl extends Primitive
             {
                 return false;
             }
+            Set<String> loaded = loadedTypes;
             for ( String type : addMap.keySet() )
             {
+                if ( loaded.contains( type ) )
+                {
+                    // already loaded with loadRelationshipsOfType
+                    continue;
+                }
                 RelIdArray addRels = addMap.get( type );
                 // IntArray srcRels = tmpRelMap.get( type );
                 RelIdArray srcRels = getRelIdArray( type );
@@ -652,4 +751,14 @@ class NodeImpl extends Primitive
     {
         return relationships;
     }
+
+    /**
+     * @return the relationships loaded so far, or <code>null</code> if the
+     * relationships of some types have been loaded ahead of the chain, since
+     * which types that is isn't kept when the node is serialized.
+     */
+    RelIdArray[] getCacheableRelationshipIds()
+    {
+        return loadedTypes.isEmpty() ? relationships : null;
+    }
 }
@@ -40,11 +40,14 @@ import org.neo4j.graphdb.RelationshipType;
 import org.neo4j.graphdb.event.TransactionData;
 import org.neo4j.helpers.Pair;
 import org.neo4j.helpers.Triplet;
+import org.neo4j.kernel.Config;
 import org.neo4j.kernel.PropertyTracker;
 import org.neo4j.kernel.impl.cache.AdaptiveCacheManager;
 import org.neo4j.kernel.impl.cache.Cache;
+import org.neo4j.kernel.impl.cache.ClockCache;
 import org.neo4j.kernel.impl.cache.LruCache;
 import org.neo4j.kernel.impl.cache.NoCache;
+import org.neo4j.kernel.impl.cache.OffHeapCache;
 import org.neo4j.kernel.impl.cache.SoftLruCache;
 import org.neo4j.kernel.impl.cache.StrongReferenceCache;
 import org.neo4j.kernel.impl.cache.WeakLruCache;
@@ -232,6 +235,7 @@ public class NodeManager
         parseParams( params );
         nodeCache.resize( maxNodeCacheSize );
         relCache.resize( maxRelCacheSize );
+        cacheType.configure( nodeCache, relCache, params );
         if ( useAdaptiveCache && cacheType.needsCacheManagerRegistration )
         {
             cacheManager.registerCache( nodeCache, adaptiveCacheHeapRatio,
@@ -631,6 +635,43 @@ public class NodeManager
         return Triplet.of( newRelationshipMap, relsMap, rels.other() );
     }
 
+    /**
+     * Loads the relationships of one type of a dense node, see
+     * {@link PersistenceManager#getRelationshipsOfType(long, int)}.
+     *
+     * @return the relationships of the given type, or <code>null</code> if
+     * the node isn't dense.
+     */
+    Pair<RelIdArray,Map<Long,RelationshipImpl>> getRelationshipsOfType( NodeImpl node,
+            RelationshipType type )
+    {
+        Map<Long,RelationshipImpl> relsMap = new HashMap<Long,RelationshipImpl>();
+        Integer typeId = relTypeHolder.getIdFor( type.name() );
+        if ( typeId == null )
+        {
+            return Pair.of( new RelIdArray( type.name() ), relsMap );
+        }
+        Map<DirectionWrapper, Iterable<RelationshipRecord>> rels =
+            persistenceManager.getRelationshipsOfType( node.getId(), typeId );
+        if ( rels == null )
+        {
+            return null;
+        }
+        ArrayMap<String,RelIdArray> newRelationshipMap = new ArrayMap<String,RelIdArray>();
+        Iterable<RelationshipRecord> loops = rels.get( DirectionWrapper.BOTH );
+        boolean hasLoops = loops != null;
+        if ( hasLoops )
+        {
+            receiveRelationships( loops, newRelationshipMap, relsMap, DirectionWrapper.BOTH, true );
+        }
+        receiveRelationships( rels.get( DirectionWrapper.OUTGOING ), newRelationshipMap,
+                relsMap, DirectionWrapper.OUTGOING, hasLoops );
+        receiveRelationships( rels.get( DirectionWrapper.INCOMING ), newRelationshipMap,
+                relsMap, DirectionWrapper.INCOMING, hasLoops );
+        RelIdArray ids = newRelationshipMap.get( type.name() );
+        return Pair.of( ids != null ? ids : new RelIdArray( type.name() ), relsMap );
+    }
+
     private void receiveRelationships(
             Iterable<RelationshipRecord> rels, ArrayMap<String, RelIdArray> newRelationshipMap,
             Map<Long, RelationshipImpl> relsMap, DirectionWrapper dir, boolean hasLoops )
@@ -984,6 +1025,22 @@ public class NodeManager
         return relCache.get( nodeId );
     }
 
+    void committed( NodeImpl node )
+    {
+        if ( cacheType.copiesOnEviction() )
+        {
+            nodeCache.put( node.getId(), node );
+        }
+    }
+
+    void committed( RelationshipImpl rel )
+    {
+        if ( cacheType.copiesOnEviction() )
+        {
+            relCache.put( rel.getId(), rel );
+        }
+    }
+
     public ArrayMap<Integer,PropertyData> getCowPropertyRemoveMap(
         Primitive primitive )
     {
@@ -1104,6 +1161,53 @@ public class NodeManager
                         RELATIONSHIP_CACHE_NAME, 3500, cacheManager );
             }
         },
+        clock( true, "concurrent clock cache" )
+        {
+            @Override
+            Cache<Long, NodeImpl> node( AdaptiveCacheManager cacheManager )
+            {
+                return new ClockCache<NodeImpl>( NODE_CACHE_NAME, 1500, cacheManager );
+            }
+
+            @Override
+            Cache<Long, RelationshipImpl> relationship( AdaptiveCacheManager cacheManager )
+            {
+                return new ClockCache<RelationshipImpl>(
+                        RELATIONSHIP_CACHE_NAME, 3500, cacheManager );
+            }
+        },
+        offheap( true, "concurrent clock cache spilling to memory outside the java heap" )
+        {
+            @Override
+            Cache<Long, NodeImpl> node( AdaptiveCacheManager cacheManager )
+            {
+                return new OffHeapCache<NodeImpl>( NODE_CACHE_NAME, 1500,
+                        DEFAULT_OFFHEAP_SIZE, PrimitiveSerializer.NODE, cacheManager );
+            }
+
+            @Override
+            Cache<Long, RelationshipImpl> relationship( AdaptiveCacheManager cacheManager )
+            {
+                return new OffHeapCache<RelationshipImpl>( RELATIONSHIP_CACHE_NAME, 3500,
+                        DEFAULT_OFFHEAP_SIZE, PrimitiveSerializer.RELATIONSHIP, cacheManager );
+            }
+
+            @Override
+            void configure( Cache<Long,NodeImpl> nodeCache,
+                    Cache<Long,RelationshipImpl> relCache, Map<Object,Object> params )
+            {
+                ((OffHeapCache<NodeImpl>) nodeCache).setMaxBytes( parseSize( params,
+                        Config.OFFHEAP_NODE_CACHE_SIZE, DEFAULT_OFFHEAP_SIZE ) );
+                ((OffHeapCache<RelationshipImpl>) relCache).setMaxBytes( parseSize( params,
+                        Config.OFFHEAP_RELATIONSHIP_CACHE_SIZE, DEFAULT_OFFHEAP_SIZE ) );
+            }
+
+            @Override
+            boolean copiesOnEviction()
+            {
+                return true;
+            }
+        },
         none( false, "no cache" )
         {
             @Override
@@ -1135,6 +1239,7 @@ public class NodeManager
 
         private static final String NODE_CACHE_NAME = "NodeCache";
         private static final String RELATIONSHIP_CACHE_NAME = "RelationshipCache";
+        private static final long DEFAULT_OFFHEAP_SIZE = 64 * 1024 * 1024;
 
         final boolean needsCacheManagerRegistration;
         private final String description;
@@ -1149,6 +1254,59 @@ public class NodeManager
 
         abstract Cache<Long,RelationshipImpl> relationship( AdaptiveCacheManager cacheManager );
 
+        /**
+         * Applies cache type specific configuration to the caches created by
+         * this type, called when the {@link NodeManager} starts.
+         */
+        void configure( Cache<Long,NodeImpl> nodeCache, Cache<Long,RelationshipImpl> relCache,
+                Map<Object,Object> params )
+        {
+        }
+
+        /**
+         * Returns {@code true} if the caches keep copies of evicted elements
+         * rather than the instances themselves, in which case committed
+         * changes to a cached element must be put back in the cache.
+         */
+        boolean copiesOnEviction()
+        {
+            return false;
+        }
+
+        private static long parseSize( Map<Object,Object> params, String key, long defaultSize )
+        {
+            String value = (String) params.get( key );
+            if ( value == null )
+            {
+                return defaultSize;
+            }
+            long multiplier = 1;
+            if ( value.endsWith( "M" ) )
+            {
+                multiplier = 1024 * 1024;
+                value = value.substring( 0, value.length() - 1 );
+            }
+            else if ( value.endsWith( "k" ) )
+            {
+                multiplier = 1024;
+                value = value.substring( 0, value.length() - 1 );
+            }
+            else if ( value.endsWith( "G" ) )
+            {
+                multiplier = 1024 * 1024 * 1024;
+                value = value.substring( 0, value.length() - 1 );
+            }
+            try
+            {
+                return Long.parseLong( value ) * multiplier;
+            }
+            catch ( NumberFormatException e )
+            {
+                log.warning( "Unable to parse " + key + " " + value );
+                return defaultSize;
+            }
+        }
+
         public String getDescription()
         {
             return this.description;
@@ -644,6 +644,21 @@ abstract class Primitive
         return null;
     }
 
+    /**
+     * @return the loaded properties of this primitive, or {@code null} if
+     * they haven't been loaded yet.
+     */
+    PropertyData[] getLoadedProperties()
+    {
+        return properties;
+    }
+
+    // Used when recreating a primitive from its serialized state
+    void setLoadedProperties( PropertyData[] properties )
+    {
+        this.properties = properties;
+    }
+
     private boolean ensureFullProperties( NodeManager nodeManager )
     {
         if ( properties == null )
@@ -0,0 +1,316 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.core;
+
+import java.nio.ByteBuffer;
+
+import org.neo4j.kernel.impl.cache.CacheEntrySerializer;
+import org.neo4j.kernel.impl.nioneo.store.PropertyData;
+import org.neo4j.kernel.impl.nioneo.store.PropertyDatas;
+import org.neo4j.kernel.impl.util.RelIdArray;
+
+/**
+ * Serializes the cached state of {@link NodeImpl}s and
+ * {@link RelationshipImpl}s for the off heap cache, i.e. whatever
+ * properties and relationship ids have been loaded so far.
+ * <p>
+ * Primitive property values and strings are written as is. Array values are
+ * written as not loaded and will be read from the store again if needed.
+ */
+abstract class PrimitiveSerializer<T extends Primitive> implements CacheEntrySerializer<T>
+{
+    private static final byte NOT_LOADED = 0;
+    private static final byte BOOLEAN = 1;
+    private static final byte BYTE = 2;
+    private static final byte SHORT = 3;
+    private static final byte CHAR = 4;
+    private static final byte INT = 5;
+    private static final byte LONG = 6;
+    private static final byte FLOAT = 7;
+    private static final byte DOUBLE = 8;
+    private static final byte STRING = 9;
+
+    static final CacheEntrySerializer<NodeImpl> NODE = new PrimitiveSerializer<NodeImpl>()
+    {
+        public long idOf( NodeImpl node )
+        {
+            return node.getId();
+        }
+
+        public ByteBuffer write( NodeImpl node )
+        {
+            // Loading relationships adds to the id arrays in place under the
+            // node monitor, so the whole node is written while holding it
+            synchronized ( node )
+            {
+                RelIdArray[] relationships = node.getCacheableRelationshipIds();
+                PropertyData[] properties = node.getLoadedProperties();
+                Object[] values = valuesOf( properties );
+                int size = 8 + 4 + sizeOf( properties, values );
+                if ( relationships != null )
+                {
+                    for ( RelIdArray ids : relationships )
+                    {
+                        size += sizeOf( ids.getType() ) + ids.sizeInBytes();
+                    }
+                }
+                ByteBuffer target = ByteBuffer.allocate( size );
+                target.putLong( node.getRelChainPosition() );
+                if ( relationships == null )
+                {
+                    target.putInt( -1 );
+                }
+                else
+                {
+                    target.putInt( relationships.length );
+                    for ( RelIdArray ids : relationships )
+                    {
+                        write( ids.getType(), target );
+                        ids.writeTo( target );
+                    }
+                }
+                write( properties, values, target );
+                target.flip();
+                return target;
+            }
+        }
+
+        public NodeImpl read( long id, ByteBuffer source )
+        {
+            long relChainPosition = source.getLong();
+            int relTypeCount = source.getInt();
+            RelIdArray[] relationships = null;
+            if ( relTypeCount != -1 )
+            {
+                relationships = new RelIdArray[relTypeCount];
+                for ( int i = 0; i < relTypeCount; i++ )
+                {
+                    relationships[i] = RelIdArray.readFrom( readString( source ), source );
+                }
+            }
+            NodeImpl node = new NodeImpl( id, relationships, relChainPosition );
+            node.setLoadedProperties( readProperties( source ) );
+            return node;
+        }
+    };
+
+    static final CacheEntrySerializer<RelationshipImpl> RELATIONSHIP = new PrimitiveSerializer<RelationshipImpl>()
+    {
+        public long idOf( RelationshipImpl relationship )
+        {
+            return relationship.getId();
+        }
+
+        public ByteBuffer write( RelationshipImpl relationship )
+        {
+            PropertyData[] properties = relationship.getLoadedProperties();
+            Object[] values = valuesOf( properties );
+            ByteBuffer target = ByteBuffer.allocate( 8 + 8 + 4 + sizeOf( properties, values ) );
+            target.putLong( relationship.getStartNodeId() );
+            target.putLong( relationship.getEndNodeId() );
+            target.putInt( relationship.getTypeId() );
+            write( properties, values, target );
+            target.flip();
+            return target;
+        }
+
+        public RelationshipImpl read( long id, ByteBuffer source )
+        {
+            RelationshipImpl relationship = new LowRelationshipImpl( id,
+                    source.getLong(), source.getLong(), source.getInt(), false );
+            relationship.setLoadedProperties( readProperties( source ) );
+            return relationship;
+        }
+    };
+
+    static int sizeOf( String string )
+    {
+        return 4 + string.length() * 2;
+    }
+
+    static void write( String string, ByteBuffer target )
+    {
+        target.putInt( string.length() );
+        for ( int i = 0; i < string.length(); i++ )
+        {
+            target.putChar( string.charAt( i ) );
+        }
+    }
+
+    static String readString( ByteBuffer source )
+    {
+        char[] chars = new char[source.getInt()];
+        for ( int i = 0; i < chars.length; i++ )
+        {
+            chars[i] = source.getChar();
+        }
+        return new String( chars );
+    }
+
+    /*
+     * Values that haven't been loaded yet can be set on the property data at
+     * any time, so they're read once, and then measured and written from that.
+     */
+    static Object[] valuesOf( PropertyData[] properties )
+    {
+        if ( properties == null )
+        {
+            return null;
+        }
+        Object[] values = new Object[properties.length];
+        for ( int i = 0; i < properties.length; i++ )
+        {
+            values[i] = properties[i].getValue();
+        }
+        return values;
+    }
+
+    static int sizeOf( PropertyData[] properties, Object[] values )
+    {
+        int size = 4;
+        if ( properties != null )
+        {
+            for ( Object value : values )
+            {
+                size += 4 + 8 + 1 + sizeOfValue( value );
+            }
+        }
+        return size;
+    }
+
+    private static int sizeOfValue( Object value )
+    {
+        if ( value instanceof Boolean || value instanceof Byte ) return 1;
+        if ( value instanceof Short || value instanceof Character ) return 2;
+        if ( value instanceof Integer || value instanceof Float ) return 4;
+        if ( value instanceof Long || value instanceof Double ) return 8;
+        if ( value instanceof String ) return sizeOf( (String) value );
+        return 0;
+    }
+
+    static void write( PropertyData[] properties, Object[] values, ByteBuffer target )
+    {
+        if ( properties == null )
+        {
+            target.putInt( -1 );
+            return;
+        }
+        target.putInt( properties.length );
+        for ( int i = 0; i < properties.length; i++ )
+        {
+            target.putInt( properties[i].getIndex() );
+            target.putLong( properties[i].getId() );
+            Object value = values[i];
+            if ( value instanceof Boolean )
+            {
+                target.put( BOOLEAN ).put( (byte) (((Boolean) value) ? 1 : 0) );
+            }
+            else if ( value instanceof Byte )
+            {
+                target.put( BYTE ).put( (Byte) value );
+            }
+            else if ( value instanceof Short )
+            {
+                target.put( SHORT ).putShort( (Short) value );
+            }
+            else if ( value instanceof Character )
+            {
+                target.put( CHAR ).putChar( (Character) value );
+            }
+            else if ( value instanceof Integer )
+            {
+                target.put( INT ).putInt( (Integer) value );
+            }
+            else if ( value instanceof Long )
+            {
+                target.put( LONG ).putLong( (Long) value );
+            }
+            else if ( value instanceof Float )
+            {
+                target.put( FLOAT ).putFloat( (Float) value );
+            }
+            else if ( value instanceof Double )
+            {
+                target.put( DOUBLE ).putDouble( (Double) value );
+            }
+            else if ( value instanceof String )
+            {
+                target.put( STRING );
+                write( (String) value, target );
+            }
+            else
+            {
+                target.put( NOT_LOADED );
+            }
+        }
+    }
+
+    static PropertyData[] readProperties( ByteBuffer source )
+    {
+        int count = source.getInt();
+        if ( count == -1 )
+        {
+            return null;
+        }
+        PropertyData[] properties = new PropertyData[count];
+        for ( int i = 0; i < count; i++ )
+        {
+            int index = source.getInt();
+            long id = source.getLong();
+            byte type = source.get();
+            switch ( type )
+            {
+            case BOOLEAN:
+                properties[i] = PropertyDatas.forBoolean( index, id, source.get() != 0 );
+                break;
+            case BYTE:
+                properties[i] = PropertyDatas.forByte( index, id, source.get() );
+                break;
+            case SHORT:
+                properties[i] = PropertyDatas.forShort( index, id, source.getShort() );
+                break;
+            case CHAR:
+                properties[i] = PropertyDatas.forChar( index, id, source.getChar() );
+                break;
+            case INT:
+                properties[i] = PropertyDatas.forInt( index, id, source.getInt() );
+                break;
+            case LONG:
+                properties[i] = PropertyDatas.forLong( index, id, source.getLong() );
+                break;
+            case FLOAT:
+                properties[i] = PropertyDatas.forFloat( index, id, source.getFloat() );
+                break;
+            case DOUBLE:
+                properties[i] = PropertyDatas.forDouble( index, id, source.getDouble() );
+                break;
+            case STRING:
+                properties[i] = PropertyDatas.forStringOrArray( index, id, readString( source ) );
+                break;
+            case NOT_LOADED:
+                properties[i] = PropertyDatas.forStringOrArray( index, id, null );
+                break;
+            default:
+                throw new IllegalStateException( "Unknown property type " + type );
+            }
+        }
+        return properties;
+    }
+}
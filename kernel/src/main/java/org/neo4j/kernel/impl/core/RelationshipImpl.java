@@ -111,6 +111,8 @@ abstract class RelationshipImpl extends Primitive
 
     abstract long getEndNodeId();
 
+    abstract int getTypeId();
+
     public abstract RelationshipType getType( NodeManager nodeManager );
 
     public boolean isType( NodeManager nodeManager, RelationshipType otherType )
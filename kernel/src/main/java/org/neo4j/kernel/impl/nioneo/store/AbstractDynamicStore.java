@@ -547,11 +547,16 @@ public abstract class AbstractDynamicStore extends CommonAbstractStore implement
 //        nextBlockId(); // reserved first block containing blockSize
         setHighId( 1 );
         FileChannel fileChannel = getFileChannel();
+        StringLogger msgLog = null;
+        if ( getConfig() != null )
+        {
+            msgLog = StringLogger.getLogger( (String) getConfig().get( "store_dir" ) );
+        }
         long highId = 0;
         long defraggedCount = 0;
+        FreeIdBitmap freeIds = new FreeIdBitmap();
         try
         {
-            long fileSize = fileChannel.size();
             boolean fullRebuild = true;
             if ( getConfig() != null )
             {
@@ -563,31 +568,21 @@ public abstract class AbstractDynamicStore extends CommonAbstractStore implement
                     highId = findHighIdBackwards();
                 }
             }
-            ByteBuffer byteBuffer = ByteBuffer.wrap( new byte[1] );
-            LinkedList<Long> freeIdList = new LinkedList<Long>();
             if ( fullRebuild )
             {
-                for ( long i = 1; i * getBlockSize() < fileSize; i++ )
+                // The first block is reserved, it holds the block size
+                long highestInUse = new RecordInUseScanner( fileChannel,
+                    getBlockSize(), getStorageFileName(), msgLog )
                 {
-                    fileChannel.position( i * getBlockSize() );
-                    fileChannel.read( byteBuffer );
-                    byteBuffer.flip();
-                    byte inUse = byteBuffer.get();
-                    byteBuffer.flip();
-                    nextBlockId();
-                    if ( inUse == Record.NOT_IN_USE.byteValue() )
-                    {
-                        freeIdList.add( i );
-                    }
-                    else
+                    @Override
+                    protected boolean isInUse( ByteBuffer record )
                     {
-                        highId = i;
-                        while ( !freeIdList.isEmpty() )
-                        {
-                            freeBlockId( freeIdList.removeFirst() );
-                            defraggedCount++;
-                        }
+                        return isRecordInUse( record );
                     }
+                }.scan( 1, freeIds );
+                if ( highestInUse != -1 )
+                {
+                    highId = highestInUse;
                 }
             }
         }
@@ -597,12 +592,18 @@ public abstract class AbstractDynamicStore extends CommonAbstractStore implement
                 "Unable to rebuild id generator " + getStorageFileName(), e );
         }
         setHighId( highId + 1 );
+        // Only holes below the highest block in use are reused, the rest is
+        // covered by the high id
+        for ( long id = freeIds.nextSetBit( 0 ); id != -1 && id < highId;
+            id = freeIds.nextSetBit( id + 1 ) )
+        {
+            freeBlockId( id );
+            defraggedCount++;
+        }
         logger.fine( "[" + getStorageFileName() + "] high id=" + getHighId()
             + " (defragged=" + defraggedCount + ")" );
-        if ( getConfig() != null )
+        if ( msgLog != null )
         {
-            String storeDir = (String) getConfig().get( "store_dir" );
-            StringLogger msgLog = StringLogger.getLogger( storeDir );
             msgLog.logMessage( getStorageFileName() + " rebuild id generator, highId=" + getHighId() +
                     " defragged count=" + defraggedCount, true );
         }
@@ -24,7 +24,6 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
@@ -217,11 +216,16 @@ public abstract class AbstractStore extends CommonAbstractStore
         createIdGenerator( getStorageFileName() + ".id" );
         openIdGenerator( false );
         FileChannel fileChannel = getFileChannel();
+        StringLogger msgLog = null;
+        if ( getConfig() != null )
+        {
+            msgLog = StringLogger.getLogger( (String) getConfig().get( "store_dir" ) );
+        }
         long highId = 1;
         long defraggedCount = 0;
+        FreeIdBitmap freeIds = new FreeIdBitmap();
         try
         {
-            long fileSize = fileChannel.size();
             int recordSize = getRecordSize();
             boolean fullRebuild = true;
             if ( getConfig() != null )
@@ -234,33 +238,20 @@ public abstract class AbstractStore extends CommonAbstractStore
                     highId = findHighIdBackwards();
                 }
             }
-            ByteBuffer byteBuffer = ByteBuffer.wrap( new byte[1] );
-            // Duplicated code block
-            LinkedList<Long> freeIdList = new LinkedList<Long>();
-            if ( fullRebuild )
+            if ( fullRebuild && recordSize > 0 )
             {
-                for ( long i = 0; i * recordSize < fileSize && recordSize > 0;
-                    i++ )
+                long highestInUse = new RecordInUseScanner( fileChannel,
+                    recordSize, getStorageFileName(), msgLog )
                 {
-                    fileChannel.position( i * recordSize );
-                    fileChannel.read( byteBuffer );
-                    byteBuffer.flip();
-                    byte inUse = byteBuffer.get();
-                    byteBuffer.flip();
-                    nextId();
-                    if ( (inUse & 0x1) == Record.NOT_IN_USE.byteValue() )
-                    {
-                        freeIdList.add( i );
-                    }
-                    else
+                    @Override
+                    protected boolean isInUse( ByteBuffer record )
                     {
-                        highId = i;
-                        while ( !freeIdList.isEmpty() )
-                        {
-                            freeId( freeIdList.removeFirst() );
-                            defraggedCount++;
-                        }
+                        return isRecordInUse( record );
                     }
+                }.scan( 0, freeIds );
+                if ( highestInUse != -1 )
+                {
+                    highId = highestInUse;
                 }
             }
         }
@@ -270,10 +261,16 @@ public abstract class AbstractStore extends CommonAbstractStore
                 "Unable to rebuild id generator " + getStorageFileName(), e );
         }
         setHighId( highId + 1 );
-        if ( getConfig() != null )
+        // Only holes below the highest record in use are reused, the rest is
+        // covered by the high id
+        for ( long id = freeIds.nextSetBit( 0 ); id != -1 && id < highId;
+            id = freeIds.nextSetBit( id + 1 ) )
+        {
+            freeId( id );
+            defraggedCount++;
+        }
+        if ( msgLog != null )
         {
-            String storeDir = (String) getConfig().get( "store_dir" );
-            StringLogger msgLog = StringLogger.getLogger( storeDir );
             msgLog.logMessage( getStorageFileName() + " rebuild id generator, highId=" + getHighId() +
                     " defragged count=" + defraggedCount, true );
         }
@@ -25,6 +25,7 @@ import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.OverlappingFileLockException;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -52,7 +53,7 @@ public abstract class CommonAbstractStore
     private IdGeneratorFactory idGeneratorFactory = null;
     private IdGenerator idGenerator = null;
     private FileChannel fileChannel = null;
-    private PersistenceWindowPool windowPool;
+    private WindowPool windowPool;
     private boolean storeOk = true;
     private Throwable causeOfStoreNotOk;
     private FileLock fileLock;
@@ -62,7 +63,7 @@ public abstract class CommonAbstractStore
 
     private boolean readOnly = false;
     private boolean backupSlave = false;
-    private long highestUpdateRecordId = -1;
+    private volatile long highestUpdateRecordId = -1;
 
     /**
      * Opens and validates the store contained in <CODE>fileName</CODE>
@@ -222,9 +223,20 @@ public abstract class CommonAbstractStore
         }
         loadIdGenerator();
 
-        setWindowPool( new PersistenceWindowPool( getStorageFileName(),
-            getEffectiveRecordSize(), getFileChannel(), calculateMappedMemory( getConfig(), storageFileName ),
-            getIfMemoryMapped(), isReadOnly() && !isBackupSlave() ) );
+        PageCache pageCache = getConfig() != null ?
+                (PageCache) getConfig().get( PageCache.class ) : null;
+        if ( pageCache != null && pageCache.fits( getEffectiveRecordSize() ) )
+        {
+            setWindowPool( new PagedWindowPool( getStorageFileName(),
+                getEffectiveRecordSize(), getFileChannel(), pageCache,
+                isReadOnly() && !isBackupSlave() ) );
+        }
+        else
+        {
+            setWindowPool( new PersistenceWindowPool( getStorageFileName(),
+                getEffectiveRecordSize(), getFileChannel(), calculateMappedMemory( getConfig(), storageFileName ),
+                getIfMemoryMapped(), isReadOnly() && !isBackupSlave() ) );
+        }
     }
 
     protected abstract int getEffectiveRecordSize();
@@ -366,7 +378,7 @@ public abstract class CommonAbstractStore
     }
 
     /**
-     * Sets the {@link PersistenceWindowPool} for this store to use. Normally
+     * Sets the {@link WindowPool} for this store to use. Normally
      * this is set in the {@link #loadStorage()} method. This method must be
      * invoked with a valid "pool" before any of the
      * {@link #acquireWindow(long, OperationType)}
@@ -378,7 +390,7 @@ public abstract class CommonAbstractStore
      * @param pool
      *            The window pool this store should use
      */
-    protected void setWindowPool( PersistenceWindowPool pool )
+    protected void setWindowPool( WindowPool pool )
     {
         this.windowPool = pool;
     }
@@ -519,6 +531,79 @@ public abstract class CommonAbstractStore
         rebuildIdGenerator();
     }
 
+    /**
+     * Runs the tasks on a thread each and waits for all of them to finish.
+     * Used by stores made up of several store files to rebuild their id
+     * generators at the same time, since every rebuild is a scan of a file of
+     * its own. If any task fails, its exception is rethrown once all tasks
+     * are done.
+     *
+     * @param name used for naming the threads.
+     * @param tasks the tasks to run.
+     */
+    protected static void runConcurrently( String name, Runnable... tasks )
+    {
+        final Throwable[] failures = new Throwable[tasks.length];
+        Thread[] threads = new Thread[tasks.length];
+        for ( int i = 0; i < tasks.length; i++ )
+        {
+            final int index = i;
+            final Runnable task = tasks[i];
+            threads[i] = new Thread( name + "-" + i )
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        task.run();
+                    }
+                    catch ( Throwable t )
+                    {
+                        failures[index] = t;
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        boolean interrupted = false;
+        for ( Thread thread : threads )
+        {
+            while ( true )
+            {
+                try
+                {
+                    thread.join();
+                    break;
+                }
+                catch ( InterruptedException e )
+                {
+                    // Can't leave until the stores are done with their files
+                    interrupted = true;
+                }
+            }
+        }
+        if ( interrupted )
+        {
+            Thread.currentThread().interrupt();
+        }
+        for ( Throwable failure : failures )
+        {
+            if ( failure instanceof RuntimeException )
+            {
+                throw (RuntimeException) failure;
+            }
+            if ( failure instanceof Error )
+            {
+                throw (Error) failure;
+            }
+            if ( failure != null )
+            {
+                throw new UnderlyingStorageException( failure );
+            }
+        }
+    }
+
     /**
      * Returns the configuration map if set in constructor.
      *
@@ -577,21 +662,28 @@ public abstract class CommonAbstractStore
         windowPool.flushAll();
     }
 
-    private boolean isRecovered = false;
+    // counts nested/concurrent setRecovered calls, parallel recovery has
+    // several threads updating records in recovery mode at the same time
+    private final AtomicInteger recovered = new AtomicInteger();
 
     public boolean isInRecoveryMode()
     {
-        return isRecovered;
+        return recovered.get() > 0;
     }
 
     protected void setRecovered()
     {
-        isRecovered = true;
+        recovered.incrementAndGet();
     }
 
     protected void unsetRecovered()
     {
-        isRecovered = false;
+        int count;
+        do
+        {
+            count = recovered.get();
+        }
+        while ( count > 0 && !recovered.compareAndSet( count, count - 1 ) );
     }
 
     /**
@@ -798,12 +890,12 @@ public abstract class CommonAbstractStore
         return idType;
     }
 
-    protected void registerIdFromUpdateRecord( long id )
+    protected synchronized void registerIdFromUpdateRecord( long id )
     {
         highestUpdateRecordId = Math.max( highestUpdateRecordId, id + 1 );
     }
 
-    protected void updateHighId()
+    protected synchronized void updateHighId()
     {
         long highId = highestUpdateRecordId;
         highestUpdateRecordId = -1;
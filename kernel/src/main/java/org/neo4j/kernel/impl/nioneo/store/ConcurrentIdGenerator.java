@@ -0,0 +1,238 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+/**
+ * An {@link IdGenerator} for many concurrently creating threads. Ids are
+ * handed out from a number of leases, each a range of ids, and threads pick
+ * a lease by their thread id. With a couple of leases per processor a
+ * thread rarely has to wait for another one to get an id. Ranges of never
+ * used ids are taken from the high id with a compare-and-set, only when
+ * there may be defragged ids to reuse does leasing go through the
+ * (synchronized) {@link IdGeneratorImpl#nextIdBatch(int)} of the underlying
+ * generator, which also keeps the free ids and the id file. The id file
+ * format is the same as for {@link IdGeneratorImpl}.
+ * <p>
+ * The leases are owned by this generator, not by the threads using it, so
+ * nothing keeps a closed generator reachable from pooled threads. Ids leased
+ * but not handed out are freed again when this generator is closed, so they
+ * are reused rather than lost. As with {@link IdGeneratorImpl},
+ * {@link #close(boolean)} and {@link #setHighId(long)} must not be called
+ * while ids are being allocated.
+ */
+public class ConcurrentIdGenerator implements IdGenerator
+{
+    private final IdGeneratorImpl delegate;
+    private final int leaseSize;
+    private final Lease[] leases;
+    // bumped by setHighId, making existing leases invalid
+    private volatile int generation;
+
+    /**
+     * Opens the id generator represented by <CODE>fileName</CODE>, see
+     * {@link IdGeneratorImpl#IdGeneratorImpl(String, int, long, boolean)}.
+     *
+     * @param leaseSize the number of ids leased at a time
+     */
+    public ConcurrentIdGenerator( String fileName, int grabSize, long max,
+            boolean aggressiveReuse, int leaseSize )
+    {
+        if ( leaseSize < 1 )
+        {
+            throw new IllegalArgumentException( "Illegal leaseSize: " + leaseSize );
+        }
+        this.delegate = new IdGeneratorImpl( fileName, grabSize, max, aggressiveReuse );
+        this.leaseSize = leaseSize;
+        int count = Integer.highestOneBit( Runtime.getRuntime().availableProcessors() * 4 - 1 ) << 1;
+        this.leases = new Lease[count];
+        for ( int i = 0; i < count; i++ )
+        {
+            leases[i] = new Lease();
+        }
+    }
+
+    public long nextId()
+    {
+        Lease lease = leases[(int) Thread.currentThread().getId() & (leases.length - 1)];
+        synchronized ( lease )
+        {
+            long id = lease.next( generation );
+            while ( id == -1 )
+            {
+                lease.renew();
+                id = lease.next( generation );
+            }
+            return id;
+        }
+    }
+
+    public IdRange nextIdBatch( int size )
+    {
+        return delegate.nextIdBatch( size );
+    }
+
+    public void setHighId( long id )
+    {
+        generation++;
+        delegate.setHighId( id );
+    }
+
+    public long getHighId()
+    {
+        return delegate.getHighId();
+    }
+
+    public void freeId( long id )
+    {
+        delegate.freeId( id );
+    }
+
+    public void close( boolean shutdown )
+    {
+        boolean release = delegate.getHighId() != -1;
+        for ( Lease lease : leases )
+        {
+            synchronized ( lease )
+            {
+                if ( release )
+                {
+                    lease.release();
+                }
+                lease.clear();
+            }
+        }
+        delegate.close( shutdown );
+    }
+
+    public long getNumberOfIdsInUse()
+    {
+        long leased = 0;
+        for ( Lease lease : leases )
+        {
+            synchronized ( lease )
+            {
+                leased += lease.remaining();
+            }
+        }
+        return delegate.getNumberOfIdsInUse() - leased;
+    }
+
+    public long getDefragCount()
+    {
+        return delegate.getDefragCount();
+    }
+
+    public void delete()
+    {
+        delegate.delete();
+    }
+
+    public String getFileName()
+    {
+        return delegate.getFileName();
+    }
+
+    /**
+     * A range of leased ids, guarded by its own monitor.
+     */
+    private class Lease
+    {
+        private long[] defragIds = new long[0];
+        private int defragIndex;
+        private long rangeNext;
+        private long rangeEnd;
+        private int leaseGeneration;
+
+        long next( int currentGeneration )
+        {
+            if ( leaseGeneration != currentGeneration )
+            {
+                // The high id has been set, so what's left of this lease may
+                // not be free anymore
+                clear();
+                leaseGeneration = currentGeneration;
+                return -1;
+            }
+            if ( defragIndex < defragIds.length )
+            {
+                return defragIds[defragIndex++];
+            }
+            while ( rangeNext < rangeEnd )
+            {
+                long id = rangeNext++;
+                if ( id != IdGeneratorImpl.INTEGER_MINUS_ONE )
+                {
+                    return id;
+                }
+            }
+            return -1;
+        }
+
+        void renew()
+        {
+            if ( delegate.mayHaveDefragIds() )
+            {
+                IdRange range = delegate.nextIdBatch( leaseSize );
+                defragIds = range.getDefragIds();
+                rangeNext = range.getRangeStart();
+                rangeEnd = rangeNext + range.getRangeLength();
+            }
+            else
+            {
+                defragIds = new long[0];
+                rangeNext = delegate.reserveHighIds( leaseSize );
+                rangeEnd = rangeNext + leaseSize;
+            }
+            defragIndex = 0;
+        }
+
+        long remaining()
+        {
+            if ( leaseGeneration != generation )
+            {
+                return 0;
+            }
+            return (defragIds.length - defragIndex) + (rangeEnd - rangeNext);
+        }
+
+        void release()
+        {
+            if ( leaseGeneration != generation )
+            {
+                clear();
+                return;
+            }
+            while ( defragIndex < defragIds.length )
+            {
+                delegate.freeId( defragIds[defragIndex++] );
+            }
+            while ( rangeNext < rangeEnd )
+            {
+                delegate.freeId( rangeNext++ );
+            }
+        }
+
+        void clear()
+        {
+            defragIndex = defragIds.length;
+            rangeNext = rangeEnd;
+        }
+    }
+}
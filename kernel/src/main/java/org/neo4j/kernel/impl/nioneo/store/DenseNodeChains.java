@@ -0,0 +1,578 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maintains the relationship chains of dense nodes. The relationships of a
+ * dense node are kept in one chain per type and direction, the heads of which
+ * are stored in a list of {@link RelationshipGroupRecord}s, one per type,
+ * that the node points to instead of pointing to its first relationship.
+ * Only the pointers of the dense node's side of a relationship are part of
+ * the grouped chains, the other side is left as is.
+ * <p>
+ * All records are read and changed through {@link Records} so that this
+ * class can be used both within a transaction and directly on the store.
+ */
+public class DenseNodeChains
+{
+    /**
+     * Set on relationship chain positions, as handed out by the relationship
+     * loading of nioneo, of dense nodes. A position with this bit set is the
+     * id of a relationship in one of the grouped chains of the node.
+     */
+    public static final long DENSE_CHAIN_POSITION = 1L << 62;
+
+    public static final int OUTGOING = 0;
+    public static final int INCOMING = 1;
+    public static final int LOOP = 2;
+
+    private static final long NO_NEXT = Record.NO_NEXT_RELATIONSHIP.intValue();
+    private static final long NO_PREV = Record.NO_PREV_RELATIONSHIP.intValue();
+
+    public interface Records
+    {
+        /**
+         * @param forChange <code>true</code> if the returned record is going to
+         * be changed, in which case it has to be written back at some point.
+         */
+        RelationshipRecord getRelationship( long id, boolean forChange );
+
+        RelationshipGroupRecord getGroup( long id, boolean forChange );
+
+        RelationshipGroupRecord createGroup( int type, long owningNode );
+    }
+
+    private final Records records;
+
+    public DenseNodeChains( Records records )
+    {
+        this.records = records;
+    }
+
+    public static boolean isDenseChainPosition( long position )
+    {
+        return position != NO_NEXT && (position & DENSE_CHAIN_POSITION) != 0;
+    }
+
+    /**
+     * @return the direction, {@link #OUTGOING}, {@link #INCOMING} or
+     * {@link #LOOP}, of the relationship as seen from the given node.
+     */
+    public static int directionOf( RelationshipRecord rel, long nodeId )
+    {
+        if ( rel.getFirstNode() == rel.getSecondNode() )
+        {
+            return LOOP;
+        }
+        return rel.getFirstNode() == nodeId ? OUTGOING : INCOMING;
+    }
+
+    public static long getNextRel( RelationshipRecord rel, long nodeId )
+    {
+        if ( rel.getFirstNode() == nodeId )
+        {
+            return rel.getFirstNextRel();
+        }
+        if ( rel.getSecondNode() == nodeId )
+        {
+            return rel.getSecondNextRel();
+        }
+        throw notInRelationship( rel, nodeId );
+    }
+
+    public static long getPrevRel( RelationshipRecord rel, long nodeId )
+    {
+        if ( rel.getFirstNode() == nodeId )
+        {
+            return rel.getFirstPrevRel();
+        }
+        if ( rel.getSecondNode() == nodeId )
+        {
+            return rel.getSecondPrevRel();
+        }
+        throw notInRelationship( rel, nodeId );
+    }
+
+    /**
+     * Sets the next pointer of the node's side of the relationship, both
+     * sides for a loop.
+     */
+    public static void setNextRel( RelationshipRecord rel, long nodeId, long next )
+    {
+        boolean changed = false;
+        if ( rel.getFirstNode() == nodeId )
+        {
+            rel.setFirstNextRel( next );
+            changed = true;
+        }
+        if ( rel.getSecondNode() == nodeId )
+        {
+            rel.setSecondNextRel( next );
+            changed = true;
+        }
+        if ( !changed )
+        {
+            throw notInRelationship( rel, nodeId );
+        }
+    }
+
+    /**
+     * Sets the previous pointer of the node's side of the relationship, both
+     * sides for a loop.
+     */
+    public static void setPrevRel( RelationshipRecord rel, long nodeId, long prev )
+    {
+        boolean changed = false;
+        if ( rel.getFirstNode() == nodeId )
+        {
+            rel.setFirstPrevRel( prev );
+            changed = true;
+        }
+        if ( rel.getSecondNode() == nodeId )
+        {
+            rel.setSecondPrevRel( prev );
+            changed = true;
+        }
+        if ( !changed )
+        {
+            throw notInRelationship( rel, nodeId );
+        }
+    }
+
+    private static InvalidRecordException notInRelationship( RelationshipRecord rel, long nodeId )
+    {
+        return new InvalidRecordException( "Node[" + nodeId + "] is neither firstNode[" +
+            rel.getFirstNode() + "] nor secondNode[" + rel.getSecondNode() + "] for " + rel );
+    }
+
+    public static long getFirst( RelationshipGroupRecord group, int direction )
+    {
+        switch ( direction )
+        {
+        case OUTGOING: return group.getFirstOut();
+        case INCOMING: return group.getFirstIn();
+        case LOOP: return group.getFirstLoop();
+        default: throw new IllegalArgumentException( "Unknown direction " + direction );
+        }
+    }
+
+    public static void setFirst( RelationshipGroupRecord group, int direction, long relId )
+    {
+        switch ( direction )
+        {
+        case OUTGOING: group.setFirstOut( relId ); break;
+        case INCOMING: group.setFirstIn( relId ); break;
+        case LOOP: group.setFirstLoop( relId ); break;
+        default: throw new IllegalArgumentException( "Unknown direction " + direction );
+        }
+    }
+
+    /**
+     * @return the head of the first non empty chain of the groups starting
+     * with the given group, or {@link Record#NO_NEXT_RELATIONSHIP}.
+     */
+    public static long firstChainHead( RelationshipGroupStore store, long firstGroup )
+    {
+        return chainHeadFrom( store, firstGroup, OUTGOING );
+    }
+
+    /**
+     * @return the head of the chain following the chain of the given type and
+     * direction of a dense node whose first group is given, or
+     * {@link Record#NO_NEXT_RELATIONSHIP} if it was the last one. Chains are
+     * ordered by group and then outgoing, incoming and loops.
+     */
+    public static long nextChainHead( RelationshipGroupStore store, long firstGroup, int type,
+            int direction )
+    {
+        long groupId = firstGroup;
+        while ( groupId != NO_NEXT )
+        {
+            RelationshipGroupRecord group = store.getRecord( groupId );
+            if ( group.getType() == type )
+            {
+                for ( int dir = direction + 1; dir <= LOOP; dir++ )
+                {
+                    long head = getFirst( group, dir );
+                    if ( head != NO_NEXT )
+                    {
+                        return head;
+                    }
+                }
+                return chainHeadFrom( store, group.getNext(), OUTGOING );
+            }
+            groupId = group.getNext();
+        }
+        return NO_NEXT;
+    }
+
+    private static long chainHeadFrom( RelationshipGroupStore store, long groupId, int direction )
+    {
+        while ( groupId != NO_NEXT )
+        {
+            RelationshipGroupRecord group = store.getRecord( groupId );
+            for ( int dir = direction; dir <= LOOP; dir++ )
+            {
+                long head = getFirst( group, dir );
+                if ( head != NO_NEXT )
+                {
+                    return head;
+                }
+            }
+            groupId = group.getNext();
+        }
+        return NO_NEXT;
+    }
+
+    /**
+     * @return the group of the given type of a dense node whose first group
+     * is given, or <code>null</code> if it has no relationships of that type.
+     */
+    public static RelationshipGroupRecord findGroup( RelationshipGroupStore store, long firstGroup,
+            int type )
+    {
+        long groupId = firstGroup;
+        while ( groupId != NO_NEXT )
+        {
+            RelationshipGroupRecord group = store.getRecord( groupId );
+            if ( group.getType() == type )
+            {
+                return group;
+            }
+            groupId = group.getNext();
+        }
+        return null;
+    }
+
+    /**
+     * @return the heads of all relationship chains of the node, a single
+     * chain unless the node is dense.
+     */
+    public static List<Long> chainHeads( RelationshipGroupStore store, NodeRecord node )
+    {
+        List<Long> heads = new ArrayList<Long>();
+        if ( !node.isDense() )
+        {
+            if ( node.getNextRel() != NO_NEXT )
+            {
+                heads.add( node.getNextRel() );
+            }
+            return heads;
+        }
+        for ( long groupId = node.getNextRel(); groupId != NO_NEXT; )
+        {
+            RelationshipGroupRecord group = store.getRecord( groupId );
+            for ( int direction = OUTGOING; direction <= LOOP; direction++ )
+            {
+                if ( getFirst( group, direction ) != NO_NEXT )
+                {
+                    heads.add( getFirst( group, direction ) );
+                }
+            }
+            groupId = group.getNext();
+        }
+        return heads;
+    }
+
+    /**
+     * Converts all nodes with more than <code>threshold</code>
+     * relationships to dense nodes, writing directly to the stores. Only to
+     * be used when no transactions are running, e.g. when upgrading a store.
+     *
+     * @return the number of nodes converted.
+     */
+    public static int convertDenseNodes( NeoStore neoStore, int threshold )
+    {
+        NodeStore nodeStore = neoStore.getNodeStore();
+        StoreRecords records = new StoreRecords( neoStore );
+        DenseNodeChains chains = new DenseNodeChains( records );
+        int converted = 0;
+        long highId = nodeStore.getHighId();
+        for ( long id = 0; id < highId; id++ )
+        {
+            NodeRecord node = nodeStore.forceGetRecord( id );
+            if ( !node.inUse() || node.isDense() ||
+                chains.countRelationships( node, threshold + 1 ) <= threshold )
+            {
+                continue;
+            }
+            chains.convert( node );
+            records.flush();
+            nodeStore.updateRecord( node );
+            converted++;
+        }
+        return converted;
+    }
+
+    /**
+     * Reads and changes records directly in the stores of a
+     * {@link NeoStore}, for use outside of transactions. Changed records are
+     * written by {@link #flush()}, node records are left to the caller.
+     */
+    public static class StoreRecords implements Records
+    {
+        private final NeoStore neoStore;
+        private final Map<Long, RelationshipRecord> relationships = new HashMap<Long, RelationshipRecord>();
+        private final Map<Long, RelationshipGroupRecord> groups = new HashMap<Long, RelationshipGroupRecord>();
+
+        public StoreRecords( NeoStore neoStore )
+        {
+            this.neoStore = neoStore;
+        }
+
+        public RelationshipRecord getRelationship( long id, boolean forChange )
+        {
+            RelationshipRecord record = relationships.get( id );
+            if ( record == null )
+            {
+                record = neoStore.getRelationshipStore().getRecord( id );
+                if ( forChange )
+                {
+                    relationships.put( id, record );
+                }
+            }
+            return record;
+        }
+
+        public RelationshipGroupRecord getGroup( long id, boolean forChange )
+        {
+            RelationshipGroupRecord record = groups.get( id );
+            if ( record == null )
+            {
+                record = neoStore.getRelationshipGroupStore().getRecord( id );
+                if ( forChange )
+                {
+                    groups.put( id, record );
+                }
+            }
+            return record;
+        }
+
+        public RelationshipGroupRecord createGroup( int type, long owningNode )
+        {
+            long id = neoStore.getRelationshipGroupStore().nextId();
+            RelationshipGroupRecord record = new RelationshipGroupRecord( id, type, owningNode );
+            record.setInUse( true );
+            record.setCreated();
+            groups.put( id, record );
+            return record;
+        }
+
+        public void flush()
+        {
+            for ( RelationshipRecord record : relationships.values() )
+            {
+                neoStore.getRelationshipStore().updateRecord( record );
+            }
+            for ( RelationshipGroupRecord record : groups.values() )
+            {
+                neoStore.getRelationshipGroupStore().updateRecord( record );
+            }
+            relationships.clear();
+            groups.clear();
+        }
+    }
+
+    /**
+     * Counts the relationships in the chain of a node that isn't dense.
+     *
+     * @return the number of relationships of the node, or <code>limit</code>
+     * if it has at least that many.
+     */
+    public int countRelationships( NodeRecord node, int limit )
+    {
+        assert !node.isDense() : node;
+        int count = 0;
+        long relId = node.getNextRel();
+        while ( relId != NO_NEXT && count < limit )
+        {
+            relId = getNextRel( records.getRelationship( relId, false ), node.getId() );
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Converts a node to a dense node, regrouping its relationship chain by
+     * type and direction. The relative order of the relationships in each
+     * chain is kept.
+     */
+    public void convert( NodeRecord node )
+    {
+        assert !node.isDense() : node;
+        long nodeId = node.getId();
+        List<RelationshipRecord> chain = new ArrayList<RelationshipRecord>();
+        for ( long relId = node.getNextRel(); relId != NO_NEXT; )
+        {
+            RelationshipRecord rel = records.getRelationship( relId, true );
+            chain.add( rel );
+            relId = getNextRel( rel, nodeId );
+        }
+
+        Map<Integer, RelationshipGroupRecord> groups = new LinkedHashMap<Integer, RelationshipGroupRecord>();
+        Map<Long, RelationshipRecord[]> tails = new HashMap<Long, RelationshipRecord[]>();
+        for ( RelationshipRecord rel : chain )
+        {
+            RelationshipGroupRecord group = groups.get( rel.getType() );
+            if ( group == null )
+            {
+                group = records.createGroup( rel.getType(), nodeId );
+                groups.put( rel.getType(), group );
+                tails.put( group.getId(), new RelationshipRecord[LOOP + 1] );
+            }
+            int direction = directionOf( rel, nodeId );
+            RelationshipRecord[] groupTails = tails.get( group.getId() );
+            RelationshipRecord tail = groupTails[direction];
+            if ( tail == null )
+            {
+                setFirst( group, direction, rel.getId() );
+                setPrevRel( rel, nodeId, NO_PREV );
+            }
+            else
+            {
+                setNextRel( tail, nodeId, rel.getId() );
+                setPrevRel( rel, nodeId, tail.getId() );
+            }
+            groupTails[direction] = rel;
+        }
+        for ( RelationshipRecord[] groupTails : tails.values() )
+        {
+            for ( RelationshipRecord tail : groupTails )
+            {
+                if ( tail != null )
+                {
+                    setNextRel( tail, nodeId, NO_NEXT );
+                }
+            }
+        }
+
+        long firstGroup = NO_NEXT;
+        RelationshipGroupRecord previous = null;
+        for ( RelationshipGroupRecord group : groups.values() )
+        {
+            if ( previous == null )
+            {
+                firstGroup = group.getId();
+            }
+            else
+            {
+                previous.setNext( group.getId() );
+            }
+            previous = group;
+        }
+        node.setNextRel( firstGroup );
+        // there's nothing to group for a node without relationships
+        node.setDense( firstGroup != NO_NEXT );
+    }
+
+    /**
+     * Makes a new relationship the head of the chain of its type and
+     * direction of a dense node.
+     */
+    public void connect( NodeRecord node, RelationshipRecord rel )
+    {
+        assert node.isDense() : node;
+        long nodeId = node.getId();
+        int direction = directionOf( rel, nodeId );
+        RelationshipGroupRecord group = getOrCreateGroup( node, rel.getType() );
+        long head = getFirst( group, direction );
+        if ( head != NO_NEXT )
+        {
+            RelationshipRecord headRel = records.getRelationship( head, true );
+            setPrevRel( headRel, nodeId, rel.getId() );
+        }
+        setNextRel( rel, nodeId, head );
+        setPrevRel( rel, nodeId, NO_PREV );
+        setFirst( group, direction, rel.getId() );
+    }
+
+    /**
+     * Updates the groups of a dense node after the given relationship, which
+     * was the head of one of its chains, has been unlinked from the chain.
+     * Groups left empty are removed and if there are no groups left the
+     * node stops being dense.
+     */
+    public void disconnectHead( NodeRecord node, RelationshipRecord rel )
+    {
+        assert node.isDense() : node;
+        long nodeId = node.getId();
+        int type = rel.getType();
+        RelationshipGroupRecord previous = null;
+        long groupId = node.getNextRel();
+        while ( groupId != NO_NEXT )
+        {
+            RelationshipGroupRecord group = records.getGroup( groupId, false );
+            if ( group.getType() == type )
+            {
+                group = records.getGroup( groupId, true );
+                int direction = directionOf( rel, nodeId );
+                if ( getFirst( group, direction ) != rel.getId() )
+                {
+                    throw new InvalidRecordException( rel + " isn't the head of " + group );
+                }
+                setFirst( group, direction, getNextRel( rel, nodeId ) );
+                if ( group.isEmpty() )
+                {
+                    if ( previous == null )
+                    {
+                        node.setNextRel( group.getNext() );
+                    }
+                    else
+                    {
+                        records.getGroup( previous.getId(), true ).setNext( group.getNext() );
+                    }
+                    group.setInUse( false );
+                    if ( node.getNextRel() == NO_NEXT )
+                    {
+                        node.setDense( false );
+                    }
+                }
+                return;
+            }
+            previous = group;
+            groupId = group.getNext();
+        }
+        throw new InvalidRecordException( "No group for " + rel + " found for " + node );
+    }
+
+    private RelationshipGroupRecord getOrCreateGroup( NodeRecord node, int type )
+    {
+        long groupId = node.getNextRel();
+        while ( groupId != NO_NEXT )
+        {
+            RelationshipGroupRecord group = records.getGroup( groupId, false );
+            if ( group.getType() == type )
+            {
+                return records.getGroup( groupId, true );
+            }
+            groupId = group.getNext();
+        }
+        RelationshipGroupRecord group = records.createGroup( type, node.getId() );
+        group.setNext( node.getNextRel() );
+        node.setNextRel( group.getId() );
+        return group;
+    }
+}
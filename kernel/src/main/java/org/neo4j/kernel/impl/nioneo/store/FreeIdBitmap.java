@@ -0,0 +1,109 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+/**
+ * A set of ids kept as bits, used to collect free ids when rebuilding an id
+ * generator. The bits are allocated in chunks only where there are ids, so a
+ * store with few holes costs little memory however big it is.
+ */
+class FreeIdBitmap
+{
+    private static final int CHUNK_SHIFT = 16;
+    private static final int CHUNK_BITS = 1 << CHUNK_SHIFT;
+    private static final int WORDS_PER_CHUNK = CHUNK_BITS / 64;
+
+    private long[][] chunks = new long[16][];
+    private long count;
+
+    void set( long id )
+    {
+        int chunkIndex = (int) (id >>> CHUNK_SHIFT);
+        if ( chunkIndex >= chunks.length )
+        {
+            long[][] grown = new long[Math.max( chunks.length * 2, chunkIndex + 1 )][];
+            System.arraycopy( chunks, 0, grown, 0, chunks.length );
+            chunks = grown;
+        }
+        long[] chunk = chunks[chunkIndex];
+        if ( chunk == null )
+        {
+            chunk = new long[WORDS_PER_CHUNK];
+            chunks[chunkIndex] = chunk;
+        }
+        int bit = (int) (id & (CHUNK_BITS - 1));
+        long mask = 1L << (bit & 63);
+        if ( (chunk[bit >>> 6] & mask) == 0 )
+        {
+            chunk[bit >>> 6] |= mask;
+            count++;
+        }
+    }
+
+    boolean contains( long id )
+    {
+        int chunkIndex = (int) (id >>> CHUNK_SHIFT);
+        if ( chunkIndex >= chunks.length || chunks[chunkIndex] == null )
+        {
+            return false;
+        }
+        int bit = (int) (id & (CHUNK_BITS - 1));
+        return (chunks[chunkIndex][bit >>> 6] & (1L << (bit & 63))) != 0;
+    }
+
+    /**
+     * @return the lowest id in this set that is {@code >= from}, or -1 if
+     * there is none.
+     */
+    long nextSetBit( long from )
+    {
+        int chunkIndex = (int) (from >>> CHUNK_SHIFT);
+        int bit = (int) (from & (CHUNK_BITS - 1));
+        for ( ; chunkIndex < chunks.length; chunkIndex++, bit = 0 )
+        {
+            long[] chunk = chunks[chunkIndex];
+            if ( chunk == null )
+            {
+                continue;
+            }
+            int wordIndex = bit >>> 6;
+            long word = chunk[wordIndex] & (-1L << (bit & 63));
+            while ( true )
+            {
+                if ( word != 0 )
+                {
+                    return ((long) chunkIndex << CHUNK_SHIFT) + (wordIndex << 6)
+                        + Long.numberOfTrailingZeros( word );
+                }
+                if ( ++wordIndex == WORDS_PER_CHUNK )
+                {
+                    break;
+                }
+                word = chunk[wordIndex];
+            }
+        }
+        return -1;
+    }
+
+    long size()
+    {
+        return count;
+    }
+}
@@ -27,7 +27,6 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
-import java.util.LinkedList;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
@@ -87,11 +86,12 @@ public class IdGeneratorImpl implements IdGenerator
     private final String fileName;
     private FileChannel fileChannel = null;
     // in memory defragged ids read from file (and from freeId)
-    private final LinkedList<Long> defragedIdList =
-        new LinkedList<Long>();
+    private final LongArrayQueue defragedIdList = new LongArrayQueue();
     // in memory newly free defragged ids that havn't been flushed to disk yet
-    private final LinkedList<Long> releasedIdList =
-        new LinkedList<Long>();
+    private final LongArrayQueue releasedIdList = new LongArrayQueue();
+    // false if nextId can't return a defragged id, checked without locking
+    // by reserveHighIds callers
+    private volatile boolean mayHaveDefragIds = true;
 
     private final long max;
     private final boolean aggressiveReuse;
@@ -132,6 +132,7 @@ public class IdGeneratorImpl implements IdGenerator
         this.fileName = fileName;
         this.grabSize = grabSize;
         initGenerator();
+        updateMayHaveDefragIds();
     }
 
     /**
@@ -149,20 +150,66 @@ public class IdGeneratorImpl implements IdGenerator
     {
         assertStillOpen();
         long nextDefragId = nextIdFromDefragList();
+        updateMayHaveDefragIds();
         if ( nextDefragId != -1 ) return nextDefragId;
 
-        long id = nextFreeId.get();
+        long id = reserveHighIds( 1 );
         if ( id == INTEGER_MINUS_ONE )
         {
             // Skip the integer -1 (0xFFFFFFFF) because it represents
             // special values, f.ex. the end of a relationships/property chain.
-            id = nextFreeId.incrementAndGet();
+            id = reserveHighIds( 1 );
         }
-        assertIdWithinCapacity( id );
-        nextFreeId.incrementAndGet();
         return id;
     }
 
+    /**
+     * Takes {@code size} never used ids from the high id, without taking the
+     * lock of this generator. The caller must skip {@link #INTEGER_MINUS_ONE}
+     * if it's in the returned range.
+     *
+     * @param size the number of ids to take
+     * @return the first id of the range
+     * @throws UnderlyingStorageException if the capacity is exceeded
+     */
+    long reserveHighIds( int size )
+    {
+        while ( true )
+        {
+            long start = nextFreeId.get();
+            if ( start == -1 )
+            {
+                throw new IllegalStateException( "Closed id generator " + fileName );
+            }
+            if ( size == 0 )
+            {
+                return start;
+            }
+            long newHighId = start + size;
+            assertIdWithinCapacity( newHighId - 1 );
+            if ( nextFreeId.compareAndSet( start, newHighId ) )
+            {
+                return start;
+            }
+        }
+    }
+
+    /**
+     * @return {@code false} if there certainly are no defragged ids to hand
+     * out, in which case new ids can be taken with {@link #reserveHighIds(int)}
+     * instead of {@link #nextIdBatch(int)}. Doesn't take the lock.
+     */
+    boolean mayHaveDefragIds()
+    {
+        return mayHaveDefragIds;
+    }
+
+    private void updateMayHaveDefragIds()
+    {
+        mayHaveDefragIds = haveMore || !defragedIdList.isEmpty()
+            || (aggressiveReuse && !releasedIdList.isEmpty());
+    }
+
     private void assertIdWithinCapacity( long id )
     {
         if ( id > max || id < 0  )
@@ -175,17 +222,17 @@ public class IdGeneratorImpl implements IdGenerator
     {
         if ( aggressiveReuse )
         {
-            Long id = releasedIdList.poll();
-            if ( id != null )
+            long id = releasedIdList.poll();
+            if ( id != -1 )
             {
                 defraggedIdCount--;
-                return id.longValue();
+                return id;
             }
         }
 
         if ( defragedIdList.size() > 0 )
         {
-            long id = defragedIdList.removeFirst();
+            long id = defragedIdList.poll();
             if ( haveMore && defragedIdList.size() == 0 )
             {
                 readIdBatch();
@@ -221,16 +268,15 @@ public class IdGeneratorImpl implements IdGenerator
             defragIds[count++] = id;
         }
 
+        updateMayHaveDefragIds();
+
         // Shrink the array to actual size
         long[] tmpArray = defragIds;
         defragIds = new long[count];
         System.arraycopy( tmpArray, 0, defragIds, 0, count );
 
         int sizeLeftForRange = size-count;
-        long start = nextFreeId.get();
-        long newHighId = start + sizeLeftForRange;
-        assertIdWithinCapacity( newHighId );
-        nextFreeId.set( newHighId );
+        long start = reserveHighIds( sizeLeftForRange );
         return new IdRange( defragIds, start, sizeLeftForRange );
     }
 
@@ -294,6 +340,7 @@ public class IdGeneratorImpl implements IdGenerator
         {
             writeIdBatch( ByteBuffer.allocate( grabSize*8 ) );
         }
+        updateMayHaveDefragIds();
     }
 
     /**
@@ -325,7 +372,7 @@ public class IdGeneratorImpl implements IdGenerator
         {
             while ( defragedIdList.size() > 0 )
             {
-                releasedIdList.add( defragedIdList.removeFirst() );
+                releasedIdList.add( defragedIdList.poll() );
             }
             writeIdBatch( writeBuffer );
         }
@@ -531,7 +578,7 @@ public class IdGeneratorImpl implements IdGenerator
             writeBuffer.clear();
             while ( releasedIdList.size() > 0 )
             {
-                long id = releasedIdList.removeFirst();
+                long id = releasedIdList.poll();
                 if ( id == INTEGER_MINUS_ONE )
                 {
                     continue;
@@ -571,10 +618,9 @@ public class IdGeneratorImpl implements IdGenerator
         {
             readIdBatch();
         }
-        java.util.Iterator<Long> itr = defragedIdList.iterator();
-        while ( itr.hasNext() )
+        for ( int i = 0; i < defragedIdList.size(); i++ )
         {
-            System.out.print( " " + itr.next() );
+            System.out.print( " " + defragedIdList.get( i ) );
         }
         System.out.println( "\nNext free id: " + nextFreeId );
         close( true );
@@ -595,6 +641,7 @@ public class IdGeneratorImpl implements IdGenerator
         releasedIdList.clear();
         defragedIdList.clear();
         defraggedIdCount = -1;
+        updateMayHaveDefragIds();
         try
         {
             truncateFile( fileChannel, HEADER_SIZE );
@@ -0,0 +1,108 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+/**
+ * A first-in-first-out queue of ids, kept in a growing ring buffer of
+ * primitive longs. Used by the id generators for free ids, where a boxed
+ * list would cost several times the memory after a large delete. Ids are
+ * never negative, so -1 is used to signal an empty queue.
+ */
+class LongArrayQueue
+{
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private long[] ids;
+    private int head;
+    private int size;
+
+    LongArrayQueue()
+    {
+        this( DEFAULT_CAPACITY );
+    }
+
+    LongArrayQueue( int initialCapacity )
+    {
+        ids = new long[Math.max( initialCapacity, 1 )];
+    }
+
+    void add( long id )
+    {
+        if ( size == ids.length )
+        {
+            grow();
+        }
+        ids[(head + size) % ids.length] = id;
+        size++;
+    }
+
+    /**
+     * @return the first id in the queue, removing it, or -1 if empty.
+     */
+    long poll()
+    {
+        if ( size == 0 )
+        {
+            return -1;
+        }
+        long id = ids[head];
+        head = (head + 1) % ids.length;
+        size--;
+        return id;
+    }
+
+    /**
+     * @return the id at {@code index} positions from the head of the queue.
+     */
+    long get( int index )
+    {
+        if ( index < 0 || index >= size )
+        {
+            throw new IndexOutOfBoundsException( "Index " + index + ", size " + size );
+        }
+        return ids[(head + index) % ids.length];
+    }
+
+    int size()
+    {
+        return size;
+    }
+
+    boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    void clear()
+    {
+        head = 0;
+        size = 0;
+    }
+
+    private void grow()
+    {
+        long[] grown = new long[ids.length * 2];
+        int firstPart = Math.min( size, ids.length - head );
+        System.arraycopy( ids, head, grown, 0, firstPart );
+        System.arraycopy( ids, 0, grown, firstPart, size - firstPart );
+        ids = grown;
+        head = 0;
+    }
+}
@@ -30,6 +30,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.logging.Level;
 
+import org.neo4j.kernel.Config;
 import org.neo4j.kernel.IdGeneratorFactory;
 import org.neo4j.kernel.IdType;
 import org.neo4j.kernel.impl.core.LastCommittedTxIdSetter;
@@ -65,6 +66,7 @@ public class NeoStore extends AbstractStore
     private PropertyStore propStore;
     private RelationshipStore relStore;
     private RelationshipTypeStore relTypeStore;
+    private RelationshipGroupStore relGroupStore;
     private final LastCommittedTxIdSetter lastCommittedTxIdSetter;
     private final IdGeneratorFactory idGeneratorFactory;
     private final TxHook txHook;
@@ -72,6 +74,7 @@ public class NeoStore extends AbstractStore
     private long lastCommittedTx = -1;
 
     private final int REL_GRAB_SIZE;
+    private final int denseNodeThreshold;
 
     public NeoStore( Map<?,?> config )
     {
@@ -86,6 +89,8 @@ public class NeoStore extends AbstractStore
             }
         }
         REL_GRAB_SIZE = relGrabSize;
+        String threshold = getConfig() != null ? (String) getConfig().get( Config.DENSE_NODE_THRESHOLD ) : null;
+        denseNodeThreshold = threshold != null ? Integer.parseInt( threshold ) : -1;
         lastCommittedTxIdSetter = (LastCommittedTxIdSetter)
                 config.get( LastCommittedTxIdSetter.class );
         idGeneratorFactory = (IdGeneratorFactory) config.get( IdGeneratorFactory.class );
@@ -163,6 +168,19 @@ public class NeoStore extends AbstractStore
         + ".relationshipstore.db", getConfig() );
         nodeStore = new NodeStore( getStorageFileName() + ".nodestore.db",
         getConfig() );
+        String groupStoreName = getStorageFileName() + ".relationshipgroupstore.db";
+        if ( !new File( groupStoreName ).exists() )
+        {
+            if ( isReadOnly() && !isBackupSlave() )
+            {
+                // no dense nodes can have been written to this store
+                return;
+            }
+            // stores created before dense nodes were introduced
+            RelationshipGroupStore.createStore( groupStoreName,
+                    (IdGeneratorFactory) getConfig().get( IdGeneratorFactory.class ) );
+        }
+        relGroupStore = new RelationshipGroupStore( groupStoreName, getConfig() );
     }
 
     private void tryToUpgradeStores()
@@ -199,6 +217,11 @@ public class NeoStore extends AbstractStore
             nodeStore.close();
             nodeStore = null;
         }
+        if ( relGroupStore != null )
+        {
+            relGroupStore.close();
+            relGroupStore = null;
+        }
     }
 
     @Override
@@ -213,6 +236,7 @@ public class NeoStore extends AbstractStore
         propStore.flushAll();
         relStore.flushAll();
         nodeStore.flushAll();
+        if ( relGroupStore != null ) relGroupStore.flushAll();
     }
 
     @Override
@@ -258,6 +282,7 @@ public class NeoStore extends AbstractStore
         PropertyStore.createStore( fileName + ".propertystore.db", config );
         RelationshipTypeStore.createStore( fileName
             + ".relationshiptypestore.db", config );
+        RelationshipGroupStore.createStore( fileName + ".relationshipgroupstore.db", idGeneratorFactory );
         if ( !config.containsKey( "neo_store" ) )
         {
             // TODO Ugly
@@ -514,6 +539,27 @@ public class NeoStore extends AbstractStore
         return relStore;
     }
 
+    /**
+     * Returns the relationship group store, holding the relationship chain
+     * heads of dense nodes. May be <code>null</code> for a read only store
+     * created before dense nodes were introduced.
+     *
+     * @return The relationship group store
+     */
+    public RelationshipGroupStore getRelationshipGroupStore()
+    {
+        return relGroupStore;
+    }
+
+    /**
+     * @return the number of relationships a node can have before it is
+     * converted to a dense node, or -1 if nodes are never converted.
+     */
+    public int getDenseNodeThreshold()
+    {
+        return denseNodeThreshold;
+    }
+
     /**
      * Returns the relationship type store.
      *
@@ -537,10 +583,38 @@ public class NeoStore extends AbstractStore
     @Override
     public void makeStoreOk()
     {
-        relTypeStore.makeStoreOk();
-        propStore.makeStoreOk();
-        relStore.makeStoreOk();
-        nodeStore.makeStoreOk();
+        // Each store scans its own files, so they can do so at the same time
+        runConcurrently( "Rebuild id generators", new Runnable()
+        {
+            public void run()
+            {
+                relTypeStore.makeStoreOk();
+            }
+        }, new Runnable()
+        {
+            public void run()
+            {
+                propStore.makeStoreOk();
+            }
+        }, new Runnable()
+        {
+            public void run()
+            {
+                relStore.makeStoreOk();
+            }
+        }, new Runnable()
+        {
+            public void run()
+            {
+                nodeStore.makeStoreOk();
+            }
+        }, new Runnable()
+        {
+            public void run()
+            {
+                if ( relGroupStore != null ) relGroupStore.makeStoreOk();
+            }
+        } );
         super.makeStoreOk();
         isStarted = true;
     }
@@ -548,10 +622,37 @@ public class NeoStore extends AbstractStore
     @Override
     public void rebuildIdGenerators()
     {
-        relTypeStore.rebuildIdGenerators();
-        propStore.rebuildIdGenerators();
-        relStore.rebuildIdGenerators();
-        nodeStore.rebuildIdGenerators();
+        runConcurrently( "Rebuild id generators", new Runnable()
+        {
+            public void run()
+            {
+                relTypeStore.rebuildIdGenerators();
+            }
+        }, new Runnable()
+        {
+            public void run()
+            {
+                propStore.rebuildIdGenerators();
+            }
+        }, new Runnable()
+        {
+            public void run()
+            {
+                relStore.rebuildIdGenerators();
+            }
+        }, new Runnable()
+        {
+            public void run()
+            {
+                nodeStore.rebuildIdGenerators();
+            }
+        }, new Runnable()
+        {
+            public void run()
+            {
+                if ( relGroupStore != null ) relGroupStore.rebuildIdGenerators();
+            }
+        } );
         super.rebuildIdGenerators();
     }
 
@@ -562,6 +663,7 @@ public class NeoStore extends AbstractStore
         propStore.updateIdGenerators();
         relStore.updateHighId();
         nodeStore.updateHighId();
+        if ( relGroupStore != null ) relGroupStore.updateHighId();
     }
 
     public int getRelationshipGrabSize()
@@ -577,13 +679,15 @@ public class NeoStore extends AbstractStore
         list.addAll( propStore.getAllWindowPoolStats() );
         list.addAll( relStore.getAllWindowPoolStats() );
         list.addAll( relTypeStore.getAllWindowPoolStats() );
+        if ( relGroupStore != null ) list.addAll( relGroupStore.getAllWindowPoolStats() );
         return list;
     }
 
     public boolean isStoreOk()
     {
         return getStoreOk() && relTypeStore.getStoreOk() &&
-            propStore.getStoreOk() && relStore.getStoreOk() && nodeStore.getStoreOk();
+            propStore.getStoreOk() && relStore.getStoreOk() && nodeStore.getStoreOk() &&
+            (relGroupStore == null || relGroupStore.getStoreOk());
     }
 
     @Override
@@ -594,6 +698,7 @@ public class NeoStore extends AbstractStore
         relStore.logVersions( msgLog );
         relTypeStore.logVersions( msgLog );
         propStore.logVersions( msgLog );
+        if ( relGroupStore != null ) relGroupStore.logVersions( msgLog );
     }
 
     public void logIdUsage( StringLogger msgLog )
@@ -602,6 +707,7 @@ public class NeoStore extends AbstractStore
         relStore.logIdUsage( msgLog );
         relTypeStore.logIdUsage( msgLog );
         propStore.logIdUsage( msgLog );
+        if ( relGroupStore != null ) relGroupStore.logIdUsage( msgLog );
     }
 
     public static void logIdUsage( StringLogger logger, Store store )
@@ -22,6 +22,7 @@ package org.neo4j.kernel.impl.nioneo.store;
 public class NodeRecord extends PrimitiveRecord
 {
     private long nextRel = Record.NO_NEXT_RELATIONSHIP.intValue();
+    private boolean dense;
 
     public NodeRecord( long id )
     {
@@ -38,10 +39,25 @@ public class NodeRecord extends PrimitiveRecord
         this.nextRel = nextRel;
     }
 
+    /**
+     * @return <code>true</code> if the relationships of this node are
+     * grouped by type and direction, in which case {@link #getNextRel()} is
+     * the id of the first {@link RelationshipGroupRecord} of the node.
+     */
+    public boolean isDense()
+    {
+        return dense;
+    }
+
+    public void setDense( boolean dense )
+    {
+        this.dense = dense;
+    }
+
     @Override
     public String toString()
     {
-        return new StringBuilder( "Node[" ).append( getId() ).append( ",used=" ).append( inUse() ).append( ",rel=" ).append(
+        return new StringBuilder( "Node[" ).append( getId() ).append( ",used=" ).append( inUse() ).append( dense ? ",group=" : ",rel=" ).append(
                 nextRel ).append( ",prop=" ).append( getNextProp() ).append( "]" ).toString();
     }
 }
\ No newline at end of file
@@ -37,6 +37,9 @@ public class NodeStore extends AbstractStore implements Store, RecordStore<NodeR
     // in_use(byte)+next_rel_id(int)+next_prop_id(int)
     public static final int RECORD_SIZE = 9;
 
+    // the highest of the rel id bits marks a dense node, see IdType.RELATIONSHIP
+    private static final long DENSE_NODE_BIT = 0x400000000L;
+
     public NodeStore( String fileName, Map<?,?> config )
     {
         super( fileName, config, IdType.NODE );
@@ -226,7 +229,13 @@ public class NodeStore extends AbstractStore implements Store, RecordStore<NodeR
 
         NodeRecord nodeRecord = new NodeRecord( id );
         nodeRecord.setInUse( inUse );
-        nodeRecord.setNextRel( longFromIntAndMod( nextRel, relModifier ) );
+        long nextRelId = longFromIntAndMod( nextRel, relModifier );
+        if ( nextRelId != Record.NO_NEXT_RELATIONSHIP.intValue() && (nextRelId & DENSE_NODE_BIT) != 0 )
+        {
+            nodeRecord.setDense( true );
+            nextRelId &= ~DENSE_NODE_BIT;
+        }
+        nodeRecord.setNextRel( nextRelId );
         nodeRecord.setNextProp( longFromIntAndMod( nextProp, propModifier ) );
         return nodeRecord;
     }
@@ -239,6 +248,10 @@ public class NodeStore extends AbstractStore implements Store, RecordStore<NodeR
         {
             long nextRel = record.getNextRel();
             long nextProp = record.getNextProp();
+            if ( record.isDense() && nextRel != Record.NO_NEXT_RELATIONSHIP.intValue() )
+            {
+                nextRel |= DENSE_NODE_BIT;
+            }
 
             short relModifier = nextRel == Record.NO_NEXT_RELATIONSHIP.intValue() ? 0 : (short)((nextRel & 0x700000000L) >> 31);
             short propModifier = nextProp == Record.NO_NEXT_PROPERTY.intValue() ? 0 : (short)((nextProp & 0xF00000000L) >> 28);
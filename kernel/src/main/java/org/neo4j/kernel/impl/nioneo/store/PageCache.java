@@ -0,0 +1,337 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Logger;
+
+import org.neo4j.kernel.Config;
+
+/**
+ * A cache of fixed size pages shared by all stores of a database, replacing
+ * the per store memory mapped bricks of {@link PersistenceWindowPool} with a
+ * single memory budget. Each store reads and writes its records through a
+ * {@link PagedWindowPool}, which keeps track of the pages it currently has
+ * in this cache.
+ * <p>
+ * Pages are pinned with a compare-and-set on their pin count, no lock is
+ * taken to find or pin a cached page. When a page that isn't cached is
+ * needed another page is evicted using the CLOCK algorithm: the clock hand
+ * sweeps over the pages, clearing the reference bit of recently used pages
+ * and evicting the first unpinned page which hasn't been used since the
+ * last sweep. Dirty pages are written back to their store when evicted.
+ */
+public class PageCache
+{
+    public static final int DEFAULT_PAGE_SIZE = 8 * 1024;
+    private static final int MIN_PAGE_COUNT = 16;
+
+    private static Logger log = Logger.getLogger( PageCache.class.getName() );
+
+    private final int pageSize;
+    private final Page[] pages;
+    private final AtomicInteger clockHand = new AtomicInteger();
+    private final AtomicLong memoryUsed = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicInteger oomCount = new AtomicInteger();
+
+    /**
+     * @param memory the number of bytes to use for pages, for all stores.
+     * @param pageSize the size of each page in bytes, the pages of a store
+     * hold as many whole records as fit in this size.
+     */
+    public PageCache( long memory, int pageSize )
+    {
+        if ( pageSize <= 0 )
+        {
+            throw new IllegalArgumentException( "Illegal page size " + pageSize );
+        }
+        long pageCount = memory / pageSize;
+        if ( pageCount < MIN_PAGE_COUNT )
+        {
+            throw new IllegalArgumentException( "Need at least " + MIN_PAGE_COUNT
+                + " pages of " + pageSize + "b, got " + memory + "b" );
+        }
+        if ( pageCount > Integer.MAX_VALUE )
+        {
+            throw new IllegalArgumentException( "Too many pages " + pageCount
+                + ", use a bigger page size" );
+        }
+        this.pageSize = pageSize;
+        this.pages = new Page[(int) pageCount];
+        for ( int i = 0; i < pages.length; i++ )
+        {
+            pages[i] = new Page();
+        }
+        log.fine( "Page cache with " + pages.length + " pages of " + pageSize + "b" );
+    }
+
+    /**
+     * Creates a page cache from the {@link Config#PAGE_CACHE_MEMORY} and
+     * {@link Config#PAGE_CACHE_PAGE_SIZE} settings.
+     *
+     * @param config the configuration
+     * @return a new page cache, or <code>null</code> if no page cache memory
+     * has been configured.
+     */
+    public static PageCache fromConfig( Map<?,?> config )
+    {
+        String memory = (String) config.get( Config.PAGE_CACHE_MEMORY );
+        if ( memory == null )
+        {
+            return null;
+        }
+        String pageSize = (String) config.get( Config.PAGE_CACHE_PAGE_SIZE );
+        return new PageCache( parseSize( Config.PAGE_CACHE_MEMORY, memory ),
+            pageSize == null ? DEFAULT_PAGE_SIZE :
+                (int) parseSize( Config.PAGE_CACHE_PAGE_SIZE, pageSize ) );
+    }
+
+    private static long parseSize( String key, String value )
+    {
+        long multiplier = 1;
+        String number = value;
+        if ( value.endsWith( "M" ) )
+        {
+            multiplier = 1024 * 1024;
+            number = value.substring( 0, value.length() - 1 );
+        }
+        else if ( value.endsWith( "k" ) )
+        {
+            multiplier = 1024;
+            number = value.substring( 0, value.length() - 1 );
+        }
+        else if ( value.endsWith( "G" ) )
+        {
+            multiplier = 1024 * 1024 * 1024;
+            number = value.substring( 0, value.length() - 1 );
+        }
+        try
+        {
+            return Long.parseLong( number ) * multiplier;
+        }
+        catch ( NumberFormatException e )
+        {
+            throw new IllegalArgumentException( "Invalid value '" + value + "' for " + key, e );
+        }
+    }
+
+    public int getPageSize()
+    {
+        return pageSize;
+    }
+
+    public int getPageCount()
+    {
+        return pages.length;
+    }
+
+    /**
+     * @return the memory budget of this cache in bytes.
+     */
+    public long getMemory()
+    {
+        return (long) pages.length * pageSize;
+    }
+
+    /**
+     * @return the number of bytes allocated for pages so far, pages are
+     * allocated as they are first used.
+     */
+    public long getMemoryUsed()
+    {
+        return memoryUsed.get();
+    }
+
+    public long getEvictionCount()
+    {
+        return evictions.get();
+    }
+
+    int getOomCount()
+    {
+        return oomCount.get();
+    }
+
+    /**
+     * @param recordSize the record size of a store
+     * @return whether at least one record of the given size fits in a page.
+     */
+    public boolean fits( int recordSize )
+    {
+        return recordSize > 0 && recordSize <= pageSize;
+    }
+
+    /**
+     * Finds a page which isn't in use, evicting it from the pool it belongs
+     * to if any. The returned page is locked, with a pin count of -1, and
+     * must be handed back with {@link Page#pinLoaded()} or
+     * {@link Page#free()}.
+     */
+    Page evict()
+    {
+        int spins = 0;
+        while ( true )
+        {
+            Page page = pages[(clockHand.getAndIncrement() & Integer.MAX_VALUE) % pages.length];
+            if ( page.pins.get() == 0 )
+            {
+                if ( page.referenced )
+                {
+                    page.referenced = false;
+                }
+                else if ( page.pins.compareAndSet( 0, -1 ) )
+                {
+                    PagedWindowPool owner = page.owner;
+                    if ( owner != null )
+                    {
+                        try
+                        {
+                            owner.evicted( page );
+                        }
+                        catch ( RuntimeException e )
+                        {
+                            page.pins.set( 0 );
+                            throw e;
+                        }
+                        page.unbind();
+                        evictions.incrementAndGet();
+                    }
+                    allocate( page );
+                    return page;
+                }
+            }
+            if ( ++spins % (pages.length * 2) == 0 )
+            {
+                // all pages pinned, let the threads using them get on
+                Thread.yield();
+            }
+        }
+    }
+
+    private void allocate( Page page )
+    {
+        if ( page.buffer != null )
+        {
+            return;
+        }
+        try
+        {
+            page.buffer = ByteBuffer.allocateDirect( pageSize );
+        }
+        catch ( OutOfMemoryError e )
+        {
+            oomCount.incrementAndGet();
+            log.warning( "Unable to allocate direct buffer for page, using heap buffer" );
+            page.buffer = ByteBuffer.allocate( pageSize );
+        }
+        memoryUsed.addAndGet( pageSize );
+    }
+
+    /**
+     * A page in the cache. A page is bound to a page of a store, identified
+     * by the pool of the store and the page id, while it holds the contents
+     * of that page. The binding and the contents of the buffer only change
+     * while the pin count is -1, which excludes all other users.
+     */
+    static final class Page
+    {
+        final AtomicInteger pins = new AtomicInteger();
+        final ReentrantReadWriteLock latch = new ReentrantReadWriteLock();
+        volatile boolean referenced;
+        volatile boolean dirty;
+        volatile PagedWindowPool owner;
+        volatile long pageId = -1;
+        ByteBuffer buffer;
+
+        /**
+         * Pins this page if it still holds <code>pageId</code> of
+         * <code>owner</code>.
+         */
+        boolean tryPin( PagedWindowPool owner, long pageId )
+        {
+            int count;
+            do
+            {
+                count = pins.get();
+                if ( count < 0 )
+                {
+                    return false;
+                }
+            }
+            while ( !pins.compareAndSet( count, count + 1 ) );
+            if ( this.owner == owner && this.pageId == pageId )
+            {
+                referenced = true;
+                return true;
+            }
+            pins.decrementAndGet();
+            return false;
+        }
+
+        boolean isBoundTo( PagedWindowPool owner, long pageId )
+        {
+            return this.owner == owner && this.pageId == pageId;
+        }
+
+        void unpin()
+        {
+            pins.decrementAndGet();
+        }
+
+        void bind( PagedWindowPool owner, long pageId )
+        {
+            this.owner = owner;
+            this.pageId = pageId;
+            this.dirty = false;
+        }
+
+        void unbind()
+        {
+            this.owner = null;
+            this.pageId = -1;
+            this.dirty = false;
+        }
+
+        /**
+         * Makes a page locked by {@link PageCache#evict()} available to
+         * others and pins it for the caller.
+         */
+        void pinLoaded()
+        {
+            referenced = true;
+            pins.set( 1 );
+        }
+
+        /**
+         * Hands back a page locked by {@link PageCache#evict()} without
+         * using it.
+         */
+        void free()
+        {
+            unbind();
+            pins.set( 0 );
+        }
+    }
+}
@@ -0,0 +1,399 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.neo4j.kernel.impl.nioneo.store.PageCache.Page;
+
+/**
+ * A {@link WindowPool} reading and writing the records of a store through
+ * pages of a {@link PageCache} shared with the other stores. Each page of
+ * the store holds as many whole records as fit in a page of the cache.
+ * <p>
+ * The pages currently cached for the store are found in a two level table
+ * indexed by page id, which is read and updated without locking. A window
+ * handed out for a read shares the page with other readers, a window for a
+ * write excludes all other users of that page until released.
+ */
+class PagedWindowPool implements WindowPool
+{
+    private static final int CHUNK_BITS = 16;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private final String storeName;
+    private final int recordSize;
+    private final int recordsPerPage;
+    private final int pageBytes;
+    private final PageCache cache;
+    private final boolean readOnly;
+    private FileChannel fileChannel;
+    private final AtomicReferenceArray<AtomicReferenceArray<Page>> table =
+        new AtomicReferenceArray<AtomicReferenceArray<Page>>( CHUNK_SIZE );
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicInteger cachedPages = new AtomicInteger();
+
+    PagedWindowPool( String storeName, int recordSize, FileChannel fileChannel,
+        PageCache cache, boolean readOnly )
+    {
+        if ( !cache.fits( recordSize ) )
+        {
+            throw new IllegalArgumentException( "Record size " + recordSize
+                + " doesn't fit in pages of " + cache.getPageSize() + "b" );
+        }
+        this.storeName = storeName;
+        this.recordSize = recordSize;
+        this.recordsPerPage = cache.getPageSize() / recordSize;
+        this.pageBytes = recordsPerPage * recordSize;
+        this.fileChannel = fileChannel;
+        this.cache = cache;
+        this.readOnly = readOnly;
+    }
+
+    public PersistenceWindow acquire( long position, OperationType operationType )
+    {
+        long pageId = position / recordsPerPage;
+        Page page = pin( pageId );
+        if ( operationType == OperationType.WRITE )
+        {
+            assert page.latch.getReadHoldCount() == 0 : "Thread already reading "
+                + storeName + " page " + pageId + ", can't write to it";
+            page.latch.writeLock().lock();
+        }
+        else
+        {
+            page.latch.readLock().lock();
+        }
+        return new PageWindow( page, pageId * recordsPerPage, operationType );
+    }
+
+    public void release( PersistenceWindow window )
+    {
+        PageWindow pageWindow = (PageWindow) window;
+        Page page = pageWindow.page;
+        if ( pageWindow.operationType == OperationType.WRITE )
+        {
+            page.dirty = true;
+            page.latch.writeLock().unlock();
+        }
+        else
+        {
+            page.latch.readLock().unlock();
+        }
+        page.unpin();
+    }
+
+    private Page pin( long pageId )
+    {
+        AtomicReferenceArray<Page> chunk = chunk( pageId );
+        int index = (int) (pageId & CHUNK_MASK);
+        while ( true )
+        {
+            Page page = chunk.get( index );
+            if ( page != null )
+            {
+                if ( page.tryPin( this, pageId ) )
+                {
+                    hits.incrementAndGet();
+                    return page;
+                }
+                if ( page.isBoundTo( this, pageId ) )
+                {
+                    // being loaded or evicted by another thread
+                    Thread.yield();
+                    continue;
+                }
+            }
+            Page loaded = cache.evict();
+            loaded.bind( this, pageId );
+            try
+            {
+                read( loaded );
+            }
+            catch ( RuntimeException e )
+            {
+                loaded.free();
+                throw e;
+            }
+            if ( chunk.compareAndSet( index, page, loaded ) )
+            {
+                misses.incrementAndGet();
+                cachedPages.incrementAndGet();
+                loaded.pinLoaded();
+                return loaded;
+            }
+            // another thread loaded the page first
+            loaded.free();
+        }
+    }
+
+    private AtomicReferenceArray<Page> chunk( long pageId )
+    {
+        long chunkIndex = pageId >>> CHUNK_BITS;
+        if ( chunkIndex >= CHUNK_SIZE )
+        {
+            throw new UnderlyingStorageException( "Page " + pageId
+                + " out of range for " + storeName );
+        }
+        AtomicReferenceArray<Page> chunk = table.get( (int) chunkIndex );
+        if ( chunk == null )
+        {
+            table.compareAndSet( (int) chunkIndex, null,
+                new AtomicReferenceArray<Page>( CHUNK_SIZE ) );
+            chunk = table.get( (int) chunkIndex );
+        }
+        return chunk;
+    }
+
+    /**
+     * Called by the page cache when evicting a page of this store, with the
+     * page locked.
+     */
+    void evicted( Page page )
+    {
+        if ( page.dirty )
+        {
+            write( page );
+        }
+        AtomicReferenceArray<Page> chunk = table.get( (int) (page.pageId >>> CHUNK_BITS) );
+        if ( chunk.compareAndSet( (int) (page.pageId & CHUNK_MASK), page, null ) )
+        {
+            cachedPages.decrementAndGet();
+        }
+        evictions.incrementAndGet();
+    }
+
+    private void read( Page page )
+    {
+        ByteBuffer buffer = page.buffer;
+        buffer.clear();
+        buffer.limit( pageBytes );
+        long filePosition = page.pageId * pageBytes;
+        try
+        {
+            while ( buffer.hasRemaining() )
+            {
+                int read = fileChannel.read( buffer, filePosition + buffer.position() );
+                if ( read == -1 )
+                {
+                    // past the end of the file, the rest is empty records
+                    while ( buffer.hasRemaining() )
+                    {
+                        buffer.put( (byte) 0 );
+                    }
+                }
+            }
+        }
+        catch ( IOException e )
+        {
+            throw new UnderlyingStorageException( "Unable to read page "
+                + page.pageId + " @[" + filePosition + "] of " + storeName, e );
+        }
+    }
+
+    private void write( Page page )
+    {
+        if ( readOnly )
+        {
+            page.dirty = false;
+            return;
+        }
+        ByteBuffer buffer = page.buffer.duplicate();
+        buffer.clear();
+        buffer.limit( pageBytes );
+        long filePosition = page.pageId * pageBytes;
+        page.dirty = false;
+        try
+        {
+            while ( buffer.hasRemaining() )
+            {
+                fileChannel.write( buffer, filePosition + buffer.position() );
+            }
+        }
+        catch ( IOException e )
+        {
+            page.dirty = true;
+            throw new UnderlyingStorageException( "Unable to write page "
+                + page.pageId + " @[" + filePosition + "] of " + storeName, e );
+        }
+    }
+
+    public void flushAll()
+    {
+        if ( readOnly )
+        {
+            return;
+        }
+        for ( int c = 0; c < CHUNK_SIZE; c++ )
+        {
+            AtomicReferenceArray<Page> chunk = table.get( c );
+            if ( chunk == null )
+            {
+                continue;
+            }
+            for ( int i = 0; i < CHUNK_SIZE; i++ )
+            {
+                Page page = chunk.get( i );
+                long pageId = ((long) c << CHUNK_BITS) + i;
+                if ( page != null && page.dirty && page.tryPin( this, pageId ) )
+                {
+                    page.latch.readLock().lock();
+                    try
+                    {
+                        if ( page.dirty )
+                        {
+                            write( page );
+                        }
+                    }
+                    finally
+                    {
+                        page.latch.readLock().unlock();
+                        page.unpin();
+                    }
+                }
+            }
+        }
+        try
+        {
+            fileChannel.force( false );
+        }
+        catch ( IOException e )
+        {
+            throw new UnderlyingStorageException(
+                "Failed to flush file channel " + storeName, e );
+        }
+    }
+
+    /**
+     * Flushes the pages of this store and hands them back to the page cache.
+     */
+    public void close()
+    {
+        flushAll();
+        for ( int c = 0; c < CHUNK_SIZE; c++ )
+        {
+            AtomicReferenceArray<Page> chunk = table.get( c );
+            if ( chunk == null )
+            {
+                continue;
+            }
+            for ( int i = 0; i < CHUNK_SIZE; i++ )
+            {
+                Page page = chunk.get( i );
+                if ( page != null && page.owner == this && page.pins.compareAndSet( 0, -1 ) )
+                {
+                    if ( page.owner == this )
+                    {
+                        chunk.set( i, null );
+                        cachedPages.decrementAndGet();
+                    }
+                    page.free();
+                }
+            }
+            table.set( c, null );
+        }
+        fileChannel = null;
+    }
+
+    public WindowPoolStats getStats()
+    {
+        int pages = cachedPages.get();
+        return new WindowPoolStats( storeName, cache.getMemory(), (long) pages * pageBytes,
+            pages, pageBytes, (int) Math.min( hits.get(), Integer.MAX_VALUE ),
+            (int) Math.min( misses.get(), Integer.MAX_VALUE ), cache.getOomCount(),
+            evictions.get() );
+    }
+
+    @Override
+    public String toString()
+    {
+        return "PagedWindowPool[" + storeName + ",recordsPerPage=" + recordsPerPage + "]";
+    }
+
+    private class PageWindow implements PersistenceWindow
+    {
+        private final Page page;
+        private final long position;
+        private final OperationType operationType;
+        private final Buffer buffer;
+
+        PageWindow( Page page, long position, OperationType operationType )
+        {
+            this.page = page;
+            this.position = position;
+            this.operationType = operationType;
+            ByteBuffer byteBuffer = page.buffer.duplicate();
+            byteBuffer.clear();
+            byteBuffer.limit( pageBytes );
+            this.buffer = new Buffer( this, byteBuffer );
+        }
+
+        public Buffer getBuffer()
+        {
+            return buffer;
+        }
+
+        public Buffer getOffsettedBuffer( long id )
+        {
+            int offset = (int) (id - position) * recordSize;
+            buffer.setOffset( offset );
+            return buffer;
+        }
+
+        public int getRecordSize()
+        {
+            return recordSize;
+        }
+
+        public long position()
+        {
+            return position;
+        }
+
+        public int size()
+        {
+            return recordsPerPage;
+        }
+
+        public void force()
+        {
+            // written back when evicted or flushed
+        }
+
+        public void close()
+        {
+        }
+
+        @Override
+        public String toString()
+        {
+            return "PageWindow[" + storeName + ",p=" + position + ",ws=" + recordsPerPage + "]";
+        }
+    }
+}
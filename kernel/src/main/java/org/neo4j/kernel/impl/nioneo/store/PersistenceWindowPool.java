@@ -38,7 +38,7 @@ import java.util.logging.Logger;
  * that the most frequently used records/blocks (be it for read or write
  * operations) are encapsulated by a memory mapped persistence window.
  */
-public class PersistenceWindowPool
+public class PersistenceWindowPool implements WindowPool
 {
     private static final int MAX_BRICK_COUNT = 100000;
 
@@ -223,7 +223,7 @@ public class PersistenceWindowPool
         }
     }
 
-    synchronized void close()
+    public synchronized void close()
     {
         flushAll();
 //        synchronized ( activeRowWindows )
@@ -243,7 +243,7 @@ public class PersistenceWindowPool
         dumpStatistics();
     }
 
-    void flushAll()
+    public void flushAll()
     {
         if ( readOnly ) return;
 
@@ -661,7 +661,7 @@ public class PersistenceWindowPool
         log.log( Level.WARNING, "[" + storeName + "] " + logMessage, cause );
     }
 
-    WindowPoolStats getStats()
+    public WindowPoolStats getStats()
     {
         return new WindowPoolStats( storeName, availableMem, memUsed, brickCount,
                 brickSize, hit, miss, ooe );
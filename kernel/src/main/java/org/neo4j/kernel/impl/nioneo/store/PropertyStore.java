@@ -530,19 +530,62 @@ public class PropertyStore extends AbstractStore implements Store, RecordStore<P
     @Override
     public void makeStoreOk()
     {
-        propertyIndexStore.makeStoreOk();
-        stringPropertyStore.makeStoreOk();
-        arrayPropertyStore.makeStoreOk();
-        super.makeStoreOk();
+        // The string and array stores are usually the biggest files
+        runConcurrently( "Rebuild property id generators", new Runnable()
+        {
+            public void run()
+            {
+                propertyIndexStore.makeStoreOk();
+            }
+        }, new Runnable()
+        {
+            public void run()
+            {
+                stringPropertyStore.makeStoreOk();
+            }
+        }, new Runnable()
+        {
+            public void run()
+            {
+                arrayPropertyStore.makeStoreOk();
+            }
+        }, new Runnable()
+        {
+            public void run()
+            {
+                PropertyStore.super.makeStoreOk();
+            }
+        } );
     }
 
     @Override
     public void rebuildIdGenerators()
     {
-        propertyIndexStore.rebuildIdGenerators();
-        stringPropertyStore.rebuildIdGenerators();
-        arrayPropertyStore.rebuildIdGenerators();
-        super.rebuildIdGenerators();
+        runConcurrently( "Rebuild property id generators", new Runnable()
+        {
+            public void run()
+            {
+                propertyIndexStore.rebuildIdGenerators();
+            }
+        }, new Runnable()
+        {
+            public void run()
+            {
+                stringPropertyStore.rebuildIdGenerators();
+            }
+        }, new Runnable()
+        {
+            public void run()
+            {
+                arrayPropertyStore.rebuildIdGenerators();
+            }
+        }, new Runnable()
+        {
+            public void run()
+            {
+                PropertyStore.super.rebuildIdGenerators();
+            }
+        } );
     }
 
     public void updateIdGenerators()
@@ -0,0 +1,118 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.neo4j.kernel.impl.util.StringLogger;
+
+/**
+ * Finds the records not in use in a store file, for rebuilding its id
+ * generator. The file is read sequentially in large chunks of whole records,
+ * which are checked with {@link #isInUse(ByteBuffer)}.
+ */
+abstract class RecordInUseScanner
+{
+    private static final int READ_SIZE = 1024 * 1024;
+    private static final int PROGRESS_STEPS = 10;
+
+    private final FileChannel fileChannel;
+    private final int recordSize;
+    private final String fileName;
+    private final StringLogger msgLog;
+
+    /**
+     * @param recordSize the size of a record (or block) in the file.
+     * @param msgLog where to log progress, or {@code null}.
+     */
+    RecordInUseScanner( FileChannel fileChannel, int recordSize, String fileName,
+        StringLogger msgLog )
+    {
+        this.fileChannel = fileChannel;
+        this.recordSize = recordSize;
+        this.fileName = fileName;
+        this.msgLog = msgLog;
+    }
+
+    /**
+     * Scans the records from {@code firstId} to the end of the file, adding
+     * the ids of records not in use to {@code freeIds}.
+     *
+     * @return the highest id in use, or -1 if no record is in use.
+     */
+    long scan( long firstId, FreeIdBitmap freeIds ) throws IOException
+    {
+        long fileSize = fileChannel.size();
+        int recordsPerRead = Math.max( 1, READ_SIZE / recordSize );
+        ByteBuffer buffer = ByteBuffer.allocate( recordsPerRead * recordSize );
+        long highestInUse = -1;
+        long nextProgress = fileSize / PROGRESS_STEPS;
+        long position = firstId * recordSize;
+        long id = firstId;
+        while ( position < fileSize )
+        {
+            buffer.clear();
+            int bytesRead = 0;
+            while ( buffer.hasRemaining() )
+            {
+                int read = fileChannel.read( buffer, position + bytesRead );
+                if ( read == -1 )
+                {
+                    break;
+                }
+                bytesRead += read;
+            }
+            if ( bytesRead == 0 )
+            {
+                break;
+            }
+            // A partial record at the end, left by a crash, isn't in use
+            for ( int offset = 0; offset + recordSize <= bytesRead;
+                offset += recordSize, id++ )
+            {
+                buffer.limit( offset + recordSize ).position( offset );
+                if ( isInUse( buffer ) )
+                {
+                    highestInUse = id;
+                }
+                else
+                {
+                    freeIds.set( id );
+                }
+            }
+            position += bytesRead;
+            if ( msgLog != null && position >= nextProgress && position < fileSize )
+            {
+                msgLog.logMessage( fileName + " rebuild id generator, "
+                    + (position * 100 / fileSize) + "% scanned" );
+                nextProgress = position + fileSize / PROGRESS_STEPS;
+            }
+        }
+        return highestInUse;
+    }
+
+    /**
+     * @param record positioned at the start of a whole record.
+     * @return whether the record is in use.
+     */
+    protected abstract boolean isInUse( ByteBuffer record );
+}
@@ -97,6 +97,11 @@ public interface RecordStore<R extends AbstractBaseRecord>
             processRecord( PropertyIndexRecord.class, store, record );
         }
 
+        public void processRelationshipGroup( RecordStore<RelationshipGroupRecord> store, RelationshipGroupRecord record )
+        {
+            processRecord( RelationshipGroupRecord.class, store, record );
+        }
+
         protected <R extends AbstractBaseRecord> void processRecord( Class<R> type, RecordStore<R> store, R record )
         {
             throw new UnsupportedOperationException( this + " does not process "
@@ -0,0 +1,112 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+/**
+ * The relationships of one type of a dense node. Holds the heads of the
+ * outgoing, incoming and loop chains of that type and the id of the next
+ * group of the node, see {@link NodeRecord#isDense()}.
+ */
+public class RelationshipGroupRecord extends Abstract64BitRecord
+{
+    private final int type;
+    private final long owningNode;
+    private long next = Record.NO_NEXT_RELATIONSHIP.intValue();
+    private long firstOut = Record.NO_NEXT_RELATIONSHIP.intValue();
+    private long firstIn = Record.NO_NEXT_RELATIONSHIP.intValue();
+    private long firstLoop = Record.NO_NEXT_RELATIONSHIP.intValue();
+
+    public RelationshipGroupRecord( long id, int type, long owningNode )
+    {
+        super( id );
+        this.type = type;
+        this.owningNode = owningNode;
+    }
+
+    public int getType()
+    {
+        return type;
+    }
+
+    public long getOwningNode()
+    {
+        return owningNode;
+    }
+
+    public long getNext()
+    {
+        return next;
+    }
+
+    public void setNext( long next )
+    {
+        this.next = next;
+    }
+
+    public long getFirstOut()
+    {
+        return firstOut;
+    }
+
+    public void setFirstOut( long firstOut )
+    {
+        this.firstOut = firstOut;
+    }
+
+    public long getFirstIn()
+    {
+        return firstIn;
+    }
+
+    public void setFirstIn( long firstIn )
+    {
+        this.firstIn = firstIn;
+    }
+
+    public long getFirstLoop()
+    {
+        return firstLoop;
+    }
+
+    public void setFirstLoop( long firstLoop )
+    {
+        this.firstLoop = firstLoop;
+    }
+
+    /**
+     * @return <code>true</code> if none of the chains of this group has any
+     * relationships.
+     */
+    public boolean isEmpty()
+    {
+        return firstOut == Record.NO_NEXT_RELATIONSHIP.intValue() &&
+            firstIn == Record.NO_NEXT_RELATIONSHIP.intValue() &&
+            firstLoop == Record.NO_NEXT_RELATIONSHIP.intValue();
+    }
+
+    @Override
+    public String toString()
+    {
+        return new StringBuilder( "RelationshipGroup[" ).append( getId() ).append( ",used=" ).append( inUse() ).append(
+                ",type=" ).append( type ).append( ",node=" ).append( owningNode ).append( ",out=" ).append(
+                firstOut ).append( ",in=" ).append( firstIn ).append( ",loop=" ).append( firstLoop ).append(
+                ",next=" ).append( next ).append( "]" ).toString();
+    }
+}
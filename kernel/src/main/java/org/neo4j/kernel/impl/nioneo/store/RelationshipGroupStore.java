@@ -0,0 +1,263 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.neo4j.kernel.IdGeneratorFactory;
+import org.neo4j.kernel.IdType;
+import org.neo4j.kernel.impl.util.StringLogger;
+
+/**
+ * Implementation of the relationship group store, holding the per type
+ * chain heads of dense nodes, see {@link RelationshipGroupRecord}.
+ */
+public class RelationshipGroupStore extends AbstractStore implements Store, RecordStore<RelationshipGroupRecord>
+{
+    public static final String TYPE_DESCRIPTOR = "RelationshipGroupStore";
+
+    // in_use(byte)+type(short)+next(int)+first_out(int)+first_in(int)+
+    // first_loop(int)+owning_node(int)+first_out/in/loop high bits(short)
+    public static final int RECORD_SIZE = 25;
+
+    public RelationshipGroupStore( String fileName, Map<?,?> config )
+    {
+        super( fileName, config, IdType.RELATIONSHIP_GROUP );
+    }
+
+    @Override
+    public void accept( RecordStore.Processor processor, RelationshipGroupRecord record )
+    {
+        processor.processRelationshipGroup( this, record );
+    }
+
+    @Override
+    public String getTypeDescriptor()
+    {
+        return TYPE_DESCRIPTOR;
+    }
+
+    @Override
+    public int getRecordSize()
+    {
+        return RECORD_SIZE;
+    }
+
+    @Override
+    public int getRecordHeaderSize()
+    {
+        return getRecordSize();
+    }
+
+    /**
+     * Creates a new relationship group store contained in
+     * <CODE>fileName</CODE> If filename is <CODE>null</CODE> or the file
+     * already exists an <CODE>IOException</CODE> is thrown.
+     *
+     * @param fileName
+     *            File name of the new relationship group store
+     * @throws IOException
+     *             If unable to create relationship group store or name null
+     */
+    public static void createStore( String fileName, IdGeneratorFactory idGeneratorFactory )
+    {
+        createEmptyStore( fileName, buildTypeDescriptorAndVersion( TYPE_DESCRIPTOR ), idGeneratorFactory );
+    }
+
+    public RelationshipGroupRecord getRecord( long id )
+    {
+        PersistenceWindow window = acquireWindow( id, OperationType.READ );
+        try
+        {
+            return getRecord( id, window, RecordLoad.NORMAL );
+        }
+        finally
+        {
+            releaseWindow( window );
+        }
+    }
+
+    @Override
+    public RelationshipGroupRecord forceGetRecord( long id )
+    {
+        PersistenceWindow window = null;
+        try
+        {
+            window = acquireWindow( id, OperationType.READ );
+        }
+        catch ( InvalidRecordException e )
+        {
+            return new RelationshipGroupRecord( id, -1, -1 );
+        }
+
+        try
+        {
+            return getRecord( id, window, RecordLoad.FORCE );
+        }
+        finally
+        {
+            releaseWindow( window );
+        }
+    }
+
+    public void updateRecord( RelationshipGroupRecord record, boolean recovered )
+    {
+        assert recovered;
+        setRecovered();
+        try
+        {
+            updateRecord( record );
+            registerIdFromUpdateRecord( record.getId() );
+        }
+        finally
+        {
+            unsetRecovered();
+        }
+    }
+
+    public void updateRecord( RelationshipGroupRecord record )
+    {
+        PersistenceWindow window = acquireWindow( record.getId(),
+            OperationType.WRITE );
+        try
+        {
+            updateRecord( record, window, false );
+        }
+        finally
+        {
+            releaseWindow( window );
+        }
+    }
+
+    @Override
+    public void forceUpdateRecord( RelationshipGroupRecord record )
+    {
+        PersistenceWindow window = acquireWindow( record.getId(),
+                OperationType.WRITE );
+        try
+        {
+            updateRecord( record, window, true );
+        }
+        finally
+        {
+            releaseWindow( window );
+        }
+    }
+
+    private static long modifier( long id, int shift )
+    {
+        return id == Record.NO_NEXT_RELATIONSHIP.intValue() ? 0 : (id & 0x700000000L) >> shift;
+    }
+
+    private void updateRecord( RelationshipGroupRecord record,
+        PersistenceWindow window, boolean force )
+    {
+        long id = record.getId();
+        Buffer buffer = window.getOffsettedBuffer( id );
+        if ( record.inUse() || force )
+        {
+            long next = record.getNext();
+            long owningNode = record.getOwningNode();
+            long firstOut = record.getFirstOut();
+            long firstIn = record.getFirstIn();
+            long firstLoop = record.getFirstLoop();
+
+            // [    ,   x] in use flag
+            // [    ,xxx ] next high order bits
+            // [ xxx,    ] owning node high order bits
+            short inUseUnsignedByte = (short)((record.inUse() ? Record.IN_USE : Record.NOT_IN_USE).byteValue() |
+                    modifier( next, 31 ) | ((owningNode & 0x700000000L) >> 28));
+
+            // [    ,    ][    , xxx] first out high order bits
+            // [    ,    ][  xx,x   ] first in high order bits
+            // [    ,   x][xx  ,    ] first loop high order bits
+            short highBits = (short)(modifier( firstOut, 32 ) | modifier( firstIn, 29 ) | modifier( firstLoop, 26 ));
+
+            buffer.put( (byte)inUseUnsignedByte ).putShort( (short) record.getType() ).putInt( (int) next )
+                .putInt( (int) firstOut ).putInt( (int) firstIn ).putInt( (int) firstLoop )
+                .putInt( (int) owningNode ).putShort( highBits );
+        }
+        else
+        {
+            buffer.put( Record.NOT_IN_USE.byteValue() );
+            if ( !isInRecoveryMode() )
+            {
+                freeId( id );
+            }
+        }
+    }
+
+    private RelationshipGroupRecord getRecord( long id, PersistenceWindow window,
+        RecordLoad load )
+    {
+        Buffer buffer = window.getOffsettedBuffer( id );
+
+        // [    ,   x] in use flag
+        // [    ,xxx ] next high order bits
+        // [ xxx,    ] owning node high order bits
+        long inUseByte = buffer.get();
+
+        boolean inUse = (inUseByte & 0x1) == Record.IN_USE.intValue();
+        if ( !inUse )
+        {
+            switch ( load )
+            {
+            case NORMAL:
+                throw new InvalidRecordException( "Record[" + id + "] not in use" );
+            case CHECK:
+                return null;
+            }
+        }
+
+        int type = buffer.getShort() & 0xFFFF;
+        long next = buffer.getUnsignedInt();
+        long firstOut = buffer.getUnsignedInt();
+        long firstIn = buffer.getUnsignedInt();
+        long firstLoop = buffer.getUnsignedInt();
+        long owningNode = buffer.getUnsignedInt();
+        long highBits = buffer.getShort();
+
+        RelationshipGroupRecord record = new RelationshipGroupRecord( id, type,
+                longFromIntAndMod( owningNode, (inUseByte & 0x70L) << 28 ) );
+        record.setInUse( inUse );
+        record.setNext( longFromIntAndMod( next, (inUseByte & 0xEL) << 31 ) );
+        record.setFirstOut( longFromIntAndMod( firstOut, (highBits & 0x7L) << 32 ) );
+        record.setFirstIn( longFromIntAndMod( firstIn, (highBits & 0x38L) << 29 ) );
+        record.setFirstLoop( longFromIntAndMod( firstLoop, (highBits & 0x1C0L) << 26 ) );
+        return record;
+    }
+
+    @Override
+    public List<WindowPoolStats> getAllWindowPoolStats()
+    {
+        List<WindowPoolStats> list = new ArrayList<WindowPoolStats>();
+        list.add( getWindowPoolStats() );
+        return list;
+    }
+
+    @Override
+    public void logIdUsage( StringLogger logger )
+    {
+        NeoStore.logIdUsage( logger, this );
+    }
+}
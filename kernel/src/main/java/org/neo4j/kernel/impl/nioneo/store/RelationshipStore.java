@@ -357,6 +357,34 @@ public class RelationshipStore extends AbstractStore implements Store, RecordSto
         }
     }
 
+    /**
+     * Like {@link #getChainRecord(long)}, but returns <code>null</code>
+     * instead of throwing if the record isn't in use. Used when reading
+     * ahead of a relationship chain, where records not belonging to the
+     * chain are expected.
+     */
+    public RelationshipRecord getChainRecordIfInUse( long relId )
+    {
+        PersistenceWindow window = null;
+        try
+        {
+            window = acquireWindow( relId, OperationType.READ );
+        }
+        catch ( InvalidRecordException e )
+        {
+            // ok to high id
+            return null;
+        }
+        try
+        {
+            return getRecord( relId, window, RecordLoad.CHECK );
+        }
+        finally
+        {
+            releaseWindow( window );
+        }
+    }
+
     @Override
     public List<WindowPoolStats> getAllWindowPoolStats()
     {
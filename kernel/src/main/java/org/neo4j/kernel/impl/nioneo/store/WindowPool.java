@@ -0,0 +1,52 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+/**
+ * Hands out {@link PersistenceWindow persistence windows} for the records of
+ * a store, see {@link PersistenceWindowPool} and {@link PagedWindowPool}.
+ */
+public interface WindowPool
+{
+    /**
+     * Acquires a window encapsulating <CODE>position</CODE> for an operation
+     * of type <CODE>operationType</CODE>. The window must be released with
+     * {@link #release(PersistenceWindow)} once the operation is done.
+     *
+     * @param position the record position the window must encapsulate
+     * @param operationType the type of operation (READ or WRITE)
+     * @return a window encapsulating the position
+     */
+    PersistenceWindow acquire( long position, OperationType operationType );
+
+    /**
+     * Releases a window acquired with
+     * {@link #acquire(long, OperationType)}.
+     *
+     * @param window the window to release
+     */
+    void release( PersistenceWindow window );
+
+    void flushAll();
+
+    void close();
+
+    WindowPoolStats getStats();
+}
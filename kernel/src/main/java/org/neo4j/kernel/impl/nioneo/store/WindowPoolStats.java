@@ -32,9 +32,17 @@ public class WindowPoolStats
     private final int hitCount;
     private final int missCount;
     private final int oomCount;
+    private final long evictionCount;
     
     public WindowPoolStats( String name, long memAvail, long memUsed, int windowCount,
             int windowSize, int hitCount, int missCount, int oomCount )
+    {
+        this( name, memAvail, memUsed, windowCount, windowSize, hitCount, missCount,
+                oomCount, 0 );
+    }
+
+    public WindowPoolStats( String name, long memAvail, long memUsed, int windowCount,
+            int windowSize, int hitCount, int missCount, int oomCount, long evictionCount )
     {
         this.name = name;
         this.memAvail = memAvail;
@@ -44,6 +52,7 @@ public class WindowPoolStats
         this.hitCount = hitCount;
         this.missCount = missCount;
         this.oomCount = oomCount;
+        this.evictionCount = evictionCount;
     }
     
     public String getName()
@@ -85,4 +94,13 @@ public class WindowPoolStats
     {
         return oomCount;
     }
+
+    /**
+     * @return the number of windows (pages) of this store that have been
+     * evicted to make room for others, only counted by a {@link PagedWindowPool}.
+     */
+    public long getEvictionCount()
+    {
+        return evictionCount;
+    }
 }
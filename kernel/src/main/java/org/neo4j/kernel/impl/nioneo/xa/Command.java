@@ -36,6 +36,8 @@ import org.neo4j.kernel.impl.nioneo.store.PropertyRecord;
 import org.neo4j.kernel.impl.nioneo.store.PropertyStore;
 import org.neo4j.kernel.impl.nioneo.store.PropertyType;
 import org.neo4j.kernel.impl.nioneo.store.Record;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipGroupRecord;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipGroupStore;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipRecord;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipStore;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipTypeRecord;
@@ -284,6 +286,10 @@ public abstract class Command extends XaCommand
     private static final byte REL_COMMAND = (byte) 3;
     private static final byte REL_TYPE_COMMAND = (byte) 4;
     private static final byte PROP_INDEX_COMMAND = (byte) 5;
+    private static final byte REL_GROUP_COMMAND = (byte) 6;
+
+    // set in the in use byte of node commands for dense nodes
+    private static final byte DENSE_NODE = (byte) 2;
 
     static class NodeCommand extends Command
     {
@@ -340,6 +346,10 @@ public abstract class Command extends XaCommand
         {
             byte inUse = record.inUse() ? Record.IN_USE.byteValue()
                 : Record.NOT_IN_USE.byteValue();
+            if ( record.isDense() )
+            {
+                inUse |= DENSE_NODE;
+            }
             buffer.put( NODE_COMMAND );
             buffer.putLong( record.getId() );
             buffer.put( inUse );
@@ -363,6 +373,8 @@ public abstract class Command extends XaCommand
             buffer.flip();
             long id = buffer.getLong();
             byte inUseFlag = buffer.get();
+            boolean dense = (inUseFlag & DENSE_NODE) != 0;
+            inUseFlag &= ~DENSE_NODE;
             boolean inUse = false;
             if ( inUseFlag == Record.IN_USE.byteValue() )
             {
@@ -374,6 +386,7 @@ public abstract class Command extends XaCommand
             }
             NodeRecord record = new NodeRecord( id );
             record.setInUse( inUse );
+            record.setDense( dense );
             if ( inUse )
             {
                 buffer.clear();
@@ -731,6 +744,27 @@ public abstract class Command extends XaCommand
             return record.getRelId();
         }
 
+        /**
+         * @return whether executing this command writes to the string or
+         * array stores, whose blocks may have been freed by one property
+         * record and reused by another one.
+         */
+        boolean touchesDynamicRecords()
+        {
+            if ( !record.getDeletedRecords().isEmpty() )
+            {
+                return true;
+            }
+            for ( PropertyBlock block : record.getPropertyBlocks() )
+            {
+                if ( !block.isLight() && !block.getValueRecords().isEmpty() )
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+
         @Override
         public String toString()
         {
@@ -1008,6 +1042,131 @@ public abstract class Command extends XaCommand
         }
     }
 
+    static class RelationshipGroupCommand extends Command
+    {
+        private final RelationshipGroupRecord record;
+        private final RelationshipGroupStore store;
+
+        RelationshipGroupCommand( RelationshipGroupStore store, RelationshipGroupRecord record )
+        {
+            super( record.getId() );
+            this.record = record;
+            this.store = store;
+        }
+
+        @Override
+        public void accept( CommandRecordVisitor visitor )
+        {
+            visitor.visitRelationshipGroup( record );
+        }
+
+        @Override
+        boolean isCreated()
+        {
+            return record.isCreated();
+        }
+
+        @Override
+        boolean isDeleted()
+        {
+            return !record.inUse();
+        }
+
+        long getOwningNode()
+        {
+            return record.getOwningNode();
+        }
+
+        @Override
+        public void execute()
+        {
+            if ( isRecovered() )
+            {
+                logger.fine( this.toString() );
+                store.updateRecord( record, true );
+            }
+            else
+            {
+                store.updateRecord( record );
+            }
+        }
+
+        @Override
+        public String toString()
+        {
+            return record.toString();
+        }
+
+        @Override
+        public void writeToFile( LogBuffer buffer ) throws IOException
+        {
+            byte inUse = record.inUse() ? Record.IN_USE.byteValue()
+                : Record.NOT_IN_USE.byteValue();
+            buffer.put( REL_GROUP_COMMAND );
+            buffer.putLong( record.getId() );
+            buffer.put( inUse );
+            buffer.putInt( record.getType() ).putLong( record.getOwningNode() );
+            if ( record.inUse() )
+            {
+                buffer.putLong( record.getNext() ).putLong( record.getFirstOut() )
+                    .putLong( record.getFirstIn() ).putLong( record.getFirstLoop() );
+            }
+        }
+
+        public static Command readCommand( NeoStore neoStore,
+            ReadableByteChannel byteChannel, ByteBuffer buffer )
+            throws IOException
+        {
+            buffer.clear();
+            buffer.limit( 21 );
+            if ( byteChannel.read( buffer ) != buffer.limit() )
+            {
+                return null;
+            }
+            buffer.flip();
+            long id = buffer.getLong();
+            byte inUseFlag = buffer.get();
+            boolean inUse = false;
+            if ( inUseFlag == Record.IN_USE.byteValue() )
+            {
+                inUse = true;
+            }
+            else if ( inUseFlag != Record.NOT_IN_USE.byteValue() )
+            {
+                throw new IOException( "Illegal in use flag: " + inUseFlag );
+            }
+            RelationshipGroupRecord record = new RelationshipGroupRecord( id,
+                buffer.getInt(), buffer.getLong() );
+            record.setInUse( inUse );
+            if ( inUse )
+            {
+                buffer.clear();
+                buffer.limit( 32 );
+                if ( byteChannel.read( buffer ) != buffer.limit() )
+                {
+                    return null;
+                }
+                buffer.flip();
+                record.setNext( buffer.getLong() );
+                record.setFirstOut( buffer.getLong() );
+                record.setFirstIn( buffer.getLong() );
+                record.setFirstLoop( buffer.getLong() );
+            }
+            return new RelationshipGroupCommand( neoStore == null ? null :
+                neoStore.getRelationshipGroupStore(), record );
+        }
+
+        @Override
+        public boolean equals( Object o )
+        {
+            if ( !(o instanceof RelationshipGroupCommand) )
+            {
+                return false;
+            }
+            return getKey() == ((Command) o).getKey();
+        }
+    }
+
     public static Command readCommand( NeoStore neoStore, ReadableByteChannel byteChannel,
         ByteBuffer buffer ) throws IOException
     {
@@ -1035,6 +1194,9 @@ public abstract class Command extends XaCommand
             case REL_TYPE_COMMAND:
                 return RelationshipTypeCommand.readCommand( neoStore,
                     byteChannel, buffer );
+            case REL_GROUP_COMMAND:
+                return RelationshipGroupCommand.readCommand( neoStore,
+                    byteChannel, buffer );
             case NONE: return null;
             default:
                 throw new IOException( "Unknown command type[" + commandType
@@ -22,6 +22,7 @@ package org.neo4j.kernel.impl.nioneo.xa;
 import org.neo4j.kernel.impl.nioneo.store.NodeRecord;
 import org.neo4j.kernel.impl.nioneo.store.PropertyIndexRecord;
 import org.neo4j.kernel.impl.nioneo.store.PropertyRecord;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipGroupRecord;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipRecord;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipTypeRecord;
 
@@ -40,4 +41,6 @@ public interface CommandRecordVisitor
     void visitRelationshipType( RelationshipTypeRecord record );
     
     void visitPropertyIndex( PropertyIndexRecord record );
+
+    void visitRelationshipGroup( RelationshipGroupRecord record );
 }
@@ -45,6 +45,7 @@ import org.neo4j.kernel.impl.core.LockReleaser;
 import org.neo4j.kernel.impl.core.PropertyIndex;
 import org.neo4j.kernel.impl.index.IndexStore;
 import org.neo4j.kernel.impl.nioneo.store.NeoStore;
+import org.neo4j.kernel.impl.nioneo.store.PageCache;
 import org.neo4j.kernel.impl.nioneo.store.PropertyStore;
 import org.neo4j.kernel.impl.nioneo.store.Store;
 import org.neo4j.kernel.impl.nioneo.store.StoreId;
@@ -94,6 +95,9 @@ public class NeoStoreXaDataSource extends LogBackedXaDataSource
     private final List<Pair<TransactionInterceptorProvider, Object>> providers;
 
     private boolean logApplied = false;
+    // only used while recovering the logical log at startup, see Config.PARALLEL_RECOVERY
+    private RecoveryCommandExecutor recoveryExecutor;
+    private RelationshipChainLoader relationshipChainLoader;
 
     private final StringLogger msgLog;
 
@@ -162,8 +166,19 @@ public class NeoStoreXaDataSource extends LogBackedXaDataSource
         {
             tf = new TransactionFactory();
         }
+        PageCache pageCache = PageCache.fromConfig( config );
+        if ( pageCache != null )
+        {
+            config.put( PageCache.class, pageCache );
+        }
         neoStore = new NeoStore( config );
         config.put( NeoStore.class, neoStore );
+        relationshipChainLoader = PrefetchingRelationshipChainLoader.fromConfig( config, neoStore );
+        if ( Boolean.parseBoolean( (String) config.get( Config.PARALLEL_RECOVERY ) ) )
+        {
+            recoveryExecutor = new RecoveryCommandExecutor( recoveryThreads(
+                (String) config.get( Config.RECOVERY_THREADS ) ) );
+        }
         xaContainer = XaContainer.create( this,
                 (String) config.get( "logical_log" ), new CommandFactory(
                         neoStore ), tf, providers.isEmpty() ? null : providers,
@@ -176,6 +191,7 @@ public class NeoStoreXaDataSource extends LogBackedXaDataSource
                 try
                 {
                     xaContainer.openLogicalLog();
+                    closeRecoveryExecutor();
                 }
                 finally
                 {
@@ -206,6 +222,14 @@ public class NeoStoreXaDataSource extends LogBackedXaDataSource
         }
         catch ( Throwable e )
         {   // Something unexpected happened during startup
+            try
+            {
+                closeRecoveryExecutor();
+            }
+            catch ( Exception closeException )
+            {
+                msgLog.logMessage( "Couldn't apply recovered commands after startup failure" );
+            }
             try
             {   // Close the neostore, so that locks are released properly
                 neoStore.close();
@@ -218,6 +242,38 @@ public class NeoStoreXaDataSource extends LogBackedXaDataSource
         }
     }
 
+    private static int recoveryThreads( String value )
+    {
+        if ( value == null )
+        {
+            return Runtime.getRuntime().availableProcessors();
+        }
+        try
+        {
+            return Integer.parseInt( value );
+        }
+        catch ( NumberFormatException e )
+        {
+            throw new IllegalArgumentException( "Invalid value '" + value
+                + "' for " + Config.RECOVERY_THREADS, e );
+        }
+    }
+
+    private void closeRecoveryExecutor()
+    {
+        if ( recoveryExecutor == null )
+        {
+            return;
+        }
+        long applied = recoveryExecutor.close();
+        if ( applied > 0 )
+        {
+            neoStore.getIdGeneratorFactory().updateIdGenerators( neoStore );
+            msgLog.logMessage( "Applied " + applied
+                + " recovered commands in parallel", true );
+        }
+    }
+
     private void autoCreatePath( String store ) throws IOException
     {
         String fileSeparator = System.getProperty( "file.separator" );
@@ -348,8 +404,11 @@ public class NeoStoreXaDataSource extends LogBackedXaDataSource
 
             TransactionInterceptor first = TransactionInterceptorProvider.resolveChain(
                     providers, NeoStoreXaDataSource.this );
-            return new InterceptingWriteTransaction( identifier,
+            WriteTransaction tx = new InterceptingWriteTransaction( identifier,
                     getLogicalLog(), neoStore, lockReleaser, lockManager, first );
+            tx.setRecoveryExecutor( recoveryExecutor );
+            tx.setRelationshipChainLoader( relationshipChainLoader );
+            return tx;
         }
     }
 
@@ -362,8 +421,11 @@ public class NeoStoreXaDataSource extends LogBackedXaDataSource
         @Override
         public XaTransaction create( int identifier )
         {
-            return new WriteTransaction( identifier, getLogicalLog(), neoStore,
-                lockReleaser, lockManager );
+            WriteTransaction tx = new WriteTransaction( identifier,
+                getLogicalLog(), neoStore, lockReleaser, lockManager );
+            tx.setRecoveryExecutor( recoveryExecutor );
+            tx.setRelationshipChainLoader( relationshipChainLoader );
+            return tx;
         }
 
         @Override
@@ -500,7 +562,7 @@ public class NeoStoreXaDataSource extends LogBackedXaDataSource
 
     ReadTransaction getReadOnlyTransaction()
     {
-        return new ReadTransaction( neoStore );
+        return new ReadTransaction( neoStore, relationshipChainLoader );
     }
 
     public boolean isReadOnly()
@@ -55,7 +55,7 @@ public class NioNeoDbPersistenceSource implements PersistenceSource
             throw new IllegalStateException( 
                 "Unable to get nioneodb datasource" );
         }
-        readOnlyResourceConnection = new ReadTransaction( xaDs.getNeoStore() );
+        readOnlyResourceConnection = xaDs.getReadOnlyTransaction();
     }
 
     public synchronized void reload()
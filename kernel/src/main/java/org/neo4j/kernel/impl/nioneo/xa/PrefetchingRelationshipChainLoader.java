@@ -0,0 +1,177 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.xa;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.neo4j.kernel.Config;
+import org.neo4j.kernel.impl.nioneo.store.NeoStore;
+import org.neo4j.kernel.impl.nioneo.store.Record;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipRecord;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipStore;
+
+/**
+ * A {@link RelationshipChainLoader} for dense nodes, where walking the
+ * chain record by record means one random read per relationship.
+ * <p>
+ * When a record of the chain isn't already at hand, the records just
+ * below it are read too, in ascending id order, i.e. in file order. A
+ * chain is built by prepending new relationships, so the next pointers of
+ * a node's chain mostly point to lower ids and relationships created
+ * together end up next to each other in the store. The records belonging
+ * to the node are kept, and the walk follows their next pointers without
+ * going to the store again. The read ahead shrinks when few of the records
+ * read belong to the chain and grows when most of them do.
+ * <p>
+ * The grab size also adapts to the degree of each node: while a node's
+ * chain doesn't fit in one batch, the next batch for it is twice as big,
+ * up to {@link #MAX_GRAB_SIZE_FACTOR} times relationship_grab_size. The
+ * grab size a dense node ended up with is remembered, so reloading it
+ * after it has been evicted from the cache takes few batches.
+ */
+class PrefetchingRelationshipChainLoader extends RelationshipChainLoader
+{
+    static final int MAX_GRAB_SIZE_FACTOR = 64;
+    private static final int MAX_TRACKED_NODES = 10000;
+
+    private final int maxReadAhead;
+    private final Map<Long, Integer> grabSizes = new ConcurrentHashMap<Long, Integer>();
+
+    PrefetchingRelationshipChainLoader( NeoStore neoStore, int maxReadAhead )
+    {
+        super( neoStore );
+        this.maxReadAhead = maxReadAhead;
+    }
+
+    /**
+     * @return a prefetching loader if {@link Config#RELATIONSHIP_READ_AHEAD}
+     * is set to more than one record, otherwise the default loader.
+     */
+    static RelationshipChainLoader fromConfig( Map<?,?> config, NeoStore neoStore )
+    {
+        String readAhead = (String) config.get( Config.RELATIONSHIP_READ_AHEAD );
+        if ( readAhead != null && Integer.parseInt( readAhead ) > 1 )
+        {
+            return new PrefetchingRelationshipChainLoader( neoStore, Integer.parseInt( readAhead ) );
+        }
+        return new RelationshipChainLoader( neoStore );
+    }
+
+    @Override
+    protected int grabSize( long nodeId, long position )
+    {
+        Integer grabSize = grabSizes.get( nodeId );
+        return grabSize != null ? grabSize : super.grabSize( nodeId, position );
+    }
+
+    @Override
+    protected void loaded( long nodeId, int grabSize, long nextPosition )
+    {
+        int defaultGrabSize = super.grabSize( nodeId, nextPosition );
+        if ( nextPosition != Record.NO_NEXT_RELATIONSHIP.intValue() )
+        {
+            if ( grabSizes.size() >= MAX_TRACKED_NODES )
+            {
+                grabSizes.clear();
+            }
+            grabSizes.put( nodeId, (int) Math.min( (long) grabSize * 2,
+                    (long) defaultGrabSize * MAX_GRAB_SIZE_FACTOR ) );
+        }
+        else if ( grabSize <= defaultGrabSize )
+        {
+            grabSizes.remove( nodeId );
+        }
+    }
+
+    @Override
+    protected ChainReader reader( long nodeId, int grabSize )
+    {
+        return new ReadAheadReader( nodeId, Math.min( grabSize, maxReadAhead ) );
+    }
+
+    private class ReadAheadReader implements ChainReader
+    {
+        private final long nodeId;
+        private final Map<Long, RelationshipRecord> readAhead =
+                new HashMap<Long, RelationshipRecord>();
+        private int readAheadSize;
+        private int lastBatchSize;
+        private int lastBatchKept;
+
+        ReadAheadReader( long nodeId, int readAheadSize )
+        {
+            this.nodeId = nodeId;
+            this.readAheadSize = readAheadSize;
+        }
+
+        public RelationshipRecord read( long relId )
+        {
+            RelationshipRecord record = readAhead.remove( relId );
+            if ( record != null )
+            {
+                return record;
+            }
+            adaptReadAheadSize();
+            if ( readAheadSize <= 1 )
+            {
+                return getRelationshipStore().getChainRecord( relId );
+            }
+            return readBatch( relId );
+        }
+
+        private void adaptReadAheadSize()
+        {
+            if ( lastBatchSize > 0 )
+            {
+                // the record asked for plus the ones read ahead that were used
+                int used = 1 + lastBatchKept - readAhead.size();
+                if ( used * 4 < lastBatchSize )
+                {
+                    readAheadSize /= 2;
+                }
+                else if ( used * 2 >= lastBatchSize )
+                {
+                    readAheadSize = Math.min( readAheadSize * 2, maxReadAhead );
+                }
+            }
+            readAhead.clear();
+        }
+
+        private RelationshipRecord readBatch( long relId )
+        {
+            RelationshipStore relStore = getRelationshipStore();
+            long from = Math.max( 0, relId - readAheadSize + 1 );
+            lastBatchSize = (int) (relId - from + 1);
+            for ( long id = from; id < relId; id++ )
+            {
+                RelationshipRecord record = relStore.getChainRecordIfInUse( id );
+                if ( record != null &&
+                    (record.getFirstNode() == nodeId || record.getSecondNode() == nodeId) )
+                {
+                    readAhead.put( id, record );
+                }
+            }
+            lastBatchKept = readAhead.size();
+            return relStore.getChainRecord( relId );
+        }
+    }
+}
@@ -19,9 +19,7 @@
  */
 package org.neo4j.kernel.impl.nioneo.xa;
 
-import java.util.ArrayList;
 import java.util.Collection;
-import java.util.EnumMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -53,20 +51,22 @@ import org.neo4j.kernel.impl.util.RelIdArray.DirectionWrapper;
 class ReadTransaction implements NeoStoreTransaction
 {
     private final NeoStore neoStore;
+    private final RelationshipChainLoader chainLoader;
 
     public ReadTransaction( NeoStore neoStore )
     {
-        this.neoStore = neoStore;
+        this( neoStore, new RelationshipChainLoader( neoStore ) );
     }
 
-    private NodeStore getNodeStore()
+    ReadTransaction( NeoStore neoStore, RelationshipChainLoader chainLoader )
     {
-        return neoStore.getNodeStore();
+        this.neoStore = neoStore;
+        this.chainLoader = chainLoader;
     }
 
-    private int getRelGrabSize()
+    private NodeStore getNodeStore()
     {
-        return neoStore.getRelationshipGrabSize();
+        return neoStore.getNodeStore();
     }
 
     private RelationshipStore getRelationshipStore()
@@ -94,81 +94,21 @@ class ReadTransaction implements NeoStoreTransaction
     @Override
     public long getRelationshipChainPosition( long nodeId )
     {
-        return getNodeStore().getRecord( nodeId ).getNextRel();
+        return chainLoader.getRelationshipChainPosition( getNodeStore().getRecord( nodeId ) );
     }
 
     @Override
     public Pair<Map<DirectionWrapper, Iterable<RelationshipRecord>>, Long> getMoreRelationships(
             long nodeId, long position )
     {
-        return getMoreRelationships( nodeId, position, getRelGrabSize(), getRelationshipStore() );
+        return chainLoader.getMoreRelationships( nodeId, position );
     }
 
-    static Pair<Map<DirectionWrapper, Iterable<RelationshipRecord>>, Long> getMoreRelationships(
-            long nodeId, long position, int grabSize, RelationshipStore relStore )
+    @Override
+    public Map<DirectionWrapper, Iterable<RelationshipRecord>> getRelationshipsOfType(
+            long nodeId, int type )
     {
-        // initialCapacity=grabSize saves the lists the trouble of resizing
-        List<RelationshipRecord> out = new ArrayList<RelationshipRecord>();
-        List<RelationshipRecord> in = new ArrayList<RelationshipRecord>();
-        List<RelationshipRecord> loop = null;
-        Map<DirectionWrapper, Iterable<RelationshipRecord>> result =
-            new EnumMap<DirectionWrapper, Iterable<RelationshipRecord>>( DirectionWrapper.class );
-        result.put( DirectionWrapper.OUTGOING, out );
-        result.put( DirectionWrapper.INCOMING, in );
-        for ( int i = 0; i < grabSize &&
-            position != Record.NO_NEXT_RELATIONSHIP.intValue(); i++ )
-        {
-            RelationshipRecord relRecord = relStore.getChainRecord( position );
-            if ( relRecord == null )
-            {
-                // return what we got so far
-                return Pair.of( result, position );
-            }
-            long firstNode = relRecord.getFirstNode();
-            long secondNode = relRecord.getSecondNode();
-            if ( relRecord.inUse() )
-            {
-                if ( firstNode == secondNode )
-                {
-                    if ( loop == null )
-                    {
-                        // This is done lazily because loops are probably quite
-                        // rarely encountered
-                        loop = new ArrayList<RelationshipRecord>();
-                        result.put( DirectionWrapper.BOTH, loop );
-                    }
-                    loop.add( relRecord );
-                }
-                else if ( firstNode == nodeId )
-                {
-                    out.add( relRecord );
-                }
-                else if ( secondNode == nodeId )
-                {
-                    in.add( relRecord );
-                }
-            }
-            else
-            {
-                i--;
-            }
-
-            if ( firstNode == nodeId )
-            {
-                position = relRecord.getFirstNextRel();
-            }
-            else if ( secondNode == nodeId )
-            {
-                position = relRecord.getSecondNextRel();
-            }
-            else
-            {
-                throw new InvalidRecordException( "Node[" + nodeId +
-                    "] is neither firstNode[" + firstNode +
-                    "] nor secondNode[" + secondNode + "] for Relationship[" + relRecord.getId() + "]" );
-            }
-        }
-        return Pair.of( result, position );
+        return chainLoader.getRelationshipsOfType( nodeId, type );
     }
 
     static List<PropertyRecord> getPropertyRecordChain(
@@ -0,0 +1,271 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.xa;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+
+import org.neo4j.kernel.impl.nioneo.store.UnderlyingStorageException;
+
+/**
+ * Applies the node, relationship and property commands of transactions
+ * recovered from the logical log using a number of worker threads. All
+ * commands for a record go to the same worker, in the order they were
+ * executed, so the last write of each record wins just as when recovering
+ * single threaded. Ranges of neighbouring records go to the same worker
+ * since they are likely to share a persistence window.
+ * <p>
+ * Property commands writing to the string or array stores are executed by
+ * the calling thread once all commands executed before them have been
+ * applied, since their dynamic records may have been reused by other
+ * property records. Once closed, commands are executed right away by the
+ * calling thread, which is what happens for transactions resolved by the
+ * transaction manager after the logical log has been opened.
+ */
+class RecoveryCommandExecutor
+{
+    private static final int RECORDS_PER_STRIPE = 1024;
+    private static final int QUEUE_SIZE = 1024;
+    private static final Object STOP = new Object();
+
+    private final int threadCount;
+    private Worker[] workers;
+    private volatile boolean closed;
+    private volatile Throwable failure;
+    private long parallelCount;
+
+    RecoveryCommandExecutor( int threadCount )
+    {
+        if ( threadCount < 1 )
+        {
+            throw new IllegalArgumentException( "Illegal thread count "
+                + threadCount );
+        }
+        this.threadCount = threadCount;
+    }
+
+    void execute( Command command )
+    {
+        if ( closed )
+        {
+            command.execute();
+            return;
+        }
+        assertNoFailure();
+        int type;
+        if ( command instanceof Command.NodeCommand )
+        {
+            type = 0;
+        }
+        else if ( command instanceof Command.RelationshipCommand )
+        {
+            type = 1;
+        }
+        else if ( command instanceof Command.PropertyCommand &&
+            !((Command.PropertyCommand) command).touchesDynamicRecords() )
+        {
+            type = 2;
+        }
+        else if ( command instanceof Command.RelationshipGroupCommand )
+        {
+            type = 3;
+        }
+        else
+        {
+            awaitApplied();
+            command.execute();
+            return;
+        }
+        Worker[] workers = workers();
+        long stripe = command.getKey() / RECORDS_PER_STRIPE * 4 + type;
+        int index = (int) ((stripe * 0x9E3779B97F4A7C15L) >>> 33) % workers.length;
+        workers[index].add( command );
+        parallelCount++;
+    }
+
+    boolean isActive()
+    {
+        return !closed;
+    }
+
+    /**
+     * Waits for all commands executed so far to be applied and stops the
+     * worker threads.
+     *
+     * @return the number of commands applied by the worker threads.
+     */
+    long close()
+    {
+        if ( closed )
+        {
+            return parallelCount;
+        }
+        try
+        {
+            awaitApplied();
+        }
+        finally
+        {
+            closed = true;
+            if ( workers != null )
+            {
+                for ( Worker worker : workers )
+                {
+                    worker.add( STOP );
+                }
+                for ( Worker worker : workers )
+                {
+                    worker.awaitStopped();
+                }
+            }
+        }
+        return parallelCount;
+    }
+
+    private Worker[] workers()
+    {
+        if ( workers == null )
+        {
+            workers = new Worker[threadCount];
+            for ( int i = 0; i < threadCount; i++ )
+            {
+                workers[i] = new Worker( i );
+                workers[i].start();
+            }
+        }
+        return workers;
+    }
+
+    private void awaitApplied()
+    {
+        if ( workers != null )
+        {
+            CountDownLatch latch = new CountDownLatch( workers.length );
+            for ( Worker worker : workers )
+            {
+                worker.add( latch );
+            }
+            try
+            {
+                latch.await();
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+                throw new UnderlyingStorageException(
+                    "Interrupted while waiting for recovered commands", e );
+            }
+        }
+        assertNoFailure();
+    }
+
+    private void assertNoFailure()
+    {
+        Throwable cause = failure;
+        if ( cause != null )
+        {
+            throw new UnderlyingStorageException(
+                "Unable to apply recovered command", cause );
+        }
+    }
+
+    private class Worker extends Thread
+    {
+        private final BlockingQueue<Object> queue =
+            new ArrayBlockingQueue<Object>( QUEUE_SIZE );
+
+        Worker( int number )
+        {
+            super( "Recovery worker " + number );
+            setDaemon( true );
+        }
+
+        void add( Object item )
+        {
+            try
+            {
+                queue.put( item );
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+                throw new UnderlyingStorageException(
+                    "Interrupted while handing over recovered command", e );
+            }
+        }
+
+        void awaitStopped()
+        {
+            boolean interrupted = false;
+            while ( isAlive() )
+            {
+                try
+                {
+                    join();
+                }
+                catch ( InterruptedException e )
+                {
+                    interrupted = true;
+                }
+            }
+            if ( interrupted )
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void run()
+        {
+            while ( true )
+            {
+                Object item;
+                try
+                {
+                    item = queue.take();
+                }
+                catch ( InterruptedException e )
+                {
+                    continue;
+                }
+                if ( item == STOP )
+                {
+                    return;
+                }
+                if ( item instanceof CountDownLatch )
+                {
+                    ((CountDownLatch) item).countDown();
+                }
+                else if ( failure == null )
+                {
+                    try
+                    {
+                        ((Command) item).execute();
+                    }
+                    catch ( Throwable e )
+                    {
+                        failure = e;
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,276 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.xa;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import org.neo4j.helpers.Pair;
+import org.neo4j.kernel.impl.nioneo.store.DenseNodeChains;
+import org.neo4j.kernel.impl.nioneo.store.InvalidRecordException;
+import org.neo4j.kernel.impl.nioneo.store.NeoStore;
+import org.neo4j.kernel.impl.nioneo.store.NodeRecord;
+import org.neo4j.kernel.impl.nioneo.store.Record;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipGroupRecord;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipRecord;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipStore;
+import org.neo4j.kernel.impl.util.RelIdArray.DirectionWrapper;
+
+/**
+ * Loads a node's relationships by walking its relationship chain in the
+ * {@link RelationshipStore}, at most relationship_grab_size relationships
+ * at a time. For dense nodes the chains of all groups are walked one after
+ * the other, see {@link DenseNodeChains}. Subclasses can decide how many
+ * relationships to load for a node and how the records of the chain are
+ * read, see {@link PrefetchingRelationshipChainLoader}.
+ */
+class RelationshipChainLoader
+{
+    private final NeoStore neoStore;
+
+    RelationshipChainLoader( NeoStore neoStore )
+    {
+        this.neoStore = neoStore;
+    }
+
+    protected RelationshipStore getRelationshipStore()
+    {
+        return neoStore.getRelationshipStore();
+    }
+
+    /**
+     * @return the position of the first relationship in the chain of the
+     * given node.
+     */
+    long getRelationshipChainPosition( NodeRecord node )
+    {
+        if ( !node.isDense() )
+        {
+            return node.getNextRel();
+        }
+        return chainPosition( DenseNodeChains.firstChainHead(
+                neoStore.getRelationshipGroupStore(), node.getNextRel() ), true );
+    }
+
+    private static long chainPosition( long relId, boolean dense )
+    {
+        return dense && relId != Record.NO_NEXT_RELATIONSHIP.intValue() ?
+                relId | DenseNodeChains.DENSE_CHAIN_POSITION : relId;
+    }
+
+    /**
+     * Loads all relationships of the given type of a dense node, without
+     * walking the chains of other types.
+     *
+     * @return the relationships of the given type, or <code>null</code> if
+     * the node isn't dense.
+     */
+    Map<DirectionWrapper, Iterable<RelationshipRecord>> getRelationshipsOfType( long nodeId, int type )
+    {
+        NodeRecord node = neoStore.getNodeStore().getRecord( nodeId );
+        if ( !node.isDense() )
+        {
+            return null;
+        }
+        Map<DirectionWrapper, Iterable<RelationshipRecord>> result =
+            new EnumMap<DirectionWrapper, Iterable<RelationshipRecord>>( DirectionWrapper.class );
+        List<RelationshipRecord> out = new ArrayList<RelationshipRecord>();
+        List<RelationshipRecord> in = new ArrayList<RelationshipRecord>();
+        result.put( DirectionWrapper.OUTGOING, out );
+        result.put( DirectionWrapper.INCOMING, in );
+        RelationshipGroupRecord group = DenseNodeChains.findGroup(
+                neoStore.getRelationshipGroupStore(), node.getNextRel(), type );
+        if ( group != null )
+        {
+            readChain( nodeId, group.getFirstOut(), out );
+            readChain( nodeId, group.getFirstIn(), in );
+            if ( group.getFirstLoop() != Record.NO_NEXT_RELATIONSHIP.intValue() )
+            {
+                List<RelationshipRecord> loop = new ArrayList<RelationshipRecord>();
+                readChain( nodeId, group.getFirstLoop(), loop );
+                result.put( DirectionWrapper.BOTH, loop );
+            }
+        }
+        return result;
+    }
+
+    private void readChain( long nodeId, long position, List<RelationshipRecord> target )
+    {
+        RelationshipStore relStore = getRelationshipStore();
+        while ( position != Record.NO_NEXT_RELATIONSHIP.intValue() )
+        {
+            RelationshipRecord relRecord = relStore.getChainRecord( position );
+            if ( relRecord == null )
+            {
+                return;
+            }
+            if ( relRecord.inUse() )
+            {
+                target.add( relRecord );
+            }
+            position = DenseNodeChains.getNextRel( relRecord, nodeId );
+        }
+    }
+
+    /**
+     * @return the number of in use relationships to load for the node,
+     * starting at the given position in its chain.
+     */
+    protected int grabSize( long nodeId, long position )
+    {
+        return neoStore.getRelationshipGrabSize();
+    }
+
+    /**
+     * Called after a batch of relationships has been loaded for a node.
+     *
+     * @param nodeId the node
+     * @param grabSize the grab size used for this batch
+     * @param nextPosition the position to continue from, or
+     * {@link Record#NO_NEXT_RELATIONSHIP} if the whole chain has been loaded
+     */
+    protected void loaded( long nodeId, int grabSize, long nextPosition )
+    {
+    }
+
+    /**
+     * @return the reader for the records of the chain of the given node,
+     * used for one batch of at most grabSize in use relationships.
+     */
+    protected ChainReader reader( long nodeId, int grabSize )
+    {
+        return new ChainReader()
+        {
+            public RelationshipRecord read( long relId )
+            {
+                return getRelationshipStore().getChainRecord( relId );
+            }
+        };
+    }
+
+    interface ChainReader
+    {
+        /**
+         * @return the record with the given id, or <code>null</code> if
+         * the id is beyond the end of the store.
+         */
+        RelationshipRecord read( long relId );
+    }
+
+    Pair<Map<DirectionWrapper, Iterable<RelationshipRecord>>, Long> getMoreRelationships(
+            long nodeId, long position )
+    {
+        int grabSize = grabSize( nodeId, position );
+        Pair<Map<DirectionWrapper, Iterable<RelationshipRecord>>, Long> result =
+                getMoreRelationships( nodeId, position, grabSize, reader( nodeId, grabSize ) );
+        loaded( nodeId, grabSize, result.other() );
+        return result;
+    }
+
+    private Pair<Map<DirectionWrapper, Iterable<RelationshipRecord>>, Long> getMoreRelationships(
+            long nodeId, long position, int grabSize, ChainReader reader )
+    {
+        boolean dense = DenseNodeChains.isDenseChainPosition( position );
+        if ( dense )
+        {
+            position &= ~DenseNodeChains.DENSE_CHAIN_POSITION;
+        }
+        // initialCapacity=grabSize saves the lists the trouble of resizing
+        List<RelationshipRecord> out = new ArrayList<RelationshipRecord>();
+        List<RelationshipRecord> in = new ArrayList<RelationshipRecord>();
+        List<RelationshipRecord> loop = null;
+        Map<DirectionWrapper, Iterable<RelationshipRecord>> result =
+            new EnumMap<DirectionWrapper, Iterable<RelationshipRecord>>( DirectionWrapper.class );
+        result.put( DirectionWrapper.OUTGOING, out );
+        result.put( DirectionWrapper.INCOMING, in );
+        for ( int i = 0; i < grabSize &&
+            position != Record.NO_NEXT_RELATIONSHIP.intValue(); i++ )
+        {
+            RelationshipRecord relRecord = reader.read( position );
+            if ( relRecord == null )
+            {
+                // return what we got so far
+                return Pair.of( result, chainPosition( position, dense ) );
+            }
+            long firstNode = relRecord.getFirstNode();
+            long secondNode = relRecord.getSecondNode();
+            if ( relRecord.inUse() )
+            {
+                if ( firstNode == secondNode )
+                {
+                    if ( loop == null )
+                    {
+                        // This is done lazily because loops are probably quite
+                        // rarely encountered
+                        loop = new ArrayList<RelationshipRecord>();
+                        result.put( DirectionWrapper.BOTH, loop );
+                    }
+                    loop.add( relRecord );
+                }
+                else if ( firstNode == nodeId )
+                {
+                    out.add( relRecord );
+                }
+                else if ( secondNode == nodeId )
+                {
+                    in.add( relRecord );
+                }
+            }
+            else
+            {
+                i--;
+            }
+
+            if ( firstNode == nodeId )
+            {
+                position = relRecord.getFirstNextRel();
+            }
+            else if ( secondNode == nodeId )
+            {
+                position = relRecord.getSecondNextRel();
+            }
+            else
+            {
+                throw new InvalidRecordException( "Node[" + nodeId +
+                    "] is neither firstNode[" + firstNode +
+                    "] nor secondNode[" + secondNode + "] for Relationship[" + relRecord.getId() + "]" );
+            }
+            if ( dense && position == Record.NO_NEXT_RELATIONSHIP.intValue() )
+            {
+                position = nextChainHead( nodeId, relRecord );
+            }
+        }
+        return Pair.of( result, chainPosition( position, dense ) );
+    }
+
+    private long nextChainHead( long nodeId, RelationshipRecord last )
+    {
+        NodeRecord node = neoStore.getNodeStore().getRecord( nodeId );
+        if ( !node.isDense() )
+        {
+            // all its relationships have been deleted since loading started
+            return Record.NO_NEXT_RELATIONSHIP.intValue();
+        }
+        return DenseNodeChains.nextChainHead( neoStore.getRelationshipGroupStore(),
+                node.getNextRel(), last.getType(), DenseNodeChains.directionOf( last, nodeId ) );
+    }
+}
@@ -27,9 +27,11 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javax.transaction.xa.XAException;
 import javax.transaction.xa.XAResource;
@@ -41,6 +43,7 @@ import org.neo4j.graphdb.RelationshipType;
 import org.neo4j.helpers.Pair;
 import org.neo4j.kernel.impl.core.LockReleaser;
 import org.neo4j.kernel.impl.core.PropertyIndex;
+import org.neo4j.kernel.impl.nioneo.store.DenseNodeChains;
 import org.neo4j.kernel.impl.nioneo.store.DynamicRecord;
 import org.neo4j.kernel.impl.nioneo.store.InvalidRecordException;
 import org.neo4j.kernel.impl.nioneo.store.NeoStore;
@@ -56,6 +59,7 @@ import org.neo4j.kernel.impl.nioneo.store.PropertyRecord;
 import org.neo4j.kernel.impl.nioneo.store.PropertyStore;
 import org.neo4j.kernel.impl.nioneo.store.PropertyType;
 import org.neo4j.kernel.impl.nioneo.store.Record;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipGroupRecord;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipRecord;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipStore;
 import org.neo4j.kernel.impl.nioneo.store.RelationshipTypeData;
@@ -88,6 +92,8 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
         new HashMap<Integer,RelationshipTypeRecord>();
     private final Map<Integer,PropertyIndexRecord> propIndexRecords =
         new HashMap<Integer,PropertyIndexRecord>();
+    private final Map<Long,RelationshipGroupRecord> groupRecords =
+        new HashMap<Long,RelationshipGroupRecord>();
 
     private final ArrayList<Command.NodeCommand> nodeCommands =
         new ArrayList<Command.NodeCommand>();
@@ -99,6 +105,14 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
         new ArrayList<Command.RelationshipCommand>();
     private final ArrayList<Command.RelationshipTypeCommand> relTypeCommands =
         new ArrayList<Command.RelationshipTypeCommand>();
+    private final ArrayList<Command.RelationshipGroupCommand> groupCommands =
+        new ArrayList<Command.RelationshipGroupCommand>();
+
+    // estimated number of relationships of nodes getting relationships
+    // created in this tx, for converting them to dense nodes
+    private final Map<Long,Integer> degrees = new HashMap<Long,Integer>();
+    // nodes that became or stopped being dense in this tx
+    private final Set<Long> denseChanged = new HashSet<Long>();
 
     private final NeoStore neoStore;
     private boolean committed = false;
@@ -107,6 +121,9 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
     private final LockReleaser lockReleaser;
     private final LockManager lockManager;
     private XaConnection xaConnection;
+    private RecoveryCommandExecutor recoveryExecutor;
+    private RelationshipChainLoader chainLoader;
+    private DenseNodeChains denseChains;
 
     WriteTransaction( int identifier, XaLogicalLog log, NeoStore neoStore,
             LockReleaser lockReleaser, LockManager lockManager )
@@ -115,6 +132,17 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
         this.neoStore = neoStore;
         this.lockReleaser = lockReleaser;
         this.lockManager = lockManager;
+        this.chainLoader = new RelationshipChainLoader( neoStore );
+    }
+
+    void setRecoveryExecutor( RecoveryCommandExecutor recoveryExecutor )
+    {
+        this.recoveryExecutor = recoveryExecutor;
+    }
+
+    void setRelationshipChainLoader( RelationshipChainLoader chainLoader )
+    {
+        this.chainLoader = chainLoader;
     }
 
     @Override
@@ -124,7 +152,7 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
         {
             if ( nodeCommands.size() == 0 && propCommands.size() == 0 &&
                 relCommands.size() == 0 && relTypeCommands.size() == 0 &&
-                propIndexCommands.size() == 0 )
+                propIndexCommands.size() == 0 && groupCommands.size() == 0 )
             {
                 return true;
             }
@@ -132,7 +160,7 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
         }
         if ( nodeRecords.size() == 0 && relRecords.size() == 0 &&
             relTypeRecords.size() == 0 && propertyRecords.size() == 0 &&
-            propIndexRecords.size() == 0 )
+            propIndexRecords.size() == 0 && groupRecords.size() == 0 )
         {
             return true;
         }
@@ -150,7 +178,7 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
     {
         int noOfCommands = relTypeRecords.size() + nodeRecords.size()
                            + relRecords.size() + propIndexRecords.size()
-                           + propertyRecords.size();
+                           + propertyRecords.size() + groupRecords.size();
         List<Command> commands = new ArrayList<Command>( noOfCommands );
         if ( committed )
         {
@@ -204,6 +232,14 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
             commands.add( command );
             // addCommand( command );
         }
+        for ( RelationshipGroupRecord record : groupRecords.values() )
+        {
+            Command.RelationshipGroupCommand command =
+                new Command.RelationshipGroupCommand(
+                    neoStore.getRelationshipGroupStore(), record );
+            groupCommands.add( command );
+            commands.add( command );
+        }
         for ( PropertyIndexRecord record : propIndexRecords.values() )
         {
             Command.PropertyIndexCommand command =
@@ -260,6 +296,10 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
         {
             relTypeCommands.add( (Command.RelationshipTypeCommand) xaCommand );
         }
+        else if ( xaCommand instanceof Command.RelationshipGroupCommand )
+        {
+            groupCommands.add( (Command.RelationshipGroupCommand) xaCommand );
+        }
         else
         {
             throw new IllegalArgumentException( "Unknown command " + xaCommand );
@@ -310,6 +350,14 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
                 }
                 removeRelationshipFromCache( record.getId() );
             }
+            for ( RelationshipGroupRecord record : groupRecords.values() )
+            {
+                if ( freeIds && record.isCreated() )
+                {
+                    neoStore.getRelationshipGroupStore().freeId( record.getId() );
+                }
+                removeNodeFromCache( record.getOwningNode() );
+            }
             for ( PropertyIndexRecord record : propIndexRecords.values() )
             {
                 if ( record.isCreated() )
@@ -372,12 +420,16 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
             relRecords.clear();
             relTypeRecords.clear();
             propIndexRecords.clear();
+            groupRecords.clear();
+            degrees.clear();
+            denseChanged.clear();
 
             nodeCommands.clear();
             propCommands.clear();
             propIndexCommands.clear();
             relCommands.clear();
             relTypeCommands.clear();
+            groupCommands.clear();
         }
     }
 
@@ -470,9 +522,15 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
             java.util.Collections.sort( nodeCommands, sorter );
             java.util.Collections.sort( relCommands, sorter );
             java.util.Collections.sort( propCommands, sorter );
-            executeCreated( propCommands, relCommands, nodeCommands );
-            executeModified( propCommands, relCommands, nodeCommands );
-            executeDeleted( propCommands, relCommands, nodeCommands );
+            java.util.Collections.sort( groupCommands, sorter );
+            executeCreated( propCommands, relCommands, groupCommands, nodeCommands );
+            executeModified( propCommands, relCommands, groupCommands, nodeCommands );
+            executeDeleted( propCommands, relCommands, groupCommands, nodeCommands );
+            for ( long nodeId : denseChanged )
+            {
+                // cached relationship chain positions are no longer valid
+                removeNodeFromCache( nodeId );
+            }
             lockReleaser.commitCows();
             neoStore.setLastCommittedTx( getCommitTxId() );
         }
@@ -483,12 +541,16 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
             relRecords.clear();
             relTypeRecords.clear();
             propIndexRecords.clear();
+            groupRecords.clear();
+            degrees.clear();
+            denseChanged.clear();
 
             nodeCommands.clear();
             propCommands.clear();
             propIndexCommands.clear();
             relCommands.clear();
             relTypeCommands.clear();
+            groupCommands.clear();
         }
     }
 
@@ -545,7 +607,7 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
             java.util.Collections.sort( propCommands, sorter );
             for ( Command.PropertyCommand command : propCommands )
             {
-                command.execute();
+                executeRecovered( command );
                 removePropertyFromCache( command );
             }
             // reltypes
@@ -559,7 +621,7 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
             java.util.Collections.sort( relCommands, sorter );
             for ( Command.RelationshipCommand command : relCommands )
             {
-                command.execute();
+                executeRecovered( command );
                 removeRelationshipFromCache( command.getKey() );
                 if ( true /* doesn't work: command.isRemove(), the log doesn't contain the nodes */)
                 {
@@ -567,11 +629,18 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
                     removeNodeFromCache( command.getSecondNode() );
                 }
             }
+            // relationship groups
+            java.util.Collections.sort( groupCommands, sorter );
+            for ( Command.RelationshipGroupCommand command : groupCommands )
+            {
+                executeRecovered( command );
+                removeNodeFromCache( command.getOwningNode() );
+            }
             // nodes
             java.util.Collections.sort( nodeCommands, sorter );
             for ( Command.NodeCommand command : nodeCommands )
             {
-                command.execute();
+                executeRecovered( command );
                 removeNodeFromCache( command.getKey() );
             }
             neoStore.setRecoveredStatus( true );
@@ -583,7 +652,11 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
             {
                 neoStore.setRecoveredStatus( false );
             }
-            neoStore.getIdGeneratorFactory().updateIdGenerators( neoStore );
+            if ( recoveryExecutor == null || !recoveryExecutor.isActive() )
+            {
+                // else done once all recovered commands have been applied
+                neoStore.getIdGeneratorFactory().updateIdGenerators( neoStore );
+            }
         }
         finally
         {
@@ -592,16 +665,32 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
             relRecords.clear();
             relTypeRecords.clear();
             propIndexRecords.clear();
+            groupRecords.clear();
+            degrees.clear();
+            denseChanged.clear();
 
             nodeCommands.clear();
             propCommands.clear();
             propIndexCommands.clear();
             relCommands.clear();
             relTypeCommands.clear();
+            groupCommands.clear();
         }
     }
 
 
+    private void executeRecovered( Command command )
+    {
+        if ( recoveryExecutor != null )
+        {
+            recoveryExecutor.execute( command );
+        }
+        else
+        {
+            command.execute();
+        }
+    }
+
     private void removePropertyFromCache( PropertyCommand command )
     {
         long nodeId = command.getNodeId();
@@ -622,11 +711,6 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
         return neoStore.getRelationshipTypeStore();
     }
 
-    private int getRelGrabSize()
-    {
-        return neoStore.getRelationshipGrabSize();
-    }
-
     private NodeStore getNodeStore()
     {
         return neoStore.getNodeStore();
@@ -901,13 +985,19 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
         {
             return Record.NO_NEXT_RELATIONSHIP.intValue();
         }
-        return getNodeStore().getRecord( nodeId ).getNextRel();
+        return chainLoader.getRelationshipChainPosition( getNodeStore().getRecord( nodeId ) );
     }
 
     public Pair<Map<DirectionWrapper, Iterable<RelationshipRecord>>, Long> getMoreRelationships( long nodeId,
         long position )
     {
-        return ReadTransaction.getMoreRelationships( nodeId, position, getRelGrabSize(), getRelationshipStore() );
+        return chainLoader.getMoreRelationships( nodeId, position );
+    }
+
+    public Map<DirectionWrapper, Iterable<RelationshipRecord>> getRelationshipsOfType( long nodeId,
+        int type )
+    {
+        return chainLoader.getRelationshipsOfType( nodeId, type );
     }
 
     private void updateNodes( RelationshipRecord rel )
@@ -920,9 +1010,17 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
                 firstNode = getNodeStore().getRecord( rel.getFirstNode() );
                 addNodeRecord( firstNode );
             }
-            firstNode.setNextRel( rel.getFirstNextRel() );
+            if ( firstNode.isDense() )
+            {
+                disconnectHead( firstNode, rel );
+            }
+            else
+            {
+                firstNode.setNextRel( rel.getFirstNextRel() );
+            }
         }
-        if ( rel.getSecondPrevRel() == Record.NO_PREV_RELATIONSHIP.intValue() )
+        if ( rel.getSecondPrevRel() == Record.NO_PREV_RELATIONSHIP.intValue() &&
+            rel.getSecondNode() != rel.getFirstNode() )
         {
             NodeRecord secondNode = getNodeRecord( rel.getSecondNode() );
             if ( secondNode == null )
@@ -930,7 +1028,23 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
                 secondNode = getNodeStore().getRecord( rel.getSecondNode() );
                 addNodeRecord( secondNode );
             }
-            secondNode.setNextRel( rel.getSecondNextRel() );
+            if ( secondNode.isDense() )
+            {
+                disconnectHead( secondNode, rel );
+            }
+            else
+            {
+                secondNode.setNextRel( rel.getSecondNextRel() );
+            }
+        }
+    }
+
+    private void disconnectHead( NodeRecord node, RelationshipRecord rel )
+    {
+        getDenseNodeChains().disconnectHead( node, rel );
+        if ( !node.isDense() )
+        {
+            denseChanged.add( node.getId() );
         }
     }
 
@@ -1442,6 +1556,20 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
     private void connectRelationship( NodeRecord firstNode,
         NodeRecord secondNode, RelationshipRecord rel )
     {
+        convertIfDense( firstNode );
+        if ( secondNode.getId() != firstNode.getId() )
+        {
+            convertIfDense( secondNode );
+        }
+        if ( firstNode.isDense() || secondNode.isDense() )
+        {
+            connectRelationship( firstNode, rel );
+            if ( secondNode.getId() != firstNode.getId() )
+            {
+                connectRelationship( secondNode, rel );
+            }
+            return;
+        }
         assert firstNode.getNextRel() != rel.getId();
         assert secondNode.getNextRel() != rel.getId();
         rel.setFirstNextRel( firstNode.getNextRel() );
@@ -1452,6 +1580,106 @@ public class WriteTransaction extends XaTransaction implements NeoStoreTransacti
         secondNode.setNextRel( rel.getId() );
     }
 
+    private void connectRelationship( NodeRecord node, RelationshipRecord rel )
+    {
+        if ( node.isDense() )
+        {
+            getDenseNodeChains().connect( node, rel );
+            return;
+        }
+        assert node.getNextRel() != rel.getId();
+        DenseNodeChains.setNextRel( rel, node.getId(), node.getNextRel() );
+        connect( node, rel );
+        node.setNextRel( rel.getId() );
+    }
+
+    /**
+     * Converts the node to a dense node if it, with the relationship about to
+     * be created, gets more relationships than dense_node_threshold.
+     */
+    private void convertIfDense( NodeRecord node )
+    {
+        int threshold = neoStore.getDenseNodeThreshold();
+        if ( threshold < 0 || node.isDense() )
+        {
+            return;
+        }
+        Integer degree = degrees.get( node.getId() );
+        int count = degree != null ? degree :
+            getDenseNodeChains().countRelationships( node, threshold );
+        if ( count >= threshold )
+        {
+            getDenseNodeChains().convert( node );
+            degrees.remove( node.getId() );
+            if ( node.isDense() )
+            {
+                denseChanged.add( node.getId() );
+            }
+        }
+        else
+        {
+            degrees.put( node.getId(), count + 1 );
+        }
+    }
+
+    private DenseNodeChains getDenseNodeChains()
+    {
+        if ( denseChains == null )
+        {
+            denseChains = new DenseNodeChains( new TransactionRecords() );
+        }
+        return denseChains;
+    }
+
+    /**
+     * Gives {@link DenseNodeChains} the records as seen by this transaction,
+     * locking relationships before they are changed.
+     */
+    private class TransactionRecords implements DenseNodeChains.Records
+    {
+        public RelationshipRecord getRelationship( long id, boolean forChange )
+        {
+            if ( forChange )
+            {
+                getWriteLock( new LockableRelationship( id ) );
+            }
+            RelationshipRecord record = getRelationshipRecord( id );
+            if ( record == null )
+            {
+                record = getRelationshipStore().getRecord( id );
+                if ( forChange )
+                {
+                    addRelationshipRecord( record );
+                }
+            }
+            return record;
+        }
+
+        public RelationshipGroupRecord getGroup( long id, boolean forChange )
+        {
+            RelationshipGroupRecord record = groupRecords.get( id );
+            if ( record == null )
+            {
+                record = neoStore.getRelationshipGroupStore().getRecord( id );
+                if ( forChange )
+                {
+                    groupRecords.put( id, record );
+                }
+            }
+            return record;
+        }
+
+        public RelationshipGroupRecord createGroup( int type, long owningNode )
+        {
+            long id = neoStore.getRelationshipGroupStore().nextId();
+            RelationshipGroupRecord record = new RelationshipGroupRecord( id, type, owningNode );
+            record.setInUse( true );
+            record.setCreated();
+            groupRecords.put( id, record );
+            return record;
+        }
+    }
+
     private void connect( NodeRecord node, RelationshipRecord rel )
     {
         if ( node.getNextRel() != Record.NO_NEXT_RELATIONSHIP.intValue() )
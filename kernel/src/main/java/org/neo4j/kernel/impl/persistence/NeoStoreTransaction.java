@@ -268,6 +268,19 @@ public interface NeoStoreTransaction
     public Pair<Map<DirectionWrapper, Iterable<RelationshipRecord>>, Long> getMoreRelationships(
             long nodeId, long position );
 
+    /**
+     * Loads all relationships of the given type of a node, if the node is
+     * stored as a dense node, with its relationships grouped by type.
+     *
+     * @param nodeId The id of the node.
+     * @param type The id of the relationship type.
+     * @return the relationships of the given type per direction, or
+     * <code>null</code> if the node isn't dense and the relationships can
+     * only be loaded with {@link #getMoreRelationships(long, long)}.
+     */
+    public Map<DirectionWrapper, Iterable<RelationshipRecord>> getRelationshipsOfType(
+            long nodeId, int type );
+
     /**
      * Returns an array view of the ids of the nodes that have been created in
      * this transaction.
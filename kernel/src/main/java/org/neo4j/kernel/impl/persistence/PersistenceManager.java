@@ -108,6 +108,12 @@ public class PersistenceManager
         return getReadOnlyResource().getMoreRelationships( nodeId, position );
     }
 
+    public Map<DirectionWrapper, Iterable<RelationshipRecord>> getRelationshipsOfType(
+            long nodeId, int type )
+    {
+        return getReadOnlyResource().getRelationshipsOfType( nodeId, type );
+    }
+
     public ArrayMap<Integer,PropertyData> loadNodeProperties( long nodeId,
             boolean light )
     {
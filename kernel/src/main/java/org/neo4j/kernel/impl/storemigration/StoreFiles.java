@@ -40,6 +40,14 @@ public class StoreFiles
             "neostore.relationshiptypestore.db.names",
     };
 
+    /**
+     * Store files that older stores may not have, they're created when the
+     * store is opened.
+     */
+    public static final String[] optionalFileNames = {
+            "neostore.relationshipgroupstore.db",
+    };
+
     /**
      * Moves a database's store files from one directory
      * to another. Since it just renames files (the standard way of moving with
@@ -58,6 +66,14 @@ public class StoreFiles
             moveFile( fileName, fromDirectory, toDirectory );
             moveFile( fileName + ".id", fromDirectory, toDirectory );
         }
+        for ( String fileName : optionalFileNames )
+        {
+            if ( new File( fromDirectory, fileName ).exists() )
+            {
+                moveFile( fileName, fromDirectory, toDirectory );
+                moveFile( fileName + ".id", fromDirectory, toDirectory );
+            }
+        }
     }
 
     /**
@@ -27,6 +27,7 @@ import java.util.Collection;
 import java.util.List;
 
 import org.neo4j.helpers.Pair;
+import org.neo4j.kernel.impl.nioneo.store.DenseNodeChains;
 import org.neo4j.kernel.impl.nioneo.store.DynamicRecord;
 import org.neo4j.kernel.impl.nioneo.store.NeoStore;
 import org.neo4j.kernel.impl.nioneo.store.NodeRecord;
@@ -87,6 +88,16 @@ public class StoreMigrator
             legacyStore.getPropertyStoreReader().close();
             migrateRelationshipTypes( neoStore.getRelationshipTypeStore() );
             legacyStore.close();
+            convertDenseNodes( neoStore );
+        }
+
+        private void convertDenseNodes( NeoStore neoStore )
+        {
+            int threshold = neoStore.getDenseNodeThreshold();
+            if ( threshold >= 0 )
+            {
+                DenseNodeChains.convertDenseNodes( neoStore, threshold );
+            }
         }
 
         private void migrateNeoStore( NeoStore neoStore )
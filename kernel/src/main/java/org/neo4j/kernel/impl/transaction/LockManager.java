@@ -50,7 +50,7 @@ public class LockManager
     private final Map<Object,RWLock> resourceLockMap =
         new HashMap<Object,RWLock>();
 
-    private final RagManager ragManager;
+    final RagManager ragManager;
 
     public LockManager( TransactionManager tm )
     {
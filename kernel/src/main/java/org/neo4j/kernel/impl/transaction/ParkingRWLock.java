@@ -0,0 +1,389 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.transaction;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.ListIterator;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.transaction.Transaction;
+
+import org.neo4j.kernel.DeadlockDetectedException;
+import org.neo4j.kernel.impl.util.ArrayMap;
+
+/**
+ * A read/write lock with the same semantics as {@link RWLock}, deadlock
+ * detection through the {@link RagManager} included, but where waiting
+ * transactions are parked and unparked using {@link LockSupport} instead of
+ * waiting on the monitor and being woken up with {@link Thread#interrupt()}.
+ * That leaves the interrupt status of threads alone and lets a waiting thread
+ * sleep without holding, or competing for, the monitor of the lock.
+ * <p>
+ * A waiting thread is only woken up by a releasing transaction if it may be
+ * able to acquire the lock, which is decided the same way as in
+ * {@link RWLock}. When woken up it checks again and goes back to waiting if
+ * it still can't get the lock.
+ */
+class ParkingRWLock
+{
+    private int writeCount = 0; // total writeCount
+    private int readCount = 0; // total readCount
+    private int marked = 0; // synch helper in StripedLockManager
+
+    private final Object resource; // the resource for this lock
+
+    private final LinkedList<WaitElement> waitingThreadList =
+        new LinkedList<WaitElement>();
+
+    private final ArrayMap<Transaction,TxLockElement> txLockElementMap =
+        new ArrayMap<Transaction,TxLockElement>( 5, false, true );
+
+    private final RagManager ragManager;
+
+    ParkingRWLock( Object resource, RagManager ragManager )
+    {
+        this.resource = resource;
+        this.ragManager = ragManager;
+    }
+
+    // keeps track of a transactions read and write lock count on this lock
+    private static class TxLockElement
+    {
+        final Transaction tx;
+        int readCount = 0;
+        int writeCount = 0;
+
+        TxLockElement( Transaction tx )
+        {
+            this.tx = tx;
+        }
+    }
+
+    // keeps track of what type of lock a thread is waiting for
+    private static class WaitElement
+    {
+        final TxLockElement element;
+        final LockType lockType;
+        final Thread waitingThread;
+        volatile boolean woken;
+
+        WaitElement( TxLockElement element, LockType lockType, Thread thread )
+        {
+            this.element = element;
+            this.lockType = lockType;
+            this.waitingThread = thread;
+        }
+
+        void wake()
+        {
+            woken = true;
+            LockSupport.unpark( waitingThread );
+        }
+    }
+
+    synchronized void mark()
+    {
+        this.marked++;
+    }
+
+    synchronized boolean isMarked()
+    {
+        return marked > 0;
+    }
+
+    /**
+     * Acquires a read lock for the current transaction, parking the thread
+     * for as long as another transaction holds the write lock.
+     *
+     * @throws DeadlockDetectedException
+     *             if a deadlock is detected
+     */
+    void acquireReadLock() throws DeadlockDetectedException
+    {
+        acquire( LockType.READ );
+    }
+
+    /**
+     * Acquires the write lock for the current transaction, parking the
+     * thread for as long as other transactions hold read or write locks.
+     *
+     * @throws DeadlockDetectedException
+     *             if a deadlock is detected
+     */
+    void acquireWriteLock() throws DeadlockDetectedException
+    {
+        acquire( LockType.WRITE );
+    }
+
+    private void acquire( LockType lockType ) throws DeadlockDetectedException
+    {
+        Transaction tx = ragManager.getCurrentTransaction();
+        if ( tx == null )
+        {
+            tx = new RWLock.PlaceboTransaction();
+        }
+        boolean waiting = false;
+        boolean interrupted = false;
+        try
+        {
+            while ( true )
+            {
+                WaitElement we;
+                synchronized ( this )
+                {
+                    if ( waiting )
+                    {
+                        ragManager.stopWaitOn( this, tx );
+                        waiting = false;
+                    }
+                    TxLockElement tle = txLockElementMap.get( tx );
+                    if ( tle == null )
+                    {
+                        tle = new TxLockElement( tx );
+                    }
+                    if ( canAcquire( tle, lockType ) )
+                    {
+                        if ( tle.readCount == 0 && tle.writeCount == 0 )
+                        {
+                            ragManager.lockAcquired( this, tx );
+                        }
+                        if ( lockType == LockType.READ )
+                        {
+                            readCount++;
+                            tle.readCount++;
+                        }
+                        else
+                        {
+                            writeCount++;
+                            tle.writeCount++;
+                        }
+                        txLockElementMap.put( tx, tle );
+                        return;
+                    }
+                    ragManager.checkWaitOn( this, tx );
+                    waiting = true;
+                    we = new WaitElement( tle, lockType, Thread.currentThread() );
+                    waitingThreadList.addFirst( we );
+                }
+                // a wake up between leaving the monitor and parking leaves
+                // a permit, so the park will return right away. So does a
+                // pending interrupt, every time, so it's cleared while parked
+                // and set again when done.
+                while ( !we.woken )
+                {
+                    if ( Thread.interrupted() )
+                    {
+                        interrupted = true;
+                    }
+                    LockSupport.park( this );
+                }
+            }
+        }
+        finally
+        {
+            synchronized ( this )
+            {
+                // if deadlocked, remove marking so lock is removed when empty
+                marked--;
+            }
+            if ( interrupted )
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private boolean canAcquire( TxLockElement tle, LockType lockType )
+    {
+        if ( lockType == LockType.READ )
+        {
+            return writeCount <= tle.writeCount;
+        }
+        return writeCount <= tle.writeCount && readCount <= tle.readCount;
+    }
+
+    /**
+     * Releases the read lock held by the provided transaction, or the current
+     * transaction if it is null. Waiting transactions that may be able to
+     * acquire the lock are unparked.
+     */
+    synchronized void releaseReadLock( Transaction tx ) throws LockNotFoundException
+    {
+        TxLockElement tle = getLockElement( tx );
+        if ( tle.readCount == 0 )
+        {
+            throw new LockNotFoundException( "" + tle.tx + " don't have readLock" );
+        }
+
+        readCount--;
+        tle.readCount--;
+        released( tle );
+        if ( waitingThreadList.size() > 0 )
+        {
+            WaitElement we = waitingThreadList.getLast();
+            if ( we.lockType == LockType.WRITE )
+            {
+                // if readCount > 0 we either have to find a waiting read lock
+                // in the queue or a waiting write lock that has all read
+                // locks, if none of these are found there are other
+                // transactions that will release their read locks later on
+                ListIterator<WaitElement> listItr =
+                    waitingThreadList.listIterator( waitingThreadList.size() );
+                while ( listItr.hasPrevious() )
+                {
+                    we = listItr.previous();
+                    if ( we.lockType == LockType.WRITE
+                        && readCount == we.element.readCount )
+                    {
+                        // found a write lock with all read locks
+                        listItr.remove();
+                        we.wake();
+                        break;
+                    }
+                    else if ( we.lockType == LockType.READ )
+                    {
+                        // found a read lock, let it do the job...
+                        listItr.remove();
+                        we.wake();
+                    }
+                }
+            }
+            else if ( writeCount == 0 )
+            {
+                // some tx may have had the write lock and released a read lock
+                waitingThreadList.removeLast();
+                we.wake();
+            }
+        }
+    }
+
+    /**
+     * Releases the write lock held by the provided transaction, or the
+     * current transaction if it is null. If the write count goes down to zero
+     * waiting transactions are unparked, up to and including the first one
+     * waiting for a write lock.
+     */
+    synchronized void releaseWriteLock( Transaction tx ) throws LockNotFoundException
+    {
+        TxLockElement tle = getLockElement( tx );
+        if ( tle.writeCount == 0 )
+        {
+            throw new LockNotFoundException( "" + tle.tx + " don't have writeLock" );
+        }
+
+        writeCount--;
+        tle.writeCount--;
+        released( tle );
+        if ( writeCount == 0 )
+        {
+            while ( waitingThreadList.size() > 0 )
+            {
+                WaitElement we = waitingThreadList.removeLast();
+                we.wake();
+                if ( we.lockType == LockType.WRITE )
+                {
+                    break;
+                }
+            }
+        }
+    }
+
+    private TxLockElement getLockElement( Transaction tx ) throws LockNotFoundException
+    {
+        if ( tx == null && (tx = ragManager.getCurrentTransaction()) == null )
+        {
+            tx = new RWLock.PlaceboTransaction();
+        }
+        TxLockElement tle = txLockElementMap.get( tx );
+        if ( tle == null )
+        {
+            throw new LockNotFoundException(
+                "No transaction lock element found for " + tx );
+        }
+        return tle;
+    }
+
+    private void released( TxLockElement tle )
+    {
+        if ( tle.readCount == 0 && tle.writeCount == 0 )
+        {
+            if ( !this.isMarked() )
+            {
+                txLockElementMap.remove( tle.tx );
+            }
+            ragManager.lockReleased( this, tle.tx );
+        }
+    }
+
+    synchronized int getWriteCount()
+    {
+        return writeCount;
+    }
+
+    synchronized int getReadCount()
+    {
+        return readCount;
+    }
+
+    synchronized int getWaitingThreadsCount()
+    {
+        return waitingThreadList.size();
+    }
+
+    synchronized void dumpStack()
+    {
+        System.out.println( "Total lock count: readCount=" + readCount
+            + " writeCount=" + writeCount + " for " + resource );
+
+        System.out.println( "Waiting list:" );
+        Iterator<WaitElement> wElements = waitingThreadList.iterator();
+        while ( wElements.hasNext() )
+        {
+            WaitElement we = wElements.next();
+            System.out.print( "[" + we.waitingThread + "("
+                + we.element.readCount + "r," + we.element.writeCount + "w),"
+                + we.lockType + "]" );
+            if ( wElements.hasNext() )
+            {
+                System.out.print( "," );
+            }
+            else
+            {
+                System.out.println();
+            }
+        }
+
+        System.out.println( "Locking transactions:" );
+        Iterator<TxLockElement> lElements = txLockElementMap.values()
+            .iterator();
+        while ( lElements.hasNext() )
+        {
+            TxLockElement tle = lElements.next();
+            System.out.println( "" + tle.tx + "(" + tle.readCount + "r,"
+                + tle.writeCount + "w)" );
+        }
+    }
+
+    public String toString()
+    {
+        return "ParkingRWLock[" + resource + "]";
+    }
+}
@@ -0,0 +1,213 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.transaction;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.transaction.Transaction;
+import javax.transaction.TransactionManager;
+
+import org.neo4j.kernel.DeadlockDetectedException;
+
+/**
+ * A {@link LockManager} that spreads the resource to lock mapping over a
+ * number of stripes, each guarded by its own monitor, instead of keeping all
+ * of them in one map guarded by a single monitor. Transactions locking
+ * different resources will then seldom compete for the same monitor.
+ * <p>
+ * The locks are {@link ParkingRWLock}s, where waiting transactions are
+ * parked rather than woken up by interrupts. Deadlock detection is still
+ * done by the {@link RagManager}, same as for {@link LockManager}.
+ */
+public class StripedLockManager extends LockManager
+{
+    private final Map<Object,ParkingRWLock>[] stripes;
+
+    public StripedLockManager( TransactionManager tm )
+    {
+        this( tm, Runtime.getRuntime().availableProcessors() * 4 );
+    }
+
+    @SuppressWarnings( "unchecked" )
+    public StripedLockManager( TransactionManager tm, int stripeCount )
+    {
+        super( tm );
+        if ( stripeCount < 1 )
+        {
+            throw new IllegalArgumentException( "stripeCount=" + stripeCount );
+        }
+        stripes = new Map[Integer.highestOneBit( stripeCount * 2 - 1 )];
+        for ( int i = 0; i < stripes.length; i++ )
+        {
+            stripes[i] = new HashMap<Object,ParkingRWLock>();
+        }
+    }
+
+    private Map<Object,ParkingRWLock> stripeFor( Object resource )
+    {
+        int hash = resource.hashCode();
+        // spread the bits, since resources often have sequential hash codes
+        hash ^= (hash >>> 20) ^ (hash >>> 12);
+        hash ^= (hash >>> 7) ^ (hash >>> 4);
+        return stripes[hash & (stripes.length - 1)];
+    }
+
+    private ParkingRWLock markedLockFor( Object resource )
+    {
+        if ( resource == null )
+        {
+            throw new IllegalResourceException( "Null parameter" );
+        }
+        Map<Object,ParkingRWLock> stripe = stripeFor( resource );
+        synchronized ( stripe )
+        {
+            ParkingRWLock lock = stripe.get( resource );
+            if ( lock == null )
+            {
+                lock = new ParkingRWLock( resource, ragManager );
+                stripe.put( resource, lock );
+            }
+            lock.mark();
+            return lock;
+        }
+    }
+
+    @Override
+    public void getReadLock( Object resource )
+        throws DeadlockDetectedException, IllegalResourceException
+    {
+        markedLockFor( resource ).acquireReadLock();
+    }
+
+    @Override
+    public void getWriteLock( Object resource )
+        throws DeadlockDetectedException, IllegalResourceException
+    {
+        markedLockFor( resource ).acquireWriteLock();
+    }
+
+    @Override
+    public void releaseReadLock( Object resource, Transaction tx )
+        throws LockNotFoundException, IllegalResourceException
+    {
+        if ( resource == null )
+        {
+            throw new IllegalResourceException( "Null parameter" );
+        }
+        Map<Object,ParkingRWLock> stripe = stripeFor( resource );
+        synchronized ( stripe )
+        {
+            ParkingRWLock lock = stripe.get( resource );
+            if ( lock == null )
+            {
+                throw new LockNotFoundException( "Lock not found for: "
+                    + resource );
+            }
+            if ( !lock.isMarked() && lock.getReadCount() == 1 &&
+                lock.getWriteCount() == 0 &&
+                lock.getWaitingThreadsCount() == 0 )
+            {
+                stripe.remove( resource );
+            }
+            lock.releaseReadLock( tx );
+        }
+    }
+
+    @Override
+    public void releaseWriteLock( Object resource, Transaction tx )
+        throws LockNotFoundException, IllegalResourceException
+    {
+        if ( resource == null )
+        {
+            throw new IllegalResourceException( "Null parameter" );
+        }
+        Map<Object,ParkingRWLock> stripe = stripeFor( resource );
+        synchronized ( stripe )
+        {
+            ParkingRWLock lock = stripe.get( resource );
+            if ( lock == null )
+            {
+                throw new LockNotFoundException( "Lock not found for: "
+                    + resource );
+            }
+            if ( !lock.isMarked() && lock.getReadCount() == 0 &&
+                lock.getWriteCount() == 1 &&
+                lock.getWaitingThreadsCount() == 0 )
+            {
+                stripe.remove( resource );
+            }
+            lock.releaseWriteLock( tx );
+        }
+    }
+
+    @Override
+    public void dumpLocksOnResource( Object resource )
+    {
+        ParkingRWLock lock = null;
+        Map<Object,ParkingRWLock> stripe = stripeFor( resource );
+        synchronized ( stripe )
+        {
+            lock = stripe.get( resource );
+        }
+        if ( lock == null )
+        {
+            System.out.println( "No locks on " + resource );
+            return;
+        }
+        lock.dumpStack();
+    }
+
+    @Override
+    public void dumpAllLocks()
+    {
+        int emptyLockCount = 0;
+        for ( Map<Object,ParkingRWLock> stripe : stripes )
+        {
+            synchronized ( stripe )
+            {
+                for ( ParkingRWLock lock : stripe.values() )
+                {
+                    if ( lock.getWriteCount() > 0 || lock.getReadCount() > 0 )
+                    {
+                        lock.dumpStack();
+                    }
+                    else
+                    {
+                        if ( lock.getWaitingThreadsCount() > 0 )
+                        {
+                            lock.dumpStack();
+                        }
+                        emptyLockCount++;
+                    }
+                }
+            }
+        }
+        if ( emptyLockCount > 0 )
+        {
+            System.out.println( "There are " + emptyLockCount
+                + " empty locks" );
+        }
+        else
+        {
+            System.out.println( "There are no empty locks" );
+        }
+    }
+}
@@ -36,6 +36,7 @@ import javax.transaction.xa.Xid;
 
 import org.neo4j.helpers.UTF8;
 import org.neo4j.kernel.impl.transaction.xaframework.DirectMappedLogBuffer;
+import org.neo4j.kernel.impl.transaction.xaframework.GroupCommit;
 import org.neo4j.kernel.impl.transaction.xaframework.LogBuffer;
 
 // TODO: fixed sized logs (pre-initialize them)
@@ -53,6 +54,7 @@ public class TxLog
     private String name = null;
     private LogBuffer logBuffer;
     private int recordCount = 0;
+    private final GroupCommit groupCommit;
 
     public static final byte TX_START = 1;
     public static final byte BRANCH_ADD = 2;
@@ -70,6 +72,23 @@ public class TxLog
      *             If unable to open file
      */
     public TxLog( String fileName ) throws IOException
+    {
+        this( fileName, null );
+    }
+
+    /**
+     * Initializes a transaction log using <CODE>filename</CODE>, letting
+     * concurrent {@link #markAsCommitting(byte[])} share forces if
+     * <CODE>groupCommit</CODE> isn't null.
+     *
+     * @param fileName
+     *            Filename of file to use
+     * @param groupCommit
+     *            The group commit to use, or null to force for each commit
+     * @throws IOException
+     *             If unable to open file
+     */
+    public TxLog( String fileName, GroupCommit groupCommit ) throws IOException
     {
         if ( fileName == null )
         {
@@ -79,6 +98,7 @@ public class TxLog
         fileChannel.position( fileChannel.size() );
         logBuffer = new DirectMappedLogBuffer( fileChannel );
         this.name = fileName;
+        this.groupCommit = groupCommit;
     }
 
     /**
@@ -101,18 +121,34 @@ public class TxLog
     /**
      * Closes the file representing the transaction log.
      */
-    public void close() throws IOException
+    public synchronized void close() throws IOException
     {
-        logBuffer.force();
+        force();
         logBuffer.getFileChannel().close();
     }
 
     /**
      * Forces the log file (with metadata). Useful when switching log.
      */
-    public void force() throws IOException
+    public synchronized void force() throws IOException
     {
-        logBuffer.force();
+        if ( groupCommit != null )
+        {
+            groupCommit.forceAll( logBuffer );
+        }
+        else
+        {
+            logBuffer.force();
+        }
+    }
+
+    /**
+     * @return the group commit used by this log, with statistics about the
+     *         forces done, or null if group commit isn't used.
+     */
+    public GroupCommit getGroupCommit()
+    {
+        return groupCommit;
     }
 
     /**
@@ -183,13 +219,29 @@ public class TxLog
      */
     // mark_committing(byte)|gid_length(byte)|globalId
     // forces
-    public synchronized void markAsCommitting( byte globalId[] )
+    public void markAsCommitting( byte globalId[] )
         throws IOException
     {
         assertNotNull( globalId, "global id" );
-        logBuffer.put( MARK_COMMIT ).put( (byte) globalId.length ).put( globalId );
-        logBuffer.force();
-        recordCount++;
+        long ticket;
+        FileChannel channel;
+        synchronized ( this )
+        {
+            logBuffer.put( MARK_COMMIT ).put( (byte) globalId.length ).put( globalId );
+            if ( groupCommit == null )
+            {
+                logBuffer.force();
+                recordCount++;
+                return;
+            }
+            logBuffer.writeOut();
+            recordCount++;
+            ticket = groupCommit.appended();
+            channel = logBuffer.getFileChannel();
+        }
+        // wait for the force without holding the monitor, so that other
+        // committing transactions can write their records and share it
+        groupCommit.awaitForced( ticket, channel );
     }
 
     /**
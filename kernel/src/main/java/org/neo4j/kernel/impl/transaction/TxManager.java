@@ -55,6 +55,7 @@ import org.neo4j.helpers.Exceptions;
 import org.neo4j.helpers.UTF8;
 import org.neo4j.helpers.collection.MapUtil;
 import org.neo4j.kernel.impl.core.KernelPanicEventGenerator;
+import org.neo4j.kernel.impl.transaction.xaframework.GroupCommit;
 import org.neo4j.kernel.impl.transaction.xaframework.XaDataSource;
 import org.neo4j.kernel.impl.transaction.xaframework.XaResource;
 import org.neo4j.kernel.impl.util.ArrayMap;
@@ -80,6 +81,7 @@ public class TxManager extends AbstractTransactionManager
     private int eventIdentifierCounter = 0;
 
     private TxLog txLog = null;
+    private GroupCommit groupCommit = null;
     private XaDataSourceManager xaDsManager = null;
     private boolean tmOk = false;
     private boolean blocked = false;
@@ -103,6 +105,18 @@ public class TxManager extends AbstractTransactionManager
         this.finishHook = finishHook;
     }
 
+    /**
+     * Makes transactions committing at the same time share forces of the
+     * transaction log. Must be set before {@link #init(XaDataSourceManager)}.
+     *
+     * @param groupCommit the group commit to use, or null to force the log
+     *            for each commit
+     */
+    public void setGroupCommit( GroupCommit groupCommit )
+    {
+        this.groupCommit = groupCommit;
+    }
+
     synchronized int getNextEventIdentifier()
     {
         return eventIdentifierCounter++;
@@ -125,6 +139,10 @@ public class TxManager extends AbstractTransactionManager
     {
         if ( txLog != null )
         {
+            if ( groupCommit != null )
+            {
+                msgLog.logMessage( "TM closing log with " + groupCommit, true );
+            }
             try
             {
                 txLog.close();
@@ -165,7 +183,7 @@ public class TxManager extends AbstractTransactionManager
                                     "Unable to start TM, " + "active tx log file[" +
                                             currentTxLog + "] not found."));
                 }
-                txLog = new TxLog( currentTxLog );
+                txLog = new TxLog( currentTxLog, groupCommit );
                 msgLog.logMessage( "TM opening log: " + currentTxLog, true );
             }
             else
@@ -187,7 +205,7 @@ public class TxManager extends AbstractTransactionManager
                 FileChannel fc = new RandomAccessFile( logSwitcherFileName,
                     "rw" ).getChannel();
                 fc.write( buf );
-                txLog = new TxLog( txLogDir + separator + txLog1FileName );
+                txLog = new TxLog( txLogDir + separator + txLog1FileName, groupCommit );
                 msgLog.logMessage( "TM new log: " + txLog1FileName, true );
                 fc.force( true );
                 fc.close();
@@ -0,0 +1,319 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.transaction.xaframework;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.neo4j.kernel.Config;
+
+/**
+ * Lets concurrently committing transactions share one force of a log file
+ * instead of forcing it once each.
+ * <p>
+ * The log writes the commit record and {@link LogBuffer#writeOut() writes
+ * out} its buffer while holding its monitor, as usual, and then asks for a
+ * ticket with {@link #appended()}. Without holding the monitor of the log the
+ * committer then waits for its ticket to be forced in
+ * {@link #awaitForced(long, FileChannel)}. The first committer to get there
+ * becomes the leader and forces the file on behalf of all committers that
+ * have written out their records by then, while the others wait for it to
+ * finish. Optionally the leader waits a little while for more committers to
+ * join the batch before forcing. No committer is let through before a force
+ * that covers its record has completed, so durability is the same as when
+ * each transaction forces the log itself.
+ * <p>
+ * The log must call {@link #forceAll(LogBuffer)} instead of forcing its buffer
+ * directly before it closes or switches file, with its monitor held.
+ */
+public class GroupCommit
+{
+    private final long maxWaitNanos;
+    private final int maxBatchSize;
+
+    private long appended;
+    private long forced;
+    private boolean forcing;
+
+    private long forceCount;
+    private long committedCount;
+    private long largestBatch;
+    private long totalWaitNanos;
+
+    /**
+     * @param maxWaitMillis the longest time the leader waits for more
+     *            committers to join the batch before forcing, 0 to force
+     *            right away
+     * @param maxBatchSize the leader stops waiting for more committers when
+     *            this many are waiting for the force
+     */
+    public GroupCommit( long maxWaitMillis, int maxBatchSize )
+    {
+        if ( maxWaitMillis < 0 || maxBatchSize < 1 )
+        {
+            throw new IllegalArgumentException( "maxWaitMillis=" + maxWaitMillis
+                    + ", maxBatchSize=" + maxBatchSize );
+        }
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos( maxWaitMillis );
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Creates a group commit as configured by {@link Config#GROUP_COMMIT},
+     * {@link Config#GROUP_COMMIT_MAX_WAIT} and
+     * {@link Config#GROUP_COMMIT_MAX_BATCH_SIZE}.
+     *
+     * @return the configured group commit, or <code>null</code> if group
+     *         commit isn't enabled.
+     */
+    public static GroupCommit fromConfig( Map<?,?> config )
+    {
+        if ( config == null || !Boolean.parseBoolean( (String) config.get( Config.GROUP_COMMIT ) ) )
+        {
+            return null;
+        }
+        return new GroupCommit( parse( config, Config.GROUP_COMMIT_MAX_WAIT, 0 ),
+                (int) parse( config, Config.GROUP_COMMIT_MAX_BATCH_SIZE, 100 ) );
+    }
+
+    private static long parse( Map<?,?> config, String key, long defaultValue )
+    {
+        String value = (String) config.get( key );
+        try
+        {
+            return value != null ? Long.parseLong( value ) : defaultValue;
+        }
+        catch ( NumberFormatException e )
+        {
+            throw new IllegalArgumentException( "Invalid value '" + value + "' for " + key, e );
+        }
+    }
+
+    /**
+     * Registers a record that has been written out to the log file, but not
+     * forced. Must be called with the monitor of the log held.
+     *
+     * @return the ticket to wait for with {@link #awaitForced(long, FileChannel)}
+     */
+    public synchronized long appended()
+    {
+        long ticket = ++appended;
+        if ( forcing && ticket - forced >= maxBatchSize )
+        {
+            // wake up a leader waiting for the batch to fill up
+            notifyAll();
+        }
+        return ticket;
+    }
+
+    /**
+     * Waits until the record with the given ticket has been forced to disk,
+     * forcing <code>channel</code> if no other committer is doing it already.
+     * Must not be called with the monitor of the log held.
+     *
+     * @throws IOException if the force failed
+     */
+    public void awaitForced( long ticket, FileChannel channel ) throws IOException
+    {
+        long startTime = System.nanoTime();
+        long target;
+        boolean interrupted = false;
+        synchronized ( this )
+        {
+            try
+            {
+                while ( forced < ticket && forcing )
+                {
+                    interrupted |= waitUninterruptibly( 0 );
+                }
+                if ( forced >= ticket )
+                {
+                    totalWaitNanos += System.nanoTime() - startTime;
+                    restoreInterrupt( interrupted );
+                    return;
+                }
+                forcing = true;
+                // this committer is the leader, let more join if configured to
+                long deadline = startTime + maxWaitNanos;
+                long remaining;
+                while ( appended - forced < maxBatchSize
+                        && (remaining = deadline - System.nanoTime()) > 0 )
+                {
+                    interrupted |= waitUninterruptibly( remaining );
+                }
+                target = appended;
+            }
+            catch ( RuntimeException e )
+            {
+                forcing = false;
+                notifyAll();
+                restoreInterrupt( interrupted );
+                throw e;
+            }
+        }
+
+        boolean success = false;
+        try
+        {
+            channel.force( false );
+            success = true;
+        }
+        finally
+        {
+            synchronized ( this )
+            {
+                if ( success )
+                {
+                    batchForced( target );
+                }
+                forcing = false;
+                totalWaitNanos += System.nanoTime() - startTime;
+                // on failure the others will try to force themselves
+                notifyAll();
+            }
+            // not until after the force, since an interrupted thread
+            // doing I/O on the channel would close it
+            restoreInterrupt( interrupted );
+        }
+    }
+
+    /**
+     * Forces <code>buffer</code>, and with it all records appended so far,
+     * waiting for any ongoing force by a leader to complete first. Must be
+     * called with the monitor of the log held.
+     */
+    public synchronized void forceAll( LogBuffer buffer ) throws IOException
+    {
+        boolean interrupted = false;
+        while ( forcing )
+        {
+            interrupted |= waitUninterruptibly( 0 );
+        }
+        try
+        {
+            buffer.force();
+        }
+        finally
+        {
+            restoreInterrupt( interrupted );
+        }
+        if ( appended > forced )
+        {
+            batchForced( appended );
+        }
+        notifyAll();
+    }
+
+    private void batchForced( long target )
+    {
+        long batch = target - forced;
+        if ( batch <= 0 )
+        {
+            return;
+        }
+        forced = target;
+        forceCount++;
+        committedCount += batch;
+        largestBatch = Math.max( largestBatch, batch );
+    }
+
+    private static void restoreInterrupt( boolean interrupted )
+    {
+        if ( interrupted )
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // returns whether or not the thread was interrupted while waiting, the
+    // interrupt status is restored by the caller once done waiting
+    private boolean waitUninterruptibly( long nanos )
+    {
+        try
+        {
+            if ( nanos > 0 )
+            {
+                TimeUnit.NANOSECONDS.timedWait( this, nanos );
+            }
+            else
+            {
+                wait();
+            }
+            return false;
+        }
+        catch ( InterruptedException e )
+        {
+            return true;
+        }
+    }
+
+    /**
+     * @return the number of forces done for committed records.
+     */
+    public synchronized long getForceCount()
+    {
+        return forceCount;
+    }
+
+    /**
+     * @return the number of committed records that have been forced.
+     */
+    public synchronized long getCommittedCount()
+    {
+        return committedCount;
+    }
+
+    /**
+     * @return the average number of committed records covered by one force.
+     */
+    public synchronized double getAverageBatchSize()
+    {
+        return forceCount == 0 ? 0 : (double) committedCount / forceCount;
+    }
+
+    /**
+     * @return the largest number of committed records covered by one force.
+     */
+    public synchronized long getLargestBatchSize()
+    {
+        return largestBatch;
+    }
+
+    /**
+     * @return the total time, in milliseconds, committers have spent waiting
+     *         for their records to be forced, including the time of the
+     *         forces themselves.
+     */
+    public synchronized long getTotalWaitTime()
+    {
+        return TimeUnit.NANOSECONDS.toMillis( totalWaitNanos );
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        return "GroupCommit[forces=" + forceCount + ", commits=" + committedCount
+                + ", avgBatch=" + String.format( "%.2f", getAverageBatchSize() )
+                + ", largestBatch=" + largestBatch + ", totalWaitMillis="
+                + getTotalWaitTime() + "]";
+    }
+}
@@ -0,0 +1,189 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.transaction.xaframework;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.neo4j.helpers.Exceptions;
+
+/**
+ * Reads and deserializes log entries in a separate thread, a number of
+ * entries ahead of the thread applying them. Used when recovering the
+ * logical log so that reading the log and applying the recovered
+ * transactions overlap. The channel and buffer must not be used by anyone
+ * else until {@link #next()} has returned <code>null</code> or the reader
+ * has been closed.
+ */
+class PrefetchingLogEntryReader
+{
+    private static final int READ_AHEAD = 1024;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private final XaCommandFactory cf;
+    private final BlockingQueue<ReadEntry> queue =
+        new ArrayBlockingQueue<ReadEntry>( READ_AHEAD );
+    private final Thread thread;
+    private volatile boolean closed;
+    private long position;
+    private boolean done;
+
+    PrefetchingLogEntryReader( FileChannel channel, ByteBuffer buffer,
+            XaCommandFactory cf ) throws IOException
+    {
+        this.channel = channel;
+        this.buffer = buffer;
+        this.cf = cf;
+        this.position = channel.position();
+        this.thread = new Thread( "Log entry reader" )
+        {
+            @Override
+            public void run()
+            {
+                readEntries();
+            }
+        };
+        thread.setDaemon( true );
+        thread.start();
+    }
+
+    /**
+     * @return the next log entry, or <code>null</code> if there are no more
+     * complete entries in the log.
+     */
+    LogEntry next() throws IOException
+    {
+        if ( done )
+        {
+            return null;
+        }
+        ReadEntry read;
+        try
+        {
+            read = queue.take();
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw Exceptions.withCause( new IOException(
+                "Interrupted while reading log entries" ), e );
+        }
+        if ( read.failure != null )
+        {
+            done = true;
+            throw Exceptions.launderedException( IOException.class, read.failure );
+        }
+        if ( read.entry == null )
+        {
+            done = true;
+            return null;
+        }
+        position = read.position;
+        return read.entry;
+    }
+
+    /**
+     * @return the position in the log right after the last entry returned
+     * from {@link #next()}.
+     */
+    long position()
+    {
+        return position;
+    }
+
+    void close()
+    {
+        closed = true;
+        boolean interrupted = false;
+        while ( thread.isAlive() )
+        {
+            try
+            {
+                thread.join();
+            }
+            catch ( InterruptedException e )
+            {
+                interrupted = true;
+            }
+        }
+        if ( interrupted )
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void readEntries()
+    {
+        try
+        {
+            LogEntry entry;
+            do
+            {
+                long startPosition = channel.position();
+                entry = LogIoUtils.readEntry( buffer, channel, cf );
+                if ( entry instanceof LogEntry.Start )
+                {
+                    ((LogEntry.Start) entry).setStartPosition( startPosition );
+                }
+                hand( new ReadEntry( entry, channel.position(), null ) );
+            }
+            while ( entry != null && !closed );
+        }
+        catch ( Throwable e )
+        {
+            hand( new ReadEntry( null, -1, e ) );
+        }
+    }
+
+    // doesn't interrupt the reading thread, that would close the channel
+    private void hand( ReadEntry read )
+    {
+        try
+        {
+            while ( !closed && !queue.offer( read, 100, TimeUnit.MILLISECONDS ) )
+            {
+                // the applying thread is behind, wait until closed or there's room
+            }
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static class ReadEntry
+    {
+        private final LogEntry entry;
+        private final long position;
+        private final Throwable failure;
+
+        ReadEntry( LogEntry entry, long position, Throwable failure )
+        {
+            this.entry = entry;
+            this.position = position;
+            this.failure = failure;
+        }
+    }
+}
@@ -38,6 +38,7 @@ import javax.transaction.xa.Xid;
 
 import org.neo4j.helpers.Exceptions;
 import org.neo4j.helpers.Pair;
+import org.neo4j.kernel.Config;
 import org.neo4j.kernel.impl.cache.LruCache;
 import org.neo4j.kernel.impl.transaction.xaframework.LogEntry.Commit;
 import org.neo4j.kernel.impl.transaction.xaframework.LogEntry.Start;
@@ -109,6 +110,9 @@ public class XaLogicalLog
     private final LruCache<Long /*log version*/, Long /*last committed tx*/> logHeaderCache =
             new LruCache<Long, Long>( "Log header cache", 1000, null );
 
+    private final GroupCommit groupCommit;
+    private final boolean parallelRecovery;
+
     XaLogicalLog( String fileName, XaResourceManager xaRm, XaCommandFactory cf,
             XaTransactionFactory xaTf, Map<Object, Object> config )
     {
@@ -123,6 +127,8 @@ public class XaLogicalLog
             + Xid.MAXBQUALSIZE * 10 );
         storeDir = (String) config.get( "store_dir" );
         msgLog = StringLogger.getLogger( storeDir);
+        groupCommit = GroupCommit.fromConfig( config );
+        parallelRecovery = Boolean.parseBoolean( (String) config.get( Config.PARALLEL_RECOVERY ) );
 
         // We should turn keep-logs on if there are previous logs around,
         // this so that e.g. temporary shell sessions or operations don't create
@@ -314,23 +320,98 @@ public class XaLogicalLog
     // [TX_1P_COMMIT][identifier]
     public synchronized void commitOnePhase( int identifier, long txId )
         throws XAException
+    {
+        writeCommit( false, identifier, txId, false );
+    }
+
+    // [TX_1P_COMMIT][identifier], forced later if using group commit
+    synchronized long writeCommitOnePhase( int identifier, long txId )
+        throws XAException
+    {
+        return writeCommit( false, identifier, txId, true );
+    }
+
+    private long writeCommit( boolean twoPhase, int identifier, long txId,
+            boolean deferForce ) throws XAException
     {
         LogEntry.Start startEntry = xidIdentMap.get( identifier );
         assert startEntry != null;
         assert txId != -1;
         try
         {
-            LogIoUtils.writeCommit( false, writeBuffer, identifier, txId, System.currentTimeMillis() );
-            writeBuffer.force();
+            long ticket = -1;
+            LogIoUtils.writeCommit( twoPhase, writeBuffer, identifier, txId, System.currentTimeMillis() );
+            if ( deferForce && groupCommit != null )
+            {
+                writeBuffer.writeOut();
+                ticket = groupCommit.appended();
+            }
+            else
+            {
+                forceWriteBuffer();
+            }
             cacheTxStartPosition( txId, startEntry.getMasterId(), startEntry );
+            return ticket;
         }
         catch ( IOException e )
         {
-            throw Exceptions.withCause(
-                    new XAException( "Logical log unable to mark 1P-commit [" + identifier + "] " ), e );
+            throw Exceptions.withCause( new XAException( twoPhase ?
+                    "Logical log unable to mark 2PC [" + identifier + "] " :
+                    "Logical log unable to mark 1P-commit [" + identifier + "] " ), e );
+        }
+    }
+
+    /**
+     * Waits for a commit record written with {@link #writeCommitOnePhase(int, long)}
+     * or {@link #writeCommitTwoPhase(int, long)} to be forced to disk, sharing
+     * the force with other committing transactions. Must not be called with
+     * the monitor of this log held.
+     *
+     * @param ticket the ticket returned when the commit record was written,
+     *            -1 means that the record has been forced already
+     */
+    void awaitCommitForced( long ticket ) throws XAException
+    {
+        if ( ticket == -1 )
+        {
+            return;
+        }
+        FileChannel channel;
+        synchronized ( this )
+        {
+            channel = fileChannel;
+        }
+        try
+        {
+            groupCommit.awaitForced( ticket, channel );
+        }
+        catch ( IOException e )
+        {
+            throw Exceptions.withCause( new XAException( "Logical log unable to force commit" ), e );
+        }
+    }
+
+    private void forceWriteBuffer() throws IOException
+    {
+        if ( groupCommit != null )
+        {
+            groupCommit.forceAll( writeBuffer );
+        }
+        else
+        {
+            writeBuffer.force();
         }
     }
 
+    /**
+     * @return the group commit of this log, with statistics about the forces
+     *         done, or <code>null</code> if group commit isn't used.
+     */
+    public GroupCommit getGroupCommit()
+    {
+        return groupCommit;
+    }
+
     private synchronized void cacheTxStartPosition( long txId, int masterId,
             LogEntry.Start startEntry )
     {
@@ -392,19 +473,14 @@ public class XaLogicalLog
     public synchronized void commitTwoPhase( int identifier, long txId )
         throws XAException
     {
-        LogEntry.Start startEntry = xidIdentMap.get( identifier );
-        assert startEntry != null;
-        assert txId != -1;
-        try
-        {
-            LogIoUtils.writeCommit( true, writeBuffer, identifier, txId, System.currentTimeMillis() );
-            writeBuffer.force();
-            cacheTxStartPosition( txId, startEntry.getMasterId(), startEntry );
-        }
-        catch ( IOException e )
-        {
-            throw Exceptions.withCause( new XAException( "Logical log unable to mark 2PC [" + identifier + "] " ), e );
-        }
+        writeCommit( true, identifier, txId, false );
+    }
+
+    // [TX_2P_COMMIT][identifier], forced later if using group commit
+    synchronized long writeCommitTwoPhase( int identifier, long txId )
+        throws XAException
+    {
+        return writeCommit( true, identifier, txId, true );
     }
 
     // [COMMAND][identifier][COMMAND_DATA]
@@ -694,7 +770,7 @@ public class XaLogicalLog
     {
         if ( writeBuffer != null )
         {
-            writeBuffer.force();
+            forceWriteBuffer();
         }
         fileChannel.close();
         fileChannel = null;
@@ -707,12 +783,16 @@ public class XaLogicalLog
             log.fine( "Logical log: " + fileName + " already closed" );
             return;
         }
+        if ( groupCommit != null )
+        {
+            msgLog.logMessage( "Closing " + fileName + " with " + groupCommit, true );
+        }
         long endPosition = writeBuffer.getFileChannelPosition();
         if ( xidIdentMap.size() > 0 )
         {
             log.info( "Close invoked with " + xidIdentMap.size() +
                 " running transaction(s). " );
-            writeBuffer.force();
+            forceWriteBuffer();
             fileChannel.close();
             log.info( "Dirty log: " + fileName + "." + currentLog +
                 " now closed. Recovery will be started automatically next " +
@@ -798,11 +878,32 @@ public class XaLogicalLog
         long lastEntryPos = fileChannel.position();
         fileChannel = new BufferedFileChannel( fileChannel );
         LogEntry entry;
-        while ( (entry = readEntry()) != null )
+        if ( parallelRecovery )
         {
-            applyEntry( entry );
-            logEntriesFound++;
-            lastEntryPos = fileChannel.position();
+            PrefetchingLogEntryReader reader = new PrefetchingLogEntryReader(
+                fileChannel, sharedBuffer, cf );
+            try
+            {
+                while ( (entry = reader.next()) != null )
+                {
+                    applyEntry( entry );
+                    logEntriesFound++;
+                    lastEntryPos = reader.position();
+                }
+            }
+            finally
+            {
+                reader.close();
+            }
+        }
+        else
+        {
+            while ( (entry = readEntry()) != null )
+            {
+                applyEntry( entry );
+                logEntriesFound++;
+                lastEntryPos = fileChannel.position();
+            }
         }
         // make sure we overwrite any broken records
         fileChannel = ((BufferedFileChannel)fileChannel).getSource();
@@ -1434,7 +1535,7 @@ public class XaLogicalLog
                 xidIdent, nextTxId, System.currentTimeMillis() );
         LogIoUtils.writeLogEntry( commit, writeBuffer );
         // need to manually force since xaRm.commit will not do it (transaction marked as recovered)
-        writeBuffer.force();
+        forceWriteBuffer();
         Xid xid = startEntry.getXid();
         try
         {
@@ -1552,7 +1653,7 @@ public class XaLogicalLog
                 currentVersion + " to " +  newLogFile + " from position " +
                 writeBuffer.getFileChannelPosition(), true );
         long endPosition = writeBuffer.getFileChannelPosition();
-        writeBuffer.force();
+        forceWriteBuffer();
         FileChannel newLog = new RandomAccessFile(
             newLogFile, "rw" ).getChannel();
         long lastTx = xaTf.getLastCommittedTx();
@@ -37,6 +37,7 @@ import javax.transaction.xa.XAException;
 import javax.transaction.xa.XAResource;
 import javax.transaction.xa.Xid;
 
+import org.neo4j.helpers.Exceptions;
 import org.neo4j.kernel.impl.util.ArrayMap;
 import org.neo4j.kernel.impl.util.StringLogger;
 
@@ -51,6 +52,13 @@ public class XaResourceManager
     private Set<TransactionInfo> recoveredDoneRecords = new HashSet<TransactionInfo>();
 
     private XaLogicalLog log = null;
+    // orders the transactions waiting for a group commit
+    private long nextCommitOrder = 0;
+    private long appliedCommitOrder = 0;
+    private long lastPendingTxId = -1;
+    // set when a group committed commit record couldn't be forced, after
+    // which nothing more is committed until the data source is recovered
+    private XAException commitFailure = null;
     private final XaTransactionFactory tf;
     private final String name;
     private final TxIdGenerator txIdGenerator;
@@ -392,8 +400,84 @@ public class XaResourceManager
         return xaTransaction;
     }
 
-    synchronized XaTransaction commit( Xid xid, boolean onePhase )
+    XaTransaction commit( Xid xid, boolean onePhase )
         throws XAException
+    {
+        long forceTicket;
+        long commitOrder;
+        synchronized ( this )
+        {
+            forceTicket = writeCommit( xid, onePhase );
+            if ( forceTicket == -1 )
+            {
+                return completeCommit( xid, onePhase );
+            }
+            commitOrder = nextCommitOrder++;
+        }
+
+        // Group commit, wait for the commit record to be forced without
+        // holding the monitor so that other transactions can write theirs
+        // and share the force. Then apply the transactions in the same order
+        // as their commit records were written.
+        XAException forceFailure = null;
+        try
+        {
+            log.awaitCommitForced( forceTicket );
+        }
+        catch ( XAException e )
+        {
+            forceFailure = e;
+        }
+        synchronized ( this )
+        {
+            if ( forceFailure != null )
+            {
+                commitFailed( forceFailure );
+            }
+            awaitCommitTurn( commitOrder );
+            try
+            {
+                if ( forceFailure != null )
+                {
+                    throw forceFailure;
+                }
+                if ( commitFailure != null )
+                {
+                    throw needsRecovery();
+                }
+                return completeCommit( xid, onePhase );
+            }
+            finally
+            {
+                commitTurnDone();
+            }
+        }
+    }
+
+    // The tx ids of the pending transactions have been handed out in the
+    // order their commit records were written, so applying any of them after
+    // one that failed would leave a gap. Fail them all instead, and let
+    // recovery sort out what made it to the log.
+    private void commitFailed( XAException cause )
+    {
+        if ( commitFailure == null )
+        {
+            commitFailure = cause;
+            msgLog.logMessage( "XaResourceManager[" + name + "] unable to " +
+                "force commit, failing pending transactions until recovered", cause );
+        }
+        lastPendingTxId = -1;
+    }
+
+    private XAException needsRecovery()
+    {
+        return Exceptions.withCause( new XAException( "XaResourceManager[" + name +
+            "] failed to force a commit and needs recovery" ), commitFailure );
+    }
+
+    // returns the group commit ticket of the commit record written, or -1 if
+    // the commit record (if any) already has been forced
+    private long writeCommit( Xid xid, boolean onePhase ) throws XAException
     {
         XidStatus status = xidMap.get( xid );
         if ( status == null )
@@ -402,6 +486,7 @@ public class XaResourceManager
         }
         TransactionStatus txStatus = status.getTransactionStatus();
         XaTransaction xaTransaction = txStatus.getTransaction();
+        long forceTicket = -1;
         if ( onePhase )
         {
             if ( !xaTransaction.isReadOnly() )
@@ -410,10 +495,9 @@ public class XaResourceManager
                 {
                     xaTransaction.prepare();
 
-                    long txId = txIdGenerator.generate( dataSource,
-                            xaTransaction.getIdentifier() );
+                    long txId = nextTxId( xaTransaction.getIdentifier() );
                     xaTransaction.setCommitTxId( txId );
-                    log.commitOnePhase( xaTransaction.getIdentifier(),
+                    forceTicket = log.writeCommitOnePhase( xaTransaction.getIdentifier(),
                             xaTransaction.getCommitTxId() );
                 }
             }
@@ -430,13 +514,27 @@ public class XaResourceManager
             {
                 if ( !onePhase )
                 {
-                    long txId = txIdGenerator.generate( dataSource,
-                            xaTransaction.getIdentifier() );
+                    long txId = nextTxId( xaTransaction.getIdentifier() );
                     xaTransaction.setCommitTxId( txId );
-                    log.commitTwoPhase( xaTransaction.getIdentifier(),
+                    forceTicket = log.writeCommitTwoPhase( xaTransaction.getIdentifier(),
                             xaTransaction.getCommitTxId() );
                 }
             }
+        }
+        if ( forceTicket != -1 )
+        {
+            lastPendingTxId = xaTransaction.getCommitTxId();
+        }
+        return forceTicket;
+    }
+
+    private XaTransaction completeCommit( Xid xid, boolean onePhase )
+        throws XAException
+    {
+        TransactionStatus txStatus = xidMap.get( xid ).getTransactionStatus();
+        XaTransaction xaTransaction = txStatus.getTransaction();
+        if ( !xaTransaction.isReadOnly() )
+        {
             txStatus.markCommitStarted();
             if ( xaTransaction.isRecovered() && xaTransaction.getCommitTxId() == -1 )
             {
@@ -471,6 +569,63 @@ public class XaResourceManager
         return xaTransaction;
     }
 
+    // The default generator derives the tx id from the last applied
+    // transaction, so while group committed transactions still are waiting
+    // to be applied the next id follows the last one handed out instead.
+    // Other generators get to see all pending transactions applied first.
+    private long nextTxId( int identifier ) throws XAException
+    {
+        if ( commitFailure != null )
+        {
+            throw needsRecovery();
+        }
+        if ( appliedCommitOrder < nextCommitOrder )
+        {
+            if ( txIdGenerator == TxIdGenerator.DEFAULT )
+            {
+                return lastPendingTxId + 1;
+            }
+            awaitPendingCommits();
+        }
+        return txIdGenerator.generate( dataSource, identifier );
+    }
+
+    // waits until the group committed transactions ordered before
+    // commitOrder have been applied
+    private void awaitCommitTurn( long commitOrder )
+    {
+        boolean interrupted = false;
+        while ( appliedCommitOrder < commitOrder )
+        {
+            try
+            {
+                wait();
+            }
+            catch ( InterruptedException e )
+            {
+                interrupted = true;
+            }
+        }
+        if ( interrupted )
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void awaitPendingCommits()
+    {
+        while ( appliedCommitOrder < nextCommitOrder )
+        {
+            awaitCommitTurn( nextCommitOrder );
+        }
+    }
+
+    private void commitTurnDone()
+    {
+        appliedCommitOrder++;
+        notifyAll();
+    }
+
     synchronized XaTransaction rollback( Xid xid ) throws XAException
     {
         XidStatus status = xidMap.get( xid );
@@ -696,6 +851,7 @@ public class XaResourceManager
     public synchronized void applyCommittedTransaction(
             ReadableByteChannel transaction, long txId ) throws IOException
     {
+        awaitPendingCommits();
         long lastCommittedTxId = dataSource.getLastCommittedTxId();
         if ( lastCommittedTxId + 1 == txId )
         {
@@ -711,6 +867,7 @@ public class XaResourceManager
     public synchronized long applyPreparedTransaction(
             ReadableByteChannel transaction ) throws IOException
     {
+        awaitPendingCommits();
         long txId = TxIdGenerator.DEFAULT.generate( dataSource, 0 );
         int masterId = txIdGenerator.getCurrentMasterId();
         log.applyTransactionWithoutTxId( transaction, txId, masterId );
@@ -19,7 +19,10 @@
  */
 package org.neo4j.kernel.impl.util;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.NoSuchElementException;
 
 import org.neo4j.graphdb.Direction;
@@ -849,6 +852,75 @@ public class RelIdArray
         }
     }
 
+    /**
+     * @return the number of bytes {@link #writeTo(ByteBuffer)} will write.
+     */
+    public int sizeInBytes()
+    {
+        int size = 1;
+        for ( DirectionWrapper direction : DirectionWrapper.values() )
+        {
+            size += 4;
+            for ( IdBlock block = direction.getLastBlock( this ); block != null; block = block.getPrev() )
+            {
+                size += 8 + 4 + block.length() * 4;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Writes the ids of this array, direction by direction and block by
+     * block, oldest block first. The type isn't included.
+     */
+    public void writeTo( ByteBuffer target )
+    {
+        target.put( (byte) (getLastLoopBlock() != null ? 1 : 0) );
+        for ( DirectionWrapper direction : DirectionWrapper.values() )
+        {
+            List<IdBlock> blocks = new ArrayList<IdBlock>();
+            for ( IdBlock block = direction.getLastBlock( this ); block != null; block = block.getPrev() )
+            {
+                blocks.add( block );
+            }
+            target.putInt( blocks.size() );
+            for ( int i = blocks.size()-1; i >= 0; i-- )
+            {
+                IdBlock block = blocks.get( i );
+                int length = block.length();
+                target.putLong( block.getHighBits() );
+                target.putInt( length );
+                for ( int j = 0; j < length; j++ )
+                {
+                    target.putInt( block.ids[j+1] );
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads back an array written with {@link #writeTo(ByteBuffer)}.
+     */
+    public static RelIdArray readFrom( String type, ByteBuffer source )
+    {
+        boolean hasLoops = source.get() != 0;
+        RelIdArray result = hasLoops ? new RelIdArrayWithLoops( type ) : new RelIdArray( type );
+        for ( DirectionWrapper direction : DirectionWrapper.values() )
+        {
+            int blockCount = source.getInt();
+            for ( int i = 0; i < blockCount; i++ )
+            {
+                long highBits = source.getLong();
+                int length = source.getInt();
+                for ( int j = 0; j < length; j++ )
+                {
+                    result.add( highBits | (source.getInt()&0xFFFFFFFFL), direction );
+                }
+            }
+        }
+        return result.isEmpty() ? empty( type ) : result.shrink();
+    }
+
     /**
      * Optimization in the lazy loading of relationships for a node.
      * {@link RelIdIterator#updateSource(RelIdArray)} is only called if
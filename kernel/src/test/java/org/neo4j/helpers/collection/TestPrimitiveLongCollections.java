@@ -0,0 +1,196 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.helpers.collection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class TestPrimitiveLongCollections
+{
+    @Test
+    public void setAddsContainsAndRemoves()
+    {
+        PrimitiveLongSet set = new PrimitiveLongSet();
+        assertTrue( set.isEmpty() );
+        assertTrue( set.add( 5 ) );
+        assertFalse( set.add( 5 ) );
+        assertTrue( set.add( -1 ) );
+        assertTrue( set.add( 0 ) );
+        assertEquals( 3, set.size() );
+        assertTrue( set.contains( -1 ) );
+        assertTrue( set.contains( 0 ) );
+        assertFalse( set.contains( 6 ) );
+        assertTrue( set.remove( -1 ) );
+        assertFalse( set.remove( -1 ) );
+        assertFalse( set.contains( -1 ) );
+        assertEquals( 2, set.size() );
+        set.clear();
+        assertTrue( set.isEmpty() );
+        assertFalse( set.contains( 5 ) );
+    }
+
+    @Test
+    public void setReturnsItsValuesAsArray()
+    {
+        PrimitiveLongSet set = new PrimitiveLongSet();
+        Set<Long> expected = new HashSet<Long>();
+        for ( long value = -1; value < 100; value++ )
+        {
+            set.add( value );
+            expected.add( value );
+        }
+        set.remove( 50 );
+        expected.remove( 50L );
+        Set<Long> actual = new HashSet<Long>();
+        for ( long value : set.toArray() )
+        {
+            actual.add( value );
+        }
+        assertEquals( set.size(), set.toArray().length );
+        assertEquals( expected, actual );
+    }
+
+    @Test
+    public void setBehavesLikeHashSet()
+    {
+        Random random = new Random( 1234 );
+        PrimitiveLongSet set = new PrimitiveLongSet( 4 );
+        Set<Long> expected = new HashSet<Long>();
+        for ( int i = 0; i < 100000; i++ )
+        {
+            // a small range so that adds and removes hit the same keys
+            long value = random.nextInt( 5000 ) - 1;
+            if ( random.nextInt( 3 ) == 0 )
+            {
+                assertEquals( expected.remove( value ), set.remove( value ) );
+            }
+            else
+            {
+                assertEquals( expected.add( value ), set.add( value ) );
+            }
+            assertEquals( expected.size(), set.size() );
+        }
+        for ( long value = -1; value < 5000; value++ )
+        {
+            assertEquals( expected.contains( value ), set.contains( value ) );
+        }
+    }
+
+    @Test
+    public void mapPutsGetsAndRemoves()
+    {
+        PrimitiveLongObjectMap<String> map = new PrimitiveLongObjectMap<String>();
+        assertNull( map.put( 10, "ten" ) );
+        assertEquals( "ten", map.put( 10, "TEN" ) );
+        assertNull( map.put( -1, "minus one" ) );
+        assertEquals( 2, map.size() );
+        assertEquals( "TEN", map.get( 10 ) );
+        assertEquals( "minus one", map.get( -1 ) );
+        assertNull( map.get( 11 ) );
+        assertTrue( map.containsKey( 10 ) );
+        assertEquals( "TEN", map.remove( 10 ) );
+        assertNull( map.remove( 10 ) );
+        assertEquals( 1, map.size() );
+        map.clear();
+        assertTrue( map.isEmpty() );
+        assertNull( map.get( -1 ) );
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void mapDoesNotAllowNullValues()
+    {
+        new PrimitiveLongObjectMap<String>().put( 1, null );
+    }
+
+    @Test
+    public void mapBehavesLikeHashMap()
+    {
+        Random random = new Random( 4321 );
+        PrimitiveLongObjectMap<Integer> map = new PrimitiveLongObjectMap<Integer>( 4 );
+        Map<Long, Integer> expected = new HashMap<Long, Integer>();
+        for ( int i = 0; i < 100000; i++ )
+        {
+            long key = random.nextInt( 5000 ) - 1;
+            if ( random.nextInt( 3 ) == 0 )
+            {
+                assertEquals( expected.remove( key ), map.remove( key ) );
+            }
+            else
+            {
+                assertEquals( expected.put( key, i ), map.put( key, i ) );
+            }
+            assertEquals( expected.size(), map.size() );
+        }
+        for ( long key = -1; key < 5000; key++ )
+        {
+            assertEquals( expected.get( key ), map.get( key ) );
+        }
+    }
+
+    @Test
+    public void concurrentMapLetsExactlyOneThreadPutEachKey() throws Exception
+    {
+        final ConcurrentPrimitiveLongObjectMap<Integer> map = new ConcurrentPrimitiveLongObjectMap<Integer>( 4 );
+        final int keys = 10000;
+        final AtomicInteger wins = new AtomicInteger();
+        Thread[] threads = new Thread[4];
+        for ( int t = 0; t < threads.length; t++ )
+        {
+            final int thread = t;
+            threads[t] = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    for ( long key = -1; key < keys; key++ )
+                    {
+                        if ( map.putIfAbsent( key, thread ) == null )
+                        {
+                            wins.incrementAndGet();
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for ( Thread thread : threads )
+        {
+            thread.join();
+        }
+        assertEquals( keys + 1, wins.get() );
+        assertEquals( keys + 1, map.size() );
+        assertNull( map.get( keys ) );
+        assertTrue( map.containsKey( -1 ) );
+        assertNotNull( map.remove( 5 ) );
+        assertFalse( map.containsKey( 5 ) );
+    }
+}
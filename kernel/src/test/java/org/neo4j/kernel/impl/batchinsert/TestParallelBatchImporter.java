@@ -0,0 +1,290 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.batchinsert;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+import static org.neo4j.helpers.collection.MapUtil.map;
+import static org.neo4j.helpers.collection.MapUtil.stringMap;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.PropertyContainer;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.Config;
+import org.neo4j.kernel.EmbeddedGraphDatabase;
+import org.neo4j.kernel.impl.AbstractNeo4jTestCase;
+
+public class TestParallelBatchImporter
+{
+    private static final RelationshipType[] TYPES = {
+            DynamicRelationshipType.withName( "KNOWS" ),
+            DynamicRelationshipType.withName( "LIKES" ),
+            DynamicRelationshipType.withName( "OWNS" ) };
+    private static final String LONG_STRING = "a string which is too long to fit in a property block";
+
+    private final String storePath = AbstractNeo4jTestCase.getStorePath( "neo-parallel-import" );
+
+    @Before
+    public void deleteStore()
+    {
+        AbstractNeo4jTestCase.deleteFileOrDirectory( new File( storePath ) );
+    }
+
+    @Test
+    public void importsNodesAndRelationships()
+    {
+        Random random = new Random( 1234 );
+        List<InputNode> nodes = new ArrayList<InputNode>();
+        List<Long> nodeIds = new ArrayList<Long>();
+        nodeIds.add( 0L ); // the reference node
+        for ( int i = 0; i < 3000; i++ )
+        {
+            // leave gaps in the ids
+            long id = i * 2 + 1;
+            nodes.add( new InputNode( id, i % 3 == 0 ? null :
+                    map( "id", id, "name", LONG_STRING + id, "values", new long[] { i, id } ) ) );
+            nodeIds.add( id );
+        }
+        List<InputRelationship> relationships = new ArrayList<InputRelationship>();
+        for ( int i = 0; i < 20000; i++ )
+        {
+            long start = nodeIds.get( random.nextInt( nodeIds.size() ) );
+            long end = i % 50 == 0 ? start : nodeIds.get( random.nextInt( nodeIds.size() ) );
+            relationships.add( new InputRelationship( start, end, TYPES[i % TYPES.length],
+                    i % 2 == 0 ? null : map( "index", i, "name", LONG_STRING ) ) );
+        }
+
+        BatchImporter importer = new ParallelBatchImporter( storePath,
+                stringMap( Config.IMPORT_THREADS, "4", Config.IMPORT_BATCH_SIZE, "100" ),
+                new SilentImportProgressMonitor() );
+        importer.doImport( nodes, relationships );
+        importer.shutdown();
+
+        EmbeddedGraphDatabase db = new EmbeddedGraphDatabase( storePath );
+        try
+        {
+            for ( InputNode inputNode : nodes )
+            {
+                Node node = db.getNodeById( inputNode.getId() );
+                assertProperties( inputNode.getProperties(), node.getPropertyKeys(), node );
+            }
+            assertFalse( db.getNodeById( 0 ).getPropertyKeys().iterator().hasNext() );
+            assertRelationships( db, nodeIds, relationships );
+
+            // deleting relationships needs the chains to be linked both ways
+            Transaction tx = db.beginTx();
+            try
+            {
+                for ( long id = 0; id < relationships.size(); id += 3 )
+                {
+                    db.getRelationshipById( id ).delete();
+                    relationships.set( (int) id, null );
+                }
+                tx.success();
+            }
+            finally
+            {
+                tx.finish();
+            }
+            db.getConfig().getGraphDbModule().getNodeManager().clearCache();
+            assertRelationships( db, nodeIds, relationships );
+        }
+        finally
+        {
+            db.shutdown();
+        }
+    }
+
+    @Test
+    public void reportsProgressOfEachStage()
+    {
+        final List<String> events = new ArrayList<String>();
+        ImportProgressMonitor monitor = new ImportProgressMonitor()
+        {
+            public void started( String stage )
+            {
+                events.add( "started " + stage );
+            }
+
+            public void progress( String stage, long count )
+            {
+            }
+
+            public void finished( String stage, long count, long timeMillis )
+            {
+                events.add( "finished " + stage + " " + count );
+            }
+        };
+        BatchImporter importer = new ParallelBatchImporter( storePath,
+                Collections.<String, String>emptyMap(), monitor );
+        importer.doImport( asList( new InputNode( 1, null ), new InputNode( 2, null ) ),
+                asList( new InputRelationship( 1, 2, TYPES[0], null ) ) );
+        importer.shutdown();
+        assertEquals( asList(
+                "started " + ParallelBatchImporter.IMPORT_NODES,
+                "finished " + ParallelBatchImporter.IMPORT_NODES + " 2",
+                "started " + ParallelBatchImporter.IMPORT_RELATIONSHIPS,
+                "finished " + ParallelBatchImporter.IMPORT_RELATIONSHIPS + " 1",
+                "started " + ParallelBatchImporter.LINK_RELATIONSHIPS,
+                "finished " + ParallelBatchImporter.LINK_RELATIONSHIPS + " 1",
+                "started " + ParallelBatchImporter.WRITE_RELATIONSHIPS,
+                "finished " + ParallelBatchImporter.WRITE_RELATIONSHIPS + " 1",
+                "started " + ParallelBatchImporter.WRITE_NODES,
+                // the reference node as well
+                "finished " + ParallelBatchImporter.WRITE_NODES + " 3" ), events );
+    }
+
+    @Test
+    public void relationshipToMissingNodeFailsTheImport()
+    {
+        BatchImporter importer = new ParallelBatchImporter( storePath );
+        try
+        {
+            importer.doImport( asList( new InputNode( 1, null ) ),
+                    asList( new InputRelationship( 1, 2, TYPES[0], null ) ) );
+            fail( "Shouldn't be able to import a relationship to a missing node" );
+        }
+        catch ( NotFoundException e )
+        {   // Good
+        }
+        finally
+        {
+            importer.shutdown();
+        }
+    }
+
+    @Test
+    public void duplicateNodeIdFailsTheImport()
+    {
+        BatchImporter importer = new ParallelBatchImporter( storePath );
+        try
+        {
+            importer.doImport( asList( new InputNode( 1, null ), new InputNode( 1, null ) ),
+                    Collections.<InputRelationship>emptyList() );
+            fail( "Shouldn't be able to import two nodes with the same id" );
+        }
+        catch ( IllegalArgumentException e )
+        {   // Good
+        }
+        finally
+        {
+            importer.shutdown();
+        }
+    }
+
+    @Test
+    public void onlyImportsIntoEmptyStores()
+    {
+        BatchInserter inserter = new BatchInserterImpl( storePath );
+        inserter.createNode( null );
+        inserter.shutdown();
+        try
+        {
+            new ParallelBatchImporter( storePath );
+            fail( "Shouldn't be able to import into a store with nodes" );
+        }
+        catch ( IllegalStateException e )
+        {   // Good
+        }
+    }
+
+    private void assertRelationships( EmbeddedGraphDatabase db, List<Long> nodeIds,
+            List<InputRelationship> relationships )
+    {
+        Map<Long, Set<Long>> expected = new HashMap<Long, Set<Long>>();
+        for ( long nodeId : nodeIds )
+        {
+            expected.put( nodeId, new HashSet<Long>() );
+        }
+        for ( int id = 0; id < relationships.size(); id++ )
+        {
+            InputRelationship input = relationships.get( id );
+            if ( input == null )
+            {
+                continue;
+            }
+            expected.get( input.getStartNode() ).add( (long) id );
+            expected.get( input.getEndNode() ).add( (long) id );
+            Relationship relationship = db.getRelationshipById( id );
+            assertEquals( input.getStartNode(), relationship.getStartNode().getId() );
+            assertEquals( input.getEndNode(), relationship.getEndNode().getId() );
+            assertEquals( input.getType().name(), relationship.getType().name() );
+            assertProperties( input.getProperties(), relationship.getPropertyKeys(), relationship );
+        }
+        for ( long nodeId : nodeIds )
+        {
+            Set<Long> actual = new HashSet<Long>();
+            for ( Relationship relationship : db.getNodeById( nodeId ).getRelationships(
+                    Direction.BOTH ) )
+            {
+                actual.add( relationship.getId() );
+            }
+            assertEquals( "Relationships of node " + nodeId, expected.get( nodeId ), actual );
+        }
+    }
+
+    private void assertProperties( Map<String, Object> expected, Iterable<String> keys,
+            PropertyContainer entity )
+    {
+        Map<String, Object> actual = new HashMap<String, Object>();
+        for ( String key : keys )
+        {
+            actual.put( key, entity.getProperty( key ) );
+        }
+        if ( expected == null )
+        {
+            assertEquals( Collections.emptyMap(), actual );
+            return;
+        }
+        assertEquals( expected.keySet(), actual.keySet() );
+        for ( Map.Entry<String, Object> entry : expected.entrySet() )
+        {
+            Object value = actual.get( entry.getKey() );
+            if ( entry.getValue() instanceof long[] )
+            {
+                assertArrayEquals( (long[]) entry.getValue(), (long[]) value );
+            }
+            else
+            {
+                assertEquals( entry.getValue(), value );
+            }
+        }
+    }
+}
@@ -0,0 +1,229 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+public class TestClockCache
+{
+    private static class ClockCacheTest<E> extends ClockCache<E>
+    {
+        private final List<E> cleaned = new ArrayList<E>();
+
+        ClockCacheTest( int maxSize, int segmentCount )
+        {
+            super( "TestCache", maxSize, null, segmentCount );
+        }
+
+        @Override
+        public void elementCleaned( E element )
+        {
+            cleaned.add( element );
+        }
+    }
+
+    @Test
+    public void testCreate()
+    {
+        try
+        {
+            new ClockCache<Object>( "TestCache", 0, null );
+            fail( "Illegal maxSize should throw exception" );
+        }
+        catch ( IllegalArgumentException e )
+        { // good
+        }
+        ClockCache<Object> cache = new ClockCache<Object>( "TestCache", 70, null );
+        try
+        {
+            cache.put( null, new Object() );
+            fail( "Null key should throw exception" );
+        }
+        catch ( IllegalArgumentException e )
+        { // good
+        }
+        try
+        {
+            cache.put( 1L, null );
+            fail( "Null element should throw exception" );
+        }
+        catch ( IllegalArgumentException e )
+        { // good
+        }
+        try
+        {
+            cache.get( null );
+            fail( "Null key should throw exception" );
+        }
+        catch ( IllegalArgumentException e )
+        { // good
+        }
+        try
+        {
+            cache.remove( null );
+            fail( "Null key should throw exception" );
+        }
+        catch ( IllegalArgumentException e )
+        { // good
+        }
+        cache.put( 1L, new Object() );
+        cache.clear();
+        assertEquals( 0, cache.size() );
+    }
+
+    @Test
+    public void referencedElementsGetASecondChance()
+    {
+        ClockCacheTest<String> cache = new ClockCacheTest<String>( 3, 1 );
+        cache.put( 1L, "1" );
+        cache.put( 2L, "2" );
+        cache.put( 3L, "3" );
+        cache.get( 1L );
+        cache.get( 3L );
+        assertTrue( cache.cleaned.isEmpty() );
+        cache.put( 4L, "4" );
+        assertEquals( 1, cache.cleaned.size() );
+        assertEquals( "2", cache.cleaned.get( 0 ) );
+        assertEquals( 3, cache.size() );
+        assertEquals( "1", cache.get( 1L ) );
+        assertNull( cache.get( 2L ) );
+        assertEquals( "3", cache.get( 3L ) );
+        assertEquals( "4", cache.get( 4L ) );
+        assertEquals( 5, cache.hitCount() );
+        assertEquals( 1, cache.missCount() );
+    }
+
+    @Test
+    public void testResize()
+    {
+        ClockCacheTest<String> cache = new ClockCacheTest<String>( 3, 1 );
+        cache.put( 1L, "1" );
+        cache.put( 2L, "2" );
+        cache.put( 3L, "3" );
+        cache.resize( 5 );
+        assertEquals( 5, cache.maxSize() );
+        cache.put( 4L, "4" );
+        cache.put( 5L, "5" );
+        assertTrue( cache.cleaned.isEmpty() );
+        assertEquals( 5, cache.size() );
+        cache.get( 5L );
+        cache.resize( 1 );
+        assertEquals( 4, cache.cleaned.size() );
+        assertEquals( 1, cache.size() );
+        assertEquals( "5", cache.get( 5L ) );
+        cache.clear();
+        assertEquals( 5, cache.cleaned.size() );
+        assertEquals( 0, cache.size() );
+    }
+
+    @Test
+    public void shouldStayWithinMaxSizeOverManySegments()
+    {
+        ClockCacheTest<Long> cache = new ClockCacheTest<Long>( 1000, 8 );
+        for ( long i = 0; i < 100000; i++ )
+        {
+            cache.put( i, i );
+            if ( i % 7 == 0 )
+            {
+                assertEquals( Long.valueOf( i ), cache.remove( i ) );
+            }
+        }
+        assertTrue( cache.size() <= 1000 );
+        int found = 0;
+        for ( long i = 0; i < 100000; i++ )
+        {
+            Long value = cache.get( i );
+            if ( value != null )
+            {
+                assertEquals( Long.valueOf( i ), value );
+                found++;
+            }
+        }
+        assertEquals( cache.size(), found );
+        assertEquals( 100000 - 100000 / 7 - 1 - found, cache.cleaned.size() );
+    }
+
+    @Test
+    public void shouldHandleConcurrentAccess() throws Exception
+    {
+        final ClockCache<Long> cache = new ClockCache<Long>( "TestCache", 500, null, 4 );
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Collection<Thread> threads = new ArrayList<Thread>();
+        for ( int t = 0; t < 8; t++ )
+        {
+            final Random random = new Random( t );
+            threads.add( new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        for ( int i = 0; i < 100000; i++ )
+                        {
+                            long key = random.nextInt( 2000 );
+                            Long value = cache.get( key );
+                            if ( value == null )
+                            {
+                                cache.put( key, key );
+                            }
+                            else if ( value.longValue() != key )
+                            {
+                                throw new AssertionError( key + " mapped to " + value );
+                            }
+                            else if ( i % 10 == 0 )
+                            {
+                                cache.remove( key );
+                            }
+                        }
+                    }
+                    catch ( Throwable e )
+                    {
+                        failure.set( e );
+                    }
+                }
+            } );
+        }
+        for ( Thread thread : threads )
+        {
+            thread.start();
+        }
+        for ( Thread thread : threads )
+        {
+            thread.join();
+        }
+        if ( failure.get() != null )
+        {
+            throw new AssertionError( failure.get() );
+        }
+        assertTrue( cache.size() <= 500 );
+    }
+}
@@ -0,0 +1,236 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+public class TestOffHeapCache
+{
+    private static class Entity
+    {
+        private final long id;
+        private final String name;
+
+        Entity( long id, String name )
+        {
+            this.id = id;
+            this.name = name;
+        }
+    }
+
+    private static final CacheEntrySerializer<Entity> SERIALIZER = new CacheEntrySerializer<Entity>()
+    {
+        public long idOf( Entity element )
+        {
+            return element.id;
+        }
+
+        public ByteBuffer write( Entity element )
+        {
+            ByteBuffer target = ByteBuffer.allocate( 4 + element.name.length() * 2 );
+            target.putInt( element.name.length() );
+            for ( int i = 0; i < element.name.length(); i++ )
+            {
+                target.putChar( element.name.charAt( i ) );
+            }
+            target.flip();
+            return target;
+        }
+
+        public Entity read( long id, ByteBuffer source )
+        {
+            char[] chars = new char[source.getInt()];
+            for ( int i = 0; i < chars.length; i++ )
+            {
+                chars[i] = source.getChar();
+            }
+            return new Entity( id, new String( chars ) );
+        }
+    };
+
+    private OffHeapCache<Entity> newCache( int maxSize, long maxBytes )
+    {
+        return new OffHeapCache<Entity>( "TestCache", maxSize, maxBytes, SERIALIZER, null );
+    }
+
+    @Test
+    public void testCreate()
+    {
+        try
+        {
+            newCache( 10, -1 );
+            fail( "Illegal maxBytes should throw exception" );
+        }
+        catch ( IllegalArgumentException e )
+        { // good
+        }
+        OffHeapCache<Entity> cache = newCache( 10, 1024 );
+        try
+        {
+            cache.put( null, new Entity( 1, "one" ) );
+            fail( "Null key should throw exception" );
+        }
+        catch ( IllegalArgumentException e )
+        { // good
+        }
+        try
+        {
+            cache.put( 1L, null );
+            fail( "Null element should throw exception" );
+        }
+        catch ( IllegalArgumentException e )
+        { // good
+        }
+        assertEquals( "TestCache", cache.getName() );
+        assertEquals( 10, cache.maxSize() );
+        assertEquals( 1024, cache.maxBytes() );
+    }
+
+    @Test
+    public void evictedElementsAreSerializedAndReadBack()
+    {
+        OffHeapCache<Entity> cache = newCache( 5, 1024 * 1024 );
+        for ( long id = 0; id < 100; id++ )
+        {
+            cache.put( id, new Entity( id, "entity" + id ) );
+        }
+        assertEquals( 100, cache.size() );
+        assertTrue( cache.usedBytes() > 0 );
+        for ( long id = 0; id < 100; id++ )
+        {
+            Entity entity = cache.get( id );
+            assertEquals( id, entity.id );
+            assertEquals( "entity" + id, entity.name );
+        }
+        assertEquals( 100, cache.size() );
+        assertNull( cache.get( 100L ) );
+        assertEquals( 1, cache.missCount() );
+    }
+
+    @Test
+    public void putReplacesSerializedElement()
+    {
+        OffHeapCache<Entity> cache = newCache( 1, 1024 * 1024 );
+        cache.put( 1L, new Entity( 1, "old" ) );
+        cache.resize( 1 );
+        for ( long id = 2; id < 20; id++ )
+        {
+            cache.put( id, new Entity( id, "filler" ) );
+        }
+        cache.put( 1L, new Entity( 1, "new" ) );
+        for ( long id = 20; id < 40; id++ )
+        {
+            cache.put( id, new Entity( id, "filler" ) );
+        }
+        assertEquals( "new", cache.get( 1L ).name );
+    }
+
+    @Test
+    public void removeAndClearBothTiers()
+    {
+        OffHeapCache<Entity> cache = newCache( 2, 1024 * 1024 );
+        for ( long id = 0; id < 10; id++ )
+        {
+            cache.put( id, new Entity( id, "entity" + id ) );
+        }
+        assertEquals( "entity0", cache.remove( 0L ).name );
+        assertEquals( "entity9", cache.remove( 9L ).name );
+        assertNull( cache.get( 0L ) );
+        assertNull( cache.get( 9L ) );
+        assertEquals( 8, cache.size() );
+        cache.clear();
+        assertEquals( 0, cache.size() );
+        assertNull( cache.get( 5L ) );
+    }
+
+    @Test
+    public void oldestSerializedElementsAreDroppedWhenOutOfSpace()
+    {
+        // 1k isn't enough for more than one slab
+        OffHeapCache<Entity> cache = newCache( 1, 1024 );
+        for ( long id = 100; id < 1100; id++ )
+        {
+            cache.put( id, new Entity( id, "entity" + id ) );
+        }
+        assertTrue( cache.usedBytes() <= 1024 );
+        assertTrue( cache.size() < 1000 );
+        assertEquals( "entity1099", cache.get( 1099L ).name );
+        assertEquals( "entity1098", cache.get( 1098L ).name );
+        assertNull( cache.get( 100L ) );
+    }
+
+    @Test
+    public void shouldHandleConcurrentAccess() throws Exception
+    {
+        final OffHeapCache<Entity> cache = newCache( 100, 64 * 1024 );
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread[] threads = new Thread[8];
+        for ( int t = 0; t < threads.length; t++ )
+        {
+            final long seed = t;
+            threads[t] = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        Random random = new Random( seed );
+                        for ( int i = 0; i < 20000; i++ )
+                        {
+                            long id = random.nextInt( 2000 );
+                            Entity entity = cache.get( id );
+                            if ( entity == null )
+                            {
+                                cache.put( id, new Entity( id, "entity" + id ) );
+                            }
+                            else if ( entity.id != id || !entity.name.equals( "entity" + id ) )
+                            {
+                                throw new AssertionError( "Got " + entity.name + " for " + id );
+                            }
+                        }
+                    }
+                    catch ( Throwable e )
+                    {
+                        failure.compareAndSet( null, e );
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for ( Thread thread : threads )
+        {
+            thread.join();
+        }
+        if ( failure.get() != null )
+        {
+            throw new AssertionError( failure.get() );
+        }
+    }
+}
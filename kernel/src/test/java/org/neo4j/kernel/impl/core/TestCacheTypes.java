@@ -27,10 +27,15 @@ import java.io.File;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.helpers.collection.IteratorUtil;
 import org.neo4j.helpers.collection.MapUtil;
 import org.neo4j.kernel.Config;
 import org.neo4j.kernel.EmbeddedGraphDatabase;
 import org.neo4j.kernel.impl.AbstractNeo4jTestCase;
+import org.neo4j.kernel.impl.MyRelTypes;
 import org.neo4j.kernel.impl.core.NodeManager.CacheType;
 
 public class TestCacheTypes extends AbstractNeo4jTestCase
@@ -96,12 +101,79 @@ public class TestCacheTypes extends AbstractNeo4jTestCase
         db.shutdown();
     }
 
+    @Test
+    public void testClockCache()
+    {
+        GraphDatabaseService db = newDb( "clock" );
+        assertEquals( CacheType.clock, ((EmbeddedGraphDatabase) db).getConfig().getGraphDbModule().getNodeManager().getCacheType() );
+        db.shutdown();
+    }
+
+    @Test
+    public void testOffHeapCache()
+    {
+        GraphDatabaseService db = new EmbeddedGraphDatabase( PATH, MapUtil.stringMap(
+                Config.CACHE_TYPE, "offheap", "use_adaptive_cache", "no",
+                "max_node_cache_size", "10", "max_relationship_cache_size", "10",
+                Config.OFFHEAP_NODE_CACHE_SIZE, "1M", Config.OFFHEAP_RELATIONSHIP_CACHE_SIZE, "1M" ) );
+        assertEquals( CacheType.offheap, ((EmbeddedGraphDatabase) db).getConfig().getGraphDbModule().getNodeManager().getCacheType() );
+        long[] nodeIds = new long[100];
+        long[] relIds = new long[nodeIds.length - 1];
+        Transaction tx = db.beginTx();
+        try
+        {
+            Node previous = null;
+            for ( int i = 0; i < nodeIds.length; i++ )
+            {
+                Node node = db.createNode();
+                node.setProperty( "number", i );
+                node.setProperty( "name", "node" + i );
+                node.setProperty( "numbers", new int[] { i, i + 1 } );
+                if ( previous != null )
+                {
+                    Relationship rel = previous.createRelationshipTo( node, MyRelTypes.TEST );
+                    rel.setProperty( "weight", i / 2.0 );
+                    relIds[i - 1] = rel.getId();
+                }
+                nodeIds[i] = node.getId();
+                previous = node;
+            }
+            tx.success();
+        }
+        finally
+        {
+            tx.finish();
+        }
+        for ( int round = 0; round < 2; round++ )
+        {
+            for ( int i = 0; i < nodeIds.length; i++ )
+            {
+                Node node = db.getNodeById( nodeIds[i] );
+                assertEquals( i, node.getProperty( "number" ) );
+                assertEquals( "node" + i, node.getProperty( "name" ) );
+                assertEquals( i + 1, ((int[]) node.getProperty( "numbers" ))[1] );
+                assertEquals( i == 0 || i == nodeIds.length - 1 ? 1 : 2,
+                        IteratorUtil.count( node.getRelationships() ) );
+            }
+            for ( int i = 0; i < relIds.length; i++ )
+            {
+                Relationship rel = db.getRelationshipById( relIds[i] );
+                assertEquals( nodeIds[i], rel.getStartNode().getId() );
+                assertEquals( (i + 1) / 2.0, rel.getProperty( "weight" ) );
+            }
+        }
+        db.shutdown();
+    }
+
     @Test
     public void testInvalidCache()
     {
         try
         {
-            newDb( "whatever" );
+            // The store lock isn't released when startup fails, so don't
+            // let it get in the way of the other tests
+            new EmbeddedGraphDatabase( getStorePath( "invalid-cache-db" ),
+                    MapUtil.stringMap( Config.CACHE_TYPE, "whatever" ) );
             fail( "Should've failed" );
         }
         catch ( IllegalArgumentException e ) { /* Good */ }
@@ -0,0 +1,262 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.neo4j.graphdb.DynamicRelationshipType.withName;
+import static org.neo4j.helpers.collection.MapUtil.stringMap;
+
+import java.io.File;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.helpers.collection.IteratorUtil;
+import org.neo4j.kernel.CommonFactories;
+import org.neo4j.kernel.Config;
+import org.neo4j.kernel.EmbeddedGraphDatabase;
+import org.neo4j.kernel.IdType;
+import org.neo4j.kernel.impl.AbstractNeo4jTestCase;
+
+public class TestConcurrentIdGenerator
+{
+    private static final int LEASE_SIZE = 10;
+
+    @Before
+    public void deleteIdGeneratorFile()
+    {
+        new File( idGeneratorFile() ).delete();
+    }
+
+    private String path()
+    {
+        String path = AbstractNeo4jTestCase.getStorePath( "concurrentidgenerator" );
+        new File( path ).mkdirs();
+        return path;
+    }
+
+    private String idGeneratorFile()
+    {
+        return path() + File.separator + "testIdGenerator.id";
+    }
+
+    private ConcurrentIdGenerator openGenerator()
+    {
+        return new ConcurrentIdGenerator( idGeneratorFile(), 100,
+                IdType.NODE.getMaxValue(), false, LEASE_SIZE );
+    }
+
+    @Test
+    public void threadsGetUniqueIds() throws Exception
+    {
+        IdGeneratorImpl.createGenerator( idGeneratorFile() );
+        final ConcurrentIdGenerator idGenerator = openGenerator();
+        final int idsPerThread = 10000;
+        List<Thread> threads = new ArrayList<Thread>();
+        final List<long[]> results = new ArrayList<long[]>();
+        for ( int t = 0; t < 8; t++ )
+        {
+            final long[] ids = new long[idsPerThread];
+            results.add( ids );
+            threads.add( new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    for ( int i = 0; i < ids.length; i++ )
+                    {
+                        ids[i] = idGenerator.nextId();
+                    }
+                }
+            } );
+        }
+        for ( Thread thread : threads )
+        {
+            thread.start();
+        }
+        for ( Thread thread : threads )
+        {
+            thread.join();
+        }
+        Set<Long> seen = new HashSet<Long>();
+        for ( long[] ids : results )
+        {
+            for ( long id : ids )
+            {
+                assertTrue( "Id " + id + " handed out twice", seen.add( id ) );
+            }
+        }
+        assertEquals( 8 * idsPerThread, idGenerator.getNumberOfIdsInUse() );
+        idGenerator.close( true );
+    }
+
+    @Test
+    public void unusedLeasedIdsAreFreedOnClose() throws Exception
+    {
+        IdGeneratorImpl.createGenerator( idGeneratorFile() );
+        ConcurrentIdGenerator idGenerator = openGenerator();
+        assertEquals( 0, idGenerator.nextId() );
+        assertEquals( 1, idGenerator.nextId() );
+        assertEquals( LEASE_SIZE, idGenerator.getHighId() );
+        idGenerator.close( true );
+
+        // The file can be read by the ordinary id generator
+        IdGenerator plain = new IdGeneratorImpl( idGeneratorFile(), 100,
+                IdType.NODE.getMaxValue(), false );
+        assertEquals( LEASE_SIZE, plain.getHighId() );
+        for ( long id = 2; id < LEASE_SIZE; id++ )
+        {
+            assertEquals( id, plain.nextId() );
+        }
+        assertEquals( LEASE_SIZE, plain.nextId() );
+        plain.close( true );
+    }
+
+    @Test
+    public void freedIdsAreReusedAfterReopen() throws Exception
+    {
+        IdGeneratorImpl.createGenerator( idGeneratorFile() );
+        ConcurrentIdGenerator idGenerator = openGenerator();
+        for ( int i = 0; i < LEASE_SIZE; i++ )
+        {
+            idGenerator.nextId();
+        }
+        idGenerator.freeId( 3 );
+        idGenerator.freeId( 7 );
+        idGenerator.close( true );
+
+        idGenerator = openGenerator();
+        assertEquals( 3, idGenerator.nextId() );
+        assertEquals( 7, idGenerator.nextId() );
+        assertEquals( LEASE_SIZE, idGenerator.nextId() );
+        idGenerator.close( true );
+    }
+
+    @Test
+    public void leasesOfAllThreadsAreFreedOnClose() throws Exception
+    {
+        IdGeneratorImpl.createGenerator( idGeneratorFile() );
+        final ConcurrentIdGenerator idGenerator = openGenerator();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        executor.submit( new Runnable()
+        {
+            public void run()
+            {
+                idGenerator.nextId();
+            }
+        } ).get();
+        idGenerator.nextId();
+        assertEquals( 2, idGenerator.getNumberOfIdsInUse() );
+        idGenerator.close( true );
+        executor.shutdown();
+
+        IdGenerator plain = new IdGeneratorImpl( idGeneratorFile(), 100,
+                IdType.NODE.getMaxValue(), false );
+        // Everything leased but the two ids handed out is free again
+        long highId = plain.getHighId();
+        for ( int i = 0; i < highId - 2; i++ )
+        {
+            assertTrue( plain.nextId() < highId );
+        }
+        assertEquals( highId, plain.nextId() );
+        plain.close( true );
+    }
+
+    @Test
+    public void closedGeneratorIsNotKeptByPooledThreads() throws Exception
+    {
+        IdGeneratorImpl.createGenerator( idGeneratorFile() );
+        final AtomicReference<ConcurrentIdGenerator> idGenerator =
+                new AtomicReference<ConcurrentIdGenerator>( openGenerator() );
+        WeakReference<ConcurrentIdGenerator> reference =
+                new WeakReference<ConcurrentIdGenerator>( idGenerator.get() );
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        executor.submit( new Runnable()
+        {
+            public void run()
+            {
+                idGenerator.get().nextId();
+            }
+        } ).get();
+        idGenerator.getAndSet( null ).close( true );
+
+        // The pooled thread is still alive here
+        for ( int i = 0; i < 10 && reference.get() != null; i++ )
+        {
+            System.gc();
+            Thread.sleep( 50 );
+        }
+        assertNull( reference.get() );
+        executor.shutdown();
+    }
+
+    @Test
+    public void setHighIdDropsLeases() throws Exception
+    {
+        IdGeneratorImpl.createGenerator( idGeneratorFile() );
+        ConcurrentIdGenerator idGenerator = openGenerator();
+        assertEquals( 0, idGenerator.nextId() );
+        idGenerator.setHighId( 100 );
+        assertEquals( 100, idGenerator.nextId() );
+        idGenerator.close( true );
+    }
+
+    @Test
+    public void databaseCanUseConcurrentIdGenerators() throws Exception
+    {
+        String storeDir = AbstractNeo4jTestCase.getStorePath( "concurrentidgeneratordb" );
+        AbstractNeo4jTestCase.deleteFileOrDirectory( new File( storeDir ) );
+        GraphDatabaseService db = new EmbeddedGraphDatabase( storeDir,
+                stringMap( Config.ID_GENERATOR_TYPE, "concurrent" ) );
+        Transaction tx = db.beginTx();
+        for ( int i = 0; i < 5; i++ )
+        {
+            db.createNode().createRelationshipTo( db.getReferenceNode(),
+                    withName( "KNOWS" ) );
+        }
+        tx.success();
+        tx.finish();
+        db.shutdown();
+
+        db = new EmbeddedGraphDatabase( storeDir );
+        assertEquals( 6, IteratorUtil.count( db.getAllNodes() ) );
+        Node node = db.getNodeById( 1 );
+        assertTrue( node.getRelationships().iterator().hasNext() );
+        db.shutdown();
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void unknownIdGeneratorTypeIsRejected()
+    {
+        CommonFactories.idGeneratorFactory( stringMap( Config.ID_GENERATOR_TYPE, "fast" ) );
+    }
+}
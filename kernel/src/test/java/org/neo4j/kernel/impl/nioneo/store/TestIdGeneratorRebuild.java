@@ -0,0 +1,186 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.neo4j.helpers.collection.MapUtil.stringMap;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.AbstractGraphDatabase;
+import org.neo4j.kernel.Config;
+import org.neo4j.kernel.EmbeddedGraphDatabase;
+import org.neo4j.kernel.IdType;
+import org.neo4j.kernel.impl.AbstractNeo4jTestCase;
+
+public class TestIdGeneratorRebuild
+{
+    private String storeDir;
+
+    @Before
+    public void cleanStore()
+    {
+        storeDir = AbstractNeo4jTestCase.getStorePath( "idgeneratorrebuild" );
+        AbstractNeo4jTestCase.deleteFileOrDirectory( new File( storeDir ) );
+        new File( storeDir ).mkdirs();
+    }
+
+    @Test
+    public void freeIdBitmapFindsSetBitsAcrossChunks()
+    {
+        FreeIdBitmap bitmap = new FreeIdBitmap();
+        long[] ids = { 0, 63, 64, 65535, 65536, 1000000, 5000000000L };
+        for ( long id : ids )
+        {
+            bitmap.set( id );
+        }
+        bitmap.set( 64 );
+        assertEquals( ids.length, bitmap.size() );
+        long id = -1;
+        for ( long expected : ids )
+        {
+            id = bitmap.nextSetBit( id + 1 );
+            assertEquals( expected, id );
+            assertTrue( bitmap.contains( id ) );
+        }
+        assertEquals( -1, bitmap.nextSetBit( id + 1 ) );
+        assertFalse( bitmap.contains( 62 ) );
+    }
+
+    @Test
+    public void scannerFindsRecordsNotInUseOverSeveralReads() throws Exception
+    {
+        int recordSize = 9;
+        int records = 300000;
+        File file = new File( storeDir, "scanned.db" );
+        RandomAccessFile raf = new RandomAccessFile( file, "rw" );
+        FileChannel channel = raf.getChannel();
+        try
+        {
+            ByteBuffer buffer = ByteBuffer.allocate( recordSize * records );
+            for ( int i = 0; i < records; i++ )
+            {
+                // Only every seventh record, and not the last few, is free.
+                // The in use bit is the lowest bit, the others are noise.
+                boolean free = i % 7 == 0 && i < records - 3;
+                buffer.put( i * recordSize, (byte) (free ? 0x2 : 0x3) );
+            }
+            channel.write( buffer );
+            // A partial record at the end, as after a crash
+            channel.write( ByteBuffer.wrap( new byte[] { 1, 0 } ) );
+
+            FreeIdBitmap freeIds = new FreeIdBitmap();
+            long highestInUse = new RecordInUseScanner( channel, recordSize,
+                    file.getPath(), null )
+            {
+                @Override
+                protected boolean isInUse( ByteBuffer record )
+                {
+                    return (record.get() & 0x1) == Record.IN_USE.byteValue();
+                }
+            }.scan( 0, freeIds );
+            assertEquals( records - 1, highestInUse );
+            long expectedFree = 0;
+            for ( int i = 0; i < records; i++ )
+            {
+                boolean free = i % 7 == 0 && i < records - 3;
+                assertEquals( "record " + i, free, freeIds.contains( i ) );
+                if ( free ) expectedFree++;
+            }
+            assertEquals( expectedFree, freeIds.size() );
+        }
+        finally
+        {
+            channel.close();
+            raf.close();
+        }
+    }
+
+    @Test
+    public void stickyIdGeneratorsAreRebuiltWithTheHolesInTheStore() throws Exception
+    {
+        GraphDatabaseService db = new EmbeddedGraphDatabase( storeDir );
+        Transaction tx = db.beginTx();
+        for ( int i = 0; i < 20; i++ )
+        {
+            db.createNode().setProperty( "name", "a string long enough for the string store " + i );
+        }
+        tx.success();
+        tx.finish();
+        tx = db.beginTx();
+        db.getNodeById( 3 ).delete();
+        db.getNodeById( 7 ).delete();
+        tx.success();
+        tx.finish();
+        db.shutdown();
+        makeIdGeneratorsSticky();
+
+        // The fast rebuild only looks for the high id, not for holes
+        db = new EmbeddedGraphDatabase( storeDir, stringMap(
+                Config.REBUILD_IDGENERATORS_FAST, "false" ) );
+        assertEquals( 21, ((AbstractGraphDatabase) db).getConfig().getIdGeneratorFactory().get(
+                IdType.NODE ).getHighId() );
+        tx = db.beginTx();
+        Set<Long> ids = new HashSet<Long>();
+        for ( int i = 0; i < 3; i++ )
+        {
+            Node node = db.createNode();
+            node.setProperty( "name", "another string long enough for the string store" );
+            ids.add( node.getId() );
+        }
+        tx.success();
+        tx.finish();
+        assertTrue( ids.contains( 3L ) );
+        assertTrue( ids.contains( 7L ) );
+        assertEquals( "another string long enough for the string store",
+                db.getNodeById( 3 ).getProperty( "name" ) );
+        assertEquals( "a string long enough for the string store 19",
+                db.getNodeById( 20 ).getProperty( "name" ) );
+        db.shutdown();
+    }
+
+    private void makeIdGeneratorsSticky() throws Exception
+    {
+        int count = 0;
+        for ( File file : new File( storeDir ).listFiles() )
+        {
+            if ( file.getName().endsWith( ".id" ) )
+            {
+                RandomAccessFile raf = new RandomAccessFile( file, "rw" );
+                raf.write( 1 );
+                raf.close();
+                count++;
+            }
+        }
+        assertTrue( count > 5 );
+    }
+}
@@ -226,6 +226,10 @@ public class TestNeoStore extends AbstractNeo4jTestCase
         file.delete();
         file = new File( file( "neo.relationshipstore.db.id" ) );
         file.delete();
+        file = new File( file( "neo.relationshipgroupstore.db" ) );
+        file.delete();
+        file = new File( file( "neo.relationshipgroupstore.db.id" ) );
+        file.delete();
         file = new File( file( "neo.relationshiptypestore.db" ) );
         file.delete();
         file = new File( file( "neo.relationshiptypestore.db.id" ) );
@@ -0,0 +1,207 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.neo4j.helpers.collection.MapUtil.stringMap;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.Config;
+import org.neo4j.kernel.EmbeddedGraphDatabase;
+import org.neo4j.kernel.impl.nioneo.xa.NeoStoreXaDataSource;
+import org.neo4j.kernel.impl.util.FileUtils;
+
+public class TestPageCache
+{
+    private static final String PATH = "target/var/pagecache";
+    private static final RelationshipType KNOWS = DynamicRelationshipType.withName( "KNOWS" );
+    private static final int NODE_COUNT = 5000;
+
+    @Before
+    public void deleteStore() throws Exception
+    {
+        FileUtils.deleteRecursively( new File( PATH ) );
+    }
+
+    private Map<String, String> smallPageCache()
+    {
+        return stringMap( Config.PAGE_CACHE_MEMORY, "256k",
+                Config.PAGE_CACHE_PAGE_SIZE, "8k", "cache_type", "none" );
+    }
+
+    @Test
+    public void noPageCacheUnlessConfigured()
+    {
+        assertNull( PageCache.fromConfig( stringMap() ) );
+        PageCache cache = PageCache.fromConfig( stringMap( Config.PAGE_CACHE_MEMORY, "1M" ) );
+        assertEquals( PageCache.DEFAULT_PAGE_SIZE, cache.getPageSize() );
+        assertEquals( 128, cache.getPageCount() );
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void tooFewPagesIsRejected()
+    {
+        new PageCache( 4 * 1024, 1024 );
+    }
+
+    @Test
+    public void storeDataSurvivesEvictionsAndRestart() throws Exception
+    {
+        EmbeddedGraphDatabase db = new EmbeddedGraphDatabase( PATH, smallPageCache() );
+        long[] ids = new long[NODE_COUNT];
+        Transaction tx = db.beginTx();
+        try
+        {
+            Node previous = db.getReferenceNode();
+            for ( int i = 0; i < NODE_COUNT; i++ )
+            {
+                Node node = db.createNode();
+                node.setProperty( "number", i );
+                node.setProperty( "name", "node number " + i + " with a long name" );
+                previous.createRelationshipTo( node, KNOWS ).setProperty( "since", i );
+                ids[i] = node.getId();
+                previous = node;
+            }
+            tx.success();
+        }
+        finally
+        {
+            tx.finish();
+        }
+        db.shutdown();
+
+        db = new EmbeddedGraphDatabase( PATH, smallPageCache() );
+        try
+        {
+            verify( db, ids );
+            long evictions = 0;
+            long misses = 0;
+            for ( WindowPoolStats stats : dataSource( db ).getWindowPoolStats() )
+            {
+                evictions += stats.getEvictionCount();
+                misses += stats.getMissCount();
+            }
+            assertTrue( "Expected evictions with a small page cache", evictions > 0 );
+            assertTrue( misses > 0 );
+        }
+        finally
+        {
+            db.shutdown();
+        }
+    }
+
+    @Test
+    public void concurrentReadersSeeConsistentData() throws Exception
+    {
+        EmbeddedGraphDatabase db = new EmbeddedGraphDatabase( PATH, smallPageCache() );
+        final long[] ids = new long[NODE_COUNT];
+        Transaction tx = db.beginTx();
+        try
+        {
+            for ( int i = 0; i < NODE_COUNT; i++ )
+            {
+                Node node = db.createNode();
+                node.setProperty( "number", i );
+                ids[i] = node.getId();
+            }
+            tx.success();
+        }
+        finally
+        {
+            tx.finish();
+        }
+
+        final EmbeddedGraphDatabase graphDb = db;
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        List<Thread> readers = new ArrayList<Thread>();
+        for ( int t = 0; t < 4; t++ )
+        {
+            final int offset = t;
+            Thread reader = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        for ( int i = 0; i < NODE_COUNT; i++ )
+                        {
+                            int index = (i * 7 + offset * 1013) % NODE_COUNT;
+                            assertEquals( index, graphDb.getNodeById( ids[index] )
+                                    .getProperty( "number" ) );
+                        }
+                    }
+                    catch ( Throwable e )
+                    {
+                        failure.compareAndSet( null, e );
+                    }
+                }
+            };
+            readers.add( reader );
+            reader.start();
+        }
+        for ( Thread reader : readers )
+        {
+            reader.join();
+        }
+        db.shutdown();
+        if ( failure.get() != null )
+        {
+            throw new RuntimeException( failure.get() );
+        }
+    }
+
+    private void verify( EmbeddedGraphDatabase db, long[] ids )
+    {
+        Node previous = db.getReferenceNode();
+        for ( int i = 0; i < ids.length; i++ )
+        {
+            Relationship rel = previous.getSingleRelationship(
+                    KNOWS, Direction.OUTGOING );
+            Node node = rel.getEndNode();
+            assertEquals( ids[i], node.getId() );
+            assertEquals( i, rel.getProperty( "since" ) );
+            assertEquals( i, node.getProperty( "number" ) );
+            assertEquals( "node number " + i + " with a long name", node.getProperty( "name" ) );
+            previous = node;
+        }
+    }
+
+    private NeoStoreXaDataSource dataSource( EmbeddedGraphDatabase db )
+    {
+        return (NeoStoreXaDataSource) db.getConfig().getTxModule().getXaDataSourceManager()
+                .getXaDataSource( Config.DEFAULT_DATA_SOURCE_NAME );
+    }
+}
@@ -0,0 +1,388 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.xa;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.neo4j.helpers.collection.MapUtil.stringMap;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.Config;
+import org.neo4j.kernel.EmbeddedGraphDatabase;
+import org.neo4j.kernel.impl.batchinsert.BatchInserter;
+import org.neo4j.kernel.impl.batchinsert.BatchInserterImpl;
+import org.neo4j.kernel.impl.util.FileUtils;
+
+public class TestDenseNodes
+{
+    private static final String PATH = "target/var/dense-nodes";
+    private static final int THRESHOLD = 50;
+    private static final RelationshipType KNOWS = DynamicRelationshipType.withName( "KNOWS" );
+    private static final RelationshipType LIKES = DynamicRelationshipType.withName( "LIKES" );
+    private static final RelationshipType OWNS = DynamicRelationshipType.withName( "OWNS" );
+
+    private EmbeddedGraphDatabase db;
+
+    @Before
+    public void startDb() throws Exception
+    {
+        FileUtils.deleteRecursively( new File( PATH ) );
+        db = newDb();
+    }
+
+    @After
+    public void stopDb()
+    {
+        if ( db != null )
+        {
+            db.shutdown();
+        }
+    }
+
+    @Test
+    public void nodeAboveThresholdBecomesDense()
+    {
+        Node node = createNode();
+        Map<String, Set<Relationship>> expected = new HashMap<String, Set<Relationship>>();
+        createRelationships( node, THRESHOLD / 2, expected );
+        assertFalse( isDense( node ) );
+
+        createRelationships( node, THRESHOLD, expected );
+        assertTrue( isDense( node ) );
+        assertRelationships( node, expected );
+        clearCache();
+        assertRelationships( node, expected );
+    }
+
+    @Test
+    public void relationshipsOfDenseNodeSurviveRestart()
+    {
+        Node node = createNode();
+        Map<String, Set<Relationship>> expected = new HashMap<String, Set<Relationship>>();
+        createRelationships( node, THRESHOLD * 3, expected );
+
+        db.shutdown();
+        db = newDb();
+        node = db.getNodeById( node.getId() );
+        assertTrue( isDense( node ) );
+        assertRelationships( node, expected );
+    }
+
+    @Test
+    public void loadsOneTypeWithoutLoadingTheOthers()
+    {
+        Node node = createNode();
+        Map<String, Set<Relationship>> expected = new HashMap<String, Set<Relationship>>();
+        createRelationships( node, THRESHOLD * 3, expected );
+        clearCache();
+
+        assertEquals( expected.get( key( LIKES, Direction.OUTGOING ) ),
+                asSet( node.getRelationships( LIKES, Direction.OUTGOING ) ) );
+        assertEquals( expected.get( key( KNOWS, Direction.INCOMING ) ),
+                asSet( node.getRelationships( KNOWS, Direction.INCOMING ) ) );
+        // relationships created after the typed load are seen as well
+        Transaction tx = db.beginTx();
+        try
+        {
+            add( expected, node.createRelationshipTo( db.createNode(), LIKES ), node );
+            tx.success();
+        }
+        finally
+        {
+            tx.finish();
+        }
+        assertRelationships( node, expected );
+    }
+
+    @Test
+    public void deletingRelationshipsOfDenseNode()
+    {
+        Node node = createNode();
+        Map<String, Set<Relationship>> expected = new HashMap<String, Set<Relationship>>();
+        createRelationships( node, THRESHOLD * 3, expected );
+
+        Transaction tx = db.beginTx();
+        try
+        {
+            int i = 0;
+            for ( Relationship relationship : node.getRelationships() )
+            {
+                if ( i++ % 3 == 0 )
+                {
+                    remove( expected, relationship, node );
+                    relationship.delete();
+                }
+            }
+            tx.success();
+        }
+        finally
+        {
+            tx.finish();
+        }
+        clearCache();
+        assertRelationships( node, expected );
+
+        // deleting all of them makes the node sparse again
+        tx = db.beginTx();
+        try
+        {
+            for ( Relationship relationship : node.getRelationships() )
+            {
+                relationship.delete();
+            }
+            tx.success();
+        }
+        finally
+        {
+            tx.finish();
+        }
+        assertFalse( isDense( node ) );
+        clearCache();
+        expected.clear();
+        assertRelationships( node, expected );
+
+        createRelationships( node, 10, expected );
+        assertFalse( isDense( node ) );
+        clearCache();
+        assertRelationships( node, expected );
+    }
+
+    @Test
+    public void batchInserterConvertsDenseNodesOnShutdown() throws Exception
+    {
+        db.shutdown();
+        db = null;
+        FileUtils.deleteRecursively( new File( PATH ) );
+        BatchInserter inserter = new BatchInserterImpl( PATH,
+                stringMap( Config.DENSE_NODE_THRESHOLD, "" + THRESHOLD ) );
+        long dense = inserter.createNode( null );
+        long sparse = inserter.createNode( null );
+        Map<String, Set<Long>> expected = new HashMap<String, Set<Long>>();
+        RelationshipType[] types = { KNOWS, LIKES, OWNS };
+        for ( int i = 0; i < THRESHOLD * 3; i++ )
+        {
+            RelationshipType type = types[i % types.length];
+            long other = inserter.createNode( null );
+            boolean outgoing = i % 2 == 0;
+            long id = outgoing ? inserter.createRelationship( dense, other, type, null ) :
+                    inserter.createRelationship( other, dense, type, null );
+            addId( expected, key( type, outgoing ? Direction.OUTGOING : Direction.INCOMING ), id );
+            if ( i % 5 == 0 )
+            {
+                inserter.createRelationship( other, sparse, type, null );
+            }
+        }
+        long loop = inserter.createRelationship( dense, dense, KNOWS, null );
+        addId( expected, key( KNOWS, Direction.OUTGOING ), loop );
+        addId( expected, key( KNOWS, Direction.INCOMING ), loop );
+        inserter.shutdown();
+
+        db = newDb();
+        Node node = db.getNodeById( dense );
+        assertTrue( isDense( node ) );
+        assertFalse( isDense( db.getNodeById( sparse ) ) );
+        for ( RelationshipType type : types )
+        {
+            for ( Direction direction : new Direction[] { Direction.OUTGOING, Direction.INCOMING } )
+            {
+                Set<Long> ids = new HashSet<Long>();
+                for ( Relationship relationship : node.getRelationships( type, direction ) )
+                {
+                    ids.add( relationship.getId() );
+                }
+                assertEquals( expected.get( key( type, direction ) ), ids );
+            }
+        }
+        assertEquals( THRESHOLD * 3 / 5, count( db.getNodeById( sparse ).getRelationships() ) );
+    }
+
+    private EmbeddedGraphDatabase newDb()
+    {
+        return new EmbeddedGraphDatabase( PATH, stringMap( Config.DENSE_NODE_THRESHOLD, "" + THRESHOLD ) );
+    }
+
+    private Node createNode()
+    {
+        Transaction tx = db.beginTx();
+        try
+        {
+            Node node = db.createNode();
+            tx.success();
+            return node;
+        }
+        finally
+        {
+            tx.finish();
+        }
+    }
+
+    private void createRelationships( Node node, int count, Map<String, Set<Relationship>> expected )
+    {
+        RelationshipType[] types = { KNOWS, LIKES, OWNS };
+        Transaction tx = db.beginTx();
+        try
+        {
+            for ( int i = 0; i < count; i++ )
+            {
+                RelationshipType type = types[i % types.length];
+                Relationship relationship;
+                if ( i % 10 == 0 )
+                {
+                    relationship = node.createRelationshipTo( node, type );
+                }
+                else if ( i % 2 == 0 )
+                {
+                    relationship = node.createRelationshipTo( db.createNode(), type );
+                }
+                else
+                {
+                    relationship = db.createNode().createRelationshipTo( node, type );
+                }
+                add( expected, relationship, node );
+            }
+            tx.success();
+        }
+        finally
+        {
+            tx.finish();
+        }
+    }
+
+    private void add( Map<String, Set<Relationship>> expected, Relationship relationship, Node node )
+    {
+        for ( Direction direction : directions( relationship, node ) )
+        {
+            String key = key( relationship.getType(), direction );
+            Set<Relationship> set = expected.get( key );
+            if ( set == null )
+            {
+                set = new HashSet<Relationship>();
+                expected.put( key, set );
+            }
+            set.add( relationship );
+        }
+    }
+
+    private void remove( Map<String, Set<Relationship>> expected, Relationship relationship, Node node )
+    {
+        for ( Direction direction : directions( relationship, node ) )
+        {
+            expected.get( key( relationship.getType(), direction ) ).remove( relationship );
+        }
+    }
+
+    private void addId( Map<String, Set<Long>> expected, String key, long id )
+    {
+        Set<Long> set = expected.get( key );
+        if ( set == null )
+        {
+            set = new HashSet<Long>();
+            expected.put( key, set );
+        }
+        set.add( id );
+    }
+
+    private Direction[] directions( Relationship relationship, Node node )
+    {
+        // loops are both outgoing and incoming
+        if ( relationship.getStartNode().equals( relationship.getEndNode() ) )
+        {
+            return new Direction[] { Direction.OUTGOING, Direction.INCOMING };
+        }
+        return new Direction[] { relationship.getStartNode().equals( node ) ?
+                Direction.OUTGOING : Direction.INCOMING };
+    }
+
+    private String key( RelationshipType type, Direction direction )
+    {
+        return type.name() + ":" + direction;
+    }
+
+    private void assertRelationships( Node node, Map<String, Set<Relationship>> expected )
+    {
+        Set<Relationship> all = new HashSet<Relationship>();
+        for ( RelationshipType type : new RelationshipType[] { KNOWS, LIKES, OWNS } )
+        {
+            for ( Direction direction : new Direction[] { Direction.OUTGOING, Direction.INCOMING } )
+            {
+                Set<Relationship> relationships = expected.get( key( type, direction ) );
+                if ( relationships == null )
+                {
+                    relationships = new HashSet<Relationship>();
+                }
+                assertEquals( type + " " + direction, relationships,
+                        asSet( node.getRelationships( type, direction ) ) );
+                all.addAll( relationships );
+            }
+        }
+        assertEquals( all, asSet( node.getRelationships() ) );
+    }
+
+    private boolean isDense( Node node )
+    {
+        return dataSource().getNeoStore().getNodeStore().getRecord( node.getId() ).isDense();
+    }
+
+    private void clearCache()
+    {
+        db.getConfig().getGraphDbModule().getNodeManager().clearCache();
+    }
+
+    private int count( Iterable<Relationship> relationships )
+    {
+        int count = 0;
+        for ( Relationship relationship : relationships )
+        {
+            count++;
+        }
+        return count;
+    }
+
+    private Set<Relationship> asSet( Iterable<Relationship> relationships )
+    {
+        Set<Relationship> set = new HashSet<Relationship>();
+        for ( Relationship relationship : relationships )
+        {
+            assertTrue( "Duplicate " + relationship, set.add( relationship ) );
+        }
+        return set;
+    }
+
+    private NeoStoreXaDataSource dataSource()
+    {
+        return (NeoStoreXaDataSource) db.getConfig().getTxModule().getXaDataSourceManager()
+                .getXaDataSource( Config.DEFAULT_DATA_SOURCE_NAME );
+    }
+}
@@ -0,0 +1,243 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.xa;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.neo4j.helpers.collection.MapUtil.stringMap;
+import static org.neo4j.kernel.impl.nioneo.store.TestXa.copyLogicalLog;
+import static org.neo4j.kernel.impl.nioneo.store.TestXa.renameCopiedLogicalLog;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.helpers.collection.IteratorUtil;
+import org.neo4j.kernel.Config;
+import org.neo4j.kernel.EmbeddedGraphDatabase;
+import org.neo4j.kernel.impl.util.FileUtils;
+
+public class TestParallelRecovery
+{
+    private static final RelationshipType KNOWS = DynamicRelationshipType.withName( "KNOWS" );
+
+    private final File dir = new File( "target/test-data/parallel-recovery" );
+    private final File storeDir = new File( dir, "db" );
+    private final File baseDir = new File( dir, "base" );
+
+    @Before
+    public void doBefore() throws Exception
+    {
+        FileUtils.deleteRecursively( dir );
+    }
+
+    @Test
+    public void recoversTheSameGraphAsWhenRunning() throws Exception
+    {
+        Map<Long, Object> expected = createGraphAndCrash();
+
+        EmbeddedGraphDatabase db = new EmbeddedGraphDatabase( baseDir.getPath(), stringMap(
+                Config.PARALLEL_RECOVERY, "true", Config.RECOVERY_THREADS, "4" ) );
+        try
+        {
+            assertGraph( db, expected );
+            // and the id generators must have been updated with the recovered records
+            Transaction tx = db.beginTx();
+            Node node = db.createNode();
+            tx.success();
+            tx.finish();
+            assertFalse( expected.containsKey( node.getId() ) );
+        }
+        finally
+        {
+            db.shutdown();
+        }
+    }
+
+    @Test
+    public void parallelRecoveryCanBeTurnedOff() throws Exception
+    {
+        Map<Long, Object> expected = createGraphAndCrash();
+
+        EmbeddedGraphDatabase db = new EmbeddedGraphDatabase( baseDir.getPath(), stringMap(
+                Config.PARALLEL_RECOVERY, "false" ) );
+        try
+        {
+            assertGraph( db, expected );
+        }
+        finally
+        {
+            db.shutdown();
+        }
+    }
+
+    /*
+     * Creates a store, copies it away after a clean shutdown and then
+     * creates a graph on top of it. The logical log with all those
+     * transactions is placed next to the copied store, as if it had
+     * crashed before any of them reached the store files.
+     */
+    private Map<Long, Object> createGraphAndCrash() throws IOException
+    {
+        new EmbeddedGraphDatabase( storeDir.getPath() ).shutdown();
+        FileUtils.copyRecursively( storeDir, baseDir );
+
+        EmbeddedGraphDatabase db = new EmbeddedGraphDatabase( storeDir.getPath() );
+        Map<Long, Object> expected = new HashMap<Long, Object>();
+        Node previous = db.getReferenceNode();
+        for ( int i = 0; i < 500; i++ )
+        {
+            Transaction tx = db.beginTx();
+            try
+            {
+                Node node = db.createNode();
+                Object value = value( i );
+                node.setProperty( "value", value );
+                node.setProperty( "number", i );
+                previous.createRelationshipTo( node, KNOWS );
+                expected.put( node.getId(), value );
+                previous = node;
+                tx.success();
+            }
+            finally
+            {
+                tx.finish();
+            }
+        }
+        // change and delete things so that records (and string and array
+        // blocks) are written several times and ids get reused
+        for ( long id : expected.keySet().toArray( new Long[0] ) )
+        {
+            if ( id % 7 == 0 || id % 5 == 0 )
+            {
+                Transaction tx = db.beginTx();
+                try
+                {
+                    Node node = db.getNodeById( id );
+                    if ( id % 7 == 0 )
+                    {
+                        for ( Relationship rel : node.getRelationships() )
+                        {
+                            rel.delete();
+                        }
+                        node.delete();
+                        expected.remove( id );
+                    }
+                    else
+                    {
+                        Object value = value( (int) id * 3 );
+                        node.setProperty( "value", value );
+                        expected.put( id, value );
+                    }
+                    tx.success();
+                }
+                finally
+                {
+                    tx.finish();
+                }
+            }
+        }
+        for ( int i = 0; i < 50; i++ )
+        {
+            Transaction tx = db.beginTx();
+            try
+            {
+                Node node = db.createNode();
+                Object value = value( i + 1000 );
+                node.setProperty( "value", value );
+                node.setProperty( "number", i );
+                expected.put( node.getId(), value );
+                tx.success();
+            }
+            finally
+            {
+                tx.finish();
+            }
+        }
+
+        copyLogicalLog( storeDir.getPath() );
+        db.shutdown();
+        for ( File file : storeDir.listFiles() )
+        {
+            if ( file.getName().contains( ".bak." ) )
+            {
+                FileUtils.copyFile( file, new File( baseDir, file.getName() ) );
+            }
+        }
+        renameCopiedLogicalLog( baseDir.getPath() );
+        return expected;
+    }
+
+    private static Object value( int i )
+    {
+        switch ( i % 3 )
+        {
+        case 0:
+            return "a string long enough to not fit in the property record " + i;
+        case 1:
+            return new int[] { i, i + 1, i + 2, i + 3, i + 4, i + 5, i + 6, i + 7 };
+        default:
+            return "short" + i;
+        }
+    }
+
+    private void assertGraph( EmbeddedGraphDatabase db, Map<Long, Object> expected )
+    {
+        // the reference node plus the created ones
+        assertEquals( expected.size() + 1, IteratorUtil.count( db.getAllNodes() ) );
+        for ( Map.Entry<Long, Object> entry : expected.entrySet() )
+        {
+            Node node;
+            try
+            {
+                node = db.getNodeById( entry.getKey() );
+            }
+            catch ( NotFoundException e )
+            {
+                throw new AssertionError( "Node " + entry.getKey() + " not recovered" );
+            }
+            Object value = node.getProperty( "value" );
+            if ( value instanceof int[] )
+            {
+                assertTrue( Arrays.equals( (int[]) entry.getValue(), (int[]) value ) );
+            }
+            else
+            {
+                assertEquals( entry.getValue(), value );
+            }
+            for ( Relationship rel : node.getRelationships() )
+            {
+                assertTrue( rel.getOtherNode( node ).getId() == 0 ||
+                        expected.containsKey( rel.getOtherNode( node ).getId() ) );
+            }
+        }
+    }
+}
@@ -0,0 +1,197 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.nioneo.xa;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.neo4j.helpers.collection.MapUtil.stringMap;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.helpers.Pair;
+import org.neo4j.kernel.Config;
+import org.neo4j.kernel.EmbeddedGraphDatabase;
+import org.neo4j.kernel.impl.nioneo.store.Record;
+import org.neo4j.kernel.impl.nioneo.store.RelationshipRecord;
+import org.neo4j.kernel.impl.util.FileUtils;
+import org.neo4j.kernel.impl.util.RelIdArray.DirectionWrapper;
+
+public class TestPrefetchingRelationshipChainLoader
+{
+    private static final String PATH = "target/var/prefetching-chain";
+    private static final RelationshipType KNOWS = DynamicRelationshipType.withName( "KNOWS" );
+    private static final int GRAB_SIZE = 10;
+
+    private EmbeddedGraphDatabase db;
+
+    @Before
+    public void startDb() throws Exception
+    {
+        FileUtils.deleteRecursively( new File( PATH ) );
+        db = new EmbeddedGraphDatabase( PATH, stringMap( "relationship_grab_size", "" + GRAB_SIZE,
+                Config.RELATIONSHIP_READ_AHEAD, "32" ) );
+    }
+
+    @After
+    public void stopDb()
+    {
+        db.shutdown();
+    }
+
+    @Test
+    public void loadsAllRelationshipsOfDenseNodeMixedWithOthers()
+    {
+        Set<Relationship> outgoing = new HashSet<Relationship>();
+        Set<Relationship> incoming = new HashSet<Relationship>();
+        Set<Relationship> loops = new HashSet<Relationship>();
+        Node dense = createDenseNode( outgoing, incoming, loops );
+        db.getConfig().getGraphDbModule().getNodeManager().clearCache();
+
+        // loops are both outgoing and incoming
+        outgoing.addAll( loops );
+        incoming.addAll( loops );
+        assertEquals( outgoing, asSet( dense.getRelationships( Direction.OUTGOING ) ) );
+        db.getConfig().getGraphDbModule().getNodeManager().clearCache();
+        assertEquals( incoming, asSet( dense.getRelationships( Direction.INCOMING ) ) );
+        db.getConfig().getGraphDbModule().getNodeManager().clearCache();
+        Set<Relationship> all = new HashSet<Relationship>();
+        all.addAll( outgoing );
+        all.addAll( incoming );
+        assertEquals( all, asSet( dense.getRelationships() ) );
+    }
+
+    @Test
+    public void grabSizeGrowsWithTheDegreeOfTheNode()
+    {
+        Set<Relationship> outgoing = new HashSet<Relationship>();
+        Set<Relationship> incoming = new HashSet<Relationship>();
+        Set<Relationship> loops = new HashSet<Relationship>();
+        Node dense = createDenseNode( outgoing, incoming, loops );
+        int degree = outgoing.size() + incoming.size() + loops.size();
+
+        ReadTransaction reader = dataSource().getReadOnlyTransaction();
+        long position = reader.getRelationshipChainPosition( dense.getId() );
+        int expectedBatchSize = GRAB_SIZE;
+        int loaded = 0;
+        int batches = 0;
+        while ( position != Record.NO_NEXT_RELATIONSHIP.intValue() )
+        {
+            Pair<Map<DirectionWrapper, Iterable<RelationshipRecord>>, Long> batch =
+                    reader.getMoreRelationships( dense.getId(), position );
+            int batchSize = count( batch.first() );
+            position = batch.other();
+            if ( position != Record.NO_NEXT_RELATIONSHIP.intValue() )
+            {
+                assertEquals( expectedBatchSize, batchSize );
+            }
+            expectedBatchSize = Math.min( expectedBatchSize * 2,
+                    GRAB_SIZE * PrefetchingRelationshipChainLoader.MAX_GRAB_SIZE_FACTOR );
+            loaded += batchSize;
+            batches++;
+        }
+        assertEquals( degree, loaded );
+        assertTrue( "Expected fewer batches than with a fixed grab size, got " + batches,
+                batches < degree / GRAB_SIZE );
+
+        // a dense node starts with the grab size it ended up with
+        position = reader.getRelationshipChainPosition( dense.getId() );
+        assertTrue( count( reader.getMoreRelationships( dense.getId(), position ).first() )
+                > GRAB_SIZE );
+    }
+
+    private Node createDenseNode( Set<Relationship> outgoing, Set<Relationship> incoming,
+            Set<Relationship> loops )
+    {
+        Transaction tx = db.beginTx();
+        try
+        {
+            Node dense = db.createNode();
+            Node other = db.createNode();
+            for ( int i = 0; i < 2000; i++ )
+            {
+                Node node = db.createNode();
+                if ( i % 2 == 0 )
+                {
+                    outgoing.add( dense.createRelationshipTo( node, KNOWS ) );
+                }
+                else
+                {
+                    incoming.add( node.createRelationshipTo( dense, KNOWS ) );
+                }
+                if ( i % 3 == 0 )
+                {
+                    // relationships not in the chain of the dense node
+                    node.createRelationshipTo( other, KNOWS );
+                }
+                if ( i % 100 == 0 )
+                {
+                    loops.add( dense.createRelationshipTo( dense, KNOWS ) );
+                }
+            }
+            tx.success();
+            return dense;
+        }
+        finally
+        {
+            tx.finish();
+        }
+    }
+
+    private int count( Map<DirectionWrapper, Iterable<RelationshipRecord>> records )
+    {
+        int count = 0;
+        for ( Iterable<RelationshipRecord> recordsInDirection : records.values() )
+        {
+            for ( RelationshipRecord record : recordsInDirection )
+            {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private Set<Relationship> asSet( Iterable<Relationship> relationships )
+    {
+        Set<Relationship> set = new HashSet<Relationship>();
+        for ( Relationship relationship : relationships )
+        {
+            assertTrue( set.add( relationship ) );
+        }
+        return set;
+    }
+
+    private NeoStoreXaDataSource dataSource()
+    {
+        return (NeoStoreXaDataSource) db.getConfig().getTxModule().getXaDataSourceManager()
+                .getXaDataSource( Config.DEFAULT_DATA_SOURCE_NAME );
+    }
+}
@@ -22,12 +22,19 @@ package org.neo4j.kernel.impl.transaction;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import org.junit.BeforeClass;
 import org.junit.Test;
 import org.neo4j.kernel.DeadlockDetectedException;
 
 public class TestDeadlockDetection
 {
-    private static LockManager lm = new LockManager( new PlaceboTm() );
+    static LockManager lm;
+
+    @BeforeClass
+    public static void createLockManager()
+    {
+        lm = new LockManager( new PlaceboTm() );
+    }
 
     private static class HelperThread extends Thread
     {
@@ -0,0 +1,118 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.transaction;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+/**
+ * Runs the {@link TestRWLock} tests against a {@link StripedLockManager}.
+ */
+public class TestStripedLockManager extends TestRWLock
+{
+    @Override
+    protected LockManager newLockManager()
+    {
+        return new StripedLockManager( new PlaceboTm(), 4 );
+    }
+
+    @Test
+    public void waitingThreadsAreWokenUpWithoutInterrupts() throws Exception
+    {
+        final LockManager lm = newLockManager();
+        final Object resource = "resource";
+        final CountDownLatch waiting = new CountDownLatch( 1 );
+        final CountDownLatch acquired = new CountDownLatch( 1 );
+        final AtomicBoolean interrupted = new AtomicBoolean();
+        lm.getWriteLock( resource );
+        Thread reader = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                waiting.countDown();
+                lm.getReadLock( resource );
+                interrupted.set( Thread.interrupted() );
+                acquired.countDown();
+                lm.releaseReadLock( resource, null );
+            }
+        };
+        reader.start();
+        waiting.await();
+        // let the reader get to the point where it's parked
+        while ( reader.getState() != Thread.State.WAITING )
+        {
+            Thread.sleep( 10 );
+        }
+        assertEquals( 1, acquired.getCount() );
+        lm.releaseWriteLock( resource, null );
+        assertEquals( true, acquired.await( 10, TimeUnit.SECONDS ) );
+        reader.join();
+        assertFalse( interrupted.get() );
+    }
+
+    @Test
+    public void interruptedThreadsParkAndKeepTheirInterruptStatus() throws Exception
+    {
+        final LockManager lm = newLockManager();
+        final Object resource = "resource";
+        final CountDownLatch acquired = new CountDownLatch( 1 );
+        final AtomicBoolean interrupted = new AtomicBoolean();
+        lm.getWriteLock( resource );
+        Thread reader = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                Thread.currentThread().interrupt();
+                lm.getReadLock( resource );
+                interrupted.set( Thread.interrupted() );
+                acquired.countDown();
+                lm.releaseReadLock( resource, null );
+            }
+        };
+        reader.start();
+        while ( reader.getState() != Thread.State.WAITING )
+        {
+            Thread.sleep( 10 );
+        }
+        // a thread that keeps returning from park because of its interrupt
+        // status would use up the cpu while waiting
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long cpuTimeBefore = threads.getThreadCpuTime( reader.getId() );
+        Thread.sleep( 500 );
+        long cpuTimeWaiting = threads.getThreadCpuTime( reader.getId() ) - cpuTimeBefore;
+        assertTrue( "Used " + cpuTimeWaiting + "ns of cpu time while waiting",
+                cpuTimeWaiting < TimeUnit.MILLISECONDS.toNanos( 100 ) );
+        lm.releaseWriteLock( resource, null );
+        assertEquals( true, acquired.await( 10, TimeUnit.SECONDS ) );
+        reader.join();
+        assertTrue( interrupted.get() );
+    }
+}
@@ -0,0 +1,394 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.kernel.impl.transaction.xaframework;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.neo4j.helpers.collection.MapUtil.stringMap;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.TransactionFailureException;
+import org.neo4j.helpers.collection.IteratorUtil;
+import org.neo4j.kernel.Config;
+import org.neo4j.kernel.EmbeddedGraphDatabase;
+import org.neo4j.kernel.impl.util.FileUtils;
+
+public class TestGroupCommit
+{
+    private final File dir = new File( "target/test-data/group-commit" );
+
+    @Before
+    public void doBefore() throws Exception
+    {
+        FileUtils.deleteRecursively( dir );
+        dir.mkdirs();
+    }
+
+    @Test
+    public void concurrentCommittersShareForces() throws Exception
+    {
+        final GroupCommit groupCommit = new GroupCommit( 5, 8 );
+        final FileChannel channel = new RandomAccessFile( new File( dir, "log" ), "rw" ).getChannel();
+        final Object logMonitor = new Object();
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final int commitsPerThread = 100;
+        Thread[] threads = new Thread[8];
+        for ( int i = 0; i < threads.length; i++ )
+        {
+            threads[i] = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        for ( int j = 0; j < commitsPerThread; j++ )
+                        {
+                            long ticket;
+                            synchronized ( logMonitor )
+                            {
+                                channel.write( ByteBuffer.wrap( new byte[] { 1, 2, 3 } ) );
+                                ticket = groupCommit.appended();
+                            }
+                            groupCommit.awaitForced( ticket, channel );
+                        }
+                    }
+                    catch ( Throwable e )
+                    {
+                        failure.compareAndSet( null, e );
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for ( Thread thread : threads )
+        {
+            thread.join();
+        }
+        channel.close();
+        if ( failure.get() != null )
+        {
+            throw new AssertionError( failure.get() );
+        }
+        int total = threads.length * commitsPerThread;
+        assertEquals( total, groupCommit.getCommittedCount() );
+        assertTrue( groupCommit.getForceCount() < total );
+        assertTrue( groupCommit.getLargestBatchSize() > 1 );
+        assertTrue( groupCommit.getLargestBatchSize() <= threads.length );
+        assertEquals( (double) total / groupCommit.getForceCount(),
+                groupCommit.getAverageBatchSize(), 0.0001 );
+    }
+
+    @Test
+    public void forceAllCoversEverythingAppended() throws Exception
+    {
+        GroupCommit groupCommit = new GroupCommit( 0, 100 );
+        FileChannel channel = new RandomAccessFile( new File( dir, "log" ), "rw" ).getChannel();
+        LogBuffer buffer = new DirectMappedLogBuffer( channel );
+        buffer.putInt( 1 );
+        buffer.writeOut();
+        long first = groupCommit.appended();
+        buffer.putInt( 2 );
+        buffer.writeOut();
+        long second = groupCommit.appended();
+        groupCommit.forceAll( buffer );
+        assertEquals( 1, groupCommit.getForceCount() );
+        assertEquals( 2, groupCommit.getCommittedCount() );
+        channel.close();
+        // already forced, so the closed channel won't be touched
+        groupCommit.awaitForced( first, channel );
+        groupCommit.awaitForced( second, channel );
+        assertEquals( 1, groupCommit.getForceCount() );
+    }
+
+    @Test( expected = IOException.class )
+    public void failedForceIsReportedToTheCommitter() throws Exception
+    {
+        GroupCommit groupCommit = new GroupCommit( 0, 100 );
+        FileChannel channel = new RandomAccessFile( new File( dir, "log" ), "rw" ).getChannel();
+        long ticket = groupCommit.appended();
+        channel.close();
+        groupCommit.awaitForced( ticket, channel );
+    }
+
+    @Test
+    public void concurrentTransactionsAreDurableWithGroupCommit() throws Exception
+    {
+        String storeDir = new File( dir, "db" ).getAbsolutePath();
+        final EmbeddedGraphDatabase db = new EmbeddedGraphDatabase( storeDir, stringMap(
+                Config.GROUP_COMMIT, "true", Config.GROUP_COMMIT_MAX_WAIT, "2" ) );
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final int txPerThread = 50;
+        Thread[] threads = new Thread[4];
+        for ( int i = 0; i < threads.length; i++ )
+        {
+            threads[i] = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        for ( int j = 0; j < txPerThread; j++ )
+                        {
+                            Transaction tx = db.beginTx();
+                            try
+                            {
+                                Node node = db.createNode();
+                                node.setProperty( "value", j );
+                                tx.success();
+                            }
+                            finally
+                            {
+                                tx.finish();
+                            }
+                        }
+                    }
+                    catch ( Throwable e )
+                    {
+                        failure.compareAndSet( null, e );
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for ( Thread thread : threads )
+        {
+            thread.join();
+        }
+        if ( failure.get() != null )
+        {
+            throw new AssertionError( failure.get() );
+        }
+        XaDataSource dataSource = db.getConfig().getTxModule().getXaDataSourceManager()
+                .getXaDataSource( Config.DEFAULT_DATA_SOURCE_NAME );
+        GroupCommit groupCommit = dataSource.getXaContainer().getLogicalLog().getGroupCommit();
+        assertNotNull( groupCommit );
+        assertTrue( groupCommit.getCommittedCount() >= threads.length * txPerThread );
+        db.shutdown();
+
+        EmbeddedGraphDatabase restarted = new EmbeddedGraphDatabase( storeDir );
+        try
+        {
+            // the reference node plus the created ones
+            assertEquals( threads.length * txPerThread + 1,
+                    IteratorUtil.count( restarted.getAllNodes() ) );
+        }
+        finally
+        {
+            restarted.shutdown();
+        }
+    }
+
+    @Test
+    public void failedGroupForceFailsLaterCommitsInsteadOfLeavingAGap() throws Exception
+    {
+        String storeDir = new File( dir, "db" ).getAbsolutePath();
+        EmbeddedGraphDatabase db = new EmbeddedGraphDatabase( storeDir, stringMap(
+                Config.GROUP_COMMIT, "true" ) );
+        XaDataSource dataSource = db.getConfig().getTxModule().getXaDataSourceManager()
+                .getXaDataSource( Config.DEFAULT_DATA_SOURCE_NAME );
+        createNode( db );
+        long lastCommittedTxId = dataSource.getLastCommittedTxId();
+
+        XaLogicalLog log = dataSource.getXaContainer().getLogicalLog();
+        Field channelField = XaLogicalLog.class.getDeclaredField( "fileChannel" );
+        channelField.setAccessible( true );
+        FileChannel channel = (FileChannel) channelField.get( log );
+        channelField.set( log, new UnforceableChannel( channel ) );
+        assertFalse( tryToCreateNode( db ) );
+        channelField.set( log, channel );
+        // the failed transaction's tx id must not be skipped by the next one
+        assertFalse( tryToCreateNode( db ) );
+        assertEquals( lastCommittedTxId, dataSource.getLastCommittedTxId() );
+        db.shutdown();
+
+        EmbeddedGraphDatabase restarted = new EmbeddedGraphDatabase( storeDir );
+        try
+        {
+            createNode( restarted );
+            assertEquals( 3, IteratorUtil.count( restarted.getAllNodes() ) );
+        }
+        finally
+        {
+            restarted.shutdown();
+        }
+    }
+
+    private void createNode( EmbeddedGraphDatabase db )
+    {
+        Transaction tx = db.beginTx();
+        try
+        {
+            db.createNode();
+            tx.success();
+        }
+        finally
+        {
+            tx.finish();
+        }
+    }
+
+    private boolean tryToCreateNode( EmbeddedGraphDatabase db )
+    {
+        try
+        {
+            createNode( db );
+            return true;
+        }
+        catch ( TransactionFailureException e )
+        {
+            return false;
+        }
+    }
+
+    private static class UnforceableChannel extends FileChannel
+    {
+        private final FileChannel delegate;
+
+        UnforceableChannel( FileChannel delegate )
+        {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void force( boolean metaData ) throws IOException
+        {
+            throw new IOException( "Unable to force" );
+        }
+
+        @Override
+        public int read( ByteBuffer dst ) throws IOException
+        {
+            return delegate.read( dst );
+        }
+
+        @Override
+        public long read( ByteBuffer[] dsts, int offset, int length ) throws IOException
+        {
+            return delegate.read( dsts, offset, length );
+        }
+
+        @Override
+        public int write( ByteBuffer src ) throws IOException
+        {
+            return delegate.write( src );
+        }
+
+        @Override
+        public long write( ByteBuffer[] srcs, int offset, int length ) throws IOException
+        {
+            return delegate.write( srcs, offset, length );
+        }
+
+        @Override
+        public long position() throws IOException
+        {
+            return delegate.position();
+        }
+
+        @Override
+        public FileChannel position( long newPosition ) throws IOException
+        {
+            delegate.position( newPosition );
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException
+        {
+            return delegate.size();
+        }
+
+        @Override
+        public FileChannel truncate( long size ) throws IOException
+        {
+            delegate.truncate( size );
+            return this;
+        }
+
+        @Override
+        public long transferTo( long position, long count, WritableByteChannel target )
+                throws IOException
+        {
+            return delegate.transferTo( position, count, target );
+        }
+
+        @Override
+        public long transferFrom( ReadableByteChannel src, long position, long count )
+                throws IOException
+        {
+            return delegate.transferFrom( src, position, count );
+        }
+
+        @Override
+        public int read( ByteBuffer dst, long position ) throws IOException
+        {
+            return delegate.read( dst, position );
+        }
+
+        @Override
+        public int write( ByteBuffer src, long position ) throws IOException
+        {
+            return delegate.write( src, position );
+        }
+
+        @Override
+        public MappedByteBuffer map( MapMode mode, long position, long size ) throws IOException
+        {
+            return delegate.map( mode, position, size );
+        }
+
+        @Override
+        public FileLock lock( long position, long size, boolean shared ) throws IOException
+        {
+            return delegate.lock( position, size, shared );
+        }
+
+        @Override
+        public FileLock tryLock( long position, long size, boolean shared ) throws IOException
+        {
+            return delegate.tryLock( position, size, shared );
+        }
+
+        @Override
+        protected void implCloseChannel() throws IOException
+        {
+            // the log closes the channel it was given
+        }
+    }
+}
@@ -0,0 +1,916 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.index.impl.btree;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A B+tree of (key, entity id) entries kept in fixed size pages of a memory
+ * mapped file. Entries are ordered by key and then by entity id, which makes
+ * every entry unique and lets range scans, as well as first/last lookups,
+ * start with a single descent from the root. The same file also holds a
+ * second tree of every entry reversed, i.e. ordered by entity id and then by
+ * key, so that all entries of an entity can be found and removed without
+ * knowing their keys.
+ *
+ * Leaves are linked to both their siblings so that scans can go in either
+ * direction without revisiting internal nodes. Removed entries are simply
+ * taken out of their leaf; pages are never merged, freed or reused. A leaf
+ * emptied by removals is still used for new entries in its own part of the
+ * key range, but a tree whose keys keep moving, like a timeline where old
+ * entries are removed as new ones are added, grows without bound even if
+ * the number of entries stays the same. Such an index has to be rebuilt,
+ * by deleting and recreating it, to reclaim the space.
+ *
+ * Readers and writers are coordinated with a read/write lock. A scan only
+ * holds the read lock while it copies a batch of entries, so an open
+ * {@link Cursor} never blocks writers.
+ */
+class BTree
+{
+    static final int PAGE_SIZE = 8192;
+    private static final int PAGES_PER_SEGMENT = 128;
+    private static final long SEGMENT_SIZE = (long) PAGE_SIZE * PAGES_PER_SEGMENT;
+
+    private static final long MAGIC = 0x6E656F6274726565L; // "neobtree"
+    private static final int FORMAT_VERSION = 2;
+
+    // Header page
+    private static final int HEADER_MAGIC = 0;
+    private static final int HEADER_VERSION = 8;
+    private static final int HEADER_ROOT = 16;
+    private static final int HEADER_PAGE_COUNT = 24;
+    private static final int HEADER_ENTRY_COUNT = 32;
+    private static final int HEADER_REVERSE_ROOT = 40;
+
+    // Node pages
+    private static final byte LEAF = 1;
+    private static final byte INTERNAL = 2;
+    private static final int NODE_TYPE = 0;
+    private static final int NODE_COUNT = 4;
+    private static final int LEAF_PREVIOUS = 8;
+    private static final int LEAF_NEXT = 16;
+    private static final int NODE_DATA = 24;
+    private static final int ENTRY_SIZE = 16;
+    private static final int CHILD_SIZE = 8;
+    private static final int SEPARATOR_SIZE = ENTRY_SIZE + CHILD_SIZE;
+
+    static final int LEAF_CAPACITY = (PAGE_SIZE - NODE_DATA) / ENTRY_SIZE;
+    static final int INTERNAL_CAPACITY = (PAGE_SIZE - NODE_DATA - CHILD_SIZE) / SEPARATOR_SIZE;
+
+    // Page 0 is the header page so it can never be a node
+    private static final long NO_PAGE = 0;
+    private static final int MAX_DEPTH = 32;
+    private static final int SCAN_BATCH_SIZE = 256;
+
+    private final File file;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final List<MappedByteBuffer> segments = new ArrayList<MappedByteBuffer>();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private boolean closed;
+
+    BTree( File file ) throws IOException
+    {
+        this.file = file;
+        boolean create = !file.exists() || file.length() == 0;
+        this.raf = new RandomAccessFile( file, "rw" );
+        this.channel = raf.getChannel();
+        try
+        {
+            if ( create )
+            {
+                mapSegment();
+                ByteBuffer header = segments.get( 0 );
+                header.putLong( HEADER_MAGIC, MAGIC );
+                header.putInt( HEADER_VERSION, FORMAT_VERSION );
+                header.putLong( HEADER_PAGE_COUNT, 1 );
+                header.putLong( HEADER_ENTRY_COUNT, 0 );
+                header.putLong( HEADER_ROOT, allocatePage( LEAF ) );
+                header.putLong( HEADER_REVERSE_ROOT, allocatePage( LEAF ) );
+            }
+            else
+            {
+                long segmentCount = channel.size() / SEGMENT_SIZE;
+                for ( long i = 0; i < segmentCount; i++ )
+                {
+                    mapSegment();
+                }
+                if ( segments.isEmpty() || segments.get( 0 ).getLong( HEADER_MAGIC ) != MAGIC )
+                {
+                    throw new IOException( file + " isn't a B+tree index file" );
+                }
+                int version = segments.get( 0 ).getInt( HEADER_VERSION );
+                if ( version != FORMAT_VERSION )
+                {
+                    throw new IOException( "Unsupported B+tree format version " + version +
+                            " in " + file );
+                }
+            }
+        }
+        catch ( IOException e )
+        {
+            segments.clear();
+            raf.close();
+            throw e;
+        }
+    }
+
+    File getFile()
+    {
+        return file;
+    }
+
+    /**
+     * Inserts an entry into this tree.
+     *
+     * @return {@code true} if the entry was inserted, {@code false} if it
+     * already was in the tree.
+     */
+    boolean insert( long key, long id )
+    {
+        lock.writeLock().lock();
+        try
+        {
+            assertOpen();
+            if ( !insert( HEADER_ROOT, key, id ) )
+            {
+                return false;
+            }
+            insert( HEADER_REVERSE_ROOT, id, key );
+            header().putLong( HEADER_ENTRY_COUNT, size() + 1 );
+            return true;
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes an entry from this tree.
+     *
+     * @return {@code true} if the entry was removed, {@code false} if it
+     * wasn't in the tree.
+     */
+    boolean remove( long key, long id )
+    {
+        lock.writeLock().lock();
+        try
+        {
+            assertOpen();
+            if ( !remove( HEADER_ROOT, key, id ) )
+            {
+                return false;
+            }
+            remove( HEADER_REVERSE_ROOT, id, key );
+            header().putLong( HEADER_ENTRY_COUNT, size() - 1 );
+            return true;
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes all entries for {@code id}, regardless of key. They are found
+     * in the reversed tree, so this costs one descent per removed entry.
+     *
+     * @return the number of removed entries.
+     */
+    int removeAll( long id )
+    {
+        lock.writeLock().lock();
+        try
+        {
+            assertOpen();
+            long[] keys = new long[SCAN_BATCH_SIZE];
+            long[] ids = new long[SCAN_BATCH_SIZE];
+            int removed = 0;
+            while ( true )
+            {
+                // Entries of id are first in the reversed tree from (id, MIN)
+                // on, and each batch starts over since they're removed
+                int read = scan( HEADER_REVERSE_ROOT, id, Long.MIN_VALUE, false, keys, ids );
+                int batch = 0;
+                while ( batch < read && keys[batch] == id )
+                {
+                    remove( HEADER_ROOT, ids[batch], id );
+                    remove( HEADER_REVERSE_ROOT, id, ids[batch] );
+                    batch++;
+                }
+                removed += batch;
+                if ( batch < keys.length )
+                {
+                    break;
+                }
+            }
+            header().putLong( HEADER_ENTRY_COUNT, size() - removed );
+            return removed;
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return the number of entries in this tree.
+     */
+    long size()
+    {
+        return header().getLong( HEADER_ENTRY_COUNT );
+    }
+
+    /**
+     * @return the number of pages in the file, including the header page.
+     */
+    long pageCount()
+    {
+        lock.readLock().lock();
+        try
+        {
+            assertOpen();
+            return header().getLong( HEADER_PAGE_COUNT );
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+
+    private boolean insert( int rootField, long key, long id )
+    {
+        long[] path = new long[MAX_DEPTH];
+        int[] slots = new int[MAX_DEPTH];
+        int depth = 0;
+        long page = root( rootField );
+        while ( type( page ) == INTERNAL )
+        {
+            int slot = childSlot( page, key, id );
+            path[depth] = page;
+            slots[depth++] = slot;
+            page = child( page, slot );
+        }
+
+        int count = count( page );
+        int position = leafSearch( page, count, key, id );
+        if ( position >= 0 )
+        {
+            return false;
+        }
+        position = -position - 1;
+        if ( count < LEAF_CAPACITY )
+        {
+            int offset = entryOffset( position );
+            move( page, offset, offset + ENTRY_SIZE, (count - position) * ENTRY_SIZE );
+            putEntry( page, offset, key, id );
+            setCount( page, count + 1 );
+        }
+        else
+        {
+            long[] separator = new long[2];
+            long newChild = splitLeaf( page, count, position, key, id, separator );
+            for ( int level = depth - 1; level >= 0 && newChild != NO_PAGE; level-- )
+            {
+                newChild = insertSeparator( path[level], slots[level], separator, newChild );
+            }
+            if ( newChild != NO_PAGE )
+            {
+                long newRoot = allocatePage( INTERNAL );
+                putLong( newRoot, NODE_DATA, root( rootField ) );
+                putEntry( newRoot, separatorOffset( 0 ), separator[0], separator[1] );
+                putLong( newRoot, separatorOffset( 0 ) + ENTRY_SIZE, newChild );
+                setCount( newRoot, 1 );
+                header().putLong( rootField, newRoot );
+            }
+        }
+        return true;
+    }
+
+    private boolean remove( int rootField, long key, long id )
+    {
+        long page = findLeaf( rootField, key, id );
+        int count = count( page );
+        int position = leafSearch( page, count, key, id );
+        if ( position < 0 )
+        {
+            return false;
+        }
+        int offset = entryOffset( position );
+        move( page, offset + ENTRY_SIZE, offset, (count - position - 1) * ENTRY_SIZE );
+        setCount( page, count - 1 );
+        return true;
+    }
+
+    /**
+     * @return the entry with the lowest key in this tree, or {@code null}
+     * if the tree is empty.
+     */
+    Entry first()
+    {
+        return cursor( Long.MIN_VALUE, Long.MIN_VALUE, Long.MAX_VALUE, Long.MAX_VALUE, false ).next();
+    }
+
+    /**
+     * @return the entry with the highest key in this tree, or {@code null}
+     * if the tree is empty.
+     */
+    Entry last()
+    {
+        return cursor( Long.MIN_VALUE, Long.MIN_VALUE, Long.MAX_VALUE, Long.MAX_VALUE, true ).next();
+    }
+
+    /**
+     * Returns a cursor over all entries between (fromKey, fromId) and
+     * (toKey, toId), both inclusive, in ascending order or in descending
+     * order if {@code reversed} is {@code true}.
+     */
+    Cursor cursor( long fromKey, long fromId, long toKey, long toId, boolean reversed )
+    {
+        return new Cursor( fromKey, fromId, toKey, toId, reversed );
+    }
+
+    /**
+     * Copies entries, in order, starting at the first entry at or after
+     * (key, id) or, if {@code reversed}, at or before it.
+     *
+     * @return the number of entries copied into {@code keys} and {@code ids}.
+     */
+    private int scan( long key, long id, boolean reversed, long[] keys, long[] ids )
+    {
+        lock.readLock().lock();
+        try
+        {
+            assertOpen();
+            return scan( HEADER_ROOT, key, id, reversed, keys, ids );
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+
+    private int scan( int rootField, long key, long id, boolean reversed, long[] keys, long[] ids )
+    {
+        long page = findLeaf( rootField, key, id );
+        int count = count( page );
+        int position = leafSearch( page, count, key, id );
+        if ( position < 0 )
+        {
+            position = reversed ? -position - 2 : -position - 1;
+        }
+        int read = 0;
+        while ( read < keys.length )
+        {
+            if ( position >= 0 && position < count )
+            {
+                int offset = entryOffset( position );
+                keys[read] = getLong( page, offset );
+                ids[read++] = getLong( page, offset + 8 );
+                position += reversed ? -1 : 1;
+                continue;
+            }
+            page = getLong( page, reversed ? LEAF_PREVIOUS : LEAF_NEXT );
+            if ( page == NO_PAGE )
+            {
+                break;
+            }
+            count = count( page );
+            position = reversed ? count - 1 : 0;
+        }
+        return read;
+    }
+
+    /**
+     * Forces all changes made to this tree to disk.
+     */
+    void force()
+    {
+        lock.readLock().lock();
+        try
+        {
+            if ( closed )
+            {
+                return;
+            }
+            for ( MappedByteBuffer segment : segments )
+            {
+                segment.force();
+            }
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+
+    void close()
+    {
+        lock.writeLock().lock();
+        try
+        {
+            if ( closed )
+            {
+                return;
+            }
+            for ( MappedByteBuffer segment : segments )
+            {
+                segment.force();
+            }
+            segments.clear();
+            closed = true;
+            raf.close();
+        }
+        catch ( IOException e )
+        {
+            throw new RuntimeException( "Unable to close " + file, e );
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void assertOpen()
+    {
+        if ( closed )
+        {
+            throw new IllegalStateException( file + " has been closed" );
+        }
+    }
+
+    private long root( int rootField )
+    {
+        return header().getLong( rootField );
+    }
+
+    private long findLeaf( int rootField, long key, long id )
+    {
+        long page = root( rootField );
+        while ( type( page ) == INTERNAL )
+        {
+            page = child( page, childSlot( page, key, id ) );
+        }
+        return page;
+    }
+
+    /**
+     * Splits a full leaf, inserting (key, id) at {@code position} on the way.
+     * The first entry of the new right leaf is put in {@code separator}.
+     *
+     * @return the new right leaf.
+     */
+    private long splitLeaf( long page, int count, int position, long key, long id, long[] separator )
+    {
+        long[] keys = new long[count + 1];
+        long[] ids = new long[count + 1];
+        for ( int i = 0, source = 0; i <= count; i++ )
+        {
+            if ( i == position )
+            {
+                keys[i] = key;
+                ids[i] = id;
+                continue;
+            }
+            int offset = entryOffset( source++ );
+            keys[i] = getLong( page, offset );
+            ids[i] = getLong( page, offset + 8 );
+        }
+
+        int leftCount = (count + 1) / 2;
+        long right = allocatePage( LEAF );
+        for ( int i = 0; i <= count; i++ )
+        {
+            if ( i < leftCount )
+            {
+                putEntry( page, entryOffset( i ), keys[i], ids[i] );
+            }
+            else
+            {
+                putEntry( right, entryOffset( i - leftCount ), keys[i], ids[i] );
+            }
+        }
+        setCount( page, leftCount );
+        setCount( right, count + 1 - leftCount );
+
+        long next = getLong( page, LEAF_NEXT );
+        putLong( right, LEAF_PREVIOUS, page );
+        putLong( right, LEAF_NEXT, next );
+        if ( next != NO_PAGE )
+        {
+            putLong( next, LEAF_PREVIOUS, right );
+        }
+        putLong( page, LEAF_NEXT, right );
+
+        separator[0] = keys[leftCount];
+        separator[1] = ids[leftCount];
+        return right;
+    }
+
+    /**
+     * Inserts {@code separator} and {@code newChild}, the right sibling of
+     * the child at {@code slot}, into an internal node, splitting the node if
+     * it's full. After a split {@code separator} holds the separator to
+     * insert into the parent.
+     *
+     * @return the new right node if this node was split, otherwise
+     * {@link #NO_PAGE}.
+     */
+    private long insertSeparator( long page, int slot, long[] separator, long newChild )
+    {
+        int count = count( page );
+        if ( count < INTERNAL_CAPACITY )
+        {
+            int offset = separatorOffset( slot );
+            move( page, offset, offset + SEPARATOR_SIZE, (count - slot) * SEPARATOR_SIZE );
+            putEntry( page, offset, separator[0], separator[1] );
+            putLong( page, offset + ENTRY_SIZE, newChild );
+            setCount( page, count + 1 );
+            return NO_PAGE;
+        }
+
+        long[] keys = new long[count + 1];
+        long[] ids = new long[count + 1];
+        long[] children = new long[count + 2];
+        children[0] = child( page, 0 );
+        for ( int i = 0, source = 0; i <= count; i++ )
+        {
+            if ( i == slot )
+            {
+                keys[i] = separator[0];
+                ids[i] = separator[1];
+                children[i + 1] = newChild;
+                continue;
+            }
+            int offset = separatorOffset( source++ );
+            keys[i] = getLong( page, offset );
+            ids[i] = getLong( page, offset + 8 );
+            children[i + 1] = getLong( page, offset + ENTRY_SIZE );
+        }
+
+        int middle = (count + 1) / 2;
+        long right = allocatePage( INTERNAL );
+        for ( int i = 0; i < middle; i++ )
+        {
+            int offset = separatorOffset( i );
+            putEntry( page, offset, keys[i], ids[i] );
+            putLong( page, offset + ENTRY_SIZE, children[i + 1] );
+        }
+        setCount( page, middle );
+        putLong( right, NODE_DATA, children[middle + 1] );
+        for ( int i = middle + 1; i <= count; i++ )
+        {
+            int offset = separatorOffset( i - middle - 1 );
+            putEntry( right, offset, keys[i], ids[i] );
+            putLong( right, offset + ENTRY_SIZE, children[i + 1] );
+        }
+        setCount( right, count - middle );
+
+        separator[0] = keys[middle];
+        separator[1] = ids[middle];
+        return right;
+    }
+
+    /**
+     * @return the index of the child of an internal node which covers
+     * (key, id), i.e. the number of separators less than or equal to it.
+     */
+    private int childSlot( long page, long key, long id )
+    {
+        int low = 0;
+        int high = count( page ) - 1;
+        while ( low <= high )
+        {
+            int middle = (low + high) >>> 1;
+            int offset = separatorOffset( middle );
+            if ( compare( getLong( page, offset ), getLong( page, offset + 8 ), key, id ) <= 0 )
+            {
+                low = middle + 1;
+            }
+            else
+            {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return the position of (key, id) in a leaf, or
+     * {@code -(insertion point) - 1} if it isn't there, the same way as
+     * {@link java.util.Arrays#binarySearch(long[], long)}.
+     */
+    private int leafSearch( long page, int count, long key, long id )
+    {
+        int low = 0;
+        int high = count - 1;
+        while ( low <= high )
+        {
+            int middle = (low + high) >>> 1;
+            int offset = entryOffset( middle );
+            int comparison = compare( getLong( page, offset ), getLong( page, offset + 8 ), key, id );
+            if ( comparison < 0 )
+            {
+                low = middle + 1;
+            }
+            else if ( comparison > 0 )
+            {
+                high = middle - 1;
+            }
+            else
+            {
+                return middle;
+            }
+        }
+        return -(low + 1);
+    }
+
+    static int compare( long key1, long id1, long key2, long id2 )
+    {
+        if ( key1 != key2 )
+        {
+            return key1 < key2 ? -1 : 1;
+        }
+        return id1 < id2 ? -1 : (id1 == id2 ? 0 : 1);
+    }
+
+    private static int entryOffset( int position )
+    {
+        return NODE_DATA + position * ENTRY_SIZE;
+    }
+
+    private static int separatorOffset( int position )
+    {
+        return NODE_DATA + CHILD_SIZE + position * SEPARATOR_SIZE;
+    }
+
+    private long child( long page, int slot )
+    {
+        return slot == 0 ? getLong( page, NODE_DATA ) :
+                getLong( page, separatorOffset( slot - 1 ) + ENTRY_SIZE );
+    }
+
+    private long allocatePage( byte type )
+    {
+        ByteBuffer header = header();
+        long page = header.getLong( HEADER_PAGE_COUNT );
+        if ( page >= (long) segments.size() * PAGES_PER_SEGMENT )
+        {
+            try
+            {
+                mapSegment();
+            }
+            catch ( IOException e )
+            {
+                throw new RuntimeException( "Unable to grow " + file, e );
+            }
+        }
+        header.putLong( HEADER_PAGE_COUNT, page + 1 );
+        ByteBuffer buffer = segment( page );
+        int base = pageOffset( page );
+        buffer.put( base + NODE_TYPE, type );
+        buffer.putInt( base + NODE_COUNT, 0 );
+        buffer.putLong( base + LEAF_PREVIOUS, NO_PAGE );
+        buffer.putLong( base + LEAF_NEXT, NO_PAGE );
+        return page;
+    }
+
+    private void mapSegment() throws IOException
+    {
+        // Mapping past the end of the file grows it
+        segments.add( channel.map( MapMode.READ_WRITE, segments.size() * SEGMENT_SIZE, SEGMENT_SIZE ) );
+    }
+
+    private ByteBuffer header()
+    {
+        return segments.get( 0 );
+    }
+
+    private ByteBuffer segment( long page )
+    {
+        return segments.get( (int) (page / PAGES_PER_SEGMENT) );
+    }
+
+    private static int pageOffset( long page )
+    {
+        return (int) (page % PAGES_PER_SEGMENT) * PAGE_SIZE;
+    }
+
+    private byte type( long page )
+    {
+        return segment( page ).get( pageOffset( page ) + NODE_TYPE );
+    }
+
+    private int count( long page )
+    {
+        return segment( page ).getInt( pageOffset( page ) + NODE_COUNT );
+    }
+
+    private void setCount( long page, int count )
+    {
+        segment( page ).putInt( pageOffset( page ) + NODE_COUNT, count );
+    }
+
+    private long getLong( long page, int offset )
+    {
+        return segment( page ).getLong( pageOffset( page ) + offset );
+    }
+
+    private void putLong( long page, int offset, long value )
+    {
+        segment( page ).putLong( pageOffset( page ) + offset, value );
+    }
+
+    private void putEntry( long page, int offset, long key, long id )
+    {
+        ByteBuffer buffer = segment( page );
+        int base = pageOffset( page ) + offset;
+        buffer.putLong( base, key );
+        buffer.putLong( base + 8, id );
+    }
+
+    private void move( long page, int from, int to, int length )
+    {
+        if ( length == 0 )
+        {
+            return;
+        }
+        ByteBuffer buffer = segment( page ).duplicate();
+        int base = pageOffset( page );
+        byte[] bytes = new byte[length];
+        buffer.position( base + from );
+        buffer.get( bytes );
+        buffer.position( base + to );
+        buffer.put( bytes );
+    }
+
+    /**
+     * An entry in a {@link BTree}, ordered by key and then by id.
+     */
+    static final class Entry implements Comparable<Entry>
+    {
+        final long key;
+        final long id;
+
+        Entry( long key, long id )
+        {
+            this.key = key;
+            this.id = id;
+        }
+
+        public int compareTo( Entry other )
+        {
+            return compare( key, id, other.key, other.id );
+        }
+
+        @Override
+        public boolean equals( Object obj )
+        {
+            if ( !(obj instanceof Entry) )
+            {
+                return false;
+            }
+            Entry other = (Entry) obj;
+            return key == other.key && id == other.id;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return (int) (key ^ (key >>> 32)) * 31 + (int) (id ^ (id >>> 32));
+        }
+
+        @Override
+        public String toString()
+        {
+            return "(" + key + "," + id + ")";
+        }
+    }
+
+    /**
+     * Iterates over a range of entries, reading them from the tree in
+     * batches. Each batch is located with a new descent from the root, which
+     * makes a cursor unaffected by changes made to the tree in between.
+     */
+    class Cursor
+    {
+        private final long toKey;
+        private final long toId;
+        private final boolean reversed;
+        private final long[] keys = new long[SCAN_BATCH_SIZE];
+        private final long[] ids = new long[SCAN_BATCH_SIZE];
+        private long nextKey;
+        private long nextId;
+        private int position;
+        private int read;
+        private boolean exhausted;
+
+        Cursor( long fromKey, long fromId, long toKey, long toId, boolean reversed )
+        {
+            this.reversed = reversed;
+            this.nextKey = reversed ? toKey : fromKey;
+            this.nextId = reversed ? toId : fromId;
+            this.toKey = reversed ? fromKey : toKey;
+            this.toId = reversed ? fromId : toId;
+            this.exhausted = compare( fromKey, fromId, toKey, toId ) > 0;
+        }
+
+        /**
+         * @return the next entry in the range, or {@code null} if there are
+         * no more entries.
+         */
+        Entry next()
+        {
+            if ( position == read && !fill() )
+            {
+                return null;
+            }
+            long key = keys[position];
+            long id = ids[position++];
+            int comparison = compare( key, id, toKey, toId );
+            if ( reversed ? comparison < 0 : comparison > 0 )
+            {
+                exhausted = true;
+                position = read;
+                return null;
+            }
+            return new Entry( key, id );
+        }
+
+        private boolean fill()
+        {
+            if ( exhausted )
+            {
+                return false;
+            }
+            read = scan( nextKey, nextId, reversed, keys, ids );
+            position = 0;
+            if ( read < keys.length )
+            {
+                exhausted = true;
+            }
+            else if ( !advance( keys[read - 1], ids[read - 1] ) )
+            {
+                exhausted = true;
+            }
+            return read > 0;
+        }
+
+        /**
+         * Moves the start of the next batch to the entry just after
+         * (key, id) in scan order.
+         */
+        private boolean advance( long key, long id )
+        {
+            if ( reversed )
+            {
+                if ( id != Long.MIN_VALUE )
+                {
+                    nextKey = key;
+                    nextId = id - 1;
+                    return true;
+                }
+                nextKey = key - 1;
+                nextId = Long.MAX_VALUE;
+                return key != Long.MIN_VALUE;
+            }
+            if ( id != Long.MAX_VALUE )
+            {
+                nextKey = key;
+                nextId = id + 1;
+                return true;
+            }
+            nextKey = key + 1;
+            nextId = Long.MIN_VALUE;
+            return key != Long.MAX_VALUE;
+        }
+    }
+}
@@ -0,0 +1,282 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.index.impl.btree;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.neo4j.kernel.impl.transaction.xaframework.LogBuffer;
+import org.neo4j.kernel.impl.transaction.xaframework.XaCommand;
+import org.neo4j.kernel.impl.util.IoPrimitiveUtils;
+
+abstract class BTreeCommand extends XaCommand
+{
+    private static final byte ADD_COMMAND = (byte) 1;
+    private static final byte REMOVE_COMMAND = (byte) 2;
+    private static final byte DELETE_COMMAND = (byte) 3;
+    private static final byte CREATE_INDEX_COMMAND = (byte) 4;
+
+    final BTreeIndexIdentifier indexId;
+    final long entityId;
+    final String key;
+    final Long value;
+    final byte type;
+
+    BTreeCommand( BTreeIndexIdentifier indexId, long entityId, String key, Long value, byte type )
+    {
+        this.indexId = indexId;
+        this.entityId = entityId;
+        this.key = key;
+        this.value = value;
+        this.type = type;
+    }
+
+    @Override
+    public void execute()
+    {
+        // Performed by BTreeTransaction, see perform
+    }
+
+    abstract void perform( BTreeDataSource dataSource );
+
+    @Override
+    public void writeToFile( LogBuffer buffer ) throws IOException
+    {
+        buffer.put( type );
+        buffer.put( indexId.entityTypeByte );
+        writeLengthAndString( buffer, indexId.indexName );
+        buffer.putLong( entityId );
+        if ( key == null )
+        {
+            buffer.putInt( -1 );
+        }
+        else
+        {
+            writeLengthAndString( buffer, key );
+        }
+        buffer.put( value != null ? (byte) 1 : (byte) 0 );
+        buffer.putLong( value != null ? value : 0 );
+    }
+
+    private static void writeLengthAndString( LogBuffer buffer, String string ) throws IOException
+    {
+        char[] chars = string.toCharArray();
+        buffer.putInt( chars.length );
+        buffer.put( chars );
+    }
+
+    static class AddCommand extends BTreeCommand
+    {
+        AddCommand( BTreeIndexIdentifier indexId, long entityId, String key, long value )
+        {
+            super( indexId, entityId, key, value, ADD_COMMAND );
+        }
+
+        @Override
+        void perform( BTreeDataSource dataSource )
+        {
+            dataSource.getTree( indexId, key, true ).insert( value, entityId );
+        }
+
+        @Override
+        public String toString()
+        {
+            return "Add[" + indexId + "," + entityId + "," + key + "," + value + "]";
+        }
+    }
+
+    static class RemoveCommand extends BTreeCommand
+    {
+        RemoveCommand( BTreeIndexIdentifier indexId, long entityId, String key, Long value )
+        {
+            super( indexId, entityId, key, value, REMOVE_COMMAND );
+        }
+
+        @Override
+        void perform( BTreeDataSource dataSource )
+        {
+            if ( key == null )
+            {
+                for ( BTree tree : dataSource.getTrees( indexId ) )
+                {
+                    tree.removeAll( entityId );
+                }
+                return;
+            }
+
+            BTree tree = dataSource.getTree( indexId, key, false );
+            if ( tree == null )
+            {
+                return;
+            }
+            if ( value == null )
+            {
+                tree.removeAll( entityId );
+            }
+            else
+            {
+                tree.remove( value, entityId );
+            }
+        }
+
+        @Override
+        public String toString()
+        {
+            return "Remove[" + indexId + "," + entityId + "," + key + "," + value + "]";
+        }
+    }
+
+    static class DeleteCommand extends BTreeCommand
+    {
+        DeleteCommand( BTreeIndexIdentifier indexId )
+        {
+            super( indexId, -1L, null, null, DELETE_COMMAND );
+        }
+
+        @Override
+        void perform( BTreeDataSource dataSource )
+        {
+            dataSource.deleteIndex( indexId, isRecovered() );
+        }
+
+        @Override
+        public String toString()
+        {
+            return "Delete[" + indexId + "]";
+        }
+    }
+
+    static class CreateIndexCommand extends BTreeCommand
+    {
+        private final Map<String, String> config;
+
+        CreateIndexCommand( BTreeIndexIdentifier indexId, Map<String, String> config )
+        {
+            super( indexId, -1L, null, null, CREATE_INDEX_COMMAND );
+            this.config = config;
+        }
+
+        @Override
+        public void writeToFile( LogBuffer buffer ) throws IOException
+        {
+            buffer.put( type );
+            buffer.put( indexId.entityTypeByte );
+            writeLengthAndString( buffer, indexId.indexName );
+            buffer.putInt( config.size() );
+            for ( Map.Entry<String, String> entry : config.entrySet() )
+            {
+                writeLengthAndString( buffer, entry.getKey() );
+                writeLengthAndString( buffer, entry.getValue() );
+            }
+        }
+
+        @Override
+        void perform( BTreeDataSource dataSource )
+        {
+            dataSource.indexStore.setIfNecessary( indexId.getEntityType(), indexId.indexName, config );
+        }
+
+        @Override
+        public String toString()
+        {
+            return "Create[" + indexId + "," + config + "]";
+        }
+    }
+
+    static XaCommand readCommand( ReadableByteChannel channel, ByteBuffer buffer ) throws IOException
+    {
+        // Read what type of command it is
+        buffer.clear(); buffer.limit( 2 );
+        if ( channel.read( buffer ) != buffer.limit() )
+        {
+            return null;
+        }
+        buffer.flip();
+        byte commandType = buffer.get();
+        byte entityTypeByte = buffer.get();
+        if ( entityTypeByte != BTreeIndexIdentifier.NODE &&
+                entityTypeByte != BTreeIndexIdentifier.RELATIONSHIP )
+        {
+            return null;
+        }
+        String indexName = IoPrimitiveUtils.readLengthAndString( channel, buffer );
+        if ( indexName == null )
+        {
+            return null;
+        }
+        BTreeIndexIdentifier identifier = new BTreeIndexIdentifier( entityTypeByte, indexName );
+
+        if ( commandType == CREATE_INDEX_COMMAND )
+        {
+            Integer size = IoPrimitiveUtils.readInt( channel, buffer );
+            if ( size == null )
+            {
+                return null;
+            }
+            Map<String, String> config = new HashMap<String, String>();
+            for ( int i = 0; i < size; i++ )
+            {
+                String key = IoPrimitiveUtils.readLengthAndString( channel, buffer );
+                String value = IoPrimitiveUtils.readLengthAndString( channel, buffer );
+                if ( key == null || value == null )
+                {
+                    return null;
+                }
+                config.put( key, value );
+            }
+            return new CreateIndexCommand( identifier, config );
+        }
+
+        Long entityId = IoPrimitiveUtils.readLong( channel, buffer );
+        Integer keyLength = IoPrimitiveUtils.readInt( channel, buffer );
+        if ( entityId == null || keyLength == null )
+        {
+            return null;
+        }
+        String key = null;
+        if ( keyLength != -1 )
+        {
+            key = IoPrimitiveUtils.readString( channel, buffer, keyLength );
+            if ( key == null )
+            {
+                return null;
+            }
+        }
+        Byte hasValue = IoPrimitiveUtils.readByte( channel, buffer );
+        Long value = IoPrimitiveUtils.readLong( channel, buffer );
+        if ( hasValue == null || value == null )
+        {
+            return null;
+        }
+
+        switch ( commandType )
+        {
+            case ADD_COMMAND: return new AddCommand( identifier, entityId, key, value );
+            case REMOVE_COMMAND: return new RemoveCommand( identifier, entityId, key,
+                    hasValue == 1 ? value : null );
+            case DELETE_COMMAND: return new DeleteCommand( identifier );
+            default:
+                throw new IOException( "Unknown command type[" + commandType + "]" );
+        }
+    }
+}
@@ -0,0 +1,434 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.index.impl.btree;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.neo4j.graphdb.PropertyContainer;
+import org.neo4j.helpers.UTF8;
+import org.neo4j.helpers.collection.ClosableIterable;
+import org.neo4j.kernel.Config;
+import org.neo4j.kernel.impl.index.IndexProviderStore;
+import org.neo4j.kernel.impl.index.IndexStore;
+import org.neo4j.kernel.impl.transaction.xaframework.LogBackedXaDataSource;
+import org.neo4j.kernel.impl.transaction.xaframework.XaCommand;
+import org.neo4j.kernel.impl.transaction.xaframework.XaCommandFactory;
+import org.neo4j.kernel.impl.transaction.xaframework.XaConnection;
+import org.neo4j.kernel.impl.transaction.xaframework.XaContainer;
+import org.neo4j.kernel.impl.transaction.xaframework.XaTransaction;
+import org.neo4j.kernel.impl.transaction.xaframework.XaTransactionFactory;
+
+/**
+ * An {@link org.neo4j.kernel.impl.transaction.xaframework.XaDataSource}
+ * which keeps one {@link BTree} file per index and key, i.e.
+ * {@code index/btree/<node|relationship>/<index name>/<key>.tree}, in the
+ * store directory. Changes are written to a logical log of its own, in
+ * {@code index/btree}, before being applied to the trees, and the trees are
+ * forced to disk whenever the log is rotated.
+ *
+ * This class is public because the XA framework requires it.
+ */
+public class BTreeDataSource extends LogBackedXaDataSource
+{
+    public static final String DEFAULT_NAME = "btree-index";
+    public static final byte[] DEFAULT_BRANCH_ID = UTF8.encode( "162375" );
+    private static final String TREE_FILE_SUFFIX = ".tree";
+
+    private final XaContainer xaContainer;
+    private final String baseStorePath;
+    final IndexStore indexStore;
+    private final IndexProviderStore providerStore;
+    private final Map<BTreeIndexIdentifier, Map<String, BTree>> trees =
+            new HashMap<BTreeIndexIdentifier, Map<String, BTree>>();
+    final Map<BTreeIndexIdentifier, BTreeIndex<? extends PropertyContainer>> indexes =
+            new HashMap<BTreeIndexIdentifier, BTreeIndex<? extends PropertyContainer>>();
+    private boolean closed;
+
+    /**
+     * Constructs this data source.
+     *
+     * @param params XA parameters.
+     * @throws InstantiationException if the data source couldn't be
+     * instantiated
+     */
+    public BTreeDataSource( Map<Object,Object> params )
+        throws InstantiationException
+    {
+        super( params );
+        String storeDir = (String) params.get( "store_dir" );
+        this.baseStorePath = getStoreDir( storeDir );
+        this.indexStore = (IndexStore) params.get( IndexStore.class );
+        this.providerStore = new IndexProviderStore(
+                new File( baseStorePath, "btree-store.db" ) );
+        boolean isReadOnly = false;
+        if ( params.containsKey( "read_only" ) )
+        {
+            Object readOnly = params.get( "read_only" );
+            if ( readOnly instanceof Boolean )
+            {
+                isReadOnly = (Boolean) readOnly;
+            }
+            else
+            {
+                isReadOnly = Boolean.parseBoolean( (String) readOnly );
+            }
+        }
+
+        XaCommandFactory cf = new BTreeCommandFactory();
+        XaTransactionFactory tf = new BTreeTransactionFactory();
+        xaContainer = XaContainer.create( this,
+                this.baseStorePath + File.separator + "btree.log", cf, tf,
+                null, params );
+
+        if ( !isReadOnly )
+        {
+            try
+            {
+                xaContainer.openLogicalLog();
+            }
+            catch ( IOException e )
+            {
+                throw new RuntimeException( "Unable to open btree log in " +
+                        this.baseStorePath, e );
+            }
+
+            setKeepLogicalLogsIfSpecified( (String) params.get( Config.KEEP_LOGICAL_LOGS ), DEFAULT_NAME );
+            setLogicalLogAtCreationTime( xaContainer.getLogicalLog() );
+        }
+    }
+
+    private static String getStoreDir( String dbStoreDir )
+    {
+        File dir = new File( new File( new File( dbStoreDir ), "index" ), "btree" );
+        if ( !dir.exists() && !dir.mkdirs() )
+        {
+            throw new RuntimeException( "Unable to create directory path["
+                + dir.getAbsolutePath() + "] for Neo4j store." );
+        }
+        return dir.getAbsolutePath();
+    }
+
+    static File getFileDirectory( String storeDir, BTreeIndexIdentifier identifier )
+    {
+        File path = new File( storeDir, identifier.entityTypeByte == BTreeIndexIdentifier.NODE ?
+                "node" : "relationship" );
+        return new File( path, identifier.indexName );
+    }
+
+    /**
+     * Returns the tree for {@code key} in an index, creating it if
+     * {@code create} is {@code true}.
+     *
+     * @return the tree, or {@code null} if there's no tree for {@code key}
+     * and {@code create} is {@code false}.
+     */
+    synchronized BTree getTree( BTreeIndexIdentifier identifier, String key, boolean create )
+    {
+        Map<String, BTree> indexTrees = getIndexTrees( identifier );
+        BTree tree = indexTrees.get( key );
+        if ( tree == null && create )
+        {
+            File directory = getFileDirectory( baseStorePath, identifier );
+            if ( !directory.exists() && !directory.mkdirs() )
+            {
+                throw new RuntimeException( "Unable to create directory " + directory );
+            }
+            tree = openTree( new File( directory, encode( key ) + TREE_FILE_SUFFIX ) );
+            indexTrees.put( key, tree );
+        }
+        return tree;
+    }
+
+    synchronized Collection<BTree> getTrees( BTreeIndexIdentifier identifier )
+    {
+        return new ArrayList<BTree>( getIndexTrees( identifier ).values() );
+    }
+
+    private Map<String, BTree> getIndexTrees( BTreeIndexIdentifier identifier )
+    {
+        Map<String, BTree> indexTrees = trees.get( identifier );
+        if ( indexTrees == null )
+        {
+            indexTrees = new HashMap<String, BTree>();
+            File[] files = getFileDirectory( baseStorePath, identifier ).listFiles();
+            for ( File file : files != null ? files : new File[0] )
+            {
+                String name = file.getName();
+                if ( name.endsWith( TREE_FILE_SUFFIX ) )
+                {
+                    String key = decode( name.substring( 0, name.length() - TREE_FILE_SUFFIX.length() ) );
+                    indexTrees.put( key, openTree( file ) );
+                }
+            }
+            trees.put( identifier, indexTrees );
+        }
+        return indexTrees;
+    }
+
+    private BTree openTree( File file )
+    {
+        try
+        {
+            return new BTree( file );
+        }
+        catch ( IOException e )
+        {
+            throw new RuntimeException( "Unable to open " + file, e );
+        }
+    }
+
+    private static String encode( String key )
+    {
+        try
+        {
+            return URLEncoder.encode( key, "UTF-8" );
+        }
+        catch ( UnsupportedEncodingException e )
+        {
+            throw new RuntimeException( e );
+        }
+    }
+
+    private static String decode( String fileName )
+    {
+        try
+        {
+            return URLDecoder.decode( fileName, "UTF-8" );
+        }
+        catch ( UnsupportedEncodingException e )
+        {
+            throw new RuntimeException( e );
+        }
+    }
+
+    synchronized void deleteIndex( BTreeIndexIdentifier identifier, boolean recovery )
+    {
+        Map<String, BTree> indexTrees = trees.remove( identifier );
+        if ( indexTrees != null )
+        {
+            for ( BTree tree : indexTrees.values() )
+            {
+                tree.close();
+            }
+        }
+        deleteFileOrDirectory( getFileDirectory( baseStorePath, identifier ) );
+        boolean removeFromIndexStore = !recovery ||
+                indexStore.has( identifier.getEntityType(), identifier.indexName );
+        if ( removeFromIndexStore )
+        {
+            indexStore.remove( identifier.getEntityType(), identifier.indexName );
+        }
+        synchronized ( indexes )
+        {
+            BTreeIndex<? extends PropertyContainer> index = indexes.remove( identifier );
+            if ( index != null )
+            {
+                index.markAsDeleted();
+            }
+        }
+    }
+
+    private static void deleteFileOrDirectory( File file )
+    {
+        if ( file.exists() )
+        {
+            if ( file.isDirectory() )
+            {
+                for ( File child : file.listFiles() )
+                {
+                    deleteFileOrDirectory( child );
+                }
+            }
+            file.delete();
+        }
+    }
+
+    private synchronized void forceAll()
+    {
+        for ( Map<String, BTree> indexTrees : trees.values() )
+        {
+            for ( BTree tree : indexTrees.values() )
+            {
+                tree.force();
+            }
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        synchronized ( this )
+        {
+            if ( closed )
+            {
+                return;
+            }
+            closed = true;
+            for ( Map<String, BTree> indexTrees : trees.values() )
+            {
+                for ( BTree tree : indexTrees.values() )
+                {
+                    tree.close();
+                }
+            }
+            trees.clear();
+        }
+
+        if ( xaContainer != null )
+        {
+            xaContainer.close();
+        }
+        providerStore.close();
+    }
+
+    @Override
+    public XaConnection getXaConnection()
+    {
+        return new BTreeXaConnection( baseStorePath, xaContainer
+            .getResourceManager(), getBranchId() );
+    }
+
+    private class BTreeCommandFactory extends XaCommandFactory
+    {
+        @Override
+        public XaCommand readCommand( ReadableByteChannel channel,
+            ByteBuffer buffer ) throws IOException
+        {
+            return BTreeCommand.readCommand( channel, buffer );
+        }
+    }
+
+    private class BTreeTransactionFactory extends XaTransactionFactory
+    {
+        @Override
+        public XaTransaction create( int identifier )
+        {
+            return new BTreeTransaction( identifier, getLogicalLog(), BTreeDataSource.this );
+        }
+
+        @Override
+        public void flushAll()
+        {
+            forceAll();
+        }
+
+        @Override
+        public long getCurrentVersion()
+        {
+            return providerStore.getVersion();
+        }
+
+        @Override
+        public long getAndSetNewVersion()
+        {
+            return providerStore.incrementVersion();
+        }
+
+        @Override
+        public long getLastCommittedTx()
+        {
+            return providerStore.getLastCommittedTx();
+        }
+    }
+
+    @Override
+    public long getCreationTime()
+    {
+        return providerStore.getCreationTime();
+    }
+
+    @Override
+    public long getRandomIdentifier()
+    {
+        return providerStore.getRandomNumber();
+    }
+
+    @Override
+    public long getCurrentLogVersion()
+    {
+        return providerStore.getVersion();
+    }
+
+    @Override
+    public long getLastCommittedTxId()
+    {
+        return providerStore.getLastCommittedTx();
+    }
+
+    @Override
+    public void setLastCommittedTxId( long txId )
+    {
+        providerStore.setLastCommittedTx( txId );
+    }
+
+    @Override
+    public XaContainer getXaContainer()
+    {
+        return this.xaContainer;
+    }
+
+    @Override
+    public ClosableIterable<File> listStoreFiles( boolean includeLogicalLogs ) throws IOException
+    {   // Never include logical logs since they are of little importance
+        forceAll();
+        final List<File> files = new ArrayList<File>();
+        addTreeFiles( new File( baseStorePath ), files );
+        files.add( providerStore.getFile() );
+        return new ClosableIterable<File>()
+        {
+            public Iterator<File> iterator()
+            {
+                return files.iterator();
+            }
+
+            public void close()
+            {
+            }
+        };
+    }
+
+    private void addTreeFiles( File directory, List<File> files )
+    {
+        File[] children = directory.listFiles();
+        for ( File child : children != null ? children : new File[0] )
+        {
+            if ( child.isDirectory() )
+            {
+                addTreeFiles( child, files );
+            }
+            else if ( child.getName().endsWith( TREE_FILE_SUFFIX ) )
+            {
+                files.add( child );
+            }
+        }
+    }
+}
@@ -0,0 +1,383 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.index.impl.btree;
+
+import org.apache.lucene.search.NumericRangeQuery;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.PropertyContainer;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.index.Index;
+import org.neo4j.graphdb.index.IndexHits;
+import org.neo4j.index.impl.btree.BTree.Entry;
+import org.neo4j.index.impl.btree.BTreeTransaction.KeyState;
+import org.neo4j.index.impl.btree.BTreeTransaction.TxState;
+import org.neo4j.index.lucene.QueryContext;
+import org.neo4j.index.lucene.ValueContext;
+import org.neo4j.kernel.impl.core.ReadOnlyDbException;
+import org.neo4j.kernel.impl.util.IoPrimitiveUtils;
+
+/**
+ * An {@link Index} which keeps the values of each key in a {@link BTree}.
+ * Values must be integral numbers, i.e. {@link Long}, {@link Integer},
+ * {@link Short} or {@link Byte}, optionally wrapped in a
+ * {@link ValueContext}. Queries are numeric ranges, given as a
+ * {@link NumericRangeQuery} or as a {@link QueryContext} wrapping one,
+ * and their hits are ordered by value, descending if the
+ * {@link QueryContext} is sorted in reverse on the queried key.
+ */
+abstract class BTreeIndex<T extends PropertyContainer> implements Index<T>
+{
+    final BTreeIndexImplementation service;
+    final BTreeIndexIdentifier identifier;
+    private volatile boolean deleted;
+
+    BTreeIndex( BTreeIndexImplementation service, BTreeIndexIdentifier identifier )
+    {
+        this.service = service;
+        this.identifier = identifier;
+    }
+
+    BTreeXaConnection getConnection()
+    {
+        assertNotDeleted();
+        if ( service.broker() == null )
+        {
+            throw new ReadOnlyDbException();
+        }
+        return service.broker().acquireResourceConnection();
+    }
+
+    private void assertNotDeleted()
+    {
+        if ( deleted )
+        {
+            throw new IllegalStateException( "This index (" + identifier + ") has been deleted" );
+        }
+    }
+
+    BTreeXaConnection getReadOnlyConnection()
+    {
+        assertNotDeleted();
+        return service.broker() == null ? null :
+                service.broker().acquireReadOnlyResourceConnection();
+    }
+
+    void markAsDeleted()
+    {
+        this.deleted = true;
+    }
+
+    public String getName()
+    {
+        return identifier.indexName;
+    }
+
+    public void add( T entity, String key, Object value )
+    {
+        BTreeTransaction tx = getConnection().getBTreeTx();
+        assertKeyNotNull( key );
+        for ( Object oneValue : IoPrimitiveUtils.asArray( value ) )
+        {
+            tx.add( identifier, getEntityId( entity ), key, toLong( oneValue ) );
+        }
+    }
+
+    public void remove( T entity, String key, Object value )
+    {
+        BTreeTransaction tx = getConnection().getBTreeTx();
+        assertKeyNotNull( key );
+        for ( Object oneValue : IoPrimitiveUtils.asArray( value ) )
+        {
+            tx.remove( identifier, getEntityId( entity ), key, toLong( oneValue ) );
+        }
+    }
+
+    /**
+     * Removes all values of {@code key} from {@code entity}. The values are
+     * looked up by entity id in the tree of {@code key} when the
+     * transaction is committed.
+     */
+    public void remove( T entity, String key )
+    {
+        BTreeTransaction tx = getConnection().getBTreeTx();
+        assertKeyNotNull( key );
+        tx.remove( identifier, getEntityId( entity ), key );
+    }
+
+    /**
+     * Removes {@code entity} from this index. The values are looked up by
+     * entity id in the tree of every key in the index when the transaction
+     * is committed.
+     */
+    public void remove( T entity )
+    {
+        getConnection().getBTreeTx().remove( identifier, getEntityId( entity ) );
+    }
+
+    public void delete()
+    {
+        getConnection().getBTreeTx().delete( identifier );
+    }
+
+    private static void assertKeyNotNull( String key )
+    {
+        if ( key == null )
+        {
+            throw new IllegalArgumentException( "Key can't be null" );
+        }
+    }
+
+    static long toLong( Object value )
+    {
+        Object number = value instanceof ValueContext ? ((ValueContext) value).getValue() : value;
+        if ( number instanceof Long || number instanceof Integer ||
+                number instanceof Short || number instanceof Byte )
+        {
+            return ((Number) number).longValue();
+        }
+        throw new IllegalArgumentException( "Only integral numbers can be indexed in a " +
+                BTreeIndexImplementation.SERVICE_NAME + " index, not " + value +
+                (value != null ? " (" + value.getClass() + ")" : "") );
+    }
+
+    private static Long toLongOrNull( Number number )
+    {
+        return number != null ? toLong( number ) : null;
+    }
+
+    public IndexHits<T> get( String key, Object value )
+    {
+        assertKeyNotNull( key );
+        long longValue = toLong( value );
+        return range( key, longValue, longValue, true, true, false, 0, null, null );
+    }
+
+    public IndexHits<T> query( String key, Object queryOrQueryObject )
+    {
+        return query( key, queryOrQueryObject, null, null );
+    }
+
+    public IndexHits<T> query( Object queryOrQueryObject )
+    {
+        return query( null, queryOrQueryObject );
+    }
+
+    IndexHits<T> query( String key, Object queryOrQueryObject, Node startNodeOrNull,
+            Node endNodeOrNull )
+    {
+        QueryContext context = queryOrQueryObject instanceof QueryContext ?
+                (QueryContext) queryOrQueryObject : null;
+        Object query = context != null ? context.getQueryOrQueryObject() : queryOrQueryObject;
+        if ( query == null && key != null )
+        {
+            return range( key, null, null, true, true, isReversed( context, key ),
+                    context != null ? context.getTop() : 0, startNodeOrNull, endNodeOrNull );
+        }
+        if ( !(query instanceof NumericRangeQuery) )
+        {
+            throw new IllegalArgumentException( "A " + BTreeIndexImplementation.SERVICE_NAME +
+                    " index can only be queried with numeric ranges, not " + query );
+        }
+        NumericRangeQuery<?> range = (NumericRangeQuery<?>) query;
+        String field = range.getField();
+        return range( field, toLongOrNull( range.getMin() ), toLongOrNull( range.getMax() ),
+                range.includesMin(), range.includesMax(), isReversed( context, field ),
+                context != null ? context.getTop() : 0, startNodeOrNull, endNodeOrNull );
+    }
+
+    private static boolean isReversed( QueryContext context, String key )
+    {
+        Sort sorting = context != null ? context.getSorting() : null;
+        if ( sorting == null )
+        {
+            return false;
+        }
+        SortField[] fields = sorting.getSort();
+        return fields.length > 0 && key.equals( fields[0].getField() ) && fields[0].getReverse();
+    }
+
+    IndexHits<T> range( String key, Long from, Long to, boolean includeFrom,
+            boolean includeTo, boolean reversed, int top, final Node startNodeOrNull,
+            final Node endNodeOrNull )
+    {
+        TxState txState = null;
+        BTreeXaConnection connection = getReadOnlyConnection();
+        if ( connection != null )
+        {
+            txState = connection.getBTreeTx().getTxState( identifier, false );
+        }
+        KeyState keyState = txState != null ? txState.getKeyState( key, false ) : null;
+        BTree tree = txState != null && txState.deleted ? null :
+                service.dataSource().getTree( identifier, key, false );
+
+        Entry low = lowEntry( from, includeFrom );
+        Entry high = highEntry( to, includeTo );
+        if ( low == null || high == null )
+        {   // An exclusive bound at the end of the value range
+            tree = null;
+            keyState = null;
+            low = new Entry( 0, 0 );
+            high = low;
+        }
+        return new RangeHits<T>( tree, txState, keyState, low, high, reversed, top )
+        {
+            @Override
+            protected T getEntity( long id )
+            {
+                return getById( id, startNodeOrNull, endNodeOrNull );
+            }
+        };
+    }
+
+    private static Entry lowEntry( Long from, boolean inclusive )
+    {
+        if ( from == null )
+        {
+            return new Entry( Long.MIN_VALUE, Long.MIN_VALUE );
+        }
+        if ( !inclusive )
+        {
+            return from == Long.MAX_VALUE ? null : new Entry( from + 1, Long.MIN_VALUE );
+        }
+        return new Entry( from, Long.MIN_VALUE );
+    }
+
+    private static Entry highEntry( Long to, boolean inclusive )
+    {
+        if ( to == null )
+        {
+            return new Entry( Long.MAX_VALUE, Long.MAX_VALUE );
+        }
+        if ( !inclusive )
+        {
+            return to == Long.MIN_VALUE ? null : new Entry( to - 1, Long.MAX_VALUE );
+        }
+        return new Entry( to, Long.MAX_VALUE );
+    }
+
+    public boolean isWriteable()
+    {
+        return true;
+    }
+
+    protected abstract long getEntityId( T entity );
+
+    /**
+     * @return the entity with {@code id}, or {@code null} if it doesn't
+     * match the given start and end nodes.
+     */
+    protected abstract T getById( long id, Node startNodeOrNull, Node endNodeOrNull );
+
+    @Override
+    public String toString()
+    {
+        return identifier.toString();
+    }
+
+    static class NodeIndex extends BTreeIndex<Node>
+    {
+        NodeIndex( BTreeIndexImplementation service, BTreeIndexIdentifier identifier )
+        {
+            super( service, identifier );
+        }
+
+        @Override
+        protected long getEntityId( Node entity )
+        {
+            return entity.getId();
+        }
+
+        @Override
+        protected Node getById( long id, Node startNodeOrNull, Node endNodeOrNull )
+        {
+            return service.graphDb().getNodeById( id );
+        }
+
+        public Class<Node> getEntityType()
+        {
+            return Node.class;
+        }
+    }
+
+    static class RelationshipIndex extends BTreeIndex<Relationship>
+            implements org.neo4j.graphdb.index.RelationshipIndex
+    {
+        RelationshipIndex( BTreeIndexImplementation service, BTreeIndexIdentifier identifier )
+        {
+            super( service, identifier );
+        }
+
+        @Override
+        protected long getEntityId( Relationship entity )
+        {
+            return entity.getId();
+        }
+
+        @Override
+        protected Relationship getById( long id, Node startNodeOrNull, Node endNodeOrNull )
+        {
+            Relationship relationship = service.graphDb().getRelationshipById( id );
+            if ( (startNodeOrNull != null && !relationship.getStartNode().equals( startNodeOrNull )) ||
+                    (endNodeOrNull != null && !relationship.getEndNode().equals( endNodeOrNull )) )
+            {
+                return null;
+            }
+            return relationship;
+        }
+
+        /**
+         * Requires a key since every key has a tree of its own. A {@code null}
+         * value matches all values of {@code key}.
+         */
+        public IndexHits<Relationship> get( String key, Object valueOrNull, Node startNodeOrNull,
+                Node endNodeOrNull )
+        {
+            if ( key == null )
+            {
+                throw new IllegalArgumentException( "Key can't be null" );
+            }
+            Long value = valueOrNull != null ? toLong( valueOrNull ) : null;
+            return range( key, value, value, true, true, false, 0, startNodeOrNull, endNodeOrNull );
+        }
+
+        public IndexHits<Relationship> query( String key, Object queryOrQueryObjectOrNull,
+                Node startNodeOrNull, Node endNodeOrNull )
+        {
+            if ( key == null && queryOrQueryObjectOrNull == null )
+            {
+                throw new IllegalArgumentException( "Key can't be null without a query" );
+            }
+            return super.query( key, queryOrQueryObjectOrNull, startNodeOrNull, endNodeOrNull );
+        }
+
+        public IndexHits<Relationship> query( Object queryOrQueryObjectOrNull,
+                Node startNodeOrNull, Node endNodeOrNull )
+        {
+            return query( null, queryOrQueryObjectOrNull, startNodeOrNull, endNodeOrNull );
+        }
+
+        public Class<Relationship> getEntityType()
+        {
+            return Relationship.class;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.index.impl.btree;
+
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.PropertyContainer;
+import org.neo4j.graphdb.Relationship;
+
+class BTreeIndexIdentifier
+{
+    static final byte NODE = (byte) 1;
+    static final byte RELATIONSHIP = (byte) 2;
+
+    final byte entityTypeByte;
+    final String indexName;
+    private final int hashCode;
+
+    BTreeIndexIdentifier( byte entityTypeByte, String indexName )
+    {
+        this.entityTypeByte = entityTypeByte;
+        this.indexName = indexName;
+        this.hashCode = calculateHashCode();
+    }
+
+    static byte entityTypeByte( Class<? extends PropertyContainer> entityType )
+    {
+        if ( entityType == Node.class )
+        {
+            return NODE;
+        }
+        else if ( entityType == Relationship.class )
+        {
+            return RELATIONSHIP;
+        }
+        throw new IllegalArgumentException( "Unknown entity type " + entityType );
+    }
+
+    Class<? extends PropertyContainer> getEntityType()
+    {
+        if ( entityTypeByte == NODE )
+        {
+            return Node.class;
+        }
+        else if ( entityTypeByte == RELATIONSHIP )
+        {
+            return Relationship.class;
+        }
+        throw new IllegalArgumentException( "Unknown entity type " + entityTypeByte );
+    }
+
+    @Override
+    public boolean equals( Object o )
+    {
+        if ( o == null || !getClass().equals( o.getClass() ) )
+        {
+            return false;
+        }
+        BTreeIndexIdentifier i = (BTreeIndexIdentifier) o;
+        return entityTypeByte == i.entityTypeByte && indexName.equals( i.indexName );
+    }
+
+    private int calculateHashCode()
+    {
+        int code = 17;
+        code += 7 * entityTypeByte;
+        code += 7 * indexName.hashCode();
+        return code;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return this.hashCode;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "Index[" + indexName + "," + (entityTypeByte == NODE ? "Node" : "Relationship") + "]";
+    }
+}
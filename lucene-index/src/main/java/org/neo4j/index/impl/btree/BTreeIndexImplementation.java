@@ -0,0 +1,127 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.index.impl.btree;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.index.Index;
+import org.neo4j.graphdb.index.IndexImplementation;
+import org.neo4j.graphdb.index.IndexManager;
+import org.neo4j.graphdb.index.RelationshipIndex;
+import org.neo4j.helpers.collection.MapUtil;
+import org.neo4j.kernel.Config;
+import org.neo4j.kernel.impl.index.IndexConnectionBroker;
+import org.neo4j.kernel.impl.index.ReadOnlyIndexConnectionBroker;
+import org.neo4j.kernel.impl.transaction.TxModule;
+
+public class BTreeIndexImplementation extends IndexImplementation
+{
+    public static final String SERVICE_NAME = "btree";
+
+    public static final Map<String, String> CONFIG =
+            Collections.unmodifiableMap( MapUtil.stringMap( IndexManager.PROVIDER, SERVICE_NAME ) );
+
+    private final IndexConnectionBroker<BTreeXaConnection> broker;
+    private final BTreeDataSource dataSource;
+    private final GraphDatabaseService graphDb;
+
+    public BTreeIndexImplementation( GraphDatabaseService db, Config config )
+    {
+        this.graphDb = db;
+        TxModule txModule = config.getTxModule();
+        boolean isReadOnly = config.isReadOnly();
+        Map<Object, Object> params = new HashMap<Object, Object>( config.getParams() );
+        params.put( "read_only", isReadOnly );
+        dataSource = (BTreeDataSource) txModule.registerDataSource( BTreeDataSource.DEFAULT_NAME,
+                BTreeDataSource.class.getName(), BTreeDataSource.DEFAULT_BRANCH_ID, params, true );
+        broker = isReadOnly ? new ReadOnlyIndexConnectionBroker<BTreeXaConnection>( txModule.getTxManager() )
+                : new BTreeConnectionBroker( txModule.getTxManager(), dataSource );
+    }
+
+    IndexConnectionBroker<BTreeXaConnection> broker()
+    {
+        return this.broker;
+    }
+
+    BTreeDataSource dataSource()
+    {
+        return this.dataSource;
+    }
+
+    GraphDatabaseService graphDb()
+    {
+        return this.graphDb;
+    }
+
+    @Override
+    public Index<Node> nodeIndex( String indexName, Map<String, String> config )
+    {
+        BTreeIndexIdentifier identifier = new BTreeIndexIdentifier( BTreeIndexIdentifier.NODE, indexName );
+        synchronized ( dataSource.indexes )
+        {
+            BTreeIndex<?> index = dataSource.indexes.get( identifier );
+            if ( index == null )
+            {
+                index = new BTreeIndex.NodeIndex( this, identifier );
+                dataSource.indexes.put( identifier, index );
+            }
+            return (Index<Node>) index;
+        }
+    }
+
+    @Override
+    public RelationshipIndex relationshipIndex( String indexName, Map<String, String> config )
+    {
+        BTreeIndexIdentifier identifier = new BTreeIndexIdentifier( BTreeIndexIdentifier.RELATIONSHIP,
+                indexName );
+        synchronized ( dataSource.indexes )
+        {
+            BTreeIndex<?> index = dataSource.indexes.get( identifier );
+            if ( index == null )
+            {
+                index = new BTreeIndex.RelationshipIndex( this, identifier );
+                dataSource.indexes.put( identifier, index );
+            }
+            return (RelationshipIndex) index;
+        }
+    }
+
+    @Override
+    public Map<String, String> fillInDefaults( Map<String, String> source )
+    {
+        return source != null ? new HashMap<String, String>( source ) : new HashMap<String, String>();
+    }
+
+    @Override
+    public boolean configMatches( Map<String, String> storedConfig, Map<String, String> config )
+    {   // There's nothing to configure
+        return true;
+    }
+
+    @Override
+    public String getDataSourceName()
+    {
+        return BTreeDataSource.DEFAULT_NAME;
+    }
+}
@@ -0,0 +1,234 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.index.impl.btree;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.neo4j.graphdb.PropertyContainer;
+import org.neo4j.index.impl.btree.BTree.Entry;
+import org.neo4j.index.impl.btree.BTreeCommand.AddCommand;
+import org.neo4j.index.impl.btree.BTreeCommand.CreateIndexCommand;
+import org.neo4j.index.impl.btree.BTreeCommand.DeleteCommand;
+import org.neo4j.index.impl.btree.BTreeCommand.RemoveCommand;
+import org.neo4j.kernel.impl.transaction.xaframework.XaCommand;
+import org.neo4j.kernel.impl.transaction.xaframework.XaLogicalLog;
+import org.neo4j.kernel.impl.transaction.xaframework.XaTransaction;
+
+/**
+ * Keeps the uncommitted changes to B+tree indexes, ordered the same way as
+ * the trees themselves so that queries can merge them with committed
+ * entries, and applies them to the trees when committing.
+ */
+class BTreeTransaction extends XaTransaction
+{
+    private final BTreeDataSource dataSource;
+    private final List<BTreeCommand> commands = new ArrayList<BTreeCommand>();
+    private final Map<BTreeIndexIdentifier, TxState> txStates =
+            new HashMap<BTreeIndexIdentifier, TxState>();
+
+    BTreeTransaction( int identifier, XaLogicalLog xaLog, BTreeDataSource dataSource )
+    {
+        super( identifier, xaLog );
+        this.dataSource = dataSource;
+    }
+
+    void add( BTreeIndexIdentifier index, long entityId, String key, long value )
+    {
+        KeyState state = getTxState( index, true ).getKeyState( key, true );
+        Entry entry = new Entry( value, entityId );
+        state.removed.remove( entry );
+        state.added.add( entry );
+        commands.add( new AddCommand( index, entityId, key, value ) );
+    }
+
+    void remove( BTreeIndexIdentifier index, long entityId, String key, long value )
+    {
+        KeyState state = getTxState( index, true ).getKeyState( key, true );
+        Entry entry = new Entry( value, entityId );
+        state.added.remove( entry );
+        state.removed.add( entry );
+        commands.add( new RemoveCommand( index, entityId, key, value ) );
+    }
+
+    void remove( BTreeIndexIdentifier index, long entityId, String key )
+    {
+        KeyState state = getTxState( index, true ).getKeyState( key, true );
+        state.removeAdded( entityId );
+        state.removedEntities.add( entityId );
+        commands.add( new RemoveCommand( index, entityId, key, null ) );
+    }
+
+    void remove( BTreeIndexIdentifier index, long entityId )
+    {
+        TxState state = getTxState( index, true );
+        for ( KeyState keyState : state.keys.values() )
+        {
+            keyState.removeAdded( entityId );
+        }
+        state.removedEntities.add( entityId );
+        commands.add( new RemoveCommand( index, entityId, null, null ) );
+    }
+
+    void delete( BTreeIndexIdentifier index )
+    {
+        for ( Iterator<BTreeCommand> iterator = commands.iterator(); iterator.hasNext(); )
+        {
+            if ( index.equals( iterator.next().indexId ) )
+            {
+                iterator.remove();
+            }
+        }
+        txStates.put( index, new TxState( true ) );
+        commands.add( new DeleteCommand( index ) );
+    }
+
+    void createIndex( Class<? extends PropertyContainer> entityType, String name,
+            Map<String, String> config )
+    {
+        BTreeIndexIdentifier index = new BTreeIndexIdentifier(
+                BTreeIndexIdentifier.entityTypeByte( entityType ), name );
+        commands.add( new CreateIndexCommand( index, config ) );
+    }
+
+    TxState getTxState( BTreeIndexIdentifier index, boolean forWriting )
+    {
+        TxState state = txStates.get( index );
+        if ( state != null && state.deleted && forWriting )
+        {
+            throw new IllegalStateException( "This index (" + index +
+                    ") has been marked as deleted in this transaction" );
+        }
+        if ( state == null && forWriting )
+        {
+            state = new TxState( false );
+            txStates.put( index, state );
+        }
+        return state;
+    }
+
+    @Override
+    protected void doAddCommand( XaCommand command )
+    { // we override inject command and manage our own in memory command list
+    }
+
+    @Override
+    protected void injectCommand( XaCommand command )
+    {
+        commands.add( (BTreeCommand) command );
+    }
+
+    @Override
+    protected void doPrepare()
+    {
+        for ( BTreeCommand command : commands )
+        {
+            addCommand( command );
+        }
+    }
+
+    @Override
+    protected void doCommit()
+    {
+        for ( BTreeCommand command : commands )
+        {
+            command.perform( dataSource );
+        }
+        dataSource.setLastCommittedTxId( getCommitTxId() );
+        commands.clear();
+        txStates.clear();
+    }
+
+    @Override
+    protected void doRollback()
+    {
+        commands.clear();
+        txStates.clear();
+    }
+
+    @Override
+    public boolean isReadOnly()
+    {
+        return commands.isEmpty();
+    }
+
+    /**
+     * Uncommitted changes to one index.
+     */
+    static class TxState
+    {
+        final boolean deleted;
+        final Map<String, KeyState> keys = new HashMap<String, KeyState>();
+        final Set<Long> removedEntities = new HashSet<Long>();
+
+        TxState( boolean deleted )
+        {
+            this.deleted = deleted;
+        }
+
+        KeyState getKeyState( String key, boolean createIfNotExists )
+        {
+            KeyState state = keys.get( key );
+            if ( state == null && createIfNotExists )
+            {
+                state = new KeyState();
+                keys.put( key, state );
+            }
+            return state;
+        }
+
+        boolean isRemoved( KeyState keyState, Entry entry )
+        {
+            if ( deleted || removedEntities.contains( entry.id ) )
+            {
+                return true;
+            }
+            return keyState != null && (keyState.removed.contains( entry ) ||
+                    keyState.removedEntities.contains( entry.id ));
+        }
+    }
+
+    /**
+     * Uncommitted changes to one key in an index.
+     */
+    static class KeyState
+    {
+        final TreeSet<Entry> added = new TreeSet<Entry>();
+        final Set<Entry> removed = new HashSet<Entry>();
+        final Set<Long> removedEntities = new HashSet<Long>();
+
+        private void removeAdded( long entityId )
+        {
+            for ( Iterator<Entry> iterator = added.iterator(); iterator.hasNext(); )
+            {
+                if ( iterator.next().id == entityId )
+                {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,226 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.index.impl.btree;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.helpers.collection.PrimitiveLongSet;
+import org.neo4j.index.impl.btree.BTree.Entry;
+import org.neo4j.index.impl.btree.BTreeTransaction.KeyState;
+import org.neo4j.index.impl.btree.BTreeTransaction.TxState;
+import org.neo4j.index.impl.lucene.AbstractIndexHits;
+
+/**
+ * The entities of a range of entries in a {@link BTree}, merged with the
+ * uncommitted changes of the current transaction, if any. Entities are
+ * returned in the order of the entries, i.e. by value, and only once each;
+ * an entity which has several values in the range is returned at its first
+ * value in that order.
+ */
+abstract class RangeHits<T> extends AbstractIndexHits<T>
+{
+    private final BTree treeOrNull;
+    private final TxState txStateOrNull;
+    private final KeyState keyStateOrNull;
+    private final Entry low;
+    private final Entry high;
+    private final boolean reversed;
+    private final int top;
+    private final Entries entries;
+    // Only a range of several values can have an entity more than once
+    private final PrimitiveLongSet returnedIds;
+    private int returned;
+    private int size = -1;
+
+    RangeHits( BTree treeOrNull, TxState txStateOrNull, KeyState keyStateOrNull,
+            Entry low, Entry high, boolean reversed, int top )
+    {
+        this.treeOrNull = treeOrNull;
+        this.txStateOrNull = txStateOrNull;
+        this.keyStateOrNull = keyStateOrNull;
+        this.low = low;
+        this.high = high;
+        this.reversed = reversed;
+        this.top = top;
+        this.entries = new Entries();
+        this.returnedIds = low.key != high.key ? new PrimitiveLongSet() : null;
+    }
+
+    /**
+     * @return the entity with {@code id}, or {@code null} if it shouldn't
+     * be part of the result.
+     */
+    protected abstract T getEntity( long id );
+
+    @Override
+    protected T fetchNextOrNull()
+    {
+        while ( top <= 0 || returned < top )
+        {
+            Entry entry = entries.next();
+            if ( entry == null )
+            {
+                return null;
+            }
+            if ( returnedIds != null && !returnedIds.add( entry.id ) )
+            {
+                continue;
+            }
+            T entity = entityOrNull( entry.id );
+            if ( entity != null )
+            {
+                returned++;
+                return entity;
+            }
+        }
+        return null;
+    }
+
+    private T entityOrNull( long id )
+    {
+        try
+        {
+            return getEntity( id );
+        }
+        catch ( NotFoundException e )
+        {   // Deleted from the graph, but not from the index
+            return null;
+        }
+    }
+
+    /**
+     * Counts the distinct entity ids with a separate pass over the entries of
+     * the range. No entities are loaded, so entities which have been deleted
+     * from the graph, but not from the index, are counted too. The pass is
+     * still linear in the size of the range, so this isn't a cheap estimate
+     * for large ranges.
+     */
+    public int size()
+    {
+        if ( size == -1 )
+        {
+            int count = 0;
+            PrimitiveLongSet counted = returnedIds != null ? new PrimitiveLongSet() : null;
+            Entries counter = new Entries();
+            for ( Entry entry = counter.next(); entry != null && (top <= 0 || count < top);
+                    entry = counter.next() )
+            {
+                if ( counted == null || counted.add( entry.id ) )
+                {
+                    count++;
+                }
+            }
+            size = count;
+        }
+        return size;
+    }
+
+    public float currentScore()
+    {
+        return Float.NaN;
+    }
+
+    private class Entries
+    {
+        private final BTree.Cursor committed;
+        private final Iterator<Entry> added;
+        private Entry nextCommitted;
+        private Entry nextAdded;
+
+        Entries()
+        {
+            committed = treeOrNull != null ? treeOrNull.cursor( low.key, low.id,
+                    high.key, high.id, reversed ) : null;
+            added = addedInRange().iterator();
+        }
+
+        private Collection<Entry> addedInRange()
+        {
+            if ( keyStateOrNull == null || keyStateOrNull.added.isEmpty() )
+            {
+                return Collections.emptyList();
+            }
+            // Copied so that the hits aren't affected by changes made
+            // in the transaction while iterating over them
+            return new ArrayList<Entry>( reversed ?
+                    keyStateOrNull.added.subSet( low, true, high, true ).descendingSet() :
+                    keyStateOrNull.added.subSet( low, true, high, true ) );
+        }
+
+        Entry next()
+        {
+            if ( nextCommitted == null )
+            {
+                nextCommitted = nextVisibleCommitted();
+            }
+            if ( nextAdded == null && added.hasNext() )
+            {
+                nextAdded = added.next();
+            }
+            if ( nextCommitted == null || nextAdded == null )
+            {
+                return take( nextCommitted == null );
+            }
+            int comparison = nextCommitted.compareTo( nextAdded );
+            if ( comparison == 0 )
+            {
+                nextCommitted = null;
+                return take( true );
+            }
+            return take( reversed ? comparison < 0 : comparison > 0 );
+        }
+
+        private Entry take( boolean fromAdded )
+        {
+            Entry result;
+            if ( fromAdded )
+            {
+                result = nextAdded;
+                nextAdded = null;
+            }
+            else
+            {
+                result = nextCommitted;
+                nextCommitted = null;
+            }
+            return result;
+        }
+
+        private Entry nextVisibleCommitted()
+        {
+            if ( committed == null )
+            {
+                return null;
+            }
+            for ( Entry entry = committed.next(); entry != null; entry = committed.next() )
+            {
+                if ( txStateOrNull == null || !txStateOrNull.isRemoved( keyStateOrNull, entry ) )
+                {
+                    return entry;
+                }
+            }
+            return null;
+        }
+    }
+}
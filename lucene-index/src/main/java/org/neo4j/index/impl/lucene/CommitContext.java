@@ -24,7 +24,6 @@ import java.util.Map;
 
 import org.apache.lucene.document.Document;
 import org.apache.lucene.index.IndexWriter;
-import org.apache.lucene.search.IndexSearcher;
 import org.neo4j.index.impl.lucene.LuceneTransaction.CommandList;
 
 /**
@@ -41,7 +40,7 @@ class CommitContext
     final boolean recovery;
     
     IndexWriter writer;
-    IndexSearcher searcher;
+    IndexSearcherManager searcher;
     
     CommitContext( LuceneDataSource dataSource, IndexIdentifier identifier, IndexType indexType, CommandList commandList )
     {
@@ -57,7 +56,7 @@ class CommitContext
         if ( writer == null )
         {
             writer = dataSource.getIndexWriter( identifier );
-            searcher = dataSource.getIndexSearcher( identifier, false ).getSearcher();
+            searcher = dataSource.getIndexSearcherManager( identifier );
         }
     }
     
@@ -70,7 +69,7 @@ class CommitContext
             return context;
         }
         
-        Document document = LuceneDataSource.findDocument( indexType, searcher, id );
+        Document document = searcher.findDocument( indexType, id );
         if ( document != null )
         {
             context = new DocumentContext( document, true, id );
@@ -23,19 +23,41 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
-import java.util.Set;
 
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.NumericRangeQuery;
+import org.apache.lucene.search.PrefixQuery;
 import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TermRangeQuery;
+import org.apache.lucene.search.WildcardQuery;
+import org.neo4j.helpers.collection.PrimitiveLongObjectMap;
+import org.neo4j.helpers.collection.PrimitiveLongSet;
 import org.neo4j.index.lucene.QueryContext;
 import org.neo4j.index.lucene.ValueContext;
 
+/**
+ * Transaction state of an index, kept as postings from key and value to the
+ * ids of the entities having that value. Term, prefix, wildcard and range
+ * queries, and boolean combinations of them, are evaluated right against the
+ * postings. Only queries needing more than that, f.ex. phrases or sorting,
+ * get a Lucene index in memory built for them, see {@link FullTxData}, which
+ * is then kept up to date along with the postings.
+ */
 public class ExactTxData extends TxData
 {
-    private Map<String, Map<Object, Set<Object>>> data;
+    private Map<String, Map<Object, PrimitiveLongSet>> data;
+    private PrimitiveLongObjectMap<RelationshipId> relationshipIds;
     private boolean hasOrphans;
+    // The terms of the values of a key in its own field, which may come
+    // out of the analyzer, per field and value
+    private Map<String, Map<Object, Collection<String>>> termCache;
+    private FullTxData fullTxData;
 
     ExactTxData( LuceneIndex index )
     {
@@ -45,21 +67,50 @@ public class ExactTxData extends TxData
     @Override
     void add( TxDataHolder holder, Object entityId, String key, Object value )
     {
-        idCollection( key, value, true ).add( entityId );
+        idCollection( key, value, true ).add( remember( entityId ) );
+        if ( fullTxData != null )
+        {
+            fullTxData.add( holder, entityId, key, value );
+        }
+    }
+
+    private long remember( Object entityId )
+    {
+        if ( entityId instanceof RelationshipId )
+        {
+            RelationshipId relationshipId = (RelationshipId) entityId;
+            if ( relationshipIds == null )
+            {
+                relationshipIds = new PrimitiveLongObjectMap<RelationshipId>();
+            }
+            relationshipIds.put( relationshipId.id, relationshipId );
+        }
+        return id( entityId );
+    }
+
+    private static long id( Object entityId )
+    {
+        return entityId instanceof Long ? (Long) entityId : ((RelationshipId) entityId).id;
+    }
+
+    private Object entityId( long id )
+    {
+        RelationshipId relationshipId = relationshipIds != null ? relationshipIds.get( id ) : null;
+        return relationshipId != null ? relationshipId : (Object) id;
     }
 
-    private Set<Object> idCollection( String key, Object value, boolean create )
+    private PrimitiveLongSet idCollection( String key, Object value, boolean create )
     {
-        Map<Object, Set<Object>> keyMap = keyMap( key, create );
+        Map<Object, PrimitiveLongSet> keyMap = keyMap( key, create );
         if ( keyMap == null )
         {
             return null;
         }
 
-        Set<Object> ids = keyMap.get( value );
+        PrimitiveLongSet ids = keyMap.get( value );
         if ( ids == null && create )
         {
-            ids = new HashSet<Object>();
+            ids = new PrimitiveLongSet();
             keyMap.put( value, ids );
             if ( value == null )
             {
@@ -69,13 +120,13 @@ public class ExactTxData extends TxData
         return ids;
     }
 
-    private Map<Object, Set<Object>> keyMap( String key, boolean create )
+    private Map<Object, PrimitiveLongSet> keyMap( String key, boolean create )
     {
         if ( data == null )
         {
             if ( create )
             {
-                data = new HashMap<String, Map<Object,Set<Object>>>();
+                data = new HashMap<String, Map<Object,PrimitiveLongSet>>();
             }
             else
             {
@@ -83,10 +134,10 @@ public class ExactTxData extends TxData
             }
         }
 
-        Map<Object, Set<Object>> inner = data.get( key );
+        Map<Object, PrimitiveLongSet> inner = data.get( key );
         if ( inner == null && create )
         {
-            inner = new HashMap<Object, Set<Object>>();
+            inner = new HashMap<Object, PrimitiveLongSet>();
             data.put( key, inner );
             if ( key == null )
             {
@@ -96,30 +147,37 @@ public class ExactTxData extends TxData
         return inner;
     }
 
-    private TxData toFullTxData()
+    private FullTxData fullTxData()
     {
-        FullTxData data = new FullTxData( index );
-        if ( this.data != null )
+        if ( fullTxData == null )
         {
-            for ( Map.Entry<String, Map<Object, Set<Object>>> entry : this.data.entrySet() )
+            fullTxData = new FullTxData( index );
+            if ( this.data != null )
             {
-                String key = entry.getKey();
-                for ( Map.Entry<Object, Set<Object>> valueEntry : entry.getValue().entrySet() )
+                for ( Map.Entry<String, Map<Object, PrimitiveLongSet>> entry : this.data.entrySet() )
                 {
-                    Object value = valueEntry.getKey();
-                    for ( Object id : valueEntry.getValue() )
+                    String key = entry.getKey();
+                    for ( Map.Entry<Object, PrimitiveLongSet> valueEntry : entry.getValue().entrySet() )
                     {
-                        data.add( null, id, key, value );
+                        Object value = valueEntry.getKey();
+                        for ( long id : valueEntry.getValue().toArray() )
+                        {
+                            fullTxData.add( null, entityId( id ), key, value );
+                        }
                     }
                 }
             }
         }
-        return data;
+        return fullTxData;
     }
 
     @Override
     void close()
     {
+        if ( fullTxData != null )
+        {
+            fullTxData.close();
+        }
     }
 
     @Override
@@ -127,34 +185,461 @@ public class ExactTxData extends TxData
     {
         if ( contextOrNull != null && contextOrNull.getTradeCorrectnessForSpeed() )
         {
-            return Collections.<Long>emptyList();
+            return fullTxData != null ? fullTxData.query( holder, query, contextOrNull ) :
+                    Collections.<Long>emptyList();
+        }
+
+        if ( contextOrNull == null || contextOrNull.getSorting() == null )
+        {
+            Collection<Long> ids = queryWithoutSearcher( holder, query );
+            if ( ids != null )
+            {
+                return ids;
+            }
+        }
+        return fullTxData().query( holder, query, contextOrNull );
+    }
+
+    @Override
+    Collection<Long> queryWithoutSearcher( TxDataHolder holder, Query query )
+    {
+        PrimitiveLongSet ids = evaluate( query );
+        if ( ids == null )
+        {
+            return null;
+        }
+        addAll( ids, idCollection( null, null, false ) );
+        return toLongs( ids );
+    }
+
+    /**
+     * Evaluates {@code query} against the postings, the same way Lucene would
+     * have against a document per entity, including orphans like
+     * {@link FullTxData} does.
+     *
+     * @return the matching ids, or {@code null} if {@code query} is of a kind
+     * which can't be evaluated against the postings.
+     */
+    private PrimitiveLongSet evaluate( Query query )
+    {
+        if ( query instanceof BooleanQuery )
+        {
+            return evaluate( (BooleanQuery) query );
+        }
+        else if ( query instanceof MatchAllDocsQuery )
+        {
+            return allIds();
+        }
+        else if ( query instanceof NumericRangeQuery<?> )
+        {
+            return evaluate( (NumericRangeQuery<?>) query );
+        }
+        else if ( query instanceof TermQuery )
+        {
+            Term term = ((TermQuery) query).getTerm();
+            return isEntityField( term.field() ) ? matchEntityField( term ) :
+                    matchTerms( term.field(), equalTo( term.text() ) );
+        }
+        else if ( query instanceof PrefixQuery )
+        {
+            Term prefix = ((PrefixQuery) query).getPrefix();
+            return matchTerms( prefix.field(), prefix( prefix.text() ) );
+        }
+        else if ( query instanceof WildcardQuery )
+        {
+            Term pattern = ((WildcardQuery) query).getTerm();
+            return matchTerms( pattern.field(), wildcard( pattern.text() ) );
+        }
+        else if ( query instanceof TermRangeQuery && ((TermRangeQuery) query).getCollator() == null )
+        {
+            TermRangeQuery range = (TermRangeQuery) query;
+            return matchTerms( range.getField(), range( range.getLowerTerm(), range.includesLower(),
+                    range.getUpperTerm(), range.includesUpper() ) );
+        }
+        return null;
+    }
+
+    private PrimitiveLongSet evaluate( BooleanQuery query )
+    {
+        if ( query.getMinimumNumberShouldMatch() > 0 )
+        {
+            return null;
+        }
+
+        PrimitiveLongSet required = null;
+        PrimitiveLongSet optional = null;
+        Collection<PrimitiveLongSet> prohibited = new ArrayList<PrimitiveLongSet>();
+        for ( BooleanClause clause : query.clauses() )
+        {
+            PrimitiveLongSet ids = evaluate( clause.getQuery() );
+            if ( ids == null )
+            {
+                return null;
+            }
+            switch ( clause.getOccur() )
+            {
+            case MUST:
+                required = required == null ? ids : retainAll( required, ids );
+                break;
+            case SHOULD:
+                optional = optional == null ? ids : addAll( optional, ids );
+                break;
+            default:
+                prohibited.add( ids );
+            }
+        }
+
+        // Optional clauses only restrict the result if there are no required ones
+        PrimitiveLongSet result = required != null ? required :
+                optional != null ? optional : new PrimitiveLongSet();
+        for ( PrimitiveLongSet ids : prohibited )
+        {
+            for ( long id : ids.toArray() )
+            {
+                result.remove( id );
+            }
+        }
+        return result;
+    }
+
+    @SuppressWarnings( { "rawtypes", "unchecked" } )
+    private PrimitiveLongSet evaluate( NumericRangeQuery<?> query )
+    {
+        Comparable min = (Comparable) query.getMin();
+        Comparable max = (Comparable) query.getMax();
+        if ( isEntityField( query.getField() ) || (min == null && max == null) )
+        {
+            return null;
+        }
+
+        Class<?> type = (min != null ? min : max).getClass();
+        PrimitiveLongSet result = new PrimitiveLongSet();
+        Map<Object, PrimitiveLongSet> keyMap = keyMap( query.getField(), false );
+        if ( keyMap != null )
+        {
+            for ( Map.Entry<Object, PrimitiveLongSet> entry : keyMap.entrySet() )
+            {
+                Object value = entry.getKey();
+                if ( !(value instanceof Number) )
+                {
+                    continue;
+                }
+                if ( value.getClass() != type )
+                {
+                    // Encoded differently in the index, leave it to Lucene
+                    return null;
+                }
+                if ( min != null && (min.compareTo( value ) > 0 ||
+                        (!query.includesMin() && min.compareTo( value ) == 0)) )
+                {
+                    continue;
+                }
+                if ( max != null && (max.compareTo( value ) < 0 ||
+                        (!query.includesMax() && max.compareTo( value ) == 0)) )
+                {
+                    continue;
+                }
+                addAll( result, entry.getValue() );
+            }
+        }
+        return addAll( result, idCollection( query.getField(), null, false ) );
+    }
+
+    private PrimitiveLongSet matchTerms( String field, TermMatcher matcher )
+    {
+        if ( isEntityField( field ) )
+        {
+            return null;
+        }
+
+        PrimitiveLongSet result = new PrimitiveLongSet();
+        if ( data == null )
+        {
+            return result;
+        }
+        for ( Map.Entry<String, Map<Object, PrimitiveLongSet>> entry : data.entrySet() )
+        {
+            String key = entry.getKey();
+            if ( key == null )
+            {
+                continue;
+            }
+            for ( Map.Entry<Object, PrimitiveLongSet> valueEntry : entry.getValue().entrySet() )
+            {
+                Object value = valueEntry.getKey();
+                if ( value == null || valueEntry.getValue().isEmpty() )
+                {
+                    continue;
+                }
+                Collection<String> terms = terms( key, value, field );
+                if ( terms == null )
+                {
+                    // Values of this key don't go into this field
+                    break;
+                }
+                for ( String term : terms )
+                {
+                    if ( matcher.matches( term ) )
+                    {
+                        addAll( result, valueEntry.getValue() );
+                        break;
+                    }
+                }
+            }
+        }
+        return addAll( result, idCollection( field, null, false ) );
+    }
+
+    private Collection<String> terms( String key, Object value, String field )
+    {
+        if ( !key.equals( field ) )
+        {
+            return index.type.termsInField( key, value, field );
+        }
+
+        if ( termCache == null )
+        {
+            termCache = new HashMap<String, Map<Object, Collection<String>>>();
+        }
+        Map<Object, Collection<String>> valueTerms = termCache.get( field );
+        if ( valueTerms == null )
+        {
+            valueTerms = new HashMap<Object, Collection<String>>();
+            termCache.put( field, valueTerms );
+        }
+        Collection<String> terms = valueTerms.get( value );
+        if ( terms == null )
+        {
+            terms = index.type.termsInField( key, value, field );
+            valueTerms.put( value, terms );
+        }
+        return terms;
+    }
+
+    private static boolean isEntityField( String field )
+    {
+        return LuceneIndex.KEY_DOC_ID.equals( field ) || LuceneIndex.KEY_START_NODE_ID.equals( field ) ||
+                LuceneIndex.KEY_END_NODE_ID.equals( field );
+    }
+
+    private PrimitiveLongSet matchEntityField( Term term )
+    {
+        PrimitiveLongSet result = new PrimitiveLongSet();
+        for ( long id : allIds().toArray() )
+        {
+            long value = id;
+            if ( !LuceneIndex.KEY_DOC_ID.equals( term.field() ) )
+            {
+                RelationshipId relationshipId = relationshipIds != null ? relationshipIds.get( id ) : null;
+                if ( relationshipId == null )
+                {
+                    continue;
+                }
+                value = LuceneIndex.KEY_START_NODE_ID.equals( term.field() ) ?
+                        relationshipId.startNode : relationshipId.endNode;
+            }
+            if ( Long.toString( value ).equals( term.text() ) )
+            {
+                result.add( id );
+            }
         }
+        return result;
+    }
 
-        TxData fullTxData = toFullTxData();
-        holder.set( fullTxData );
-        return fullTxData.query( holder, query, contextOrNull );
+    private PrimitiveLongSet allIds()
+    {
+        PrimitiveLongSet result = new PrimitiveLongSet();
+        if ( data != null )
+        {
+            for ( Map<Object, PrimitiveLongSet> keyMap : data.values() )
+            {
+                for ( PrimitiveLongSet ids : keyMap.values() )
+                {
+                    addAll( result, ids );
+                }
+            }
+        }
+        return result;
+    }
+
+    private static PrimitiveLongSet addAll( PrimitiveLongSet target, PrimitiveLongSet ids )
+    {
+        if ( ids != null )
+        {
+            for ( long id : ids.toArray() )
+            {
+                target.add( id );
+            }
+        }
+        return target;
+    }
+
+    private static PrimitiveLongSet retainAll( PrimitiveLongSet target, PrimitiveLongSet ids )
+    {
+        for ( long id : target.toArray() )
+        {
+            if ( !ids.contains( id ) )
+            {
+                target.remove( id );
+            }
+        }
+        return target;
+    }
+
+    private static abstract class TermMatcher
+    {
+        abstract boolean matches( String term );
+    }
+
+    private static TermMatcher equalTo( final String text )
+    {
+        return new TermMatcher()
+        {
+            @Override
+            boolean matches( String term )
+            {
+                return term.equals( text );
+            }
+        };
+    }
+
+    private static TermMatcher prefix( final String prefix )
+    {
+        return new TermMatcher()
+        {
+            @Override
+            boolean matches( String term )
+            {
+                return term.startsWith( prefix );
+            }
+        };
+    }
+
+    private static TermMatcher wildcard( final String pattern )
+    {
+        return new TermMatcher()
+        {
+            @Override
+            boolean matches( String term )
+            {
+                return wildcardEquals( pattern, term );
+            }
+        };
+    }
+
+    private static TermMatcher range( final String lower, final boolean includesLower,
+            final String upper, final boolean includesUpper )
+    {
+        return new TermMatcher()
+        {
+            @Override
+            boolean matches( String term )
+            {
+                if ( lower != null )
+                {
+                    int comparison = term.compareTo( lower );
+                    if ( comparison < 0 || (comparison == 0 && !includesLower) )
+                    {
+                        return false;
+                    }
+                }
+                if ( upper != null )
+                {
+                    int comparison = term.compareTo( upper );
+                    if ( comparison > 0 || (comparison == 0 && !includesUpper) )
+                    {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Matches {@code text} against {@code pattern} where '*' matches any
+     * number of characters and '?' exactly one, like {@link WildcardQuery}.
+     */
+    static boolean wildcardEquals( String pattern, String text )
+    {
+        int p = 0;
+        int t = 0;
+        int star = -1;
+        int starText = 0;
+        while ( t < text.length() )
+        {
+            char c = p < pattern.length() ? pattern.charAt( p ) : 0;
+            if ( p < pattern.length() && c == '*' )
+            {
+                star = p++;
+                starText = t;
+            }
+            else if ( p < pattern.length() && (c == '?' || c == text.charAt( t )) )
+            {
+                p++;
+                t++;
+            }
+            else if ( star != -1 )
+            {
+                // Let the last '*' swallow one more character
+                p = star + 1;
+                t = ++starText;
+            }
+            else
+            {
+                return false;
+            }
+        }
+        while ( p < pattern.length() && pattern.charAt( p ) == '*' )
+        {
+            p++;
+        }
+        return p == pattern.length();
     }
 
     @Override
     void remove( TxDataHolder holder, Object entityId, String key, Object value )
     {
+        if ( fullTxData != null )
+        {
+            fullTxData.remove( holder, entityId, key, value );
+        }
         if ( data == null )
         {
             return;
         }
-        
-        if ( key == null || value == null )
+
+        long id = id( entityId );
+        if ( key == null )
         {
-            TxData fullData = toFullTxData();
-            fullData.remove( holder, entityId, key, value );
-            holder.set( fullData );
+            for ( Map<Object, PrimitiveLongSet> keyMap : data.values() )
+            {
+                for ( PrimitiveLongSet ids : keyMap.values() )
+                {
+                    ids.remove( id );
+                }
+            }
+        }
+        else if ( value == null )
+        {
+            Map<Object, PrimitiveLongSet> keyMap = keyMap( key, false );
+            if ( keyMap != null )
+            {
+                for ( Map.Entry<Object, PrimitiveLongSet> entry : keyMap.entrySet() )
+                {
+                    if ( entry.getKey() != null )
+                    {
+                        entry.getValue().remove( id );
+                    }
+                }
+            }
         }
         else
         {
-            Collection<Object> ids = idCollection( key, value, false );
+            PrimitiveLongSet ids = idCollection( key, value, false );
             if ( ids != null )
             {
-                ids.remove( entityId );
+                ids.remove( id );
             }
         }
     }
@@ -163,7 +648,7 @@ public class ExactTxData extends TxData
     Collection<Long> get( TxDataHolder holder, String key, Object value )
     {
         value = value instanceof ValueContext ? ((ValueContext) value).getCorrectValue() : value.toString();
-        Set<Object> ids = idCollection( key, value, false );
+        PrimitiveLongSet ids = idCollection( key, value, false );
         if ( ids == null || ids.isEmpty() )
         {
             return Collections.<Long>emptySet();
@@ -179,29 +664,21 @@ public class ExactTxData extends TxData
             return null;
         }
         
-        Set<Object> orphans = idCollection( null, null, false );
-        Set<Object> keyOrphans = idCollection( key, null, false );
+        PrimitiveLongSet orphans = idCollection( null, null, false );
+        PrimitiveLongSet keyOrphans = idCollection( key, null, false );
         Collection<Long> orphanLongs = orphans != null ? toLongs( orphans ) : null;
         Collection<Long> keyOrphanLongs = keyOrphans != null ? toLongs( keyOrphans ) : null;
         return LuceneTransaction.merge( orphanLongs, keyOrphanLongs );
     }
 
-    @SuppressWarnings( { "unchecked", "rawtypes" } )
-    private Collection<Long> toLongs( Set<Object> ids )
+    private static Collection<Long> toLongs( PrimitiveLongSet ids )
     {
-        if ( ids.iterator().next() instanceof Long )
+        Collection<Long> longs = new ArrayList<Long>( ids.size() );
+        for ( long id : ids.toArray() )
         {
-            return (Collection) ids;
-        }
-        else
-        {
-            Collection<Long> longs = new ArrayList<Long>();
-            for ( Object id : ids )
-            {
-                longs.add( ((RelationshipId) id).id );
-            }
-            return longs;
+            longs.add( id );
         }
+        return longs;
     }
     
     @Override
@@ -209,10 +686,8 @@ public class ExactTxData extends TxData
     {
         if ( context != null && context.getTradeCorrectnessForSpeed() )
         {
-            return null;
+            return fullTxData != null ? fullTxData.asSearcher( holder, context ) : null;
         }
-        TxData fullTxData = toFullTxData();
-        holder.set( fullTxData );
-        return fullTxData.asSearcher( holder, context );
+        return fullTxData().asSearcher( holder, context );
     }
 }
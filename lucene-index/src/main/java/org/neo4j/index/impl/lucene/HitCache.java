@@ -0,0 +1,521 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.index.impl.lucene;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Fieldable;
+
+/**
+ * Caches the ids hit by exact lookups, i.e. {@link LuceneIndex#get(String, Object)},
+ * for the index keys it has been enabled for. The ids of a hit are kept
+ * sorted and delta encoded as variable length integers, and all hits share
+ * a budget of bytes, so one value with a great many hits can't take up the
+ * heap. When the budget is exceeded hits are evicted in clock order, i.e.
+ * approximately least recently used first.
+ * 
+ * Gets don't lock. Puts and invalidations of an index synchronize on the
+ * index, which together with its invalidation count makes sure a hit read
+ * from a searcher that has since been committed to is never put.
+ */
+class HitCache
+{
+    /**
+     * Rough number of bytes used by a cached hit, besides its ids and value.
+     */
+    static final int ENTRY_OVERHEAD = 128;
+
+    private final long maxSizeInBytes;
+    private final AtomicLong sizeInBytes = new AtomicLong();
+    private final ConcurrentMap<EntryKey, Entry> entries = new ConcurrentHashMap<EntryKey, Entry>();
+    private final ConcurrentMap<IndexIdentifier, IndexCache> indexes =
+            new ConcurrentHashMap<IndexIdentifier, IndexCache>();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private Iterator<Map.Entry<EntryKey, Entry>> clockHand; // guarded by evictionLock
+
+    HitCache( long maxSizeInBytes )
+    {
+        this.maxSizeInBytes = maxSizeInBytes;
+    }
+
+    /**
+     * Enables caching of hits for {@code key} in the given index.
+     * 
+     * @param capacity the maximum number of values to cache hits for.
+     */
+    void setCapacity( IndexIdentifier identifier, String key, int capacity )
+    {
+        IndexCache index = indexes.get( identifier );
+        if ( index == null )
+        {
+            IndexCache created = new IndexCache();
+            index = indexes.putIfAbsent( identifier, created );
+            index = index != null ? index : created;
+        }
+        KeySettings settings = index.keys.get( key );
+        if ( settings != null )
+        {
+            settings.capacity = capacity;
+        }
+        else
+        {
+            index.keys.put( key, new KeySettings( capacity ) );
+        }
+    }
+
+    Integer getCapacity( IndexIdentifier identifier, String key )
+    {
+        KeySettings settings = settings( identifier, key );
+        return settings != null ? settings.capacity : null;
+    }
+
+    boolean isEnabled( IndexIdentifier identifier, String key )
+    {
+        return settings( identifier, key ) != null;
+    }
+
+    private KeySettings settings( IndexIdentifier identifier, String key )
+    {
+        IndexCache index = indexes.get( identifier );
+        return index != null ? index.keys.get( key ) : null;
+    }
+
+    /**
+     * @return the ids hit by {@code value} for {@code key}, or {@code null} if
+     * not cached.
+     */
+    long[] get( IndexIdentifier identifier, String key, String value )
+    {
+        IndexCache index = indexes.get( identifier );
+        if ( index == null || !index.keys.containsKey( key ) )
+        {
+            return null;
+        }
+        Entry entry = entries.get( new EntryKey( identifier, key, value ) );
+        if ( entry == null )
+        {
+            index.misses.incrementAndGet();
+            return null;
+        }
+        index.hits.incrementAndGet();
+        entry.referenced = true;
+        return decode( entry.ids, entry.count );
+    }
+
+    /**
+     * A stamp to pass to {@link #put(IndexIdentifier, String, String, long[], long)},
+     * taken before reading the hits from the index.
+     */
+    long stamp( IndexIdentifier identifier )
+    {
+        IndexCache index = indexes.get( identifier );
+        return index != null ? index.invalidations.get() : -1;
+    }
+
+    /**
+     * @return whether {@code count} ids hit by {@code value} may fit in the
+     * budget. Each id takes at least one byte encoded, so when this returns
+     * {@code false} there's no need to keep collecting the ids of the hit.
+     */
+    boolean mayFit( String value, int count )
+    {
+        return ENTRY_OVERHEAD + 2L * value.length() + count <= maxSizeInBytes;
+    }
+
+    /**
+     * Caches the ids hit by {@code value} for {@code key}, unless caching
+     * isn't enabled for the key or the index has been invalidated since
+     * {@code stamp} was taken. If the key already has as many values cached
+     * as its capacity, another one of them is evicted. {@code ids} is sorted
+     * in place.
+     */
+    void put( IndexIdentifier identifier, String key, String value, long[] ids, long stamp )
+    {
+        IndexCache index = indexes.get( identifier );
+        KeySettings settings = index != null ? index.keys.get( key ) : null;
+        if ( settings == null || !mayFit( value, ids.length ) )
+        {
+            return;
+        }
+        Arrays.sort( ids );
+        Entry entry = new Entry( index, settings, encode( ids ), ids.length,
+                ENTRY_OVERHEAD + 2 * value.length() );
+        if ( entry.sizeInBytes > maxSizeInBytes )
+        {
+            return;
+        }
+        EntryKey entryKey = new EntryKey( identifier, key, value );
+        synchronized ( index )
+        {
+            if ( index.invalidations.get() != stamp )
+            {
+                return;
+            }
+            added( entry );
+            Entry replaced = entries.put( entryKey, entry );
+            if ( replaced != null )
+            {
+                removed( replaced );
+            }
+        }
+        if ( sizeInBytes.get() > maxSizeInBytes || settings.size.get() > settings.capacity )
+        {
+            evict( entry );
+        }
+    }
+
+    /**
+     * Removes the cached hits for {@code value} of {@code key}, called when a
+     * transaction adding or removing it commits.
+     */
+    void invalidate( IndexIdentifier identifier, String key, Object value )
+    {
+        IndexCache index = indexes.get( identifier );
+        if ( index == null )
+        {
+            return;
+        }
+        synchronized ( index )
+        {
+            index.invalidations.incrementAndGet();
+            remove( new EntryKey( identifier, key, value.toString() ) );
+        }
+    }
+
+    /**
+     * Removes the cached hits for the values {@code document} has for
+     * {@code key}, or for all its keys if {@code key} is {@code null}. Called
+     * when a transaction removing an entity from the index, without
+     * specifying the value, commits.
+     */
+    void invalidate( IndexIdentifier identifier, Document document, String key )
+    {
+        IndexCache index = indexes.get( identifier );
+        if ( index == null )
+        {
+            return;
+        }
+        Set<String> keys = new HashSet<String>();
+        if ( key != null )
+        {
+            keys.add( key );
+        }
+        else
+        {
+            for ( Fieldable field : document.getFields() )
+            {
+                keys.add( field.name() );
+            }
+        }
+        synchronized ( index )
+        {
+            index.invalidations.incrementAndGet();
+            for ( String name : keys )
+            {
+                for ( String value : document.getValues( name ) )
+                {
+                    remove( new EntryKey( identifier, name, value ) );
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes everything cached for the index and disables caching for it,
+     * called when the index is deleted.
+     */
+    void invalidate( IndexIdentifier identifier )
+    {
+        IndexCache index = indexes.remove( identifier );
+        if ( index == null )
+        {
+            return;
+        }
+        synchronized ( index )
+        {
+            index.invalidations.incrementAndGet();
+            for ( EntryKey key : entries.keySet() )
+            {
+                if ( key.identifier.equals( identifier ) )
+                {
+                    remove( key );
+                }
+            }
+        }
+    }
+
+    private void remove( EntryKey key )
+    {
+        Entry entry = entries.remove( key );
+        if ( entry != null )
+        {
+            removed( entry );
+        }
+    }
+
+    private void added( Entry entry )
+    {
+        entry.settings.size.incrementAndGet();
+        entry.index.sizeInBytes.addAndGet( entry.sizeInBytes );
+        sizeInBytes.addAndGet( entry.sizeInBytes );
+    }
+
+    private void removed( Entry entry )
+    {
+        entry.settings.size.decrementAndGet();
+        entry.index.sizeInBytes.addAndGet( -entry.sizeInBytes );
+        sizeInBytes.addAndGet( -entry.sizeInBytes );
+    }
+
+    /**
+     * Sweeps the clock hand over the entries until enough of them, not
+     * referenced since the hand last passed, have been evicted to get within
+     * the budget and the capacity of the key of {@code admitted}, which
+     * itself isn't evicted. Only one thread evicts at a time, the others go on
+     * without waiting.
+     */
+    private void evict( Entry admitted )
+    {
+        if ( !evictionLock.tryLock() )
+        {
+            return;
+        }
+        try
+        {
+            KeySettings settings = admitted.settings;
+            // Two rounds clears all the referenced marks, so this ends
+            int budget = 2 * entries.size() + 1;
+            while ( budget-- > 0 )
+            {
+                boolean overBudget = sizeInBytes.get() > maxSizeInBytes;
+                if ( !overBudget && settings.size.get() <= settings.capacity )
+                {
+                    return;
+                }
+                if ( clockHand == null || !clockHand.hasNext() )
+                {
+                    clockHand = entries.entrySet().iterator();
+                    if ( !clockHand.hasNext() )
+                    {
+                        return;
+                    }
+                }
+                Map.Entry<EntryKey, Entry> candidate = clockHand.next();
+                Entry entry = candidate.getValue();
+                if ( entry == admitted || (!overBudget && entry.settings != settings) )
+                {
+                    continue;
+                }
+                if ( entry.referenced )
+                {
+                    entry.referenced = false;
+                }
+                else if ( entries.remove( candidate.getKey(), entry ) )
+                {
+                    removed( entry );
+                    entry.index.evictions.incrementAndGet();
+                }
+            }
+        }
+        finally
+        {
+            evictionLock.unlock();
+        }
+    }
+
+    long getMaxSizeInBytes()
+    {
+        return maxSizeInBytes;
+    }
+
+    long getSizeInBytes()
+    {
+        return sizeInBytes.get();
+    }
+
+    /**
+     * @return statistics for each index caching is enabled for.
+     */
+    List<Statistics> getStatistics()
+    {
+        List<Statistics> result = new ArrayList<Statistics>();
+        for ( Map.Entry<IndexIdentifier, IndexCache> entry : indexes.entrySet() )
+        {
+            IndexCache index = entry.getValue();
+            result.add( new Statistics( entry.getKey(), index.hits.get(), index.misses.get(),
+                    index.evictions.get(), index.sizeInBytes.get() ) );
+        }
+        return result;
+    }
+
+    static class Statistics
+    {
+        final IndexIdentifier identifier;
+        final long hits;
+        final long misses;
+        final long evictions;
+        final long sizeInBytes;
+
+        Statistics( IndexIdentifier identifier, long hits, long misses, long evictions, long sizeInBytes )
+        {
+            this.identifier = identifier;
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.sizeInBytes = sizeInBytes;
+        }
+
+        @Override
+        public String toString()
+        {
+            return identifier + ": hits=" + hits + ", misses=" + misses + ", evictions=" +
+                    evictions + ", bytes=" + sizeInBytes;
+        }
+    }
+
+    static byte[] encode( long[] sortedIds )
+    {
+        byte[] bytes = new byte[sortedIds.length * 3 + 8];
+        int position = 0;
+        long previous = 0;
+        for ( long id : sortedIds )
+        {
+            if ( position + 10 > bytes.length )
+            {
+                bytes = Arrays.copyOf( bytes, bytes.length * 2 );
+            }
+            long delta = id - previous;
+            previous = id;
+            while ( (delta & ~0x7FL) != 0 )
+            {
+                bytes[position++] = (byte) ((delta & 0x7F) | 0x80);
+                delta >>>= 7;
+            }
+            bytes[position++] = (byte) delta;
+        }
+        return Arrays.copyOf( bytes, position );
+    }
+
+    static long[] decode( byte[] bytes, int count )
+    {
+        long[] ids = new long[count];
+        int position = 0;
+        long previous = 0;
+        for ( int i = 0; i < count; i++ )
+        {
+            long delta = 0;
+            int shift = 0;
+            byte current;
+            do
+            {
+                current = bytes[position++];
+                delta |= (current & 0x7FL) << shift;
+                shift += 7;
+            }
+            while ( (current & 0x80) != 0 );
+            previous += delta;
+            ids[i] = previous;
+        }
+        return ids;
+    }
+
+    private static class IndexCache
+    {
+        private final ConcurrentMap<String, KeySettings> keys = new ConcurrentHashMap<String, KeySettings>();
+        private final AtomicLong invalidations = new AtomicLong();
+        private final AtomicLong hits = new AtomicLong();
+        private final AtomicLong misses = new AtomicLong();
+        private final AtomicLong evictions = new AtomicLong();
+        private final AtomicLong sizeInBytes = new AtomicLong();
+    }
+
+    private static class KeySettings
+    {
+        private volatile int capacity;
+        private final AtomicInteger size = new AtomicInteger();
+
+        KeySettings( int capacity )
+        {
+            this.capacity = capacity;
+        }
+    }
+
+    private static class Entry
+    {
+        private final IndexCache index;
+        private final KeySettings settings;
+        private final byte[] ids;
+        private final int count;
+        private final long sizeInBytes;
+        private volatile boolean referenced;
+
+        Entry( IndexCache index, KeySettings settings, byte[] ids, int count, int overhead )
+        {
+            this.index = index;
+            this.settings = settings;
+            this.ids = ids;
+            this.count = count;
+            this.sizeInBytes = ids.length + overhead;
+        }
+    }
+
+    private static class EntryKey
+    {
+        private final IndexIdentifier identifier;
+        private final String key;
+        private final String value;
+
+        EntryKey( IndexIdentifier identifier, String key, String value )
+        {
+            this.identifier = identifier;
+            this.key = key;
+            this.value = value;
+        }
+
+        @Override
+        public boolean equals( Object obj )
+        {
+            if ( !(obj instanceof EntryKey) )
+            {
+                return false;
+            }
+            EntryKey other = (EntryKey) obj;
+            return identifier.equals( other.identifier ) && key.equals( other.key ) && value.equals( other.value );
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return (31 * identifier.hashCode() + key.hashCode()) * 31 + value.hashCode();
+        }
+    }
+}
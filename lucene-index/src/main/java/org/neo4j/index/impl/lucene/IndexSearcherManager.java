@@ -0,0 +1,193 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.index.impl.lucene;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Fieldable;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.search.IndexSearcher;
+import org.neo4j.index.impl.lucene.CommitContext.DocumentContext;
+
+/**
+ * Hands out the searcher of one index and reopens it, near-real-time from
+ * its {@link IndexWriter}, when changes have been committed. Queries get the
+ * current searcher without taking any lock, reopening is done by committers
+ * or a background thread and the reopened searcher is swapped in atomically.
+ * A searcher which has been swapped out is closed when the last query using
+ * it closes its {@link IndexSearcherRef}.
+ * 
+ * Commits and refreshes are made under the {@link LuceneDataSource} write
+ * and read lock respectively, so they never overlap. Documents committed
+ * since the last refresh are kept here, since the committer must be able to
+ * find them before queries can.
+ */
+class IndexSearcherManager
+{
+    private final IndexIdentifier identifier;
+    private volatile IndexSearcherRef current;
+    private volatile boolean closed;
+    private IndexWriter writer;
+    private volatile int unpublishedCommits;
+    private final Map<Long, Document> unpublishedDocuments = new HashMap<Long, Document>();
+
+    IndexSearcherManager( IndexIdentifier identifier, IndexWriter writer ) throws IOException
+    {
+        this.identifier = identifier;
+        this.writer = writer;
+        this.current = new IndexSearcherRef( identifier,
+                new IndexSearcher( IndexReader.open( writer, true ) ) );
+    }
+
+    IndexIdentifier getIdentifier()
+    {
+        return identifier;
+    }
+
+    /**
+     * @return the current searcher, without adding a reference to it.
+     */
+    IndexSearcherRef current()
+    {
+        return current;
+    }
+
+    /**
+     * Adds a reference to the current searcher and returns it. The caller
+     * must close it when done.
+     * 
+     * @return the current searcher, or {@code null} if this manager has been
+     * closed.
+     */
+    IndexSearcherRef acquire()
+    {
+        while ( true )
+        {
+            IndexSearcherRef searcher = current;
+            if ( searcher.tryIncRef() )
+            {
+                return searcher;
+            }
+            if ( closed )
+            {
+                return null;
+            }
+            // It was swapped out and closed since we read it, try the new one
+        }
+    }
+
+    /**
+     * Records a commit to this index, along with the documents it wrote.
+     * 
+     * @return whether or not the searcher is due to be refreshed.
+     */
+    synchronized boolean committed( Collection<DocumentContext> documents, int refreshAfterCommits )
+    {
+        for ( DocumentContext document : documents )
+        {
+            unpublishedDocuments.put( document.entityId, document.document );
+        }
+        return ++unpublishedCommits >= refreshAfterCommits;
+    }
+
+    /**
+     * @return whether or not there are commits to this index which the
+     * current searcher doesn't see.
+     */
+    boolean hasUnpublishedCommits()
+    {
+        return unpublishedCommits > 0;
+    }
+
+    /**
+     * Looks up the document for {@code entityId} as committed so far,
+     * including commits not yet visible to queries.
+     */
+    synchronized Document findDocument( IndexType type, long entityId )
+    {
+        if ( unpublishedDocuments.containsKey( entityId ) )
+        {
+            Document document = unpublishedDocuments.get( entityId );
+            return LuceneDataSource.documentIsEmpty( document ) ? null : copy( document );
+        }
+        return LuceneDataSource.findDocument( type, current.getSearcher(), entityId );
+    }
+
+    private static Document copy( Document document )
+    {
+        Document copy = new Document();
+        for ( Fieldable field : document.getFields() )
+        {
+            copy.add( field );
+        }
+        return copy;
+    }
+
+    /**
+     * Reopens the searcher so that everything written by {@code writer} is
+     * visible to queries. The writer may have been replaced since the last
+     * refresh, if it was evicted from the writer cache.
+     */
+    synchronized void refresh( IndexWriter writer ) throws IOException
+    {
+        if ( closed )
+        {
+            return;
+        }
+        IndexReader reader = current.getSearcher().getIndexReader();
+        IndexReader reopened = writer == this.writer ? reader.reopen() : IndexReader.open( writer, true );
+        if ( reopened != reader )
+        {
+            IndexSearcherRef old = current;
+            current = new IndexSearcherRef( identifier, new IndexSearcher( reopened ) );
+            old.detachOrClose();
+        }
+        this.writer = writer;
+        unpublishedCommits = 0;
+        unpublishedDocuments.clear();
+    }
+
+    /**
+     * Stops handing out searchers. The current one is closed when no longer
+     * used by any query.
+     */
+    synchronized void close() throws IOException
+    {
+        if ( !closed )
+        {
+            closed = true;
+            current.detachOrClose();
+        }
+    }
+
+    /**
+     * Closes the current searcher right away, whether or not it's in use.
+     */
+    synchronized void dispose() throws IOException
+    {
+        closed = true;
+        current.dispose();
+    }
+}
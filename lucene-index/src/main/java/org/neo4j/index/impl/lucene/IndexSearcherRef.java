@@ -28,16 +28,16 @@ class IndexSearcherRef
 {
     private final IndexIdentifier identifier;
     private final IndexSearcher searcher;
-    private final AtomicInteger refCount = new AtomicInteger( 0 );
-    private volatile boolean isClosed;
     
     /**
-     * We need this because we only want to close the reader/searcher if
-     * it has been detached... i.e. the {@link LuceneDataSource} no longer
-     * has any reference to it, only an iterator out in the client has a ref.
-     * And when that client calls close() it should be closed.
+     * Starts at one, which is the reference held by the
+     * {@link IndexSearcherManager} as long as this is its current searcher.
+     * Every query using the searcher adds one more. The reader/searcher is
+     * closed when the count reaches zero, i.e. when it has been detached
+     * from the manager and the last client out there has called close().
      */
-    private volatile boolean detached;
+    private final AtomicInteger refCount = new AtomicInteger( 1 );
+    private volatile boolean isClosed;
     
     public IndexSearcherRef( IndexIdentifier identifier, IndexSearcher searcher )
     {
@@ -55,12 +55,36 @@ class IndexSearcherRef
         return identifier;
     }
 
+    /**
+     * Adds a reference to this searcher, unless it has already been closed.
+     * 
+     * @return whether or not a reference was added.
+     */
+    boolean tryIncRef()
+    {
+        while ( true )
+        {
+            int count = this.refCount.get();
+            if ( count <= 0 )
+            {
+                return false;
+            }
+            if ( this.refCount.compareAndSet( count, count + 1 ) )
+            {
+                return true;
+            }
+        }
+    }
+    
     void incRef()
     {
-        this.refCount.incrementAndGet();
+        if ( !tryIncRef() )
+        {
+            throw new IllegalStateException( "Searcher for " + identifier + " has been closed" );
+        }
     }
     
-    public void dispose() throws IOException
+    public synchronized void dispose() throws IOException
     {
         if ( !this.isClosed )
         {
@@ -70,32 +94,33 @@ class IndexSearcherRef
         }
     }
     
+    /**
+     * Releases the reference held by the {@link IndexSearcherManager}, which
+     * has stopped handing out this searcher. It's closed right away if no
+     * client uses it, otherwise when the last one closes it.
+     */
     public void detachOrClose() throws IOException
     {
-        if ( this.refCount.get() == 0 )
-        {
-            dispose();
-        }
-        else
-        {
-            this.detached = true;
-        }
+        decRef();
     }
     
     public boolean close() throws IOException
     {
-        if ( this.isClosed || this.refCount.get() == 0 )
+        if ( this.isClosed )
         {
             return true;
         }
-        
-        boolean reallyClosed = false;
-        if ( this.refCount.decrementAndGet() <= 0 && this.detached )
+        return decRef();
+    }
+    
+    private boolean decRef() throws IOException
+    {
+        if ( this.refCount.decrementAndGet() == 0 )
         {
             dispose();
-            reallyClosed = true;
+            return true;
         }
-        return reallyClosed;
+        return false;
     }
     
     boolean closeStrict()
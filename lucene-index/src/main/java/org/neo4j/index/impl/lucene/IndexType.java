@@ -19,12 +19,19 @@
  */
 package org.neo4j.index.impl.lucene;
 
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 
 import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.document.Field.Index;
@@ -67,6 +74,17 @@ abstract class IndexType
             document.add( instantiateField( key, value, Index.NOT_ANALYZED ) );
         }
 
+        @Override
+        Collection<String> termsInField( String key, Object value, String field )
+        {
+            if ( !key.equals( field ) )
+            {
+                return null;
+            }
+            return value instanceof Number ? Collections.<String>emptyList() :
+                    Collections.singletonList( value.toString() );
+        }
+
         void removeFieldsFromDocument( Document document, String key, Object value )
         {
             Set<String> values = null;
@@ -139,6 +157,21 @@ abstract class IndexType
             document.add( new Field( exactKey( key ), value.toString(), Store.YES, Index.NOT_ANALYZED ) );
             document.add( instantiateField( key, value, Index.ANALYZED ) );
         }
+
+        @Override
+        Collection<String> termsInField( String key, Object value, String field )
+        {
+            if ( field.equals( exactKey( key ) ) )
+            {
+                return Collections.singletonList( value.toString() );
+            }
+            else if ( field.equals( key ) )
+            {
+                return value instanceof Number ? Collections.<String>emptyList() :
+                        analyze( field, value.toString() );
+            }
+            return null;
+        }
         
         @Override
         void removeFieldsFromDocument( Document document, String key, Object value )
@@ -287,6 +320,36 @@ abstract class IndexType
     }
     
     abstract void addToDocument( Document document, String key, Object value );
+
+    /**
+     * Returns the terms {@link #addToDocument(Document, String, Object)} writes
+     * into {@code field} for a value of {@code key}, or {@code null} if it
+     * doesn't write to {@code field} at all. The prefix coded terms of numeric
+     * values aren't included.
+     */
+    abstract Collection<String> termsInField( String key, Object value, String field );
+
+    Collection<String> analyze( String field, String value )
+    {
+        Collection<String> terms = new ArrayList<String>();
+        try
+        {
+            TokenStream stream = analyzer.tokenStream( field, new StringReader( value ) );
+            CharTermAttribute term = stream.addAttribute( CharTermAttribute.class );
+            stream.reset();
+            while ( stream.incrementToken() )
+            {
+                terms.add( term.toString() );
+            }
+            stream.end();
+            stream.close();
+        }
+        catch ( IOException e )
+        {
+            throw new RuntimeException( e );
+        }
+        return terms;
+    }
     
     Fieldable instantiateField( String key, Object value, Index analyzed )
     {
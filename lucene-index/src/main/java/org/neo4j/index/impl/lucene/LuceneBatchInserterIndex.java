@@ -22,13 +22,19 @@ package org.neo4j.index.impl.lucene;
 import static org.neo4j.index.impl.lucene.LuceneDataSource.LUCENE_VERSION;
 import static org.neo4j.index.impl.lucene.LuceneDataSource.getDirectory;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Fieldable;
@@ -36,9 +42,14 @@ import org.apache.lucene.index.CorruptIndexException;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.IndexWriterConfig.OpenMode;
+import org.apache.lucene.index.MultiReader;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.AlreadyClosedException;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
 import org.neo4j.graphdb.index.BatchInserterIndex;
 import org.neo4j.graphdb.index.IndexHits;
 import org.neo4j.helpers.Pair;
@@ -60,9 +71,19 @@ class LuceneBatchInserterIndex implements BatchInserterIndex
     private Map<String, LruCache<String, Collection<Long>>> cache;
     private int updateCount;
     private int commitBatchSize = 500000;
+    
+    // Only used when documents are built and written by several threads,
+    // each one into a separate segment writer
+    private final List<SegmentWriter> segmentWriters = new ArrayList<SegmentWriter>();
+    private final BlockingQueue<PendingDocument> pendingDocuments;
+    private final AtomicLong addedDocuments = new AtomicLong();
+    private final AtomicLong indexedDocuments = new AtomicLong();
+    private final Object allIndexed = new Object();
+    private volatile Throwable segmentWriterFailure;
 
     LuceneBatchInserterIndex( LuceneBatchInserterIndexProvider provider,
-            BatchInserter inserter, IndexIdentifier identifier, Map<String, String> config )
+            BatchInserter inserter, IndexIdentifier identifier, Map<String, String> config,
+            int indexingThreads )
     {
         String dbStoreDir = ((BatchInserterImpl) inserter).getStore();
         Pair<String, Boolean> storeDir = LuceneDataSource.getStoreDir( dbStoreDir );
@@ -70,11 +91,23 @@ class LuceneBatchInserterIndex implements BatchInserterIndex
         this.identifier = identifier;
         this.type = IndexType.getIndexType( identifier, config );
         this.writer = instantiateWriter( storeDir.first() );
+        this.pendingDocuments = indexingThreads > 0 ?
+                new ArrayBlockingQueue<PendingDocument>( 1000 * indexingThreads ) : null;
+        File directory = LuceneDataSource.getFileDirectory( storeDir.first(), identifier );
+        for ( int i = 0; i < indexingThreads; i++ )
+        {
+            SegmentWriter segmentWriter = new SegmentWriter(
+                    new File( directory.getParentFile(), directory.getName() + "-segment-" + i ),
+                    i, indexingThreads );
+            segmentWriters.add( segmentWriter );
+            segmentWriter.start();
+        }
     }
     
     /**
      * Sets the number of modifications that will be the threshold for a commit
-     * to happen. This will free up memory.
+     * to happen. This will free up memory. Not used if documents are written
+     * by several threads, those are only committed at {@link #shutdown()}.
      * 
      * @param size the threshold for triggering a commit.
      */
@@ -85,16 +118,28 @@ class LuceneBatchInserterIndex implements BatchInserterIndex
 
     public void add( long entityId, Map<String, Object> properties )
     {
+        // The base document is created here since relationships are
+        // looked up in the (single threaded) batch inserter
+        Document document = identifier.entityType.newDocument( entityId );
+        if ( createdNow )
+        {
+            // If we know that the index was created this session
+            // then we can go ahead and add stuff to the cache directly
+            // when adding to the index.
+            addToCache( entityId, properties );
+        }
+        addedDocuments.incrementAndGet();
+        if ( !segmentWriters.isEmpty() )
+        {
+            queue( new PendingDocument( document, new HashMap<String, Object>( properties ) ) );
+            return;
+        }
+
         try
         {
-            Document document = identifier.entityType.newDocument( entityId );
-            for ( Map.Entry<String, Object> entry : properties.entrySet() )
-            {
-                String key = entry.getKey();
-                Object value = entry.getValue();
-                addSingleProperty(entityId, document, key, value);
-            }
+            addProperties( document, properties );
             writer.addDocument( document );
+            indexedDocuments.incrementAndGet();
             if ( ++updateCount == commitBatchSize )
             {
                 writer.commit();
@@ -107,22 +152,115 @@ class LuceneBatchInserterIndex implements BatchInserterIndex
         }
     }
 
-    private void addSingleProperty( long entityId, Document document, String key, Object value ) {
-        for ( Object oneValue : IoPrimitiveUtils.asArray(value) )
+    private void addProperties( Document document, Map<String, Object> properties )
+    {
+        for ( Map.Entry<String, Object> entry : properties.entrySet() )
         {
-            boolean isValueContext = oneValue instanceof ValueContext;
-            oneValue = isValueContext ? ((ValueContext) oneValue).getCorrectValue() : oneValue.toString();
-            type.addToDocument( document, key, oneValue );
-            if ( createdNow )
+            for ( Object oneValue : IoPrimitiveUtils.asArray( entry.getValue() ) )
             {
-                // If we know that the index was created this session
-                // then we can go ahead and add stuff to the cache directly
-                // when adding to the index.
-                addToCache( entityId, key, oneValue );
+                type.addToDocument( document, entry.getKey(), correctValue( oneValue ) );
             }
         }
     }
 
+    private static Object correctValue( Object value )
+    {
+        return value instanceof ValueContext ? ((ValueContext) value).getCorrectValue() : value.toString();
+    }
+
+    private void addToCache( long entityId, Map<String, Object> properties )
+    {
+        if ( this.cache == null )
+        {
+            return;
+        }
+        
+        for ( Map.Entry<String, Object> entry : properties.entrySet() )
+        {
+            for ( Object oneValue : IoPrimitiveUtils.asArray( entry.getValue() ) )
+            {
+                addToCache( entityId, entry.getKey(), correctValue( oneValue ) );
+            }
+        }
+    }
+
+    private void queue( PendingDocument document )
+    {
+        try
+        {
+            while ( !pendingDocuments.offer( document, 100, TimeUnit.MILLISECONDS ) )
+            {
+                checkSegmentWriters();
+            }
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.interrupted();
+            throw new RuntimeException( "Interrupted while adding to " + identifier, e );
+        }
+    }
+
+    private void checkSegmentWriters()
+    {
+        if ( segmentWriterFailure != null )
+        {
+            throw new RuntimeException( "Unable to write to " + identifier, segmentWriterFailure );
+        }
+    }
+
+    /**
+     * Waits until the documents added so far have been written by the
+     * segment writers, if any.
+     */
+    private void awaitIndexed()
+    {
+        synchronized ( allIndexed )
+        {
+            while ( indexedDocuments.get() < addedDocuments.get() )
+            {
+                checkSegmentWriters();
+                try
+                {
+                    allIndexed.wait( 100 );
+                }
+                catch ( InterruptedException e )
+                {
+                    Thread.interrupted();
+                    throw new RuntimeException( "Interrupted while waiting for " + identifier, e );
+                }
+            }
+        }
+        checkSegmentWriters();
+    }
+
+    private void documentIndexed()
+    {
+        if ( indexedDocuments.incrementAndGet() == addedDocuments.get() )
+        {
+            synchronized ( allIndexed )
+            {
+                allIndexed.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * @return the number of documents added to this index.
+     */
+    long getAddedDocumentCount()
+    {
+        return addedDocuments.get();
+    }
+
+    /**
+     * @return the number of added documents which have been written to
+     * the index.
+     */
+    long getIndexedDocumentCount()
+    {
+        return indexedDocuments.get();
+    }
+
     private void addToCache( long entityId, String key, Object value )
     {
         if ( this.cache == null )
@@ -184,7 +322,17 @@ class LuceneBatchInserterIndex implements BatchInserterIndex
         try
         {
             removeFromCache( entityId );
-            writer.deleteDocuments( type.idTermQuery( entityId ) );
+            Query idQuery = type.idTermQuery( entityId );
+            writer.deleteDocuments( idQuery );
+            if ( !segmentWriters.isEmpty() )
+            {
+                // The document may just as well be in any of the segments
+                awaitIndexed();
+                for ( SegmentWriter segmentWriter : segmentWriters )
+                {
+                    segmentWriter.writer.deleteDocuments( idQuery );
+                }
+            }
             add( entityId, properties );
         }
         catch ( IOException e )
@@ -234,7 +382,7 @@ class LuceneBatchInserterIndex implements BatchInserterIndex
         try
         {
             IndexWriterConfig writerConfig = new IndexWriterConfig( LUCENE_VERSION, type.analyzer );
-            writerConfig.setRAMBufferSizeMB( determineGoodBufferSize( writerConfig.getRAMBufferSizeMB() ) );
+            writerConfig.setRAMBufferSizeMB( determineGoodBufferSize( writerConfig.getRAMBufferSizeMB(), 1 ) );
             IndexWriter writer = new IndexWriter( getDirectory( directory, identifier ), writerConfig );
             return writer;
         }
@@ -244,9 +392,9 @@ class LuceneBatchInserterIndex implements BatchInserterIndex
         }
     }
     
-    private double determineGoodBufferSize( double atLeast )
+    private double determineGoodBufferSize( double atLeast, int numberOfWriters )
     {
-        double heapHint = (double)(Runtime.getRuntime().maxMemory()/(1024*1024*14));
+        double heapHint = (double)(Runtime.getRuntime().maxMemory()/(1024*1024*14*numberOfWriters));
         double result = Math.max( atLeast, heapHint );
         return Math.min( result, 700 );
     }
@@ -276,6 +424,17 @@ class LuceneBatchInserterIndex implements BatchInserterIndex
                     result.close();
                 }
                 IndexReader newReader = IndexReader.open( writer, true );
+                if ( !segmentWriters.isEmpty() )
+                {
+                    awaitIndexed();
+                    IndexReader[] readers = new IndexReader[segmentWriters.size() + 1];
+                    readers[0] = newReader;
+                    for ( int i = 0; i < segmentWriters.size(); i++ )
+                    {
+                        readers[i + 1] = IndexReader.open( segmentWriters.get( i ).writer, true );
+                    }
+                    newReader = new MultiReader( readers, true );
+                }
                 result = new IndexSearcher( newReader );
                 writerModified = false;
             }
@@ -299,7 +458,6 @@ class LuceneBatchInserterIndex implements BatchInserterIndex
             {
                 this.writer.optimize( true );
             }
-            LuceneUtil.close( this.writer );
         }
         catch ( IOException e )
         {
@@ -307,7 +465,14 @@ class LuceneBatchInserterIndex implements BatchInserterIndex
         }
         finally
         {
-            this.writer = null;
+            try
+            {
+                LuceneUtil.close( this.writer );
+            }
+            finally
+            {
+                this.writer = null;
+            }
         }
     }
 
@@ -372,7 +537,91 @@ class LuceneBatchInserterIndex implements BatchInserterIndex
     public void shutdown()
     {
         closeSearcher();
-        closeWriter();
+        try
+        {
+            mergeSegments();
+        }
+        finally
+        {
+            try
+            {
+                closeWriter();
+            }
+            finally
+            {
+                abortSegments();
+            }
+        }
+    }
+
+    /**
+     * Stops the segment writers and adds their segments to the index, to be
+     * merged along with the rest of it when the writer is closed.
+     */
+    private void mergeSegments()
+    {
+        if ( segmentWriters.isEmpty() )
+        {
+            return;
+        }
+
+        try
+        {
+            awaitIndexed();
+            for ( int i = 0; i < segmentWriters.size(); i++ )
+            {
+                queue( PendingDocument.END );
+            }
+            Directory[] directories = new Directory[segmentWriters.size()];
+            for ( int i = 0; i < directories.length; i++ )
+            {
+                SegmentWriter segmentWriter = segmentWriters.get( i );
+                segmentWriter.join();
+                segmentWriter.writer.close();
+                directories[i] = segmentWriter.luceneDirectory;
+            }
+            writer.addIndexes( directories );
+            for ( SegmentWriter segmentWriter : segmentWriters )
+            {
+                segmentWriter.luceneDirectory.close();
+                LuceneDataSource.deleteFileOrDirectory( segmentWriter.directory );
+            }
+            segmentWriters.clear();
+        }
+        catch ( IOException e )
+        {
+            throw new RuntimeException( e );
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.interrupted();
+            throw new RuntimeException( "Interrupted while merging segments of " + identifier, e );
+        }
+    }
+
+    /**
+     * Stops the segment writers left if merging their segments failed, and
+     * deletes their segments.
+     */
+    private void abortSegments()
+    {
+        for ( SegmentWriter segmentWriter : segmentWriters )
+        {
+            segmentWriter.interrupt();
+        }
+        for ( SegmentWriter segmentWriter : segmentWriters )
+        {
+            try
+            {
+                segmentWriter.join();
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+            }
+            segmentWriter.abort();
+        }
+        segmentWriters.clear();
     }
     
     public void flush()
@@ -405,4 +654,106 @@ class LuceneBatchInserterIndex implements BatchInserterIndex
             this.cache.put( key, cache );
         }
     }
+
+    private static class PendingDocument
+    {
+        static final PendingDocument END = new PendingDocument( null, null );
+        
+        final Document document;
+        final Map<String, Object> properties;
+
+        PendingDocument( Document document, Map<String, Object> properties )
+        {
+            this.document = document;
+            this.properties = properties;
+        }
+    }
+
+    /**
+     * Builds documents taken from the pending documents and writes them
+     * into a segment of its own.
+     */
+    private class SegmentWriter extends Thread
+    {
+        private final File directory;
+        private final Directory luceneDirectory;
+        private final IndexWriter writer;
+
+        SegmentWriter( File directory, int number, int numberOfWriters )
+        {
+            super( "Lucene batch indexer " + identifier.indexName + " #" + number );
+            setDaemon( true );
+            this.directory = directory;
+            try
+            {
+                IndexWriterConfig writerConfig = new IndexWriterConfig( LUCENE_VERSION, type.analyzer );
+                writerConfig.setOpenMode( OpenMode.CREATE );
+                writerConfig.setRAMBufferSizeMB( determineGoodBufferSize(
+                        writerConfig.getRAMBufferSizeMB(), numberOfWriters ) );
+                this.luceneDirectory = FSDirectory.open( directory );
+                this.writer = new IndexWriter( luceneDirectory, writerConfig );
+            }
+            catch ( IOException e )
+            {
+                throw new RuntimeException( e );
+            }
+        }
+
+        void abort()
+        {
+            try
+            {
+                writer.rollback();
+            }
+            catch ( AlreadyClosedException e )
+            {
+                // Closed before merging its segment
+            }
+            catch ( IOException e )
+            {
+                // The segment is deleted anyway
+            }
+            try
+            {
+                luceneDirectory.close();
+            }
+            catch ( IOException e )
+            {
+                // The segment is deleted anyway
+            }
+            LuceneDataSource.deleteFileOrDirectory( directory );
+        }
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                for ( PendingDocument pending = pendingDocuments.take(); pending != PendingDocument.END;
+                        pending = pendingDocuments.take() )
+                {
+                    try
+                    {
+                        addProperties( pending.document, pending.properties );
+                        writer.addDocument( pending.document );
+                    }
+                    catch ( Throwable t )
+                    {
+                        // Set before the document counts as indexed, so that
+                        // whoever waits for it sees the failure
+                        segmentWriterFailure = t;
+                        return;
+                    }
+                    finally
+                    {
+                        documentIndexed();
+                    }
+                }
+            }
+            catch ( Throwable t )
+            {
+                segmentWriterFailure = t;
+            }
+        }
+    }
 }
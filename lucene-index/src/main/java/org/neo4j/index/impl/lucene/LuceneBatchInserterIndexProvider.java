@@ -21,6 +21,7 @@ package org.neo4j.index.impl.lucene;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
@@ -46,15 +47,34 @@ import org.neo4j.kernel.impl.index.IndexStore;
 public class LuceneBatchInserterIndexProvider implements BatchInserterIndexProvider
 {
     private final BatchInserter inserter;
+    // Concurrent only so that progress can be watched from other threads
     private final Map<IndexIdentifier, LuceneBatchInserterIndex> indexes =
-            new HashMap<IndexIdentifier, LuceneBatchInserterIndex>();
+            new ConcurrentHashMap<IndexIdentifier, LuceneBatchInserterIndex>();
+    private final int indexingThreads;
     final IndexStore indexStore;
     final EntityType nodeEntityType;
     final EntityType relationshipEntityType;
 
     public LuceneBatchInserterIndexProvider( final BatchInserter inserter )
+    {
+        this( inserter, 0 );
+    }
+
+    /**
+     * Creates a provider whose indexes each build and write their documents
+     * with {@code indexingThreads} threads, into separate segments which are
+     * merged into the index when it's shut down. Nothing is committed before
+     * that. Documents added to an index are still only visible to its queries
+     * after a {@link BatchInserterIndex#flush()}.
+     * 
+     * @param inserter the {@link BatchInserter} to index entities of.
+     * @param indexingThreads the number of threads per index building and
+     * writing documents, or {@code 0} to do that on the thread adding them.
+     */
+    public LuceneBatchInserterIndexProvider( final BatchInserter inserter, int indexingThreads )
     {
         this.inserter = inserter;
+        this.indexingThreads = indexingThreads;
         this.indexStore = ((BatchInserterImpl) inserter).getIndexStore();
         this.nodeEntityType = new EntityType()
         {
@@ -140,12 +160,42 @@ public class LuceneBatchInserterIndexProvider implements BatchInserterIndexProvi
         LuceneBatchInserterIndex index = indexes.get( identifier );
         if ( index == null )
         {
-            index = new LuceneBatchInserterIndex( this, inserter, identifier, config );
+            index = new LuceneBatchInserterIndex( this, inserter, identifier, config, indexingThreads );
             indexes.put( identifier, index );
         }
         return index;
     }
     
+    /**
+     * @return the number of documents added to the indexes of this provider
+     * so far.
+     */
+    public long getAddedDocumentCount()
+    {
+        long count = 0;
+        for ( LuceneBatchInserterIndex index : indexes.values() )
+        {
+            count += index.getAddedDocumentCount();
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of added documents which have been written to their
+     * index. Lags behind {@link #getAddedDocumentCount()} while documents are
+     * built and written by other threads, see
+     * {@link #LuceneBatchInserterIndexProvider(BatchInserter, int)}.
+     */
+    public long getIndexedDocumentCount()
+    {
+        long count = 0;
+        for ( LuceneBatchInserterIndex index : indexes.values() )
+        {
+            count += index.getIndexedDocumentCount();
+        }
+        return count;
+    }
+    
     public void shutdown()
     {
         for ( LuceneBatchInserterIndex index : indexes.values() )
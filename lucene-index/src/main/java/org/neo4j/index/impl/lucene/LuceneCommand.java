@@ -248,8 +248,8 @@ abstract class LuceneCommand extends XaCommand
             DocumentContext document = context.getDocument( entityId, false );
             if ( document != null )
             {
+                context.dataSource.invalidateCache( context.identifier, document.document, key, value );
                 context.indexType.removeFromDocument( document.document, key, value );
-                context.dataSource.invalidateCache( context.identifier, key, value );
             }
         }
         
@@ -28,11 +28,15 @@ import java.nio.ByteBuffer;
 import java.nio.channels.ReadableByteChannel;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.apache.lucene.analysis.Analyzer;
@@ -45,7 +49,6 @@ import org.apache.lucene.document.Field;
 import org.apache.lucene.document.Field.Store;
 import org.apache.lucene.document.Fieldable;
 import org.apache.lucene.index.IndexCommit;
-import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.index.SnapshotDeletionPolicy;
@@ -65,8 +68,8 @@ import org.neo4j.graphdb.index.IndexManager;
 import org.neo4j.helpers.Pair;
 import org.neo4j.helpers.UTF8;
 import org.neo4j.helpers.collection.ClosableIterable;
+import org.neo4j.index.impl.lucene.CommitContext.DocumentContext;
 import org.neo4j.kernel.Config;
-import org.neo4j.kernel.impl.cache.LruCache;
 import org.neo4j.kernel.impl.index.IndexProviderStore;
 import org.neo4j.kernel.impl.index.IndexStore;
 import org.neo4j.kernel.impl.transaction.xaframework.LogBackedXaDataSource;
@@ -127,6 +130,8 @@ public class LuceneDataSource extends LogBackedXaDataSource
 
     private final IndexWriterLruCache indexWriters;
     private final IndexSearcherLruCache indexSearchers;
+    private final int searcherRefreshCommits;
+    private final ScheduledExecutorService searcherRefresher;
 
     private final XaContainer xaContainer;
     private final String baseStorePath;
@@ -135,7 +140,7 @@ public class LuceneDataSource extends LogBackedXaDataSource
     final IndexProviderStore providerStore;
     private final IndexTypeCache typeCache;
     private boolean closed;
-    private final Cache caching;
+    private final HitCache hitCache;
     EntityType nodeEntityType;
     EntityType relationshipEntityType;
     final Map<IndexIdentifier, LuceneIndex<? extends PropertyContainer>> indexes =
@@ -156,7 +161,13 @@ public class LuceneDataSource extends LogBackedXaDataSource
         indexSearchers = new IndexSearcherLruCache( searcherSize );
         int writerSize = parseInt( params, Config.LUCENE_WRITER_CACHE_SIZE );
         indexWriters = new IndexWriterLruCache( writerSize );
-        caching = new Cache();
+        long searcherRefreshInterval = parseLong( params, Config.LUCENE_SEARCHER_REFRESH_INTERVAL, 0 );
+        searcherRefreshCommits = (int) parseLong( params, Config.LUCENE_SEARCHER_REFRESH_COMMITS,
+                searcherRefreshInterval > 0 ? Integer.MAX_VALUE : 1 );
+        searcherRefresher = searcherRefreshInterval > 0 ?
+                newSearcherRefresher( searcherRefreshInterval ) : null;
+        hitCache = new HitCache( parseSize( params, Config.LUCENE_HIT_CACHE_SIZE,
+                Runtime.getRuntime().maxMemory() / 20 ) );
         String storeDir = (String) params.get( "store_dir" );
         this.baseStorePath = getStoreDir( storeDir ).first();
         cleanWriteLocks( baseStorePath );
@@ -237,6 +248,66 @@ public class LuceneDataSource extends LogBackedXaDataSource
         return searcherParam != null ? Integer.parseInt( searcherParam ) : Integer.MAX_VALUE;
     }
 
+    private long parseLong( Map<Object, Object> params, String param, long defaultValue )
+    {
+        String value = (String) params.get( param );
+        return value != null ? Long.parseLong( value ) : defaultValue;
+    }
+
+    private long parseSize( Map<Object, Object> params, String param, long defaultSize )
+    {
+        String value = (String) params.get( param );
+        if ( value == null )
+        {
+            return defaultSize;
+        }
+        long multiplier = 1;
+        if ( value.endsWith( "M" ) )
+        {
+            multiplier = 1024 * 1024;
+            value = value.substring( 0, value.length() - 1 );
+        }
+        else if ( value.endsWith( "k" ) )
+        {
+            multiplier = 1024;
+            value = value.substring( 0, value.length() - 1 );
+        }
+        else if ( value.endsWith( "G" ) )
+        {
+            multiplier = 1024 * 1024 * 1024;
+            value = value.substring( 0, value.length() - 1 );
+        }
+        try
+        {
+            return Long.parseLong( value ) * multiplier;
+        }
+        catch ( NumberFormatException e )
+        {
+            throw new IllegalArgumentException( "Invalid value '" + value + "' for " + param, e );
+        }
+    }
+
+    private ScheduledExecutorService newSearcherRefresher( long interval )
+    {
+        ScheduledExecutorService refresher = Executors.newSingleThreadScheduledExecutor( new ThreadFactory()
+        {
+            public Thread newThread( Runnable runnable )
+            {
+                Thread thread = new Thread( runnable, "Lucene searcher refresher" );
+                thread.setDaemon( true );
+                return thread;
+            }
+        } );
+        refresher.scheduleWithFixedDelay( new Runnable()
+        {
+            public void run()
+            {
+                refreshIndexSearchers();
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS );
+        return refresher;
+    }
+
     IndexType getType( IndexIdentifier identifier )
     {
         return typeCache.getIndexType( identifier );
@@ -300,11 +371,15 @@ public class LuceneDataSource extends LogBackedXaDataSource
                 return;
             }
             closed = true;
-            for ( Pair<IndexSearcherRef, AtomicBoolean> searcher : indexSearchers.values() )
+            if ( searcherRefresher != null )
+            {
+                searcherRefresher.shutdownNow();
+            }
+            for ( IndexSearcherManager searcher : indexSearchers.values() )
             {
                 try
                 {
-                    searcher.first().dispose();
+                    searcher.dispose();
                 }
                 catch ( IOException e )
                 {
@@ -419,38 +494,6 @@ public class LuceneDataSource extends LogBackedXaDataSource
         lock.writeLock().unlock();
     }
 
-    /**
-     * If nothing has changed underneath (since the searcher was last created
-     * or refreshed) {@code null} is returned. But if something has changed a
-     * refreshed searcher is returned. It makes use if the
-     * {@link IndexReader#reopen()} which faster than opening an index from
-     * scratch.
-     *
-     * @param searcher the {@link IndexSearcher} to refresh.
-     * @return a refreshed version of the searcher or, if nothing has changed,
-     * {@code null}.
-     * @throws IOException if there's a problem with the index.
-     */
-    private Pair<IndexSearcherRef, AtomicBoolean> refreshSearcher( Pair<IndexSearcherRef, AtomicBoolean> searcher )
-    {
-        try
-        {
-            IndexReader reader = searcher.first().getSearcher().getIndexReader();
-            IndexReader reopened = reader.reopen();
-            if ( reopened != reader )
-            {
-                IndexSearcher newSearcher = new IndexSearcher( reopened );
-                searcher.first().detachOrClose();
-                return Pair.of( new IndexSearcherRef( searcher.first().getIdentifier(), newSearcher ), new AtomicBoolean() );
-            }
-            return null;
-        }
-        catch ( IOException e )
-        {
-            throw new RuntimeException( e );
-        }
-    }
-
     static File getFileDirectory( String storeDir, byte entityType )
     {
         File path = new File( storeDir, "lucene" );
@@ -487,40 +530,58 @@ public class LuceneDataSource extends LogBackedXaDataSource
         return TopFieldCollector.create( sorting, n, false, true, false, true );
     }
 
-    synchronized IndexSearcherRef getIndexSearcher( IndexIdentifier identifier, boolean incRef )
+    /**
+     * Returns the searcher of an index. Queries don't contend for any lock
+     * here, other than briefly for the searcher cache. The searcher sees the
+     * index as it was the last time it was refreshed, see
+     * {@link Config#LUCENE_SEARCHER_REFRESH_COMMITS} and
+     * {@link Config#LUCENE_SEARCHER_REFRESH_INTERVAL}.
+     *
+     * @param identifier the index to get the searcher for.
+     * @param incRef whether or not to add a reference to the searcher. If so
+     * it must be closed when done with.
+     * @return the current searcher of the index.
+     */
+    IndexSearcherRef getIndexSearcher( IndexIdentifier identifier, boolean incRef )
     {
-        try
+        while ( true )
         {
-            Pair<IndexSearcherRef, AtomicBoolean> searcher = indexSearchers.get( identifier );
-            if ( searcher == null )
+            IndexSearcherManager manager = getIndexSearcherManager( identifier );
+            if ( !incRef )
             {
-                IndexWriter writer = getIndexWriter( identifier );
-                IndexReader reader = IndexReader.open( writer, true );
-                IndexSearcher indexSearcher = new IndexSearcher( reader );
-                searcher = Pair.of( new IndexSearcherRef( identifier, indexSearcher ), new AtomicBoolean() );
-                indexSearchers.put( identifier, searcher );
+                return manager.current();
             }
-            else
-            {
-                if ( searcher.other().compareAndSet( true, false ) )
-                {
-                    searcher = refreshSearcher( searcher );
-                    if ( searcher != null )
-                    {
-                        indexSearchers.put( identifier, searcher );
-                    }
-                }
-            }
-            if ( incRef )
+            IndexSearcherRef searcher = manager.acquire();
+            if ( searcher != null )
             {
-                searcher.first().incRef();
+                return searcher;
             }
-            return searcher.first();
+            // Evicted from the cache since we got it, try with a new one
         }
-        catch ( IOException e )
+    }
+
+    IndexSearcherManager getIndexSearcherManager( IndexIdentifier identifier )
+    {
+        IndexSearcherManager manager = indexSearchers.get( identifier );
+        return manager != null ? manager : newIndexSearcherManager( identifier );
+    }
+
+    private synchronized IndexSearcherManager newIndexSearcherManager( IndexIdentifier identifier )
+    {
+        IndexSearcherManager manager = indexSearchers.get( identifier );
+        if ( manager == null )
         {
-            throw new RuntimeException( e );
+            try
+            {
+                manager = new IndexSearcherManager( identifier, getIndexWriter( identifier ) );
+            }
+            catch ( IOException e )
+            {
+                throw new RuntimeException( e );
+            }
+            indexSearchers.put( identifier, manager );
         }
+        return manager;
     }
 
     XaTransaction createTransaction( int identifier,
@@ -529,12 +590,89 @@ public class LuceneDataSource extends LogBackedXaDataSource
         return new LuceneTransaction( identifier, logicalLog, this );
     }
 
-    synchronized void invalidateIndexSearcher( IndexIdentifier identifier )
+    void invalidateIndexSearcher( IndexIdentifier identifier )
+    {
+        invalidateIndexSearcher( identifier, Collections.<DocumentContext>emptyList() );
+    }
+
+    /**
+     * Called by a committer, holding the write lock, after having written
+     * {@code documents} to the index. The searcher is refreshed if enough
+     * commits have been made since the last time, in the background if
+     * there's a searcher refresher, otherwise right away.
+     */
+    void invalidateIndexSearcher( final IndexIdentifier identifier, Collection<DocumentContext> documents )
+    {
+        final IndexSearcherManager searcher = indexSearchers.get( identifier );
+        if ( searcher == null || !searcher.committed( documents, searcherRefreshCommits ) )
+        {
+            return;
+        }
+        if ( searcherRefresher != null )
+        {
+            searcherRefresher.execute( new Runnable()
+            {
+                public void run()
+                {
+                    getReadLock();
+                    try
+                    {
+                        refreshIndexSearcher( searcher );
+                    }
+                    finally
+                    {
+                        releaseReadLock();
+                    }
+                }
+            } );
+        }
+        else
+        {
+            refreshIndexSearcher( searcher );
+        }
+    }
+
+    private void refreshIndexSearchers()
+    {
+        List<IndexSearcherManager> searchers;
+        synchronized ( indexSearchers )
+        {
+            searchers = new ArrayList<IndexSearcherManager>( indexSearchers.values() );
+        }
+        getReadLock();
+        try
+        {
+            for ( IndexSearcherManager searcher : searchers )
+            {
+                if ( searcher.hasUnpublishedCommits() )
+                {
+                    try
+                    {
+                        refreshIndexSearcher( searcher );
+                    }
+                    catch ( RuntimeException e )
+                    {
+                        // Keep refreshing the others, this one is retried next time
+                        e.printStackTrace();
+                    }
+                }
+            }
+        }
+        finally
+        {
+            releaseReadLock();
+        }
+    }
+
+    private void refreshIndexSearcher( IndexSearcherManager searcher )
     {
-        Pair<IndexSearcherRef, AtomicBoolean> searcher = indexSearchers.get( identifier );
-        if ( searcher != null )
+        try
         {
-            searcher.other().set( true );
+            searcher.refresh( getIndexWriter( searcher.getIdentifier() ) );
+        }
+        catch ( IOException e )
+        {
+            throw new RuntimeException( "Unable to refresh searcher for " + searcher.getIdentifier(), e );
         }
     }
 
@@ -560,7 +698,7 @@ public class LuceneDataSource extends LogBackedXaDataSource
         }
     }
 
-    private static void deleteFileOrDirectory( File file )
+    static void deleteFileOrDirectory( File file )
     {
         if ( file.exists() )
         {
@@ -673,11 +811,11 @@ public class LuceneDataSource extends LogBackedXaDataSource
     {
         try
         {
-            Pair<IndexSearcherRef, AtomicBoolean> searcher = indexSearchers.remove( identifier );
+            IndexSearcherManager searcher = indexSearchers.remove( identifier );
             IndexWriter writer = indexWriters.remove( identifier );
             if ( searcher != null )
             {
-                searcher.first().dispose();
+                searcher.dispose();
             }
             if ( writer != null )
             {
@@ -690,34 +828,56 @@ public class LuceneDataSource extends LogBackedXaDataSource
         }
     }
 
-    LruCache<String,Collection<Long>> getFromCache( IndexIdentifier identifier, String key )
+    HitCache getHitCache()
+    {
+        return hitCache;
+    }
+
+    /**
+     * @return whether or not the searcher handed out for the index sees
+     * everything committed to it.
+     */
+    boolean isIndexSearcherCurrent( IndexIdentifier identifier )
     {
-        return caching.get( identifier, key );
+        IndexSearcherManager searcher = indexSearchers.get( identifier );
+        return searcher == null || !searcher.hasUnpublishedCommits();
     }
 
     void setCacheCapacity( IndexIdentifier identifier, String key, int maxNumberOfCachedEntries )
     {
-        this.caching.setCapacity( identifier, key, maxNumberOfCachedEntries );
+        this.hitCache.setCapacity( identifier, key, maxNumberOfCachedEntries );
     }
 
     Integer getCacheCapacity( IndexIdentifier identifier, String key )
     {
-        LruCache<String,Collection<Long>> cache = this.caching.get( identifier, key );
-        return cache != null ? cache.maxSize() : null;
+        return this.hitCache.getCapacity( identifier, key );
     }
 
     void invalidateCache( IndexIdentifier identifier, String key, Object value )
     {
-        LruCache<String, Collection<Long>> cache = caching.get( identifier, key );
-        if ( cache != null )
+        hitCache.invalidate( identifier, key, value );
+    }
+
+    /**
+     * Invalidates the cached hits affected by removing {@code value} for
+     * {@code key} from {@code document}, where {@code key} and {@code value}
+     * may be {@code null} to remove all values.
+     */
+    void invalidateCache( IndexIdentifier identifier, Document document, String key, Object value )
+    {
+        if ( value != null )
+        {
+            hitCache.invalidate( identifier, key, value );
+        }
+        else
         {
-            cache.remove( value.toString() );
+            hitCache.invalidate( identifier, document, key );
         }
     }
 
     void invalidateCache( IndexIdentifier identifier )
     {
-        this.caching.disable( identifier );
+        this.hitCache.invalidate( identifier );
     }
 
     @Override
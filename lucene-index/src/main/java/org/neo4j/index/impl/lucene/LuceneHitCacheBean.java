@@ -0,0 +1,128 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.index.impl.lucene;
+
+import java.util.Collections;
+import java.util.List;
+
+import javax.management.NotCompliantMBeanException;
+
+import org.neo4j.helpers.Service;
+import org.neo4j.index.lucene.LuceneHitCache;
+import org.neo4j.jmx.impl.ManagementBeanProvider;
+import org.neo4j.jmx.impl.ManagementData;
+import org.neo4j.jmx.impl.Neo4jMBean;
+import org.neo4j.kernel.impl.transaction.XaDataSourceManager;
+
+@Service.Implementation( ManagementBeanProvider.class )
+public final class LuceneHitCacheBean extends ManagementBeanProvider
+{
+    public LuceneHitCacheBean()
+    {
+        super( LuceneHitCache.class );
+    }
+
+    @Override
+    protected Neo4jMBean createMBean( ManagementData management ) throws NotCompliantMBeanException
+    {
+        return new LuceneHitCacheImpl( management );
+    }
+
+    private static class LuceneHitCacheImpl extends Neo4jMBean implements LuceneHitCache
+    {
+        private final XaDataSourceManager dataSourceManager;
+
+        LuceneHitCacheImpl( ManagementData management ) throws NotCompliantMBeanException
+        {
+            super( management );
+            this.dataSourceManager = management.getKernelData().getConfig().getTxModule().getXaDataSourceManager();
+        }
+
+        /**
+         * The lucene data source is registered the first time an index is
+         * used, which may be after this bean is created.
+         */
+        private HitCache hitCache()
+        {
+            LuceneDataSource dataSource = (LuceneDataSource) dataSourceManager.getXaDataSource(
+                    LuceneDataSource.DEFAULT_NAME );
+            return dataSource != null ? dataSource.getHitCache() : null;
+        }
+
+        private List<HitCache.Statistics> statistics()
+        {
+            HitCache hitCache = hitCache();
+            return hitCache != null ? hitCache.getStatistics() : Collections.<HitCache.Statistics>emptyList();
+        }
+
+        public long getMaxSizeInBytes()
+        {
+            HitCache hitCache = hitCache();
+            return hitCache != null ? hitCache.getMaxSizeInBytes() : 0;
+        }
+
+        public long getSizeInBytes()
+        {
+            HitCache hitCache = hitCache();
+            return hitCache != null ? hitCache.getSizeInBytes() : 0;
+        }
+
+        public long getHitCount()
+        {
+            long count = 0;
+            for ( HitCache.Statistics statistics : statistics() )
+            {
+                count += statistics.hits;
+            }
+            return count;
+        }
+
+        public long getMissCount()
+        {
+            long count = 0;
+            for ( HitCache.Statistics statistics : statistics() )
+            {
+                count += statistics.misses;
+            }
+            return count;
+        }
+
+        public long getEvictionCount()
+        {
+            long count = 0;
+            for ( HitCache.Statistics statistics : statistics() )
+            {
+                count += statistics.evictions;
+            }
+            return count;
+        }
+
+        public String[] getIndexStatistics()
+        {
+            List<HitCache.Statistics> statistics = statistics();
+            String[] result = new String[statistics.size()];
+            for ( int i = 0; i < result.length; i++ )
+            {
+                result[i] = statistics.get( i ).toString();
+            }
+            return result;
+        }
+    }
+}
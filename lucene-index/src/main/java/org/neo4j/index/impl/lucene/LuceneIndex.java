@@ -21,6 +21,7 @@ package org.neo4j.index.impl.lucene;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
@@ -41,7 +42,6 @@ import org.neo4j.graphdb.Relationship;
 import org.neo4j.graphdb.index.Index;
 import org.neo4j.graphdb.index.IndexHits;
 import org.neo4j.index.lucene.QueryContext;
-import org.neo4j.kernel.impl.cache.LruCache;
 import org.neo4j.kernel.impl.core.ReadOnlyDbException;
 import org.neo4j.kernel.impl.util.IoPrimitiveUtils;
 
@@ -234,7 +234,15 @@ public abstract class LuceneIndex<T extends PropertyContainer> implements Index<
             }
             else
             {
-                additionsSearcher = luceneTx.getAdditionsAsSearcher( this, additionalParametersOrNull );
+                Collection<Long> addedIds = luceneTx.getAddedIds( this, query, additionalParametersOrNull );
+                if ( addedIds != null )
+                {
+                    ids.addAll( addedIds );
+                }
+                else
+                {
+                    additionsSearcher = luceneTx.getAdditionsAsSearcher( this, additionalParametersOrNull );
+                }
             }
             removedIds = keyForDirectLookup != null ?
                     luceneTx.getRemovedIds( this, keyForDirectLookup, valueForDirectLookup ) :
@@ -245,34 +253,34 @@ public abstract class LuceneIndex<T extends PropertyContainer> implements Index<
         IndexSearcherRef searcher = null;
         try
         {
-            searcher = service.dataSource().getIndexSearcher( identifier, true );
+            HitCache hitCache = service.dataSource().getHitCache();
+            boolean foundInCache = keyForDirectLookup != null && fillFromCache( hitCache, ids,
+                    keyForDirectLookup, valueForDirectLookup.toString(), removedIds );
+            // Only hits unaffected by this transaction, read from a searcher
+            // seeing all commits, may be cached
+            boolean cacheHits = !foundInCache && keyForDirectLookup != null && ids.isEmpty() &&
+                    removedIds.isEmpty() && hitCache.isEnabled( identifier, keyForDirectLookup ) &&
+                    service.dataSource().isIndexSearcherCurrent( identifier );
+            long cacheStamp = hitCache.stamp( identifier );
+            searcher = foundInCache ? null : service.dataSource().getIndexSearcher( identifier, true );
             if ( searcher != null )
             {
-                boolean foundInCache = false;
-                LruCache<String, Collection<Long>> cachedIdsMap = null;
-                if ( keyForDirectLookup != null )
+                IndexHits<Document> hits = search( searcher, query, additionalParametersOrNull,
+                        additionsSearcher, removedIds );
+                DocToIdIterator searchedIds = cacheHits ?
+                        new CachingDocToIdIterator( hits, removedIds, searcher, hitCache,
+                                keyForDirectLookup, valueForDirectLookup.toString(), cacheStamp ) :
+                        new DocToIdIterator( hits, removedIds, searcher );
+                if ( ids.isEmpty() )
                 {
-                    cachedIdsMap = service.dataSource().getFromCache(
-                            identifier, keyForDirectLookup );
-                    foundInCache = fillFromCache( cachedIdsMap, ids,
-                            keyForDirectLookup, valueForDirectLookup.toString(), removedIds );
+                    idIterator = searchedIds;
                 }
-
-                if ( !foundInCache )
+                else
                 {
-                    DocToIdIterator searchedIds = new DocToIdIterator( search( searcher,
-                            query, additionalParametersOrNull, additionsSearcher, removedIds ), removedIds, searcher );
-                    if ( ids.isEmpty() )
-                    {
-                        idIterator = searchedIds;
-                    }
-                    else
-                    {
-                        Collection<IndexHits<Long>> iterators = new ArrayList<IndexHits<Long>>();
-                        iterators.add( searchedIds );
-                        iterators.add( new ConstantScoreIterator<Long>( ids, Float.NaN ) );
-                        idIterator = new CombinedIndexHits<Long>( iterators );
-                    }
+                    Collection<IndexHits<Long>> iterators = new ArrayList<IndexHits<Long>>();
+                    iterators.add( searchedIds );
+                    iterators.add( new ConstantScoreIterator<Long>( ids, Float.NaN ) );
+                    idIterator = new CombinedIndexHits<Long>( iterators );
                 }
             }
         }
@@ -311,28 +319,80 @@ public abstract class LuceneIndex<T extends PropertyContainer> implements Index<
         };
     }
 
-    private boolean fillFromCache(
-            LruCache<String, Collection<Long>> cachedNodesMap,
-            List<Long> ids, String key, String valueAsString,
-            Collection<Long> deletedNodes )
+    private boolean fillFromCache( HitCache hitCache, List<Long> ids, String key,
+            String valueAsString, Collection<Long> deletedNodes )
     {
-        boolean found = false;
-        if ( cachedNodesMap != null )
+        long[] cachedNodes = hitCache.get( identifier, key, valueAsString );
+        if ( cachedNodes == null )
         {
-            Collection<Long> cachedNodes = cachedNodesMap.get( valueAsString );
-            if ( cachedNodes != null )
+            return false;
+        }
+        for ( long cachedNodeId : cachedNodes )
+        {
+            if ( !deletedNodes.contains( cachedNodeId ) )
             {
-                found = true;
-                for ( Long cachedNodeId : cachedNodes )
+                ids.add( cachedNodeId );
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Puts the ids in the {@link HitCache} when iterated to the end, unless
+     * there turned out to be too many of them to fit in it.
+     */
+    private class CachingDocToIdIterator extends DocToIdIterator
+    {
+        private final HitCache hitCache;
+        private final String key;
+        private final String value;
+        private final long cacheStamp;
+        // null once the hits are known not to fit in the cache
+        private long[] hits = new long[16];
+        private int hitCount;
+
+        CachingDocToIdIterator( IndexHits<Document> source, Collection<Long> exclude,
+                IndexSearcherRef searcher, HitCache hitCache, String key, String value, long cacheStamp )
+        {
+            super( source, exclude, searcher );
+            this.hitCache = hitCache;
+            this.key = key;
+            this.value = value;
+            this.cacheStamp = cacheStamp;
+        }
+
+        @Override
+        protected Long fetchNextOrNull()
+        {
+            Long id = super.fetchNextOrNull();
+            if ( id != null && hits != null )
+            {
+                if ( !hitCache.mayFit( value, hitCount + 1 ) )
                 {
-                    if ( !deletedNodes.contains( cachedNodeId ) )
+                    hits = null;
+                }
+                else
+                {
+                    if ( hitCount == hits.length )
                     {
-                        ids.add( cachedNodeId );
+                        hits = Arrays.copyOf( hits, hits.length * 2 );
                     }
+                    hits[hitCount++] = id;
                 }
             }
+            return id;
+        }
+
+        @Override
+        protected void endReached()
+        {
+            super.endReached();
+            if ( hits != null )
+            {
+                hitCache.put( identifier, key, value, Arrays.copyOf( hits, hitCount ), cacheStamp );
+                hits = null;
+            }
         }
-        return found;
     }
 
     private IndexHits<Document> search( IndexSearcherRef searcherRef, Query query,
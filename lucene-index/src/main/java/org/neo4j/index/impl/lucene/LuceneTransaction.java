@@ -188,6 +188,11 @@ class LuceneTransaction extends XaTransaction
         }
     }
 
+    /**
+     * Returns the ids added in this transaction which match {@code query}, or
+     * {@code null} if the additions need to be searched together with the
+     * committed index instead, see {@link #getAdditionsAsSearcher(LuceneIndex, QueryContext)}.
+     */
     <T extends PropertyContainer> Collection<Long> getAddedIds( LuceneIndex<T> index,
             Query query, QueryContext contextOrNull )
     {
@@ -196,8 +201,13 @@ class LuceneTransaction extends XaTransaction
         {
             return Collections.emptySet();
         }
-        Collection<Long> ids = added.query( query, contextOrNull );
-        return ids != null ? ids : Collections.<Long>emptySet();
+        if ( contextOrNull != null && (contextOrNull.getSorting() != null || contextOrNull.getTop() > 0 ||
+                contextOrNull.getTradeCorrectnessForSpeed()) )
+        {
+            // Hits have to be sorted or scored together with the committed ones
+            return null;
+        }
+        return added.queryWithoutSearcher( query );
     }
     
     <T extends PropertyContainer> Collection<Long> getAddedIds( LuceneIndex<T> index,
@@ -262,7 +272,7 @@ class LuceneTransaction extends XaTransaction
                 applyDocuments( context.writer, type, context.documents );
                 if ( context.writer != null )
                 {
-                    dataSource.invalidateIndexSearcher( identifier );
+                    dataSource.invalidateIndexSearcher( identifier, context.documents.values() );
                 }
             }
             
@@ -40,6 +40,15 @@ abstract class TxData
 
     abstract Collection<Long> query( TxDataHolder holder, Query query, QueryContext contextOrNull );
 
+    /**
+     * Returns the ids matching {@code query}, or {@code null} if they can't be
+     * found without building a searcher over this data.
+     */
+    Collection<Long> queryWithoutSearcher( TxDataHolder holder, Query query )
+    {
+        return null;
+    }
+
     abstract Collection<Long> get( TxDataHolder holder, String key, Object value );
     
     abstract Collection<Long> getOrphans( String key );
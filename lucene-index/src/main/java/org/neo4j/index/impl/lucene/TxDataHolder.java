@@ -28,7 +28,7 @@ import org.neo4j.index.lucene.QueryContext;
 class TxDataHolder
 {
     final LuceneIndex index;
-    private TxData data;
+    private final TxData data;
     
     TxDataHolder( LuceneIndex index, TxData initialData )
     {
@@ -51,6 +51,11 @@ class TxDataHolder
         return this.data.query( this, query, contextOrNull );
     }
 
+    Collection<Long> queryWithoutSearcher( Query query )
+    {
+        return this.data.queryWithoutSearcher( this, query );
+    }
+
     Collection<Long> get( String key, Object value )
     {
         return this.data.get( this, key, value );
@@ -70,9 +75,4 @@ class TxDataHolder
     {
         return this.data.asSearcher( this, context );
     }
-
-    void set( TxData newData )
-    {
-        this.data = newData;
-    }
 }
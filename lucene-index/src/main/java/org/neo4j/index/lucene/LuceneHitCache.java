@@ -0,0 +1,48 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.index.lucene;
+
+import org.neo4j.jmx.Description;
+import org.neo4j.jmx.ManagementInterface;
+
+@ManagementInterface( name = LuceneHitCache.NAME )
+@Description( "The cache of hits of exact lucene index lookups" )
+public interface LuceneHitCache
+{
+    final String NAME = "Lucene hit cache";
+
+    @Description( "The maximum number of bytes the cached hits may take up" )
+    long getMaxSizeInBytes();
+
+    @Description( "An estimation of the number of bytes the cached hits take up" )
+    long getSizeInBytes();
+
+    @Description( "The number of lookups answered from the cache" )
+    long getHitCount();
+
+    @Description( "The number of lookups, of keys with caching enabled, not found in the cache" )
+    long getMissCount();
+
+    @Description( "The number of cached hits evicted to stay within the memory budget" )
+    long getEvictionCount();
+
+    @Description( "Hits, misses, evictions and bytes used for each index with caching enabled" )
+    String[] getIndexStatistics();
+}
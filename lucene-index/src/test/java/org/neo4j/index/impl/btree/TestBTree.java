@@ -0,0 +1,237 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.index.impl.btree;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.neo4j.index.Neo4jTestCase.deleteFileOrDirectory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.index.impl.btree.BTree.Entry;
+
+public class TestBTree
+{
+    private static final File DIRECTORY = new File( "target/var/btree" );
+    private final File file = new File( DIRECTORY, "test.tree" );
+    private BTree tree;
+
+    @Before
+    public void createTree() throws IOException
+    {
+        deleteFileOrDirectory( DIRECTORY );
+        DIRECTORY.mkdirs();
+        tree = new BTree( file );
+    }
+
+    @After
+    public void closeTree()
+    {
+        tree.close();
+    }
+
+    @Test
+    public void emptyTreeHasNoEntries()
+    {
+        assertEquals( 0, tree.size() );
+        assertNull( tree.first() );
+        assertNull( tree.last() );
+        assertEquals( 0, entries( tree.cursor( Long.MIN_VALUE, Long.MIN_VALUE,
+                Long.MAX_VALUE, Long.MAX_VALUE, false ) ).size() );
+    }
+
+    @Test
+    public void entriesAreUnique()
+    {
+        assertTrue( tree.insert( 10, 1 ) );
+        assertFalse( tree.insert( 10, 1 ) );
+        assertTrue( tree.insert( 10, 2 ) );
+        assertEquals( 2, tree.size() );
+        assertTrue( tree.remove( 10, 1 ) );
+        assertFalse( tree.remove( 10, 1 ) );
+        assertEquals( 1, tree.size() );
+    }
+
+    @Test
+    public void randomInsertsAndRemovesMatchSortedSet() throws IOException
+    {
+        Random random = new Random( 42 );
+        TreeSet<Entry> expected = new TreeSet<Entry>();
+        // Enough entries for the tree to get a couple of internal levels
+        int count = BTree.LEAF_CAPACITY * BTree.INTERNAL_CAPACITY / 2;
+        for ( int i = 0; i < count; i++ )
+        {
+            long key = random.nextInt( count / 4 ) - count / 8;
+            long id = random.nextInt( 1000 );
+            assertEquals( expected.add( new Entry( key, id ) ), tree.insert( key, id ) );
+        }
+        List<Entry> all = new ArrayList<Entry>( expected );
+        for ( int i = 0; i < count / 3; i++ )
+        {
+            Entry entry = all.get( random.nextInt( all.size() ) );
+            assertEquals( expected.remove( entry ), tree.remove( entry.key, entry.id ) );
+        }
+        assertSameEntries( expected, random );
+
+        tree.close();
+        tree = new BTree( file );
+        assertSameEntries( expected, random );
+    }
+
+    @Test
+    public void removeAllRemovesEntriesOfOneId()
+    {
+        TreeSet<Entry> expected = new TreeSet<Entry>();
+        for ( int i = 0; i < BTree.LEAF_CAPACITY * 4; i++ )
+        {
+            tree.insert( i, i % 3 );
+            if ( i % 3 != 1 )
+            {
+                expected.add( new Entry( i, i % 3 ) );
+            }
+        }
+        assertEquals( BTree.LEAF_CAPACITY * 4 / 3, tree.removeAll( 1 ) );
+        assertSameEntries( expected, new Random( 7 ) );
+    }
+
+    @Test
+    public void emptiedLeavesAreReusedOnlyForTheirOwnKeys()
+    {
+        int count = BTree.LEAF_CAPACITY * 4;
+        for ( int i = 0; i < count; i++ )
+        {
+            tree.insert( i, 0 );
+        }
+        for ( int i = 0; i < count; i++ )
+        {
+            tree.remove( i, 0 );
+        }
+        long pages = tree.pageCount();
+
+        // The same keys again fit in the emptied leaves
+        for ( int i = 0; i < count; i++ )
+        {
+            tree.insert( i, 0 );
+        }
+        assertEquals( pages, tree.pageCount() );
+
+        // Removed pages are never freed, so moving on to new keys grows the
+        // file even though the number of entries stays the same
+        for ( int i = 0; i < count; i++ )
+        {
+            tree.remove( i, 0 );
+            tree.insert( count + i, 0 );
+        }
+        assertEquals( count, tree.size() );
+        assertTrue( tree.pageCount() > pages );
+    }
+
+    @Test
+    public void cursorIsUnaffectedBySplitsWhileIterating()
+    {
+        int count = BTree.LEAF_CAPACITY * 4;
+        for ( int i = 0; i < count; i++ )
+        {
+            tree.insert( i * 2, 0 );
+        }
+        BTree.Cursor cursor = tree.cursor( Long.MIN_VALUE, Long.MIN_VALUE,
+                Long.MAX_VALUE, Long.MAX_VALUE, false );
+        long expectedKey = 0;
+        for ( Entry entry = cursor.next(); entry != null; entry = cursor.next() )
+        {
+            if ( entry.id != 0 )
+            {
+                continue;
+            }
+            assertEquals( expectedKey, entry.key );
+            expectedKey += 2;
+            // Fills up leaves ahead of the cursor so that they split
+            for ( int id = 1; id <= 3; id++ )
+            {
+                tree.insert( (entry.key + count) % (count * 2), id );
+            }
+        }
+        assertEquals( count * 2, expectedKey );
+    }
+
+    @Test
+    public void refuseToOpenOtherFiles() throws IOException
+    {
+        File other = new File( DIRECTORY, "other" );
+        RandomAccessFile raf = new RandomAccessFile( other, "rw" );
+        raf.setLength( BTree.PAGE_SIZE * 128 );
+        raf.close();
+        try
+        {
+            new BTree( other );
+            throw new AssertionError( "Shouldn't be able to open " + other );
+        }
+        catch ( IOException e )
+        {   // Good
+        }
+    }
+
+    private void assertSameEntries( TreeSet<Entry> expected, Random random )
+    {
+        assertEquals( expected.size(), tree.size() );
+        assertEquals( expected.isEmpty() ? null : expected.first(), tree.first() );
+        assertEquals( expected.isEmpty() ? null : expected.last(), tree.last() );
+        assertEquals( new ArrayList<Entry>( expected ), entries( tree.cursor(
+                Long.MIN_VALUE, Long.MIN_VALUE, Long.MAX_VALUE, Long.MAX_VALUE, false ) ) );
+        assertEquals( new ArrayList<Entry>( expected.descendingSet() ), entries( tree.cursor(
+                Long.MIN_VALUE, Long.MIN_VALUE, Long.MAX_VALUE, Long.MAX_VALUE, true ) ) );
+        for ( int i = 0; i < 20; i++ )
+        {
+            Entry from = new Entry( random.nextInt( 20000 ) - 10000, random.nextInt( 1000 ) );
+            Entry to = new Entry( from.key + random.nextInt( 5000 ), random.nextInt( 1000 ) );
+            if ( from.compareTo( to ) > 0 )
+            {
+                continue;
+            }
+            NavigableSet<Entry> range = expected.subSet( from, true, to, true );
+            assertEquals( new ArrayList<Entry>( range ), entries(
+                    tree.cursor( from.key, from.id, to.key, to.id, false ) ) );
+            assertEquals( new ArrayList<Entry>( range.descendingSet() ), entries(
+                    tree.cursor( from.key, from.id, to.key, to.id, true ) ) );
+        }
+    }
+
+    private static List<Entry> entries( BTree.Cursor cursor )
+    {
+        List<Entry> result = new ArrayList<Entry>();
+        for ( Entry entry = cursor.next(); entry != null; entry = cursor.next() )
+        {
+            result.add( entry );
+        }
+        return result;
+    }
+}
@@ -0,0 +1,335 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.index.impl.btree;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.neo4j.helpers.collection.IteratorUtil.asCollection;
+import static org.neo4j.index.Neo4jTestCase.deleteFileOrDirectory;
+import static org.neo4j.index.lucene.QueryContext.numericRange;
+import static org.neo4j.index.lucene.ValueContext.numeric;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.index.Index;
+import org.neo4j.graphdb.index.IndexHits;
+import org.neo4j.graphdb.index.RelationshipIndex;
+import org.neo4j.helpers.collection.MapUtil;
+import org.neo4j.index.btree.BTreeTimeline;
+import org.neo4j.index.lucene.QueryContext;
+import org.neo4j.index.lucene.TimelineIndex;
+import org.neo4j.kernel.EmbeddedGraphDatabase;
+import org.neo4j.kernel.impl.transaction.xaframework.InMemoryLogBuffer;
+import org.neo4j.kernel.impl.transaction.xaframework.XaCommand;
+
+public class TestBTreeIndex
+{
+    private static final String STORE_DIR = "target/var/btreeindex";
+    private GraphDatabaseService db;
+    private Transaction tx;
+
+    @Before
+    public void startDb()
+    {
+        deleteFileOrDirectory( new File( STORE_DIR ) );
+        db = new EmbeddedGraphDatabase( STORE_DIR );
+        beginTx();
+    }
+
+    @After
+    public void stopDb()
+    {
+        finishTx( true );
+        db.shutdown();
+    }
+
+    private void beginTx()
+    {
+        tx = db.beginTx();
+    }
+
+    private void finishTx( boolean success )
+    {
+        if ( tx != null )
+        {
+            if ( success )
+            {
+                tx.success();
+            }
+            tx.finish();
+            tx = null;
+        }
+    }
+
+    private void restartTx()
+    {
+        finishTx( true );
+        beginTx();
+    }
+
+    private Index<Node> nodeIndex( String name )
+    {
+        return db.index().forNodes( name, BTreeIndexImplementation.CONFIG );
+    }
+
+    private Node[] nodesWithValues( Index<Node> index, String key, long... values )
+    {
+        Node[] nodes = new Node[values.length];
+        for ( int i = 0; i < values.length; i++ )
+        {
+            nodes[i] = db.createNode();
+            index.add( nodes[i], key, values[i] );
+        }
+        return nodes;
+    }
+
+    private static <T> List<T> list( T... items )
+    {
+        return Arrays.asList( items );
+    }
+
+    private static <T> List<T> hits( IndexHits<T> hits )
+    {
+        return new ArrayList<T>( asCollection( hits ) );
+    }
+
+    @Test
+    public void getAndQueryRangesInValueOrder()
+    {
+        Index<Node> index = nodeIndex( "ranges" );
+        Node[] nodes = nodesWithValues( index, "age", 30, 10, 20, 40 );
+        for ( int i = 0; i < 2; i++ )
+        {
+            assertEquals( list( nodes[2] ), hits( index.get( "age", 20 ) ) );
+            assertEquals( list( nodes[1], nodes[2], nodes[0] ),
+                    hits( index.query( numericRange( "age", 10, 30 ) ) ) );
+            assertEquals( list( nodes[2] ),
+                    hits( index.query( numericRange( "age", 10, 30, false, false ) ) ) );
+            assertEquals( list( nodes[0], nodes[2] ), hits( index.query(
+                    numericRange( "age", 15L, 35L ).sortNumeric( "age", true ) ) ) );
+            assertEquals( list( nodes[3] ), hits( index.query(
+                    numericRange( "age", 0L, 50L ).sortNumeric( "age", true ).top( 1 ) ) ) );
+            assertEquals( 4, index.query( "age", numericRange( "age", 0, 50 ) ).size() );
+            assertEquals( 0, index.get( "age", 25 ).size() );
+            restartTx();
+        }
+    }
+
+    @Test
+    public void uncommittedChangesAreMergedWithCommittedOnes()
+    {
+        Index<Node> index = nodeIndex( "uncommitted" );
+        Node[] nodes = nodesWithValues( index, "age", 10, 20, 30 );
+        restartTx();
+
+        Node added = nodesWithValues( index, "age", 15 )[0];
+        index.remove( nodes[1], "age", 20 );
+        index.add( nodes[2], "age", numeric( 5 ) );
+        // Each node only once, at its first value
+        List<Node> expected = list( nodes[2], nodes[0], added );
+        assertEquals( expected, hits( index.query( numericRange( "age", null, 100 ) ) ) );
+        assertEquals( 3, index.query( numericRange( "age", null, 100 ) ).size() );
+        restartTx();
+        assertEquals( expected, hits( index.query( numericRange( "age", null, 100 ) ) ) );
+        assertEquals( 3, index.query( numericRange( "age", null, 100 ) ).size() );
+        assertEquals( list( nodes[2], added, nodes[0] ), hits( index.query(
+                QueryContext.numericRange( "age", null, 100 ).sortNumeric( "age", true ) ) ) );
+
+        index.remove( nodes[2] );
+        index.remove( nodes[0], "age" );
+        index.add( nodes[0], "age", 50 );
+        expected = list( added, nodes[0] );
+        assertEquals( expected, hits( index.query( numericRange( "age", null, 100 ) ) ) );
+        restartTx();
+        assertEquals( expected, hits( index.query( numericRange( "age", null, 100 ) ) ) );
+    }
+
+    @Test
+    public void rolledBackChangesAreNotApplied()
+    {
+        Index<Node> index = nodeIndex( "rollback" );
+        Node[] nodes = nodesWithValues( index, "age", 10 );
+        restartTx();
+        nodesWithValues( index, "age", 20 );
+        index.remove( nodes[0], "age", 10 );
+        finishTx( false );
+        beginTx();
+        assertEquals( list( nodes[0] ), hits( index.query( numericRange( "age", 0, 100 ) ) ) );
+    }
+
+    @Test
+    public void onlyIntegralValuesCanBeIndexed()
+    {
+        Index<Node> index = nodeIndex( "integral" );
+        Node node = db.createNode();
+        for ( Object value : new Object[] { "10", 10.5d, 1.5f, numeric( 2.5d ) } )
+        {
+            try
+            {
+                index.add( node, "key", value );
+                fail( "Shouldn't be able to index " + value );
+            }
+            catch ( IllegalArgumentException e )
+            {   // Good
+            }
+        }
+        try
+        {
+            index.query( "key:10" );
+            fail( "Shouldn't be able to query a btree index with a string" );
+        }
+        catch ( IllegalArgumentException e )
+        {   // Good
+        }
+    }
+
+    @Test
+    public void relationshipsCanBeFilteredOnStartAndEndNodes()
+    {
+        RelationshipIndex index = db.index().forRelationships( "relationships",
+                BTreeIndexImplementation.CONFIG );
+        Node start = db.createNode();
+        Node end1 = db.createNode();
+        Node end2 = db.createNode();
+        DynamicRelationshipType type = DynamicRelationshipType.withName( "KNOWS" );
+        Relationship rel1 = start.createRelationshipTo( end1, type );
+        Relationship rel2 = start.createRelationshipTo( end2, type );
+        Relationship rel3 = end1.createRelationshipTo( end2, type );
+        index.add( rel1, "since", 2001 );
+        index.add( rel2, "since", 2003 );
+        index.add( rel3, "since", 2002 );
+        restartTx();
+        assertEquals( list( rel1, rel3, rel2 ), hits( index.get( "since", null, null, null ) ) );
+        assertEquals( list( rel1, rel2 ), hits( index.get( "since", null, start, null ) ) );
+        assertEquals( list( rel3, rel2 ), hits( index.query(
+                numericRange( "since", 2002, 2010 ), null, end2 ) ) );
+        assertEquals( list( rel3 ), hits( index.get( "since", 2002, end1, end2 ) ) );
+    }
+
+    @Test
+    public void deletedIndexIsEmptyWhenRecreated()
+    {
+        Index<Node> index = nodeIndex( "deleted" );
+        nodesWithValues( index, "age", 10, 20 );
+        restartTx();
+        index.delete();
+        restartTx();
+        assertFalse( db.index().existsForNodes( "deleted" ) );
+        index = nodeIndex( "deleted" );
+        assertEquals( 0, index.query( numericRange( "age", null, null ) ).size() );
+    }
+
+    @Test
+    public void committedEntriesSurviveRestart()
+    {
+        Index<Node> index = nodeIndex( "restart" );
+        Node[] nodes = nodesWithValues( index, "age", 3, 1, 2 );
+        finishTx( true );
+        db.shutdown();
+        db = new EmbeddedGraphDatabase( STORE_DIR );
+        beginTx();
+        index = nodeIndex( "restart" );
+        assertEquals( list( nodes[1], nodes[2], nodes[0] ),
+                hits( index.query( new QueryContext( numericRange( "age", 0, 10 )
+                        .getQueryOrQueryObject() ) ) ) );
+    }
+
+    @Test
+    public void commandsAreReadBackAsWritten() throws Exception
+    {
+        BTreeIndexIdentifier identifier = new BTreeIndexIdentifier( BTreeIndexIdentifier.RELATIONSHIP, "log" );
+        BTreeCommand[] commands = {
+                new BTreeCommand.AddCommand( identifier, 10, "timestamp", -5 ),
+                new BTreeCommand.RemoveCommand( identifier, 11, "timestamp", Long.MAX_VALUE ),
+                new BTreeCommand.RemoveCommand( identifier, 12, "timestamp", null ),
+                new BTreeCommand.RemoveCommand( identifier, 13, null, null ),
+                new BTreeCommand.DeleteCommand( identifier ),
+                new BTreeCommand.CreateIndexCommand( identifier, MapUtil.stringMap( "provider", "btree" ) ) };
+        InMemoryLogBuffer log = new InMemoryLogBuffer();
+        for ( BTreeCommand command : commands )
+        {
+            command.writeToFile( log );
+        }
+        ByteBuffer buffer = ByteBuffer.allocate( 1024 );
+        for ( BTreeCommand command : commands )
+        {
+            XaCommand read = BTreeCommand.readCommand( log, buffer );
+            assertEquals( command.toString(), read.toString() );
+        }
+        assertNull( BTreeCommand.readCommand( log, buffer ) );
+    }
+
+    @Test
+    public void timelineFindsFirstLastAndRanges()
+    {
+        TimelineIndex<Node> timeline = new BTreeTimeline<Node>( db, nodeIndex( "timeline" ) );
+        Node[] nodes = new Node[5];
+        long[] timestamps = { 300, -100, 500, 100, 200 };
+        for ( int i = 0; i < nodes.length; i++ )
+        {
+            nodes[i] = db.createNode();
+            timeline.add( nodes[i], timestamps[i] );
+        }
+        for ( int i = 0; i < 2; i++ )
+        {
+            assertEquals( nodes[1], timeline.getFirst() );
+            assertEquals( nodes[2], timeline.getLast() );
+            assertEquals( list( nodes[1], nodes[3], nodes[4], nodes[0], nodes[2] ),
+                    hits( timeline.getBetween( null, null ) ) );
+            assertEquals( list( nodes[0], nodes[4], nodes[3] ),
+                    hits( timeline.getBetween( 100L, 300L, true ) ) );
+            restartTx();
+        }
+        timeline.remove( nodes[2], 500 );
+        assertEquals( nodes[0], timeline.getLast() );
+        restartTx();
+        assertEquals( nodes[0], timeline.getLast() );
+    }
+
+    @Test
+    public void timelineRequiresBTreeIndex()
+    {
+        try
+        {
+            new BTreeTimeline<Node>( db, db.index().forNodes( "lucene-timeline" ) );
+            fail( "Shouldn't accept a lucene index" );
+        }
+        catch ( IllegalArgumentException e )
+        {   // Good
+        }
+        assertNull( new BTreeTimeline<Node>( db, nodeIndex( "empty-timeline" ) ).getFirst() );
+        assertTrue( db.index().existsForNodes( "empty-timeline" ) );
+    }
+}
@@ -0,0 +1,126 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.index.impl.lucene;
+
+import static org.junit.Assert.assertEquals;
+import static org.neo4j.index.Neo4jTestCase.assertContains;
+
+import java.io.File;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.index.Index;
+import org.neo4j.helpers.collection.MapUtil;
+import org.neo4j.index.Neo4jTestCase;
+import org.neo4j.kernel.Config;
+import org.neo4j.kernel.EmbeddedGraphDatabase;
+
+public class TestDeferredSearcherRefresh
+{
+    private static GraphDatabaseService graphDb;
+
+    @BeforeClass
+    public static void setUpStuff()
+    {
+        String storeDir = "target/var/deferredrefresh";
+        Neo4jTestCase.deleteFileOrDirectory( new File( storeDir ) );
+        graphDb = new EmbeddedGraphDatabase( storeDir, MapUtil.stringMap(
+                Config.LUCENE_SEARCHER_REFRESH_COMMITS, "3" ) );
+    }
+
+    @AfterClass
+    public static void tearDownStuff()
+    {
+        graphDb.shutdown();
+    }
+
+    @Test
+    public void committedChangesBecomeVisibleAfterConfiguredNumberOfCommits()
+    {
+        Index<Node> index = nodeIndex( "visible" );
+        Transaction tx = graphDb.beginTx();
+        Node node = graphDb.createNode();
+        tx.success();
+        tx.finish();
+
+        tx = graphDb.beginTx();
+        index.add( node, "name", "a" );
+        tx.success();
+        tx.finish();
+        assertEquals( 0, index.get( "name", "a" ).size() );
+
+        tx = graphDb.beginTx();
+        index.add( node, "name", "b" );
+        tx.success();
+        tx.finish();
+        assertEquals( 0, index.get( "name", "b" ).size() );
+
+        tx = graphDb.beginTx();
+        index.add( node, "name", "c" );
+        tx.success();
+        tx.finish();
+        assertContains( index.get( "name", "a" ), node );
+        assertContains( index.get( "name", "b" ), node );
+        assertContains( index.get( "name", "c" ), node );
+    }
+
+    @Test
+    public void commitsFindDocumentsNotYetVisibleToQueries()
+    {
+        Index<Node> index = nodeIndex( "update" );
+        Transaction tx = graphDb.beginTx();
+        Node node = graphDb.createNode();
+        index.add( node, "name", "a" );
+        tx.success();
+        tx.finish();
+
+        tx = graphDb.beginTx();
+        index.add( node, "name", "b" );
+        tx.success();
+        tx.finish();
+
+        tx = graphDb.beginTx();
+        index.remove( node, "name", "a" );
+        tx.success();
+        tx.finish();
+
+        assertContains( index.get( "name", "a" ) );
+        assertContains( index.get( "name", "b" ), node );
+    }
+
+    private Index<Node> nodeIndex( String name )
+    {
+        Transaction tx = graphDb.beginTx();
+        try
+        {
+            Index<Node> index = graphDb.index().forNodes( name );
+            tx.success();
+            return index;
+        }
+        finally
+        {
+            tx.finish();
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.index.impl.lucene;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.Field.Index;
+import org.apache.lucene.document.Field.Store;
+import org.junit.Test;
+
+public class TestHitCache
+{
+    private final IndexIdentifier identifier = new IndexIdentifier( LuceneCommand.NODE, null, "index" );
+
+    @Test
+    public void idsSurviveCompression()
+    {
+        long[] ids = new long[] { 0, 1, 127, 128, 300, 16384, 1L << 35, Long.MAX_VALUE };
+        assertArrayEquals( ids, HitCache.decode( HitCache.encode( ids ), ids.length ) );
+        assertEquals( 1000, HitCache.encode( sequence( 1000 ) ).length );
+    }
+
+    @Test
+    public void onlyCachesEnabledKeys()
+    {
+        HitCache cache = new HitCache( 1024 * 1024 );
+        cache.put( identifier, "name", "Mattias", ids( 3, 1, 2 ), cache.stamp( identifier ) );
+        assertNull( cache.get( identifier, "name", "Mattias" ) );
+
+        cache.setCapacity( identifier, "name", 10 );
+        cache.put( identifier, "name", "Mattias", ids( 3, 1, 2 ), cache.stamp( identifier ) );
+        assertArrayEquals( new long[] { 1, 2, 3 }, cache.get( identifier, "name", "Mattias" ) );
+        assertNull( cache.get( identifier, "name", "Tobias" ) );
+        HitCache.Statistics statistics = cache.getStatistics().get( 0 );
+        assertEquals( 1, statistics.hits );
+        assertEquals( 1, statistics.misses );
+    }
+
+    @Test
+    public void doesNotPutHitsReadBeforeAnInvalidation()
+    {
+        HitCache cache = new HitCache( 1024 * 1024 );
+        cache.setCapacity( identifier, "name", 10 );
+        long stamp = cache.stamp( identifier );
+        cache.invalidate( identifier, "name", "Tobias" );
+        cache.put( identifier, "name", "Mattias", ids( 1 ), stamp );
+        assertNull( cache.get( identifier, "name", "Mattias" ) );
+    }
+
+    @Test
+    public void invalidatesTheValuesOfARemovedDocument()
+    {
+        HitCache cache = new HitCache( 1024 * 1024 );
+        cache.setCapacity( identifier, "name", 10 );
+        cache.setCapacity( identifier, "title", 10 );
+        cache.put( identifier, "name", "Mattias", ids( 1 ), cache.stamp( identifier ) );
+        cache.put( identifier, "name", "Tobias", ids( 2 ), cache.stamp( identifier ) );
+        cache.put( identifier, "title", "Developer", ids( 1, 2 ), cache.stamp( identifier ) );
+        Document document = new Document();
+        document.add( new Field( "name", "Mattias", Store.YES, Index.NOT_ANALYZED ) );
+        document.add( new Field( "title", "Developer", Store.YES, Index.NOT_ANALYZED ) );
+
+        cache.invalidate( identifier, document, "name" );
+        assertNull( cache.get( identifier, "name", "Mattias" ) );
+        assertNotNull( cache.get( identifier, "title", "Developer" ) );
+        cache.invalidate( identifier, document, null );
+        assertNull( cache.get( identifier, "title", "Developer" ) );
+        assertNotNull( cache.get( identifier, "name", "Tobias" ) );
+    }
+
+    @Test
+    public void evictsToStayWithinBudget()
+    {
+        long entrySize = HitCache.ENTRY_OVERHEAD + 2 * "value10".length() + 100;
+        HitCache cache = new HitCache( entrySize * 10 );
+        cache.setCapacity( identifier, "key", 1000 );
+        for ( int i = 0; i < 20; i++ )
+        {
+            cache.put( identifier, "key", "value" + (10 + i), sequence( 100 ), cache.stamp( identifier ) );
+            assertTrue( cache.getSizeInBytes() <= cache.getMaxSizeInBytes() );
+        }
+        HitCache.Statistics statistics = cache.getStatistics().get( 0 );
+        assertEquals( 10, statistics.evictions );
+        assertEquals( cache.getSizeInBytes(), statistics.sizeInBytes );
+        assertNotNull( cache.get( identifier, "key", "value29" ) );
+    }
+
+    @Test
+    public void evictsOtherValuesOfAKeyAtCapacity()
+    {
+        HitCache cache = new HitCache( 1024 * 1024 );
+        cache.setCapacity( identifier, "name", 1 );
+        cache.setCapacity( identifier, "title", 1 );
+        cache.put( identifier, "title", "Developer", ids( 1 ), cache.stamp( identifier ) );
+        cache.put( identifier, "name", "Mattias", ids( 1 ), cache.stamp( identifier ) );
+        assertNotNull( cache.get( identifier, "name", "Mattias" ) );
+        cache.put( identifier, "name", "Tobias", ids( 2 ), cache.stamp( identifier ) );
+        assertNull( cache.get( identifier, "name", "Mattias" ) );
+        assertNotNull( cache.get( identifier, "name", "Tobias" ) );
+        assertNotNull( cache.get( identifier, "title", "Developer" ) );
+    }
+
+    @Test
+    public void hitsThatCanNeverFitAreNotCollected()
+    {
+        HitCache cache = new HitCache( HitCache.ENTRY_OVERHEAD + 2 * "value".length() + 100 );
+        assertTrue( cache.mayFit( "value", 100 ) );
+        assertFalse( cache.mayFit( "value", 101 ) );
+    }
+
+    private static long[] sequence( int count )
+    {
+        long[] ids = new long[count];
+        for ( int i = 0; i < count; i++ )
+        {
+            ids[i] = i * 10;
+        }
+        return ids;
+    }
+
+    private static long[] ids( long... ids )
+    {
+        return ids;
+    }
+}
@@ -23,8 +23,10 @@ import static java.lang.System.currentTimeMillis;
 import static org.apache.lucene.search.NumericRangeQuery.newIntRange;
 import static org.hamcrest.core.Is.is;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.neo4j.helpers.collection.IteratorUtil.count;
 import static org.neo4j.helpers.collection.MapUtil.map;
 import static org.neo4j.helpers.collection.MapUtil.stringMap;
@@ -42,6 +44,9 @@ import java.util.Iterator;
 import java.util.Map;
 
 import junit.framework.Assert;
+
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.store.FSDirectory;
 import org.junit.Before;
 import org.junit.Ignore;
 import org.junit.Test;
@@ -428,6 +433,78 @@ public class TestLuceneBatchInsert
         provider.shutdown();
         inserter.shutdown();
     }
+
+    @Test
+    public void indexInParallelAndMergeAtShutdown() throws Exception
+    {
+        String path = new File( PATH, "10" ).getAbsolutePath();
+        BatchInserter inserter = new BatchInserterImpl( path );
+        LuceneBatchInserterIndexProvider provider = new LuceneBatchInserterIndexProvider( inserter, 3 );
+        BatchInserterIndex index = provider.nodeIndex( "parallel", EXACT_CONFIG );
+        Map<Integer, Long> ids = new HashMap<Integer, Long>();
+        for ( int i = 0; i < 1000; i++ )
+        {
+            long id = inserter.createNode( null );
+            index.add( id, map( "name", "Joe" + i, "age", numeric( i ) ) );
+            ids.put( i, id );
+        }
+        index.flush();
+        assertEquals( 1000, provider.getAddedDocumentCount() );
+        assertEquals( 1000, count( (Iterator<Long>) index.query( "name", "Joe*" ) ) );
+        assertEquals( 1000, provider.getIndexedDocumentCount() );
+        assertContains( index.query( newIntRange( "age", 10, 12, true, true ) ),
+                ids.get( 10 ), ids.get( 11 ), ids.get( 12 ) );
+        index.updateOrAdd( ids.get( 5 ), map( "name", "Jack" ) );
+        index.flush();
+        assertThat( index.get( "name", "Joe5" ), isEmpty() );
+        assertContains( index.get( "name", "Jack" ), ids.get( 5 ) );
+        provider.shutdown();
+        inserter.shutdown();
+        for ( int i = 0; i < 3; i++ )
+        {
+            assertTrue( !new File( path, "index/lucene/node/parallel-segment-" + i ).exists() );
+        }
+
+        GraphDatabaseService db = new EmbeddedGraphDatabase( path );
+        Index<Node> dbIndex = db.index().forNodes( "parallel" );
+        assertEquals( 999, count( (Iterator<Node>) dbIndex.query( "name", "Joe*" ) ) );
+        assertContains( dbIndex.get( "name", "Joe999" ), db.getNodeById( ids.get( 999 ) ) );
+        assertContains( dbIndex.get( "name", "Jack" ), db.getNodeById( ids.get( 5 ) ) );
+        db.shutdown();
+    }
+
+    @Test
+    public void failedParallelIndexingReleasesTheIndexAtShutdown() throws Exception
+    {
+        String path = new File( PATH, "11" ).getAbsolutePath();
+        BatchInserter inserter = new BatchInserterImpl( path );
+        LuceneBatchInserterIndexProvider provider = new LuceneBatchInserterIndexProvider( inserter, 3 );
+        BatchInserterIndex index = provider.nodeIndex( "failing", EXACT_CONFIG );
+        index.add( inserter.createNode( null ), map( "name", "Joe" ) );
+        index.add( inserter.createNode( null ), map( "name", new Object()
+        {
+            @Override
+            public String toString()
+            {
+                throw new IllegalStateException( "Unable to index" );
+            }
+        } ) );
+        try
+        {
+            provider.shutdown();
+            fail( "Should have failed" );
+        }
+        catch ( RuntimeException e )
+        { // good
+        }
+        inserter.shutdown();
+        for ( int i = 0; i < 3; i++ )
+        {
+            assertFalse( new File( path, "index/lucene/node/failing-segment-" + i ).exists() );
+        }
+        assertFalse( IndexWriter.isLocked( FSDirectory.open( new File( path, "index/lucene/node/failing" ) ) ) );
+    }
+
     private enum EdgeType implements RelationshipType
     {
         KNOWS
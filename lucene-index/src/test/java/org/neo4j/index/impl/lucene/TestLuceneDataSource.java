@@ -185,6 +185,58 @@ public class TestLuceneDataSource
         assertNotSame( oldSearcher.getSearcher(), newSearcher.getSearcher() );
     }
 
+    @Test
+    public void testSearcherIsRefreshedAfterConfiguredNumberOfCommits() throws InstantiationException
+    {
+        Map<Object, Object> config = config();
+        config.put( Config.LUCENE_SEARCHER_REFRESH_COMMITS, "2" );
+        dataSource = new LuceneDataSource( config );
+        IndexIdentifier identifier = identifier( "foo" );
+        IndexSearcherRef oldSearcher = dataSource.getIndexSearcher( identifier, false );
+        dataSource.invalidateIndexSearcher( identifier );
+        assertSame( oldSearcher, dataSource.getIndexSearcher( identifier, false ) );
+        dataSource.invalidateIndexSearcher( identifier );
+        IndexSearcherRef newSearcher = dataSource.getIndexSearcher( identifier, false );
+        assertNotSame( oldSearcher, newSearcher );
+        assertTrue( oldSearcher.isClosed() );
+        assertFalse( newSearcher.isClosed() );
+    }
+
+    @Test
+    public void testSearcherInUseIsClosedWhenReleasedAfterBeingReplaced() throws Exception
+    {
+        dataSource = new LuceneDataSource( config() );
+        IndexIdentifier identifier = identifier( "foo" );
+        IndexSearcherRef oldSearcher = dataSource.getIndexSearcher( identifier, true );
+        dataSource.invalidateIndexSearcher( identifier );
+        IndexSearcherRef newSearcher = dataSource.getIndexSearcher( identifier, true );
+        assertNotSame( oldSearcher, newSearcher );
+        assertFalse( oldSearcher.isClosed() );
+        assertTrue( oldSearcher.close() );
+        assertTrue( oldSearcher.isClosed() );
+        assertFalse( newSearcher.close() );
+        assertFalse( newSearcher.isClosed() );
+    }
+
+    @Test
+    public void testSearcherIsRefreshedInTheBackground() throws Exception
+    {
+        Map<Object, Object> config = config();
+        config.put( Config.LUCENE_SEARCHER_REFRESH_INTERVAL, "10" );
+        dataSource = new LuceneDataSource( config );
+        IndexIdentifier identifier = identifier( "foo" );
+        IndexSearcherRef oldSearcher = dataSource.getIndexSearcher( identifier, false );
+        dataSource.invalidateIndexSearcher( identifier );
+        long end = System.currentTimeMillis() + 10000;
+        while ( dataSource.getIndexSearcher( identifier, false ) == oldSearcher
+                && System.currentTimeMillis() < end )
+        {
+            Thread.sleep( 10 );
+        }
+        assertNotSame( oldSearcher, dataSource.getIndexSearcher( identifier, false ) );
+        assertTrue( oldSearcher.isClosed() );
+    }
+
     private Map<Object, Object> config()
     {
         return MapUtil.genericMap(
@@ -175,6 +175,43 @@ public class TestLuceneIndex extends AbstractLuceneIndexTest
         assertTrue( graphDb.index().existsForRelationships( name ) );
     }
 
+    @Test
+    public void makeSureCachedHitsAreInvalidatedWhenCommitted()
+    {
+        Index<Node> index = nodeIndex( "cached", LuceneIndexImplementation.EXACT_CONFIG );
+        HitCache hitCache = ((LuceneIndex<Node>) index).service.dataSource().getHitCache();
+        ((LuceneIndex<Node>) index).setCacheCapacity( "name", 100 );
+        Node first = graphDb.createNode();
+        Node second = graphDb.createNode();
+        index.add( first, "name", "Mattias" );
+        restartTx();
+        assertContains( index.get( "name", "Mattias" ), first );
+        assertEquals( 0, hitCount( hitCache ) );
+        assertContains( index.get( "name", "Mattias" ), first );
+        assertEquals( 1, hitCount( hitCache ) );
+
+        index.add( second, "name", "Mattias" );
+        assertContains( index.get( "name", "Mattias" ), first, second );
+        restartTx();
+        assertContains( index.get( "name", "Mattias" ), first, second );
+        assertContains( index.get( "name", "Mattias" ), first, second );
+        index.remove( first );
+        restartTx();
+        assertContains( index.get( "name", "Mattias" ), second );
+        assertContains( index.get( "name", "Mattias" ), second );
+        assertEquals( 4, hitCount( hitCache ) );
+    }
+
+    private long hitCount( HitCache hitCache )
+    {
+        long count = 0;
+        for ( HitCache.Statistics statistics : hitCache.getStatistics() )
+        {
+            count += statistics.hits;
+        }
+        return count;
+    }
+
     private void makeSureAdditionsCanBeRemoved( boolean restartTx )
     {
         Index<Node> index = nodeIndex( "index", LuceneIndexImplementation.EXACT_CONFIG );
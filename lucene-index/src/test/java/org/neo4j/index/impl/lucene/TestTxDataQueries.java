@@ -0,0 +1,167 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.index.impl.lucene;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.neo4j.index.lucene.QueryContext.numericRange;
+import static org.neo4j.index.lucene.ValueContext.numeric;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.PrefixQuery;
+import org.junit.Test;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.PropertyContainer;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.index.Index;
+import org.neo4j.graphdb.index.IndexHits;
+import org.neo4j.graphdb.index.RelationshipIndex;
+import org.neo4j.index.lucene.QueryContext;
+
+public class TestTxDataQueries extends AbstractLuceneIndexTest
+{
+    private static final Object[] QUERIES = {
+        "name:Mattias",
+        "name:mattias",
+        "name:Matt*",
+        "name:*ias",
+        "name:T?bias",
+        "name:[M TO P]",
+        "name:{Mattias TO Tobias}",
+        "name:Mattias OR name:Tobias",
+        "name:M* AND NOT name:Mattias",
+        "name:mattias AND name:persson",
+        "name:\"mattias persson\"",
+        new PrefixQuery( new Term( "name_e", "Mattias " ) ),
+        numericRange( "age", 10, 20 ),
+        numericRange( "age", 10, 20, false, false ),
+        numericRange( "age", null, 15 ),
+        new QueryContext( "name:*" ).sort( "name" ),
+    };
+
+    @Test
+    public void uncommittedExactQueryResultsAreTheSameAsCommittedOnes()
+    {
+        assertUncommittedResultsAreTheSameAsCommittedOnes(
+                nodeIndex( "exact-tx-queries", LuceneIndexImplementation.EXACT_CONFIG ) );
+    }
+
+    @Test
+    public void uncommittedFulltextQueryResultsAreTheSameAsCommittedOnes()
+    {
+        assertUncommittedResultsAreTheSameAsCommittedOnes(
+                nodeIndex( "fulltext-tx-queries", LuceneIndexImplementation.FULLTEXT_CONFIG ) );
+    }
+
+    private void assertUncommittedResultsAreTheSameAsCommittedOnes( Index<Node> index )
+    {
+        Node mattias = addNode( index, "Mattias Persson", 12 );
+        Node tobias = addNode( index, "Tobias", 25 );
+        Node matt = addNode( index, "Matt", 10 );
+        Node other = addNode( index, "Mattias", 20 );
+        index.remove( other, "name", "Mattias" );
+        index.add( other, "name", "Mattias Tobias" );
+        assertSameResultsAfterCommit( index );
+
+        index.remove( mattias );
+        index.remove( tobias, "age" );
+        index.add( tobias, "name", "Mattias" );
+        index.remove( matt, "age", numeric( 10 ) );
+        addNode( index, "Persson", 15 );
+        assertSameResultsAfterCommit( index );
+    }
+
+    private Node addNode( Index<Node> index, String name, int age )
+    {
+        Node node = graphDb.createNode();
+        index.add( node, "name", name );
+        index.add( node, "age", numeric( age ) );
+        return node;
+    }
+
+    private void assertSameResultsAfterCommit( Index<Node> index )
+    {
+        List<Set<Long>> uncommitted = new ArrayList<Set<Long>>();
+        for ( Object query : QUERIES )
+        {
+            uncommitted.add( ids( index.query( query ) ) );
+        }
+        restartTx();
+        for ( int i = 0; i < QUERIES.length; i++ )
+        {
+            assertEquals( "Results of " + describe( QUERIES[i] ), ids( index.query( QUERIES[i] ) ), uncommitted.get( i ) );
+        }
+    }
+
+    private static Object describe( Object query )
+    {
+        return query instanceof QueryContext ? ((QueryContext) query).getQueryOrQueryObject() : query;
+    }
+
+    @Test
+    public void uncommittedRelationshipsAreFoundByStartAndEndNode()
+    {
+        RelationshipIndex index = relationshipIndex( "rel-tx-queries", LuceneIndexImplementation.EXACT_CONFIG );
+        Map<String, Set<Long>> uncommitted = new HashMap<String, Set<Long>>();
+        Relationship first = RELATIONSHIP_CREATOR.create();
+        Relationship second = first.getStartNode().createRelationshipTo( graphDb.createNode(), first.getType() );
+        index.add( first, "name", "first" );
+        index.add( second, "name", "second" );
+        uncommitted.put( "start", ids( index.query( "name", "*", first.getStartNode(), null ) ) );
+        uncommitted.put( "end", ids( index.query( "name", "*", null, second.getEndNode() ) ) );
+        assertEquals( 2, uncommitted.get( "start" ).size() );
+        assertEquals( 1, uncommitted.get( "end" ).size() );
+        restartTx();
+        assertEquals( ids( index.query( "name", "*", first.getStartNode(), null ) ), uncommitted.get( "start" ) );
+        assertEquals( ids( index.query( "name", "*", null, second.getEndNode() ) ), uncommitted.get( "end" ) );
+    }
+
+    @Test
+    public void wildcardsMatchLikeLuceneWildcards()
+    {
+        assertTrue( ExactTxData.wildcardEquals( "*", "" ) );
+        assertTrue( ExactTxData.wildcardEquals( "a*c", "abbbc" ) );
+        assertTrue( ExactTxData.wildcardEquals( "a*c", "ac" ) );
+        assertTrue( ExactTxData.wildcardEquals( "a?c", "abc" ) );
+        assertTrue( ExactTxData.wildcardEquals( "*b*", "abc" ) );
+        assertTrue( ExactTxData.wildcardEquals( "a*", "a*b" ) );
+        assertFalse( ExactTxData.wildcardEquals( "a?c", "ac" ) );
+        assertFalse( ExactTxData.wildcardEquals( "a*c", "abcd" ) );
+        assertFalse( ExactTxData.wildcardEquals( "abc", "ab" ) );
+    }
+
+    private static Set<Long> ids( IndexHits<? extends PropertyContainer> hits )
+    {
+        Set<Long> ids = new HashSet<Long>();
+        for ( PropertyContainer entity : hits )
+        {
+            ids.add( entity instanceof Node ? ((Node) entity).getId() : ((Relationship) entity).getId() );
+        }
+        return ids;
+    }
+}
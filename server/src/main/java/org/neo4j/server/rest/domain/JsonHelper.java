@@ -61,7 +61,11 @@ public class JsonHelper
 
     public static Object jsonToSingleValue( String json ) throws org.neo4j.server.rest.web.PropertyValueException
     {
-        Object jsonObject = readJson( json );
+        return toSingleValue( readJson( json ) );
+    }
+
+    public static Object toSingleValue( Object jsonObject ) throws PropertyValueException
+    {
         return jsonObject instanceof Collection<?> ? jsonObject : assertSupportedPropertyValue( jsonObject );
     }
 
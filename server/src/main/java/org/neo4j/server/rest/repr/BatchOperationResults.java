@@ -19,10 +19,13 @@
  */
 package org.neo4j.server.rest.repr;
 
+import java.io.IOException;
 import java.io.StringWriter;
+import java.io.Writer;
 import java.util.HashMap;
 import java.util.Map;
 
+import org.neo4j.server.rest.domain.JsonBuildRuntimeException;
 import org.neo4j.server.rest.domain.JsonHelper;
 
 /*
@@ -42,15 +45,33 @@ public class BatchOperationResults
     private static final String CLOSING_CURLY = "}";
     private static final String COMMA = ",";
 
-    private StringWriter results = new StringWriter();
+    private final Writer results;
     private boolean firstResult = true;
     private Map<Integer, String> locations = new HashMap<Integer, String>();
 
-    public BatchOperationResults() {
-        results.append(OPENING_BRACKET);
+    public BatchOperationResults()
+    {
+        this( new StringWriter() );
     }
 
-    public void addOperationResult( String from, Integer id, String body, String location )
+    /**
+     * Writes the results to the given writer as they are added, rather than
+     * keeping them until {@link #toJSON()} is called.
+     */
+    public BatchOperationResults( Writer results )
+    {
+        this.results = results;
+        try
+        {
+            results.append( OPENING_BRACKET );
+        }
+        catch ( IOException e )
+        {
+            throw new JsonBuildRuntimeException( e );
+        }
+    }
+
+    public void addOperationResult( String from, Integer id, String body, String location ) throws IOException
     {
         if(firstResult)
             firstResult = false;
@@ -87,14 +108,54 @@ public class BatchOperationResults
         results.append( CLOSING_CURLY );
     }
 
+    /**
+     * Adds the status and message of an operation that failed. Used when
+     * results are streamed and the client can no longer be told through the
+     * status code of the response.
+     */
+    public void addOperationFailure( int status, String message ) throws IOException
+    {
+        if ( !firstResult ) results.append( COMMA );
+        firstResult = false;
+        results.append( OPENING_CURLY )
+                .append( "\"status\":" )
+                .append( Integer.toString( status ) )
+                .append( COMMA )
+                .append( "\"message\":" )
+                .append( JsonHelper.createJsonFrom( message ) )
+                .append( CLOSING_CURLY );
+    }
+
     public Map<Integer, String> getLocations()
     {
         return locations;
     }
 
+    /**
+     * Closes the result list and returns it, for results kept in memory by
+     * the default constructor.
+     */
     public String toJSON()
     {
-        results.append(CLOSING_BRACKET);
+        try
+        {
+            finish();
+        }
+        catch ( IOException e )
+        {
+            throw new JsonBuildRuntimeException( e );
+        }
         return results.toString();
     }
+
+    public void flush() throws IOException
+    {
+        results.flush();
+    }
+
+    public void finish() throws IOException
+    {
+        results.append( CLOSING_BRACKET );
+        results.flush();
+    }
 }
@@ -19,14 +19,18 @@
  */
 package org.neo4j.server.rest.repr;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URI;
 
+import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.ResponseBuilder;
 import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.StreamingOutput;
 
 public class OutputFormat
 {
@@ -97,6 +101,14 @@ public class OutputFormat
 
     protected Response response( ResponseBuilder response, Representation representation )
     {
+        if ( format instanceof StreamingFormat )
+        {
+            // No Content-Length is known up front, so the container sends the entity chunked
+            return response.entity( stream( representation ) )
+                    .header( HttpHeaders.CONTENT_ENCODING, UTF8 )
+                    .type( getMediaType() )
+                    .build();
+        }
         String entity = format( representation );
         byte[] entityAsBytes;
         try
@@ -113,6 +125,22 @@ public class OutputFormat
                 .build();
     }
 
+    private StreamingOutput stream( final Representation representation )
+    {
+        return new StreamingOutput()
+        {
+            public void write( OutputStream output ) throws IOException, WebApplicationException
+            {
+                representation.serialize( ( (StreamingFormat) format ).writeTo( output ), baseUri, extensions );
+            }
+        };
+    }
+
+    public boolean isStreaming()
+    {
+        return format instanceof StreamingFormat;
+    }
+
     public MediaType getMediaType()
     {
         return format.mediaType;
@@ -0,0 +1,41 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.server.rest.repr;
+
+import java.io.OutputStream;
+
+/**
+ * A {@link RepresentationFormat} that is able to write its output directly to
+ * a stream instead of building the entire response in memory first.
+ * {@link OutputFormat} uses this to send the representation to the client as
+ * it is being serialized.
+ */
+public interface StreamingFormat
+{
+    /**
+     * Returns a format that writes everything it serializes to the given
+     * stream. The strings returned by the complete methods of that format
+     * carry no content.
+     * 
+     * @param output the stream to write the serialized representation to.
+     * @return a format bound to the given stream.
+     */
+    RepresentationFormat writeTo( OutputStream output );
+}
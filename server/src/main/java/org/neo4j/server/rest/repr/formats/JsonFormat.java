@@ -40,7 +40,12 @@ public class JsonFormat extends RepresentationFormat
 {
     public JsonFormat()
     {
-        super( MediaType.APPLICATION_JSON_TYPE );
+        this( MediaType.APPLICATION_JSON_TYPE );
+    }
+
+    protected JsonFormat( MediaType mediaType )
+    {
+        super( mediaType );
     }
 
     @Override
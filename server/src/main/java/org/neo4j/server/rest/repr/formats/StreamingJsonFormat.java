@@ -0,0 +1,404 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.server.rest.repr.formats;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+
+import javax.ws.rs.core.MediaType;
+
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.map.MappingJsonFactory;
+import org.neo4j.helpers.Service;
+import org.neo4j.helpers.collection.MapUtil;
+import org.neo4j.server.rest.domain.JsonBuildRuntimeException;
+import org.neo4j.server.rest.repr.ListWriter;
+import org.neo4j.server.rest.repr.MappingWriter;
+import org.neo4j.server.rest.repr.RepresentationFormat;
+import org.neo4j.server.rest.repr.StreamingFormat;
+
+/**
+ * JSON format that writes the representation with a {@link JsonGenerator} as
+ * it is being traversed, instead of building intermediate maps and lists and
+ * converting them at the end. When bound to the response stream through
+ * {@link #writeTo(OutputStream)} nothing but the generator buffer is kept in
+ * memory.
+ */
+@Service.Implementation( RepresentationFormat.class )
+public class StreamingJsonFormat extends JsonFormat implements StreamingFormat
+{
+    public static final MediaType MEDIA_TYPE = new MediaType( MediaType.APPLICATION_JSON_TYPE.getType(),
+            MediaType.APPLICATION_JSON_TYPE.getSubtype(), MapUtil.stringMap( "stream", "true" ) );
+
+    private static final MappingJsonFactory JSON_FACTORY = new MappingJsonFactory();
+
+    private final OutputStream output;
+
+    public StreamingJsonFormat()
+    {
+        this( null );
+    }
+
+    private StreamingJsonFormat( OutputStream output )
+    {
+        super( MEDIA_TYPE );
+        this.output = output;
+    }
+
+    public RepresentationFormat writeTo( OutputStream output )
+    {
+        return new StreamingJsonFormat( output );
+    }
+
+    private JsonOutput newOutput()
+    {
+        try
+        {
+            if ( output != null )
+            {
+                return new JsonOutput( JSON_FACTORY.createJsonGenerator( output, JsonEncoding.UTF8 ), null );
+            }
+            StringWriter buffer = new StringWriter();
+            return new JsonOutput( JSON_FACTORY.createJsonGenerator( buffer ), buffer );
+        }
+        catch ( IOException e )
+        {
+            throw new JsonBuildRuntimeException( e );
+        }
+    }
+
+    @Override
+    protected ListWriter serializeList( String type )
+    {
+        JsonOutput out = newOutput();
+        return new StreamingListWriter( out, out.startArray( null ) );
+    }
+
+    @Override
+    protected String complete( ListWriter serializer )
+    {
+        return ( (StreamingListWriter) serializer ).out.complete();
+    }
+
+    @Override
+    protected MappingWriter serializeMapping( String type )
+    {
+        JsonOutput out = newOutput();
+        return new StreamingMappingWriter( out, out.startObject( null ) );
+    }
+
+    @Override
+    protected String complete( MappingWriter serializer )
+    {
+        return ( (StreamingMappingWriter) serializer ).out.complete();
+    }
+
+    @Override
+    protected String serializeValue( String type, Object value )
+    {
+        JsonOutput out = newOutput();
+        try
+        {
+            out.generator.writeObject( value );
+        }
+        catch ( IOException e )
+        {
+            throw new JsonBuildRuntimeException( e );
+        }
+        return out.complete();
+    }
+
+    private static class JsonOutput
+    {
+        final JsonGenerator generator;
+        private final StringWriter buffer;
+
+        JsonOutput( JsonGenerator generator, StringWriter buffer )
+        {
+            this.generator = generator;
+            this.buffer = buffer;
+        }
+
+        JsonGenerator startObject( String key )
+        {
+            try
+            {
+                if ( key == null )
+                {
+                    generator.writeStartObject();
+                }
+                else
+                {
+                    generator.writeObjectFieldStart( key );
+                }
+                return generator;
+            }
+            catch ( IOException e )
+            {
+                throw new JsonBuildRuntimeException( e );
+            }
+        }
+
+        JsonGenerator startArray( String key )
+        {
+            try
+            {
+                if ( key == null )
+                {
+                    generator.writeStartArray();
+                }
+                else
+                {
+                    generator.writeArrayFieldStart( key );
+                }
+                return generator;
+            }
+            catch ( IOException e )
+            {
+                throw new JsonBuildRuntimeException( e );
+            }
+        }
+
+        String complete()
+        {
+            try
+            {
+                // Closing the generator would also close the response stream
+                if ( buffer == null )
+                {
+                    generator.flush();
+                    return "";
+                }
+                generator.close();
+                return buffer.toString();
+            }
+            catch ( IOException e )
+            {
+                throw new JsonBuildRuntimeException( e );
+            }
+        }
+    }
+
+    private static class StreamingMappingWriter extends MappingWriter
+    {
+        final JsonOutput out;
+        private final JsonGenerator generator;
+
+        StreamingMappingWriter( JsonOutput out, JsonGenerator generator )
+        {
+            this.out = out;
+            this.generator = generator;
+        }
+
+        @Override
+        protected MappingWriter newMapping( String type, String key )
+        {
+            return new StreamingMappingWriter( out, out.startObject( key ) );
+        }
+
+        @Override
+        protected ListWriter newList( String type, String key )
+        {
+            return new StreamingListWriter( out, out.startArray( key ) );
+        }
+
+        @Override
+        protected void writeString( String key, String value )
+        {
+            try
+            {
+                generator.writeStringField( key, value );
+            }
+            catch ( IOException e )
+            {
+                throw new JsonBuildRuntimeException( e );
+            }
+        }
+
+        @Override
+        protected void writeInteger( String type, String key, long value )
+        {
+            try
+            {
+                generator.writeNumberField( key, value );
+            }
+            catch ( IOException e )
+            {
+                throw new JsonBuildRuntimeException( e );
+            }
+        }
+
+        @Override
+        protected void writeFloatingPointNumber( String type, String key, double value )
+        {
+            try
+            {
+                generator.writeNumberField( key, value );
+            }
+            catch ( IOException e )
+            {
+                throw new JsonBuildRuntimeException( e );
+            }
+        }
+
+        @Override
+        protected void writeBoolean( String key, boolean value )
+        {
+            try
+            {
+                generator.writeBooleanField( key, value );
+            }
+            catch ( IOException e )
+            {
+                throw new JsonBuildRuntimeException( e );
+            }
+        }
+
+        @Override
+        protected void writeValue( String type, String key, Object value )
+        {
+            try
+            {
+                generator.writeObjectField( key, value );
+            }
+            catch ( IOException e )
+            {
+                throw new JsonBuildRuntimeException( e );
+            }
+        }
+
+        @Override
+        protected void done()
+        {
+            try
+            {
+                generator.writeEndObject();
+            }
+            catch ( IOException e )
+            {
+                throw new JsonBuildRuntimeException( e );
+            }
+        }
+    }
+
+    private static class StreamingListWriter extends ListWriter
+    {
+        final JsonOutput out;
+        private final JsonGenerator generator;
+
+        StreamingListWriter( JsonOutput out, JsonGenerator generator )
+        {
+            this.out = out;
+            this.generator = generator;
+        }
+
+        @Override
+        protected MappingWriter newMapping( String type )
+        {
+            return new StreamingMappingWriter( out, out.startObject( null ) );
+        }
+
+        @Override
+        protected ListWriter newList( String type )
+        {
+            return new StreamingListWriter( out, out.startArray( null ) );
+        }
+
+        @Override
+        protected void writeString( String value )
+        {
+            try
+            {
+                generator.writeString( value );
+            }
+            catch ( IOException e )
+            {
+                throw new JsonBuildRuntimeException( e );
+            }
+        }
+
+        @Override
+        protected void writeInteger( String type, long value )
+        {
+            try
+            {
+                generator.writeNumber( value );
+            }
+            catch ( IOException e )
+            {
+                throw new JsonBuildRuntimeException( e );
+            }
+        }
+
+        @Override
+        protected void writeFloatingPointNumber( String type, double value )
+        {
+            try
+            {
+                generator.writeNumber( value );
+            }
+            catch ( IOException e )
+            {
+                throw new JsonBuildRuntimeException( e );
+            }
+        }
+
+        @Override
+        protected void writeBoolean( boolean value )
+        {
+            try
+            {
+                generator.writeBoolean( value );
+            }
+            catch ( IOException e )
+            {
+                throw new JsonBuildRuntimeException( e );
+            }
+        }
+
+        @Override
+        protected void writeValue( String type, Object value )
+        {
+            try
+            {
+                generator.writeObject( value );
+            }
+            catch ( IOException e )
+            {
+                throw new JsonBuildRuntimeException( e );
+            }
+        }
+
+        @Override
+        protected void done()
+        {
+            try
+            {
+                generator.writeEndArray();
+            }
+            catch ( IOException e )
+            {
+                throw new JsonBuildRuntimeException( e );
+            }
+        }
+    }
+}
@@ -21,30 +21,38 @@ package org.neo4j.server.rest.web;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 import javax.servlet.ServletException;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
+import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 import javax.ws.rs.core.UriInfo;
 
-import org.codehaus.jackson.JsonFactory;
 import org.codehaus.jackson.JsonParser;
 import org.codehaus.jackson.JsonToken;
+import org.codehaus.jackson.map.MappingJsonFactory;
 import org.neo4j.graphdb.Transaction;
 import org.neo4j.kernel.AbstractGraphDatabase;
 import org.neo4j.server.database.Database;
 import org.neo4j.server.rest.domain.BatchOperationFailedException;
+import org.neo4j.server.rest.domain.JsonHelper;
+import org.neo4j.server.rest.paging.LeaseManager;
 import org.neo4j.server.rest.repr.BadInputException;
 import org.neo4j.server.rest.repr.BatchOperationResults;
 import org.neo4j.server.rest.repr.InputFormat;
 import org.neo4j.server.rest.repr.OutputFormat;
-import org.neo4j.server.rest.repr.formats.StreamingJsonUtils;
 import org.neo4j.server.web.WebServer;
 
 @Path( "/batch" )
@@ -56,61 +64,38 @@ public class BatchOperationService
     private static final String BODY_KEY = "body";
     private static final String TO_KEY = "to";
     
-    private static final JsonFactory jsonFactory = new JsonFactory(); 
+    private static final MappingJsonFactory jsonFactory = new MappingJsonFactory(); 
     
     private final OutputFormat output;
     private final WebServer webServer;
     private final Database database;
+    private final DirectBatchOperations direct;
 
     public BatchOperationService( @Context Database database, @Context WebServer webServer, @Context InputFormat input,
-            @Context OutputFormat output )
+            @Context OutputFormat output, @Context LeaseManager leaseManager )
     {
         this.output = output;
         this.webServer = webServer;
         this.database = database;
+        this.direct = new DirectBatchOperations( new DatabaseActions( database, leaseManager ), output );
     }
 
     @POST
     public Response performBatchOperations( @Context UriInfo uriInfo, InputStream body ) throws BadInputException
     {
+        URI baseUri = uriInfo.getBaseUri();
+        if ( output.isStreaming() )
+        {
+            return streamBatchOperations( baseUri, body );
+        }
+
         AbstractGraphDatabase db = database.graph;
 
         Transaction tx = db.beginTx();
         try
         {
-            JsonParser jp = jsonFactory.createJsonParser(body);
-            
             BatchOperationResults results = new BatchOperationResults();
-            
-            JsonToken token;
-            String field;
-            String jobMethod, jobPath, jobBody;
-            Integer jobId;
-            
-            // TODO: Perhaps introduce a simple DSL for 
-            // deserializing streamed JSON?
-            while( (token = jp.nextToken()) != null) {
-                 if(token == JsonToken.START_OBJECT) {
-                     jobMethod = jobPath = jobBody = "";
-                     jobId = null;
-                     while( (token = jp.nextToken()) != JsonToken.END_OBJECT && token != null) {
-                         field = jp.getText();
-                         token = jp.nextToken();
-                         if(field.equals(METHOD_KEY)) {
-                             jobMethod = jp.getText().toUpperCase();
-                         } else if(field.equals(TO_KEY)) {
-                             jobPath = jp.getText();
-                         } else if(field.equals(ID_KEY)) {
-                             jobId = jp.getIntValue();
-                         } else if(field.equals(BODY_KEY)) {
-                             jobBody = StreamingJsonUtils.readCurrentValueAsString(jp, token);
-                         }
-                     }
-
-                     // Read one job description. Execute it.
-                     performJob(results, uriInfo, jobMethod, jobPath, jobBody, jobId);
-                 }
-            }
+            performJobs( results, baseUri, body );
 
             Response res = Response.ok()
                     .entity( results.toJSON() )
@@ -132,22 +117,124 @@ public class BatchOperationService
         }
     }
 
-    private void performJob( BatchOperationResults results, UriInfo uriInfo, String method, String path, String body, Integer id )
-            throws IOException, ServletException
+    /*
+     * Writes the result of every job to the client as soon as it is done.
+     * The status code is sent before the first job runs, so a failure is
+     * reported as a last element with "status" and "message" keys instead.
+     */
+    private Response streamBatchOperations( final URI baseUri, final InputStream body )
     {
-        
+        StreamingOutput stream = new StreamingOutput()
+        {
+            public void write( OutputStream entity ) throws IOException, WebApplicationException
+            {
+                BatchOperationResults results = new BatchOperationResults( new OutputStreamWriter( entity, "UTF-8" ) );
+                Transaction tx = database.graph.beginTx();
+                try
+                {
+                    performJobs( results, baseUri, body );
+                    tx.success();
+                }
+                catch ( BatchOperationFailedException e )
+                {
+                    tx.failure();
+                    results.addOperationFailure( e.getStatus(), e.getMessage() );
+                }
+                catch ( Exception e )
+                {
+                    tx.failure();
+                    results.addOperationFailure( 500, e.toString() );
+                }
+                finally
+                {
+                    tx.finish();
+                }
+                results.finish();
+            }
+        };
+        return Response.ok()
+                .entity( stream )
+                .header( HttpHeaders.CONTENT_ENCODING, "UTF-8" )
+                .type( output.getMediaType() )
+                .build();
+    }
 
-        InternalJettyServletRequest req = new InternalJettyServletRequest();
-        InternalJettyServletResponse res = new InternalJettyServletResponse();
+    private void performJobs( BatchOperationResults results, URI baseUri, InputStream body ) throws IOException,
+            ServletException
+    {
+        JsonParser jp = jsonFactory.createJsonParser( body );
+
+        JsonToken token;
+        String field;
+        String jobMethod, jobPath;
+        Object jobBody;
+        Integer jobId;
 
+        while ( ( token = jp.nextToken() ) != null )
+        {
+            if ( token == JsonToken.START_OBJECT )
+            {
+                jobMethod = jobPath = "";
+                jobBody = null;
+                jobId = null;
+                while ( ( token = jp.nextToken() ) != JsonToken.END_OBJECT && token != null )
+                {
+                    field = jp.getText();
+                    token = jp.nextToken();
+                    if ( field.equals( METHOD_KEY ) )
+                    {
+                        jobMethod = jp.getText().toUpperCase();
+                    }
+                    else if ( field.equals( TO_KEY ) )
+                    {
+                        jobPath = jp.getText();
+                    }
+                    else if ( field.equals( ID_KEY ) )
+                    {
+                        jobId = jp.getIntValue();
+                    }
+                    else if ( field.equals( BODY_KEY ) )
+                    {
+                        jobBody = jp.readValueAs( Object.class );
+                    }
+                    else
+                    {
+                        jp.skipChildren();
+                    }
+                }
+
+                // Read one job description. Execute it.
+                performJob( results, baseUri, jobMethod, jobPath, jobBody, jobId );
+                results.flush();
+            }
+        }
+    }
+
+    private void performJob( BatchOperationResults results, URI baseUri, String method, String path, Object body,
+            Integer id ) throws IOException, ServletException
+    {
         // Replace {[ID]} placeholders with location values
         Map<Integer, String> locations = results.getLocations();
         path = replaceLocationPlaceholders( path, locations );
         body = replaceLocationPlaceholders( body, locations );
 
-        URI targetUri = calculateTargetUri( uriInfo, path );
+        URI targetUri = calculateTargetUri( baseUri, path );
+
+        String basePath = baseUri.getPath();
+        String targetPath = targetUri.getPath();
+        if ( targetPath != null && basePath != null && targetPath.startsWith( basePath ) )
+        {
+            String relativePath = "/" + targetPath.substring( basePath.length() );
+            if ( direct.perform( results, method, relativePath, path, body, id ) )
+            {
+                return;
+            }
+        }
+
+        InternalJettyServletRequest req = new InternalJettyServletRequest();
+        InternalJettyServletResponse res = new InternalJettyServletResponse();
 
-        req.setup( method, targetUri.toString(), body );
+        req.setup( method, targetUri.toString(), body == null ? "" : JsonHelper.createJsonFrom( body ) );
         res.setup();
 
         webServer.invokeDirectly( targetUri.getPath(), req, res );
@@ -164,10 +251,8 @@ public class BatchOperationService
         }
     }
 
-    private URI calculateTargetUri( UriInfo serverUriInfo, String requestedPath )
+    private URI calculateTargetUri( URI baseUri, String requestedPath )
     {
-        URI baseUri = serverUriInfo.getBaseUri();
-
         if ( requestedPath.startsWith( baseUri.toString() ) )
         {
             requestedPath = requestedPath.substring( baseUri.toString()
@@ -182,15 +267,71 @@ public class BatchOperationService
         return baseUri.resolve( "." + requestedPath );
     }
 
-    private String replaceLocationPlaceholders( String str, Map<Integer, String> locations )
+    @SuppressWarnings( "unchecked" )
+    private Object replaceLocationPlaceholders( Object body, Map<Integer, String> locations )
+    {
+        if ( locations.isEmpty() )
+        {
+            return body;
+        }
+        if ( body instanceof String )
+        {
+            return replaceLocationPlaceholders( (String) body, locations );
+        }
+        if ( body instanceof Map<?, ?> )
+        {
+            Map<String, Object> replaced = new LinkedHashMap<String, Object>();
+            for ( Map.Entry<String, Object> entry : ( (Map<String, Object>) body ).entrySet() )
+            {
+                replaced.put( entry.getKey(), replaceLocationPlaceholders( entry.getValue(), locations ) );
+            }
+            return replaced;
+        }
+        if ( body instanceof List<?> )
+        {
+            List<Object> replaced = new ArrayList<Object>();
+            for ( Object item : (List<Object>) body )
+            {
+                replaced.add( replaceLocationPlaceholders( item, locations ) );
+            }
+            return replaced;
+        }
+        return body;
+    }
+
+    /*
+     * Single pass over the string, looking up each {[ID]} it finds. Anything
+     * that isn't a placeholder for a known job is left as it is.
+     */
+    static String replaceLocationPlaceholders( String str, Map<Integer, String> locations )
     {
-        // TODO: Potential memory-hog on big requests, write smarter
-        // implementation.
-        for ( Integer jobId : locations.keySet() )
+        int open = str.indexOf( '{' );
+        if ( open == -1 || locations.isEmpty() )
         {
-            str = str.replace( "{" + jobId + "}", locations.get( jobId ) );
+            return str;
+        }
+        StringBuilder result = new StringBuilder( str.length() );
+        int copied = 0;
+        for ( ; open != -1; open = str.indexOf( '{', open + 1 ) )
+        {
+            int close = open + 1;
+            while ( close < str.length() && Character.isDigit( str.charAt( close ) ) )
+            {
+                close++;
+            }
+            if ( close == open + 1 || close >= str.length() || str.charAt( close ) != '}' || close - open > 10 )
+            {
+                continue;
+            }
+            String location = locations.get( Integer.valueOf( str.substring( open + 1, close ) ) );
+            if ( location != null )
+            {
+                result.append( str, copied, open ).append( location );
+                copied = close + 1;
+                open = close;
+            }
         }
-        return str;
+        return result.append( str, copied, str.length() ).toString();
     }
 
     private boolean is2XXStatusCode( int statusCode )
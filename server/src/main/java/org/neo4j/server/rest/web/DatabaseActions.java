@@ -20,7 +20,6 @@
 package org.neo4j.server.rest.web;
 
 import java.lang.reflect.Array;
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
@@ -49,6 +48,7 @@ import org.neo4j.graphdb.index.ReadableIndex;
 import org.neo4j.graphdb.index.ReadableRelationshipIndex;
 import org.neo4j.graphdb.index.RelationshipIndex;
 import org.neo4j.graphdb.traversal.TraversalDescription;
+import org.neo4j.helpers.collection.FilteringIterable;
 import org.neo4j.helpers.collection.IterableWrapper;
 import org.neo4j.kernel.AbstractGraphDatabase;
 import org.neo4j.kernel.Traversal;
@@ -66,7 +66,6 @@ import org.neo4j.server.rest.repr.DatabaseRepresentation;
 import org.neo4j.server.rest.repr.IndexRepresentation;
 import org.neo4j.server.rest.repr.IndexedEntityRepresentation;
 import org.neo4j.server.rest.repr.ListRepresentation;
-import org.neo4j.server.rest.repr.MappingRepresentation;
 import org.neo4j.server.rest.repr.NodeIndexRepresentation;
 import org.neo4j.server.rest.repr.NodeIndexRootRepresentation;
 import org.neo4j.server.rest.repr.NodeRepresentation;
@@ -854,7 +853,6 @@ public class DatabaseActions
         if ( !graphDb.index().existsForNodes( indexName ) )
             throw new NotFoundException();
         Index<Node> index = graphDb.index().forNodes( indexName );
-        List<IndexedEntityRepresentation> representations = new ArrayList<IndexedEntityRepresentation>();
 
         Transaction tx = graphDb.beginTx();
         try
@@ -862,14 +860,9 @@ public class DatabaseActions
             IndexRepresentation indexRepresentation = new NodeIndexRepresentation(
                     indexName );
             IndexHits<Node> indexHits = index.get( key, value );
-            for ( Node node : indexHits )
-            {
-                representations.add( new IndexedEntityRepresentation( node,
-                        key, value, indexRepresentation ) );
-            }
             tx.success();
             return new ListRepresentation( RepresentationType.NODE,
-                    representations );
+                    indexedNodeRepresentations( indexHits, key, value, indexRepresentation ) );
         }
         finally
         {
@@ -889,21 +882,14 @@ public class DatabaseActions
         if ( !graphDb.index().existsForNodes( indexName ) )
             throw new NotFoundException();
         Index<Node> index = graphDb.index().forNodes( indexName );
-        List<Representation> representations = new ArrayList<Representation>();
 
         Transaction tx = graphDb.beginTx();
         try
         {
-            if ( query != null )
-            {
-                for ( Node node : index.query( key, query ) )
-                {
-                    representations.add( new NodeRepresentation( node ) );
-                }
-            }
+            Iterable<Node> nodes = query != null ? index.query( key, query ) : Collections.<Node>emptyList();
             tx.success();
             return new ListRepresentation( RepresentationType.NODE,
-                    representations );
+                    nodeRepresentations( nodes ) );
         }
         finally
         {
@@ -913,20 +899,15 @@ public class DatabaseActions
 
     public Representation getAutoIndexedNodes( String key, String value )
     {
-
-        List<Representation> representations = new ArrayList<Representation>();
         ReadableIndex<Node> index = graphDb.index().getNodeAutoIndexer().getAutoIndex();
 
         Transaction tx = graphDb.beginTx();
         try
         {
-            for ( Node node : index.get( key, value ) )
-            {
-                representations.add( new NodeRepresentation( node ) );
-            }
+            IndexHits<Node> nodes = index.get( key, value );
             tx.success();
             return new ListRepresentation( RepresentationType.NODE,
-                    representations );
+                    nodeRepresentations( nodes ) );
         }
         finally
         {
@@ -937,17 +918,14 @@ public class DatabaseActions
     public ListRepresentation getAutoIndexedNodesByQuery( String query )
     {
         ReadableIndex<Node> index = graphDb.index().getNodeAutoIndexer().getAutoIndex();
-        List<Representation> representations = new ArrayList<Representation>();
+        Iterable<Node> nodes = Collections.emptyList();
 
         if ( query != null )
         {
             Transaction tx = graphDb.beginTx();
             try
             {
-                for ( Node node : index.query( query ) )
-                {
-                    representations.add( new NodeRepresentation( node ) );
-                }
+                nodes = index.query( query );
                 tx.success();
             }
             finally
@@ -955,7 +933,7 @@ public class DatabaseActions
                 tx.finish();
             }
         }
-        return new ListRepresentation( RepresentationType.NODE, representations );
+        return new ListRepresentation( RepresentationType.NODE, nodeRepresentations( nodes ) );
     }
 
     public ListRepresentation getIndexedRelationships( String indexName,
@@ -963,7 +941,6 @@ public class DatabaseActions
     {
         if ( !graphDb.index().existsForRelationships( indexName ) )
             throw new NotFoundException();
-        List<IndexedEntityRepresentation> representations = new ArrayList<IndexedEntityRepresentation>();
         Index<Relationship> index = graphDb.index().forRelationships( indexName );
 
         Transaction tx = graphDb.beginTx();
@@ -971,14 +948,10 @@ public class DatabaseActions
         {
             IndexRepresentation indexRepresentation = new RelationshipIndexRepresentation(
                     indexName );
-            for ( Relationship node : index.get( key, value ) )
-            {
-                representations.add( new IndexedEntityRepresentation( node,
-                        key, value, indexRepresentation ) );
-            }
+            IndexHits<Relationship> indexHits = index.get( key, value );
             tx.success();
             return new ListRepresentation( RepresentationType.RELATIONSHIP,
-                    representations );
+                    indexedRelationshipRepresentations( indexHits, key, value, indexRepresentation ) );
         }
         finally
         {
@@ -997,19 +970,15 @@ public class DatabaseActions
     {
         if ( !graphDb.index().existsForRelationships( indexName ) )
             throw new NotFoundException();
-        List<Representation> representations = new ArrayList<Representation>();
         Index<Relationship> index = graphDb.index().forRelationships( indexName );
 
         Transaction tx = graphDb.beginTx();
         try
         {
-            for ( Relationship rel : index.query( key, query ) )
-            {
-                representations.add( new RelationshipRepresentation( rel ) );
-            }
+            IndexHits<Relationship> relationships = index.query( key, query );
             tx.success();
             return new ListRepresentation( RepresentationType.RELATIONSHIP,
-                    representations );
+                    relationshipRepresentations( relationships ) );
         }
         finally
         {
@@ -1019,20 +988,15 @@ public class DatabaseActions
 
     public Representation getAutoIndexedRelationships( String key, String value )
     {
-
-        List<Representation> representations = new ArrayList<Representation>();
         ReadableRelationshipIndex index = graphDb.index().getRelationshipAutoIndexer().getAutoIndex();
 
         Transaction tx = graphDb.beginTx();
         try
         {
-            for ( Relationship rel : index.get( key, value ) )
-            {
-                representations.add( new RelationshipRepresentation( rel ) );
-            }
+            IndexHits<Relationship> relationships = index.get( key, value );
             tx.success();
             return new ListRepresentation( RepresentationType.RELATIONSHIP,
-                    representations );
+                    relationshipRepresentations( relationships ) );
         }
         finally
         {
@@ -1043,17 +1007,14 @@ public class DatabaseActions
     public ListRepresentation getAutoIndexedRelationshipsByQuery( String query )
     {
         ReadableRelationshipIndex index = graphDb.index().getRelationshipAutoIndexer().getAutoIndex();
-        List<Representation> representations = new ArrayList<Representation>();
+        Iterable<Relationship> relationships = Collections.emptyList();
 
         if ( query != null )
         {
             Transaction tx = graphDb.beginTx();
             try
             {
-                for ( Relationship rel : index.query( query ) )
-                {
-                    representations.add( new RelationshipRepresentation( rel ) );
-                }
+                relationships = index.query( query );
                 tx.success();
             }
             finally
@@ -1062,29 +1023,87 @@ public class DatabaseActions
             }
         }
         return new ListRepresentation( RepresentationType.RELATIONSHIP,
-                representations );
+                relationshipRepresentations( relationships ) );
     }
 
-    // Traversal
+    /*
+     * The representations of index hits and traversals are created as the
+     * response is written, so that a streaming format can send each one as
+     * soon as it's found, without keeping the whole result in memory.
+     */
+    private static Iterable<Representation> nodeRepresentations( Iterable<Node> nodes )
+    {
+        return new IterableWrapper<Representation, Node>( nodes )
+        {
+            @Override
+            protected Representation underlyingObjectToObject( Node node )
+            {
+                return new NodeRepresentation( node );
+            }
+        };
+    }
 
-    public ListRepresentation traverse( long startNode,
-            Map<String, Object> description, TraverserReturnType returnType )
+    private static Iterable<Representation> relationshipRepresentations( Iterable<Relationship> relationships )
     {
-        Node node = graphDb.getNodeById( startNode );
+        return new IterableWrapper<Representation, Relationship>( relationships )
+        {
+            @Override
+            protected Representation underlyingObjectToObject( Relationship relationship )
+            {
+                return new RelationshipRepresentation( relationship );
+            }
+        };
+    }
 
-        List<Representation> result = new ArrayList<Representation>();
+    private static Iterable<Representation> indexedNodeRepresentations( Iterable<Node> nodes,
+            final String key, final String value, final IndexRepresentation indexRepresentation )
+    {
+        return new IterableWrapper<Representation, Node>( nodes )
+        {
+            @Override
+            protected Representation underlyingObjectToObject( Node node )
+            {
+                return new IndexedEntityRepresentation( node, key, value, indexRepresentation );
+            }
+        };
+    }
 
-        TraversalDescription traversalDescription = TraversalDescriptionBuilder.from( description );
-        for ( Path position : traversalDescription.traverse( node ) )
+    private static Iterable<Representation> indexedRelationshipRepresentations( Iterable<Relationship> relationships,
+            final String key, final String value, final IndexRepresentation indexRepresentation )
+    {
+        return new IterableWrapper<Representation, Relationship>( relationships )
         {
-            MappingRepresentation representation = returnType.toRepresentation( position );
-            if ( representation != null )
+            @Override
+            protected Representation underlyingObjectToObject( Relationship relationship )
             {
-                result.add( representation );
+                return new IndexedEntityRepresentation( relationship, key, value, indexRepresentation );
             }
-        }
+        };
+    }
 
-        return new ListRepresentation( returnType.repType, result );
+    private static Iterable<Representation> pathRepresentations( Iterable<Path> paths,
+            final TraverserReturnType returnType )
+    {
+        return FilteringIterable.notNull( new IterableWrapper<Representation, Path>( paths )
+        {
+            @Override
+            protected Representation underlyingObjectToObject( Path path )
+            {
+                return returnType.toRepresentation( path );
+            }
+        } );
+    }
+
+    // Traversal
+
+    public ListRepresentation traverse( long startNode,
+            Map<String, Object> description, TraverserReturnType returnType )
+    {
+        Node node = graphDb.getNodeById( startNode );
+
+        TraversalDescription traversalDescription = TraversalDescriptionBuilder.from( description );
+        return new ListRepresentation( returnType.repType,
+                pathRepresentations( traversalDescription.traverse( node ), returnType ) );
     }
 
     public ListRepresentation pagedTraverse( String traverserId,
@@ -1100,16 +1119,7 @@ public class DatabaseActions
         PagedTraverser traverser = lease.getLeasedItemAndRenewLease();
         List<Path> paths = traverser.next();
 
-        List<Representation> result = new ArrayList<Representation>();
-
-        if ( paths != null )
-        {
-            for ( Path p : paths )
-            {
-                result.add( returnType.toRepresentation( p ) );
-            }
-        }
-        else
+        if ( paths == null )
         {
             leases.remove( traverserId );
             // Yuck.
@@ -1119,7 +1129,7 @@ public class DatabaseActions
                             traverserId ) );
         }
 
-        return new ListRepresentation( returnType.repType, result );
+        return new ListRepresentation( returnType.repType, pathRepresentations( paths, returnType ) );
     }
 
     public String createPagedTraverser( long nodeId,
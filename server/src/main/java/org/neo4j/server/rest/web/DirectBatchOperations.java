@@ -0,0 +1,234 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.server.rest.web;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.neo4j.server.rest.domain.BatchOperationFailedException;
+import org.neo4j.server.rest.domain.EndNodeNotFoundException;
+import org.neo4j.server.rest.domain.JsonHelper;
+import org.neo4j.server.rest.domain.StartNodeNotFoundException;
+import org.neo4j.server.rest.repr.BadInputException;
+import org.neo4j.server.rest.repr.BatchOperationResults;
+import org.neo4j.server.rest.repr.EntityRepresentation;
+import org.neo4j.server.rest.repr.ExceptionRepresentation;
+import org.neo4j.server.rest.repr.OutputFormat;
+import org.neo4j.server.rest.repr.Representation;
+
+/**
+ * Performs the most common batch operations - creating nodes and
+ * relationships, setting properties and adding to indexes - by calling
+ * {@link DatabaseActions} directly, instead of dispatching them as internal
+ * HTTP requests. Status codes and error bodies are the same as those of the
+ * corresponding {@link RestfulGraphDatabase} resources.
+ */
+public class DirectBatchOperations
+{
+    private static final String POST = "POST";
+    private static final String PUT = "PUT";
+
+    private static final Pattern NODES = Pattern.compile( "/node/?" );
+    private static final Pattern NODE_RELATIONSHIPS = Pattern.compile( "/node/(\\d+)/relationships/?" );
+    private static final Pattern NODE_PROPERTIES = Pattern.compile( "/node/(\\d+)/properties/?" );
+    private static final Pattern NODE_PROPERTY = Pattern.compile( "/node/(\\d+)/properties/([^/]+)" );
+    private static final Pattern RELATIONSHIP_PROPERTIES = Pattern.compile( "/relationship/(\\d+)/properties/?" );
+    private static final Pattern RELATIONSHIP_PROPERTY = Pattern.compile( "/relationship/(\\d+)/properties/([^/]+)" );
+    private static final Pattern NODE_INDEX = Pattern.compile( "/index/node/([^/]+)" );
+    private static final Pattern RELATIONSHIP_INDEX = Pattern.compile( "/index/relationship/([^/]+)" );
+
+    private final DatabaseActions actions;
+    private final OutputFormat output;
+
+    public DirectBatchOperations( DatabaseActions actions, OutputFormat output )
+    {
+        this.actions = actions;
+        this.output = output;
+    }
+
+    /**
+     * Performs the operation if it is one of those handled here, and adds its
+     * result.
+     * 
+     * @param path the path of the operation relative to the data API root,
+     *            with any escapes decoded.
+     * @param body the parsed body of the operation, or null if there was
+     *            none.
+     * @return false if the operation has to be dispatched over HTTP.
+     * @throws BatchOperationFailedException if the operation did not succeed.
+     */
+    public boolean perform( BatchOperationResults results, String method, String path, String from, Object body,
+            Integer id ) throws IOException
+    {
+        Matcher matcher;
+        try
+        {
+            if ( POST.equals( method ) )
+            {
+                if ( NODES.matcher( path ).matches() )
+                {
+                    created( results, from, id, actions.createNode( map( body ) ) );
+                }
+                else if ( ( matcher = NODE_RELATIONSHIPS.matcher( path ) ).matches() )
+                {
+                    createRelationship( results, from, id, Long.parseLong( matcher.group( 1 ) ), body );
+                }
+                else if ( ( matcher = NODE_INDEX.matcher( path ) ).matches() )
+                {
+                    Map<String, Object> entity = map( body );
+                    created( results, from, id, actions.addToNodeIndex( matcher.group( 1 ),
+                            String.valueOf( entity.get( "key" ) ), String.valueOf( entity.get( "value" ) ),
+                            extractId( entity.get( "uri" ) ) ) );
+                }
+                else if ( ( matcher = RELATIONSHIP_INDEX.matcher( path ) ).matches() )
+                {
+                    Map<String, Object> entity = map( body );
+                    created( results, from, id, actions.addToRelationshipIndex( matcher.group( 1 ),
+                            String.valueOf( entity.get( "key" ) ), String.valueOf( entity.get( "value" ) ),
+                            extractId( entity.get( "uri" ) ) ) );
+                }
+                else
+                {
+                    return false;
+                }
+            }
+            else if ( PUT.equals( method ) )
+            {
+                if ( ( matcher = NODE_PROPERTIES.matcher( path ) ).matches() )
+                {
+                    actions.setAllNodeProperties( Long.parseLong( matcher.group( 1 ) ), map( body ) );
+                }
+                else if ( ( matcher = NODE_PROPERTY.matcher( path ) ).matches() )
+                {
+                    actions.setNodeProperty( Long.parseLong( matcher.group( 1 ) ), matcher.group( 2 ),
+                            JsonHelper.toSingleValue( body ) );
+                }
+                else if ( ( matcher = RELATIONSHIP_PROPERTIES.matcher( path ) ).matches() )
+                {
+                    actions.setAllRelationshipProperties( Long.parseLong( matcher.group( 1 ) ), map( body ) );
+                }
+                else if ( ( matcher = RELATIONSHIP_PROPERTY.matcher( path ) ).matches() )
+                {
+                    actions.setRelationshipProperty( Long.parseLong( matcher.group( 1 ) ), matcher.group( 2 ),
+                            JsonHelper.toSingleValue( body ) );
+                }
+                else
+                {
+                    return false;
+                }
+                results.addOperationResult( from, id, null, null );
+            }
+            else
+            {
+                return false;
+            }
+            return true;
+        }
+        catch ( NumberFormatException e )
+        {
+            // Ids too large for a long, let the resource report it
+            return false;
+        }
+        catch ( ArrayStoreException e )
+        {
+            throw new BatchOperationFailedException( 400, "Invalid JSON array in POST body: "
+                                                          + JsonHelper.createJsonFrom( body ) );
+        }
+        catch ( BadInputException e )
+        {
+            throw failure( 400, e );
+        }
+        catch ( ClassCastException e )
+        {
+            throw failure( 400, e );
+        }
+        catch ( NodeNotFoundException e )
+        {
+            throw failure( 404, e );
+        }
+        catch ( RelationshipNotFoundException e )
+        {
+            throw failure( 404, e );
+        }
+        catch ( UnsupportedOperationException e )
+        {
+            throw failure( 405, e );
+        }
+    }
+
+    private void createRelationship( BatchOperationResults results, String from, Integer id, long startNodeId,
+            Object body ) throws IOException, BadInputException
+    {
+        Map<String, Object> data = map( body );
+        @SuppressWarnings( "unchecked" )
+        Map<String, Object> properties = (Map<String, Object>) data.get( "data" );
+        long endNodeId = extractId( data.get( "to" ) );
+        try
+        {
+            created( results, from, id, actions.createRelationship( startNodeId, endNodeId,
+                    (String) data.get( "type" ), properties ) );
+        }
+        catch ( StartNodeNotFoundException e )
+        {
+            throw failure( 404, e );
+        }
+        catch ( EndNodeNotFoundException e )
+        {
+            throw failure( 400, e );
+        }
+    }
+
+    private <REPR extends Representation & EntityRepresentation> void created( BatchOperationResults results,
+            String from, Integer id, REPR representation ) throws IOException
+    {
+        results.addOperationResult( from, id, output.format( representation ),
+                output.format( representation.selfUri() ) );
+    }
+
+    @SuppressWarnings( "unchecked" )
+    private static Map<String, Object> map( Object body ) throws BadInputException
+    {
+        if ( body == null ) return Collections.emptyMap();
+        if ( body instanceof Map<?, ?> ) return (Map<String, Object>) body;
+        throw new BadInputException( "Expected a map of properties, got " + JsonHelper.createJsonFrom( body ) );
+    }
+
+    private static long extractId( Object uri ) throws BadInputException
+    {
+        if ( uri == null ) throw new BadInputException( "No uri given" );
+        String string = uri.toString();
+        try
+        {
+            return Long.parseLong( string.substring( string.lastIndexOf( "/" ) + 1 ) );
+        }
+        catch ( NumberFormatException e )
+        {
+            throw new BadInputException( e );
+        }
+    }
+
+    private BatchOperationFailedException failure( int status, Throwable cause )
+    {
+        return new BatchOperationFailedException( status, output.format( new ExceptionRepresentation( cause ) ) );
+    }
+}
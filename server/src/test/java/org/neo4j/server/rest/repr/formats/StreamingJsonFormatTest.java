@@ -0,0 +1,114 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.server.rest.repr.formats;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Map;
+
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.helpers.collection.MapUtil;
+import org.neo4j.server.rest.domain.JsonHelper;
+import org.neo4j.server.rest.repr.ListRepresentation;
+import org.neo4j.server.rest.repr.MappingRepresentation;
+import org.neo4j.server.rest.repr.MappingSerializer;
+import org.neo4j.server.rest.repr.OutputFormat;
+import org.neo4j.server.rest.repr.ValueRepresentation;
+
+public class StreamingJsonFormatTest
+{
+    private OutputFormat json;
+
+    @Before
+    public void createOutputFormat() throws Exception
+    {
+        json = new OutputFormat( new StreamingJsonFormat(), new URI( "http://localhost/" ), null );
+    }
+
+    @Test
+    public void canFormatString() throws Exception
+    {
+        String entity = json.format( ValueRepresentation.string( "expected value" ) );
+        assertEquals( "\"expected value\"", entity );
+    }
+
+    @Test
+    public void canFormatListOfStrings() throws Exception
+    {
+        String entity = json.format( ListRepresentation.strings( "hello", "world" ) );
+        assertEquals( Arrays.asList( "hello", "world" ), JsonHelper.readJson( entity ) );
+    }
+
+    @Test
+    public void canFormatInteger() throws Exception
+    {
+        String entity = json.format( ValueRepresentation.number( 10 ) );
+        assertEquals( "10", entity );
+    }
+
+    @Test
+    public void canFormatNestedMapping() throws Exception
+    {
+        String entity = json.format( new MappingRepresentation( "string" )
+        {
+            @Override
+            protected void serialize( MappingSerializer serializer )
+            {
+                serializer.putString( "key", "expected string" );
+                serializer.putNumber( "number", 42 );
+                serializer.putList( "list", ListRepresentation.strings( "a", "b" ) );
+            }
+        } );
+        Map<String, Object> map = JsonHelper.jsonToMap( entity );
+        assertEquals( "expected string", map.get( "key" ) );
+        assertEquals( 42, map.get( "number" ) );
+        assertEquals( Arrays.asList( "a", "b" ), map.get( "list" ) );
+    }
+
+    @Test
+    public void shouldWriteEntityToResponseStream() throws Exception
+    {
+        Response response = json.ok( new MappingRepresentation( "string" )
+        {
+            @Override
+            protected void serialize( MappingSerializer serializer )
+            {
+                serializer.putString( "key", "expected string" );
+            }
+        } );
+        assertTrue( response.getEntity() instanceof StreamingOutput );
+        assertNull( response.getMetadata().getFirst( HttpHeaders.CONTENT_LENGTH ) );
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ( (StreamingOutput) response.getEntity() ).write( output );
+        assertEquals( MapUtil.stringMap( "key", "expected string" ),
+                JsonHelper.jsonToMap( output.toString( "UTF-8" ) ) );
+    }
+}
@@ -0,0 +1,53 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.server.rest.web;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.Test;
+import org.neo4j.helpers.collection.MapUtil;
+
+public class BatchOperationServiceTest
+{
+    private final Map<Integer, String> locations = MapUtil.genericMap( 0, "http://localhost/node/3", 12,
+            "http://localhost/node/4" );
+
+    @Test
+    public void shouldReplaceKnownPlaceholders()
+    {
+        assertEquals( "http://localhost/node/3/relationships",
+                BatchOperationService.replaceLocationPlaceholders( "{0}/relationships", locations ) );
+        assertEquals( "from http://localhost/node/3 to http://localhost/node/4",
+                BatchOperationService.replaceLocationPlaceholders( "from {0} to {12}", locations ) );
+    }
+
+    @Test
+    public void shouldLeaveEverythingElseAlone()
+    {
+        assertEquals( "{1}{}{a}{0", BatchOperationService.replaceLocationPlaceholders( "{1}{}{a}{0", locations ) );
+        assertEquals( "{http://localhost/node/3}",
+                BatchOperationService.replaceLocationPlaceholders( "{{0}}", locations ) );
+        assertEquals( "{0}", BatchOperationService.replaceLocationPlaceholders( "{0}",
+                Collections.<Integer, String>emptyMap() ) );
+    }
+}
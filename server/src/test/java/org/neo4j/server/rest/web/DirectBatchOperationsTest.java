@@ -0,0 +1,196 @@
+/**
+ * Copyright (c) 2002-2011 "Neo Technology,"
+ * Network Engine for Objects in Lund AB [http://neotechnology.com]
+ *
+ * This file is part of Neo4j.
+ *
+ * Neo4j is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.neo4j.server.rest.web;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.neo4j.helpers.collection.MapUtil;
+import org.neo4j.server.ServerTestUtils;
+import org.neo4j.server.database.Database;
+import org.neo4j.server.rest.domain.BatchOperationFailedException;
+import org.neo4j.server.rest.domain.GraphDbHelper;
+import org.neo4j.server.rest.domain.JsonHelper;
+import org.neo4j.server.rest.paging.FakeClock;
+import org.neo4j.server.rest.paging.LeaseManager;
+import org.neo4j.server.rest.repr.BatchOperationResults;
+import org.neo4j.server.rest.repr.OutputFormat;
+import org.neo4j.server.rest.repr.formats.JsonFormat;
+
+public class DirectBatchOperationsTest
+{
+    private static final String BASE_URI = "http://neo4j.org/";
+    private static Database database;
+    private static GraphDbHelper helper;
+    private static String databasePath;
+    private static DirectBatchOperations operations;
+
+    @BeforeClass
+    public static void doBefore() throws IOException
+    {
+        databasePath = ServerTestUtils.createTempDir()
+                .getAbsolutePath();
+        database = new Database( ServerTestUtils.EMBEDDED_GRAPH_DATABASE_FACTORY, databasePath );
+        helper = new GraphDbHelper( database );
+        operations = new DirectBatchOperations( new DatabaseActions( database, new LeaseManager( new FakeClock() ) ),
+                new OutputFormat( new JsonFormat(), URI.create( BASE_URI ), null ) );
+    }
+
+    @AfterClass
+    public static void shutdownDatabase() throws IOException
+    {
+        database.shutdown();
+        org.apache.commons.io.FileUtils.forceDelete( new File( databasePath ) );
+    }
+
+    @Test
+    public void shouldCreateNodeAndReportItsLocation() throws Exception
+    {
+        BatchOperationResults results = new BatchOperationResults();
+        int nodesBefore = helper.getNumberOfNodes();
+
+        assertTrue( operations.perform( results, "POST", "/node", "/node", MapUtil.map( "name", "bob" ), 1 ) );
+
+        assertEquals( nodesBefore + 1, helper.getNumberOfNodes() );
+        Map<String, Object> result = single( results );
+        assertEquals( 1, result.get( "id" ) );
+        assertEquals( "/node", result.get( "from" ) );
+        String location = (String) result.get( "location" );
+        assertTrue( location.startsWith( BASE_URI + "node/" ) );
+        assertEquals( location, results.getLocations().get( 1 ) );
+        Map<?, ?> data = (Map<?, ?>) ( (Map<?, ?>) result.get( "body" ) ).get( "data" );
+        assertEquals( "bob", data.get( "name" ) );
+    }
+
+    @Test
+    public void shouldCreateRelationshipToNodeGivenByUri() throws Exception
+    {
+        long start = helper.createNode();
+        long end = helper.createNode();
+        BatchOperationResults results = new BatchOperationResults();
+
+        assertTrue( operations.perform( results, "POST", "/node/" + start + "/relationships", "/node/" + start
+                                                                                          + "/relationships",
+                MapUtil.map( "to", BASE_URI + "node/" + end, "type", "KNOWS", "data", MapUtil.map( "since", 2010 ) ),
+                null ) );
+
+        Map<String, Object> result = single( results );
+        String location = (String) result.get( "location" );
+        long relationshipId = Long.parseLong( location.substring( location.lastIndexOf( '/' ) + 1 ) );
+        assertEquals( end, helper.getRelationship( relationshipId )
+                .getEndNode()
+                .getId() );
+        assertEquals( 2010, helper.getRelationshipProperties( relationshipId )
+                .get( "since" ) );
+    }
+
+    @Test
+    public void shouldSetPropertiesWithoutResponseBody() throws Exception
+    {
+        long node = helper.createNode();
+        BatchOperationResults results = new BatchOperationResults();
+
+        assertTrue( operations.perform( results, "PUT", "/node/" + node + "/properties", "/node/" + node
+                                                                                         + "/properties",
+                MapUtil.map( "age", 1 ), 0 ) );
+        assertTrue( operations.perform( results, "PUT", "/node/" + node + "/properties/name", "/node/" + node
+                                                                                              + "/properties/name",
+                "joe", 1 ) );
+
+        assertEquals( MapUtil.map( "age", 1, "name", "joe" ), helper.getNodeProperties( node ) );
+        List<Map<String, Object>> list = JsonHelper.jsonToList( results.toJSON() );
+        assertEquals( 2, list.size() );
+        assertFalse( list.get( 0 )
+                .containsKey( "body" ) );
+    }
+
+    @Test
+    public void shouldAddToNodeIndex() throws Exception
+    {
+        long node = helper.createNode();
+        BatchOperationResults results = new BatchOperationResults();
+
+        assertTrue( operations.perform( results, "POST", "/index/node/people", "/index/node/people",
+                MapUtil.map( "key", "name", "value", "joe", "uri", BASE_URI + "node/" + node ), null ) );
+
+        assertEquals( 1, helper.getIndexedNodes( "people", "name", "joe" )
+                .size() );
+    }
+
+    @Test
+    public void shouldReportMissingNodeAsNotFound() throws Exception
+    {
+        try
+        {
+            operations.perform( new BatchOperationResults(), "PUT", "/node/999999/properties",
+                    "/node/999999/properties", MapUtil.map( "age", 1 ), null );
+            fail( "Expected the operation to fail" );
+        }
+        catch ( BatchOperationFailedException e )
+        {
+            assertEquals( 404, e.getStatus() );
+        }
+    }
+
+    @Test
+    public void shouldReportMixedArraysLikeTheRestApi() throws Exception
+    {
+        try
+        {
+            operations.perform( new BatchOperationResults(), "POST", "/node", "/node",
+                    MapUtil.map( "age", java.util.Arrays.asList( true, "hello" ) ), null );
+            fail( "Expected the operation to fail" );
+        }
+        catch ( BatchOperationFailedException e )
+        {
+            assertEquals( 400, e.getStatus() );
+            assertTrue( e.getMessage()
+                    .startsWith( "Invalid JSON array in POST body" ) );
+        }
+    }
+
+    @Test
+    public void shouldLeaveOtherOperationsToHttp() throws Exception
+    {
+        BatchOperationResults results = new BatchOperationResults();
+        assertFalse( operations.perform( results, "GET", "/node/0", "/node/0", null, null ) );
+        assertFalse( operations.perform( results, "DELETE", "/node/0", "/node/0", null, null ) );
+        assertFalse( operations.perform( results, "POST", "/index/node", "/index/node", null, null ) );
+        assertEquals( "[]", results.toJSON() );
+    }
+
+    private static Map<String, Object> single( BatchOperationResults results ) throws Exception
+    {
+        List<Map<String, Object>> list = JsonHelper.jsonToList( results.toJSON() );
+        assertEquals( 1, list.size() );
+        return list.get( 0 );
+    }
+}